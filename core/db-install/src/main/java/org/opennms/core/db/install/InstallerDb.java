@@ -48,6 +48,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -61,6 +62,7 @@ import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
 
+import org.opennms.core.db.TimePartitioning;
 import org.opennms.core.db.install.columnchanges.AutoIntegerReplacement;
 import org.opennms.core.db.install.columnchanges.DoNotAddColumnReplacement;
 import org.opennms.core.db.install.columnchanges.EventSourceReplacement;
@@ -2230,6 +2232,91 @@ public class InstallerDb {
     }
 
 
+    /**
+     * Prepares a table for time-partitioned storage. Foreign keys that
+     * reference the parent table are dropped since PostgreSQL cannot
+     * enforce them against rows stored in the child tables; their ON DELETE
+     * CASCADE is replaced by a delete trigger on the parent and on every
+     * child. The children for the current and the next interval are created
+     * ahead of the first writer. {@link #removeTimePartitioning} undoes this.
+     *
+     * @param partitioning the partitioning of the table
+     * @throws java.sql.SQLException if any.
+     */
+    public void setupTimePartitioning(final TimePartitioning partitioning) throws SQLException {
+        m_out.println("- setting up " + partitioning + "...");
+
+        Statement st = null;
+        ResultSet rs = null;
+        try {
+            st = getConnection().createStatement();
+
+            rs = st.executeQuery("SHOW constraint_exclusion");
+            if (rs.next() && "off".equalsIgnoreCase(rs.getString(1))) {
+                m_out.println("  - WARNING: constraint_exclusion is off, queries will scan every partition");
+            }
+            rs.close();
+
+            final List<String[]> foreignKeys = new ArrayList<String[]>();
+            rs = st.executeQuery("SELECT c.relname, con.conname FROM pg_constraint con JOIN pg_class c ON c.oid = con.conrelid JOIN pg_class f ON f.oid = con.confrelid "
+                                 + "WHERE con.contype = 'f' AND f.relname = '" + partitioning.getTable() + "' AND pg_table_is_visible(f.oid)");
+            while (rs.next()) {
+                foreignKeys.add(new String[] { rs.getString(1), rs.getString(2) });
+            }
+            for (final String[] foreignKey : foreignKeys) {
+                if (!isKnownReference(partitioning, foreignKey[0], foreignKey[1])) {
+                    m_out.println("  - WARNING: foreign key " + foreignKey[1] + " on " + foreignKey[0] + " is not cascaded by the delete trigger");
+                }
+                m_out.print("  - dropping foreign key " + foreignKey[1] + " on " + foreignKey[0] + "... ");
+                st.execute("ALTER TABLE " + foreignKey[0] + " DROP CONSTRAINT " + foreignKey[1]);
+                m_out.println("DROPPED");
+            }
+        } finally {
+            if (rs != null) {
+                rs.close();
+            }
+            closeQuietly(st);
+        }
+
+        m_out.print("  - installing delete trigger on " + partitioning.getTable() + "... ");
+        partitioning.installCascade(getConnection());
+        m_out.println("OK");
+
+        final Date now = new Date();
+        final Date next = partitioning.getInterval().getNext(partitioning.getInterval().getStart(now));
+        for (final Date time : new Date[] { now, next }) {
+            m_out.println("  - partition " + partitioning.ensurePartition(getConnection(), time) + "... OK");
+        }
+        m_out.println("- setting up " + partitioning + "... DONE");
+    }
+
+    private static boolean isKnownReference(final TimePartitioning partitioning, final String table, final String constraint) {
+        for (final TimePartitioning.Reference reference : partitioning.getReferences()) {
+            if (reference.getTable().equalsIgnoreCase(table) && reference.getConstraint().equalsIgnoreCase(constraint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Undoes {@link #setupTimePartitioning}: moves the rows of the child
+     * tables back into the parent, drops the children and the delete
+     * trigger, and restores the foreign keys. Does nothing if the table has
+     * never been partitioned.
+     *
+     * @param partitioning the table, without an interval
+     * @throws java.sql.SQLException if any.
+     */
+    public void removeTimePartitioning(final TimePartitioning partitioning) throws SQLException {
+        if (partitioning.getPartitions(getConnection()).isEmpty() && !partitioning.isCascadeInstalled(getConnection())) {
+            return;
+        }
+        m_out.print("- removing partitions of " + partitioning.getTable() + "... ");
+        final int merged = partitioning.unpartition(getConnection());
+        m_out.println("MERGED " + merged);
+    }
+
     /**
      * <p>checkIndexUniqueness</p>
      *
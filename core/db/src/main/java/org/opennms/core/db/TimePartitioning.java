@@ -0,0 +1,707 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits a table into child tables that each hold one day or one week of
+ * rows, using PostgreSQL table inheritance.
+ *
+ * <p>Every child carries a CHECK constraint on the time column, so with
+ * <code>constraint_exclusion</code> at its default of <code>partition</code>
+ * PostgreSQL skips the children outside the time range of a query on the
+ * parent table. Writers insert into {@link #getPartitionName(Date)} directly
+ * rather than through a trigger on the parent, and old rows are removed by
+ * dropping whole children instead of deleting them row by row.</p>
+ *
+ * <p>Children are named <code>&lt;table&gt;_yyyyMMdd</code> after the local
+ * day their range starts on, and get a copy of every index and foreign key
+ * on the parent. Children are only created for times within a window around
+ * the current time, so that a bogus time like 1970 does not create a child
+ * of its own; rows outside the window go into the parent table.</p>
+ *
+ * <p>PostgreSQL only enforces a foreign key against the rows of the table it
+ * names, so the foreign keys referencing the parent (its {@link Reference}s)
+ * cannot be kept once rows live in the children. Their ON DELETE CASCADE is
+ * replaced by a trigger on the parent and on every child, and by deleting
+ * the referencing rows before a child is dropped. {@link #unpartition}
+ * moves the rows back into the parent and restores the foreign keys.</p>
+ */
+public class TimePartitioning {
+    private static final Logger LOG = LoggerFactory.getLogger(TimePartitioning.class);
+
+    /** How much time each child table covers */
+    public static enum Interval {
+        DAILY(Calendar.DAY_OF_MONTH, 1),
+        WEEKLY(Calendar.DAY_OF_MONTH, 7);
+
+        private final int m_field;
+        private final int m_amount;
+
+        private Interval(final int field, final int amount) {
+            m_field = field;
+            m_amount = amount;
+        }
+
+        /**
+         * Returns the start of the interval containing <code>time</code>:
+         * local midnight, or local midnight of the Monday for weekly
+         * intervals.
+         */
+        public Date getStart(final Date time) {
+            final Calendar cal = Calendar.getInstance();
+            cal.setTime(time);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            if (this == WEEKLY) {
+                final int daysSinceMonday = (cal.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+                cal.add(Calendar.DAY_OF_MONTH, -daysSinceMonday);
+            }
+            return cal.getTime();
+        }
+
+        /**
+         * Returns the start of the interval following the one that starts at
+         * <code>start</code>.
+         */
+        public Date getNext(final Date start) {
+            final Calendar cal = Calendar.getInstance();
+            cal.setTime(start);
+            cal.add(m_field, m_amount);
+            return cal.getTime();
+        }
+
+        public static Interval getInterval(final String name) {
+            if (name != null) {
+                for (final Interval interval : values()) {
+                    if (interval.name().equalsIgnoreCase(name.trim())) {
+                        return interval;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A foreign key referencing the partitioned table with ON DELETE CASCADE.
+     */
+    public static class Reference {
+        private final String m_constraint;
+        private final String m_table;
+        private final String m_column;
+
+        public Reference(final String constraint, final String table, final String column) {
+            m_constraint = constraint;
+            m_table = table;
+            m_column = column;
+        }
+
+        public String getConstraint() {
+            return m_constraint;
+        }
+
+        public String getTable() {
+            return m_table;
+        }
+
+        public String getColumn() {
+            return m_column;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return m_constraint + " on " + m_table + "(" + m_column + ")";
+        }
+    }
+
+    /** The foreign keys referencing events.eventID, as created by the schema */
+    private static final List<Reference> EVENTS_REFERENCES = Collections.unmodifiableList(Arrays.asList(
+        new Reference("fk_eventID1", "outages", "svcLostEventID"),
+        new Reference("fk_eventID2", "outages", "svcRegainedEventID"),
+        new Reference("fk_eventID3", "notifications", "eventID"),
+        new Reference("fk_eventIDak2", "alarms", "lastEventID")
+    ));
+
+    /** Property selecting the interval of the events partitions: none, daily or weekly */
+    public static final String EVENTS_INTERVAL_PROPERTY = "org.opennms.events.partitionInterval";
+
+    /** Property giving the days around now within which events partitions are created */
+    public static final String EVENTS_WINDOW_PROPERTY = "org.opennms.events.partitionWindowDays";
+
+    private static final int DEFAULT_WINDOW_DAYS = 7;
+
+    private static final Pattern INDEX_DEFINITION = Pattern.compile("(?i)^CREATE (UNIQUE )?INDEX (\\S+) ON (?:\\S+\\.)?(\\S+) (.*)$");
+
+    private final String m_table;
+    private final String m_timeColumn;
+    private final String m_keyColumn;
+    private final List<Reference> m_references;
+    private final Interval m_interval;
+    private final Pattern m_partitionName;
+    private final Set<String> m_knownPartitions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int m_windowDays = DEFAULT_WINDOW_DAYS;
+
+    /**
+     * <p>Constructor for TimePartitioning.</p>
+     *
+     * @param table the parent table
+     * @param timeColumn the column whose value picks the child table
+     * @param interval how much time each child covers, or null to describe
+     * a table that is not partitioned (anymore)
+     */
+    public TimePartitioning(final String table, final String timeColumn, final Interval interval) {
+        this(table, timeColumn, null, Collections.<Reference>emptyList(), interval);
+    }
+
+    /**
+     * <p>Constructor for TimePartitioning.</p>
+     *
+     * @param table the parent table
+     * @param timeColumn the column whose value picks the child table
+     * @param keyColumn the column the references point at
+     * @param references the foreign keys referencing the table
+     * @param interval how much time each child covers, or null to describe
+     * a table that is not partitioned (anymore)
+     */
+    public TimePartitioning(final String table, final String timeColumn, final String keyColumn, final List<Reference> references, final Interval interval) {
+        m_table = table.toLowerCase();
+        m_timeColumn = timeColumn;
+        m_keyColumn = keyColumn;
+        m_references = references;
+        m_interval = interval;
+        m_partitionName = Pattern.compile("^" + Pattern.quote(m_table) + "_(\\d{8})$");
+    }
+
+    /**
+     * Returns the partitioning of the events table configured by the
+     * {@link #EVENTS_INTERVAL_PROPERTY} value, or null if events are not
+     * partitioned.
+     */
+    public static TimePartitioning forEvents(final String interval) {
+        final Interval i = Interval.getInterval(interval);
+        if (i == null) {
+            return null;
+        }
+        final TimePartitioning partitioning = new TimePartitioning("events", "eventTime", "eventID", EVENTS_REFERENCES, i);
+        partitioning.setWindowDays(Integer.getInteger(EVENTS_WINDOW_PROPERTY, DEFAULT_WINDOW_DAYS));
+        return partitioning;
+    }
+
+    /**
+     * Returns the events table when it is not partitioned, which is used to
+     * undo an earlier partitioning.
+     */
+    public static TimePartitioning forUnpartitionedEvents() {
+        return new TimePartitioning("events", "eventTime", "eventID", EVENTS_REFERENCES, null);
+    }
+
+    /**
+     * Returns the partitioning of the events table configured in the system
+     * properties, or null if events are not partitioned.
+     */
+    public static TimePartitioning forEvents() {
+        return forEvents(System.getProperty(EVENTS_INTERVAL_PROPERTY));
+    }
+
+    public String getTable() {
+        return m_table;
+    }
+
+    public Interval getInterval() {
+        return m_interval;
+    }
+
+    public List<Reference> getReferences() {
+        return m_references;
+    }
+
+    public int getWindowDays() {
+        return m_windowDays;
+    }
+
+    /**
+     * Sets how many days before or after the current time a row may be for
+     * its child table to be created.
+     */
+    public void setWindowDays(final int windowDays) {
+        m_windowDays = windowDays;
+    }
+
+    /**
+     * Returns whether a child table may be created for <code>time</code>.
+     */
+    boolean isInWindow(final Date time, final Date now) {
+        final long window = TimeUnit.DAYS.toMillis(m_windowDays);
+        return Math.abs(time.getTime() - now.getTime()) <= window;
+    }
+
+    /**
+     * Returns the name of the trigger function deleting the rows that
+     * reference a deleted row.
+     */
+    String getCascadeFunction() {
+        return m_table + "_cascade_delete";
+    }
+
+    private String getCascadeTrigger() {
+        return m_table + "_cascade_delete_trigger";
+    }
+
+    /**
+     * Returns the statement creating the function that deletes, for every
+     * reference, the rows that point at a deleted row.
+     */
+    String getCascadeFunctionDefinition() {
+        final StringBuilder body = new StringBuilder();
+        for (final Reference reference : m_references) {
+            body.append("  DELETE FROM ").append(reference.getTable()).append(" WHERE ").append(reference.getColumn()).append(" = OLD.").append(m_keyColumn).append(";\n");
+        }
+        return "CREATE OR REPLACE FUNCTION " + getCascadeFunction() + "() RETURNS trigger AS $$\nBEGIN\n" + body + "  RETURN OLD;\nEND;\n$$ LANGUAGE plpgsql";
+    }
+
+    private void createCascadeTrigger(final Statement st, final String table) throws SQLException {
+        if (m_references.isEmpty()) {
+            return;
+        }
+        st.execute("DROP TRIGGER IF EXISTS " + getCascadeTrigger() + " ON " + table);
+        st.execute("CREATE TRIGGER " + getCascadeTrigger() + " AFTER DELETE ON " + table + " FOR EACH ROW EXECUTE PROCEDURE " + getCascadeFunction() + "()");
+    }
+
+    /**
+     * Creates the trigger carrying out the ON DELETE CASCADE of the
+     * references on the parent and on every existing child. Run this once
+     * the foreign keys have been dropped.
+     */
+    public void installCascade(final Connection connection) throws SQLException {
+        if (m_references.isEmpty()) {
+            return;
+        }
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Statement st = connection.createStatement();
+            d.watch(st);
+            st.execute(getCascadeFunctionDefinition());
+            createCascadeTrigger(st, m_table);
+            for (final String partition : getPartitions(connection)) {
+                createCascadeTrigger(st, partition);
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Returns true if the cascade trigger function has been installed, that
+     * is if the table has been set up for partitioning.
+     */
+    public boolean isCascadeInstalled(final Connection connection) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM pg_proc WHERE proname = ?");
+            d.watch(stmt);
+            stmt.setString(1, getCascadeFunction());
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            return rs.next();
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Undoes the partitioning: moves the rows of every child back into the
+     * parent, drops the children and the cascade trigger, and restores the
+     * foreign keys. Rows left pointing at a row that no longer exists are
+     * deleted first, as the cascade would have done.
+     *
+     * @return the number of child tables merged into the parent
+     */
+    public int unpartition(final Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        final DBUtils d = new DBUtils(getClass());
+        boolean committed = false;
+        try {
+            connection.setAutoCommit(false);
+            final Statement st = connection.createStatement();
+            d.watch(st);
+
+            final List<String> partitions = getPartitions(connection);
+            for (final String partition : partitions) {
+                final int moved = st.executeUpdate("INSERT INTO " + m_table + " SELECT * FROM " + partition);
+                st.execute("DROP TABLE " + partition);
+                m_knownPartitions.remove(partition);
+                LOG.info("Merged partition {} into {}, moving {} rows", partition, m_table, moved);
+            }
+
+            st.execute("DROP TRIGGER IF EXISTS " + getCascadeTrigger() + " ON " + m_table);
+            st.execute("DROP FUNCTION IF EXISTS " + getCascadeFunction() + "()");
+
+            for (final Reference reference : m_references) {
+                if (hasForeignKey(connection, reference)) {
+                    continue;
+                }
+                final int orphans = st.executeUpdate("DELETE FROM " + reference.getTable() + " WHERE " + reference.getColumn() + " IS NOT NULL AND NOT EXISTS (SELECT 1 FROM " + m_table + " WHERE " + m_keyColumn + " = " + reference.getTable() + "." + reference.getColumn() + ")");
+                st.execute("ALTER TABLE " + reference.getTable() + " ADD CONSTRAINT " + reference.getConstraint() + " FOREIGN KEY (" + reference.getColumn() + ") REFERENCES " + m_table + " (" + m_keyColumn + ") ON DELETE CASCADE");
+                LOG.info("Restored foreign key {}, deleting {} rows without a referenced row", reference, orphans);
+            }
+
+            connection.commit();
+            committed = true;
+            return partitions.size();
+        } finally {
+            if (!committed) {
+                connection.rollback();
+            }
+            connection.setAutoCommit(autoCommit);
+            d.cleanUp();
+        }
+    }
+
+    private static boolean hasForeignKey(final Connection connection, final Reference reference) throws SQLException {
+        final DBUtils d = new DBUtils(TimePartitioning.class);
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM pg_constraint con JOIN pg_class c ON c.oid = con.conrelid WHERE con.contype = 'f' AND con.conname = ? AND c.relname = ? AND pg_table_is_visible(c.oid)");
+            d.watch(stmt);
+            stmt.setString(1, reference.getConstraint().toLowerCase());
+            stmt.setString(2, reference.getTable().toLowerCase());
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            return rs.next();
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Returns the name of the child table that holds rows for
+     * <code>time</code>.
+     */
+    public String getPartitionName(final Date time) {
+        return m_table + "_" + new SimpleDateFormat("yyyyMMdd").format(m_interval.getStart(time));
+    }
+
+    /**
+     * Returns the start of the range covered by the named child table, or
+     * null if the name is not one of ours.
+     */
+    public Date getPartitionStart(final String partitionName) {
+        final Matcher m = m_partitionName.matcher(partitionName.toLowerCase());
+        if (!m.matches()) {
+            return null;
+        }
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+            format.setLenient(false);
+            return format.parse(m.group(1));
+        } catch (final ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the CHECK expression limiting a child starting at
+     * <code>start</code> to its range.
+     */
+    String getRangeCheck(final Date start) {
+        // literals in UTC so the bounds do not depend on the session time zone
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss'+00'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return m_timeColumn + " >= '" + format.format(start) + "' AND " + m_timeColumn + " < '" + format.format(m_interval.getNext(start)) + "'";
+    }
+
+    /**
+     * Makes sure the child table for <code>time</code> exists, using a
+     * connection of its own so that the table outlives the caller's
+     * transaction.
+     *
+     * @return the name of the child table, or of the parent table if
+     * <code>time</code> is outside the window
+     */
+    public String ensurePartition(final DataSource dataSource, final Date time) throws SQLException {
+        if (!isInWindow(time, new Date())) {
+            LOG.debug("{} is more than {} days from now, using {} instead of a partition", time, m_windowDays, m_table);
+            return m_table;
+        }
+        final String name = getPartitionName(time);
+        if (m_knownPartitions.contains(name)) {
+            return name;
+        }
+
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = dataSource.getConnection();
+            d.watch(connection);
+            connection.setAutoCommit(true);
+            return ensurePartition(connection, time);
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Makes sure the child table for <code>time</code> exists.
+     *
+     * @return the name of the child table, or of the parent table if
+     * <code>time</code> is outside the window
+     */
+    public synchronized String ensurePartition(final Connection connection, final Date time) throws SQLException {
+        if (!isInWindow(time, new Date())) {
+            LOG.debug("{} is more than {} days from now, using {} instead of a partition", time, m_windowDays, m_table);
+            return m_table;
+        }
+        final String name = getPartitionName(time);
+        if (m_knownPartitions.contains(name)) {
+            return name;
+        }
+
+        if (!getPartitions(connection).contains(name)) {
+            final Date start = m_interval.getStart(time);
+            final DBUtils d = new DBUtils(getClass());
+            try {
+                final List<String> indexes = getIndexDefinitions(connection, name);
+                final List<String> foreignKeys = getForeignKeyDefinitions(connection, name);
+                final Statement st = connection.createStatement();
+                d.watch(st);
+                st.execute("CREATE TABLE " + name + " (CHECK (" + getRangeCheck(start) + ")) INHERITS (" + m_table + ")");
+                for (final String index : indexes) {
+                    st.execute(index);
+                }
+                // INHERITS copies neither the foreign keys nor the triggers
+                for (final String foreignKey : foreignKeys) {
+                    st.execute(foreignKey);
+                }
+                createCascadeTrigger(st, name);
+                LOG.info("Created partition {} of {} with {} indexes and {} foreign keys", name, m_table, indexes.size(), foreignKeys.size());
+            } finally {
+                d.cleanUp();
+            }
+        }
+
+        m_knownPartitions.add(name);
+        return name;
+    }
+
+    /**
+     * Returns the names of the child tables of the parent table.
+     */
+    public List<String> getPartitions(final Connection connection) throws SQLException {
+        final List<String> partitions = new ArrayList<String>();
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ? AND pg_table_is_visible(p.oid) ORDER BY c.relname");
+            d.watch(stmt);
+            stmt.setString(1, m_table);
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            while (rs.next()) {
+                if (getPartitionStart(rs.getString(1)) != null) {
+                    partitions.add(rs.getString(1));
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return partitions;
+    }
+
+    /**
+     * Returns the statements creating the parent's indexes on the child.
+     */
+    private List<String> getIndexDefinitions(final Connection connection, final String partition) throws SQLException {
+        final List<String> indexes = new ArrayList<String>();
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("SELECT indexdef FROM pg_indexes WHERE tablename = ? AND schemaname = current_schema()");
+            d.watch(stmt);
+            stmt.setString(1, m_table);
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            while (rs.next()) {
+                final String index = getIndexDefinition(rs.getString(1), partition);
+                if (index != null) {
+                    indexes.add(index);
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the statements adding the parent's own foreign keys to the
+     * child.
+     */
+    private List<String> getForeignKeyDefinitions(final Connection connection, final String partition) throws SQLException {
+        final List<String> foreignKeys = new ArrayList<String>();
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("SELECT con.conname, pg_get_constraintdef(con.oid) FROM pg_constraint con JOIN pg_class c ON c.oid = con.conrelid WHERE con.contype = 'f' AND c.relname = ? AND pg_table_is_visible(c.oid)");
+            d.watch(stmt);
+            stmt.setString(1, m_table);
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            while (rs.next()) {
+                foreignKeys.add("ALTER TABLE " + partition + " ADD CONSTRAINT " + partition + "_" + rs.getString(1) + " " + rs.getString(2));
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return foreignKeys;
+    }
+
+    /**
+     * Rewrites an index definition of the parent table for a child, naming
+     * the index after the child.
+     */
+    String getIndexDefinition(final String parentIndex, final String partition) {
+        final Matcher m = INDEX_DEFINITION.matcher(parentIndex);
+        if (!m.matches() || !m.group(3).equalsIgnoreCase(m_table)) {
+            return null;
+        }
+        final String name = m.group(2);
+        final String childName = name.toLowerCase().startsWith(m_table + "_") ? partition + name.substring(m_table.length()) : partition + "_" + name;
+        return "CREATE " + (m.group(1) == null ? "" : m.group(1)) + "INDEX " + childName + " ON " + partition + " " + m.group(4);
+    }
+
+    /**
+     * Drops every child table whose range ends at or before
+     * <code>cutoff</code>. Rows matching <code>keepCondition</code> are
+     * first copied to the parent table so that they survive the drop; the
+     * condition refers to the child table as <code>p</code>. The rows
+     * referencing the others are deleted, as ON DELETE CASCADE would.
+     *
+     * @param keepCondition an SQL condition, or null to drop all rows
+     * @return the number of child tables dropped
+     */
+    public int dropPartitionsBefore(final Connection connection, final Date cutoff, final String keepCondition) throws SQLException {
+        int dropped = 0;
+        for (final String partition : getPartitions(connection)) {
+            final Date end = m_interval.getNext(getPartitionStart(partition));
+            if (end.after(cutoff)) {
+                continue;
+            }
+
+            final boolean autoCommit = connection.getAutoCommit();
+            final DBUtils d = new DBUtils(getClass());
+            boolean committed = false;
+            try {
+                connection.setAutoCommit(false);
+                final Statement st = connection.createStatement();
+                d.watch(st);
+                int kept = 0;
+                if (keepCondition != null) {
+                    kept = st.executeUpdate("INSERT INTO " + m_table + " SELECT * FROM " + partition + " AS p WHERE " + keepCondition);
+                }
+                for (final Reference reference : m_references) {
+                    st.executeUpdate("DELETE FROM " + reference.getTable() + " WHERE " + reference.getColumn() + " IN (SELECT p." + m_keyColumn + " FROM " + partition + " AS p"
+                                     + (keepCondition == null ? "" : " WHERE NOT (" + keepCondition + ")") + ")");
+                }
+                st.execute("DROP TABLE " + partition);
+                connection.commit();
+                committed = true;
+
+                m_knownPartitions.remove(partition);
+                dropped++;
+                LOG.info("Dropped partition {} of {}, keeping {} of its rows", partition, m_table, kept);
+            } finally {
+                if (!committed) {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(autoCommit);
+                d.cleanUp();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Deletes the rows of the parent table itself that are older than
+     * <code>cutoff</code>, like the rows kept from dropped children or
+     * written outside the window. Rows matching <code>keepCondition</code>
+     * are kept; the condition refers to the parent table as <code>p</code>.
+     * The delete trigger removes the rows referencing the others.
+     *
+     * @param keepCondition an SQL condition, or null to delete all old rows
+     * @return the number of rows deleted
+     */
+    public int deleteParentRowsBefore(final Connection connection, final Date cutoff, final String keepCondition) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement stmt = connection.prepareStatement("DELETE FROM ONLY " + m_table + " AS p WHERE p." + m_timeColumn + " < ?"
+                                                                       + (keepCondition == null ? "" : " AND NOT (" + keepCondition + ")"));
+            d.watch(stmt);
+            stmt.setTimestamp(1, new Timestamp(cutoff.getTime()));
+            final int deleted = stmt.executeUpdate();
+            LOG.info("Deleted {} rows older than {} from {}", deleted, cutoff, m_table);
+            return deleted;
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        if (m_interval == null) {
+            return m_table + " without partitions";
+        }
+        return m_table + " partitioned " + m_interval.name().toLowerCase() + " on " + m_timeColumn;
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.db.TimePartitioning.Interval;
+
+public class TimePartitioningTest {
+    private TimeZone m_timeZone;
+
+    @Before
+    public void setUp() {
+        m_timeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(m_timeZone);
+    }
+
+    @Test
+    public void testDailyPartitions() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("daily");
+
+        // Saturday, October 19th 2013, 23:30 local time
+        final Date time = date(2013, Calendar.OCTOBER, 19, 23, 30);
+        assertEquals("events_20131019", partitioning.getPartitionName(time));
+        assertEquals(date(2013, Calendar.OCTOBER, 19, 0, 0), partitioning.getPartitionStart("events_20131019"));
+        assertEquals(date(2013, Calendar.OCTOBER, 20, 0, 0), Interval.DAILY.getNext(Interval.DAILY.getStart(time)));
+
+        assertEquals("eventTime >= '2013-10-19 04:00:00+00' AND eventTime < '2013-10-20 04:00:00+00'", partitioning.getRangeCheck(Interval.DAILY.getStart(time)));
+    }
+
+    @Test
+    public void testWeeklyPartitions() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("Weekly");
+
+        assertEquals("events_20131014", partitioning.getPartitionName(date(2013, Calendar.OCTOBER, 19, 23, 30)));
+        assertEquals("events_20131014", partitioning.getPartitionName(date(2013, Calendar.OCTOBER, 14, 0, 0)));
+        assertEquals("events_20131007", partitioning.getPartitionName(date(2013, Calendar.OCTOBER, 13, 23, 59)));
+
+        // the week the clocks go back is an hour longer
+        assertEquals(date(2013, Calendar.NOVEMBER, 4, 0, 0), Interval.WEEKLY.getNext(date(2013, Calendar.OCTOBER, 28, 0, 0)));
+    }
+
+    @Test
+    public void testPartitionWindow() throws Exception {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("daily");
+        assertEquals(7, partitioning.getWindowDays());
+
+        final Date now = date(2013, Calendar.OCTOBER, 19, 23, 30);
+        assertTrue(partitioning.isInWindow(now, now));
+        assertTrue(partitioning.isInWindow(date(2013, Calendar.OCTOBER, 12, 23, 30), now));
+        assertTrue(partitioning.isInWindow(date(2013, Calendar.OCTOBER, 26, 23, 30), now));
+        assertFalse(partitioning.isInWindow(date(2013, Calendar.OCTOBER, 12, 23, 0), now));
+        assertFalse(partitioning.isInWindow(date(2013, Calendar.OCTOBER, 27, 0, 0), now));
+
+        // bogus times go to the parent without creating a partition
+        assertEquals("events", partitioning.ensurePartition((Connection)null, new Date(0)));
+        assertEquals("events", partitioning.ensurePartition((Connection)null, new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365))));
+    }
+
+    @Test
+    public void testForeignNames() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("daily");
+
+        assertNull(partitioning.getPartitionStart("events"));
+        assertNull(partitioning.getPartitionStart("events_2013101"));
+        assertNull(partitioning.getPartitionStart("events_20131399"));
+        assertNull(partitioning.getPartitionStart("alarms_20131019"));
+    }
+
+    @Test
+    public void testNoPartitioning() {
+        assertNull(TimePartitioning.forEvents((String)null));
+        assertNull(TimePartitioning.forEvents("none"));
+        assertSame(Interval.DAILY, TimePartitioning.forEvents(" DAILY ").getInterval());
+    }
+
+    @Test
+    public void testIndexDefinitions() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("daily");
+
+        assertEquals("CREATE INDEX events_20131019_uei_idx ON events_20131019 USING btree (eventuei)",
+                     partitioning.getIndexDefinition("CREATE INDEX events_uei_idx ON events USING btree (eventuei)", "events_20131019"));
+        assertEquals("CREATE UNIQUE INDEX events_20131019_pk_eventid ON events_20131019 USING btree (eventid)",
+                     partitioning.getIndexDefinition("CREATE UNIQUE INDEX pk_eventid ON public.events USING btree (eventid)", "events_20131019"));
+        assertNull(partitioning.getIndexDefinition("CREATE INDEX alarms_uei_idx ON alarms USING btree (eventuei)", "events_20131019"));
+    }
+
+    @Test
+    public void testCascadeFunction() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents("daily");
+
+        assertEquals("events_cascade_delete", partitioning.getCascadeFunction());
+        assertEquals("CREATE OR REPLACE FUNCTION events_cascade_delete() RETURNS trigger AS $$\nBEGIN\n"
+                     + "  DELETE FROM outages WHERE svcLostEventID = OLD.eventID;\n"
+                     + "  DELETE FROM outages WHERE svcRegainedEventID = OLD.eventID;\n"
+                     + "  DELETE FROM notifications WHERE eventID = OLD.eventID;\n"
+                     + "  DELETE FROM alarms WHERE lastEventID = OLD.eventID;\n"
+                     + "  RETURN OLD;\nEND;\n$$ LANGUAGE plpgsql",
+                     partitioning.getCascadeFunctionDefinition());
+        assertEquals("events without partitions", TimePartitioning.forUnpartitionedEvents().toString());
+    }
+
+    private static Date date(final int year, final int month, final int day, final int hour, final int minute) {
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, hour, minute);
+        return cal.getTime();
+    }
+}
@@ -0,0 +1,482 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns, for each agent, caps on max-vars-per-pdu and max-repetitions below
+ * which the agent answers reliably.
+ *
+ * <p>A walk uses the configured values, lowered to the caps learned for its
+ * agent, if any.  A tooBig response halves both caps, a timeout after the
+ * agent has answered part of the walk halves the max-repetitions cap (or the
+ * max-vars-per-pdu cap once max-repetitions is down to 1), and every {@link #GROWTH_INTERVAL} successful walks in a row
+ * raise them again by a quarter until they no longer limit the configured
+ * values, at which point they are dropped.  Only the caps are learned, so
+ * raising the values in the SNMP configuration takes effect for every agent
+ * that has not failed at the lower values.  The caps are saved to
+ * {@link #STATE_FILE_PROPERTY} so that they survive a restart.</p>
+ */
+public class AdaptiveBulkSizer {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkSizer.class);
+
+    public static final String ENABLE_PROPERTY = "org.opennms.snmp.adaptiveBulk.enable";
+    public static final String STATE_FILE_PROPERTY = "org.opennms.snmp.adaptiveBulk.stateFile";
+
+    /** The number of successful walks in a row after which the caps are raised. */
+    public static final int GROWTH_INTERVAL = 3;
+
+    /** The value of a cap that has not been learned. */
+    private static final int NO_CAP = 0;
+
+    private static final long SAVE_INTERVAL = 5 * 60 * 1000;
+
+    private static AdaptiveBulkSizer s_instance;
+
+    /**
+     * Statistics and learned caps for one agent.
+     */
+    public static class AgentState {
+        private int m_maxVarsPerPduCap = NO_CAP;
+        private int m_maxRepetitionsCap = NO_CAP;
+        private int m_successes = 0;
+        private long m_walks = 0;
+        private long m_roundTrips = 0;
+        private long m_bytesSent = 0;
+        private long m_bytesReceived = 0;
+        private long m_tooBigs = 0;
+        private long m_timeouts = 0;
+
+        AgentState() {
+        }
+
+        AgentState(final int maxVarsPerPduCap, final int maxRepetitionsCap) {
+            m_maxVarsPerPduCap = maxVarsPerPduCap;
+            m_maxRepetitionsCap = maxRepetitionsCap;
+        }
+
+        /**
+         * @return the learned max-vars-per-pdu cap, or 0 if there is none
+         */
+        public synchronized int getMaxVarsPerPduCap() {
+            return m_maxVarsPerPduCap;
+        }
+
+        /**
+         * @return the learned max-repetitions cap, or 0 if there is none
+         */
+        public synchronized int getMaxRepetitionsCap() {
+            return m_maxRepetitionsCap;
+        }
+
+        synchronized boolean hasCaps() {
+            return m_maxVarsPerPduCap != NO_CAP || m_maxRepetitionsCap != NO_CAP;
+        }
+
+        public synchronized long getWalks() {
+            return m_walks;
+        }
+
+        public synchronized long getRoundTrips() {
+            return m_roundTrips;
+        }
+
+        public synchronized long getBytesSent() {
+            return m_bytesSent;
+        }
+
+        public synchronized long getBytesReceived() {
+            return m_bytesReceived;
+        }
+
+        public synchronized long getTooBigs() {
+            return m_tooBigs;
+        }
+
+        public synchronized long getTimeouts() {
+            return m_timeouts;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new ToStringBuilder(this)
+                .append("maxVarsPerPduCap", m_maxVarsPerPduCap)
+                .append("maxRepetitionsCap", m_maxRepetitionsCap)
+                .append("walks", m_walks)
+                .append("roundTrips", m_roundTrips)
+                .append("bytesSent", m_bytesSent)
+                .append("bytesReceived", m_bytesReceived)
+                .append("tooBigs", m_tooBigs)
+                .append("timeouts", m_timeouts)
+                .toString();
+        }
+    }
+
+    private final ConcurrentMap<String, AgentState> m_states = new ConcurrentHashMap<String, AgentState>();
+    private final boolean m_enabled;
+    private final File m_stateFile;
+    private volatile boolean m_dirty = false;
+
+    /**
+     * Returns the sizer shared by all walkers, configured from system properties.
+     *
+     * @return a {@link org.opennms.netmgt.snmp.AdaptiveBulkSizer} object.
+     */
+    public static synchronized AdaptiveBulkSizer getInstance() {
+        if (s_instance == null) {
+            s_instance = new AdaptiveBulkSizer(
+                Boolean.valueOf(System.getProperty(ENABLE_PROPERTY, "true")),
+                getDefaultStateFile()
+            );
+            s_instance.load();
+            s_instance.scheduleSaves();
+        }
+        return s_instance;
+    }
+
+    /**
+     * Replaces the sizer shared by all walkers.  This is meant for tests, which
+     * walk the same agents with different sizes and should not see each
+     * other's caps.
+     *
+     * @param sizer the sizer to use, or null to create a new one from the
+     *            system properties on the next call to {@link #getInstance()}
+     */
+    public static synchronized void setInstance(final AdaptiveBulkSizer sizer) {
+        s_instance = sizer;
+    }
+
+    private static File getDefaultStateFile() {
+        final String stateFile = System.getProperty(STATE_FILE_PROPERTY);
+        if (stateFile != null) {
+            return stateFile.trim().length() == 0 ? null : new File(stateFile);
+        }
+        final String home = System.getProperty("opennms.home");
+        return home == null ? null : new File(home, "share" + File.separator + "snmp-bulk-sizes.properties");
+    }
+
+    /**
+     * <p>Constructor for AdaptiveBulkSizer.</p>
+     *
+     * @param enabled false to always use the configured values
+     * @param stateFile where to save the learned caps, or null
+     */
+    public AdaptiveBulkSizer(final boolean enabled, final File stateFile) {
+        m_enabled = enabled;
+        m_stateFile = stateFile;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * @param address the agent's address
+     * @return the state of the agent, or null if no walk has used it yet
+     */
+    public AgentState getAgentState(final InetAddress address) {
+        return m_states.get(address.getHostAddress());
+    }
+
+    private AgentState getState(final InetAddress address) {
+        final String key = address.getHostAddress();
+        AgentState state = m_states.get(key);
+        if (state == null) {
+            final AgentState newState = new AgentState();
+            state = m_states.putIfAbsent(key, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @param address the agent's address
+     * @param maxVarsPerPdu the configured max-vars-per-pdu
+     * @return the max-vars-per-pdu to use for the next walk
+     */
+    public int getMaxVarsPerPdu(final InetAddress address, final int maxVarsPerPdu) {
+        if (!m_enabled) {
+            return maxVarsPerPdu;
+        }
+        final AgentState state = getAgentState(address);
+        return state == null ? maxVarsPerPdu : capped(maxVarsPerPdu, state.getMaxVarsPerPduCap());
+    }
+
+    /**
+     * @param address the agent's address
+     * @param maxRepetitions the configured max-repetitions
+     * @return the max-repetitions to use for the next walk
+     */
+    public int getMaxRepetitions(final InetAddress address, final int maxRepetitions) {
+        if (!m_enabled) {
+            return maxRepetitions;
+        }
+        final AgentState state = getAgentState(address);
+        return state == null ? maxRepetitions : capped(maxRepetitions, state.getMaxRepetitionsCap());
+    }
+
+    private static int capped(final int configured, final int cap) {
+        return cap == NO_CAP ? configured : Math.min(configured, cap);
+    }
+
+    private static int halve(final int cap, final int used) {
+        return Math.max(1, capped(used, cap) / 2);
+    }
+
+    /**
+     * Records that the agent answered a request with tooBig.
+     *
+     * @param address the agent's address
+     * @param maxVarsPerPdu the max-vars-per-pdu of the request
+     * @param maxRepetitions the max-repetitions of the request
+     */
+    public void tooBig(final InetAddress address, final int maxVarsPerPdu, final int maxRepetitions) {
+        if (!m_enabled) {
+            return;
+        }
+        final AgentState state = getState(address);
+        synchronized (state) {
+            state.m_tooBigs++;
+            state.m_successes = 0;
+            state.m_maxVarsPerPduCap = halve(state.m_maxVarsPerPduCap, maxVarsPerPdu);
+            state.m_maxRepetitionsCap = halve(state.m_maxRepetitionsCap, maxRepetitions);
+            LOG.debug("tooBig from {}, capping at {}", address, state);
+        }
+        m_dirty = true;
+    }
+
+    /**
+     * Records that a walk of the agent timed out after the agent had answered
+     * some of its requests.  Timeouts from an agent that never answered say
+     * nothing about the request size and must not be recorded.
+     *
+     * @param address the agent's address
+     * @param maxVarsPerPdu the max-vars-per-pdu of the walk
+     * @param maxRepetitions the max-repetitions of the walk
+     */
+    public void timedOut(final InetAddress address, final int maxVarsPerPdu, final int maxRepetitions) {
+        if (!m_enabled) {
+            return;
+        }
+        final AgentState state = getState(address);
+        synchronized (state) {
+            state.m_timeouts++;
+            state.m_successes = 0;
+            if (capped(maxRepetitions, state.m_maxRepetitionsCap) > 1) {
+                state.m_maxRepetitionsCap = halve(state.m_maxRepetitionsCap, maxRepetitions);
+            } else {
+                state.m_maxVarsPerPduCap = halve(state.m_maxVarsPerPduCap, maxVarsPerPdu);
+            }
+            LOG.debug("Timeout from {}, capping at {}", address, state);
+        }
+        m_dirty = true;
+    }
+
+    /**
+     * Records a finished walk of the agent, successful or not, and raises the
+     * caps after enough successful walks in a row.
+     *
+     * @param address the agent's address
+     * @param succeeded whether the walk completed without error
+     * @param maxVarsPerPdu the configured max-vars-per-pdu
+     * @param maxRepetitions the configured max-repetitions
+     * @param roundTrips the number of requests sent by the walk
+     * @param bytesSent the encoded size of the requests
+     * @param bytesReceived the encoded size of the responses
+     */
+    public void walkFinished(final InetAddress address, final boolean succeeded, final int maxVarsPerPdu, final int maxRepetitions, final long roundTrips, final long bytesSent, final long bytesReceived) {
+        final AgentState state = getState(address);
+        synchronized (state) {
+            state.m_walks++;
+            state.m_roundTrips += roundTrips;
+            state.m_bytesSent += bytesSent;
+            state.m_bytesReceived += bytesReceived;
+            if (!succeeded) {
+                state.m_successes = 0;
+                return;
+            }
+            if (!m_enabled || !state.hasCaps() || ++state.m_successes < GROWTH_INTERVAL) {
+                return;
+            }
+            state.m_successes = 0;
+            state.m_maxVarsPerPduCap = raise(state.m_maxVarsPerPduCap, maxVarsPerPdu);
+            state.m_maxRepetitionsCap = raise(state.m_maxRepetitionsCap, maxRepetitions);
+            m_dirty = true;
+        }
+    }
+
+    /**
+     * Raises a cap by a quarter, dropping it once it no longer limits the
+     * configured value.
+     */
+    private static int raise(final int cap, final int configured) {
+        if (cap == NO_CAP) {
+            return NO_CAP;
+        }
+        final int raised = cap + Math.max(1, cap / 4);
+        return raised >= configured ? NO_CAP : raised;
+    }
+
+    /**
+     * Forgets the caps and statistics of every agent.
+     */
+    public void reset() {
+        m_states.clear();
+        m_dirty = true;
+    }
+
+    /**
+     * Loads the values saved by {@link #save()}.
+     */
+    public void load() {
+        if (m_stateFile == null || !m_stateFile.canRead()) {
+            return;
+        }
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(m_stateFile);
+            properties.load(in);
+        } catch (final IOException e) {
+            LOG.warn("Unable to load SNMP bulk sizes from {}: {}", m_stateFile, e.getMessage());
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+        for (final Entry<Object, Object> entry : properties.entrySet()) {
+            final String[] sizes = ((String) entry.getValue()).split(",");
+            try {
+                m_states.put((String) entry.getKey(), new AgentState(Integer.parseInt(sizes[0].trim()), Integer.parseInt(sizes[1].trim())));
+            } catch (final RuntimeException e) {
+                LOG.warn("Ignoring invalid SNMP bulk sizes for {}: {}", entry.getKey(), entry.getValue());
+            }
+        }
+        LOG.info("Loaded SNMP bulk sizes for {} agents from {}", m_states.size(), m_stateFile);
+    }
+
+    /**
+     * Saves the learned caps if they changed since the last save.
+     */
+    public synchronized void save() {
+        if (m_stateFile == null || !m_dirty) {
+            return;
+        }
+        m_dirty = false;
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, AgentState> entry : m_states.entrySet()) {
+            final AgentState state = entry.getValue();
+            synchronized (state) {
+                if (state.hasCaps()) {
+                    properties.setProperty(entry.getKey(), state.m_maxVarsPerPduCap + "," + state.m_maxRepetitionsCap);
+                }
+            }
+        }
+        final File tmp = new File(m_stateFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            m_stateFile.getParentFile().mkdirs();
+            out = new FileOutputStream(tmp);
+            properties.store(out, "max-vars-per-pdu,max-repetitions caps learned per agent (0 is no cap)");
+            out.close();
+            out = null;
+            if (!tmp.renameTo(m_stateFile)) {
+                m_stateFile.delete();
+                if (!tmp.renameTo(m_stateFile)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + m_stateFile);
+                }
+            }
+        } catch (final IOException e) {
+            m_dirty = true;
+            LOG.warn("Unable to save SNMP bulk sizes to {}: {}", m_stateFile, e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void scheduleSaves() {
+        if (m_stateFile == null || !m_enabled) {
+            return;
+        }
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "AdaptiveBulkSizer-Saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread("AdaptiveBulkSizer-Shutdown") {
+            @Override
+            public void run() {
+                executor.shutdown();
+                save();
+            }
+        });
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            // ignore
+        }
+    }
+}
@@ -48,6 +48,15 @@ public abstract class SnmpWalker implements Closeable {
         
         abstract public void reset();
     }
+
+    /**
+     * Notified once when a walk finishes, successfully or not, on the thread
+     * that processed the final response.  Implementations should hand any
+     * real work off to another thread.
+     */
+    public static interface Callback {
+        void complete(SnmpWalker walker);
+    }
     
     private final String m_name;
     private final CollectionTracker m_tracker;
@@ -58,9 +67,19 @@ public abstract class SnmpWalker implements Closeable {
     private WalkerPduBuilder m_pduBuilder;
     private ResponseProcessor m_responseProcessor;
     private final int m_maxVarsPerPdu;
+    private final int m_maxRepetitions;
+    private final int m_configuredMaxVarsPerPdu;
+    private final int m_configuredMaxRepetitions;
+    private final AdaptiveBulkSizer m_sizer;
+    private long m_roundTrips = 0;
+    private long m_bytesSent = 0;
+    private long m_bytesReceived = 0;
+    private volatile boolean m_responded = false;
+    private boolean m_finished = false;
     private boolean m_error = false;
     private String m_errorMessage = "";
     private Throwable m_errorThrowable = null;
+    private volatile Callback m_callback = null;
     
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, CollectionTracker tracker) {
         m_address = address;
@@ -69,9 +88,15 @@ public abstract class SnmpWalker implements Closeable {
         m_name = name;
 
         m_tracker = tracker;
-        m_tracker.setMaxRepetitions(maxRepetitions);
-        
-        m_maxVarsPerPdu = maxVarsPerPdu;
+
+        // start with what has worked for this agent so far
+        m_sizer = AdaptiveBulkSizer.getInstance();
+        m_configuredMaxVarsPerPdu = maxVarsPerPdu;
+        m_configuredMaxRepetitions = maxRepetitions;
+        m_maxVarsPerPdu = m_sizer.getMaxVarsPerPdu(address, maxVarsPerPdu);
+        m_maxRepetitions = m_sizer.getMaxRepetitions(address, maxRepetitions);
+
+        m_tracker.setMaxRepetitions(m_maxRepetitions);
     }
 
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
@@ -89,12 +114,46 @@ public abstract class SnmpWalker implements Closeable {
         return (m_pduBuilder == null ? m_maxVarsPerPdu : m_pduBuilder.getMaxVarsPerPdu());
     }
 
+    public final int getMaxRepetitions() {
+        return m_maxRepetitions;
+    }
+
+    /**
+     * @return the number of requests sent so far
+     */
+    public final long getRoundTrips() {
+        return m_roundTrips;
+    }
+
+    /**
+     * @return the encoded size of the requests sent so far, if the strategy reports it
+     */
+    public final long getBytesSent() {
+        return m_bytesSent;
+    }
+
+    /**
+     * @return the encoded size of the responses received so far, if the strategy reports it
+     */
+    public final long getBytesReceived() {
+        return m_bytesReceived;
+    }
+
+    protected void addBytesSent(int bytes) {
+        m_bytesSent += bytes;
+    }
+
+    protected void addBytesReceived(int bytes) {
+        m_bytesReceived += bytes;
+    }
+
     protected void buildAndSendNextPdu() throws IOException {
         if (m_tracker.isFinished()) {
             handleDone();
         } else {
             m_pduBuilder.reset();
             m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_roundTrips++;
             sendNextPdu(m_pduBuilder);
         }
     }
@@ -141,6 +200,11 @@ public abstract class SnmpWalker implements Closeable {
     }
     
     protected void handleTimeout(String msg) {
+        // an agent that never answered is down or unreachable rather than
+        // overwhelmed, so only a timeout part way through a walk backs off
+        if (m_responded) {
+            m_sizer.timedOut(m_address, getMaxVarsPerPdu(), m_maxRepetitions);
+        }
         m_tracker.setTimedOut(true);
         processError("Timeout retrieving", msg, null);
     }
@@ -155,13 +219,38 @@ public abstract class SnmpWalker implements Closeable {
         finish();
     }
 
+    /**
+     * Registers a callback to be notified when the walk finishes.  Must be
+     * called before {@link #start()}.
+     */
+    public void setCallback(final Callback callback) {
+        m_callback = callback;
+    }
+
     private void finish() {
+        final Callback callback;
+        synchronized (this) {
+            if (!m_finished) {
+                m_finished = true;
+                m_sizer.walkFinished(m_address, !m_error, m_configuredMaxVarsPerPdu, m_configuredMaxRepetitions, m_roundTrips, m_bytesSent, m_bytesReceived);
+                callback = m_callback;
+            } else {
+                callback = null;
+            }
+        }
         signal();
         try {
             close();
         } catch (IOException e) {
             LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_address, e);
         }
+        if (callback != null) {
+            try {
+                callback.complete(this);
+            } catch (Throwable t) {
+                LOG.error("{}: Unexpected error notifying completion for: {}", getName(), m_address, t);
+            }
+        }
     }
 
     @Override
@@ -194,10 +283,15 @@ public abstract class SnmpWalker implements Closeable {
     
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) {
+        m_responded = true;
+        if (errorStatus == CollectionTracker.TOO_BIG_ERR) {
+            m_sizer.tooBig(m_address, getMaxVarsPerPdu(), m_maxRepetitions);
+        }
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
     }
     
     protected void processResponse(SnmpObjId receivedOid, SnmpValue val) {
+        m_responded = true;
         m_responseProcessor.processResponse(receivedOid, val);
     }
 
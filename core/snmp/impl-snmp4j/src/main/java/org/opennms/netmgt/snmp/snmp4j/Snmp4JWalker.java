@@ -136,6 +136,7 @@ public class Snmp4JWalker extends SnmpWalker {
 
         private void processResponse(final PDU response) {
             try {
+                addBytesReceived(response.getBERLength());
                 LOG.debug("Received a tracker PDU of type {} from {} of size {}, errorStatus = {}, errorStatusText = {}, errorIndex = {}", PDU.getTypeString(response.getType()), getAddress(), response.size(), response.getErrorStatus(), response.getErrorStatusText(), response.getErrorIndex());
                 if (response.getType() == PDU.REPORT) {
                     handleAuthError("A REPORT PDU was returned from the agent.  This is most likely an authentication problem.  Please check the config");
@@ -223,6 +224,7 @@ public class Snmp4JWalker extends SnmpWalker {
         }
         
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
+        addBytesSent(snmp4JPduBuilder.getPdu().getBERLength());
         m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
     }
     
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+public class AdaptiveBulkSizerTest {
+    private final InetAddress m_agent = InetAddrUtils.addr("192.0.2.1");
+
+    @Test
+    public void testTooBigAndTimeoutsBackOff() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, null);
+        assertEquals(50, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(20, sizer.getMaxRepetitions(m_agent, 20));
+
+        sizer.tooBig(m_agent, 50, 20);
+        assertEquals(25, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(10, sizer.getMaxRepetitions(m_agent, 20));
+
+        // timeouts reduce the repetitions first, then the varbinds
+        for (int i = 0; i < 3; i++) {
+            sizer.timedOut(m_agent, 25, sizer.getMaxRepetitions(m_agent, 20));
+        }
+        assertEquals(25, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(1, sizer.getMaxRepetitions(m_agent, 20));
+        sizer.timedOut(m_agent, 25, 1);
+        assertEquals(12, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(1, sizer.getMaxRepetitions(m_agent, 20));
+        assertEquals(4, sizer.getAgentState(m_agent).getTimeouts());
+    }
+
+    @Test
+    public void testCapsOnlyLowerTheConfiguredValues() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, null);
+
+        // a walk with small configured sizes does not limit a later walk with larger ones
+        sizer.walkFinished(m_agent, true, 5, 2, 1, 100, 1000);
+        assertEquals(50, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(20, sizer.getMaxRepetitions(m_agent, 20));
+
+        // a learned cap applies to every caller, but never raises a smaller configured value
+        sizer.tooBig(m_agent, 40, 20);
+        assertEquals(20, sizer.getMaxVarsPerPdu(m_agent, 50));
+        assertEquals(10, sizer.getMaxRepetitions(m_agent, 20));
+        assertEquals(5, sizer.getMaxVarsPerPdu(m_agent, 5));
+        assertEquals(2, sizer.getMaxRepetitions(m_agent, 2));
+    }
+
+    @Test
+    public void testSuccessRaisesTheCapsUntilTheyAreDropped() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, null);
+        sizer.tooBig(m_agent, 10, 8);
+        assertEquals(5, sizer.getMaxVarsPerPdu(m_agent, 10));
+        assertEquals(4, sizer.getMaxRepetitions(m_agent, 8));
+
+        for (int i = 0; i < 100 * AdaptiveBulkSizer.GROWTH_INTERVAL; i++) {
+            sizer.walkFinished(m_agent, true, 10, 8, 2, 100, 1000);
+        }
+        assertEquals(10, sizer.getMaxVarsPerPdu(m_agent, 10));
+        assertEquals(8, sizer.getMaxRepetitions(m_agent, 8));
+        assertEquals(0, sizer.getAgentState(m_agent).getMaxVarsPerPduCap());
+        assertEquals(0, sizer.getAgentState(m_agent).getMaxRepetitionsCap());
+        // once the caps are gone, larger configured values are used as is
+        assertEquals(40, sizer.getMaxRepetitions(m_agent, 40));
+        assertEquals(600, sizer.getAgentState(m_agent).getRoundTrips());
+        assertEquals(300000, sizer.getAgentState(m_agent).getBytesReceived());
+    }
+
+    @Test
+    public void testFailedWalksDoNotGrow() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, null);
+        sizer.tooBig(m_agent, 10, 10);
+        for (int i = 0; i < 10; i++) {
+            sizer.walkFinished(m_agent, i % 2 == 0, 10, 10, 1, 0, 0);
+        }
+        assertEquals(5, sizer.getMaxVarsPerPdu(m_agent, 10));
+    }
+
+    @Test
+    public void testDisabled() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(false, null);
+        sizer.tooBig(m_agent, 10, 10);
+        assertEquals(10, sizer.getMaxVarsPerPdu(m_agent, 10));
+        assertEquals(10, sizer.getMaxRepetitions(m_agent, 10));
+    }
+
+    @Test
+    public void testReset() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, null);
+        sizer.tooBig(m_agent, 10, 10);
+        sizer.reset();
+        assertNull(sizer.getAgentState(m_agent));
+        assertEquals(10, sizer.getMaxVarsPerPdu(m_agent, 10));
+    }
+
+    @Test
+    public void testLearnedCapsArePersisted() throws Exception {
+        final File stateFile = File.createTempFile("snmp-bulk-sizes", ".properties");
+        stateFile.delete();
+        try {
+            AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(true, stateFile);
+            sizer.tooBig(m_agent, 40, 10);
+            // agents without caps are not saved
+            sizer.walkFinished(InetAddrUtils.addr("192.0.2.2"), true, 40, 10, 1, 0, 0);
+            sizer.save();
+
+            sizer = new AdaptiveBulkSizer(true, stateFile);
+            sizer.load();
+            assertEquals(20, sizer.getMaxVarsPerPdu(m_agent, 40));
+            assertEquals(5, sizer.getMaxRepetitions(m_agent, 10));
+            // a value raised in the configuration is still capped for the agent that failed
+            assertEquals(20, sizer.getMaxVarsPerPdu(m_agent, 80));
+            assertNull(sizer.getAgentState(InetAddrUtils.addr("192.0.2.2")));
+        } finally {
+            stateFile.delete();
+        }
+    }
+}
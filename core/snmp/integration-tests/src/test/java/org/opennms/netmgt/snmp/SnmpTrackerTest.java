@@ -192,6 +192,8 @@ public class SnmpTrackerTest implements InitializingBean {
     public void setUp() {
         MockLogAppender.setupLogging();
         SnmpPeerFactory.setInstance(m_snmpPeerFactory);
+        // walks of the same agent with different sizes must not share learned caps
+        AdaptiveBulkSizer.setInstance(new AdaptiveBulkSizer(true, null));
     }
     
     @Test
@@ -38,6 +38,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.AdaptiveBulkSizer;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.ColumnTracker;
 import org.opennms.netmgt.snmp.SnmpAgentAddress;
@@ -63,6 +64,8 @@ public class MockSnmpStrategyTest {
     @Before
     public void setUp() throws Exception {
         m_strategy = new MockSnmpStrategy();
+        // walks of the same agent with different sizes must not share learned caps
+        AdaptiveBulkSizer.setInstance(new AdaptiveBulkSizer(true, null));
         MockSnmpStrategy.setDataForAddress(new SnmpAgentAddress(m_agentAddress, m_agentPort), new ClassPathResource("loadSnmpDataTest.properties"));
         m_oldProperty = System.getProperty("org.opennms.snmp.strategyClass");
         System.setProperty("org.opennms.snmp.strategyClass", m_strategy.getClass().getName());
@@ -230,6 +233,7 @@ public class MockSnmpStrategyTest {
         walker.start();
         walker.waitFor();
         assertEquals("it should match no columns (timeout)", Long.valueOf(0).longValue(), ct.getCount());
+        assertEquals("an agent that never answered must not be backed off", 0, AdaptiveBulkSizer.getInstance().getAgentState(m_agentAddress).getTimeouts());
     }
     
     private void assertSnmpValueEquals(final String message, final int expectedType, final int expectedValue, final SnmpValue value) {
@@ -160,6 +160,7 @@ public class JdbcCollector implements ServiceCollector {
         JdbcAgentState nodeState = m_scheduledNodes.get(scheduledNodeKey);
         if (nodeState != null) {
             m_scheduledNodes.remove(scheduledNodeKey);
+            nodeState.releaseConnections();
         }
     }
 
@@ -207,6 +208,7 @@ public class JdbcCollector implements ServiceCollector {
                     }
                 }
                 
+                boolean reusable = true;
                 try {
                     // If the query is available, lets collect it.
                     if (agentState.groupIsAvailable(query.getQueryName())) {
@@ -222,9 +224,6 @@ public class JdbcCollector implements ServiceCollector {
                         // Determine if there were any results for this query to                    
                         if (results.isBeforeFirst() && results.isAfterLast()) {
                             LOG.warn("Query '{}' returned no results.", query.getQueryName());
-                            // Close the statement, but retain the connection.
-                            agentState.closeResultSet(results);
-                            agentState.closeStmt(stmt);
                             continue;
                         }
                         
@@ -263,12 +262,18 @@ public class JdbcCollector implements ServiceCollector {
                         }
                     }
                 } catch(SQLException e) {
-                    // Close the statement but retain the connection, log the exception and continue to the next query.
+                    // Log the exception and continue to the next query.
                     LOG.warn("There was a problem executing query '{}' Please review the query or configuration. Reason: {}", query.getQueryName(), e.getMessage());
+                    reusable = false;
+                    continue;
+                } finally {
+                    // Close the statement and give the connection back to the pool before the next query.
                     agentState.closeResultSet(results);
                     agentState.closeStmt(stmt);
-                    agentState.closeConnection(con);
-                    continue;
+                    agentState.closeConnection(con, reusable);
+                    results = null;
+                    stmt = null;
+                    con = null;
                 }
             }
             collectionSet.setStatus(ServiceCollector.COLLECTION_SUCCEEDED);
@@ -317,7 +322,7 @@ public class JdbcCollector implements ServiceCollector {
             status=false;
         } finally {
             agentState.closeResultSet(resultset);
-            agentState.closeConnection(con);
+            agentState.closeConnection(con, status);
         }
         LOG.debug("Group {} is {} available", query.getQueryName(), (status ? "" : "not"));
         agentState.setGroupIsAvailable(query.getQueryName(), status);
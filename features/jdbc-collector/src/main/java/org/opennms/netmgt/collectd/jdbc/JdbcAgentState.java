@@ -38,10 +38,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.core.utils.DBTools;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.config.jdbc.JdbcQuery;
+import org.opennms.netmgt.utils.JdbcConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +51,10 @@ public class JdbcAgentState {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcAgentState.class);
 
     private static final String JAS_NO_DATASOURCE_FOUND = "NO_DATASOURCE_FOUND";
+
+    /** Milliseconds to wait for a pooled connection when all of them are in use. */
+    public static final String JDBC_POOL_TIMEOUT_PROPERTY = "org.opennms.netmgt.collectd.jdbc.poolTimeout";
+    private static final long DEFAULT_POOL_TIMEOUT = 30000;
     
     private boolean m_useDataSourceName;
     private String m_dataSourceName;
@@ -57,6 +63,10 @@ public class JdbcAgentState {
     
     Driver m_driver = null;
     Properties m_dbProps = null;
+    JdbcConnectionPool m_pool = null;
+
+    private static final AtomicInteger s_poolOwners = new AtomicInteger();
+    private final String m_poolOwner;
     
     private String m_address;
     private HashMap<String, JdbcGroupState> m_groupStates = new HashMap<String, JdbcGroupState>();
@@ -64,6 +74,7 @@ public class JdbcAgentState {
     public JdbcAgentState(InetAddress address, Map<String, Object> parameters) {
         // Save the target's address or hostname.
         m_address = address.getCanonicalHostName();
+        m_poolOwner = "JdbcCollector:" + m_address + ':' + s_poolOwners.incrementAndGet();
         
         // Ensure that we have parameters to work with.
         if (parameters == null) {
@@ -109,6 +120,9 @@ public class JdbcAgentState {
         m_dbProps = new Properties();
         m_dbProps.setProperty("user", dbUser);
         m_dbProps.setProperty("password", dbPass);
+
+        // Connections to the same target are shared with the JDBC monitors
+        m_pool = JdbcConnectionPool.getPool(m_poolOwner, m_driver, m_dbUrl, m_dbProps);
     }
     
     public Connection getJdbcConnection() throws JdbcCollectorException {
@@ -117,7 +131,7 @@ public class JdbcAgentState {
         }
         
         try {
-            return m_driver.connect(m_dbUrl, m_dbProps);
+            return m_pool.getConnection(Long.getLong(JDBC_POOL_TIMEOUT_PROPERTY, DEFAULT_POOL_TIMEOUT));
         } catch(SQLException e) {
             throw new JdbcCollectorException("Unable to connect to JDBC URL: '" + m_dbUrl +"'", e);
         }
@@ -143,7 +157,21 @@ public class JdbcAgentState {
     }
     
     public void closeConnection(Connection con) {
+        closeConnection(con, true);
+    }
+
+    /**
+     * Gives a connection back to its pool, or closes it.
+     *
+     * @param con the connection
+     * @param reusable false if the connection failed and must not be reused
+     */
+    public void closeConnection(Connection con, boolean reusable) {
         if (con == null) return;
+        if (!m_useDataSourceName && m_pool != null) {
+            m_pool.release(con, reusable);
+            return;
+        }
         try {
             con.close();
         } catch (SQLException ignore) {
@@ -151,6 +179,14 @@ public class JdbcAgentState {
         
     }
 
+    /**
+     * Closes the connection pools used only by this agent.
+     */
+    public void releaseConnections() {
+        JdbcConnectionPool.releaseOwner(m_poolOwner);
+        m_pool = null;
+    }
+
     public void closeStmt(Statement statement) {
         if (statement != null) {
             try {
@@ -111,6 +111,21 @@ public class AvailCalculations extends Object {
      */
     private List<Node> m_nodes;
 
+    /**
+     * Downtime of all the services of the category's nodes.
+     */
+    private DowntimeIndex m_nodeDowntime;
+
+    /**
+     * Number of services on the category's nodes.
+     */
+    private int m_nodeServiceCount;
+
+    /**
+     * Downtime per service name, built alongside the services map
+     */
+    private Map<String, DowntimeIndex> m_serviceDowntime = null;
+
     /**
      * Monitored Services for the category
      */
@@ -180,6 +195,8 @@ public class AvailCalculations extends Object {
                 m_report = report;
 
                 m_nodes = nodes;
+                m_nodeDowntime = DowntimeIndex.forNodes(nodes);
+                m_nodeServiceCount = serviceCount;
 
                 String label;
                 String descr;
@@ -357,8 +374,14 @@ public class AvailCalculations extends Object {
                     }
                 }
 
+                m_serviceDowntime = new HashMap<String, DowntimeIndex>();
+                for (final Map.Entry<String, Map<IfService, OutageSvcTimesList>> entry : m_services.entrySet()) {
+                    m_serviceDowntime.put(entry.getKey(), DowntimeIndex.forOutages(entry.getValue().values()));
+                }
+
                 LOG.debug("Services {}", m_services);
                 m_nodes = null;
+                m_nodeDowntime = null;
                 //
                 // N Days Daily Service Availability
                 //
@@ -411,6 +434,7 @@ public class AvailCalculations extends Object {
                 }
 
                 m_services = null;
+                m_serviceDowntime = null;
                 category.addCatSections(catSections);
                 categories.addCategory(category);
 
@@ -741,10 +765,8 @@ public class AvailCalculations extends Object {
             //
             // get the outage and service count.
             //
-            for(Node node : m_nodes) {
-                outage += node.getOutage(endTime, ROLLING_WINDOW);
-                serviceCount += node.getServiceCount();
-            }
+            outage += m_nodeDowntime.getDownTime(endTime, ROLLING_WINDOW);
+            serviceCount += m_nodeServiceCount;
             double percentAvail;
             if (serviceCount > 0){
 
@@ -820,10 +842,8 @@ public class AvailCalculations extends Object {
             //
             // get the outage and service count.
             //
-            for(Node node : m_nodes) {
-                outage += node.getOutage(endTime, ROLLING_WINDOW);
-                serviceCount += node.getServiceCount();
-            }
+            outage += m_nodeDowntime.getDownTime(endTime, ROLLING_WINDOW);
+            serviceCount += m_nodeServiceCount;
             double percentAvail;
             if (serviceCount > 0)
                 percentAvail = 100.0 * (1 - (outage * 1.0) / (1.0 * serviceCount * ROLLING_WINDOW));
@@ -901,10 +921,8 @@ public class AvailCalculations extends Object {
             //
             // get the outage and service count.
             //
-            for(Node node : m_nodes) {
-                serviceCount += node.getServiceCount();
-                outage += node.getOutage(endTime, ROLLING_WINDOW);
-            }
+            serviceCount += m_nodeServiceCount;
+            outage += m_nodeDowntime.getDownTime(endTime, ROLLING_WINDOW);
             periodFrom = fmt.format(new java.util.Date(endTime)) + " to " + periodEnd;
             endTime -= ROLLING_WINDOW;
         }
@@ -986,10 +1004,8 @@ public class AvailCalculations extends Object {
             //
             // get the outage and service count.
             //
-            for(Node node : m_nodes) {
-                serviceCount += node.getServiceCount();
-                outage += node.getOutage(endTime, rollingWindow);
-            }
+            serviceCount += m_nodeServiceCount;
+            outage += m_nodeDowntime.getDownTime(endTime, rollingWindow);
             double percentAvail;
             if (serviceCount > 0)
                 percentAvail = 100.0 * (1 - (outage * 1.0) / (1.0 * serviceCount * rollingWindow));
@@ -1179,26 +1195,12 @@ public class AvailCalculations extends Object {
                 int daysCnt = 0;
                 while (daysCnt++ < days) {
                     LOG.debug("DAy : {} end time {} ROLLING_WINDOW {}", daysCnt, new Date(curTime), ROLLING_WINDOW);
-                    int serviceCnt = 0;
-                    long outageTime = 0;
-                    // For each node in the service table.
+                    // Keep track of the number of services being
+                    // monitored.
                     //
-                    // Iterate each svc node for getting the ifservice
-                    for (final Map.Entry<IfService, OutageSvcTimesList> entry : svcOutages.entrySet()) {
-                        final IfService ifservice = entry.getKey();
-                        final OutageSvcTimesList outageList = entry.getValue();
-
-                        LOG.debug(ifservice.toString());
-
-                        if (outageList != null) {
-                            outage = outageList.getDownTime(curTime, ROLLING_WINDOW);
-                            // Keep track of the number of services being
-                            // monitored.
-                            //
-                            outageTime += outage;
-                        }
-                        serviceCnt++;
-                    }
+                    int serviceCnt = svcOutages.size();
+                    outage = m_serviceDowntime.get(service).getDownTime(curTime, ROLLING_WINDOW);
+                    long outageTime = outage;
                     LOG.debug("Outage Time {}", outageTime);
                     long den = (ROLLING_WINDOW * serviceCnt);
                     double outag = 1.0 * outageTime;
@@ -63,6 +63,18 @@ public class AvailabilityConstants {
                                                                                                                                                                                                         // > ?)
                                                                                                                                                                                                         // )";
 
+    /**
+     * The sql statement that is used to get the node information for every
+     * managed IP address.
+     */
+    public final static String DB_GET_MANAGED_INTERFACES = "SELECT ipInterface.ipAddr, node.nodeID, node.nodeLabel, node.nodeType FROM ipInterface, node " + "WHERE (ipInterface.nodeID = node.nodeID) AND (ipInterface.isManaged = 'M')";
+
+    /**
+     * The sql statement for getting every active service with its outages that
+     * overlap the report period, ordered by node/ip/service.
+     */
+    public final static String DB_GET_SVC_OUTAGE_ENTRIES = "SELECT ifServices.nodeID, ifServices.ipAddr, ifServices.id, service.serviceName, outages.ifLostService, outages.ifRegainedService " + "FROM ifServices JOIN service ON (ifServices.serviceID = service.serviceID) " + "LEFT JOIN outages ON ((outages.nodeID = ifServices.nodeID) AND (outages.ipAddr = ifServices.ipAddr) AND (outages.serviceID = ifServices.serviceID) AND (outages.ifLostService < ?) AND " + "(outages.ifRegainedService IS NULL OR outages.ifRegainedService > ? OR outages.ifRegainedService <= ?)) " + "WHERE (ifServices.status = 'A') ORDER BY ifServices.nodeID, ifServices.ipAddr, ifServices.id, outages.ifLostService";
+
     /**
      * The list of Availability Report Constants that are needed to display
      * appropriate messages on the report.
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.reporting.availability;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.opennms.reporting.datablock.Interface;
+import org.opennms.reporting.datablock.Node;
+import org.opennms.reporting.datablock.Outage;
+import org.opennms.reporting.datablock.OutageSvcTimesList;
+import org.opennms.reporting.datablock.Service;
+
+/**
+ * Answers "how much service downtime falls into this window" for a whole
+ * set of outages without walking them.  The lost and regained times are
+ * sorted once into breakpoints; the number of services down between two
+ * breakpoints and the downtime accumulated up to each breakpoint are then
+ * enough to integrate any window with a binary search.
+ *
+ * The result is the same as summing {@link Outage#getDownTime(long, long)}
+ * over every outage, which is what the per-node report loops used to do
+ * once per day and per month.
+ */
+class DowntimeIndex {
+    private final long[] m_times;
+    private final int[] m_active;
+    private final long[] m_integral;
+
+    /**
+     * Index the outages of every service of the given nodes.
+     *
+     * @param nodes the nodes of a category
+     * @return the index
+     */
+    static DowntimeIndex forNodes(final List<Node> nodes) {
+        final OutageCollector collector = new OutageCollector();
+        for (final Node node : nodes) {
+            if (node == null || node.getInterfaces() == null) continue;
+            for (final Interface intf : node.getInterfaces()) {
+                if (intf == null || intf.getServices() == null) continue;
+                for (final Service svc : intf.getServices()) {
+                    if (svc != null) collector.add(svc.getOutages());
+                }
+            }
+        }
+        return collector.build();
+    }
+
+    /**
+     * Index the given outage lists.
+     *
+     * @param outageLists the outages of a set of services
+     * @return the index
+     */
+    static DowntimeIndex forOutages(final Collection<OutageSvcTimesList> outageLists) {
+        final OutageCollector collector = new OutageCollector();
+        for (final OutageSvcTimesList outages : outageLists) {
+            collector.add(outages);
+        }
+        return collector.build();
+    }
+
+    private DowntimeIndex(final long[] starts, final long[] ends, final int count, final int endCount) {
+        final long[] lost = Arrays.copyOf(starts, count);
+        final long[] regained = Arrays.copyOf(ends, endCount);
+        Arrays.sort(lost);
+        Arrays.sort(regained);
+
+        final long[] times = new long[count + endCount];
+        final int[] active = new int[count + endCount];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        int down = 0;
+        while (i < count || j < endCount) {
+            final long t;
+            if (j >= endCount || (i < count && lost[i] <= regained[j])) {
+                t = lost[i];
+            } else {
+                t = regained[j];
+            }
+            while (i < count && lost[i] == t) {
+                down++;
+                i++;
+            }
+            while (j < endCount && regained[j] == t) {
+                down--;
+                j++;
+            }
+            times[n] = t;
+            active[n] = down;
+            n++;
+        }
+
+        m_times = Arrays.copyOf(times, n);
+        m_active = Arrays.copyOf(active, n);
+        m_integral = new long[n];
+        for (int k = 1; k < n; k++) {
+            m_integral[k] = m_integral[k - 1] + m_active[k - 1] * (m_times[k] - m_times[k - 1]);
+        }
+    }
+
+    /**
+     * Return the total downtime of the indexed outages in the rolling window
+     * that ends at <code>curTime</code>.
+     *
+     * @param curTime end of the rolling window (milliseconds)
+     * @param rollingWindow length of the rolling window (milliseconds)
+     * @return the downtime summed over all indexed outages
+     */
+    long getDownTime(final long curTime, final long rollingWindow) {
+        return downTimeUntil(curTime) - downTimeUntil(curTime - rollingWindow);
+    }
+
+    private long downTimeUntil(final long time) {
+        int k = Arrays.binarySearch(m_times, time);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        if (k < 0) {
+            return 0;
+        }
+        return m_integral[k] + m_active[k] * (time - m_times[k]);
+    }
+
+    private static class OutageCollector {
+        private long[] m_lost = new long[64];
+        private long[] m_regained = new long[64];
+        private int m_lostCount = 0;
+        private int m_regainedCount = 0;
+
+        void add(final OutageSvcTimesList outages) {
+            if (outages == null) return;
+            for (final Outage outage : outages) {
+                final long lost = outage.getLostTime();
+                final long regained = outage.getRegainedTime();
+                if (regained == -1) {
+                    addLost(lost);
+                } else if (regained >= lost) {
+                    addLost(lost);
+                    addRegained(regained);
+                }
+                // an outage regained before it was lost never counts as downtime
+            }
+        }
+
+        private void addLost(final long time) {
+            if (m_lostCount == m_lost.length) {
+                m_lost = Arrays.copyOf(m_lost, m_lostCount * 2);
+            }
+            m_lost[m_lostCount++] = time;
+        }
+
+        private void addRegained(final long time) {
+            if (m_regainedCount == m_regained.length) {
+                m_regained = Arrays.copyOf(m_regained, m_regainedCount * 2);
+            }
+            m_regained[m_regainedCount++] = time;
+        }
+
+        DowntimeIndex build() {
+            return new DowntimeIndex(m_lost, m_regained, m_lostCount, m_regainedCount);
+        }
+    }
+}
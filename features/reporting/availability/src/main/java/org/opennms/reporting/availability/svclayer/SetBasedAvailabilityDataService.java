@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.reporting.availability.svclayer;
+
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.opennms.core.db.DataSourceFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.config.CategoryFactory;
+import org.opennms.netmgt.config.categories.CatFactory;
+import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.reporting.availability.AvailabilityConstants;
+import org.opennms.reporting.datablock.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An {@link AvailabilityDataService} that reads the interfaces, services
+ * and outages of a category with two queries instead of three queries per
+ * interface and service.  The outages are streamed in node/ip/service order
+ * and the nodes are then built in exactly the order, and with exactly the
+ * outages, that {@link LegacyAvailabilityDataService} would have produced.</p>
+ */
+public class SetBasedAvailabilityDataService implements AvailabilityDataService {
+    private static final Logger LOG = LoggerFactory.getLogger(SetBasedAvailabilityDataService.class);
+
+    private static final String LOG4J_CATEGORY = "reports";
+
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * A node that has a managed interface with a given address.
+     */
+    private static class NodeInfo {
+        private final int m_nodeId;
+        private final String m_nodeLabel;
+
+        NodeInfo(final int nodeId, final String nodeLabel) {
+            m_nodeId = nodeId;
+            m_nodeLabel = nodeLabel;
+        }
+    }
+
+    /**
+     * An active service and the lost/regained times of its outages.
+     */
+    private static class ServiceOutages {
+        private final String m_serviceName;
+        private long[] m_lost = new long[4];
+        private long[] m_regained = new long[4];
+        private int m_count = 0;
+
+        ServiceOutages(final String serviceName) {
+            m_serviceName = serviceName;
+        }
+
+        void add(final long lost, final long regained) {
+            if (m_count == m_lost.length) {
+                m_lost = Arrays.copyOf(m_lost, m_count * 2);
+                m_regained = Arrays.copyOf(m_regained, m_count * 2);
+            }
+            m_lost[m_count] = lost;
+            m_regained[m_count] = regained;
+            m_count++;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Node> getNodes(final org.opennms.netmgt.config.categories.Category category, final long startTime, final long endTime) throws AvailabilityDataServiceException {
+        try {
+            return Logging.withPrefix(LOG4J_CATEGORY, new Callable<List<Node>>() {
+                @Override public List<Node> call() throws Exception {
+                    final CatFactory catFactory;
+                    try {
+                        CategoryFactory.init();
+                        catFactory = CategoryFactory.getInstance();
+                    } catch (final Exception e) {
+                        LOG.error("Failed to initialize CategoryFactory", e);
+                        throw new AvailabilityDataServiceException("failed to init catFactory");
+                    }
+
+                    catFactory.getReadLock().lock();
+                    try {
+                        final String commonRule = catFactory.getEffectiveRule(category.getLabel());
+
+                        FilterDaoFactory.getInstance().flushActiveIpAddressListCache();
+                        final List<InetAddress> nodeIPs = FilterDaoFactory.getInstance().getActiveIPAddressList(commonRule);
+                        LOG.debug("Number of IPs satisfying rule: {}", nodeIPs.size());
+
+                        final List<String> monitoredServices = new ArrayList<String>(category.getServiceCollection());
+                        LOG.debug("categories in monitoredServices = {}", monitoredServices);
+
+                        return getNodes(nodeIPs, monitoredServices, startTime, endTime);
+                    } catch (final Exception e) {
+                        LOG.debug("Failed to get nodes for category {}", category, e);
+                        throw new AvailabilityDataServiceException("Failed to get nodes for category " + category, e);
+                    } finally {
+                        catFactory.getReadLock().unlock();
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            if (e instanceof AvailabilityDataServiceException) throw (AvailabilityDataServiceException)e;
+            throw new AvailabilityDataServiceException(e);
+        }
+    }
+
+    private List<Node> getNodes(final List<InetAddress> nodeIPs, final List<String> monitoredServices, final long startTime, final long endTime) throws SQLException {
+        final Set<String> categoryIPs = new HashSet<String>();
+        for (final InetAddress addr : nodeIPs) {
+            categoryIPs.add(str(addr));
+        }
+
+        final Map<String, List<NodeInfo>> nodesByIP = new HashMap<String, List<NodeInfo>>();
+        final Map<String, Integer> managedCounts = new HashMap<String, Integer>();
+        final Map<String, List<ServiceOutages>> servicesByInterface = new HashMap<String, List<ServiceOutages>>();
+
+        final long start = System.currentTimeMillis();
+        final DBUtils db = new DBUtils(getClass());
+        try {
+            final Connection conn = DataSourceFactory.getInstance().getConnection();
+            db.watch(conn);
+
+            final PreparedStatement ifStmt = conn.prepareStatement(AvailabilityConstants.DB_GET_MANAGED_INTERFACES);
+            db.watch(ifStmt);
+            final ResultSet ifRS = ifStmt.executeQuery();
+            db.watch(ifRS);
+            while (ifRS.next()) {
+                final String ip = ifRS.getString(1);
+                if (!categoryIPs.contains(ip)) {
+                    continue;
+                }
+                // the legacy service query joins every managed interface with this address
+                final Integer count = managedCounts.get(ip);
+                managedCounts.put(ip, count == null ? 1 : count + 1);
+
+                if ("A".equals(ifRS.getString(4))) {
+                    List<NodeInfo> infos = nodesByIP.get(ip);
+                    if (infos == null) {
+                        infos = new ArrayList<NodeInfo>(1);
+                        nodesByIP.put(ip, infos);
+                    }
+                    infos.add(new NodeInfo(ifRS.getInt(2), ifRS.getString(3)));
+                }
+            }
+
+            // stream the services and outages; the cursor needs a transaction
+            final boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                final PreparedStatement svcStmt = conn.prepareStatement(AvailabilityConstants.DB_GET_SVC_OUTAGE_ENTRIES);
+                db.watch(svcStmt);
+                svcStmt.setFetchSize(FETCH_SIZE);
+                svcStmt.setTimestamp(1, new Timestamp(endTime));
+                svcStmt.setTimestamp(2, new Timestamp(startTime));
+                svcStmt.setTimestamp(3, new Timestamp(0));
+                final ResultSet svcRS = svcStmt.executeQuery();
+                db.watch(svcRS);
+
+                int lastIfServiceId = -1;
+                ServiceOutages current = null;
+                while (svcRS.next()) {
+                    final String ip = svcRS.getString(2);
+                    if (!categoryIPs.contains(ip)) {
+                        continue;
+                    }
+                    final int ifServiceId = svcRS.getInt(3);
+                    if (current == null || ifServiceId != lastIfServiceId) {
+                        final String key = svcRS.getInt(1) + "/" + ip;
+                        List<ServiceOutages> services = servicesByInterface.get(key);
+                        if (services == null) {
+                            services = new ArrayList<ServiceOutages>(2);
+                            servicesByInterface.put(key, services);
+                        }
+                        current = new ServiceOutages(svcRS.getString(4));
+                        services.add(current);
+                        lastIfServiceId = ifServiceId;
+                    }
+
+                    final Timestamp lost = svcRS.getTimestamp(5);
+                    if (lost != null) {
+                        final Timestamp regained = svcRS.getTimestamp(6);
+                        current.add(lost.getTime(), regained == null ? 0 : regained.getTime());
+                    }
+                }
+            } finally {
+                conn.commit();
+                conn.setAutoCommit(autoCommit);
+            }
+        } finally {
+            db.cleanUp();
+        }
+        LOG.debug("Loaded services for {} interfaces in {}ms", servicesByInterface.size(), System.currentTimeMillis() - start);
+
+        // build the nodes in the order the legacy service visits them
+        final List<Node> nodes = new ArrayList<Node>();
+        final Map<Integer, Node> nodesById = new HashMap<Integer, Node>();
+        for (final InetAddress addr : nodeIPs) {
+            final String ip = str(addr);
+            final List<NodeInfo> infos = nodesByIP.get(ip);
+            if (infos == null) {
+                continue;
+            }
+            final int copies = managedCounts.get(ip);
+            for (final NodeInfo info : infos) {
+                final List<ServiceOutages> services = servicesByInterface.get(info.m_nodeId + "/" + ip);
+                if (services == null) {
+                    continue;
+                }
+                for (int copy = 0; copy < copies; copy++) {
+                    for (final ServiceOutages svc : services) {
+                        if (monitoredServices.isEmpty() || monitoredServices.contains(svc.m_serviceName)) {
+                            Node node = nodesById.get(info.m_nodeId);
+                            if (node == null) {
+                                node = new Node(info.m_nodeLabel, info.m_nodeId);
+                                nodes.add(node);
+                                nodesById.put(info.m_nodeId, node);
+                            }
+                            node.addInterface(ip, svc.m_serviceName);
+                            addOutages(node, ip, svc, startTime, endTime);
+                        }
+                    }
+                }
+            }
+        }
+        LOG.debug("Built {} nodes in {}ms", nodes.size(), System.currentTimeMillis() - start);
+        return nodes;
+    }
+
+    private static void addOutages(final Node node, final String ip, final ServiceOutages svc, final long startTime, final long endTime) {
+        for (int i = 0; i < svc.m_count; i++) {
+            final long losttime = svc.m_lost[i];
+            final long regainedtime = svc.m_regained[i];
+
+            if (regainedtime > 0) {
+                if (regainedtime <= startTime || losttime >= endTime) {
+                    continue;
+                }
+            } else {
+                if (losttime >= endTime) {
+                    continue;
+                }
+            }
+
+            if (losttime > 0) {
+                if (regainedtime > 0) {
+                    node.addInterface(ip, svc.m_serviceName, losttime, regainedtime);
+                } else {
+                    node.addInterface(ip, svc.m_serviceName, losttime);
+                }
+            } else {
+                node.addInterface(ip, svc.m_serviceName);
+            }
+        }
+    }
+}
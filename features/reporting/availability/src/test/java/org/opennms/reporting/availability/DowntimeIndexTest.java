@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.reporting.availability;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.reporting.datablock.Node;
+import org.opennms.reporting.datablock.Outage;
+import org.opennms.reporting.datablock.OutageSvcTimesList;
+
+public class DowntimeIndexTest {
+    private static final long DAY = 86400000L;
+    private static final long END = 1370000000000L;
+
+    @Test
+    public void testEmpty() {
+        final DowntimeIndex index = DowntimeIndex.forNodes(new ArrayList<Node>());
+        assertEquals(0, index.getDownTime(END, DAY));
+    }
+
+    @Test
+    public void testSingleOutages() {
+        final OutageSvcTimesList closed = new OutageSvcTimesList();
+        closed.add(new Outage(END - 2 * DAY, END - DAY / 2));
+        final OutageSvcTimesList open = new OutageSvcTimesList();
+        open.add(new Outage(END - DAY / 4));
+        final OutageSvcTimesList backwards = new OutageSvcTimesList();
+        backwards.add(new Outage(END - DAY / 4, END - DAY / 2));
+
+        final DowntimeIndex index = DowntimeIndex.forOutages(Arrays.asList(closed, open, backwards));
+        assertEquals(DAY / 2 + DAY / 4, index.getDownTime(END, DAY));
+        assertEquals(DAY, index.getDownTime(END - DAY, DAY));
+        assertEquals(0, index.getDownTime(END - 2 * DAY, DAY));
+        assertEquals(DAY * 3 / 4, index.getDownTime(END + DAY / 2, DAY));
+    }
+
+    @Test
+    public void testMatchesNodeOutages() {
+        final Random random = new Random(42);
+        final List<Node> nodes = new ArrayList<Node>();
+        for (int n = 0; n < 20; n++) {
+            final Node node = new Node("node" + n, n);
+            for (int i = 0; i < 3; i++) {
+                final String ip = "10.0." + n + "." + i;
+                for (final String svc : new String[] { "ICMP", "HTTP", "SNMP" }) {
+                    node.addInterface(ip, svc);
+                    final int outages = random.nextInt(5);
+                    for (int o = 0; o < outages; o++) {
+                        final long lost = END - (long)(random.nextDouble() * 60 * DAY);
+                        final int kind = random.nextInt(4);
+                        if (kind == 0) {
+                            node.addInterface(ip, svc, lost);
+                        } else if (kind == 1) {
+                            node.addInterface(ip, svc, lost, lost - random.nextInt(100000));
+                        } else {
+                            node.addInterface(ip, svc, lost, lost + (long)(random.nextDouble() * 3 * DAY));
+                        }
+                    }
+                }
+            }
+            nodes.add(node);
+        }
+
+        final DowntimeIndex index = DowntimeIndex.forNodes(nodes);
+        for (long end = END + 5 * DAY; end > END - 70 * DAY; end -= DAY / 3) {
+            for (final long window : new long[] { DAY, 30 * DAY }) {
+                long expected = 0;
+                for (final Node node : nodes) {
+                    expected += node.getOutage(end, window);
+                }
+                assertEquals("window ending " + end, expected, index.getDownTime(end, window));
+            }
+        }
+    }
+}
@@ -33,10 +33,20 @@ import java.io.File;
 import java.net.MalformedURLException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.bind.JAXB;
 import javax.xml.bind.JAXBContext;
@@ -66,6 +76,7 @@ import org.opennms.features.topology.api.topo.WrappedGraph;
 import org.opennms.features.topology.api.topo.WrappedGroup;
 import org.opennms.features.topology.api.topo.WrappedLeafVertex;
 import org.opennms.features.topology.api.topo.WrappedVertex;
+import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.dao.api.DataLinkInterfaceDao;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -77,6 +88,10 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
 import org.opennms.netmgt.model.OnmsSnmpInterface;
+import org.opennms.netmgt.model.PrimaryType;
+import org.opennms.netmgt.model.events.EventListener;
+import org.opennms.netmgt.model.events.EventSubscriptionService;
+import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -85,7 +100,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 
-public class LinkdTopologyProvider extends AbstractTopologyProvider implements GraphProvider, SearchProvider {
+public class LinkdTopologyProvider extends AbstractTopologyProvider implements GraphProvider, SearchProvider, EventListener {
 	
 	private static Logger LOG = LoggerFactory.getLogger(LinkdTopologyProvider.class);
 
@@ -273,6 +288,39 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
         "LowerLayerDown"   //7
       };
 
+    private static final String LINK_DISCOVERY_COMPLETED_EVENT_UEI = "uei.opennms.org/internal/linkd/linkDiscoveryCompleted";
+
+    /**
+     * Events that change a single node's vertex, or the tooltips of its edges.
+     */
+    private static final List<String> NODE_EVENT_UEIS = Arrays.asList(
+        EventConstants.NODE_ADDED_EVENT_UEI,
+        EventConstants.NODE_DELETED_EVENT_UEI,
+        EventConstants.NODE_UPDATED_EVENT_UEI,
+        EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+        EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+        EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+        EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI
+    );
+
+    /**
+     * Events after which the data links have to be read again.
+     */
+    private static final List<String> LINK_EVENT_UEIS = Arrays.asList(
+        LINK_DISCOVERY_COMPLETED_EVENT_UEI,
+        EventConstants.DATA_LINK_FAILED_EVENT_UEI,
+        EventConstants.DATA_LINK_RESTORED_EVENT_UEI,
+        EventConstants.DATA_LINK_UNMANAGED_EVENT_UEI
+    );
+
+    /**
+     * Number of node IDs per SNMP interface query.
+     */
+    private static final int NODE_ID_BATCH_SIZE = 1000;
+
     private boolean addNodeWithoutLink = false;
     
     private DataLinkInterfaceDao m_dataLinkInterfaceDao;
@@ -293,6 +341,25 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
     
     private LinkdHopCriteriaFactory m_criteriaHopFactory;
 
+    private EventSubscriptionService m_eventSubscriptionService;
+
+    /*
+     * Indexes of what the current graph was built from.  They are only
+     * touched while holding the provider's monitor.
+     */
+    private final Map<Integer, OnmsNode> m_nodes = new LinkedHashMap<Integer, OnmsNode>();
+    private final Map<Integer, OnmsIpInterface> m_addresses = new HashMap<Integer, OnmsIpInterface>();
+    private final Map<String, OnmsSnmpInterface> m_snmpInterfaces = new HashMap<String, OnmsSnmpInterface>();
+    private final Map<String, DataLinkInterface> m_links = new HashMap<String, DataLinkInterface>();
+    private final Map<Integer, Set<String>> m_linksByNode = new HashMap<Integer, Set<String>>();
+
+    /*
+     * Changes reported by events, applied by the next refresh.
+     */
+    private final Set<Integer> m_changedNodes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final AtomicBoolean m_linksChanged = new AtomicBoolean(false);
+    private volatile boolean m_loaded = false;
+
     public String getConfigurationFile() {
         return m_configurationFile;
     }
@@ -322,6 +389,9 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
     }
 
     public void setAddNodeWithoutLink(boolean addNodeWithoutLink) {
+        if (this.addNodeWithoutLink != addNodeWithoutLink) {
+            m_loaded = false;
+        }
         this.addNodeWithoutLink = addNodeWithoutLink;
     }
 
@@ -353,6 +423,49 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
         m_criteriaHopFactory = factory;
     }
 
+    /**
+     * Called by the OSGi blueprint when the event subscription service becomes
+     * available.  From then on, refreshes only apply the nodes and links that
+     * events reported as changed.
+     */
+    public synchronized void onBind(EventSubscriptionService eventSubscriptionService) {
+        if (eventSubscriptionService == null) return;
+        final List<String> ueis = new ArrayList<String>(NODE_EVENT_UEIS);
+        ueis.addAll(LINK_EVENT_UEIS);
+        eventSubscriptionService.addEventListener(this, ueis);
+        m_eventSubscriptionService = eventSubscriptionService;
+        // changes made before we were listening are only picked up by a full load
+        m_loaded = false;
+        LOG.info("Listening for node and link events, the linkd topology will be updated incrementally");
+    }
+
+    public synchronized void onUnbind(EventSubscriptionService eventSubscriptionService) {
+        if (eventSubscriptionService == null) return;
+        try {
+            eventSubscriptionService.removeEventListener(this);
+        } catch (final RuntimeException e) {
+            LOG.debug("Unable to remove the linkd topology event listener", e);
+        }
+        m_eventSubscriptionService = null;
+        LOG.info("No longer listening for node and link events, the linkd topology will be reloaded on every refresh");
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void onEvent(Event e) {
+        if (LINK_EVENT_UEIS.contains(e.getUei())) {
+            LOG.debug("onEvent: links changed: {}", e.getUei());
+            m_linksChanged.set(true);
+        } else if (NODE_EVENT_UEIS.contains(e.getUei()) && e.hasNodeid()) {
+            LOG.debug("onEvent: node {} changed: {}", e.getNodeid(), e.getUei());
+            m_changedNodes.add(e.getNodeid().intValue());
+        }
+    }
+
     /**
      * Used as an init-method in the OSGi blueprint
      * @throws JAXBException 
@@ -376,9 +489,13 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
     }
 
     @Override
-    public void refresh() {
+    public synchronized void refresh() {
         try {
-            load(null);
+            if (m_loaded && m_eventSubscriptionService != null) {
+                applyChanges();
+            } else {
+                load(null);
+            }
         } catch (MalformedURLException e) {
             LOG.error(e.getMessage(), e);
         } catch (JAXBException e) {
@@ -387,60 +504,53 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
     }
 
     @Override
-    public void load(String filename) throws MalformedURLException, JAXBException {
+    public synchronized void resetContainer() {
+        super.resetContainer();
+        m_nodes.clear();
+        m_addresses.clear();
+        m_snmpInterfaces.clear();
+        m_links.clear();
+        m_linksByNode.clear();
+        m_loaded = false;
+    }
+
+    @Override
+    public synchronized void load(String filename) throws MalformedURLException, JAXBException {
         if (filename != null) {
             LOG.warn("Filename that was specified for linkd topology will be ignored: " + filename + ", using " + m_configurationFile + " instead");
         }
         LOG.debug("loadtopology: resetContainer ");
         resetContainer();
+        // whatever changes from here on is applied by the next refresh
+        m_changedNodes.clear();
+        m_linksChanged.set(false);
 
-        for (DataLinkInterface link: m_dataLinkInterfaceDao.findAll()) {
-            LOG.debug("loadtopology: parsing link: " + link.getDataLinkInterfaceId());
+        final long start = System.currentTimeMillis();
+        loadNodesAndAddresses();
+        final long nodesLoaded = System.currentTimeMillis();
 
-            OnmsNode node = m_nodeDao.get(link.getNode().getId());
-            LOG.debug("loadtopology: found source node: " + node.getLabel());
-            String sourceId = node.getNodeId();
-            Vertex source = getVertex(getVertexNamespace(), sourceId);
-            if (source == null) {
-                LOG.debug("loadtopology: adding source node as vertex: " + node.getLabel());
-                source = getVertex(node);
-                addVertices(source);
-            }
-
-            OnmsNode parentNode = m_nodeDao.get(link.getNodeParentId());
-            LOG.debug("loadtopology: found target node: " + parentNode.getLabel());
-            String targetId = parentNode.getNodeId();
-            Vertex target = getVertex(getVertexNamespace(), targetId);
-            if (target == null) {
-                LOG.debug("loadtopology: adding target as vertex: " + parentNode.getLabel());
-                target = getVertex(parentNode);
-                addVertices(target);
-            }
-            
-            // Create a new edge that connects the vertices
-            // TODO: Make sure that all properties are set on this object
-            AbstractEdge edge = connectVertices(link.getDataLinkInterfaceId(), source, target); 
-            edge.setTooltipText(getEdgeTooltipText(link, source, target));
+        final Collection<DataLinkInterface> links = m_dataLinkInterfaceDao.findAll();
+        final long linksLoaded = System.currentTimeMillis();
+
+        loadSnmpInterfaces(getNodeIds(links));
+        final long snmpInterfacesLoaded = System.currentTimeMillis();
+
+        for (DataLinkInterface link: links) {
+            LOG.debug("loadtopology: parsing link: " + link.getDataLinkInterfaceId());
+            addLink(link);
         }
         
         LOG.debug("loadtopology: adding nodes without links: " + isAddNodeWithoutLink());
         if (isAddNodeWithoutLink()) {
-
-            List<OnmsNode> allNodes;
-            allNodes = getAllNodesNoACL();
-
-            for (OnmsNode onmsnode: allNodes) {
+            for (OnmsNode onmsnode: m_nodes.values()) {
                 String nodeId = onmsnode.getNodeId();
                 if (getVertex(getVertexNamespace(), nodeId) == null) {
                     LOG.debug("loadtopology: adding link-less node: " + onmsnode.getLabel());
                     addVertices(getVertex(onmsnode));
                 }
             }
-
-
-
-
         }
+        final long graphBuilt = System.currentTimeMillis();
         
         File configFile = new File(m_configurationFile);
         if (configFile.exists() && configFile.canRead()) {
@@ -493,32 +603,341 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
         LOG.debug("Found " + getGroups().size() + " groups");        
         LOG.debug("Found " + getVerticesWithoutGroups().size() + " vertices");
         LOG.debug("Found " + getEdges().size() + " edges");
+
+        m_loaded = true;
+        LOG.info("loadtopology: loaded {} nodes and {} links in {}ms (nodes and interfaces: {}ms, links: {}ms, SNMP interfaces: {}ms, graph: {}ms, groups: {}ms)",
+                 m_nodes.size(), links.size(), System.currentTimeMillis() - start,
+                 nodesLoaded - start, linksLoaded - nodesLoaded, snmpInterfacesLoaded - linksLoaded,
+                 graphBuilt - snmpInterfacesLoaded, System.currentTimeMillis() - graphBuilt);
+    }
+
+    /**
+     * Apply the nodes and links that were reported as changed since the
+     * last load or refresh, instead of loading the whole topology again.
+     */
+    private void applyChanges() {
+        final boolean linksChanged = m_linksChanged.getAndSet(false);
+        final Set<Integer> changedNodes = new HashSet<Integer>();
+        for (final Iterator<Integer> it = m_changedNodes.iterator(); it.hasNext(); ) {
+            changedNodes.add(it.next());
+            it.remove();
+        }
+        if (!linksChanged && changedNodes.isEmpty()) {
+            LOG.debug("refresh: no node or link changes since the last refresh");
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        for (final Integer nodeId : changedNodes) {
+            updateNode(nodeId);
+        }
+        final long nodesUpdated = System.currentTimeMillis();
+
+        if (linksChanged) {
+            updateLinks();
+        }
+        LOG.info("refresh: applied {} changed nodes{} in {}ms (nodes: {}ms, links: {}ms)",
+                 changedNodes.size(), linksChanged ? " and changed links" : "", System.currentTimeMillis() - start,
+                 nodesUpdated - start, System.currentTimeMillis() - nodesUpdated);
+    }
+
+    /**
+     * Read one node, its address and its SNMP interfaces again and update its
+     * vertex and the tooltips of its edges.
+     */
+    private void updateNode(final Integer nodeId) {
+        final OnmsNode node = m_nodeDao.get(nodeId);
+        final Vertex vertex = getVertex(getVertexNamespace(), String.valueOf(nodeId));
+
+        if (node == null || NodeType.DELETED.equals(node.getType())) {
+            LOG.debug("refresh: removing node {}", nodeId);
+            m_nodes.remove(nodeId);
+            m_addresses.remove(nodeId);
+            removeSnmpInterfaces(nodeId);
+            final Set<String> linkIds = m_linksByNode.get(nodeId);
+            if (linkIds != null) {
+                for (final String linkId : new ArrayList<String>(linkIds)) {
+                    removeLink(linkId);
+                }
+            }
+            if (vertex != null && !vertex.isGroup()) {
+                removeVertex(vertex);
+            }
+            return;
+        }
+
+        LOG.debug("refresh: updating node {}", nodeId);
+        m_nodes.put(nodeId, node);
+        final OnmsIpInterface ip = getAddress(node);
+        if (ip == null) {
+            m_addresses.remove(nodeId);
+        } else {
+            m_addresses.put(nodeId, ip);
+        }
+        removeSnmpInterfaces(nodeId);
+        loadSnmpInterfaces(Collections.singleton(nodeId));
+
+        if (vertex instanceof AbstractVertex && !vertex.isGroup()) {
+            final AbstractVertex current = (AbstractVertex)vertex;
+            current.setIconKey(getIconName(node));
+            current.setLabel(node.getLabel());
+            current.setIpAddress(ip == null ? null : ip.getIpAddress().getHostAddress());
+            current.setTooltipText(getNodeTooltipText(node, current, ip));
+        } else if (vertex == null && isAddNodeWithoutLink()) {
+            addVertices(getVertex(node));
+        }
+
+        final Set<String> linkIds = m_linksByNode.get(nodeId);
+        if (linkIds != null) {
+            for (final String linkId : linkIds) {
+                updateEdgeTooltip(m_links.get(linkId));
+            }
+        }
+    }
+
+    /**
+     * Read the data links and the SNMP interfaces of their nodes again, and
+     * add, remove or update the edges that differ.
+     */
+    private void updateLinks() {
+        final Collection<DataLinkInterface> links = m_dataLinkInterfaceDao.findAll();
+        m_snmpInterfaces.clear();
+        loadSnmpInterfaces(getNodeIds(links));
+
+        final Set<String> removed = new HashSet<String>(m_links.keySet());
+        for (final DataLinkInterface link : links) {
+            final String linkId = link.getDataLinkInterfaceId();
+            removed.remove(linkId);
+            final DataLinkInterface current = m_links.get(linkId);
+            if (current != null && current.getNode().getId().equals(link.getNode().getId()) && current.getNodeParentId().equals(link.getNodeParentId())) {
+                m_links.put(linkId, link);
+                updateEdgeTooltip(link);
+            } else {
+                if (current != null) {
+                    removeLink(linkId);
+                }
+                addLink(link);
+            }
+        }
+        for (final String linkId : removed) {
+            removeLink(linkId);
+        }
+
+        if (!isAddNodeWithoutLink()) {
+            // a full load only has vertices for nodes with links
+            for (final Vertex vertex : getVerticesWithoutGroups()) {
+                if (vertex.getNodeID() != null && !m_linksByNode.containsKey(vertex.getNodeID())) {
+                    removeVertex(vertex);
+                }
+            }
+        }
+        LOG.debug("refresh: {} links, {} removed", links.size(), removed.size());
+    }
+
+    /**
+     * Add the edge for a link, and the vertices of its ends if they are not
+     * in the graph yet.
+     */
+    private void addLink(final DataLinkInterface link) {
+        final OnmsNode node = getNode(link.getNode().getId());
+        final OnmsNode parentNode = getNode(link.getNodeParentId());
+        if (node == null || parentNode == null) {
+            LOG.warn("loadtopology: skipping link {}, node {} or {} does not exist", link.getDataLinkInterfaceId(), link.getNode().getId(), link.getNodeParentId());
+            return;
+        }
+
+        LOG.debug("loadtopology: found source node: " + node.getLabel());
+        String sourceId = node.getNodeId();
+        Vertex source = getVertex(getVertexNamespace(), sourceId);
+        if (source == null) {
+            LOG.debug("loadtopology: adding source node as vertex: " + node.getLabel());
+            source = getVertex(node);
+            addVertices(source);
+        }
+
+        LOG.debug("loadtopology: found target node: " + parentNode.getLabel());
+        String targetId = parentNode.getNodeId();
+        Vertex target = getVertex(getVertexNamespace(), targetId);
+        if (target == null) {
+            LOG.debug("loadtopology: adding target as vertex: " + parentNode.getLabel());
+            target = getVertex(parentNode);
+            addVertices(target);
+        }
+        
+        // Create a new edge that connects the vertices
+        // TODO: Make sure that all properties are set on this object
+        AbstractEdge edge = connectVertices(link.getDataLinkInterfaceId(), source, target); 
+        edge.setTooltipText(getEdgeTooltipText(link, source, target));
+
+        m_links.put(link.getDataLinkInterfaceId(), link);
+        getLinkIds(node.getId()).add(link.getDataLinkInterfaceId());
+        getLinkIds(parentNode.getId()).add(link.getDataLinkInterfaceId());
+    }
+
+    private void updateEdgeTooltip(final DataLinkInterface link) {
+        final Edge edge = getEdge(getEdgeNamespace(), link.getDataLinkInterfaceId());
+        if (edge != null) {
+            final Vertex source = getVertex(edge.getSource().getVertex());
+            final Vertex target = getVertex(edge.getTarget().getVertex());
+            if (source != null && target != null) {
+                edge.setTooltipText(getEdgeTooltipText(link, source, target));
+            }
+        }
+    }
+
+    private void removeLink(final String linkId) {
+        final DataLinkInterface link = m_links.remove(linkId);
+        if (link != null) {
+            removeLinkId(link.getNode().getId(), linkId);
+            removeLinkId(link.getNodeParentId(), linkId);
+        }
+        final Edge edge = getEdge(getEdgeNamespace(), linkId);
+        if (edge != null) {
+            removeEdges(edge);
+        }
+    }
+
+    private Set<String> getLinkIds(final Integer nodeId) {
+        Set<String> linkIds = m_linksByNode.get(nodeId);
+        if (linkIds == null) {
+            linkIds = new HashSet<String>();
+            m_linksByNode.put(nodeId, linkIds);
+        }
+        return linkIds;
+    }
+
+    private void removeLinkId(final Integer nodeId, final String linkId) {
+        final Set<String> linkIds = m_linksByNode.get(nodeId);
+        if (linkIds != null) {
+            linkIds.remove(linkId);
+            if (linkIds.isEmpty()) {
+                m_linksByNode.remove(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Return the node from the index, reading and indexing nodes that were
+     * added since the last load.
+     */
+    private OnmsNode getNode(final Integer nodeId) {
+        OnmsNode node = m_nodes.get(nodeId);
+        if (node == null) {
+            node = m_nodeDao.get(nodeId);
+            if (node != null) {
+                m_nodes.put(nodeId, node);
+                final OnmsIpInterface ip = getAddress(node);
+                if (ip != null) {
+                    m_addresses.put(nodeId, ip);
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Read all nodes and IP interfaces with one query each.  The ACL filter
+     * is bypassed, as it was when nodes were read one by one with
+     * {@link NodeDao#get(java.io.Serializable)}; the vertices are filtered
+     * per user by the {@link NodeACLVertexProvider}.
+     */
+    private void loadNodesAndAddresses() {
+        m_nodes.clear();
+        m_addresses.clear();
+        runWithoutAuthorizationFilter(new Runnable() {
+            @Override
+            public void run() {
+                for (final OnmsNode node : m_nodeDao.findAll()) {
+                    m_nodes.put(node.getId(), node);
+                }
+                for (final OnmsIpInterface ip : m_ipInterfaceDao.findAll()) {
+                    if (ip.getNode() == null) continue;
+                    final Integer nodeId = ip.getNode().getId();
+                    final OnmsIpInterface current = m_addresses.get(nodeId);
+                    if (current == null || isPreferredAddress(ip, current)) {
+                        m_addresses.put(nodeId, ip);
+                    }
+                }
+            }
+        });
+        LOG.debug("loadtopology: loaded {} nodes, {} with an address", m_nodes.size(), m_addresses.size());
+    }
+
+    /**
+     * Same choice as {@link IpInterfaceDao#findPrimaryInterfaceByNodeId(Integer)}:
+     * the most recently scanned primary SNMP interface, else any interface.
+     */
+    private static boolean isPreferredAddress(final OnmsIpInterface ip, final OnmsIpInterface current) {
+        if (!PrimaryType.PRIMARY.equals(ip.getIsSnmpPrimary())) {
+            return false;
+        }
+        if (!PrimaryType.PRIMARY.equals(current.getIsSnmpPrimary())) {
+            return true;
+        }
+        final Date scanned = ip.getIpLastCapsdPoll();
+        return scanned != null && (current.getIpLastCapsdPoll() == null || scanned.after(current.getIpLastCapsdPoll()));
+    }
+
+    /**
+     * Read the SNMP interfaces of the given nodes, a batch of nodes per query.
+     */
+    private void loadSnmpInterfaces(final Collection<Integer> nodeIds) {
+        final List<Integer> ids = new ArrayList<Integer>(nodeIds);
+        for (int i = 0; i < ids.size(); i += NODE_ID_BATCH_SIZE) {
+            final CriteriaBuilder cb = new CriteriaBuilder(OnmsSnmpInterface.class);
+            cb.alias("node", "node");
+            cb.in("node.id", ids.subList(i, Math.min(i + NODE_ID_BATCH_SIZE, ids.size())));
+            for (final OnmsSnmpInterface snmpInterface : m_snmpInterfaceDao.findMatching(cb.toCriteria())) {
+                m_snmpInterfaces.put(getSnmpInterfaceKey(snmpInterface.getNode().getId(), snmpInterface.getIfIndex()), snmpInterface);
+            }
+        }
     }
 
-    private List<OnmsNode> getAllNodesNoACL() {
-        if(getFilterManager().isEnabled()){
+    private void removeSnmpInterfaces(final Integer nodeId) {
+        final String prefix = nodeId + ":";
+        for (final Iterator<String> it = m_snmpInterfaces.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private OnmsSnmpInterface getSnmpInterface(final Integer nodeId, final Integer ifIndex) {
+        return m_snmpInterfaces.get(getSnmpInterfaceKey(nodeId, ifIndex));
+    }
+
+    private static String getSnmpInterfaceKey(final Integer nodeId, final Integer ifIndex) {
+        return nodeId + ":" + ifIndex;
+    }
+
+    private static Set<Integer> getNodeIds(final Collection<DataLinkInterface> links) {
+        final Set<Integer> nodeIds = new HashSet<Integer>();
+        for (final DataLinkInterface link : links) {
+            nodeIds.add(link.getNode().getId());
+            nodeIds.add(link.getNodeParentId());
+        }
+        return nodeIds;
+    }
+
+    private void runWithoutAuthorizationFilter(final Runnable runnable) {
+        if (getFilterManager() != null && getFilterManager().isEnabled()) {
             String[] userGroups = getFilterManager().getAuthorizationGroups();
-            List<OnmsNode> nodeList = null;
-            try{
+            try {
                 getFilterManager().disableAuthorizationFilter();
-                nodeList = m_nodeDao.findAll();
-
+                runnable.run();
             } finally {
                 // Make sure that we re-enable the authorization filter
-                if(userGroups != null){
+                if (userGroups != null) {
                     getFilterManager().enableAuthorizationFilter(userGroups);
                 }
             }
-            return nodeList != null ? nodeList : Collections.<OnmsNode>emptyList();
         } else {
-            return m_nodeDao.findAll();
+            runnable.run();
         }
-
-
     }
 
     private AbstractVertex getVertex(OnmsNode onmsnode) {
-        OnmsIpInterface ip = getAddress(onmsnode);
+        OnmsIpInterface ip = m_addresses.get(onmsnode.getId());
         AbstractVertex vertex = new SimpleLeafVertex(TOPOLOGY_NAMESPACE_LINKD, onmsnode.getNodeId(), 0, 0);
         vertex.setIconKey(getIconName(onmsnode));
         vertex.setLabel(onmsnode.getLabel());
@@ -546,8 +965,8 @@ public class LinkdTopologyProvider extends AbstractTopologyProvider implements G
             Vertex source, Vertex target) {
         StringBuffer tooltipText = new StringBuffer();
 
-        OnmsSnmpInterface sourceInterface = m_snmpInterfaceDao.findByNodeIdAndIfIndex(Integer.parseInt(source.getId()), link.getIfIndex());
-        OnmsSnmpInterface targetInterface = m_snmpInterfaceDao.findByNodeIdAndIfIndex(Integer.parseInt(target.getId()), link.getParentIfIndex());
+        OnmsSnmpInterface sourceInterface = getSnmpInterface(Integer.parseInt(source.getId()), link.getIfIndex());
+        OnmsSnmpInterface targetInterface = getSnmpInterface(Integer.parseInt(target.getId()), link.getParentIfIndex());
         
         tooltipText.append(HTML_TOOLTIP_TAG_OPEN);
         if (sourceInterface != null && targetInterface != null
@@ -35,6 +35,7 @@ import java.util.Set;
 
 import org.easymock.EasyMock;
 import org.junit.Assert;
+import org.opennms.core.criteria.Criteria;
 import org.opennms.features.topology.api.GraphContainer;
 import org.opennms.features.topology.api.OperationContext;
 import org.opennms.features.topology.api.topo.AbstractEdge;
@@ -50,6 +51,7 @@ import org.opennms.netmgt.model.NetworkBuilder;
 import org.opennms.netmgt.model.OnmsDistPoller;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSnmpInterface;
 import org.opennms.netmgt.model.OnmsArpInterface.StatusType;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -298,10 +300,20 @@ public class EasyMockDataPopulator {
         return ips;
         
     }
+    private List<OnmsIpInterface> getIpInterfaces() {
+        List<OnmsIpInterface> ips = new ArrayList<OnmsIpInterface>();
+        for (OnmsNode node: getNodes()) {
+            ips.addAll(node.getIpInterfaces());
+        }
+        return ips;
+    }
+
     public void setUpMock() {
         
         EasyMock.expect(m_dataLinkInterfaceDao.findAll()).andReturn(getLinks()).anyTimes();
         EasyMock.expect(m_nodeDao.findAll()).andReturn(getNodes()).anyTimes();
+        EasyMock.expect(m_ipInterfaceDao.findAll()).andReturn(getIpInterfaces()).anyTimes();
+        EasyMock.expect(m_snmpInterfaceDao.findMatching(EasyMock.isA(Criteria.class))).andReturn(new ArrayList<OnmsSnmpInterface>()).anyTimes();
         
         for (int i=1;i<9;i++) {
             EasyMock.expect(m_nodeDao.get(i)).andReturn(getNode(i)).anyTimes();
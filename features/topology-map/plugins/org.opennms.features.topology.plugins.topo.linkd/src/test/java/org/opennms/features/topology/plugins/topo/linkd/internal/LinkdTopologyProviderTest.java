@@ -63,10 +63,14 @@ import org.opennms.features.topology.api.topo.VertexProvider;
 import org.opennms.features.topology.api.topo.VertexRef;
 import org.opennms.features.topology.api.topo.WrappedLeafVertex;
 import org.opennms.features.topology.api.topo.WrappedVertex;
+import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.dao.api.DataLinkInterfaceDao;
 import org.opennms.netmgt.model.DataLinkInterface;
 import org.opennms.netmgt.model.FilterManager;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsNode.NodeType;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.model.events.EventSubscriptionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -263,6 +267,53 @@ public class LinkdTopologyProviderTest {
 		assertEquals(0, m_topologyProvider.getSemanticZoomLevel(vertexE));
 	}
 	
+	@Test
+	public void testRefreshAppliesNodeEvents() {
+		EventSubscriptionService eventSubscriptionService = EasyMock.createNiceMock(EventSubscriptionService.class);
+		EasyMock.replay(eventSubscriptionService);
+		m_topologyProvider.onBind(eventSubscriptionService);
+		try {
+			// The first refresh after binding is a full load
+			m_topologyProvider.refresh();
+			assertEquals(8, m_topologyProvider.getVertices().size());
+			assertEquals(8, m_topologyProvider.getEdges().size());
+
+			m_databasePopulator.getNode1().setLabel("router1");
+			m_databasePopulator.getNode8().setType(NodeType.DELETED);
+			m_topologyProvider.onEvent(new EventBuilder(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI, "test").setNodeid(1).getEvent());
+			m_topologyProvider.onEvent(new EventBuilder(EventConstants.NODE_DELETED_EVENT_UEI, "test").setNodeid(8).getEvent());
+			m_topologyProvider.refresh();
+
+			assertEquals("router1", m_topologyProvider.getVertex("nodes", "1").getLabel());
+			assertEquals(null, m_topologyProvider.getVertex("nodes", "8"));
+			assertEquals(7, m_topologyProvider.getVertices().size());
+			assertEquals(6, m_topologyProvider.getEdges().size());
+			assertEquals(1, m_topologyProvider.getEdgeIdsForVertex(m_topologyProvider.getVertex("nodes", "1")).length);
+		} finally {
+			m_topologyProvider.onUnbind(eventSubscriptionService);
+		}
+	}
+
+	@Test
+	public void testRefreshAppliesLinkEvents() {
+		EventSubscriptionService eventSubscriptionService = EasyMock.createNiceMock(EventSubscriptionService.class);
+		EasyMock.replay(eventSubscriptionService);
+		m_topologyProvider.onBind(eventSubscriptionService);
+		try {
+			m_topologyProvider.refresh();
+			Edge edge = m_topologyProvider.getEdges().get(0);
+
+			// Reading the same links again keeps the existing edges
+			m_topologyProvider.onEvent(new EventBuilder("uei.opennms.org/internal/linkd/linkDiscoveryCompleted", "test").getEvent());
+			m_topologyProvider.refresh();
+			assertEquals(8, m_topologyProvider.getVertices().size());
+			assertEquals(8, m_topologyProvider.getEdges().size());
+			assertTrue(edge == m_topologyProvider.getEdge(edge));
+		} finally {
+			m_topologyProvider.onUnbind(eventSubscriptionService);
+		}
+	}
+
 	@Test
 	public void loadSampleGraph() throws Exception {
 		m_topologyProvider.setConfigurationFile("target/test-classes/saved-vmware-graph.xml");
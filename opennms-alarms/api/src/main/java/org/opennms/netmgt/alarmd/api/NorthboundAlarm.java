@@ -48,6 +48,7 @@ import org.opennms.netmgt.model.TroubleTicketState;
  * @author <a mailto:david@opennms.org>David Hustace</a>
  */
 public class NorthboundAlarm implements Preservable {
+	private static final long serialVersionUID = -2385061498335623517L;
 	
 	public static final NorthboundAlarm SYNC_LOST_ALARM = new NorthboundAlarm(-1, "uei.opennms.org/alarmd/northbounderSyncLost");
 
@@ -289,7 +290,8 @@ public class NorthboundAlarm implements Preservable {
     private final String m_clearKey;
     private final Integer m_count;
     private final String m_desc;
-    private final OnmsDistPoller m_poller;
+    private transient OnmsDistPoller m_poller;
+    private final String m_pollerName;
     private final Date m_firstOccurrence;
     private final InetAddress m_ipAddr;
     private final Date m_lastOccurrence;
@@ -300,7 +302,8 @@ public class NorthboundAlarm implements Preservable {
     private final String m_ossKey;
     private final String m_ossState;
     private final String m_alarmKey;
-    private final OnmsServiceType m_service;
+    private transient OnmsServiceType m_service;
+    private final String m_serviceName;
     private final OnmsSeverity m_severity;
     private final Date m_suppressed;
     private final Date m_suppressedUntil;
@@ -328,6 +331,7 @@ public class NorthboundAlarm implements Preservable {
         m_count = null;
         m_desc = null;
         m_poller = null;
+        m_pollerName = null;
         m_eventParms = null;
         //alarm.getFirstAutomationTime();
         m_firstOccurrence = null;
@@ -345,6 +349,7 @@ public class NorthboundAlarm implements Preservable {
         m_ossState = null;
         m_alarmKey = null;
         m_service = null;
+        m_serviceName = null;
         m_severity = null;
         //alarm.getSeverityId();
         //alarm.getSeverityLabel();
@@ -373,6 +378,7 @@ public class NorthboundAlarm implements Preservable {
         m_count = alarm.getCounter();
         m_desc = alarm.getDescription();
         m_poller = alarm.getDistPoller();
+        m_pollerName = m_poller == null ? null : m_poller.getName();
         m_eventParms = alarm.getEventParms();
         //alarm.getFirstAutomationTime();
         m_firstOccurrence = alarm.getFirstEventTime();
@@ -391,6 +397,7 @@ public class NorthboundAlarm implements Preservable {
         m_ossState = alarm.getQosAlarmState();
         m_alarmKey = alarm.getReductionKey();
         m_service = alarm.getServiceType();
+        m_serviceName = m_service == null ? null : m_service.getName();
         m_severity = alarm.getSeverity();
         //alarm.getSeverityId();
         //alarm.getSeverityLabel();
@@ -441,10 +448,18 @@ public class NorthboundAlarm implements Preservable {
 		return m_desc;
 	}
 
+	/**
+	 * The poller entity is not serialized, so this is null for an alarm
+	 * read back from the journal; use {@link #getPollerName()} instead.
+	 */
 	public OnmsDistPoller getPoller() {
 		return m_poller;
 	}
 
+	public String getPollerName() {
+		return m_pollerName;
+	}
+
 	public Date getFirstOccurrence() {
 		return m_firstOccurrence;
 	}
@@ -485,10 +500,18 @@ public class NorthboundAlarm implements Preservable {
 		return m_alarmKey;
 	}
 
+	/**
+	 * The service type entity is not serialized, so this is null for an
+	 * alarm read back from the journal; use {@link #getServiceName()} instead.
+	 */
 	public OnmsServiceType getService() {
 		return m_service;
 	}
 
+	public String getServiceName() {
+		return m_serviceName;
+	}
+
 	public OnmsSeverity getSeverity() {
 		return m_severity;
 	}
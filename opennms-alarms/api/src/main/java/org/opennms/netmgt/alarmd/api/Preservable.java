@@ -28,7 +28,13 @@
 
 package org.opennms.netmgt.alarmd.api;
 
-public interface Preservable {
+import java.io.Serializable;
+
+/**
+ * An alarm that can be preserved across forwarding failures.  Preserved
+ * alarms are serialized to a journal while their destination is down.
+ */
+public interface Preservable extends Serializable {
 	
 	public boolean isPreserved();
 	
@@ -28,11 +28,27 @@
 
 package org.opennms.netmgt.alarmd.api.support;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
 import org.opennms.netmgt.alarmd.api.Northbounder;
 import org.opennms.netmgt.alarmd.api.NorthbounderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -43,12 +59,20 @@ import org.opennms.netmgt.alarmd.api.NorthbounderException;
  * It passes Alarms on to the forwardAlarms method implemented by base classes in batches as they are 
  * added to the queue.  The forwardAlarms method does the actual work of sending them to the Southbound Interface.
  * 
+ * Batches are handed to a pool of maxInFlight sender threads so that the next batch is being collected
+ * while the previous one is still being sent.  With more than one sender, forwardAlarms must be thread safe.
+ * Failed sends are retried with an exponential backoff between retryInterval and maxRetryInterval, and
+ * while the destination is down the preserved alarms are written to a journal so that they survive a restart.
+ * Stopping waits up to stopTimeout for the batches in flight, and journals the preserved alarms that
+ * were not sent, including those of batches still in flight, which may therefore be sent twice.
+ * 
  * preserve, accept and discard are called to add the Alarms to the queue as appropriate.  
  * 
  * @author <a mailto:david@opennms.org>David Hustace</a>
  */
 
 public abstract class AbstractNorthbounder implements Northbounder, Runnable, StatusFactory<NorthboundAlarm> {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractNorthbounder.class);
     
     private final String m_name;
     private final AlarmQueue<NorthboundAlarm> m_queue;
@@ -56,6 +80,29 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
     private volatile boolean m_stopped = true;
 
     private long m_retryInterval = 1000;
+    private long m_maxRetryInterval = 30000;
+    private int m_maxInFlight = 1;
+    private File m_journalDirectory = null;
+    private long m_stopTimeout = 10000;
+
+    private Thread m_thread;
+    private ExecutorService m_senders;
+    private Semaphore m_inFlight;
+    private final Set<List<NorthboundAlarm>> m_inFlightBatches = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<List<NorthboundAlarm>, Boolean>()));
+    private AlarmJournal<NorthboundAlarm> m_journal;
+    private volatile boolean m_journaled = false;
+    // the alarms in the journal, including those forwarded since, until it is compacted
+    private final Set<NorthboundAlarm> m_journaledAlarms = Collections.newSetFromMap(new IdentityHashMap<NorthboundAlarm, Boolean>());
+
+    private final AtomicInteger m_consecutiveFailures = new AtomicInteger(0);
+    private volatile long m_backoffUntil = 0;
+
+    // statistics
+    private final AtomicLong m_forwardedCount = new AtomicLong(0);
+    private final AtomicLong m_failedCount = new AtomicLong(0);
+    private final AtomicLong m_batchCount = new AtomicLong(0);
+    private final AtomicLong m_totalLatency = new AtomicLong(0);
+    private volatile long m_lastLatency = 0;
     
     protected AbstractNorthbounder(String name) {
     	m_name = name;
@@ -67,6 +114,7 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         return m_name;
     }
 
+    /** The linger time: how long to wait for more alarms to fill a batch. **/
     public void setNaglesDelay (long delay) {
         m_queue.setNaglesDelay(delay);
     }
@@ -75,6 +123,10 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         m_retryInterval = retryInterval;
     }
     
+    public void setMaxRetryInterval(long maxRetryInterval) {
+        m_maxRetryInterval = maxRetryInterval;
+    }
+    
     public void setMaxBatchSize(int maxBatchSize) {
         m_queue.setMaxBatchSize(maxBatchSize);
     }
@@ -83,6 +135,21 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         m_queue.setMaxPreservedAlarms(maxPreservedAlarms);
     }
 
+    /** The number of batches that may be sent concurrently. **/
+    public void setMaxInFlight(int maxInFlight) {
+        m_maxInFlight = maxInFlight;
+    }
+
+    /** Where the preserved alarm journal is kept, defaults to ${opennms.home}/share/northbounder. **/
+    public void setJournalDirectory(File journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
+
+    /** How long stopping waits for the batches in flight before journaling them, in milliseconds. **/
+    public void setStopTimeout(long stopTimeout) {
+        m_stopTimeout = stopTimeout;
+    }
+
     /** Override this to perform actions before startup. **/
     protected void onPreStart() {}
 
@@ -95,8 +162,19 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         this.onPreStart();
         m_stopped = false;
         m_queue.init();
-        Thread thread = new Thread(this, getName()+"-Thread");
-        thread.start();
+        restoreJournal();
+        m_inFlight = new Semaphore(Math.max(1, m_maxInFlight));
+        m_senders = Executors.newFixedThreadPool(Math.max(1, m_maxInFlight), new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, getName() + "-Sender-" + m_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        m_thread = new Thread(this, getName()+"-Thread");
+        m_thread.start();
         this.onPostStart();
     }
     
@@ -126,6 +204,35 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
     public final void stop() throws NorthbounderException {
         this.onStop();
         m_stopped = true;
+        try {
+            if (m_thread != null) {
+                // wake it up if it is waiting for alarms
+                m_thread.interrupt();
+                m_thread.join(m_stopTimeout);
+                m_thread = null;
+            }
+            if (m_senders != null) {
+                m_senders.shutdown();
+                if (!m_senders.awaitTermination(m_stopTimeout, TimeUnit.MILLISECONDS)) {
+                    LOG.warn("{}: {} batches are still being sent after {}ms, journaling their preserved alarms", getName(), m_inFlightBatches.size(), m_stopTimeout);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("{}: interrupted while stopping, journaling the preserved alarms in flight", getName());
+            Thread.currentThread().interrupt();
+        }
+
+        List<NorthboundAlarm> unsent = m_queue.getUnsentPreservedAlarms();
+        synchronized (m_inFlightBatches) {
+            for (List<NorthboundAlarm> batch : m_inFlightBatches) {
+                for (NorthboundAlarm a : batch) {
+                    if (a.isPreserved()) {
+                        unsent.add(a);
+                    }
+                }
+            }
+        }
+        writeJournal(unsent);
     }
     
     @Override
@@ -135,17 +242,54 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
 
             while(!m_stopped) {
 
-                List<NorthboundAlarm> alarmsToForward = m_queue.getAlarmsToForward();
+                long backoff = m_backoffUntil - System.currentTimeMillis();
+                if (backoff > 0) {
+                    Thread.sleep(backoff);
+                }
+
+                final List<NorthboundAlarm> alarmsToForward = m_queue.getAlarmsToForward();
                 
+                if (m_queue.isPendingBatch(alarmsToForward)) {
+                    // retrying preserved alarms, these go one batch at a time and in order
+                    if (forward(alarmsToForward)) {
+                        if (m_queue.isForwarding()) {
+                            deleteJournal();
+                        }
+                    } else {
+                        writeJournal(m_queue.getPreservedAlarms());
+                    }
+                    continue;
+                }
+
+                if (alarmsToForward.isEmpty()) {
+                    continue;
+                }
+
                 try {
-                    forwardAlarms(alarmsToForward);
-                    m_queue.forwardSuccessful(alarmsToForward);
-                } catch (Exception e) {
+                    m_inFlight.acquire();
+                } catch (InterruptedException e) {
+                    // stopping, keep the preserved alarms of the batch
+                    m_queue.forwardFailed(alarmsToForward);
+                    throw e;
+                }
+                m_inFlightBatches.add(alarmsToForward);
+                try {
+                    m_senders.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                forward(alarmsToForward);
+                            } finally {
+                                m_inFlightBatches.remove(alarmsToForward);
+                                m_inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // stopping
+                    m_inFlightBatches.remove(alarmsToForward);
+                    m_inFlight.release();
                     m_queue.forwardFailed(alarmsToForward);
-                    if (!m_stopped) {
-                        // a failure occurred so sleep a moment and try again
-                        Thread.sleep(m_retryInterval);
-                    }
                 }
             
             }
@@ -155,6 +299,155 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         }
         
     }
+
+    /**
+     * Send one batch and report the outcome to the queue.
+     * 
+     * @return true if the batch was forwarded
+     */
+    private boolean forward(List<NorthboundAlarm> alarms) {
+        int size = alarms.size();
+        long start = System.currentTimeMillis();
+        try {
+            forwardAlarms(alarms);
+            long latency = System.currentTimeMillis() - start;
+            m_lastLatency = latency;
+            m_totalLatency.addAndGet(latency);
+            m_batchCount.incrementAndGet();
+            m_forwardedCount.addAndGet(size);
+            m_consecutiveFailures.set(0);
+            m_backoffUntil = 0;
+            m_queue.forwardSuccessful(alarms);
+            LOG.debug("{}: forwarded {} alarms in {}ms, backlog {}", getName(), size, latency, m_queue.getBacklog());
+            return true;
+        } catch (Exception e) {
+            m_failedCount.addAndGet(size);
+            long delay = getRetryDelay(m_consecutiveFailures.incrementAndGet());
+            m_backoffUntil = System.currentTimeMillis() + delay;
+            m_queue.forwardFailed(alarms);
+            LOG.warn("{}: failed to forward {} alarms, retrying in {}ms, backlog {}", getName(), size, delay, m_queue.getBacklog(), e);
+            return false;
+        }
+    }
+
+    private long getRetryDelay(int failures) {
+        long delay = m_retryInterval << Math.min(failures - 1, 16);
+        return Math.min(delay, Math.max(m_retryInterval, m_maxRetryInterval));
+    }
+
+    private AlarmJournal<NorthboundAlarm> getJournal() {
+        if (m_journal == null) {
+            File dir = m_journalDirectory;
+            if (dir == null) {
+                String home = System.getProperty("opennms.home");
+                if (home == null) {
+                    return null;
+                }
+                dir = new File(home, "share" + File.separator + "northbounder");
+            }
+            m_journal = new AlarmJournal<NorthboundAlarm>(new File(dir, getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".journal"));
+        }
+        return m_journal;
+    }
+
+    private void restoreJournal() {
+        AlarmJournal<NorthboundAlarm> journal = getJournal();
+        if (journal == null) {
+            return;
+        }
+        List<NorthboundAlarm> alarms = journal.read();
+        if (!alarms.isEmpty()) {
+            LOG.info("{}: restoring {} preserved alarms from {}", getName(), alarms.size(), journal.getFile());
+            m_queue.restorePreservedAlarms(alarms);
+            synchronized (m_journaledAlarms) {
+                m_journaledAlarms.addAll(alarms);
+                m_journaled = true;
+            }
+        }
+    }
+
+    /**
+     * Journal the preserved alarms that have not been forwarded: the new ones are appended, and the
+     * journal is rewritten once less than half of the alarms in it are still pending.
+     */
+    private void writeJournal(List<NorthboundAlarm> pending) {
+        AlarmJournal<NorthboundAlarm> journal = getJournal();
+        if (journal == null) {
+            return;
+        }
+        synchronized (m_journaledAlarms) {
+            try {
+                List<NorthboundAlarm> added = new ArrayList<NorthboundAlarm>();
+                int stillPending = 0;
+                for (NorthboundAlarm a : pending) {
+                    if (m_journaledAlarms.contains(a)) {
+                        stillPending++;
+                    } else {
+                        added.add(a);
+                    }
+                }
+                if (pending.isEmpty()) {
+                    deleteJournal();
+                } else if (!m_journaled || stillPending * 2 < m_journaledAlarms.size()) {
+                    journal.write(pending);
+                    m_journaledAlarms.clear();
+                    m_journaledAlarms.addAll(pending);
+                    m_journaled = true;
+                } else {
+                    journal.append(added);
+                    m_journaledAlarms.addAll(added);
+                }
+            } catch (IOException e) {
+                LOG.warn("{}: unable to journal preserved alarms to {}", getName(), journal.getFile(), e);
+            }
+        }
+    }
+
+    private void deleteJournal() {
+        synchronized (m_journaledAlarms) {
+            if (m_journaled) {
+                getJournal().delete();
+                m_journaled = false;
+            }
+            m_journaledAlarms.clear();
+        }
+    }
+
+    /** @return the number of alarms forwarded successfully */
+    public long getForwardedCount() {
+        return m_forwardedCount.get();
+    }
+
+    /** @return the number of alarms in batches that failed to forward, counting each attempt */
+    public long getFailedCount() {
+        return m_failedCount.get();
+    }
+
+    /** @return the number of batches forwarded successfully */
+    public long getBatchCount() {
+        return m_batchCount.get();
+    }
+
+    /** @return the average time in milliseconds taken to forward a batch */
+    public long getAverageLatency() {
+        long batches = m_batchCount.get();
+        return batches == 0 ? 0 : m_totalLatency.get() / batches;
+    }
+
+    /** @return the time in milliseconds taken to forward the last batch */
+    public long getLastLatency() {
+        return m_lastLatency;
+    }
+
+    /** @return the number of alarms waiting to be forwarded */
+    public int getBacklog() {
+        return m_queue.getBacklog();
+    }
+
+    /** @return the number of batches being sent right now */
+    public int getInFlight() {
+        return m_inFlight == null ? 0 : Math.max(1, m_maxInFlight) - m_inFlight.availablePermits();
+    }
     
     @Override
 	public NorthboundAlarm createSyncLostMessage() {
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.api.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.opennms.netmgt.alarmd.api.Preservable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local file holding the preserved alarms that could not be forwarded
+ * while a destination was down, so that they survive a restart.
+ * 
+ * The journal is a sequence of length-prefixed serialized alarms.  Alarms
+ * preserved while the destination stays down are appended; the caller
+ * compacts the journal with {@link #write(Collection)}, which replaces it
+ * through a temporary file, once most of what it holds has been forwarded.
+ * A record torn by a crash ends the journal when it is read.
+ */
+class AlarmJournal<T extends Preservable> {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmJournal.class);
+
+    private final File m_file;
+
+    public AlarmJournal(File file) {
+        m_file = file;
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Replace the journal with the given alarms.
+     */
+    public synchronized void write(Collection<T> alarms) throws IOException {
+        if (alarms.isEmpty()) {
+            delete();
+            return;
+        }
+
+        createDirectory();
+        File tmp = new File(m_file.getPath() + ".tmp");
+        writeRecords(tmp, alarms, false);
+
+        if (!tmp.renameTo(m_file)) {
+            // renameTo does not replace an existing file on every platform
+            m_file.delete();
+            if (!tmp.renameTo(m_file)) {
+                throw new IOException("Unable to move " + tmp + " to " + m_file);
+            }
+        }
+        LOG.debug("Journaled {} preserved alarms to {}", alarms.size(), m_file);
+    }
+
+    /**
+     * Add alarms to the end of the journal.
+     */
+    public synchronized void append(Collection<T> alarms) throws IOException {
+        if (alarms.isEmpty()) {
+            return;
+        }
+        createDirectory();
+        writeRecords(m_file, alarms, true);
+        LOG.debug("Appended {} preserved alarms to {}", alarms.size(), m_file);
+    }
+
+    private void createDirectory() throws IOException {
+        File dir = m_file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + dir);
+        }
+    }
+
+    private static void writeRecords(File file, Collection<?> alarms, boolean append) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+        try {
+            for (Object a : alarms) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream record = new ObjectOutputStream(bytes);
+                record.writeObject(a);
+                record.close();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> read() {
+        List<T> alarms = new ArrayList<T>();
+        if (!m_file.exists()) {
+            return alarms;
+        }
+
+        try {
+            long remaining = m_file.length();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+            try {
+                while (true) {
+                    byte[] bytes;
+                    try {
+                        int length = in.readInt();
+                        remaining -= 4;
+                        if (length < 0 || length > remaining) {
+                            // a length torn by a crash, don't trust it with an allocation
+                            LOG.warn("Ignoring a torn record at the end of the preserved alarm journal {}", m_file);
+                            break;
+                        }
+                        bytes = new byte[length];
+                        in.readFully(bytes);
+                        remaining -= length;
+                    } catch (EOFException e) {
+                        // the end, or a record torn by a crash
+                        break;
+                    }
+                    ObjectInputStream record = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                    T a = (T)record.readObject();
+                    a.setPreserved(true);
+                    alarms.add(a);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read the preserved alarm journal {}, recovered {} alarms", m_file, alarms.size(), e);
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Unable to read the preserved alarm journal {}, recovered {} alarms", m_file, alarms.size(), e);
+        }
+        return alarms;
+    }
+
+    public synchronized void delete() {
+        if (m_file.exists() && !m_file.delete()) {
+            LOG.warn("Unable to delete the preserved alarm journal {}", m_file);
+        }
+    }
+
+}
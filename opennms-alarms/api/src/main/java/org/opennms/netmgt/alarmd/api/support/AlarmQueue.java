@@ -29,6 +29,7 @@
 package org.opennms.netmgt.alarmd.api.support;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -52,6 +53,9 @@ import org.opennms.netmgt.alarmd.api.Preservable;
 class AlarmQueue<T extends Preservable> {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmQueue.class);
 
+    // how often an idle queue checks whether forwarding has started failing
+    private static final long STATE_CHECK_INTERVAL = 100;
+
     public abstract class State {
         abstract List<T> getAlarmsToForward() throws InterruptedException;
         abstract void forwardSuccessful(List<T> alarms);
@@ -94,7 +98,14 @@ class AlarmQueue<T extends Preservable> {
         public List<T> getAlarmsToForward() throws InterruptedException {
             List<T> alarms = new ArrayList<T>(m_maxBatchSize);
             
-            T a = m_queue.take();
+            T a = m_queue.poll(STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            while (a == null) {
+                if (m_state != FORWARDING) {
+                    // a batch that was in flight failed, return so the preserved alarms get retried
+                    return alarms;
+                }
+                a = m_queue.poll(STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            }
             alarms.add(a);
             
             
@@ -156,11 +167,17 @@ class AlarmQueue<T extends Preservable> {
 
         @Override
         public void forwardFailed(List<T> alarms) {
-            // do nothing we are already failing
+            // we are already failing, but keep the preserved alarms of a batch that was still in flight
+            if (alarms != m_nextBatch) {
+                addPreservedToPreservedQueue(alarms);
+            }
         }
 
         @Override
         public void forwardSuccessful(List<T> alarms) {
+            if (alarms != m_nextBatch) {
+                return;
+            }
             m_nextBatch.clear();
             if (m_preservedQueue.isEmpty()) {
                 setState(FORWARDING);
@@ -184,11 +201,17 @@ class AlarmQueue<T extends Preservable> {
         
         @Override
         public void forwardFailed(List<T> alarms) {
+            if (alarms != m_nextBatch) {
+                addPreservedToPreservedQueue(alarms);
+            }
             setState(FAILING);
         }
 
         @Override
         public void forwardSuccessful(List<T> alarms) {
+            if (alarms != m_nextBatch) {
+                return;
+            }
             m_nextBatch.clear();
             if (m_preservedQueue.isEmpty()) {
                 setState(FORWARDING);
@@ -217,7 +240,7 @@ class AlarmQueue<T extends Preservable> {
     private List<T> m_nextBatch;
     
     // used to define the behavior of the getNext and forwardSuccessful and forwardFailed
-    private State m_state = FORWARDING;
+    private volatile State m_state = FORWARDING;
     
     // creates messages use to indicate that a connection failure has 
     // occurred or queue has overflowed
@@ -277,16 +300,81 @@ class AlarmQueue<T extends Preservable> {
         LOG.debug("Alarm {} preserved, offered to blocking-queue. Actually queued? {}", a, result);
     }
     
+    /**
+     * Returns the next batch to forward.  While forwarding this blocks on the
+     * alarm queue without holding the lock, so that results of batches that
+     * are still in flight can be reported concurrently.
+     */
     public List<T> getAlarmsToForward() throws InterruptedException {
-        return m_state.getAlarmsToForward();
+        if (m_state == FORWARDING) {
+            return FORWARDING.getAlarmsToForward();
+        }
+        synchronized (this) {
+            return m_state.getAlarmsToForward();
+        }
     }
     
-    public void forwardSuccessful(List<T> alarms) {
+    public synchronized void forwardSuccessful(List<T> alarms) {
         m_state.forwardSuccessful(alarms);
     }
     
-    public void forwardFailed(List<T> alarms) {
+    public synchronized void forwardFailed(List<T> alarms) {
         m_state.forwardFailed(alarms);
     }
 
+    /**
+     * @return true if the batch is the pending batch that is retried while
+     * failing or recovering, rather than a batch taken from the alarm queue
+     */
+    public boolean isPendingBatch(List<T> alarms) {
+        return alarms == m_nextBatch;
+    }
+
+    public boolean isForwarding() {
+        return m_state == FORWARDING;
+    }
+
+    /**
+     * @return the number of alarms queued or preserved but not yet forwarded
+     */
+    public synchronized int getBacklog() {
+        return m_queue.size() + m_preservedQueue.size() + (m_nextBatch == null ? 0 : m_nextBatch.size());
+    }
+
+    /**
+     * @return a copy of the preserved alarms that have not been forwarded yet, in order
+     */
+    public synchronized List<T> getPreservedAlarms() {
+        List<T> alarms = new ArrayList<T>(m_nextBatch.size() + m_preservedQueue.size());
+        alarms.addAll(m_nextBatch);
+        alarms.addAll(m_preservedQueue);
+        return alarms;
+    }
+
+    /**
+     * @return a copy of the preserved alarms that have not been forwarded yet, including
+     * those still waiting in the alarm queue, in order
+     */
+    public synchronized List<T> getUnsentPreservedAlarms() {
+        List<T> alarms = getPreservedAlarms();
+        for (T a : m_queue) {
+            if (a.isPreserved()) {
+                alarms.add(a);
+            }
+        }
+        return alarms;
+    }
+
+    /**
+     * Queue preserved alarms recovered from a journal ahead of any new alarms.
+     */
+    public synchronized void restorePreservedAlarms(Collection<T> alarms) {
+        for (T a : alarms) {
+            m_state.addToPreservedQueue(a);
+        }
+        if (!m_preservedQueue.isEmpty() && m_state == FORWARDING) {
+            setState(RECOVERING);
+        }
+    }
+
 }
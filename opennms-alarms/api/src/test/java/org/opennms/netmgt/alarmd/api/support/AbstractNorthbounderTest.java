@@ -30,11 +30,16 @@ package org.opennms.netmgt.alarmd.api.support;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
 import org.opennms.netmgt.alarmd.api.NorthbounderException;
 import org.opennms.netmgt.alarmd.api.support.AbstractNorthbounder;
@@ -47,6 +52,49 @@ import org.opennms.netmgt.model.OnmsAlarm;
  * @author <a mailto:david@opennms.org>David Hustace</a>
  */
 public class AbstractNorthbounderTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+    
+    /**
+     * Fails the first few forwards, then records every alarm it is given.
+     */
+    public static class FailingNorthbounder extends AbstractNorthbounder {
+
+        private volatile int m_failures;
+        private final List<NorthboundAlarm> m_forwarded = Collections.synchronizedList(new ArrayList<NorthboundAlarm>());
+        private final CountDownLatch m_failed;
+
+        public FailingNorthbounder(int failures) {
+            super("FailingNorthbounder");
+            m_failures = failures;
+            m_failed = new CountDownLatch(failures);
+        }
+
+        @Override
+        protected boolean accepts(NorthboundAlarm alarm) {
+            return true;
+        }
+
+        @Override
+        public void forwardAlarms(List<NorthboundAlarm> alarms) throws NorthbounderException {
+            if (m_failures > 0) {
+                m_failures--;
+                m_failed.countDown();
+                throw new NorthbounderException("destination is down");
+            }
+            m_forwarded.addAll(alarms);
+        }
+
+        public void waitForFailures(long waitTime) throws InterruptedException {
+            m_failed.await(waitTime, TimeUnit.MILLISECONDS);
+        }
+
+        public List<NorthboundAlarm> getForwarded() {
+            return m_forwarded;
+        }
+
+    }
     
     public static class TestNorthbounder extends AbstractNorthbounder {
 
@@ -169,6 +217,122 @@ public class AbstractNorthbounderTest {
 
     }
     
+    @Test
+    public void testPreservedAlarmsAreRetriedAndJournaled() throws Exception {
+        
+        FailingNorthbounder nb = new FailingNorthbounder(2);
+        nb.setNaglesDelay(0);
+        nb.setRetryInterval(50);
+        nb.setJournalDirectory(m_folder.getRoot());
+        nb.start();
+        
+        NorthboundAlarm a1 = createNorthboundAlarm(1);
+        NorthboundAlarm a2 = createNorthboundAlarm(2);
+        nb.preserve(a1);
+        nb.onAlarm(a2);
+        
+        nb.waitForFailures(2000);
+        
+        long end = System.currentTimeMillis() + 5000;
+        while (nb.getForwarded().isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        
+        // the preserved alarm survives the failures, the plain one is dropped with the failed batch
+        assertEquals(1, nb.getForwarded().size());
+        assertEquals(1, nb.getForwarded().get(0).getId().intValue());
+        assertEquals(1, nb.getForwardedCount());
+        assertTrue(nb.getFailedCount() >= 2);
+        assertEquals(0, nb.getBacklog());
+        assertFalse(new File(m_folder.getRoot(), "FailingNorthbounder.journal").exists());
+        
+        nb.stop();
+    }
+    
+    @Test
+    public void testJournalIsRestoredOnStart() throws Exception {
+        
+        NorthboundAlarm a1 = createNorthboundAlarm(1);
+        a1.setPreserved(true);
+        NorthboundAlarm a2 = createNorthboundAlarm(2);
+        a2.setPreserved(true);
+        
+        List<NorthboundAlarm> pending = new ArrayList<NorthboundAlarm>();
+        pending.add(a1);
+        pending.add(a2);
+        new AlarmJournal<NorthboundAlarm>(new File(m_folder.getRoot(), "FailingNorthbounder.journal")).write(pending);
+        
+        FailingNorthbounder nb = new FailingNorthbounder(0);
+        nb.setJournalDirectory(m_folder.getRoot());
+        nb.start();
+        
+        long end = System.currentTimeMillis() + 5000;
+        while (nb.getForwarded().size() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        
+        assertEquals(2, nb.getForwarded().size());
+        assertEquals(1, nb.getForwarded().get(0).getId().intValue());
+        assertEquals(2, nb.getForwarded().get(1).getId().intValue());
+        assertFalse(new File(m_folder.getRoot(), "FailingNorthbounder.journal").exists());
+        
+        nb.stop();
+    }
+    
+    @Test
+    public void testAlarmsInFlightAreJournaledOnStop() throws Exception {
+        
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        AbstractNorthbounder nb = new AbstractNorthbounder("SlowNorthbounder") {
+            @Override
+            protected boolean accepts(NorthboundAlarm alarm) {
+                return true;
+            }
+
+            @Override
+            public void forwardAlarms(List<NorthboundAlarm> alarms) throws NorthbounderException {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        nb.setNaglesDelay(0);
+        nb.setStopTimeout(100);
+        nb.setJournalDirectory(m_folder.getRoot());
+        nb.start();
+        
+        nb.preserve(createNorthboundAlarm(1));
+        assertTrue(sending.await(2000, TimeUnit.MILLISECONDS));
+        
+        nb.stop();
+        release.countDown();
+        
+        List<NorthboundAlarm> journaled = new AlarmJournal<NorthboundAlarm>(new File(m_folder.getRoot(), "SlowNorthbounder.journal")).read();
+        assertEquals(1, journaled.size());
+        assertEquals(1, journaled.get(0).getId().intValue());
+    }
+    
+    @Test
+    public void testJournalAppend() throws Exception {
+        
+        AlarmJournal<NorthboundAlarm> journal = new AlarmJournal<NorthboundAlarm>(new File(m_folder.getRoot(), "test.journal"));
+        journal.write(Collections.singletonList(createNorthboundAlarm(1)));
+        journal.append(Collections.singletonList(createNorthboundAlarm(2)));
+        
+        List<NorthboundAlarm> journaled = journal.read();
+        assertEquals(2, journaled.size());
+        assertEquals(1, journaled.get(0).getId().intValue());
+        assertEquals(2, journaled.get(1).getId().intValue());
+        assertTrue(journaled.get(1).isPreserved());
+        
+        journal.write(Collections.<NorthboundAlarm>emptyList());
+        assertTrue(journal.read().isEmpty());
+    }
+    
     private NorthboundAlarm createNorthboundAlarm(int alarmid) {
         OnmsAlarm alarm = new OnmsAlarm();
         alarm.setId(alarmid);
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd.api.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.alarmd.api.NorthboundAlarm;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.OnmsServiceType;
+
+public class AlarmJournalTest {
+
+    private File m_file;
+    private AlarmJournal<NorthboundAlarm> m_journal;
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile("alarm-journal", ".dat");
+        m_file.delete();
+        m_journal = new AlarmJournal<NorthboundAlarm>(m_file);
+    }
+
+    @After
+    public void tearDown() {
+        m_journal.delete();
+    }
+
+    private NorthboundAlarm createAlarm(int id) {
+        OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setUei("uei.opennms.org/test/journal");
+        alarm.setDistPoller(new OnmsDistPoller("localhost", "127.0.0.1"));
+        alarm.setServiceType(new OnmsServiceType("ICMP"));
+        return new NorthboundAlarm(alarm);
+    }
+
+    @Test
+    public void testReplayKeepsNamesNotEntities() throws Exception {
+        m_journal.write(Collections.singletonList(createAlarm(1)));
+
+        List<NorthboundAlarm> alarms = m_journal.read();
+        assertEquals(1, alarms.size());
+        NorthboundAlarm a = alarms.get(0);
+        assertTrue(a.isPreserved());
+        assertEquals("localhost", a.getPollerName());
+        assertEquals("ICMP", a.getServiceName());
+        assertNull(a.getPoller());
+        assertNull(a.getService());
+    }
+
+    @Test
+    public void testTornLengthEndsTheJournal() throws Exception {
+        m_journal.write(Collections.singletonList(createAlarm(1)));
+
+        // a crash left a length that claims far more than the file holds
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(m_file, true));
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeInt(0);
+        out.close();
+
+        List<NorthboundAlarm> alarms = m_journal.read();
+        assertEquals(1, alarms.size());
+        assertEquals(Integer.valueOf(1), alarms.get(0).getId());
+    }
+
+    @Test
+    public void testNegativeLengthEndsTheJournal() throws Exception {
+        m_journal.write(Collections.singletonList(createAlarm(1)));
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(m_file, true));
+        out.writeInt(-1);
+        out.close();
+
+        assertEquals(1, m_journal.read().size());
+    }
+
+}
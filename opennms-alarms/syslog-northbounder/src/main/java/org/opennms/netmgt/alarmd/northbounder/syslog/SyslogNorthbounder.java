@@ -223,10 +223,10 @@ public class SyslogNorthbounder extends AbstractNorthbounder implements Initiali
 		}
 		
 		
-		String poller = alarm.getPoller() == null ? "localhost" : alarm.getPoller().getName();
+		String poller = alarm.getPollerName() == null ? "localhost" : alarm.getPollerName();
 		mapping.put("distPoller", poller);
 		
-		String service = alarm.getService() == null ? "" : alarm.getService().getName();					
+		String service = alarm.getServiceName() == null ? "" : alarm.getServiceName();					
 		mapping.put("ifService", service);
 		
 		mapping.put("severity", nullSafeToString(alarm.getSeverity(), ""));
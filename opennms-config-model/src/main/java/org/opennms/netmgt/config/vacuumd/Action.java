@@ -55,6 +55,10 @@ public class Action implements Serializable {
 
     private static final String DEFAULT_DATA_SOURCE = "opennms";
 
+    private static final boolean DEFAULT_SET_BASED_FLAG = false;
+
+    private static final int DEFAULT_COMMIT_SIZE = 0;
+
     // --------------------------/
     // - Class/Member Variables -/
     // --------------------------/
@@ -77,6 +81,21 @@ public class Action implements Serializable {
     @XmlElement(name = "statement")
     private Statement _statement;
 
+    /**
+     * Run the tokenized statement once against the whole trigger
+     * result instead of once per trigger row, where it can be rewritten.
+     */
+    @XmlAttribute(name = "set-based")
+    private Boolean _setBased;
+
+    /**
+     * Number of trigger rows to send per JDBC batch and commit, when the
+     * statement is run once per trigger row. 0 keeps all rows in a single
+     * transaction.
+     */
+    @XmlAttribute(name = "commit-size")
+    private Integer _commitSize;
+
     // ----------------/
     // - Constructors -/
     // ----------------/
@@ -132,6 +151,20 @@ public class Action implements Serializable {
                     return false;
             } else if (temp._statement != null)
                 return false;
+            if (this._setBased != null) {
+                if (temp._setBased == null)
+                    return false;
+                else if (!(this._setBased.equals(temp._setBased)))
+                    return false;
+            } else if (temp._setBased != null)
+                return false;
+            if (this._commitSize != null) {
+                if (temp._commitSize == null)
+                    return false;
+                else if (!(this._commitSize.equals(temp._commitSize)))
+                    return false;
+            } else if (temp._commitSize != null)
+                return false;
             return true;
         }
         return false;
@@ -165,6 +198,38 @@ public class Action implements Serializable {
         return this._statement;
     }
 
+    /**
+     * Returns the value of field 'setBased'. The field 'setBased' has the
+     * following description: Run the tokenized statement once against the
+     * whole trigger result instead of once per trigger row, where it can be
+     * rewritten.
+     *
+     * @return the value of field 'SetBased'.
+     */
+    public boolean getSetBased() {
+        return _setBased == null ? DEFAULT_SET_BASED_FLAG : _setBased;
+    }
+
+    /**
+     * Returns the value of field 'setBased'.
+     *
+     * @return the value of field 'SetBased'.
+     */
+    public boolean isSetBased() {
+        return getSetBased();
+    }
+
+    /**
+     * Returns the value of field 'commitSize'. The field 'commitSize' has the
+     * following description: Number of trigger rows to send per JDBC batch
+     * and commit, when the statement is run once per trigger row.
+     *
+     * @return the value of field 'CommitSize'.
+     */
+    public int getCommitSize() {
+        return _commitSize == null ? DEFAULT_COMMIT_SIZE : _commitSize;
+    }
+
     /**
      * Overrides the Object.hashCode method.
      * <p>
@@ -185,6 +250,12 @@ public class Action implements Serializable {
         if (_statement != null) {
             result = 37 * result + _statement.hashCode();
         }
+        if (_setBased != null) {
+            result = 37 * result + _setBased.hashCode();
+        }
+        if (_commitSize != null) {
+            result = 37 * result + _commitSize.hashCode();
+        }
 
         return result;
     }
@@ -219,4 +290,24 @@ public class Action implements Serializable {
     public void setStatement(final Statement statement) {
         this._statement = statement;
     }
+
+    /**
+     * Sets the value of field 'setBased'.
+     *
+     * @param setBased
+     *            the value of field 'setBased'.
+     */
+    public void setSetBased(final Boolean setBased) {
+        this._setBased = setBased;
+    }
+
+    /**
+     * Sets the value of field 'commitSize'.
+     *
+     * @param commitSize
+     *            the value of field 'commitSize'.
+     */
+    public void setCommitSize(final Integer commitSize) {
+        this._commitSize = commitSize;
+    }
 }
@@ -581,6 +581,20 @@ public class DiscoveryConfigFactory {
     }
 
 
+    /**
+     * <p>getPacketsPerSecond</p>
+     *
+     * @return the configured ping rate
+     */
+    public int getPacketsPerSecond() {
+        getReadLock().lock();
+        try {
+            return getConfiguration().getPacketsPerSecond();
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
     /**
      * <p>getIntraPacketDelay</p>
      *
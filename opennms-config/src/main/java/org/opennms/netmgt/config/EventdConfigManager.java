@@ -154,6 +154,34 @@ public class EventdConfigManager {
         }
     }
 
+    /**
+     * Return the IP address on which eventd listens for binary event connections.
+     *
+     * @return the IP address on which eventd listens for binary event connections
+     */
+    public String getBinaryIpAddress() {
+        getReadLock().lock();
+        try {
+            return m_config.getBinaryAddress();
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
+    /**
+     * Return the port on which eventd listens for binary event connections.
+     *
+     * @return the port on which eventd listens for binary event connections, or 0 if disabled
+     */
+    public int getBinaryPort() {
+        getReadLock().lock();
+        try {
+            return m_config.hasBinaryPort() ? m_config.getBinaryPort() : 0;
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
     /**
      * Return the number of event receivers to be started.
      *
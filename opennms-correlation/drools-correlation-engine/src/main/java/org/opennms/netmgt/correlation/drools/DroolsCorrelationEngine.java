@@ -31,24 +31,40 @@ package org.opennms.netmgt.correlation.drools;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
+import org.drools.ClockType;
 import org.drools.RuleBase;
 import org.drools.RuleBaseConfiguration;
 import org.drools.RuleBaseConfiguration.AssertBehaviour;
 import org.drools.RuleBaseFactory;
+import org.drools.SessionConfiguration;
 import org.drools.WorkingMemory;
 import org.drools.compiler.DroolsParserException;
 import org.drools.compiler.PackageBuilder;
 import org.drools.compiler.PackageBuilderConfiguration;
+import org.drools.conf.EventProcessingOption;
+import org.drools.event.AfterActivationFiredEvent;
+import org.drools.event.DefaultAgendaEventListener;
+import org.drools.impl.EnvironmentFactory;
+import org.drools.time.SessionPseudoClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.correlation.AbstractCorrelationEngine;
 import org.opennms.netmgt.xml.event.Event;
 import org.springframework.core.io.Resource;
@@ -56,36 +72,111 @@ import org.springframework.core.io.Resource;
 /**
  * <p>DroolsCorrelationEngine class.</p>
  *
+ * <p>The engine keeps one or more Drools sessions.  With the defaults (a
+ * single partition and a batch size of one) every event is inserted and the
+ * rules fired on the caller's thread, exactly as before.  When the rule set
+ * asks for more than one partition or a larger batch size, events are queued
+ * per partition and a worker thread for each partition inserts up to
+ * <code>batchSize</code> facts before firing the rules once.  Events are
+ * routed to a partition by the configured partition key (<code>nodeid</code>,
+ * <code>interface</code>, <code>service</code> or <code>uei</code>) so that
+ * rules correlating on that key still see all of the related facts.</p>
+ *
+ * <p>Sessions may run in <code>stream</code> event processing mode, in which
+ * case facts declared with <code>@role(event)</code> are expired by Drools
+ * once no sliding window or temporal constraint can match them any longer.
+ * With a <code>pseudo</code> clock the session time follows the event
+ * timestamps instead of the wall clock.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
 public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsCorrelationEngine.class);
 
-    private WorkingMemory m_workingMemory;
+    /**
+     * The partition whose session is currently firing rules on this thread,
+     * used to route timers back to the session that set them.
+     */
+    private static final ThreadLocal<Partition> s_currentPartition = new ThreadLocal<Partition>();
+
+    private Partition[] m_sessions;
+    private final Map<Integer, Partition> m_timerPartitions = new ConcurrentHashMap<Integer, Partition>();
     private List<String> m_interestingEvents;
     private List<Resource> m_rules;
     private Map<String, Object> m_globals = new HashMap<String, Object>();
     private String m_name;
     private String m_assertBehaviour;
-    
+    private String m_eventProcessingMode;
+    private String m_clockType;
+    private String m_partitionKey;
+    private int m_partitions = 1;
+    private int m_batchSize = 1;
+    private int m_queueSize = 10000;
+
+    private final AtomicLong m_eventsCorrelated = new AtomicLong(0);
+    private final AtomicLong m_rulesFired = new AtomicLong(0);
+    private final AtomicLong m_batches = new AtomicLong(0);
+    private volatile long m_startTime = System.currentTimeMillis();
+
     /** {@inheritDoc} */
     @Override
-    public synchronized void correlate(final Event e) {
-	LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
-        m_workingMemory.insert(e);
-        m_workingMemory.fireAllRules();
-	LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+    public void correlate(final Event e) {
+        m_eventsCorrelated.incrementAndGet();
+        getPartition(e).submit(e);
     }
 
     /** {@inheritDoc} */
     @Override
-    protected synchronized void timerExpired(final Integer timerId) {
-	LOG.info("Begin correlation for Timer {}", timerId);
-        TimerExpired expiration  = new TimerExpired(timerId);
-        m_workingMemory.insert(expiration);
-        m_workingMemory.fireAllRules();
-	LOG.debug("Begin correlation for Timer {}", timerId);
+    protected void timerExpired(final Integer timerId) {
+        LOG.info("Timer {} expired", timerId);
+        Partition partition = m_timerPartitions.remove(timerId);
+        if (partition == null) {
+            partition = m_sessions[0];
+        }
+        partition.submit(new TimerExpired(timerId));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Integer setTimer(final long millis) {
+        final Integer timerId = super.setTimer(millis);
+        final Partition partition = s_currentPartition.get();
+        if (partition != null && m_sessions.length > 1) {
+            m_timerPartitions.put(timerId, partition);
+        }
+        return timerId;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void cancelTimer(final Integer timerId) {
+        m_timerPartitions.remove(timerId);
+        super.cancelTimer(timerId);
+    }
+
+    private Partition getPartition(final Event e) {
+        if (m_sessions.length == 1) {
+            return m_sessions[0];
+        }
+        final Object key = getPartitionKey(e);
+        if (key == null) {
+            return m_sessions[0];
+        }
+        return m_sessions[(key.hashCode() & Integer.MAX_VALUE) % m_sessions.length];
+    }
+
+    private Object getPartitionKey(final Event e) {
+        if (m_partitionKey == null || "nodeid".equalsIgnoreCase(m_partitionKey)) {
+            return e.getNodeid();
+        } else if ("interface".equalsIgnoreCase(m_partitionKey)) {
+            return e.getInterface();
+        } else if ("service".equalsIgnoreCase(m_partitionKey)) {
+            return e.getService();
+        } else if ("uei".equalsIgnoreCase(m_partitionKey)) {
+            return e.getUei();
+        }
+        return null;
     }
 
     /** {@inheritDoc} */
@@ -138,6 +229,9 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         AssertBehaviour behaviour = AssertBehaviour.determineAssertBehaviour(m_assertBehaviour);
         RuleBaseConfiguration config = new RuleBaseConfiguration();
         config.setAssertBehaviour(behaviour);
+        if (m_eventProcessingMode != null) {
+            config.setEventProcessingMode(EventProcessingOption.determineEventProcessingMode(m_eventProcessingMode));
+        }
 
         final RuleBase ruleBase = RuleBaseFactory.newRuleBase( config );
 
@@ -148,13 +242,66 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
 
         ruleBase.addPackage( builder.getPackage() );
 
-        m_workingMemory = ruleBase.newStatefulSession();
-        m_workingMemory.setGlobal("engine", this);
-        
-        for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
-            m_workingMemory.setGlobal(entry.getKey(), entry.getValue());
+        if (m_partitionKey != null && !isKnownPartitionKey(m_partitionKey)) {
+            throw new IllegalStateException("Unknown partition key '" + m_partitionKey + "' for Drools engine " + m_name);
+        }
+
+        final boolean queued = m_partitions > 1 || m_batchSize > 1;
+        final Partition[] sessions = new Partition[Math.max(1, m_partitions)];
+        for (int i = 0; i < sessions.length; i++) {
+            final WorkingMemory workingMemory = newWorkingMemory(ruleBase);
+            workingMemory.setGlobal("engine", this);
+            for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
+                workingMemory.setGlobal(entry.getKey(), entry.getValue());
+            }
+            workingMemory.addEventListener(new DefaultAgendaEventListener() {
+                @Override
+                public void afterActivationFired(final AfterActivationFiredEvent event, final WorkingMemory memory) {
+                    m_rulesFired.incrementAndGet();
+                }
+            });
+            sessions[i] = new Partition(i, workingMemory, queued);
         }
+        m_sessions = sessions;
+        m_startTime = System.currentTimeMillis();
 
+        if (queued) {
+            LOG.info("Drools engine {} running {} session(s) partitioned by {} with a batch size of {}", m_name, sessions.length, m_partitionKey == null ? "nodeid" : m_partitionKey, m_batchSize);
+            for (final Partition partition : sessions) {
+                partition.start();
+            }
+        }
+    }
+
+    private WorkingMemory newWorkingMemory(final RuleBase ruleBase) {
+        if (m_clockType == null || ClockType.REALTIME_CLOCK.getId().equalsIgnoreCase(m_clockType)) {
+            return ruleBase.newStatefulSession();
+        }
+        final SessionConfiguration sessionConfig = new SessionConfiguration();
+        sessionConfig.setClockType(ClockType.resolveClockType(m_clockType));
+        return ruleBase.newStatefulSession(sessionConfig, EnvironmentFactory.newEnvironment());
+    }
+
+    private static boolean isKnownPartitionKey(final String key) {
+        for (final String known : new String[] { "nodeid", "interface", "service", "uei" }) {
+            if (known.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the partition workers.  Facts still queued are discarded, as are
+     * facts submitted afterwards.
+     */
+    public void destroy() {
+        if (m_sessions == null) {
+            return;
+        }
+        for (final Partition partition : m_sessions) {
+            partition.stop();
+        }
     }
 
     private void loadRules(final PackageBuilder builder) throws DroolsParserException, IOException {
@@ -174,12 +321,12 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     /**
      * <p>getMemorySize</p>
      *
-     * @return a int.
+     * @return the number of facts held by all of the engine's sessions
      */
     public int getMemorySize() {
         int count = 0;
-        for(final Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); it.next()) {
-            count++;
+        for (final Partition partition : m_sessions) {
+            count += partition.getMemorySize();
         }
     	return count;
     }
@@ -191,14 +338,65 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      */
     public List<Object> getMemoryObjects() {
     	final List<Object> objects = new LinkedList<Object>();
-        for(Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); ) {
-        	objects.add(it.next());
+        for (final Partition partition : m_sessions) {
+            partition.addMemoryObjects(objects);
         }
         return objects;
     }
     
+    /**
+     * Returns the session of the first partition; with the default
+     * configuration this is the only session.
+     */
     public WorkingMemory getWorkingMemory() {
-    	return m_workingMemory;
+    	return m_sessions[0].getWorkingMemory();
+    }
+
+    /**
+     * @return the number of events handed to the engine since it started
+     */
+    public long getEventsCorrelated() {
+        return m_eventsCorrelated.get();
+    }
+
+    /**
+     * @return the number of rule activations fired since the engine started
+     */
+    public long getRulesFired() {
+        return m_rulesFired.get();
+    }
+
+    /**
+     * @return the average number of rule activations fired per second since the engine started
+     */
+    public double getRuleFiringRate() {
+        final long elapsed = System.currentTimeMillis() - m_startTime;
+        return elapsed <= 0 ? 0.0 : m_rulesFired.get() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return the number of times the engine has fired the rules of one of its sessions
+     */
+    public long getBatchCount() {
+        return m_batches.get();
+    }
+
+    /**
+     * @return the number of facts queued but not yet inserted into a session
+     */
+    public int getPendingEventCount() {
+        int count = 0;
+        for (final Partition partition : m_sessions) {
+            count += partition.getPendingCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of sessions the engine's events are partitioned across
+     */
+    public int getPartitionCount() {
+        return m_sessions == null ? m_partitions : m_sessions.length;
     }
 
     /**
@@ -227,10 +425,199 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      * @param value a {@link java.lang.Object} object.
      */
     public void setGlobal(final String name, final Object value) {
-        m_workingMemory.setGlobal(name, value);
+        for (final Partition partition : m_sessions) {
+            partition.getWorkingMemory().setGlobal(name, value);
+        }
     }
 
 	public void setAssertBehaviour(String assertBehaviour) {
 		m_assertBehaviour = assertBehaviour;
 	}
+
+	/**
+	 * @param eventProcessingMode <code>cloud</code> (the default) or <code>stream</code>
+	 */
+	public void setEventProcessingMode(final String eventProcessingMode) {
+		m_eventProcessingMode = eventProcessingMode;
+	}
+
+	/**
+	 * @param clockType <code>realtime</code> (the default) or <code>pseudo</code>
+	 */
+	public void setClockType(final String clockType) {
+		m_clockType = clockType;
+	}
+
+	/**
+	 * @param partitionKey the event field used to pick a partition: <code>nodeid</code>
+	 * (the default), <code>interface</code>, <code>service</code> or <code>uei</code>
+	 */
+	public void setPartitionKey(final String partitionKey) {
+		m_partitionKey = partitionKey;
+	}
+
+	public void setPartitions(final int partitions) {
+		m_partitions = partitions;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		m_batchSize = batchSize;
+	}
+
+	/**
+	 * @param queueSize the number of facts each partition queues before
+	 * correlate blocks the caller until the session catches up
+	 */
+	public void setQueueSize(final int queueSize) {
+		m_queueSize = queueSize;
+	}
+
+    /**
+     * One Drools session along with the bounded queue of facts waiting to be
+     * inserted into it.  When the queue is full, submitting blocks so that a
+     * slow session pushes back on the event listener instead of dropping facts.
+     */
+    private class Partition implements Runnable {
+        private final int m_index;
+        private final WorkingMemory m_workingMemory;
+        private final BlockingQueue<Object> m_queue;
+        private Thread m_worker;
+        private volatile boolean m_running;
+
+        public Partition(final int index, final WorkingMemory workingMemory, final boolean queued) {
+            m_index = index;
+            m_workingMemory = workingMemory;
+            m_queue = queued ? new LinkedBlockingQueue<Object>(Math.max(1, m_queueSize)) : null;
+        }
+
+        public WorkingMemory getWorkingMemory() {
+            return m_workingMemory;
+        }
+
+        public void start() {
+            m_running = true;
+            m_worker = new Thread(this, m_name + "-Session-" + m_index);
+            m_worker.setDaemon(true);
+            m_worker.start();
+        }
+
+        public void stop() {
+            m_running = false;
+            if (m_worker == null) {
+                return;
+            }
+            m_worker.interrupt();
+            try {
+                m_worker.join(5000);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            m_worker = null;
+            // unblocks any submitter waiting for room
+            final int discarded = m_queue.size();
+            m_queue.clear();
+            if (discarded > 0) {
+                LOG.info("Session {} of Drools engine {} discarded {} queued facts", m_index, m_name, discarded);
+            }
+        }
+
+        public void submit(final Object fact) {
+            if (m_queue == null) {
+                process(Collections.singletonList(fact));
+                return;
+            }
+            if (!m_running) {
+                LOG.debug("Session {} of Drools engine {} is stopped; discarding {}", m_index, m_name, fact);
+                return;
+            }
+            try {
+                m_queue.put(fact);
+                if (!m_running) {
+                    // released by stop, which has already discarded the queue
+                    m_queue.clear();
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted while queueing {} for session {} of Drools engine {}", fact, m_index, m_name);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public int getPendingCount() {
+            return m_queue == null ? 0 : m_queue.size();
+        }
+
+        @Override
+        public void run() {
+            final List<Object> batch = new ArrayList<Object>(m_batchSize);
+            while (m_running) {
+                try {
+                    batch.add(m_queue.take());
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                m_queue.drainTo(batch, m_batchSize - 1);
+                try {
+                    process(batch);
+                } catch (final Throwable t) {
+                    LOG.error("Drools engine {} failed to correlate a batch of {} facts", m_name, batch.size(), t);
+                }
+                batch.clear();
+            }
+            LOG.debug("Session {} of Drools engine {} stopped", m_index, m_name);
+        }
+
+        private synchronized void process(final List<?> facts) {
+            s_currentPartition.set(this);
+            try {
+                for (final Object fact : facts) {
+                    if (fact instanceof Event) {
+                        final Event e = (Event)fact;
+                        LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+                        advanceClock(e);
+                    } else {
+                        LOG.debug("Begin correlation for {}", fact);
+                    }
+                    m_workingMemory.insert(fact);
+                }
+                m_workingMemory.fireAllRules();
+                m_batches.incrementAndGet();
+                LOG.debug("End correlation for {} fact(s) in session {}", facts.size(), m_index);
+            } finally {
+                s_currentPartition.remove();
+            }
+        }
+
+        /**
+         * Moves a pseudo clock forward to the time of the event so that
+         * sliding windows are evaluated against event time.
+         */
+        private void advanceClock(final Event e) {
+            if (!(m_workingMemory.getSessionClock() instanceof SessionPseudoClock) || e.getTime() == null) {
+                return;
+            }
+            final SessionPseudoClock clock = (SessionPseudoClock)m_workingMemory.getSessionClock();
+            try {
+                final long delta = EventConstants.parseToDate(e.getTime()).getTime() - clock.getCurrentTime();
+                if (delta > 0) {
+                    clock.advanceTime(delta, TimeUnit.MILLISECONDS);
+                }
+            } catch (final ParseException ex) {
+                LOG.debug("Unable to parse time '{}' of event {}; not advancing the session clock", e.getTime(), e.getUei());
+            }
+        }
+
+        public synchronized int getMemorySize() {
+            int count = 0;
+            for(final Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); it.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        public synchronized void addMemoryObjects(final List<Object> objects) {
+            for(Iterator<?> it = m_workingMemory.iterateObjects(); it.hasNext(); ) {
+                objects.add(it.next());
+            }
+        }
+    }
 }
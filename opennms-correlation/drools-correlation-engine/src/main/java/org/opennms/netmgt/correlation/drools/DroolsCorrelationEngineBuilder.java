@@ -30,6 +30,7 @@ package org.opennms.netmgt.correlation.drools;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -90,6 +91,7 @@ public class DroolsCorrelationEngineBuilder extends PropertyEditorRegistrySuppor
 
     // built
     private PluginConfiguration[] m_pluginConfigurations;
+    private final List<CorrelationEngine> m_engines = new LinkedList<CorrelationEngine>();
 
     
     /**
@@ -127,11 +129,31 @@ public class DroolsCorrelationEngineBuilder extends PropertyEditorRegistrySuppor
 
     private void registerEngines(final ApplicationContext appContext) {
     	for(PluginConfiguration pluginConfig : m_pluginConfigurations) {
-    		m_correlator.addCorrelationEngines(pluginConfig.constructEngines(appContext, m_eventIpcManager));
+    		final CorrelationEngine[] engines = pluginConfig.constructEngines(appContext, m_eventIpcManager);
+    		synchronized (m_engines) {
+    			m_engines.addAll(Arrays.asList(engines));
+    		}
+    		m_correlator.addCorrelationEngines(engines);
     	}
 
     }
 
+    /**
+     * Stops the partition workers of the engines this builder created.
+     * Configured as the bean's destroy-method.
+     */
+    public void destroy() {
+        synchronized (m_engines) {
+            for (final CorrelationEngine engine : m_engines) {
+                if (engine instanceof DroolsCorrelationEngine) {
+                    LOG.info("Stopping drools engine {}.", engine.getName());
+                    ((DroolsCorrelationEngine)engine).destroy();
+                }
+            }
+            m_engines.clear();
+        }
+    }
+
 	/**
      * <p>setEventIpcManager</p>
      *
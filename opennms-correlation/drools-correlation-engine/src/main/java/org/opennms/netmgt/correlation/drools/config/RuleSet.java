@@ -99,6 +99,24 @@ public class RuleSet implements Serializable {
 
 	@XmlAttribute(name="assert-behaviour")
 	private String _assertBehaviour;
+
+	@XmlAttribute(name="event-processing-mode")
+	private String _eventProcessingMode;
+
+	@XmlAttribute(name="clock-type")
+	private String _clockType;
+
+	@XmlAttribute(name="partition-key")
+	private String _partitionKey;
+
+	@XmlAttribute(name="partitions")
+	private Integer _partitions;
+
+	@XmlAttribute(name="batch-size")
+	private Integer _batchSize;
+
+	@XmlAttribute(name="queue-size")
+	private Integer _queueSize;
     /**
      * Field _ruleFileList.
      */
@@ -150,6 +168,66 @@ public class RuleSet implements Serializable {
 	}
 
 
+	public String getEventProcessingMode() {
+		return _eventProcessingMode == null ? "cloud" : _eventProcessingMode;
+	}
+
+
+	public void setEventProcessingMode(String eventProcessingMode) {
+		this._eventProcessingMode = eventProcessingMode;
+	}
+
+
+	public String getClockType() {
+		return _clockType == null ? "realtime" : _clockType;
+	}
+
+
+	public void setClockType(String clockType) {
+		this._clockType = clockType;
+	}
+
+
+	public String getPartitionKey() {
+		return _partitionKey == null ? "nodeid" : _partitionKey;
+	}
+
+
+	public void setPartitionKey(String partitionKey) {
+		this._partitionKey = partitionKey;
+	}
+
+
+	public int getPartitions() {
+		return _partitions == null ? 1 : _partitions;
+	}
+
+
+	public void setPartitions(int partitions) {
+		this._partitions = partitions;
+	}
+
+
+	public int getBatchSize() {
+		return _batchSize == null ? 1 : _batchSize;
+	}
+
+
+	public void setBatchSize(int batchSize) {
+		this._batchSize = batchSize;
+	}
+
+
+	public int getQueueSize() {
+		return _queueSize == null ? 10000 : _queueSize;
+	}
+
+
+	public void setQueueSize(int queueSize) {
+		this._queueSize = queueSize;
+	}
+
+
 	/**
      * 
      * 
@@ -925,6 +1003,12 @@ public class RuleSet implements Serializable {
 		final DroolsCorrelationEngine engine = new DroolsCorrelationEngine();
 		engine.setName(getName());
 		engine.setAssertBehaviour(getAssertBehaviour());
+		engine.setEventProcessingMode(getEventProcessingMode());
+		engine.setClockType(getClockType());
+		engine.setPartitionKey(getPartitionKey());
+		engine.setPartitions(getPartitions());
+		engine.setBatchSize(getBatchSize());
+		engine.setQueueSize(getQueueSize());
 		engine.setEventIpcManager(eventIpcManager);
 		engine.setScheduler(new Timer(getName()+"-Timer"));
 		engine.setInterestingEvents(getInterestingEvents());
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.correlation.drools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Exercises the partitioned, batched and stream mode sessions of
+ * {@link DroolsCorrelationEngine} without a Spring context.
+ */
+public class DroolsCorrelationEngineTest {
+    private static final String UEI = "uei.opennms.org/test/burst";
+
+    private static final String RULES =
+            "package org.opennms.netmgt.correlation.drools;\n" +
+            "dialect \"mvel\"\n" +
+            "import org.opennms.netmgt.xml.event.Event;\n" +
+            "global org.opennms.netmgt.correlation.drools.DroolsCorrelationEngine engine;\n" +
+            "declare Event\n" +
+            "    @role( event )\n" +
+            "    @expires( 2m )\n" +
+            "end\n" +
+            "rule \"burst\"\n" +
+            "when\n" +
+            "    $e : Event( $nodeid : nodeid )\n" +
+            "    $count : Number( intValue >= 2 ) from accumulate( Event( nodeid == $nodeid ) over window:time( 1m ), count( 1 ) )\n" +
+            "    not String( this == ( \"burst-\" + $nodeid ) )\n" +
+            "then\n" +
+            "    insert( \"burst-\" + $nodeid );\n" +
+            "end\n";
+
+    private static final String SLOW_RULES =
+            "package org.opennms.netmgt.correlation.drools;\n" +
+            "dialect \"mvel\"\n" +
+            "import org.opennms.netmgt.xml.event.Event;\n" +
+            "global org.opennms.netmgt.correlation.drools.DroolsCorrelationEngine engine;\n" +
+            "rule \"slow\"\n" +
+            "when\n" +
+            "    $e : Event( )\n" +
+            "then\n" +
+            "    java.lang.Thread.sleep(10000);\n" +
+            "end\n";
+
+    private DroolsCorrelationEngine m_engine;
+
+    @After
+    public void tearDown() {
+        if (m_engine != null) {
+            m_engine.destroy();
+        }
+    }
+
+    @Test
+    public void testPartitionedBatches() throws Exception {
+        m_engine = createEngine("stream", "realtime", 4, 16);
+        assertEquals(4, m_engine.getPartitionCount());
+
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            for (int nodeid = 1; nodeid <= 10; nodeid++) {
+                m_engine.correlate(createEvent(nodeid, now));
+            }
+        }
+
+        // 500 events plus one marker per node, all within the window
+        waitForMemorySize(510);
+        assertEquals(500, m_engine.getEventsCorrelated());
+        assertEquals(10, m_engine.getRulesFired());
+        assertTrue("expected events to be batched: " + m_engine.getBatchCount(), m_engine.getBatchCount() <= 500);
+        for (int nodeid = 1; nodeid <= 10; nodeid++) {
+            assertTrue(m_engine.getMemoryObjects().contains("burst-" + nodeid));
+        }
+    }
+
+    @Test
+    public void testStreamModeExpiresEvents() throws Exception {
+        m_engine = createEngine("stream", "pseudo", 1, 1);
+
+        final long start = System.currentTimeMillis();
+        m_engine.correlate(createEvent(1, start));
+        m_engine.correlate(createEvent(1, start + 1000));
+        assertEquals(3, m_engine.getMemorySize());
+        assertEquals(1, m_engine.getRulesFired());
+
+        // advancing the pseudo clock past the window expires the old events
+        m_engine.correlate(createEvent(2, start + 5 * 60 * 1000));
+        assertEquals(2, m_engine.getMemorySize());
+        assertEquals(1, m_engine.getRulesFired());
+    }
+
+    @Test
+    public void testFullQueueBlocksUntilDestroyed() throws Exception {
+        m_engine = createEngine("cloud", "realtime", 2, 1, 1, SLOW_RULES);
+
+        // the worker sleeps in the first event's rule, the second fills the queue
+        m_engine.correlate(createEvent(2, System.currentTimeMillis()));
+        m_engine.correlate(createEvent(2, System.currentTimeMillis()));
+        final Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                m_engine.correlate(createEvent(2, System.currentTimeMillis()));
+            }
+        };
+        submitter.start();
+        submitter.join(500);
+        assertTrue("expected the submitter to block on the full queue", submitter.isAlive());
+        assertEquals(1, m_engine.getPendingEventCount());
+
+        m_engine.destroy();
+        submitter.join(5000);
+        assertFalse("expected destroy to release the submitter", submitter.isAlive());
+        assertEquals(0, m_engine.getPendingEventCount());
+        for (final Thread thread : getAllThreads()) {
+            assertFalse("worker still running: " + thread.getName(), thread.getName().startsWith("burstRules-Session-"));
+        }
+
+        // a stopped engine discards new facts rather than queueing them
+        m_engine.correlate(createEvent(2, System.currentTimeMillis()));
+        assertEquals(0, m_engine.getPendingEventCount());
+    }
+
+    private static Thread[] getAllThreads() {
+        final Thread[] threads = new Thread[Thread.activeCount() * 2];
+        final int count = Thread.enumerate(threads);
+        final Thread[] all = new Thread[count];
+        System.arraycopy(threads, 0, all, 0, count);
+        return all;
+    }
+
+    private DroolsCorrelationEngine createEngine(final String mode, final String clock, final int partitions, final int batchSize) throws Exception {
+        return createEngine(mode, clock, partitions, batchSize, 10000, RULES);
+    }
+
+    private DroolsCorrelationEngine createEngine(final String mode, final String clock, final int partitions, final int batchSize, final int queueSize, final String rules) throws Exception {
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine();
+        engine.setName("burstRules");
+        engine.setAssertBehaviour("identity");
+        engine.setEventProcessingMode(mode);
+        engine.setClockType(clock);
+        engine.setPartitionKey("nodeid");
+        engine.setPartitions(partitions);
+        engine.setBatchSize(batchSize);
+        engine.setQueueSize(queueSize);
+        engine.setScheduler(new Timer("burstRules-Timer", true));
+        engine.setInterestingEvents(Collections.singletonList(UEI));
+        engine.setRulesResources(Collections.<Resource>singletonList(new ByteArrayResource(rules.getBytes("UTF-8"))));
+        engine.initialize();
+        return engine;
+    }
+
+    private static Event createEvent(final int nodeid, final long time) {
+        final EventBuilder bldr = new EventBuilder(UEI, "test");
+        bldr.setNodeid(nodeid);
+        bldr.setTime(new Date(time));
+        return bldr.getEvent();
+    }
+
+    private void waitForMemorySize(final int expected) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (m_engine.getMemorySize() < expected && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, m_engine.getMemorySize());
+        assertEquals(0, m_engine.getPendingEventCount());
+    }
+}
@@ -114,6 +114,16 @@ public interface LocationMonitorDao extends OnmsDao<OnmsLocationMonitor, Integer
      * @return a {@link java.util.Collection} object.
      */
     Collection<OnmsLocationSpecificStatus> getAllMostRecentStatusChanges();
+
+    /**
+     * Returns every status change recorded after the status change with the
+     * given id, ordered by id, so that callers can follow the table
+     * incrementally instead of re-reading it.
+     *
+     * @param statusId the id of the last status change already seen
+     * @return a {@link java.util.Collection} object.
+     */
+    Collection<OnmsLocationSpecificStatus> getStatusChangesAfter(final int statusId);
     
     /**
      * <p>getAllStatusChangesAt</p>
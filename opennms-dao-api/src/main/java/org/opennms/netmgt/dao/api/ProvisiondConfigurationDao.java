@@ -92,6 +92,20 @@ public interface ProvisiondConfigurationDao {
      */
     public Integer getWriteThreads();
     
+    /**
+     * <p>getImportBatchSize</p>
+     *
+     * @return the maximum number of nodes scanned and persisted together during an import
+     */
+    public Integer getImportBatchSize();
+    
+    /**
+     * <p>getImportFlushInterval</p>
+     *
+     * @return the number of nodes persisted between Hibernate session flushes during an import
+     */
+    public Integer getImportFlushInterval();
+    
     /**
      * <p>getRequisitionDir</p>
      *
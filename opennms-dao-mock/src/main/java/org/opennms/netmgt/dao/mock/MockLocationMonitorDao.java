@@ -186,6 +186,15 @@ public class MockLocationMonitorDao extends AbstractMockDao<OnmsLocationMonitor,
         return statuses;
     }
 
+    @Override
+    public Collection<OnmsLocationSpecificStatus> getStatusChangesAfter(final int statusId) {
+        final List<OnmsLocationSpecificStatus> statuses = new ArrayList<OnmsLocationSpecificStatus>();
+        for (final OnmsLocationSpecificStatus status : m_statuses) {
+            if (status.getId() != null && status.getId() > statusId) statuses.add(status);
+        }
+        return statuses;
+    }
+
     @Override
     public Collection<OnmsLocationSpecificStatus> getAllStatusChangesAt(final Date timestamp) {
         return getMostRecentStatusChangesInCollection(getStatusChangesBetween(new Date(0), timestamp));
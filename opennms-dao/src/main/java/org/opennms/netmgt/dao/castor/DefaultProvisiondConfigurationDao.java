@@ -161,5 +161,25 @@ public class DefaultProvisiondConfigurationDao extends AbstractCastorConfigDao<P
     public Integer getWriteThreads() {
         return Integer.valueOf((int)getConfig().getWriteThreads());
     }
+
+    /**
+     * <p>getImportBatchSize</p>
+     *
+     * @return a {@link java.lang.Integer} object.
+     */
+    @Override
+    public Integer getImportBatchSize() {
+        return Integer.valueOf((int)getConfig().getImportBatchSize());
+    }
+
+    /**
+     * <p>getImportFlushInterval</p>
+     *
+     * @return a {@link java.lang.Integer} object.
+     */
+    @Override
+    public Integer getImportFlushInterval() {
+        return Integer.valueOf((int)getConfig().getImportFlushInterval());
+    }
     
 }
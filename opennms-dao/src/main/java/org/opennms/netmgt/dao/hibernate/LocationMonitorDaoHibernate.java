@@ -349,6 +349,16 @@ public class LocationMonitorDaoHibernate extends AbstractDaoHibernate<OnmsLocati
     	return getAllStatusChangesAt(new Date());
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public Collection<OnmsLocationSpecificStatus> getStatusChangesAfter(final int statusId) {
+        return findObjects(OnmsLocationSpecificStatus.class,
+                "from OnmsLocationSpecificStatus as status " +
+                "where status.id > ? " +
+                "order by status.id",
+                statusId);
+    }
+
     /** {@inheritDoc} */
     @Override
     public Collection<OnmsLocationSpecificStatus> getAllStatusChangesAt(final Date timestamp) {
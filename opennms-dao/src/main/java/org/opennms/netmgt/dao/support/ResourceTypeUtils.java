@@ -58,7 +58,7 @@ public abstract class ResourceTypeUtils {
     /** Constant <code>DS_PROPERTIES_FILE="ds.properties"</code> */
     public static String DS_PROPERTIES_FILE = "ds.properties";
 
-    private static PropertiesCache s_cache = new PropertiesCache();
+    private static PropertiesCache s_cache = new PropertiesCache("ResourceTypeUtils");
 
     /**
      * <p>getAttributesAtRelativePath</p>
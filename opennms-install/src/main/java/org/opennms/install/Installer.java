@@ -57,6 +57,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 import org.opennms.bootstrap.Bootstrap;
 import org.opennms.core.db.DataSourceConfigurationFactory;
+import org.opennms.core.db.TimePartitioning;
 import org.opennms.core.db.install.InstallerDb;
 import org.opennms.core.db.install.SimpleDataSource;
 import org.opennms.core.schema.ExistingResourceAccessor;
@@ -253,6 +254,14 @@ public class Installer {
                 m_migration.setAccessor(new ExistingResourceAccessor(resource));
                 m_migrator.migrate(m_migration);
             }
+
+            final TimePartitioning eventPartitioning = TimePartitioning.forEvents(m_properties.getProperty(TimePartitioning.EVENTS_INTERVAL_PROPERTY));
+            if (eventPartitioning != null) {
+                m_installerDb.setupTimePartitioning(eventPartitioning);
+            } else {
+                m_installerDb.removeTimePartitioning(TimePartitioning.forUnpartitionedEvents());
+            }
+            m_installerDb.disconnect();
         }
 
         if (m_update_unicode) {
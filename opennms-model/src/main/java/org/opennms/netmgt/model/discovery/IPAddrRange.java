@@ -294,6 +294,24 @@ public final class IPAddrRange implements Iterable<InetAddress> {
     	return InetAddressUtils.isInetAddressInRange(ipAddr, m_begin, m_end);
     }
 
+    /**
+     * Returns a copy of the first address of the range.
+     *
+     * @return the raw bytes of the first address
+     */
+    public byte[] getBegin() {
+        return Arrays.copyOf(m_begin, m_begin.length);
+    }
+
+    /**
+     * Returns a copy of the last address of the range.
+     *
+     * @return the raw bytes of the last address
+     */
+    public byte[] getEnd() {
+        return Arrays.copyOf(m_end, m_end.length);
+    }
+
     /**
      * <P>
      * Returns an Iterator object that can be used to step through all the
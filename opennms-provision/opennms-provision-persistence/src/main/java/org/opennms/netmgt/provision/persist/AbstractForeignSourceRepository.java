@@ -33,6 +33,7 @@ import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.URL;
 
 import org.apache.commons.io.IOUtils;
 import org.opennms.core.utils.ConfigFileConstants;
@@ -67,6 +68,20 @@ public abstract class AbstractForeignSourceRepository implements ForeignSourceRe
         return requisition;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Repositories that keep their requisitions in memory unmarshal the
+     * whole requisition.
+     */
+    @Override
+    public URL storeResourceRequisition(final Resource resource) throws ForeignSourceRepositoryException {
+        final Requisition requisition = importResourceRequisition(resource);
+        requisition.updateLastImported();
+        save(requisition);
+        return getRequisitionURL(requisition.getForeignSource());
+    }
+
     /**
      * <p>getDefaultForeignSource</p>
      *
@@ -30,6 +30,7 @@ package org.opennms.netmgt.provision.persist;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -49,6 +50,7 @@ import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 
 /**
@@ -327,6 +329,54 @@ public class FilesystemForeignSourceRepository extends AbstractForeignSourceRepo
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The document is copied into the repository as it is, apart from its
+     * last-import attribute, through a temporary file that replaces the
+     * stored requisition once it is complete.
+     */
+    @Override
+    public URL storeResourceRequisition(final Resource resource) throws ForeignSourceRepositoryException {
+        Assert.notNull(resource);
+
+        final StreamingRequisitionReader reader = new StreamingRequisitionReader(resource);
+        final String foreignSource = reader.readHeader().getForeignSource();
+        if (foreignSource == null || "".equals(foreignSource.trim())) {
+            throw new ForeignSourceRepositoryException("requisition " + resource + " has no foreign source");
+        }
+
+        LOG.debug("Copying requisition {} from {} to {}", foreignSource, resource, m_requisitionPath);
+        m_writeLock.lock();
+        try {
+            final File outputFile = RequisitionFileUtils.getOutputFileForRequisition(m_requisitionPath, foreignSource);
+            final File tempFile = new File(outputFile.getPath() + ".tmp");
+            OutputStream outputStream = null;
+            try {
+                outputStream = new FileOutputStream(tempFile);
+                reader.copyTo(outputStream, new Date());
+                outputStream.close();
+                outputStream = null;
+                if (outputFile.exists() && !outputFile.delete()) {
+                    throw new ForeignSourceRepositoryException("unable to replace requisition " + outputFile.getPath());
+                }
+                if (!tempFile.renameTo(outputFile)) {
+                    throw new ForeignSourceRepositoryException("unable to rename " + tempFile.getPath() + " to " + outputFile.getPath());
+                }
+                return outputFile.toURI().toURL();
+            } catch (final IOException e) {
+                throw new ForeignSourceRepositoryException("unable to write requisition to " + outputFile.getPath(), e);
+            } finally {
+                IOUtils.closeQuietly(outputStream);
+                if (tempFile.exists() && !tempFile.delete()) {
+                    LOG.warn("Unable to delete {}", tempFile);
+                }
+            }
+        } finally {
+            m_writeLock.unlock();
+        }
+    }
+
     /**
      * <p>delete</p>
      *
@@ -117,6 +117,17 @@ public interface ForeignSourceRepository {
      * @throws org.opennms.netmgt.provision.persist.ForeignSourceRepositoryException if any.
      */
     Requisition importResourceRequisition(Resource resource) throws ForeignSourceRepositoryException;
+
+    /**
+     * Import a requisition like {@link #importResourceRequisition(Resource)},
+     * but without holding all of its nodes in memory where the repository
+     * allows it.  The requisition is not validated beyond its foreign source.
+     *
+     * @param resource a {@link org.springframework.core.io.Resource} object.
+     * @return the URL of the stored requisition
+     * @throws org.opennms.netmgt.provision.persist.ForeignSourceRepositoryException if any.
+     */
+    URL storeResourceRequisition(Resource resource) throws ForeignSourceRepositoryException;
     /**
      * <p>getRequisitions</p>
      *
@@ -102,6 +102,19 @@ public class FusedForeignSourceRepository extends AbstractForeignSourceRepositor
 
         return requisition;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized URL storeResourceRequisition(final Resource resource) throws ForeignSourceRepositoryException {
+        final URL url = m_deployedForeignSourceRepository.storeResourceRequisition(resource);
+        // the header carries the foreign source and the resource, which is all the clean up needs
+        final Requisition header = new StreamingRequisitionReader(resource).readHeader();
+
+        cleanUpDeployedForeignSources(header.getForeignSource());
+        cleanUpSnapshots(header);
+
+        return url;
+    }
     
     private synchronized void cleanUpDeployedForeignSources(String foreignSourceName) {
         ForeignSource deployed = m_deployedForeignSourceRepository.getForeignSource(foreignSourceName);
@@ -189,6 +189,11 @@ public class QueueingForeignSourceRepository implements ForeignSourceRepository,
         return m_repository.importResourceRequisition(resource);
     }
 
+    @Override
+    public URL storeResourceRequisition(final Resource resource) throws ForeignSourceRepositoryException {
+        return m_repository.storeResourceRequisition(resource);
+    }
+
     @Override
     public OnmsNodeRequisition getNodeRequisition(final String foreignSource, final String foreignId) throws ForeignSourceRepositoryException {
         return m_repository.getNodeRequisition(foreignSource, foreignId);
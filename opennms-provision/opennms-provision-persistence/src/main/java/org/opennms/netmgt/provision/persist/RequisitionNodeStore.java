@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.persist;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.IOUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The nodes of a streamed requisition, each marshalled on its own into a
+ * local file and indexed by foreign ID.  Only the index is kept in memory:
+ * {@link #getNode(String)} reads a single node back, and
+ * {@link #visit(RequisitionVisitor)} reads them one at a time in document
+ * order.  Built by {@link StreamingRequisitionReader#readNodeStore(File)}.
+ */
+public class RequisitionNodeStore {
+    private static final Logger LOG = LoggerFactory.getLogger(RequisitionNodeStore.class);
+
+    private final File m_file;
+    private final Requisition m_header;
+    private final Map<String, Long> m_offsets = new LinkedHashMap<String, Long>();
+    private final JAXBContext m_context;
+
+    private DataOutputStream m_out;
+    private long m_length = 0;
+    private RandomAccessFile m_in;
+
+    RequisitionNodeStore(final File file, final Requisition header) throws IOException, JAXBException {
+        m_file = file;
+        m_header = header;
+        m_context = JaxbUtils.getContextFor(RequisitionNode.class);
+        m_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Appends a node.  Returns false, storing nothing, if the foreign ID has
+     * already been stored.
+     */
+    boolean add(final RequisitionNode node) throws IOException, JAXBException {
+        if (m_offsets.containsKey(node.getForeignId())) {
+            return false;
+        }
+        final Marshaller marshaller = m_context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        marshaller.marshal(node, bytes);
+
+        m_offsets.put(node.getForeignId(), m_length);
+        m_out.writeInt(bytes.size());
+        bytes.writeTo(m_out);
+        m_length += 4 + bytes.size();
+        return true;
+    }
+
+    /**
+     * Finishes writing; the store is read-only afterwards.
+     */
+    void finish() throws IOException {
+        m_out.close();
+        m_out = null;
+    }
+
+    /**
+     * <p>getHeader</p>
+     *
+     * @return the requisition attributes, without any nodes
+     */
+    public Requisition getHeader() {
+        return m_header;
+    }
+
+    /**
+     * <p>getForeignIds</p>
+     *
+     * @return the foreign IDs of the nodes, in document order
+     */
+    public Set<String> getForeignIds() {
+        return Collections.unmodifiableSet(m_offsets.keySet());
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return m_offsets.size();
+    }
+
+    /**
+     * Reads a single node back from the store.
+     *
+     * @param foreignId the foreign ID of the node
+     * @return the node, or null if there is no node with that foreign ID
+     * @throws ForeignSourceRepositoryException if the node cannot be read
+     */
+    public synchronized RequisitionNode getNode(final String foreignId) throws ForeignSourceRepositoryException {
+        final Long offset = m_offsets.get(foreignId);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            if (m_in == null) {
+                m_in = new RandomAccessFile(m_file, "r");
+            }
+            m_in.seek(offset);
+            final byte[] bytes = new byte[m_in.readInt()];
+            m_in.readFully(bytes);
+            return m_context.createUnmarshaller().unmarshal(new StreamSource(new ByteArrayInputStream(bytes)), RequisitionNode.class).getValue();
+        } catch (final IOException e) {
+            throw new ForeignSourceRepositoryException("Unable to read node " + foreignId + " from " + m_file, e);
+        } catch (final JAXBException e) {
+            throw new ForeignSourceRepositoryException("Unable to unmarshal node " + foreignId + " from " + m_file, e);
+        }
+    }
+
+    /**
+     * Visit the requisition, reading and visiting one node at a time.
+     *
+     * @param visitor a {@link org.opennms.netmgt.provision.persist.RequisitionVisitor} object.
+     * @throws ForeignSourceRepositoryException if a node cannot be read
+     */
+    public void visit(final RequisitionVisitor visitor) throws ForeignSourceRepositoryException {
+        visitor.visitModelImport(m_header);
+        final List<String> foreignIds;
+        synchronized (this) {
+            foreignIds = new ArrayList<String>(m_offsets.keySet());
+        }
+        for (final String foreignId : foreignIds) {
+            new OnmsNodeRequisition(m_header.getForeignSource(), getNode(foreignId)).visit(visitor);
+        }
+        visitor.completeModelImport(m_header);
+    }
+
+    /**
+     * Closes and deletes the store.
+     */
+    public synchronized void delete() {
+        IOUtils.closeQuietly(m_out);
+        m_out = null;
+        if (m_in != null) {
+            try {
+                m_in.close();
+            } catch (final IOException e) {
+                LOG.debug("Failed to close {}", m_file, e);
+            }
+            m_in = null;
+        }
+        if (m_file.exists() && !m_file.delete()) {
+            LOG.warn("Unable to delete requisition node store {}", m_file);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "RequisitionNodeStore[" + m_header.getForeignSource() + ": " + m_offsets.size() + " nodes in " + m_file + "]";
+    }
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.apache.commons.io.IOUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Reads a requisition (model-import) document one node at a time using StAX,
+ * unmarshalling each &lt;node&gt; element through JAXB on its own.  Unlike
+ * {@link JaxbUtils#unmarshal(Class, Resource)}, only the node currently being
+ * visited is held in memory, so requisitions larger than the heap can be
+ * processed.  The resource is re-read for every pass, so callers that need
+ * several passes over a remote resource should spool it to a file first.
+ */
+public class StreamingRequisitionReader {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingRequisitionReader.class);
+
+    private static final String MODEL_IMPORT_NAMESPACE = "http://xmlns.opennms.org/xsd/config/model-import";
+    private static final String ROOT_ELEMENT = "model-import";
+    private static final String NODE_ELEMENT = "node";
+
+    private final Resource m_resource;
+
+    /**
+     * <p>Constructor for StreamingRequisitionReader.</p>
+     *
+     * @param resource the requisition document to read
+     */
+    public StreamingRequisitionReader(final Resource resource) {
+        m_resource = resource;
+    }
+
+    /**
+     * <p>getResource</p>
+     *
+     * @return a {@link org.springframework.core.io.Resource} object.
+     */
+    public Resource getResource() {
+        return m_resource;
+    }
+
+    /**
+     * Read the attributes of the &lt;model-import&gt; element without reading
+     * any of the nodes.
+     *
+     * @return a {@link Requisition} with no nodes
+     * @throws ForeignSourceRepositoryException if the document cannot be read
+     */
+    public Requisition readHeader() throws ForeignSourceRepositoryException {
+        return read(null, null);
+    }
+
+    /**
+     * Stream the whole document and return the foreign IDs of all of its
+     * nodes, failing if a foreign ID is used more than once.  This performs
+     * the same check as {@link Requisition#validate()} without keeping the
+     * nodes themselves.
+     *
+     * @return the set of foreign IDs in the requisition, in document order
+     * @throws ForeignSourceRepositoryException if the document cannot be read or contains duplicate foreign IDs
+     */
+    public Set<String> readForeignIds() throws ForeignSourceRepositoryException {
+        final Set<String> foreignIds = new HashSet<String>();
+        final Set<String> duplicates = new HashSet<String>();
+        final Requisition header = read(null, new NodeHandler() {
+            @Override
+            public void handleNode(final Requisition header, final RequisitionNode node) {
+                if (!foreignIds.add(node.getForeignId())) {
+                    duplicates.add(node.getForeignId());
+                }
+            }
+        });
+        if (!duplicates.isEmpty()) {
+            throw new ForeignSourceRepositoryException("Duplicate nodes found on foreign source " + header.getForeignSource() + ": " + duplicates);
+        }
+        return foreignIds;
+    }
+
+    /**
+     * Stream the whole document into a {@link RequisitionNodeStore} backed by
+     * <code>file</code>, failing if a foreign ID is used more than once.
+     * Later passes over the requisition can then read single nodes from the
+     * store instead of parsing the document again.
+     *
+     * @param file the file to store the nodes in; it is deleted if the store cannot be built
+     * @return the node store
+     * @throws ForeignSourceRepositoryException if the document cannot be read or contains duplicate foreign IDs
+     */
+    public RequisitionNodeStore readNodeStore(final File file) throws ForeignSourceRepositoryException {
+        final Set<String> duplicates = new HashSet<String>();
+        final RequisitionNodeStore[] store = new RequisitionNodeStore[1];
+        boolean complete = false;
+        try {
+            final Requisition header = read(null, new NodeHandler() {
+                @Override
+                public void handleHeader(final Requisition header) throws IOException, JAXBException {
+                    store[0] = new RequisitionNodeStore(file, header);
+                }
+
+                @Override
+                public void handleNode(final Requisition header, final RequisitionNode node) throws IOException, JAXBException {
+                    if (!store[0].add(node)) {
+                        duplicates.add(node.getForeignId());
+                    }
+                }
+            });
+            if (!duplicates.isEmpty()) {
+                throw new ForeignSourceRepositoryException("Duplicate nodes found on foreign source " + header.getForeignSource() + ": " + duplicates);
+            }
+            store[0].finish();
+            complete = true;
+            return store[0];
+        } catch (final IOException e) {
+            throw new ForeignSourceRepositoryException("Unable to write the nodes of requisition " + m_resource + " to " + file, e);
+        } finally {
+            if (!complete) {
+                if (store[0] != null) {
+                    store[0].delete();
+                } else if (file.exists() && !file.delete()) {
+                    LOG.warn("Unable to delete {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the document to <code>out</code> as UTF-8 without unmarshalling
+     * it, setting the last-import attribute of the requisition to
+     * <code>lastImport</code>.
+     *
+     * @param out the stream to write the requisition to
+     * @param lastImport the new value of the last-import attribute
+     * @throws ForeignSourceRepositoryException if the document cannot be read or written
+     */
+    public void copyTo(final OutputStream out, final Date lastImport) throws ForeignSourceRepositoryException {
+        InputStream is = null;
+        XMLEventReader reader = null;
+        XMLEventWriter writer = null;
+        try {
+            final GregorianCalendar calendar = new GregorianCalendar();
+            calendar.setTime(lastImport);
+            final String lastImportValue = DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar).toXMLFormat();
+            final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+            is = m_resource.getInputStream();
+            reader = createInputFactory().createXMLEventReader(is);
+            writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            boolean rootSeen = false;
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartDocument()) {
+                    writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+                } else if (event.getEventType() == XMLStreamConstants.DTD) {
+                    continue;
+                } else if (event.isStartElement() && !rootSeen) {
+                    rootSeen = true;
+                    final StartElement root = event.asStartElement();
+                    if (!ROOT_ELEMENT.equals(root.getName().getLocalPart())) {
+                        throw new ForeignSourceRepositoryException("Resource " + m_resource + " is not a requisition: expected <" + ROOT_ELEMENT + ">");
+                    }
+                    final List<Attribute> attributes = new ArrayList<Attribute>();
+                    for (final Iterator<?> it = root.getAttributes(); it.hasNext(); ) {
+                        final Attribute attribute = (Attribute)it.next();
+                        if (!"last-import".equals(attribute.getName().getLocalPart())) {
+                            attributes.add(attribute);
+                        }
+                    }
+                    attributes.add(eventFactory.createAttribute("last-import", lastImportValue));
+                    writer.add(eventFactory.createStartElement(root.getName(), attributes.iterator(), root.getNamespaces()));
+                } else {
+                    writer.add(event);
+                }
+            }
+            writer.flush();
+        } catch (final IOException e) {
+            throw new ForeignSourceRepositoryException("Unable to read requisition " + m_resource, e);
+        } catch (final XMLStreamException e) {
+            throw new ForeignSourceRepositoryException("Unable to copy requisition " + m_resource, e);
+        } catch (final DatatypeConfigurationException e) {
+            throw new ForeignSourceRepositoryException("Unable to format the last import date of requisition " + m_resource, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (final XMLStreamException e) {
+                    LOG.debug("Failed to close event writer for {}", m_resource, e);
+                }
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    LOG.debug("Failed to close event reader for {}", m_resource, e);
+                }
+            }
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Visit the requisition, unmarshalling and visiting one node at a time.
+     * The visitor receives a {@link Requisition} containing only the
+     * attributes of the document in {@link RequisitionVisitor#visitModelImport(Requisition)}
+     * and {@link RequisitionVisitor#completeModelImport(Requisition)}.
+     *
+     * @param visitor a {@link org.opennms.netmgt.provision.persist.RequisitionVisitor} object.
+     * @throws ForeignSourceRepositoryException if the document cannot be read
+     */
+    public void visit(final RequisitionVisitor visitor) throws ForeignSourceRepositoryException {
+        final Requisition header = read(visitor, new NodeHandler() {
+            @Override
+            public void handleNode(final Requisition header, final RequisitionNode node) {
+                new OnmsNodeRequisition(header.getForeignSource(), node).visit(visitor);
+            }
+        });
+        visitor.completeModelImport(header);
+    }
+
+    private static abstract class NodeHandler {
+        public void handleHeader(final Requisition header) throws IOException, JAXBException {
+        }
+
+        public abstract void handleNode(Requisition header, RequisitionNode node) throws IOException, JAXBException;
+    }
+
+    private Requisition read(final RequisitionVisitor visitor, final NodeHandler handler) throws ForeignSourceRepositoryException {
+        InputStream is = null;
+        XMLStreamReader reader = null;
+        try {
+            is = m_resource.getInputStream();
+            reader = new NamespaceFilteringStreamReader(createInputFactory().createXMLStreamReader(is));
+
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // skip the prolog
+            }
+            if (!reader.isStartElement() || !ROOT_ELEMENT.equals(reader.getLocalName())) {
+                throw new ForeignSourceRepositoryException("Resource " + m_resource + " is not a requisition: expected <" + ROOT_ELEMENT + ">");
+            }
+
+            final Requisition header = readHeader(reader);
+            header.setResource(m_resource);
+            if (handler == null) {
+                return header;
+            }
+            handler.handleHeader(header);
+            if (visitor != null) {
+                visitor.visitModelImport(header);
+            }
+
+            final Unmarshaller unmarshaller = JaxbUtils.getContextFor(RequisitionNode.class).createUnmarshaller();
+            int count = 0;
+            reader.nextTag();
+            while (reader.isStartElement()) {
+                if (NODE_ELEMENT.equals(reader.getLocalName())) {
+                    // leaves the reader on the event following </node>
+                    final RequisitionNode node = unmarshaller.unmarshal(reader, RequisitionNode.class).getValue();
+                    handler.handleNode(header, node);
+                    count++;
+                } else {
+                    LOG.warn("Skipping unexpected element <{}> in requisition {}", reader.getLocalName(), m_resource);
+                    skipElement(reader);
+                }
+                skipToNextTag(reader);
+            }
+
+            LOG.debug("Streamed {} nodes from requisition {}", count, m_resource);
+            return header;
+        } catch (final IOException e) {
+            throw new ForeignSourceRepositoryException("Unable to read requisition " + m_resource, e);
+        } catch (final XMLStreamException e) {
+            throw new ForeignSourceRepositoryException("Unable to parse requisition " + m_resource, e);
+        } catch (final JAXBException e) {
+            throw new ForeignSourceRepositoryException("Unable to unmarshal node from requisition " + m_resource, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    LOG.debug("Failed to close stream reader for {}", m_resource, e);
+                }
+            }
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Requisitions never need a DTD, so DTDs and external entities are
+     * disabled to keep a requisition from reading local files or URLs.
+     */
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private Requisition readHeader(final XMLStreamReader reader) throws ForeignSourceRepositoryException {
+        final Requisition header = new Requisition();
+        try {
+            final DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                final String name = reader.getAttributeLocalName(i);
+                final String value = reader.getAttributeValue(i);
+                if ("foreign-source".equals(name)) {
+                    header.setForeignSource(value);
+                } else if ("date-stamp".equals(name)) {
+                    header.setDateStamp(datatypeFactory.newXMLGregorianCalendar(value));
+                } else if ("last-import".equals(name)) {
+                    header.setLastImport(datatypeFactory.newXMLGregorianCalendar(value));
+                }
+            }
+        } catch (final DatatypeConfigurationException e) {
+            throw new ForeignSourceRepositoryException("Unable to parse the dates in requisition " + m_resource, e);
+        } catch (final IllegalArgumentException e) {
+            throw new ForeignSourceRepositoryException("Unable to parse the dates in requisition " + m_resource, e);
+        }
+        return header;
+    }
+
+    /**
+     * Skip the element the reader is positioned on, leaving the reader on its
+     * end tag.
+     */
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Advance to the next start or end tag, skipping whitespace, comments and
+     * the end tag of the element that was just consumed.
+     */
+    private static void skipToNextTag(final XMLStreamReader reader) throws XMLStreamException {
+        if (reader.isEndElement() && NODE_ELEMENT.equals(reader.getLocalName())) {
+            reader.nextTag();
+        } else if (!reader.isStartElement() && !reader.isEndElement()) {
+            reader.nextTag();
+        } else if (reader.isEndElement() && !ROOT_ELEMENT.equals(reader.getLocalName())) {
+            reader.nextTag();
+        }
+    }
+
+    /**
+     * Requisitions have historically been accepted with or without the
+     * model-import namespace (see {@link JaxbUtils#getXMLFilterForClass(Class)}),
+     * so every element is reported as being in the model-import namespace.
+     */
+    private static final class NamespaceFilteringStreamReader extends StreamReaderDelegate {
+        public NamespaceFilteringStreamReader(final XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            if (isStartElement() || isEndElement()) {
+                return MODEL_IMPORT_NAMESPACE;
+            }
+            return super.getNamespaceURI();
+        }
+
+        @Override
+        public QName getName() {
+            return new QName(MODEL_IMPORT_NAMESPACE, getLocalName());
+        }
+    }
+}
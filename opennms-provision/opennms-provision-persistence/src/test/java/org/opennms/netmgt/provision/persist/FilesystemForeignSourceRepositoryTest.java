@@ -29,9 +29,11 @@
 package org.opennms.netmgt.provision.persist;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -89,6 +91,19 @@ public class FilesystemForeignSourceRepositoryTest extends ForeignSourceReposito
         assertNull(r);
     }
 
+    @Test
+    public void testStoreResourceRequisition() throws Exception {
+        final URL url = m_foreignSourceRepository.storeResourceRequisition(new ClassPathResource("/requisition-test.xml"));
+        assertEquals(m_foreignSourceRepository.getRequisitionURL(m_defaultForeignSourceName), url);
+
+        final Requisition r = m_foreignSourceRepository.getRequisition(m_defaultForeignSourceName);
+        assertNotNull(r.getLastImport());
+        final TestVisitor v = new TestVisitor();
+        r.visit(v);
+        assertEquals("number of nodes visited", 2, v.getNodeReqs().size());
+        assertEquals("node name matches", "apknd", v.getNodeReqs().get(0).getNodeLabel());
+    }
+
     @Test
     public void testForeignSource() throws Exception {
         createRequisition();
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.persist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+public class StreamingRequisitionReaderTest {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingRequisitionReaderTest.class);
+
+    /**
+     * Set this system property to the number of nodes to generate in order to
+     * run the heap and throughput comparison against the JAXB unmarshal path,
+     * for example: <code>-Dorg.opennms.provision.streamingBenchmarkNodes=100000</code>
+     */
+    private static final String BENCHMARK_PROPERTY = "org.opennms.provision.streamingBenchmarkNodes";
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws IOException {
+        MockLogAppender.setupLogging(true, "INFO");
+        m_file = File.createTempFile("requisition-", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    @Test
+    public void testStreamingMatchesUnmarshal() {
+        final Resource resource = new ClassPathResource("/requisition-test.xml");
+
+        final TestVisitor unmarshalled = new TestVisitor();
+        JaxbUtils.unmarshal(Requisition.class, resource).visit(unmarshalled);
+
+        final TestVisitor streamed = new TestVisitor();
+        new StreamingRequisitionReader(resource).visit(streamed);
+
+        assertNodesEqual(unmarshalled.getNodeReqs(), streamed.getNodeReqs());
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        writeRequisition(m_file, "imported:", 0, true);
+        final Requisition header = new StreamingRequisitionReader(new FileSystemResource(m_file)).readHeader();
+        assertEquals("imported:", header.getForeignSource());
+        assertEquals(0, header.getNodeCount());
+        assertEquals(2013, header.getDateStamp().getYear());
+    }
+
+    @Test
+    public void testWithoutNamespace() throws IOException {
+        writeRequisition(m_file, "nonamespace", 5, false);
+
+        final TestVisitor streamed = new TestVisitor();
+        new StreamingRequisitionReader(new FileSystemResource(m_file)).visit(streamed);
+
+        assertEquals(5, streamed.getNodeReqs().size());
+        for (final OnmsNodeRequisition nodeReq : streamed.getNodeReqs()) {
+            assertEquals("nonamespace", nodeReq.getForeignSource());
+            assertEquals(2, nodeReq.getNode().getInterfaceCount());
+            assertEquals(1, nodeReq.getNode().getCategoryCount());
+        }
+    }
+
+    @Test
+    public void testForeignIds() throws IOException {
+        writeRequisition(m_file, "ids", 10, true);
+        final Set<String> foreignIds = new StreamingRequisitionReader(new FileSystemResource(m_file)).readForeignIds();
+        assertEquals(10, foreignIds.size());
+    }
+
+    @Test
+    public void testDuplicateForeignIds() throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(m_file));
+        out.println("<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"dups\">");
+        out.println("  <node foreign-id=\"1\" node-label=\"one\"/>");
+        out.println("  <node foreign-id=\"1\" node-label=\"uno\"/>");
+        out.println("</model-import>");
+        out.close();
+
+        try {
+            new StreamingRequisitionReader(new FileSystemResource(m_file)).readForeignIds();
+            fail("expected a ForeignSourceRepositoryException for the duplicate foreign ID");
+        } catch (final ForeignSourceRepositoryException e) {
+            LOG.debug("got expected exception", e);
+        }
+    }
+
+    @Test
+    public void testNodeStore() throws IOException {
+        writeRequisition(m_file, "store", 10, true);
+        final File storeFile = File.createTempFile("requisition-", ".nodes");
+        final RequisitionNodeStore store = new StreamingRequisitionReader(new FileSystemResource(m_file)).readNodeStore(storeFile);
+        try {
+            assertEquals("store", store.getHeader().getForeignSource());
+            assertEquals(10, store.size());
+            assertEquals("node7", store.getNode("7").getNodeLabel());
+            assertEquals(2, store.getNode("7").getInterfaceCount());
+            assertEquals("node3", store.getNode("3").getNodeLabel());
+            assertNull(store.getNode("missing"));
+
+            final TestVisitor streamed = new TestVisitor();
+            new StreamingRequisitionReader(new FileSystemResource(m_file)).visit(streamed);
+            final TestVisitor stored = new TestVisitor();
+            store.visit(stored);
+            assertNodesEqual(streamed.getNodeReqs(), stored.getNodeReqs());
+        } finally {
+            store.delete();
+        }
+        assertFalse(storeFile.exists());
+    }
+
+    @Test
+    public void testNodeStoreWithDuplicateForeignIds() throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(m_file));
+        out.println("<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"dups\">");
+        out.println("  <node foreign-id=\"1\" node-label=\"one\"/>");
+        out.println("  <node foreign-id=\"1\" node-label=\"uno\"/>");
+        out.println("</model-import>");
+        out.close();
+
+        final File storeFile = File.createTempFile("requisition-", ".nodes");
+        try {
+            new StreamingRequisitionReader(new FileSystemResource(m_file)).readNodeStore(storeFile);
+            fail("expected a ForeignSourceRepositoryException for the duplicate foreign ID");
+        } catch (final ForeignSourceRepositoryException e) {
+            LOG.debug("got expected exception", e);
+        }
+        assertFalse(storeFile.exists());
+    }
+
+    @Test
+    public void testCopyTo() throws IOException {
+        writeRequisition(m_file, "copied", 5, true);
+        final File copy = File.createTempFile("requisition-", ".xml");
+        try {
+            final OutputStream out = new FileOutputStream(copy);
+            try {
+                new StreamingRequisitionReader(new FileSystemResource(m_file)).copyTo(out, new Date(0));
+            } finally {
+                out.close();
+            }
+
+            final Requisition requisition = JaxbUtils.unmarshal(Requisition.class, copy);
+            assertEquals("copied", requisition.getForeignSource());
+            assertEquals(5, requisition.getNodeCount());
+            assertEquals(2013, requisition.getDateStamp().getYear());
+            assertEquals(0, requisition.getLastImport().toGregorianCalendar().getTimeInMillis());
+
+            final TestVisitor original = new TestVisitor();
+            new StreamingRequisitionReader(new FileSystemResource(m_file)).visit(original);
+            final TestVisitor copied = new TestVisitor();
+            requisition.visit(copied);
+            assertNodesEqual(original.getNodeReqs(), copied.getNodeReqs());
+        } finally {
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws IOException {
+        final File secret = File.createTempFile("secret-", ".txt");
+        try {
+            final PrintWriter secretOut = new PrintWriter(new FileWriter(secret));
+            secretOut.print("top-secret");
+            secretOut.close();
+
+            final PrintWriter out = new PrintWriter(new FileWriter(m_file));
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<!DOCTYPE model-import [ <!ENTITY xxe SYSTEM \"" + secret.toURI() + "\"> ]>");
+            out.println("<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"xxe\">");
+            out.println("  <node foreign-id=\"1\" node-label=\"&xxe;\"/>");
+            out.println("</model-import>");
+            out.close();
+
+            final TestVisitor streamed = new TestVisitor();
+            try {
+                new StreamingRequisitionReader(new FileSystemResource(m_file)).visit(streamed);
+            } catch (final ForeignSourceRepositoryException e) {
+                LOG.debug("got expected exception", e);
+            }
+            for (final OnmsNodeRequisition nodeReq : streamed.getNodeReqs()) {
+                assertFalse(nodeReq.getNodeLabel().contains("top-secret"));
+            }
+        } finally {
+            secret.delete();
+        }
+    }
+
+    @Test
+    public void testStreamingBenchmark() throws IOException {
+        final Integer nodeCount = Integer.getInteger(BENCHMARK_PROPERTY);
+        assumeTrue(nodeCount != null);
+
+        writeRequisition(m_file, "benchmark", nodeCount, true);
+        LOG.info("Generated {} node requisition: {} bytes", nodeCount, m_file.length());
+        final Resource resource = new FileSystemResource(m_file);
+
+        // warm up both paths once
+        new StreamingRequisitionReader(resource).readHeader();
+        JaxbUtils.unmarshal(Requisition.class, new ClassPathResource("/requisition-test.xml"));
+
+        resetPeakHeap();
+        long start = System.currentTimeMillis();
+        final CountingVisitor unmarshalCounter = new CountingVisitor();
+        JaxbUtils.unmarshal(Requisition.class, resource).visit(unmarshalCounter);
+        final long unmarshalTime = System.currentTimeMillis() - start;
+        final long unmarshalPeak = getPeakHeap();
+
+        resetPeakHeap();
+        start = System.currentTimeMillis();
+        final CountingVisitor streamingCounter = new CountingVisitor();
+        new StreamingRequisitionReader(resource).visit(streamingCounter);
+        final long streamingTime = System.currentTimeMillis() - start;
+        final long streamingPeak = getPeakHeap();
+
+        assertEquals(nodeCount.intValue(), unmarshalCounter.getNodeCount());
+        assertEquals(nodeCount.intValue(), streamingCounter.getNodeCount());
+
+        LOG.info("unmarshal: {} ms ({} nodes/s), peak heap {} MB", unmarshalTime, rate(nodeCount, unmarshalTime), unmarshalPeak / (1024 * 1024));
+        LOG.info("streaming: {} ms ({} nodes/s), peak heap {} MB", streamingTime, rate(nodeCount, streamingTime), streamingPeak / (1024 * 1024));
+    }
+
+    private static long rate(final int count, final long millis) {
+        return millis == 0 ? count : (count * 1000L) / millis;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void assertNodesEqual(final List<OnmsNodeRequisition> expected, final List<OnmsNodeRequisition> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final OnmsNodeRequisition e = expected.get(i);
+            final OnmsNodeRequisition a = actual.get(i);
+            assertEquals(e.getForeignSource(), a.getForeignSource());
+            assertEquals(e.getForeignId(), a.getForeignId());
+            assertEquals(e.getNodeLabel(), a.getNodeLabel());
+            assertEquals(e.getParentNodeLabel(), a.getParentNodeLabel());
+            assertEquals(e.getNode().getInterfaceCount(), a.getNode().getInterfaceCount());
+            assertEquals(e.getNode().getCategoryCount(), a.getNode().getCategoryCount());
+            assertEquals(e.getNode().getAssetCount(), a.getNode().getAssetCount());
+        }
+    }
+
+    private static void writeRequisition(final File file, final String foreignSource, final int nodeCount, final boolean withNamespace) throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.print("<model-import");
+            if (withNamespace) {
+                out.print(" xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\"");
+            }
+            out.println(" foreign-source=\"" + foreignSource + "\" date-stamp=\"2013-10-01T12:00:00.000-04:00\">");
+            for (int i = 0; i < nodeCount; i++) {
+                out.println("  <node foreign-id=\"" + i + "\" node-label=\"node" + i + "\">");
+                out.println("    <!-- generated -->");
+                out.println("    <interface ip-addr=\"10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff) + "\" status=\"1\" snmp-primary=\"P\">");
+                out.println("      <monitored-service service-name=\"ICMP\"/>");
+                out.println("      <monitored-service service-name=\"SNMP\"/>");
+                out.println("    </interface>");
+                out.println("    <interface ip-addr=\"172.16." + ((i >> 8) & 0xff) + "." + (i & 0xff) + "\" status=\"1\" snmp-primary=\"N\"/>");
+                out.println("    <category name=\"Servers\"/>");
+                out.println("    <asset name=\"description\" value=\"generated node " + i + "\"/>");
+                out.println("  </node>");
+            }
+            out.println("</model-import>");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class CountingVisitor extends AbstractRequisitionVisitor {
+        private int m_nodeCount = 0;
+
+        @Override
+        public void completeNode(final OnmsNodeRequisition nodeReq) {
+            m_nodeCount++;
+        }
+
+        public int getNodeCount() {
+            return m_nodeCount;
+        }
+    }
+}
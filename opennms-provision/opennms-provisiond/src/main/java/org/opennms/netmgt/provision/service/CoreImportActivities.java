@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.provision.service;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
 
@@ -39,13 +41,16 @@ import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.provision.persist.AbstractRequisitionVisitor;
 import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.persist.RequisitionVisitor;
+import org.opennms.netmgt.provision.persist.StreamingRequisitionReader;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.service.lifecycle.LifeCycleInstance;
 import org.opennms.netmgt.provision.service.lifecycle.Phase;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
-import org.opennms.netmgt.provision.service.operations.ImportOperation;
+import org.opennms.netmgt.provision.service.operations.ImportOperationBatch;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.NoOpProvisionMonitor;
+import org.opennms.netmgt.provision.service.operations.ProvisionMonitor;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
 import org.springframework.core.io.Resource;
 
@@ -58,58 +63,112 @@ import org.springframework.core.io.Resource;
 @ActivityProvider
 public class CoreImportActivities {
     private static final Logger LOG = LoggerFactory.getLogger(CoreImportActivities.class);
+
+    private static final ProvisionMonitor NO_OP_MONITOR = new NoOpProvisionMonitor();
     
     ProvisionService m_provisionService;
+
+    private int m_importBatchSize = 1;
+
+    private int m_importFlushInterval = 1;
     
     public CoreImportActivities(final ProvisionService provisionService) {
         m_provisionService = provisionService;
     }
 
+    /**
+     * Set the maximum number of nodes that are persisted in one transaction.
+     * The nodes of a batch are still scanned in parallel.
+     *
+     * @param importBatchSize a int.
+     */
+    public void setImportBatchSize(final int importBatchSize) {
+        m_importBatchSize = importBatchSize;
+    }
+
+    /**
+     * Set the number of nodes persisted between Hibernate session flushes
+     * within a single import batch.
+     *
+     * @param importFlushInterval a int.
+     */
+    public void setImportFlushInterval(final int importFlushInterval) {
+        m_importFlushInterval = importFlushInterval;
+    }
+
     @Activity( lifecycle = "import", phase = "validate", schedulingHint="import")
-    public RequisitionImport loadSpecFile(final Resource resource) {
+    public RequisitionImport loadSpecFile(final Resource resource, final ProvisionMonitor monitor) {
         final RequisitionImport ri = new RequisitionImport();
 
         info("Loading requisition from resource %s", resource);
+        monitor(monitor).beginLoadingResource(resource);
         try {
-            final Requisition specFile = m_provisionService.loadRequisition(resource);
-            ri.setRequisition(specFile);
+            if (isStreamingImportEnabled()) {
+                loadStreamingRequisition(resource, ri);
+            } else {
+                final Requisition specFile = m_provisionService.loadRequisition(resource);
+                ri.setRequisition(specFile);
+            }
             debug("Finished loading requisition.");
         } catch (final Throwable t) {
             ri.abort(t);
+        } finally {
+            monitor(monitor).finishLoadingResource(resource);
         }
 
         return ri;
     }
     
+    /**
+     * Prepare a streaming import of the requisition.  Node scans read their
+     * requisitions back from the foreign source repository, so the document
+     * is copied there first, without unmarshalling it.  The stored copy is
+     * then read once into a private node store that the audit, the import
+     * operations and the relate phase read single nodes from, so that a
+     * later save of the same requisition cannot change it during the import.
+     */
+    private void loadStreamingRequisition(final Resource resource, final RequisitionImport ri) throws IOException {
+        final Resource stored = m_provisionService.storeRequisition(resource);
+        final File storeFile = File.createTempFile("requisition-", ".nodes");
+        storeFile.deleteOnExit();
+        info("Streaming requisition from resource {} into {}", resource, storeFile);
+        ri.setStreamingRequisition(new StreamingRequisitionReader(stored), storeFile);
+    }
+
+    private static boolean isStreamingImportEnabled() {
+        return System.getProperty("org.opennms.provisiond.streamingImport", "false").equalsIgnoreCase("true");
+    }
+
     @Activity( lifecycle = "import", phase = "audit", schedulingHint="import" )
-    public ImportOperationsManager auditNodes(final RequisitionImport ri, final Boolean rescanExisting) {
+    public ImportOperationsManager auditNodes(final RequisitionImport ri, final Boolean rescanExisting, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping audit phase import.");
             return null;
         }
         
-        final Requisition specFile = ri.getRequisition();
+        monitor(monitor).beginAuditNodes();
 
-        info("Auditing nodes for requisition %s", specFile);
+        info("Auditing nodes for requisition %s", ri.getRequisition());
 
         // @ipv6
         m_provisionService.createDistPollerIfNecessary("localhost", "127.0.0.1");
         
-        final String foreignSource = specFile.getForeignSource();
+        final String foreignSource = ri.getForeignSource();
         final Map<String, Integer> foreignIdsToNodes = m_provisionService.getForeignIdToNodeIdMap(foreignSource);
 
         final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, m_provisionService, rescanExisting);
         
         opsMgr.setForeignSource(foreignSource);
-        opsMgr.auditNodes(specFile);
+        opsMgr.auditNodes(ri);
 
+        monitor(monitor).finishAuditNodes();
         debug("Finished auditing nodes.");
         
         return opsMgr;
     }
     
     @Activity( lifecycle = "import", phase = "scan", schedulingHint="import" )
-    public void scanNodes(final Phase currentPhase, final ImportOperationsManager opsMgr, final RequisitionImport ri) {
+    public void scanNodes(final Phase currentPhase, final ImportOperationsManager opsMgr, final RequisitionImport ri, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase import.");
             return;
@@ -117,15 +176,22 @@ public class CoreImportActivities {
 
         info("Scheduling nodes for phase %s", currentPhase);
         
-        final Collection<ImportOperation> operations = opsMgr.getOperations();
+        monitor(monitor).beginProcessingOps(opsMgr.getDeleteCount(), opsMgr.getUpdateCount(), opsMgr.getInsertCount());
+
+        final Collection<ImportOperationBatch> batches = opsMgr.getOperationBatches(Math.max(1, m_importBatchSize), m_importFlushInterval);
         
-        for(final ImportOperation op : operations) {
+        info("Partitioned {} operations into {} batches of at most {} nodes", opsMgr.getOperationCount(), batches.size(), m_importBatchSize);
+
+        for(final ImportOperationBatch batch : batches) {
             final LifeCycleInstance nodeScan = currentPhase.createNestedLifeCycle("nodeImport");
 
-            debug("Created lifecycle %s for operation %s", nodeScan, op);
+            debug("Created lifecycle %s for operations %s", nodeScan, batch);
             
-            nodeScan.setAttribute("operation", op);
+            nodeScan.setAttribute("operationBatch", batch);
             nodeScan.setAttribute("requisitionImport", ri);
+            if (monitor != null) {
+                nodeScan.setAttribute("monitor", monitor);
+            }
             nodeScan.trigger();
         }
 
@@ -134,76 +200,89 @@ public class CoreImportActivities {
     
     
     @Activity( lifecycle = "nodeImport", phase = "scan", schedulingHint="import" )
-    public void scanNode(final ImportOperation operation, final RequisitionImport ri, final Boolean rescanExisting) {
+    public void scanNode(final BatchTask currentPhase, final ImportOperationBatch batch, final RequisitionImport ri, final Boolean rescanExisting, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase nodeImport.");
             return;
         }
 
         if (rescanExisting == null || rescanExisting) {
-            info("Running scan phase of %s", operation);
-            operation.scan();
-    
-            info("Finished Running scan phase of %s", operation);
+            info("Scheduling scan phase of %s", batch);
+            batch.scan(currentPhase, monitor(monitor));
         } else {
-            info("Skipping scan phase of %s, because the %s parameter was set during import.", operation, EventConstants.PARM_IMPORT_RESCAN_EXISTING);
+            info("Skipping scan phase of %s, because the %s parameter was set during import.", batch, EventConstants.PARM_IMPORT_RESCAN_EXISTING);
         }
     }
     
     @Activity( lifecycle = "nodeImport", phase = "persist" , schedulingHint = "import" )
-    public void persistNode(final ImportOperation operation, final RequisitionImport ri) {
+    public void persistNode(final ImportOperationBatch batch, final RequisitionImport ri, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping persist phase.");
             return;
         }
 
-        info("Running persist phase of %s", operation);
-        operation.persist();
-        info("Finished Running persist phase of %s", operation);
+        info("Running persist phase of %s", batch);
+        batch.persist(monitor(monitor));
+        info("Finished Running persist phase of %s", batch);
 
     }
     
     @Activity( lifecycle = "import", phase = "relate" , schedulingHint = "import" )
-    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri) {
+    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri, final ProvisionMonitor monitor) {
+        // the nested nodeImport lifecycles all complete before the relate phase starts
+        monitor(monitor).finishProcessingOps();
+
         if (ri.isAborted()) {
             info("The import has been aborted, skipping relate phase.");
+            ri.cleanUp();
             return;
         }
 
         info("Running relate phase");
+        monitor(monitor).beginRelateNodes();
         
-        final Requisition requisition = ri.getRequisition();
+        final String foreignSource = ri.getForeignSource();
         RequisitionVisitor visitor = new AbstractRequisitionVisitor() {
             @Override
             public void visitNode(final OnmsNodeRequisition nodeReq) {
                 LOG.debug("Scheduling relate of node {}", nodeReq);
-                currentPhase.add(parentSetter(m_provisionService, nodeReq, requisition.getForeignSource()));
+                currentPhase.add(parentSetter(m_provisionService, nodeReq, foreignSource));
             }
         };
         
-        requisition.visit(visitor);
+        try {
+            ri.visit(visitor);
+        } finally {
+            ri.cleanUp();
+        }
         
+        monitor(monitor).finishRelateNodes();
         LOG.info("Finished Running relate phase");
 
     }
     
     private static Runnable parentSetter(final ProvisionService provisionService, final OnmsNodeRequisition nodeReq, final String foreignSource) {
+        // copy what we need so the scheduled task does not hold on to the whole node requisition
+        final String foreignId = nodeReq.getForeignId();
+        final String nodeLabel = nodeReq.getNodeLabel();
+        // If the node requisition does not include a parent foreign source
+        // name, then use the foreign source of the current requisition
+        // as the default value
+        //
+        // @see http://issues.opennms.org/browse/NMS-4109
+        //
+        final String parentForeignSource = nodeReq.getParentForeignSource() == null ? foreignSource : nodeReq.getParentForeignSource();
+        final String parentForeignId = nodeReq.getParentForeignId();
+        final String parentNodeLabel = nodeReq.getParentNodeLabel();
         return new Runnable() {
             @Override
             public void run() {
                 provisionService.setNodeParentAndDependencies(
                     foreignSource,
-                    nodeReq.getForeignId(),
-                    // If the node requisition does not include a parent foreign source
-                    // name, then use the foreign source of the current requisition
-                    // as the default value
-                    //
-                    // @see http://issues.opennms.org/browse/NMS-4109
-                    //
-                    nodeReq.getParentForeignSource() == null ? 
-                        foreignSource : nodeReq.getParentForeignSource(),
-                    nodeReq.getParentForeignId(),
-                    nodeReq.getParentNodeLabel()
+                    foreignId,
+                    parentForeignSource,
+                    parentForeignId,
+                    parentNodeLabel
                 );
 
                 provisionService.clearCache();
@@ -211,11 +290,15 @@ public class CoreImportActivities {
 
             @Override
             public String toString() {
-                return "set parent for node "+nodeReq.getNodeLabel();
+                return "set parent for node "+nodeLabel;
             }
         }; 
     }
 
+    private static ProvisionMonitor monitor(final ProvisionMonitor monitor) {
+        return monitor == null ? NO_OP_MONITOR : monitor;
+    }
+
     protected void info(String format, Object... args) {
     	LOG.info(format, args);
     }
@@ -48,6 +48,7 @@ import org.joda.time.Duration;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.EventConstants;
+import org.opennms.netmgt.dao.TransactionAwareEventForwarder;
 import org.opennms.netmgt.dao.api.CategoryDao;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
@@ -89,12 +90,14 @@ import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionInterfaceCollection;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
@@ -173,6 +176,10 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
+        if (!(m_eventForwarder instanceof TransactionAwareEventForwarder)) {
+            // node events must not leave before the import batch that caused them commits
+            m_eventForwarder = new TransactionAwareEventForwarder(m_eventForwarder);
+        }
         RequisitionFileUtils.deleteAllSnapshots(m_pendingForeignSourceRepository);
     }
 
@@ -590,8 +597,24 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
     @Transactional
     @Override
     public void clearCache() {
-        m_nodeDao.clear();
+        // flush before clearing so that pending changes in a shared session are not discarded
         m_nodeDao.flush();
+        m_nodeDao.clear();
+    }
+
+    /** {@inheritDoc} */
+    @Transactional
+    @Override
+    public void persistImportOperations(final List<ImportOperation> operations, final int flushInterval) {
+        int persisted = 0;
+        for (final ImportOperation operation : operations) {
+            operation.persistWithoutClearingCache();
+            if (flushInterval > 0 && ++persisted % flushInterval == 0) {
+                LOG.debug("Flushing session after {} of {} import operations", persisted, operations.size());
+                clearCache();
+            }
+        }
+        clearCache();
     }
     
     /** {@inheritDoc} */
@@ -908,6 +931,12 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         return r;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Resource storeRequisition(final Resource resource) {
+        return new UrlResource(m_foreignSourceRepository.storeResourceRequisition(resource));
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.provision.service.ProvisionService#updateNodeInfo(org.opennms.netmgt.model.OnmsNode)
      */
@@ -46,6 +46,7 @@ import org.opennms.netmgt.provision.ServiceDetector;
 import org.opennms.netmgt.provision.SnmpInterfacePolicy;
 import org.opennms.netmgt.provision.persist.ForeignSourceRepository;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.springframework.core.io.Resource;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -79,6 +80,21 @@ public interface ProvisionService {
      */
     void clearCache();
 
+    /**
+     * Persist a chunk of import operations inside a single transaction. The
+     * Hibernate session is flushed and cleared every <code>flushInterval</code>
+     * operations (and once more at the end) so that the session does not grow
+     * with the size of the chunk and JDBC statements can be batched. The node
+     * events raised by the operations are held until the transaction commits
+     * and are discarded if it rolls back.
+     *
+     * @param operations the import operations to persist, in order
+     * @param flushInterval the number of operations between session flushes, or
+     *            0 to flush only once at the end of the chunk
+     */
+    @Transactional
+    void persistImportOperations(List<ImportOperation> operations, int flushInterval);
+
     /**
      * Lookup a distPoller in the database, creating it if necessary. This
      * method looks up the OnmsDistPoller object with the name 'dpName' in the
@@ -315,6 +331,16 @@ public interface ProvisionService {
      */
     Requisition loadRequisition(Resource resource);
 
+    /**
+     * Store the requisition in the foreign source repository like
+     * {@link #loadRequisition(Resource)} does, but without unmarshalling it,
+     * so that a streaming import never holds the whole requisition.
+     *
+     * @param resource the requisition to import
+     * @return the stored copy of the requisition in the repository
+     */
+    Resource storeRequisition(Resource resource);
+
     /**
      * <p>getDetectorsForForeignSource</p>
      *
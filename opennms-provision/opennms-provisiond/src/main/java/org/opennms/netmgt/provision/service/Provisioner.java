@@ -407,8 +407,14 @@ public class Provisioner implements SpringServiceDaemon {
         final LifeCycleInstance doImport = m_lifeCycleRepository.createLifeCycleInstance("import", m_importActivities);
         doImport.setAttribute("resource", resource);
         doImport.setAttribute("rescanExisting", Boolean.valueOf(rescanExisting));
-        doImport.trigger();
-        doImport.waitFor();
+        doImport.setAttribute("monitor", monitor);
+        monitor.beginImporting();
+        try {
+            doImport.trigger();
+            doImport.waitFor();
+        } finally {
+            monitor.finishImporting();
+        }
         final RequisitionImport ri = doImport.findAttributeByType(RequisitionImport.class);
         if (ri.isAborted()) {
             throw new ModelImportException("Import failed for resource " + resource.toString(), ri.getError());
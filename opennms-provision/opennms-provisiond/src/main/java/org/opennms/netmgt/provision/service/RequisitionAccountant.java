@@ -49,17 +49,31 @@ public class RequisitionAccountant extends AbstractRequisitionVisitor {
     public RequisitionAccountant(ImportOperationsManager opsMgr) {
         m_opsMgr = opsMgr;
     }
+
+    /**
+     * Constructor for filling in the node of a single operation.
+     *
+     * @param op a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
+     */
+    public RequisitionAccountant(SaveOrUpdateOperation op) {
+        m_opsMgr = null;
+        m_currentOp = op;
+    }
     
     /** {@inheritDoc} */
     @Override
     public void visitNode(OnmsNodeRequisition nodeReq) {
-        m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getBuilding(), nodeReq.getCity());        
+        if (m_opsMgr != null) {
+            m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getBuilding(), nodeReq.getCity());
+        }
     }
     
     /** {@inheritDoc} */
     @Override
     public void completeNode(OnmsNodeRequisition nodeReq) {
-        m_currentOp = null;
+        if (m_opsMgr != null) {
+            m_currentOp = null;
+        }
     }
 
     /** {@inheritDoc} */
@@ -31,6 +31,7 @@ package org.opennms.netmgt.provision.service;
 import java.util.List;
 
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
+import org.opennms.netmgt.provision.service.operations.ImportOperationBatch;
 import org.opennms.netmgt.provision.service.operations.ProvisionMonitor;
 import org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation;
 import org.opennms.netmgt.xml.event.Event;
@@ -122,7 +123,19 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 
 	/** {@inheritDoc} */
         @Override
-	public void beginSendingEvents(ImportOperation oper, List<Event> events) {
+	public void beginPersistingBatch(ImportOperationBatch batch) {
+		m_processingEffort.begin();
+	}
+
+	/** {@inheritDoc} */
+        @Override
+	public void finishPersistingBatch(ImportOperationBatch batch) {
+		m_processingEffort.end(batch.size());
+	}
+
+	/** {@inheritDoc} */
+        @Override
+	public synchronized void beginSendingEvents(ImportOperation oper, List<Event> events) {
 		if (events != null) m_eventCount += events.size();
 		m_eventEffort.begin();
 	}
@@ -200,7 +213,7 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 	 * @return a {@link java.lang.String} object.
 	 */
         @Override
-	public String toString() {
+	public synchronized String toString() {
 		StringBuffer stats = new StringBuffer();
 		stats.append("Deletes: ").append(m_deleteCount).append(", ");
 		stats.append("Updates: ").append(m_updateCount).append(", ");
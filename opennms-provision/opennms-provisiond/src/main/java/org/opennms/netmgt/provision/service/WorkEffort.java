@@ -64,9 +64,22 @@ public class WorkEffort {
 	 * <p>end</p>
 	 */
 	public void end() {
+		end(1);
+	}
+
+	/**
+	 * <p>end</p>
+	 *
+	 * Ends the pending section, counting it as <code>sectionCount</code>
+	 * units of work (for example, the number of nodes in a batch).
+	 *
+	 * @param sectionCount a int.
+	 */
+	public synchronized void end(int sectionCount) {
 		WorkDuration pending = m_pendingSection.get();
-		m_sectionCount++;
+		m_sectionCount += sectionCount;
 		m_totalTime += pending.getLength();
+		m_pendingSection.remove();
 	}
 	
 	/**
@@ -74,7 +87,7 @@ public class WorkEffort {
 	 *
 	 * @return a long.
 	 */
-	public long getTotalTime() {
+	public synchronized long getTotalTime() {
 		return m_totalTime;
 	}
 	
@@ -84,7 +97,7 @@ public class WorkEffort {
 	 * @return a {@link java.lang.String} object.
 	 */
         @Override
-	public String toString() {
+	public synchronized String toString() {
 		StringBuffer buf = new StringBuffer();
 		buf.append("Total ").append(m_name).append(": ");
 		buf.append((double)m_totalTime/(double)1000L).append(" thread-seconds");
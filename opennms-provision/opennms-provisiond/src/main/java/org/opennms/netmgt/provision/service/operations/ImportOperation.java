@@ -72,12 +72,7 @@ public abstract class ImportOperation {
      */
     public void persist() {
     
-        final ImportOperation oper = this;
-    
-        LOG.info("Persist: {}", oper);
-    
-        doPersist();
-    	
+        persistWithoutClearingCache();
     
         LOG.info("Clear cache: {}", this);
     
@@ -85,5 +80,39 @@ public abstract class ImportOperation {
     	getProvisionService().clearCache();
     }
 
+    /**
+     * <p>persistWithoutClearingCache</p>
+     *
+     * Persist this operation but leave the Hibernate session alone. This is
+     * used when several operations share one transaction, in which case the
+     * caller is responsible for flushing and clearing the session.
+     */
+    public void persistWithoutClearingCache() {
+        LOG.info("Persist: {}", this);
+
+        doPersist();
+    }
+
+    /**
+     * <p>resetPersistentState</p>
+     *
+     * Discard any state that a persist attempt assigned to this operation's
+     * entities. This is called before an operation from a rolled back batch
+     * is persisted again on its own.
+     */
+    protected void resetPersistentState() {
+        // nothing to reset by default
+    }
+
+    /**
+     * <p>release</p>
+     *
+     * Drop any state that can be read again, once this operation has been
+     * persisted.
+     */
+    protected void release() {
+        // nothing to release by default
+    }
+
 
 }
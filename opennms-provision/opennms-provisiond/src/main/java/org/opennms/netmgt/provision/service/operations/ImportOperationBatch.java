@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opennms.core.tasks.BatchTask;
+import org.opennms.netmgt.provision.service.ProvisionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A chunk of {@link ImportOperation}s that is persisted in a single
+ * transaction.  The operations are still scanned in parallel, each in its
+ * own task.  If the batched transaction
+ * fails, the operations are persisted again one at a time so that a single
+ * bad node does not prevent the rest of the chunk from being imported.
+ * Events for the batch are only sent once its transaction commits, so a
+ * rolled back batch sends nothing and each retried operation sends its own.
+ */
+public class ImportOperationBatch {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportOperationBatch.class);
+
+    private final List<ImportOperation> m_operations;
+    private final ProvisionService m_provisionService;
+    private final int m_flushInterval;
+
+    /**
+     * <p>Constructor for ImportOperationBatch.</p>
+     *
+     * @param operations the operations in this chunk
+     * @param provisionService a {@link org.opennms.netmgt.provision.service.ProvisionService} object.
+     * @param flushInterval the number of operations between Hibernate session flushes
+     */
+    public ImportOperationBatch(final List<ImportOperation> operations, final ProvisionService provisionService, final int flushInterval) {
+        m_operations = Collections.unmodifiableList(new ArrayList<ImportOperation>(operations));
+        m_provisionService = provisionService;
+        m_flushInterval = flushInterval;
+    }
+
+    /**
+     * <p>getOperations</p>
+     *
+     * @return the operations in this chunk
+     */
+    public List<ImportOperation> getOperations() {
+        return m_operations;
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of operations in this chunk
+     */
+    public int size() {
+        return m_operations.size();
+    }
+
+    /**
+     * Adds a task scanning each operation to the current phase, so that the
+     * operations are scanned in parallel and the phase completes once all of
+     * them have been scanned.
+     *
+     * @param currentPhase a {@link org.opennms.core.tasks.BatchTask} object.
+     * @param monitor a {@link org.opennms.netmgt.provision.service.operations.ProvisionMonitor} object.
+     */
+    public void scan(final BatchTask currentPhase, final ProvisionMonitor monitor) {
+        for (final ImportOperation oper : m_operations) {
+            currentPhase.add(scanner(oper, monitor), "import");
+        }
+    }
+
+    private static Runnable scanner(final ImportOperation oper, final ProvisionMonitor monitor) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                monitor.beginPreprocessing(oper);
+                try {
+                    oper.scan();
+                } finally {
+                    monitor.finishPreprocessing(oper);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "scan " + oper;
+            }
+        };
+    }
+
+    /**
+     * <p>persist</p>
+     *
+     * @param monitor a {@link org.opennms.netmgt.provision.service.operations.ProvisionMonitor} object.
+     */
+    public void persist(final ProvisionMonitor monitor) {
+        monitor.beginPersistingBatch(this);
+        try {
+            m_provisionService.persistImportOperations(m_operations, m_flushInterval);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to persist {} as a batch, persisting its operations individually", this, e);
+            persistIndividually();
+        } finally {
+            for (final ImportOperation oper : m_operations) {
+                oper.release();
+            }
+            monitor.finishPersistingBatch(this);
+        }
+    }
+
+    private void persistIndividually() {
+        for (final ImportOperation oper : m_operations) {
+            try {
+                oper.resetPersistentState();
+                oper.persist();
+            } catch (final RuntimeException e) {
+                LOG.error("Failed to persist {}", oper, e);
+            }
+        }
+    }
+
+    /**
+     * <p>toString</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String toString() {
+        if (m_operations.isEmpty()) {
+            return "BATCH: empty";
+        }
+        return "BATCH: " + m_operations.size() + " operations starting with " + m_operations.get(0);
+    }
+}
@@ -62,9 +62,13 @@ public class ImportOperationsManager {
 			super(nodeId, foreignSource, foreignId, nodeLabel, building, city, provisionService);
 		}
 
+		public NullUpdateOperation(final Integer nodeId, final String foreignSource, final String foreignId, final RequisitionImport requisitionImport, final ProvisionService provisionService) {
+			super(nodeId, foreignSource, foreignId, requisitionImport, provisionService);
+		}
+
 		@Override
 	    protected void doPersist() {
-			LOG.debug("Skipping persist for node {}: rescanExisting is false", getNode());
+			LOG.debug("Skipping persist for node {}: rescanExisting is false", describeNode());
 		}
 	}
 
@@ -116,6 +120,31 @@ public class ImportOperationsManager {
         return ret;
     }
 
+    /**
+     * Like {@link #foundNode(String, String, String, String)}, for a node of
+     * a streamed requisition that the operation reads when it needs it.
+     *
+     * @param foreignId a {@link java.lang.String} object.
+     * @param requisitionImport the streamed requisition
+     * @return a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
+     */
+    public SaveOrUpdateOperation foundNode(final String foreignId, final RequisitionImport requisitionImport) {
+        final SaveOrUpdateOperation ret;
+        if (nodeExists(foreignId)) {
+            final Integer nodeId = processForeignId(foreignId);
+            if (m_rescanExisting) {
+                ret = new UpdateOperation(nodeId, getForeignSource(), foreignId, requisitionImport, m_provisionService);
+            } else {
+                ret = new NullUpdateOperation(nodeId, getForeignSource(), foreignId, requisitionImport, m_provisionService);
+            }
+            m_updates.add(ret);
+        } else {
+            ret = new InsertOperation(getForeignSource(), foreignId, requisitionImport, m_provisionService);
+            m_inserts.add(ret);
+        }
+        return ret;
+    }
+
     private boolean nodeExists(String foreignId) {
         return m_foreignIdToNodeMap.containsKey(foreignId);
     }
@@ -280,6 +309,41 @@ public class ImportOperationsManager {
         return Collections.list(new OperationIterator());
     }
     
+    /**
+     * Partition the operations into chunks of at most <code>batchSize</code>
+     * operations each.  Deletes, updates and inserts are never mixed in the
+     * same chunk, and the chunks are returned in the same order as
+     * {@link #getOperations()} so that deletes still happen first.
+     *
+     * @param batchSize the maximum number of operations per chunk
+     * @param flushInterval the number of operations between Hibernate session flushes
+     * @return a {@link java.util.List} of {@link ImportOperationBatch} objects.
+     */
+    public List<ImportOperationBatch> getOperationBatches(final int batchSize, final int flushInterval) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        final List<ImportOperationBatch> batches = new ArrayList<ImportOperationBatch>();
+        addBatches(batches, new DeleteIterator(), batchSize, flushInterval);
+        addBatches(batches, m_updates.iterator(), batchSize, flushInterval);
+        addBatches(batches, m_inserts.iterator(), batchSize, flushInterval);
+        return batches;
+    }
+
+    private void addBatches(final List<ImportOperationBatch> batches, final Iterator<ImportOperation> operations, final int batchSize, final int flushInterval) {
+        List<ImportOperation> chunk = new ArrayList<ImportOperation>(batchSize);
+        while (operations.hasNext()) {
+            chunk.add(operations.next());
+            if (chunk.size() == batchSize) {
+                batches.add(new ImportOperationBatch(chunk, m_provisionService, flushInterval));
+                chunk = new ArrayList<ImportOperation>(batchSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            batches.add(new ImportOperationBatch(chunk, m_provisionService, flushInterval));
+        }
+    }
+
     @SuppressWarnings("unused")
     private Runnable sequence(final Executor pool, final Runnable a, final Runnable b) {
         return new Runnable() {
@@ -322,6 +386,22 @@ public class ImportOperationsManager {
         requisition.visit(new RequisitionAccountant(this));
     }
 
+    /**
+     * <p>auditNodes</p>
+     *
+     * @param requisitionImport a {@link org.opennms.netmgt.provision.service.operations.RequisitionImport} object.
+     */
+    public void auditNodes(RequisitionImport requisitionImport) {
+        if (requisitionImport.isStreaming()) {
+            // the operations read their nodes from the requisition's node store when they are scanned
+            for (final String foreignId : requisitionImport.getForeignIds()) {
+                foundNode(foreignId, requisitionImport);
+            }
+        } else {
+            requisitionImport.visit(new RequisitionAccountant(this));
+        }
+    }
+
     @SuppressWarnings("unused")
     private Runnable persister(final ImportOperation oper) {
         Runnable r = new Runnable() {
@@ -46,6 +46,18 @@ public class InsertOperation extends SaveOrUpdateOperation {
 		super(foreignSource, foreignId, nodeLabel, building, city, provisionService);
 	}
 
+    /**
+     * Constructor for an insert of a node of a streamed requisition.
+     *
+     * @param foreignSource a {@link java.lang.String} object.
+     * @param foreignId a {@link java.lang.String} object.
+     * @param requisitionImport the streamed requisition the node is read from
+     * @param provisionService a {@link org.opennms.netmgt.provision.service.ProvisionService} object.
+     */
+    public InsertOperation(String foreignSource, String foreignId, RequisitionImport requisitionImport, ProvisionService provisionService) {
+        super(null, foreignSource, foreignId, requisitionImport, provisionService);
+    }
+
 	/**
 	 * <p>toString</p>
 	 *
@@ -53,7 +65,7 @@ public class InsertOperation extends SaveOrUpdateOperation {
 	 */
     @Override
 	public String toString() {
-        return "INSERT: Node: "+getNode().getId()+": "+getNode().getLabel();
+        return "INSERT: Node: "+describeNode();
     }
 
     /** {@inheritDoc} */
@@ -79,6 +79,16 @@ public class NoOpProvisionMonitor implements ProvisionMonitor {
 	public void finishPersisting(ImportOperation oper) {
 	}
 
+	/** {@inheritDoc} */
+        @Override
+	public void beginPersistingBatch(ImportOperationBatch batch) {
+	}
+
+	/** {@inheritDoc} */
+        @Override
+	public void finishPersistingBatch(ImportOperationBatch batch) {
+	}
+
 	/** {@inheritDoc} */
         @Override
 	public void beginSendingEvents(ImportOperation oper, List<Event> events) {
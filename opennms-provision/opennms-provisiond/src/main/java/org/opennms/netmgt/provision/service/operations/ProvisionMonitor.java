@@ -87,6 +87,20 @@ public interface ProvisionMonitor {
 	 */
 	void finishPersisting(ImportOperation oper);
 
+	/**
+	 * <p>beginPersistingBatch</p>
+	 *
+	 * @param batch a {@link org.opennms.netmgt.provision.service.operations.ImportOperationBatch} object.
+	 */
+	void beginPersistingBatch(ImportOperationBatch batch);
+
+	/**
+	 * <p>finishPersistingBatch</p>
+	 *
+	 * @param batch a {@link org.opennms.netmgt.provision.service.operations.ImportOperationBatch} object.
+	 */
+	void finishPersistingBatch(ImportOperationBatch batch);
+
 	/**
 	 * <p>beginSendingEvents</p>
 	 *
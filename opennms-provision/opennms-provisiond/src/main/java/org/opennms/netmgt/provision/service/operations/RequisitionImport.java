@@ -28,21 +28,105 @@
 
 package org.opennms.netmgt.provision.service.operations;
 
+import java.io.File;
+import java.util.Set;
+
 import javax.xml.bind.ValidationException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.opennms.netmgt.provision.persist.ForeignSourceRepositoryException;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
+import org.opennms.netmgt.provision.persist.RequisitionNodeStore;
+import org.opennms.netmgt.provision.persist.RequisitionVisitor;
+import org.opennms.netmgt.provision.persist.StreamingRequisitionReader;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 
 public class RequisitionImport {
     private static final Logger LOG = LoggerFactory.getLogger(RequisitionImport.class);
     private Requisition m_requisition;
+    private RequisitionNodeStore m_nodeStore;
     private Throwable m_throwable;
 
+    /**
+     * Returns the requisition being imported.  When the requisition is
+     * being streamed, this only contains the requisition attributes and
+     * none of its nodes; use {@link #visit(RequisitionVisitor)} instead.
+     */
     public Requisition getRequisition() {
         return m_requisition;
     }
 
+    public String getForeignSource() {
+        return m_requisition == null ? null : m_requisition.getForeignSource();
+    }
+
+    public boolean isStreaming() {
+        return m_nodeStore != null;
+    }
+
+    /**
+     * Import the requisition without holding the whole document in memory.
+     * The document is read once into a {@link RequisitionNodeStore} backed by
+     * <code>storeFile</code>, which also checks for duplicate foreign IDs;
+     * the import reads single nodes from the store after that.
+     *
+     * @param reader the reader for the requisition document
+     * @param storeFile the file to keep the nodes in until {@link #cleanUp()}
+     */
+    public void setStreamingRequisition(final StreamingRequisitionReader reader, final File storeFile) {
+        try {
+            m_nodeStore = reader.readNodeStore(storeFile);
+            m_requisition = m_nodeStore.getHeader();
+            LOG.debug("Requisition {} contains {} nodes", m_requisition.getForeignSource(), m_nodeStore.size());
+        } catch (final ForeignSourceRepositoryException e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Returns the foreign IDs of the nodes of a streamed requisition, in
+     * document order.
+     */
+    public Set<String> getForeignIds() {
+        return m_nodeStore.getForeignIds();
+    }
+
+    /**
+     * Reads a single node of a streamed requisition.
+     *
+     * @param foreignId the foreign ID of the node
+     * @return the node, or null if the requisition has no such node
+     */
+    public OnmsNodeRequisition getNodeRequisition(final String foreignId) {
+        final RequisitionNode node = m_nodeStore.getNode(foreignId);
+        return node == null ? null : new OnmsNodeRequisition(m_requisition.getForeignSource(), node);
+    }
+
+    /**
+     * Visit the nodes of the requisition, either from memory or one at a time
+     * from the node store.
+     *
+     * @param visitor a {@link org.opennms.netmgt.provision.persist.RequisitionVisitor} object.
+     */
+    public void visit(final RequisitionVisitor visitor) {
+        if (m_nodeStore != null) {
+            m_nodeStore.visit(visitor);
+        } else {
+            m_requisition.visit(visitor);
+        }
+    }
+
+    /**
+     * Release any temporary resources held for a streaming import.
+     */
+    public void cleanUp() {
+        if (m_nodeStore != null) {
+            m_nodeStore.delete();
+        }
+    }
+
     public void setRequisition(final Requisition requisition) {
         m_requisition = requisition;
         try {
@@ -36,10 +36,13 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.model.OnmsSnmpInterface;
 import org.opennms.netmgt.model.PrimaryType;
 import org.opennms.netmgt.model.OnmsNode.NodeLabelSource;
 import org.opennms.netmgt.model.OnmsNode.NodeType;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.service.ProvisionService;
+import org.opennms.netmgt.provision.service.RequisitionAccountant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanWrapper;
@@ -49,7 +52,11 @@ import org.springframework.beans.PropertyAccessorFactory;
 public abstract class SaveOrUpdateOperation extends ImportOperation {
     private static final Logger LOG = LoggerFactory.getLogger(SaveOrUpdateOperation.class);
 
-    private final OnmsNode m_node;
+    private final Integer m_nodeId;
+    private final String m_foreignSource;
+    private final String m_foreignId;
+    private final RequisitionImport m_requisitionImport;
+    private OnmsNode m_node;
     private OnmsIpInterface m_currentInterface;
     
     private ScanManager m_scanManager;
@@ -82,15 +89,54 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
 	public SaveOrUpdateOperation(Integer nodeId, String foreignSource, String foreignId, String nodeLabel, String building, String city, ProvisionService provisionService) {
 	    super(provisionService);
 	    
-        m_node = new OnmsNode();
-        m_node.setId(nodeId);
-		m_node.setLabel(nodeLabel);
-		m_node.setLabelSource(NodeLabelSource.USER);
-		m_node.setType(NodeType.ACTIVE);
-        m_node.setForeignSource(foreignSource);
-        m_node.setForeignId(foreignId);
-        m_node.getAssetRecord().setBuilding(building);
-        m_node.getAssetRecord().setCity(city);
+        m_nodeId = nodeId;
+        m_foreignSource = foreignSource;
+        m_foreignId = foreignId;
+        m_requisitionImport = null;
+        m_node = createNode(nodeId, foreignSource, foreignId, nodeLabel, building, city);
+	}
+
+	/**
+	 * Constructor for an operation on a node of a streamed requisition.  The
+	 * node is only read from the requisition import when it is first needed
+	 * and is released again once it has been persisted.
+	 *
+	 * @param nodeId the id of the existing node, or null
+	 * @param foreignSource a {@link java.lang.String} object.
+	 * @param foreignId a {@link java.lang.String} object.
+	 * @param requisitionImport the streamed requisition the node is read from
+	 * @param provisionService a {@link org.opennms.netmgt.provision.service.ProvisionService} object.
+	 */
+	public SaveOrUpdateOperation(Integer nodeId, String foreignSource, String foreignId, RequisitionImport requisitionImport, ProvisionService provisionService) {
+	    super(provisionService);
+
+	    m_nodeId = nodeId;
+	    m_foreignSource = foreignSource;
+	    m_foreignId = foreignId;
+	    m_requisitionImport = requisitionImport;
+	}
+
+	private static OnmsNode createNode(final Integer nodeId, final String foreignSource, final String foreignId, final String nodeLabel, final String building, final String city) {
+	    final OnmsNode node = new OnmsNode();
+	    node.setId(nodeId);
+	    node.setLabel(nodeLabel);
+	    node.setLabelSource(NodeLabelSource.USER);
+	    node.setType(NodeType.ACTIVE);
+	    node.setForeignSource(foreignSource);
+	    node.setForeignId(foreignId);
+	    node.getAssetRecord().setBuilding(building);
+	    node.getAssetRecord().setCity(city);
+	    return node;
+	}
+
+	private void loadNode() {
+	    final OnmsNodeRequisition nodeReq = m_requisitionImport.getNodeRequisition(m_foreignId);
+	    if (nodeReq == null) {
+	        throw new IllegalStateException("Node " + m_foreignSource + ":" + m_foreignId + " is not in the requisition");
+	    }
+	    m_node = createNode(m_nodeId, m_foreignSource, m_foreignId, nodeReq.getNodeLabel(), nodeReq.getBuilding(), nodeReq.getCity());
+	    nodeReq.visit(new RequisitionAccountant(this));
+	    m_currentInterface = null;
 	}
 	
 	/**
@@ -148,8 +194,9 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
      * <p>updateSnmpData</p>
      */
     protected void updateSnmpData() {
+        final OnmsNode node = getNode();
         if (m_scanManager != null) {
-            m_scanManager.updateSnmpData(m_node);
+            m_scanManager.updateSnmpData(node);
         }
 	}
 
@@ -179,15 +226,69 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
         m_node.getCategories().add(category);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Ids generated for the node, its interfaces, services and asset record
+     * belong to the rolled back transaction, so they are cleared and the node
+     * id reverts to the one this operation was created with.
+     */
+    @Override
+    protected void resetPersistentState() {
+        final OnmsNode node = getNode();
+        node.setId(m_nodeId);
+        node.getAssetRecord().setId(null);
+        for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+            iface.setId(null);
+            for (final OnmsMonitoredService monSvc : iface.getMonitoredServices()) {
+                monSvc.setId(null);
+            }
+        }
+        for (final OnmsSnmpInterface snmpIface : node.getSnmpInterfaces()) {
+            snmpIface.setId(null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The node of a streamed requisition is dropped; it would be read again
+     * if it were needed.
+     */
+    @Override
+    protected synchronized void release() {
+        if (m_requisitionImport != null) {
+            m_node = null;
+            m_currentInterface = null;
+            m_scanManager = null;
+        }
+    }
+
     /**
      * <p>getNode</p>
      *
      * @return a {@link org.opennms.netmgt.model.OnmsNode} object.
      */
-    protected OnmsNode getNode() {
+    protected synchronized OnmsNode getNode() {
+        if (m_node == null) {
+            loadNode();
+        }
         return m_node;
     }
 
+    /**
+     * Describes the node for logging without reading it from a streamed
+     * requisition.
+     *
+     * @return the id and label of the node, or its foreign ID if it has not been read
+     */
+    protected synchronized String describeNode() {
+        if (m_node == null) {
+            return m_nodeId + ": " + m_foreignSource + ":" + m_foreignId;
+        }
+        return m_node.getId() + ": " + m_node.getLabel();
+    }
+
     /**
      * <p>foundAsset</p>
      *
@@ -48,6 +48,19 @@ public class UpdateOperation extends SaveOrUpdateOperation {
 		super(nodeId, foreignSource, foreignId, nodeLabel, building, city, provisionService);
 	}
 
+    /**
+     * Constructor for an update of a node of a streamed requisition.
+     *
+     * @param nodeId a {@link java.lang.Integer} object.
+     * @param foreignSource a {@link java.lang.String} object.
+     * @param foreignId a {@link java.lang.String} object.
+     * @param requisitionImport the streamed requisition the node is read from
+     * @param provisionService a {@link org.opennms.netmgt.provision.service.ProvisionService} object.
+     */
+    public UpdateOperation(Integer nodeId, String foreignSource, String foreignId, RequisitionImport requisitionImport, ProvisionService provisionService) {
+        super(nodeId, foreignSource, foreignId, requisitionImport, provisionService);
+    }
+
 	/**
 	 * <p>toString</p>
 	 *
@@ -55,7 +68,7 @@ public class UpdateOperation extends SaveOrUpdateOperation {
 	 */
 	@Override
 	public String toString() {
-       return "UPDATE: Node: "+getNode().getId()+": "+getNode().getLabel();
+       return "UPDATE: Node: "+describeNode();
     }
 
 	/** {@inheritDoc} */
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.service.ProvisionService;
+
+public class ImportOperationBatchTest {
+
+    /**
+     * Stands in for the transactional provision service: the batched persist
+     * assigns ids like a Hibernate session would and then fails, and every
+     * node handed to insertNode/updateNode is recorded with the ids it had.
+     */
+    private class FailingBatchHandler implements InvocationHandler {
+        private boolean m_inBatch = false;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("persistImportOperations".equals(name)) {
+                m_inBatch = true;
+                try {
+                    for (final ImportOperation oper : (List<ImportOperation>)args[0]) {
+                        oper.persistWithoutClearingCache();
+                    }
+                } finally {
+                    m_inBatch = false;
+                }
+                throw new IllegalStateException("batch rolled back");
+            } else if ("insertNode".equals(name) || "updateNode".equals(name)) {
+                final OnmsNode node = (OnmsNode)args[0];
+                if (m_inBatch) {
+                    m_batchCalls++;
+                    if (node.getId() == null) {
+                        node.setId(m_nextId++);
+                    }
+                    for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                        iface.setId(m_nextId++);
+                    }
+                } else {
+                    m_retriedNodeIds.add(node.getId());
+                    for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                        assertNull("interface id from the failed batch was reused", iface.getId());
+                    }
+                }
+                return null;
+            } else if ("toString".equals(name)) {
+                return "failing provision service";
+            }
+            return null;
+        }
+    }
+
+    private int m_nextId = 1000;
+    private int m_batchCalls = 0;
+    private List<Integer> m_retriedNodeIds;
+    private ProvisionService m_provisionService;
+
+    @Before
+    public void setUp() {
+        m_retriedNodeIds = new ArrayList<Integer>();
+        m_provisionService = (ProvisionService)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProvisionService.class }, new FailingBatchHandler());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedWithFreshIds() {
+        final InsertOperation insert = new InsertOperation("test", "new1", "newnode1", null, null, m_provisionService);
+        insert.foundInterface("192.168.1.1", null, null, true, 1);
+        final UpdateOperation update = new UpdateOperation(7, "test", "existing1", "node1", null, null, m_provisionService);
+        update.foundInterface("192.168.1.2", null, null, true, 1);
+
+        final ImportOperationBatch batch = new ImportOperationBatch(Arrays.<ImportOperation>asList(insert, update), m_provisionService, 1);
+        batch.persist(new NoOpProvisionMonitor());
+
+        assertEquals(2, m_batchCalls);
+        // the insert gets a new id on retry, the update keeps the id of the existing node
+        assertEquals(Arrays.asList(null, 7), m_retriedNodeIds);
+        assertNull(insert.getNode().getAssetRecord().getId());
+    }
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.persist.StreamingRequisitionReader;
+import org.springframework.core.io.FileSystemResource;
+
+public class ImportOperationsManagerTest {
+
+    @Test
+    public void testOperationBatchesAreChunkedByKind() {
+        final Map<String, Integer> foreignIdsToNodes = new HashMap<String, Integer>();
+        for (int i = 0; i < 5; i++) {
+            foreignIdsToNodes.put("existing" + i, i + 1);
+        }
+
+        final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, null, true);
+        opsMgr.setForeignSource("test");
+
+        // 3 updates, 2 deletes
+        for (int i = 0; i < 3; i++) {
+            opsMgr.foundNode("existing" + i, "node" + i, null, null);
+        }
+        // 7 inserts
+        for (int i = 0; i < 7; i++) {
+            opsMgr.foundNode("new" + i, "newnode" + i, null, null);
+        }
+
+        final List<ImportOperationBatch> batches = opsMgr.getOperationBatches(3, 1);
+
+        // deletes: [2], updates: [3], inserts: [3, 3, 1]
+        assertEquals(5, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals(3, batches.get(2).size());
+        assertEquals(3, batches.get(3).size());
+        assertEquals(1, batches.get(4).size());
+
+        for (final ImportOperation oper : batches.get(0).getOperations()) {
+            assertTrue(oper instanceof DeleteOperation);
+        }
+        for (final ImportOperation oper : batches.get(1).getOperations()) {
+            assertTrue(oper instanceof UpdateOperation);
+        }
+        for (final ImportOperationBatch batch : batches.subList(2, 5)) {
+            for (final ImportOperation oper : batch.getOperations()) {
+                assertTrue(oper instanceof InsertOperation);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamedNodesAreReadWhenNeeded() throws IOException {
+        final File requisitionFile = File.createTempFile("requisition-", ".xml");
+        final File storeFile = File.createTempFile("requisition-", ".nodes");
+        final PrintWriter out = new PrintWriter(new FileWriter(requisitionFile));
+        out.println("<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"streamed\">");
+        out.println("  <node foreign-id=\"1\" node-label=\"one\" building=\"hq\">");
+        out.println("    <interface ip-addr=\"10.0.0.1\" status=\"1\" snmp-primary=\"P\"/>");
+        out.println("    <asset name=\"description\" value=\"first\"/>");
+        out.println("  </node>");
+        out.println("  <node foreign-id=\"2\" node-label=\"two\"/>");
+        out.println("</model-import>");
+        out.close();
+
+        final RequisitionImport ri = new RequisitionImport();
+        try {
+            ri.setStreamingRequisition(new StreamingRequisitionReader(new FileSystemResource(requisitionFile)), storeFile);
+            assertTrue(ri.isStreaming());
+            assertEquals("streamed", ri.getForeignSource());
+
+            final Map<String, Integer> foreignIdsToNodes = new HashMap<String, Integer>();
+            foreignIdsToNodes.put("1", 10);
+            final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, null, true);
+            opsMgr.setForeignSource(ri.getForeignSource());
+            opsMgr.auditNodes(ri);
+
+            assertEquals(1, opsMgr.getUpdateCount());
+            assertEquals(1, opsMgr.getInsertCount());
+            assertEquals(0, opsMgr.getDeleteCount());
+
+            final List<ImportOperationBatch> batches = opsMgr.getOperationBatches(10, 1);
+            assertEquals(2, batches.size());
+            final UpdateOperation update = (UpdateOperation)batches.get(0).getOperations().get(0);
+            assertEquals("UPDATE: Node: 10: streamed:1", update.toString());
+
+            final OnmsNode node = update.getNode();
+            assertEquals(Integer.valueOf(10), node.getId());
+            assertEquals("one", node.getLabel());
+            assertEquals("hq", node.getAssetRecord().getBuilding());
+            assertEquals("first", node.getAssetRecord().getDescription());
+            assertEquals(1, node.getIpInterfaces().size());
+            assertNotNull(update.getScanManager());
+            assertEquals("UPDATE: Node: 10: one", update.toString());
+
+            update.release();
+            assertEquals("UPDATE: Node: 10: streamed:1", update.toString());
+
+            final InsertOperation insert = (InsertOperation)batches.get(1).getOperations().get(0);
+            assertEquals("two", insert.getNode().getLabel());
+            assertNull(insert.getNode().getId());
+        } finally {
+            ri.cleanUp();
+            requisitionFile.delete();
+        }
+        assertFalse(storeFile.exists());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new ImportOperationsManager(new HashMap<String, Integer>(), null, true).getOperationBatches(0, 1);
+    }
+}
@@ -96,6 +96,13 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "OpenNMS.Queued") the log category
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.journal: (default blank) a directory in which every
+ * update is journaled (see {@link RrdUpdateJournal}) before it is queued, so
+ * that updates still queued when OpenNMS stops are replayed on the next start
+ *
+ * org.opennms.rrd.queuing.journalSegmentSize: (default 16777216) the size of
+ * each journal segment file in bytes
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -158,6 +165,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private String m_journalDirectory;
+
+    private int m_journalSegmentSize = 16 * 1024 * 1024;
+
+    private RrdUpdateJournal m_journal;
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -359,6 +372,86 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
+    /**
+     * <p>getJournalDirectory</p>
+     *
+     * @return the directory updates are journaled to, or null if they are not journaled
+     */
+    public String getJournalDirectory() {
+        return m_journalDirectory;
+    }
+
+    /**
+     * <p>setJournalDirectory</p>
+     *
+     * @param journalDirectory the directory to journal updates to, blank to not journal them
+     */
+    public void setJournalDirectory(String journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
+
+    /**
+     * <p>getJournalSegmentSize</p>
+     *
+     * @return a int.
+     */
+    public int getJournalSegmentSize() {
+        return m_journalSegmentSize;
+    }
+
+    /**
+     * <p>setJournalSegmentSize</p>
+     *
+     * @param journalSegmentSize a int.
+     */
+    public void setJournalSegmentSize(int journalSegmentSize) {
+        m_journalSegmentSize = journalSegmentSize;
+    }
+
+    /**
+     * Opens the journal, if one is configured, and queues the updates left
+     * in it by the previous run in the order they were made.
+     *
+     * @throws java.io.IOException if the journal cannot be opened
+     */
+    public void initialize() throws IOException {
+        if (m_journalDirectory == null || m_journalDirectory.trim().length() == 0) {
+            return;
+        }
+        final RrdUpdateJournal journal = new RrdUpdateJournal(new File(m_journalDirectory.trim()), m_journalSegmentSize);
+        // queue the replayed updates after the journal lock is released, it is always taken after ours
+        final List<Operation> replayed = new LinkedList<Operation>();
+        journal.replay(new RrdUpdateJournal.Visitor() {
+            @Override
+            public void visitUpdate(long segment, String fileName, String update) {
+                Operation op = makeUpdateOperation(fileName, "", update);
+                op.journalSegment = segment;
+                replayed.add(op);
+            }
+        });
+        m_journal = journal;
+        for (Operation op : replayed) {
+            addOperation(op);
+        }
+    }
+
+    /**
+     * Flushes and closes the journal.  Updates that are still queued are
+     * replayed when the strategy is next initialized.
+     */
+    public void close() {
+        if (m_journal != null) {
+            m_journal.close();
+        }
+    }
+
+    private void releaseJournal(Operation op) {
+        if (m_journal != null && op.journalSegment >= 0) {
+            m_journal.release(op.journalSegment);
+            op.journalSegment = -1;
+        }
+    }
+
     LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
 
     LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
@@ -425,6 +518,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         boolean significant;
 
+        /** the journal segment holding this operation's data, or -1 */
+        long journalSegment = -1;
+
         Operation(String fileName, int type, Object data, boolean significant) {
             this.fileName = fileName;
             this.type = type;
@@ -636,6 +732,13 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ZeroUpdateOperation zeroOp = (ZeroUpdateOperation) pendingOperations.getLast();
                 try {
                     zeroOp.mergeUpdates(this);
+                    // keep the oldest segment; segments are only deleted oldest first
+                    if (journalSegment >= 0 && (zeroOp.journalSegment < 0 || journalSegment < zeroOp.journalSegment)) {
+                        final long segment = zeroOp.journalSegment;
+                        zeroOp.journalSegment = journalSegment;
+                        journalSegment = segment;
+                    }
+                    releaseJournal(this);
                 } catch (IllegalArgumentException e) {
                     m_log.debug("Unable to mergeUpdates {}", e.getMessage());
                     super.addToPendingList(pendingOperations);
@@ -696,16 +799,19 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         synchronized (this) {
             if (queueIsFull()) {
                 m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+                releaseJournal(op);
                 return;
             }
             
             if (op.isSignificant() && sigQueueIsFull()) {
                 m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+                releaseJournal(op);
                 return;
             }
             
             if (!op.isSignificant() && inSigQueueIsFull()) {
                 m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+                releaseJournal(op);
                 return;
             }
             
@@ -1049,7 +1155,15 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /** {@inheritDoc} */
     @Override
     public void updateFile(String rrdFile, String owner, String data) throws Exception {
-        addOperation(makeUpdateOperation((String) rrdFile, owner, data));
+        Operation op = makeUpdateOperation((String) rrdFile, owner, data);
+        if (m_journal != null) {
+            try {
+                op.journalSegment = m_journal.append(rrdFile, data);
+            } catch (IOException e) {
+                m_log.error("Unable to journal update for file {}, it will be lost if OpenNMS stops before it is written: {}", rrdFile, e.getMessage());
+            }
+        }
+        addOperation(op);
     }
 
     /** {@inheritDoc} */
@@ -1131,9 +1245,10 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     private void processPendingOperations() {
         Object rrd = null;
         String fileName = null;
+        LinkedList<Operation> ops = null;
 
         try {
-            LinkedList<Operation> ops = getNext();
+            ops = getNext();
             if (ops == null)
                 return;
             // update stats correctly we update them even if an exception occurs
@@ -1155,6 +1270,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
         } finally {
             processClose(rrd);
+            if (ops != null) {
+                for(Operation op : ops) {
+                    releaseJournal(op);
+                }
+            }
         }
     }
 
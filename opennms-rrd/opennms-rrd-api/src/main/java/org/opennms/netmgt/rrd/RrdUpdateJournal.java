@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A segmented, memory-mapped, append-only journal of RRD updates used by the
+ * {@link QueuingRrdStrategy} so that queued updates survive a restart.
+ *
+ * <p>Each update is appended to the current segment before it is queued, and
+ * the segment it went to is handed back so that it can be released once the
+ * update has reached the RRD file.  A segment file is deleted when it is no
+ * longer being written and it, and every older segment, has no unreleased
+ * updates left; deleting only from the oldest end keeps replay in order.</p>
+ *
+ * <p>Releases are only counted, not recorded, so replay is at-least-once: a
+ * segment that was partially released when OpenNMS stopped is replayed in
+ * full, including the updates that had already reached their RRD files.</p>
+ *
+ * <p>Each segment starts with a magic number and the offset of the end of
+ * the last complete record, which is only advanced once a record has been
+ * written in full, so a record torn by a crash is never replayed.</p>
+ */
+public class RrdUpdateJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdUpdateJournal.class);
+
+    /**
+     * Receives the updates found in existing segments when the journal is
+     * opened, oldest first.
+     */
+    public static interface Visitor {
+        void visitUpdate(long segment, String fileName, String update);
+    }
+
+    private static final int MAGIC = 0x52554a31; // "RUJ1"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final String SUFFIX = ".journal";
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    private final File m_directory;
+    private final int m_segmentSize;
+
+    /** unreleased updates per segment, oldest segment first */
+    private final TreeMap<Long, int[]> m_pending = new TreeMap<Long, int[]>();
+
+    private long m_segment = -1;
+    private RandomAccessFile m_raf;
+    private MappedByteBuffer m_buffer;
+    private int m_writePosition;
+    private long m_pendingCount = 0;
+
+    /**
+     * Opens the journal in the given directory, creating it if needed.
+     * Existing segments are left in place until {@link #replay(Visitor)} has
+     * been called.
+     *
+     * @param directory the directory holding the segment files
+     * @param segmentSize the size of each segment file in bytes
+     * @throws IOException if the directory cannot be created
+     */
+    public RrdUpdateJournal(final File directory, final int segmentSize) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("journal segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+    }
+
+    /**
+     * Hands every update left in the existing segments to the visitor, in
+     * the order they were appended, and starts a new segment for further
+     * appends.  The segments replayed stay on disk until all of their updates
+     * have been released.
+     *
+     * @param visitor the visitor, typically re-queuing the updates
+     * @return the number of updates replayed
+     * @throws IOException if a segment cannot be read or the new segment cannot be created
+     */
+    public synchronized long replay(final Visitor visitor) throws IOException {
+        long count = 0;
+        long lastSegment = -1;
+        for (final File file : listSegments()) {
+            final long segment = getSegmentId(file);
+            lastSegment = segment;
+            final int[] pending = new int[1];
+            m_pending.put(segment, pending);
+
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() < HEADER_SIZE) {
+                    continue;
+                }
+                final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (buffer.getInt(0) != MAGIC) {
+                    LOG.warn("Journal segment {} has an invalid header, skipping it", file);
+                    continue;
+                }
+                final int end = Math.min(buffer.getInt(4), buffer.capacity());
+                int pos = HEADER_SIZE;
+                while (pos + RECORD_HEADER_SIZE <= end) {
+                    final int length = buffer.getInt(pos);
+                    if (length <= 0 || pos + RECORD_HEADER_SIZE + length > end) {
+                        LOG.warn("Journal segment {} is corrupt at offset {}, skipping the rest of it", file, pos);
+                        break;
+                    }
+                    buffer.position(pos + RECORD_HEADER_SIZE);
+                    final String fileName = readString(buffer);
+                    final String update = readString(buffer);
+                    pending[0]++;
+                    m_pendingCount++;
+                    visitor.visitUpdate(segment, fileName, update);
+                    count++;
+                    pos += RECORD_HEADER_SIZE + length;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        if (count > 0) {
+            LOG.info("Replayed {} queued RRD updates from {}", count, m_directory);
+        }
+        m_segment = lastSegment;
+        roll();
+        truncate();
+        return count;
+    }
+
+    private File[] listSegments() {
+        final File[] files = m_directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX) && getSegmentId(file) >= 0;
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                final long left = getSegmentId(a);
+                final long right = getSegmentId(b);
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        return files;
+    }
+
+    private static long getSegmentId(final File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File getSegmentFile(final long segment) {
+        return new File(m_directory, String.format("%016d%s", segment, SUFFIX));
+    }
+
+    private static String readString(final MappedByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xffff;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Appends an update.
+     *
+     * @param fileName the RRD file the update is for
+     * @param update the update string
+     * @return the segment the update was written to, to be passed to {@link #release(long)}
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized long append(final String fileName, final String update) throws IOException {
+        if (m_buffer == null) {
+            throw new IllegalStateException("journal " + m_directory + " is not open");
+        }
+        final byte[] record = encode(fileName, update);
+        if (RECORD_HEADER_SIZE + record.length > m_segmentSize - HEADER_SIZE) {
+            throw new IOException("update for " + fileName + " is too large for journal segments of " + m_segmentSize + " bytes");
+        }
+        if (m_writePosition + RECORD_HEADER_SIZE + record.length > m_segmentSize) {
+            roll();
+            // the segment just closed may have been fully released while it was written
+            truncate();
+        }
+        m_buffer.position(m_writePosition);
+        m_buffer.putInt(record.length);
+        m_buffer.put(record);
+        // only publish the record once it has been written completely
+        m_writePosition = m_buffer.position();
+        m_buffer.putInt(4, m_writePosition);
+
+        m_pending.get(m_segment)[0]++;
+        m_pendingCount++;
+        return m_segment;
+    }
+
+    private static byte[] encode(final String fileName, final String update) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(fileName.length() + update.length() + 8);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, fileName);
+        writeString(out, update);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        if (bytes.length > 0xffff) {
+            throw new IOException("value is too long to journal: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Starts a new segment, flushing the current one to disk first.
+     */
+    private void roll() throws IOException {
+        closeSegment();
+        m_segment++;
+        final File file = getSegmentFile(m_segment);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(m_segmentSize);
+            m_buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_segmentSize);
+        } catch (final IOException e) {
+            raf.close();
+            throw e;
+        }
+        m_raf = raf;
+        m_buffer.putInt(0, MAGIC);
+        m_writePosition = HEADER_SIZE;
+        m_buffer.putInt(4, m_writePosition);
+        m_pending.put(m_segment, new int[1]);
+    }
+
+    private void closeSegment() {
+        if (m_buffer != null) {
+            m_buffer.force();
+            m_buffer = null;
+        }
+        if (m_raf != null) {
+            try {
+                m_raf.close();
+            } catch (final IOException e) {
+                LOG.warn("Error closing RRD journal segment {}: {}", getSegmentFile(m_segment), e.getMessage());
+            }
+            m_raf = null;
+        }
+    }
+
+    /**
+     * Releases an update once it has been written to its RRD file, or
+     * discarded.  Fully released segments are deleted.
+     *
+     * @param segment the segment returned by {@link #append(String, String)}
+     */
+    public synchronized void release(final long segment) {
+        final int[] pending = m_pending.get(segment);
+        if (pending == null || pending[0] == 0) {
+            LOG.warn("Released an update for journal segment {} that has none pending", segment);
+            return;
+        }
+        pending[0]--;
+        m_pendingCount--;
+        if (pending[0] == 0 && m_pending.firstEntry().getValue()[0] == 0) {
+            truncate();
+        }
+    }
+
+    /**
+     * Deletes fully released segments from the oldest end, never the one
+     * being written.
+     */
+    private void truncate() {
+        for (final Iterator<Map.Entry<Long, int[]>> it = m_pending.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Long, int[]> entry = it.next();
+            if (entry.getKey() == m_segment || entry.getValue()[0] > 0) {
+                return;
+            }
+            final File file = getSegmentFile(entry.getKey());
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Unable to delete RRD journal segment {}", file);
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the number of appended or replayed updates not yet released
+     */
+    public synchronized long getPendingCount() {
+        return m_pendingCount;
+    }
+
+    /**
+     * @return the number of segment files on disk
+     */
+    public synchronized int getSegmentCount() {
+        return m_pending.size();
+    }
+
+    /**
+     * Flushes the current segment to disk and closes it.  Unreleased updates
+     * are replayed the next time the journal is opened.
+     */
+    public synchronized void close() {
+        closeSegment();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RrdUpdateJournal[" + m_directory + ", pending=" + m_pendingCount + ", segments=" + m_pending.size() + "]";
+    }
+}
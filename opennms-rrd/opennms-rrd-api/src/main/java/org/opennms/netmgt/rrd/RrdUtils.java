@@ -70,7 +70,7 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
  */
 public abstract class RrdUtils {
     private static final Logger LOG = LoggerFactory.getLogger(RrdUtils.class);
-    private static PropertiesCache s_cache = new PropertiesCache();
+    private static PropertiesCache s_cache = new PropertiesCache("RrdUtils");
 
     private static RrdStrategy<?, ?> m_rrdStrategy = null;
 
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RrdUpdateJournalTest {
+
+    private File m_directory;
+
+    @Before
+    public void setUp() throws IOException {
+        m_directory = File.createTempFile("rrd-journal", "");
+        m_directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = m_directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+    @Test
+    public void testReplayInOrder() throws IOException {
+        RrdUpdateJournal journal = new RrdUpdateJournal(m_directory, 4096);
+        assertEquals(0, journal.replay(new RecordingVisitor()));
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            final String update = (1000000000L + i * 300) + ":" + i;
+            journal.append("/var/rrd/1/ifInOctets.jrb", update);
+            expected.add(update);
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        journal.close();
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        journal = new RrdUpdateJournal(m_directory, 4096);
+        assertEquals(500, journal.replay(visitor));
+        assertEquals(expected, visitor.m_updates);
+        assertEquals(500, journal.getPendingCount());
+        journal.close();
+    }
+
+    @Test
+    public void testTruncateOldestFirst() throws IOException {
+        final RrdUpdateJournal journal = new RrdUpdateJournal(m_directory, 4096);
+        journal.replay(new RecordingVisitor());
+        final List<Long> segments = new ArrayList<Long>();
+        for (int i = 0; i < 300; i++) {
+            segments.add(journal.append("/var/rrd/1/ifInOctets.jrb", (1000000000L + i * 300) + ":" + i));
+        }
+        final int segmentCount = journal.getSegmentCount();
+        assertTrue(segmentCount > 2);
+
+        // releasing everything but the first update keeps every segment
+        for (int i = 1; i < segments.size(); i++) {
+            journal.release(segments.get(i));
+        }
+        assertEquals(segmentCount, journal.getSegmentCount());
+        assertEquals(segmentCount, m_directory.listFiles().length);
+
+        // releasing it drops all but the segment being written
+        journal.release(segments.get(0));
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, m_directory.listFiles().length);
+        assertEquals(0, journal.getPendingCount());
+        journal.close();
+    }
+
+    @Test
+    public void testReleaseBeforeRoll() throws IOException {
+        RrdUpdateJournal journal = new RrdUpdateJournal(m_directory, 4096);
+        journal.replay(new RecordingVisitor());
+        int i = 0;
+        final long first = journal.append("/var/rrd/1/ifInOctets.jrb", (1000000000L + i * 300) + ":" + i);
+        journal.release(first);
+
+        // fill the segment, releasing every update before it is rolled
+        long segment = first;
+        while (segment == first) {
+            i++;
+            segment = journal.append("/var/rrd/1/ifInOctets.jrb", (1000000000L + i * 300) + ":" + i);
+            if (segment == first) {
+                journal.release(segment);
+            }
+        }
+        journal.release(segment);
+
+        // the rolled segment is gone
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, m_directory.listFiles().length);
+        journal.close();
+
+        // only the update in the segment being written is replayed again
+        journal = new RrdUpdateJournal(m_directory, 4096);
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(1, journal.replay(visitor));
+        assertEquals(Collections.singletonList((1000000000L + i * 300) + ":" + i), visitor.m_updates);
+        journal.close();
+    }
+
+    @Test
+    public void testStrategyReplaysQueuedUpdates() throws Exception {
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+        // no write threads, so the updates stay queued as if OpenNMS stopped
+        QueuingRrdStrategy strategy = createStrategy(written, 0);
+        strategy.initialize();
+        strategy.updateFile("a.jrb", "", "1000:1");
+        strategy.updateFile("b.jrb", "", "1000:2");
+        strategy.updateFile("a.jrb", "", "1300:3");
+        strategy.close();
+        assertTrue(written.isEmpty());
+
+        strategy = createStrategy(written, 1);
+        strategy.initialize();
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (written.size() < 3 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("a.jrb=1000:1", "a.jrb=1300:3", "b.jrb=1000:2"), written);
+
+        // once written, only the segment being appended to is left
+        while (m_directory.listFiles().length > 1 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, m_directory.listFiles().length);
+        strategy.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueuingRrdStrategy createStrategy(final List<String> written, int writeThreads) {
+        final RrdStrategy<Object, Object> delegate = (RrdStrategy<Object, Object>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RrdStrategy.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("openFile".equals(method.getName())) {
+                    return args[0];
+                } else if ("updateFile".equals(method.getName())) {
+                    written.add(args[0] + "=" + args[2]);
+                }
+                return null;
+            }
+        });
+        final QueuingRrdStrategy strategy = new QueuingRrdStrategy(delegate);
+        strategy.setWriteThreads(writeThreads);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(10);
+        strategy.setWriteThreadExitDelay(100);
+        strategy.setJournalDirectory(m_directory.getAbsolutePath());
+        strategy.setJournalSegmentSize(4096);
+        return strategy;
+    }
+
+    private static class RecordingVisitor implements RrdUpdateJournal.Visitor {
+        private final List<String> m_updates = new ArrayList<String>();
+
+        @Override
+        public void visitUpdate(long segment, String fileName, String update) {
+            m_updates.add(update);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import org.jrobin.data.Plottable;
+
+/**
+ * The result of a fetch from a columnar series: one value per data source
+ * for each archive step in the requested interval.
+ */
+public class ColumnarFetchData {
+    private final ColumnarSeriesDef m_def;
+    private final long m_step;
+    private final long[] m_timestamps;
+    private final double[][] m_values;
+
+    ColumnarFetchData(final ColumnarSeriesDef def, final long step, final long[] timestamps, final double[][] values) {
+        m_def = def;
+        m_step = step;
+        m_timestamps = timestamps;
+        m_values = values;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public long[] getTimestamps() {
+        return m_timestamps;
+    }
+
+    /**
+     * @return the values of the named data source, or null if the series
+     *         has no such data source
+     */
+    public double[] getValues(final String dsName) {
+        final int index = m_def.getDataSourceIndex(dsName);
+        return index < 0 ? null : m_values[index];
+    }
+
+    /**
+     * Exposes a data source to JRobin's graphing and data processing code.
+     * Like a fetched <code>DEF</code>, the value stamped <code>t</code> covers
+     * the interval <code>(t - step, t]</code>.
+     */
+    public Plottable getPlottable(final String dsName) {
+        final double[] values = getValues(dsName);
+        if (values == null) {
+            throw new IllegalArgumentException("No data source " + dsName + " in " + m_def.getPath());
+        }
+        return new Plottable() {
+            @Override
+            public double getValue(final long timestamp) {
+                if (m_timestamps.length == 0) {
+                    return Double.NaN;
+                }
+                final long slot = timestamp % m_step == 0 ? timestamp : ColumnarSeriesState.normalize(timestamp, m_step) + m_step;
+                final long index = (slot - m_timestamps[0]) / m_step;
+                return index < 0 || index >= values.length ? Double.NaN : values[(int) index];
+            }
+        };
+    }
+}
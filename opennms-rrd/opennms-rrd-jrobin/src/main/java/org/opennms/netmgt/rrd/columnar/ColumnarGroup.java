@@ -0,0 +1,529 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.rrd.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the series of one segment of a {@link ColumnarRrdStrategy} in three
+ * shared files in the segment's directory:
+ * <dl>
+ * <dt>{@value #LOG_FILE_NAME}</dt>
+ * <dd>a memory-mapped, append-only log of raw samples, one
+ * <code>[int series][int n][long timestamp][double x n]</code> record per
+ * update</dd>
+ * <dt>{@value #ARCHIVE_FILE_NAME}</dt>
+ * <dd>one fixed size region per series holding its consolidation state and
+ * round robin archives, see {@link ColumnarSeriesState}</dd>
+ * <dt>{@value #INDEX_FILE_NAME}</dt>
+ * <dd>the series names, which are the absolute paths of their definition
+ * files, and their regions, appended as series are created</dd>
+ * </dl>
+ * <p>
+ * Updates only append to the log.  Reads apply the logged samples of their
+ * series to a copy of its region in memory.  When the log fills up and when
+ * the group is closed, the log is rolled up: its records are
+ * sorted by series and each region is read once, fed its samples and written
+ * back.  Roll-ups are idempotent since samples that are not newer than a
+ * region's last update are skipped, so a crash between writing the regions
+ * and resetting the log loses nothing.
+ * </p>
+ * <p>
+ * Instances are not thread safe on their own; {@link ColumnarRrdStrategy}
+ * synchronizes on the segment.  The sample log stays mapped until
+ * {@link #close()}, which unmaps it right away rather than leaving it to the
+ * garbage collector.
+ * </p>
+ */
+public class ColumnarGroup {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarGroup.class);
+
+    public static final String LOG_FILE_NAME = "columnar.log";
+    public static final String ARCHIVE_FILE_NAME = "columnar.arc";
+    public static final String INDEX_FILE_NAME = "columnar.idx";
+
+    private static final int MAGIC = 0x434f4c31;
+    private static final int HEADER_SIZE = 8;
+
+    private static class Series {
+        private final int m_id;
+        private final String m_name;
+        private final long m_offset;
+        private final int m_length;
+        private ColumnarSeriesDef m_def;
+        private long m_lastUpdate = Long.MIN_VALUE;
+        /** The positions of the series' records in the sample log. */
+        private final List<Integer> m_pending = new ArrayList<Integer>();
+
+        Series(final int id, final String name, final long offset, final int length) {
+            m_id = id;
+            m_name = name;
+            m_offset = offset;
+            m_length = length;
+        }
+    }
+
+    private final File m_directory;
+    private final int m_logSize;
+    private final Map<String, Series> m_series = new HashMap<String, Series>();
+    private final List<Series> m_seriesById = new ArrayList<Series>();
+    private RandomAccessFile m_archiveFile;
+    private FileChannel m_archiveChannel;
+    private MappedByteBuffer m_log;
+    private DataOutputStream m_index;
+    private long m_rollUps = 0;
+
+    public ColumnarGroup(final File directory, final int logSize) throws IOException {
+        if (logSize < HEADER_SIZE + 64) {
+            throw new IllegalArgumentException("The sample log size must be at least " + (HEADER_SIZE + 64) + " bytes");
+        }
+        m_directory = directory;
+        m_logSize = logSize;
+        directory.mkdirs();
+        readIndex();
+        m_index = new DataOutputStream(new FileOutputStream(new File(directory, INDEX_FILE_NAME), true));
+        m_archiveFile = new RandomAccessFile(new File(directory, ARCHIVE_FILE_NAME), "rw");
+        m_archiveChannel = m_archiveFile.getChannel();
+        openLog();
+    }
+
+    private void readIndex() throws IOException {
+        final File file = new File(m_directory, INDEX_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        long end = 0;
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                final String name;
+                final long offset;
+                final int length;
+                try {
+                    name = in.readUTF();
+                    offset = in.readLong();
+                    length = in.readInt();
+                } catch (final EOFException e) {
+                    // the end, or an entry torn by a crash which is rewritten when its series is updated
+                    break;
+                } catch (final UTFDataFormatException e) {
+                    break;
+                }
+                // a series that was recreated appears again with a new region
+                final Series series = new Series(m_seriesById.size(), name, offset, length);
+                m_seriesById.add(series);
+                m_series.put(name, series);
+                end += 2 + getUTFLength(name) + 12;
+            }
+        } finally {
+            in.close();
+        }
+        if (file.length() > end) {
+            // entries are appended, so the torn one must go first
+            LOG.warn("Discarding a torn entry at the end of the series index of {}", m_directory);
+            final RandomAccessFile index = new RandomAccessFile(file, "rw");
+            try {
+                index.setLength(end);
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * @return the length of the string in the modified UTF-8 of {@link DataInputStream#readUTF()}
+     */
+    private static int getUTFLength(final String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                length++;
+            } else if (c > 0x07ff) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private void openLog() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(new File(m_directory, LOG_FILE_NAME), "rw");
+        try {
+            m_log = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(m_logSize, file.length()));
+        } finally {
+            // the mapping stays valid after the file is closed
+            file.close();
+        }
+        if (m_log.getInt(0) == MAGIC) {
+            final int position = m_log.getInt(4);
+            if (position < HEADER_SIZE || position > m_log.capacity()) {
+                LOG.warn("Discarding the corrupt sample log in {}", m_directory);
+                resetLog();
+            } else {
+                m_log.position(position);
+                rollUp();
+            }
+        } else {
+            resetLog();
+        }
+    }
+
+    private void resetLog() {
+        for (final Series series : m_seriesById) {
+            series.m_pending.clear();
+        }
+        m_log.putInt(0, MAGIC);
+        m_log.putInt(4, HEADER_SIZE);
+        m_log.position(HEADER_SIZE);
+    }
+
+    private boolean hasPendingSamples() {
+        return m_log.getInt(4) > HEADER_SIZE;
+    }
+
+    public File getDirectory() {
+        return m_directory;
+    }
+
+    /**
+     * @return whether a series with this file name has a region in the group
+     */
+    public boolean contains(final String name) {
+        return m_series.containsKey(name);
+    }
+
+    /**
+     * Adds a series, or gives an existing one a fresh region, and initializes
+     * it as if a new RRD file had been created.
+     */
+    public void create(final ColumnarSeriesDef def) throws IOException {
+        final Series series = allocate(def);
+        final ByteBuffer region = ByteBuffer.allocate(series.m_length);
+        new ColumnarSeriesState(def, region).initialize();
+        writeRegion(series, region);
+        series.m_lastUpdate = def.getStartTime();
+    }
+
+    private Series allocate(final ColumnarSeriesDef def) throws IOException {
+        final String name = ColumnarRrdStrategy.getSeriesName(def.getFile());
+        if (m_series.containsKey(name) && hasPendingSamples()) {
+            // samples for the old region must not end up in the new one
+            rollUp();
+        }
+        final Series series = new Series(m_seriesById.size(), name, m_archiveChannel.size(), ColumnarSeriesState.getRegionSize(def));
+        series.m_def = def;
+        m_index.writeUTF(series.m_name);
+        m_index.writeLong(series.m_offset);
+        m_index.writeInt(series.m_length);
+        m_index.flush();
+        m_seriesById.add(series);
+        m_series.put(name, series);
+        return series;
+    }
+
+    /**
+     * Appends a sample to the log.
+     *
+     * @throws RrdException if the sample is not newer than the last one
+     */
+    public void update(final ColumnarSeriesDef def, final long timestamp, final double[] values) throws IOException, RrdException {
+        final String name = ColumnarRrdStrategy.getSeriesName(def.getFile());
+        Series series = m_series.get(name);
+        if (series == null) {
+            // the definition exists but the group data was removed
+            LOG.info("Creating missing columnar series {}", def.getPath());
+            create(def);
+            series = m_series.get(name);
+        }
+        final long lastUpdate = getLastUpdate(series);
+        if (timestamp <= lastUpdate) {
+            throw new RrdException("Bad sample timestamp " + timestamp + ". Last update time was " + lastUpdate + ", at least one second step is required");
+        }
+        final int recordSize = 16 + 8 * values.length;
+        if (recordSize > m_log.capacity() - HEADER_SIZE) {
+            throw new IllegalArgumentException("A sample with " + values.length + " values does not fit the sample log of " + m_directory);
+        }
+        if (m_log.remaining() < recordSize) {
+            rollUp();
+        }
+        final int position = m_log.position();
+        m_log.putInt(series.m_id);
+        m_log.putInt(values.length);
+        m_log.putLong(timestamp);
+        for (final double value : values) {
+            m_log.putDouble(value);
+        }
+        // publish the record only once it is complete
+        m_log.putInt(4, position + recordSize);
+        series.m_pending.add(position);
+        series.m_lastUpdate = timestamp;
+    }
+
+    private long getLastUpdate(final Series series) throws IOException {
+        if (series.m_lastUpdate == Long.MIN_VALUE) {
+            series.m_lastUpdate = readRegion(series).getLong(0);
+        }
+        return series.m_lastUpdate;
+    }
+
+    /**
+     * Consolidates the logged samples into the archives of their series and
+     * empties the log.
+     */
+    public void rollUp() throws IOException {
+        final int end = m_log.getInt(4);
+        if (end <= HEADER_SIZE) {
+            resetLog();
+            return;
+        }
+        final long start = System.currentTimeMillis();
+
+        // group the records by series, keeping their order
+        final Map<Series, List<Integer>> records = new LinkedHashMap<Series, List<Integer>>();
+        int position = HEADER_SIZE;
+        int samples = 0;
+        while (position < end) {
+            final int id = m_log.getInt(position);
+            final int valueCount = m_log.getInt(position + 4);
+            if (id < 0 || id >= m_seriesById.size() || valueCount < 0 || position + 16 + 8 * valueCount > end) {
+                LOG.warn("Discarding the rest of the sample log in {}: invalid record at {}", m_directory, position);
+                break;
+            }
+            final Series series = m_seriesById.get(id);
+            List<Integer> positions = records.get(series);
+            if (positions == null) {
+                positions = new ArrayList<Integer>();
+                records.put(series, positions);
+            }
+            positions.add(position);
+            position += 16 + 8 * valueCount;
+            samples++;
+        }
+
+        for (final Map.Entry<Series, List<Integer>> entry : records.entrySet()) {
+            final Series series = entry.getKey();
+            final ColumnarSeriesDef def;
+            try {
+                def = getDef(series);
+            } catch (final IOException e) {
+                LOG.warn("Discarding {} samples of {} in {}: {}", entry.getValue().size(), series.m_name, m_directory, e.getMessage());
+                continue;
+            }
+            final ByteBuffer region = readRegion(series);
+            final ColumnarSeriesState state = new ColumnarSeriesState(def, region);
+            store(state, def, entry.getValue());
+            writeRegion(series, region);
+            series.m_lastUpdate = state.getLastUpdate();
+        }
+        m_archiveChannel.force(false);
+        resetLog();
+        m_log.force();
+        m_rollUps++;
+        LOG.debug("Rolled up {} samples of {} series in {} in {}ms", samples, records.size(), m_directory, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Feeds logged records to the state of their series.
+     */
+    private void store(final ColumnarSeriesState state, final ColumnarSeriesDef def, final List<Integer> records) {
+        final double[] values = new double[def.getDataSources().size()];
+        for (final int record : records) {
+            final int valueCount = m_log.getInt(record + 4);
+            final long timestamp = m_log.getLong(record + 8);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i < valueCount ? m_log.getDouble(record + 16 + 8 * i) : Double.NaN;
+            }
+            // false for samples that were already consolidated before a crash
+            state.store(timestamp, values);
+        }
+    }
+
+    private ColumnarSeriesDef getDef(final Series series) throws IOException {
+        if (series.m_def == null) {
+            series.m_def = ColumnarSeriesDef.load(series.m_name);
+            if (ColumnarSeriesState.getRegionSize(series.m_def) != series.m_length) {
+                throw new IOException("The definition of " + series.m_def.getPath() + " does not match its region in " + m_directory);
+            }
+        }
+        return series.m_def;
+    }
+
+    private ByteBuffer readRegion(final Series series) throws IOException {
+        final ByteBuffer region = ByteBuffer.allocate(series.m_length);
+        while (region.hasRemaining()) {
+            if (m_archiveChannel.read(region, series.m_offset + region.position()) < 0) {
+                throw new EOFException("The region of " + series.m_name + " is missing from " + m_directory);
+            }
+        }
+        region.clear();
+        return region;
+    }
+
+    private void writeRegion(final Series series, final ByteBuffer region) throws IOException {
+        region.clear();
+        while (region.hasRemaining()) {
+            m_archiveChannel.write(region, series.m_offset + region.position());
+        }
+        region.clear();
+    }
+
+    /**
+     * @param name the absolute path of the definition file
+     * @return the definition of the series
+     */
+    public ColumnarSeriesDef getDefinition(final String name) throws IOException {
+        final Series series = m_series.get(name);
+        if (series == null) {
+            return ColumnarSeriesDef.load(name);
+        }
+        return getDef(series);
+    }
+
+    private ColumnarSeriesState getState(final String name) throws IOException {
+        final Series series = m_series.get(name);
+        if (series == null) {
+            return null;
+        }
+        final ColumnarSeriesDef def = getDef(series);
+        final ColumnarSeriesState state = new ColumnarSeriesState(def, readRegion(series));
+        // the logged samples are applied to this copy only, the region is written by the next roll-up
+        store(state, def, series.m_pending);
+        return state;
+    }
+
+    /**
+     * Fetches consolidated data from a series.
+     *
+     * @return the data, or null if the series or a matching archive does not
+     *         exist
+     */
+    public ColumnarFetchData fetch(final String name, final String consolidationFunction, final long start, final long end, final long resolution) throws IOException {
+        final ColumnarSeriesState state = getState(name);
+        return state == null ? null : state.fetch(consolidationFunction, start, end, resolution);
+    }
+
+    /**
+     * Writes a series converted from an existing RRD file.
+     *
+     * @param importer fills in the state and archives of the new series
+     */
+    void importSeries(final ColumnarSeriesDef def, final Importer importer) throws IOException {
+        final Series series = allocate(def);
+        final ByteBuffer region = ByteBuffer.allocate(series.m_length);
+        final ColumnarSeriesState state = new ColumnarSeriesState(def, region);
+        state.initialize();
+        importer.fill(state);
+        writeRegion(series, region);
+        series.m_lastUpdate = state.getLastUpdate();
+        m_archiveChannel.force(false);
+    }
+
+    interface Importer {
+        void fill(ColumnarSeriesState state);
+    }
+
+    public int getSeriesCount() {
+        return m_series.size();
+    }
+
+    public long getRollUps() {
+        return m_rollUps;
+    }
+
+    /**
+     * Rolls up the sample log and releases the files.
+     */
+    public void close() throws IOException {
+        try {
+            rollUp();
+        } finally {
+            m_index.close();
+            m_archiveFile.close();
+            unmap(m_log);
+            m_log = null;
+        }
+    }
+
+    /**
+     * Releases a mapping now; left to the garbage collector, the mappings of
+     * closed groups pile up until the process runs out of map areas.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (final NoSuchMethodException e) {
+            // Java 8 and earlier, see below
+        } catch (final Exception e) {
+            LOG.debug("Unable to unmap a sample log: {}", e.getMessage());
+            return;
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final Exception e) {
+            LOG.debug("Unable to unmap a sample log: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.rrd.RrdException;
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.ArchiveDef;
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.DataSourceDef;
+import org.opennms.netmgt.rrd.model.AbstractDS;
+import org.opennms.netmgt.rrd.model.AbstractRRA;
+import org.opennms.netmgt.rrd.model.AbstractRRD;
+import org.opennms.netmgt.rrd.model.RrdConvertUtils;
+import org.opennms.netmgt.rrd.model.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts JRobin (<code>.jrb</code>) and RRDtool (<code>.rrd</code>) files
+ * into series of a {@link ColumnarRrdStrategy}, keeping their archived rows
+ * and consolidation state so that the series continue where the files left
+ * off.  The files are read with {@link RrdConvertUtils}; RRDtool files need
+ * the <code>rrd.binary</code> system property.  Holt-Winters archives are not
+ * supported and are skipped.
+ */
+public class ColumnarImporter {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarImporter.class);
+
+    private final ColumnarRrdStrategy m_strategy;
+
+    public ColumnarImporter(final ColumnarRrdStrategy strategy) {
+        m_strategy = strategy;
+    }
+
+    /**
+     * Imports every RRD file below a directory that has not been imported
+     * yet.  The source files are left in place.
+     *
+     * @return the number of files imported
+     */
+    public int importDirectory(final File directory) throws IOException, RrdException {
+        int count = 0;
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                count += importDirectory(file);
+            } else if (file.getName().endsWith(".jrb") || file.getName().endsWith(".rrd")) {
+                final File target = getTarget(file);
+                if (target.exists()) {
+                    LOG.debug("{} has already been imported", file);
+                } else {
+                    importFile(file, target);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private File getTarget(final File source) {
+        final String name = source.getName();
+        return new File(source.getParentFile(), name.substring(0, name.lastIndexOf('.')) + m_strategy.getDefaultFileExtension());
+    }
+
+    /**
+     * Imports an RRD file as the series next to it.
+     */
+    public ColumnarSeriesDef importFile(final File source) throws IOException, RrdException {
+        return importFile(source, getTarget(source));
+    }
+
+    /**
+     * Imports an RRD file as the series with the given definition file name,
+     * which must be in the same directory.
+     */
+    public ColumnarSeriesDef importFile(final File source, final File target) throws IOException, RrdException {
+        final AbstractRRD rrd;
+        try {
+            rrd = source.getName().endsWith(".rrd") ? RrdConvertUtils.dumpRrd(source) : RrdConvertUtils.dumpJrb(source);
+        } catch (final org.jrobin.core.RrdException e) {
+            throw new RrdException("Unable to read " + source, e);
+        }
+
+        final List<DataSourceDef> dataSources = new ArrayList<DataSourceDef>();
+        for (final AbstractDS ds : rrd.getDataSources()) {
+            dataSources.add(new DataSourceDef(ds.getName(), getType(ds), ds.getMinHeartbeat(), toDouble(ds.getMin()), toDouble(ds.getMax())));
+        }
+        final List<AbstractRRA> rras = new ArrayList<AbstractRRA>();
+        final List<ArchiveDef> archives = new ArrayList<ArchiveDef>();
+        for (final AbstractRRA rra : rrd.getRras()) {
+            final String cf = getConsolidationFunction(rra);
+            if (!"AVERAGE".equals(cf) && !"MIN".equals(cf) && !"MAX".equals(cf) && !"LAST".equals(cf)) {
+                LOG.warn("Skipping the {} archive of {}", cf, source);
+                continue;
+            }
+            rras.add(rra);
+            archives.add(new ArchiveDef(cf, getXff(rra), rra.getPdpPerRow().intValue(), rra.getRows().size()));
+        }
+
+        final ColumnarSeriesDef def = new ColumnarSeriesDef(target.getPath(), rrd.getStep(), rrd.getLastUpdate(), dataSources, archives);
+        m_strategy.importSeries(def, new ColumnarGroup.Importer() {
+            @Override
+            public void fill(final ColumnarSeriesState state) {
+                state.setLastUpdate(rrd.getLastUpdate());
+                for (int ds = 0; ds < dataSources.size(); ds++) {
+                    final AbstractDS source = rrd.getDataSource(ds);
+                    state.setLastValue(ds, toDouble(source.getLastDs()));
+                    state.setAccumValue(ds, source.getValue() == null ? 0.0 : source.getValue());
+                    state.setNanSeconds(ds, source.getUnknownSec() == null ? 0L : source.getUnknownSec());
+                }
+                for (int arc = 0; arc < rras.size(); arc++) {
+                    final AbstractRRA rra = rras.get(arc);
+                    final List<Row> rows = rra.getRows();
+                    for (int ds = 0; ds < dataSources.size(); ds++) {
+                        state.setArcAccumValue(arc, ds, toDouble(getCdpValue(rra, ds)));
+                        state.setArcNanSteps(arc, ds, getCdpUnknownDataPoints(rra, ds));
+                        final double[] values = new double[rows.size()];
+                        for (int row = 0; row < values.length; row++) {
+                            values[row] = toDouble(rows.get(row).getValues().get(ds));
+                        }
+                        state.setRows(arc, ds, values);
+                    }
+                }
+            }
+        });
+        LOG.info("Imported {} into {}", source, target);
+        return def;
+    }
+
+    private static double toDouble(final Double value) {
+        return value == null ? Double.NaN : value.doubleValue();
+    }
+
+    private static String getType(final AbstractDS ds) {
+        if (ds instanceof org.opennms.netmgt.rrd.model.v1.DS) {
+            return ((org.opennms.netmgt.rrd.model.v1.DS) ds).getType().value();
+        }
+        return ((org.opennms.netmgt.rrd.model.v3.DS) ds).getType().value();
+    }
+
+    private static String getConsolidationFunction(final AbstractRRA rra) {
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            return ((org.opennms.netmgt.rrd.model.v1.RRA) rra).getConsolidationFunction().value();
+        }
+        return ((org.opennms.netmgt.rrd.model.v3.RRA) rra).getConsolidationFunction().value();
+    }
+
+    private static double getXff(final AbstractRRA rra) {
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            return toDouble(((org.opennms.netmgt.rrd.model.v1.RRA) rra).getXff());
+        }
+        return toDouble(((org.opennms.netmgt.rrd.model.v3.RRA) rra).getParameters().getXff());
+    }
+
+    private static Double getCdpValue(final AbstractRRA rra, final int ds) {
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            return ((org.opennms.netmgt.rrd.model.v1.RRA) rra).getDataSources().get(ds).getValue();
+        }
+        return ((org.opennms.netmgt.rrd.model.v3.RRA) rra).getDataSources().get(ds).getValue();
+    }
+
+    private static long getCdpUnknownDataPoints(final AbstractRRA rra, final int ds) {
+        final Long unknown;
+        if (rra instanceof org.opennms.netmgt.rrd.model.v1.RRA) {
+            unknown = ((org.opennms.netmgt.rrd.model.v1.RRA) rra).getDataSources().get(ds).getUnknownDataPoints();
+        } else {
+            unknown = ((org.opennms.netmgt.rrd.model.v3.RRA) rra).getDataSources().get(ds).getUnknownDataPoints();
+        }
+        return unknown == null ? 0L : unknown;
+    }
+}
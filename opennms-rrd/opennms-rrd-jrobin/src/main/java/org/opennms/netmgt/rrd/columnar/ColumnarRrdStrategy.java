@@ -0,0 +1,544 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.data.Plottable;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdException;
+import org.opennms.netmgt.rrd.RrdGraphDetails;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An RrdStrategy that keeps its series in a fixed number of segments instead
+ * of one JRobin file per series.  Each segment is a {@link ColumnarGroup} in
+ * its own directory of the store, and holds the series of every resource
+ * directory that hashes to it, so all series of a resource stay together.
+ * Updates are appended to the segment's memory-mapped sample log and
+ * consolidated into the round robin archives in bulk, so a collection cycle
+ * writing dozens of series of a resource touches one mapped page instead of
+ * dozens of files.  Consolidation and fetches follow JRobin exactly, and
+ * graphs are rendered by JRobin with the DEFs served from the segments.
+ *
+ * <p>Segments are opened on first use and stay open until the strategy is
+ * closed, so there is no churn however many resources are collected.  Each
+ * segment is locked on its own; nothing serializes updates to different
+ * segments.</p>
+ *
+ * <p>The strategy is configured with these properties:</p>
+ * <dl>
+ * <dt>{@value #DIRECTORY_PROPERTY}</dt>
+ * <dd>the directory holding the segments, <code>${rrd.base.dir}/columnar</code>
+ * by default</dd>
+ * <dt>{@value #SEGMENTS_PROPERTY}</dt>
+ * <dd>the number of segments; it is recorded in the directory when the store
+ * is created, and later changes are ignored since series cannot move</dd>
+ * <dt>{@value #LOG_SIZE_PROPERTY}</dt>
+ * <dd>the size of the sample log of each segment, in bytes</dd>
+ * </dl>
+ * <p>
+ * Each series still has a small definition file with the RRD file name, so
+ * resources and graphs are found the usual way.  Existing <code>.jrb</code>
+ * and <code>.rrd</code> files can be converted with the
+ * {@link ColumnarImporter}; DEFs naming files that were not converted are
+ * still read by JRobin.
+ * </p>
+ */
+public class ColumnarRrdStrategy implements RrdStrategy<ColumnarSeriesDef, ColumnarSeriesDef> {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarRrdStrategy.class);
+
+    public static final String DIRECTORY_PROPERTY = "org.opennms.rrd.columnar.directory";
+    public static final String SEGMENTS_PROPERTY = "org.opennms.rrd.columnar.segments";
+    public static final String LOG_SIZE_PROPERTY = "org.opennms.rrd.columnar.logSize";
+
+    private static final String STORE_FILE_NAME = "columnar.properties";
+    private static final int DEFAULT_SEGMENTS = 64;
+    private static final int DEFAULT_LOG_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * A segment of the store, opened on first use.  Callers synchronize on
+     * the segment while they work with its group.
+     */
+    private static class Segment {
+        private final File m_directory;
+        private ColumnarGroup m_group;
+
+        Segment(final File directory) {
+            m_directory = directory;
+        }
+
+        ColumnarGroup getGroup(final int logSize) throws RrdException {
+            if (m_group == null) {
+                try {
+                    m_group = new ColumnarGroup(m_directory, logSize);
+                } catch (final IOException e) {
+                    throw new RrdException("Unable to open the columnar segment in " + m_directory, e);
+                }
+            }
+            return m_group;
+        }
+
+        boolean isOpen() {
+            return m_group != null;
+        }
+
+        void close() {
+            if (m_group == null) {
+                return;
+            }
+            try {
+                m_group.close();
+            } catch (final IOException e) {
+                LOG.error("Failed to close the columnar segment in {}", m_directory, e);
+            } finally {
+                m_group = null;
+            }
+        }
+    }
+
+    /**
+     * Renders graphs with JRobin, reading the DEFs of columnar series from
+     * their groups.
+     */
+    private class GraphStrategy extends JRobinRrdStrategy {
+        public GraphStrategy() throws Exception {
+            super();
+        }
+
+        @Override
+        protected Plottable getDefPlottable(final String path, final String dsName, final String consolidationFunction, final long start, final long end) throws org.jrobin.core.RrdException {
+            final File file = new File(path);
+            if (!path.endsWith(ColumnarRrdStrategy.this.getDefaultFileExtension()) || !file.exists()) {
+                return null;
+            }
+            final ColumnarFetchData data;
+            try {
+                data = fetch(file, consolidationFunction, start, end, false);
+            } catch (final RrdException e) {
+                throw new org.jrobin.core.RrdException(e.getMessage());
+            }
+            return data == null ? null : data.getPlottable(dsName);
+        }
+    }
+
+    private final JRobinRrdStrategy m_graphStrategy;
+    private final AtomicLong m_updates = new AtomicLong();
+    private final AtomicLong m_fetches = new AtomicLong();
+    private Properties m_configurationProperties;
+    private int m_logSize = DEFAULT_LOG_SIZE;
+    private volatile Segment[] m_segments;
+
+    /**
+     * <p>Constructor for ColumnarRrdStrategy.</p>
+     *
+     * @throws java.lang.Exception if any.
+     */
+    public ColumnarRrdStrategy() throws Exception {
+        m_graphStrategy = new GraphStrategy();
+    }
+
+    /**
+     * <p>getConfigurationProperties</p>
+     *
+     * @return a {@link java.util.Properties} object.
+     */
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+        m_graphStrategy.setConfigurationProperties(configurationParameters);
+        m_logSize = Integer.parseInt(configurationParameters.getProperty(LOG_SIZE_PROPERTY, Integer.toString(DEFAULT_LOG_SIZE)));
+    }
+
+    /**
+     * <p>getDefaultFileExtension</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getDefaultFileExtension() {
+        return ".cts";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ColumnarSeriesDef createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        new File(directory).mkdirs();
+
+        final String fileName = directory + File.separator + rrdName + RrdUtils.getExtension();
+        if (new File(fileName).exists()) {
+            LOG.debug("createDefinition: filename [{}] already exists returning null as definition", fileName);
+            return null;
+        }
+        return ColumnarSeriesDef.create(fileName, step, dataSources, rraList);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the definition file and initializes the series in its group.
+     */
+    @Override
+    public void createFile(final ColumnarSeriesDef def, final Map<String, String> attributeMappings) throws Exception {
+        if (def == null) {
+            LOG.debug("createRRD: skipping RRD file");
+            return;
+        }
+        LOG.info("createRRD: creating columnar series {}", def.getPath());
+
+        final Segment segment = getSegment(def.getFile());
+        synchronized (segment) {
+            segment.getGroup(m_logSize).create(def);
+            def.store();
+        }
+
+        final String filenameWithoutExtension = def.getPath().replace(RrdUtils.getExtension(), "");
+        final int lastIndexOfSeparator = filenameWithoutExtension.lastIndexOf(File.separator);
+
+        RrdUtils.createMetaDataFile(
+            filenameWithoutExtension.substring(0, lastIndexOfSeparator),
+            filenameWithoutExtension.substring(lastIndexOfSeparator),
+            attributeMappings
+        );
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ColumnarSeriesDef openFile(final String fileName) throws Exception {
+        final File file = new File(fileName);
+        final Segment segment = getSegment(file);
+        synchronized (segment) {
+            return segment.getGroup(m_logSize).getDefinition(getSeriesName(file));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Appends the sample to the sample log of the group; the data is
+     * consolidated when the log is rolled up.
+     */
+    @Override
+    public void updateFile(final ColumnarSeriesDef def, final String owner, final String data) throws Exception {
+        final String[] tokens = data.split(":");
+        final long timestamp = "N".equals(tokens[0]) ? (System.currentTimeMillis() + 500L) / 1000L : Long.parseLong(tokens[0]);
+        final int dsCount = def.getDataSources().size();
+        if (tokens.length - 1 > dsCount) {
+            throw new IllegalArgumentException("Invalid number of values specified (found " + (tokens.length - 1) + ", only " + dsCount + " allowed): " + data);
+        }
+        final double[] values = new double[dsCount];
+        for (int i = 0; i < dsCount; i++) {
+            values[i] = (i + 1 >= tokens.length || "U".equals(tokens[i + 1])) ? Double.NaN : Double.parseDouble(tokens[i + 1]);
+        }
+
+        final Segment segment = getSegment(def.getFile());
+        synchronized (segment) {
+            segment.getGroup(m_logSize).update(def, timestamp, values);
+        }
+        m_updates.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Does nothing; segments stay open until the strategy is closed.
+     */
+    @Override
+    public void closeFile(final ColumnarSeriesDef def) throws Exception {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final int interval) throws NumberFormatException, RrdException {
+        return fetchLastValue(fileName, ds, "AVERAGE", interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, RrdException {
+        final long now = System.currentTimeMillis();
+        final long collectTime = (now - (now % interval)) / 1000L;
+        final double[] vals = getValues(fetch(new File(fileName), consolidationFunction, collectTime, collectTime, true), fileName, ds);
+        if (vals.length > 0) {
+            return new Double(vals[vals.length - 1]);
+        }
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, RrdException {
+        final long now = System.currentTimeMillis();
+        final long latestUpdateTime = (now - (now % interval)) / 1000L;
+        final long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
+        LOG.debug("fetchInRange: fetching data from {} to {}", earliestUpdateTime, latestUpdateTime);
+
+        final ColumnarFetchData data = fetch(new File(fileName), "AVERAGE", earliestUpdateTime, latestUpdateTime, true);
+        final double[] vals = getValues(data, fileName, ds);
+        final long[] times = data.getTimestamps();
+
+        // step backwards through the array of values until we get something that's a number
+        for (int i = vals.length - 1; i >= 0; i--) {
+            if (Double.isNaN(vals[i])) {
+                LOG.debug("fetchInRange: Got a NaN value at interval: {} continuing back in time", times[i]);
+            } else {
+                LOG.debug("Got a non NaN value at interval: {} : {}", times[i], vals[i]);
+                return new Double(vals[i]);
+            }
+        }
+        return null;
+    }
+
+    private static double[] getValues(final ColumnarFetchData data, final String fileName, final String ds) throws RrdException {
+        final double[] vals = data.getValues(ds);
+        if (vals == null) {
+            throw new RrdException("Datasource [" + ds + "] not found in " + fileName);
+        }
+        return vals;
+    }
+
+    /**
+     * Fetches data the way a JRobin fetch request would.
+     *
+     * @param required whether a missing series is an error rather than null
+     */
+    ColumnarFetchData fetch(final File file, final String consolidationFunction, final long start, final long end, final boolean required) throws RrdException {
+        final ColumnarFetchData data;
+        final String name = getSeriesName(file);
+        final Segment segment = getSegment(file);
+        try {
+            synchronized (segment) {
+                final ColumnarGroup group = segment.getGroup(m_logSize);
+                if (!group.contains(name)) {
+                    if (required) {
+                        throw new RrdException("No columnar series " + file);
+                    }
+                    return null;
+                }
+                data = group.fetch(name, consolidationFunction, start, end, 1);
+            }
+        } catch (final IOException e) {
+            throw new RrdException("Exception occurred fetching data from " + file, e);
+        } catch (final IllegalArgumentException e) {
+            throw new RrdException("Exception occurred fetching data from " + file, e);
+        }
+        if (data == null) {
+            throw new RrdException("RRD file does not contain RRA:" + consolidationFunction + " archive: " + file);
+        }
+        m_fetches.incrementAndGet();
+        return data;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, RrdException {
+        return m_graphStrategy.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, RrdException {
+        return m_graphStrategy.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_graphStrategy.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_graphStrategy.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_graphStrategy.getGraphTopOffsetWithText();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        int open = 0;
+        final Segment[] segments = m_segments;
+        if (segments != null) {
+            for (final Segment segment : segments) {
+                synchronized (segment) {
+                    open += segment.isOpen() ? 1 : 0;
+                }
+            }
+        }
+        return "open segments: " + open + ", updates: " + m_updates.get() + ", fetches: " + m_fetches.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        // no need to do anything since this strategy doesn't queue
+    }
+
+    /**
+     * Writes a series converted by the {@link ColumnarImporter}.
+     */
+    void importSeries(final ColumnarSeriesDef def, final ColumnarGroup.Importer importer) throws IOException, RrdException {
+        final Segment segment = getSegment(def.getFile());
+        synchronized (segment) {
+            segment.getGroup(m_logSize).importSeries(def, importer);
+            def.store();
+        }
+    }
+
+    /**
+     * @return the name of a series in its segment: the absolute path of its
+     * definition file
+     */
+    static String getSeriesName(final File file) {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * @return the segment holding the series of the resource directory of a
+     * definition file
+     */
+    private Segment getSegment(final File file) throws RrdException {
+        final Segment[] segments = getSegments();
+        final String directory = file.getAbsoluteFile().getParent();
+        return segments[(directory.hashCode() & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private Segment[] getSegments() throws RrdException {
+        Segment[] segments = m_segments;
+        if (segments == null) {
+            synchronized (this) {
+                segments = m_segments;
+                if (segments == null) {
+                    final File directory = getStoreDirectory();
+                    final int count = getSegmentCount(directory);
+                    segments = new Segment[count];
+                    for (int i = 0; i < count; i++) {
+                        segments[i] = new Segment(new File(directory, String.format("segment-%03d", i)));
+                    }
+                    m_segments = segments;
+                }
+            }
+        }
+        return segments;
+    }
+
+    private File getStoreDirectory() throws RrdException {
+        String directory = m_configurationProperties == null ? null : m_configurationProperties.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || directory.trim().isEmpty()) {
+            final String rrdBaseDir = System.getProperty("rrd.base.dir");
+            if (rrdBaseDir == null) {
+                throw new RrdException("Neither " + DIRECTORY_PROPERTY + " nor rrd.base.dir is set, the columnar store has no directory");
+            }
+            directory = rrdBaseDir + File.separator + "columnar";
+        }
+        return new File(directory.trim());
+    }
+
+    /**
+     * Reads the number of segments of the store, recording the configured
+     * number when the store is new.
+     */
+    private int getSegmentCount(final File directory) throws RrdException {
+        final int configured = m_configurationProperties == null ? DEFAULT_SEGMENTS : Integer.parseInt(m_configurationProperties.getProperty(SEGMENTS_PROPERTY, Integer.toString(DEFAULT_SEGMENTS)));
+        final File file = new File(directory, STORE_FILE_NAME);
+        final Properties store = new Properties();
+        try {
+            if (file.exists()) {
+                final InputStream in = new FileInputStream(file);
+                try {
+                    store.load(in);
+                } finally {
+                    in.close();
+                }
+                final int count = Integer.parseInt(store.getProperty("segments"));
+                if (count != configured) {
+                    LOG.warn("The columnar store in {} has {} segments, ignoring the configured {}", directory, count, configured);
+                }
+                return count;
+            }
+            if (configured < 1) {
+                throw new RrdException("The columnar store needs at least one segment");
+            }
+            directory.mkdirs();
+            store.setProperty("segments", Integer.toString(configured));
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                store.store(out, "ColumnarRrdStrategy store");
+            } finally {
+                out.close();
+            }
+            return configured;
+        } catch (final IOException e) {
+            throw new RrdException("Unable to read the columnar store in " + directory, e);
+        } catch (final NumberFormatException e) {
+            throw new RrdException("Invalid segment count in " + file, e);
+        }
+    }
+
+    /**
+     * Rolls up and closes all open segments.
+     */
+    public void close() {
+        final Segment[] segments = m_segments;
+        if (segments == null) {
+            return;
+        }
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.opennms.netmgt.rrd.RrdDataSource;
+
+/**
+ * The definition of a series kept by the {@link ColumnarRrdStrategy}: the
+ * step, data sources and archives that a <code>.jrb</code> file would hold in
+ * its header.  It is stored as a small properties file at the path the RRD
+ * file would have had, so that resources are still found by listing the
+ * directory, while the samples themselves live in the
+ * {@link ColumnarGroup} of that directory.
+ */
+public class ColumnarSeriesDef {
+
+    /**
+     * A data source; the type is one of GAUGE, COUNTER, DERIVE or ABSOLUTE.
+     */
+    public static class DataSourceDef {
+        private final String m_name;
+        private final String m_type;
+        private final long m_heartbeat;
+        private final double m_min;
+        private final double m_max;
+
+        public DataSourceDef(String name, String type, long heartbeat, double min, double max) {
+            if (!"GAUGE".equals(type) && !"COUNTER".equals(type) && !"DERIVE".equals(type) && !"ABSOLUTE".equals(type)) {
+                throw new IllegalArgumentException("Unsupported data source type " + type + " for " + name);
+            }
+            m_name = name;
+            m_type = type;
+            m_heartbeat = heartbeat;
+            m_min = min;
+            m_max = max;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public String getType() {
+            return m_type;
+        }
+
+        public long getHeartbeat() {
+            return m_heartbeat;
+        }
+
+        public double getMin() {
+            return m_min;
+        }
+
+        public double getMax() {
+            return m_max;
+        }
+    }
+
+    /**
+     * A round robin archive; the consolidation function is one of AVERAGE,
+     * MIN, MAX or LAST.
+     */
+    public static class ArchiveDef {
+        private final String m_consolidationFunction;
+        private final double m_xff;
+        private final int m_steps;
+        private final int m_rows;
+
+        public ArchiveDef(String consolidationFunction, double xff, int steps, int rows) {
+            if (!"AVERAGE".equals(consolidationFunction) && !"MIN".equals(consolidationFunction) && !"MAX".equals(consolidationFunction) && !"LAST".equals(consolidationFunction)) {
+                throw new IllegalArgumentException("Unsupported consolidation function " + consolidationFunction);
+            }
+            if (steps < 1 || rows < 1) {
+                throw new IllegalArgumentException("An archive needs at least one step and one row");
+            }
+            m_consolidationFunction = consolidationFunction;
+            m_xff = xff;
+            m_steps = steps;
+            m_rows = rows;
+        }
+
+        /**
+         * Parses an archive in the <code>RRA:CF:xff:steps:rows</code> form used
+         * in datacollection-config.xml.
+         */
+        public static ArchiveDef parse(String rra) {
+            final String[] fields = rra.split(":");
+            if (fields.length != 5 || !"RRA".equals(fields[0])) {
+                throw new IllegalArgumentException("Invalid archive definition: " + rra);
+            }
+            return new ArchiveDef(fields[1], Double.parseDouble(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+        }
+
+        public String getConsolidationFunction() {
+            return m_consolidationFunction;
+        }
+
+        public double getXff() {
+            return m_xff;
+        }
+
+        public int getSteps() {
+            return m_steps;
+        }
+
+        public int getRows() {
+            return m_rows;
+        }
+
+        @Override
+        public String toString() {
+            return "RRA:" + m_consolidationFunction + ":" + m_xff + ":" + m_steps + ":" + m_rows;
+        }
+    }
+
+    private final String m_path;
+    private final long m_step;
+    private final long m_startTime;
+    private final List<DataSourceDef> m_dataSources;
+    private final List<ArchiveDef> m_archives;
+
+    public ColumnarSeriesDef(String path, long step, long startTime, List<DataSourceDef> dataSources, List<ArchiveDef> archives) {
+        if (dataSources.isEmpty() || archives.isEmpty()) {
+            throw new IllegalArgumentException("A series needs at least one data source and one archive: " + path);
+        }
+        m_path = path;
+        m_step = step;
+        m_startTime = startTime;
+        m_dataSources = Collections.unmodifiableList(new ArrayList<DataSourceDef>(dataSources));
+        m_archives = Collections.unmodifiableList(new ArrayList<ArchiveDef>(archives));
+    }
+
+    /**
+     * Builds a definition from the arguments of
+     * {@link org.opennms.netmgt.rrd.RrdStrategy#createDefinition}.
+     */
+    public static ColumnarSeriesDef create(String path, int step, List<RrdDataSource> dataSources, List<String> rraList) {
+        final List<DataSourceDef> sources = new ArrayList<DataSourceDef>(dataSources.size());
+        for (final RrdDataSource dataSource : dataSources) {
+            sources.add(new DataSourceDef(dataSource.getName(), dataSource.getType(), dataSource.getHeartBeat(), parseLimit(dataSource.getMin()), parseLimit(dataSource.getMax())));
+        }
+        final List<ArchiveDef> archives = new ArrayList<ArchiveDef>(rraList.size());
+        for (final String rra : rraList) {
+            archives.add(ArchiveDef.parse(rra));
+        }
+        // the same start time JRobinRrdStrategy uses
+        return new ColumnarSeriesDef(path, step, 1000, sources, archives);
+    }
+
+    private static double parseLimit(String limit) {
+        return (limit == null || "U".equals(limit) ? Double.NaN : Double.parseDouble(limit));
+    }
+
+    public String getPath() {
+        return m_path;
+    }
+
+    public File getFile() {
+        return new File(m_path);
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public long getStartTime() {
+        return m_startTime;
+    }
+
+    public List<DataSourceDef> getDataSources() {
+        return m_dataSources;
+    }
+
+    public List<ArchiveDef> getArchives() {
+        return m_archives;
+    }
+
+    /**
+     * @return the index of the named data source, or -1
+     */
+    public int getDataSourceIndex(String name) {
+        for (int i = 0; i < m_dataSources.size(); i++) {
+            if (m_dataSources.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the definition to its path.
+     */
+    public void store() throws IOException {
+        final Properties props = new Properties();
+        props.setProperty("step", Long.toString(m_step));
+        props.setProperty("start", Long.toString(m_startTime));
+        props.setProperty("ds.count", Integer.toString(m_dataSources.size()));
+        for (int i = 0; i < m_dataSources.size(); i++) {
+            final DataSourceDef ds = m_dataSources.get(i);
+            props.setProperty("ds." + i + ".name", ds.getName());
+            props.setProperty("ds." + i + ".type", ds.getType());
+            props.setProperty("ds." + i + ".heartbeat", Long.toString(ds.getHeartbeat()));
+            props.setProperty("ds." + i + ".min", Double.toString(ds.getMin()));
+            props.setProperty("ds." + i + ".max", Double.toString(ds.getMax()));
+        }
+        props.setProperty("rra.count", Integer.toString(m_archives.size()));
+        for (int i = 0; i < m_archives.size(); i++) {
+            props.setProperty("rra." + i, m_archives.get(i).toString());
+        }
+        final OutputStream out = new FileOutputStream(m_path);
+        try {
+            props.store(out, "Columnar RRD series definition, data is stored in " + ColumnarGroup.ARCHIVE_FILE_NAME);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a definition written by {@link #store()}.
+     */
+    public static ColumnarSeriesDef load(String path) throws IOException {
+        final Properties props = new Properties();
+        final InputStream in = new FileInputStream(path);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            final int dsCount = Integer.parseInt(props.getProperty("ds.count"));
+            final List<DataSourceDef> sources = new ArrayList<DataSourceDef>(dsCount);
+            for (int i = 0; i < dsCount; i++) {
+                sources.add(new DataSourceDef(props.getProperty("ds." + i + ".name"), props.getProperty("ds." + i + ".type"), Long.parseLong(props.getProperty("ds." + i + ".heartbeat")),
+                                              Double.parseDouble(props.getProperty("ds." + i + ".min")), Double.parseDouble(props.getProperty("ds." + i + ".max"))));
+            }
+            final int rraCount = Integer.parseInt(props.getProperty("rra.count"));
+            final List<ArchiveDef> archives = new ArrayList<ArchiveDef>(rraCount);
+            for (int i = 0; i < rraCount; i++) {
+                archives.add(ArchiveDef.parse(props.getProperty("rra." + i)));
+            }
+            return new ColumnarSeriesDef(path, Long.parseLong(props.getProperty("step")), Long.parseLong(props.getProperty("start")), sources, archives);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid columnar series definition " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarSeriesDef[" + m_path + ", step=" + m_step + ", ds=" + m_dataSources.size() + ", rra=" + m_archives + "]";
+    }
+}
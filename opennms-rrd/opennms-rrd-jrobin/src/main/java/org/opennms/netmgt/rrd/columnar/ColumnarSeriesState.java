@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.ArchiveDef;
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.DataSourceDef;
+
+/**
+ * The consolidation state and round robin archives of one series, laid out
+ * in a fixed size region of the group's archive file.  The arithmetic
+ * follows JRobin's <code>Datasource</code>, <code>Archive</code> and
+ * <code>Robin</code> classes step for step so that a series answers fetches
+ * with exactly the values a <code>.jrb</code> file fed the same samples
+ * would.
+ *
+ * <p>Region layout, every slot 8 bytes:</p>
+ * <pre>
+ * lastUpdate
+ * per data source:           lastValue, accumValue, nanSeconds
+ * per archive, per source:   accumValue, nanSteps, pointer, rows x value
+ * </pre>
+ */
+class ColumnarSeriesState {
+    private static final double MAX_32_BIT = Math.pow(2, 32);
+    private static final double MAX_64_BIT = Math.pow(2, 64);
+
+    private final ColumnarSeriesDef m_def;
+    private final ByteBuffer m_region;
+    private final int[] m_archiveOffsets;
+
+    ColumnarSeriesState(final ColumnarSeriesDef def, final ByteBuffer region) {
+        m_def = def;
+        m_region = region;
+        final int dsCount = def.getDataSources().size();
+        final List<ArchiveDef> archives = def.getArchives();
+        m_archiveOffsets = new int[archives.size()];
+        int offset = 8 + dsCount * 24;
+        for (int i = 0; i < archives.size(); i++) {
+            m_archiveOffsets[i] = offset;
+            offset += dsCount * robinSize(archives.get(i));
+        }
+    }
+
+    /**
+     * @return the number of bytes the region of a series needs
+     */
+    static int getRegionSize(final ColumnarSeriesDef def) {
+        final int dsCount = def.getDataSources().size();
+        int size = 8 + dsCount * 24;
+        for (final ArchiveDef archive : def.getArchives()) {
+            size += dsCount * robinSize(archive);
+        }
+        return size;
+    }
+
+    private static int robinSize(final ArchiveDef archive) {
+        return 24 + archive.getRows() * 8;
+    }
+
+    static long normalize(final long timestamp, final long step) {
+        return timestamp - timestamp % step;
+    }
+
+    /**
+     * Resets the region to the state of a freshly created file.
+     */
+    void initialize() {
+        final long lastUpdate = m_def.getStartTime();
+        final long step = m_def.getStep();
+        setLastUpdate(lastUpdate);
+        for (int ds = 0; ds < m_def.getDataSources().size(); ds++) {
+            setLastValue(ds, Double.NaN);
+            setAccumValue(ds, 0.0);
+            setNanSeconds(ds, lastUpdate % step);
+        }
+        for (int arc = 0; arc < m_archiveOffsets.length; arc++) {
+            final ArchiveDef archive = m_def.getArchives().get(arc);
+            final long arcStep = step * archive.getSteps();
+            for (int ds = 0; ds < m_def.getDataSources().size(); ds++) {
+                setArcAccumValue(arc, ds, Double.NaN);
+                setArcNanSteps(arc, ds, (normalize(lastUpdate, step) - normalize(lastUpdate, arcStep)) / step);
+                setPointer(arc, ds, 0);
+                for (int row = 0; row < archive.getRows(); row++) {
+                    m_region.putDouble(robinOffset(arc, ds) + 24 + row * 8, Double.NaN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a sample.
+     *
+     * @return false if the sample is not newer than the last update and was
+     *         ignored
+     */
+    boolean store(final long timestamp, final double[] values) {
+        final long lastUpdate = getLastUpdate();
+        if (timestamp <= lastUpdate) {
+            return false;
+        }
+        for (int ds = 0; ds < m_def.getDataSources().size(); ds++) {
+            process(ds, lastUpdate, timestamp, ds < values.length ? values[ds] : Double.NaN);
+        }
+        setLastUpdate(timestamp);
+        return true;
+    }
+
+    private void process(final int ds, final long oldTime, final long newTime, final double newValue) {
+        final long step = m_def.getStep();
+        final long startTime = normalize(oldTime, step);
+        final long endTime = startTime + step;
+        final double updateValue = calculateUpdateValue(ds, oldTime, newTime, newValue);
+        if (newTime < endTime) {
+            accumulate(ds, oldTime, newTime, updateValue);
+        } else {
+            final long boundaryTime = normalize(newTime, step);
+            accumulate(ds, oldTime, boundaryTime, updateValue);
+            final double value = calculateTotal(ds, startTime, boundaryTime);
+            final long numSteps = (boundaryTime - endTime) / step + 1L;
+            for (int arc = 0; arc < m_archiveOffsets.length; arc++) {
+                archive(arc, ds, oldTime, value, numSteps);
+            }
+            setNanSeconds(ds, 0);
+            setAccumValue(ds, 0.0);
+            accumulate(ds, boundaryTime, newTime, updateValue);
+        }
+    }
+
+    private double calculateUpdateValue(final int ds, final long oldTime, final long newTime, final double newValue) {
+        final DataSourceDef def = m_def.getDataSources().get(ds);
+        final double oldValue = getLastValue(ds);
+        double updateValue = Double.NaN;
+        if (newTime - oldTime <= def.getHeartbeat()) {
+            final String type = def.getType();
+            if ("GAUGE".equals(type)) {
+                updateValue = newValue;
+            } else if ("ABSOLUTE".equals(type)) {
+                if (!Double.isNaN(newValue)) {
+                    updateValue = newValue / (newTime - oldTime);
+                }
+            } else if ("DERIVE".equals(type)) {
+                if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
+                    updateValue = (newValue - oldValue) / (newTime - oldTime);
+                }
+            } else if ("COUNTER".equals(type)) {
+                if (!Double.isNaN(newValue) && !Double.isNaN(oldValue)) {
+                    double diff = newValue - oldValue;
+                    if (diff < 0) {
+                        diff += MAX_32_BIT;
+                    }
+                    if (diff < 0) {
+                        diff += MAX_64_BIT - MAX_32_BIT;
+                    }
+                    if (diff >= 0) {
+                        updateValue = diff / (newTime - oldTime);
+                    }
+                }
+            }
+            if (!Double.isNaN(updateValue)) {
+                if (!Double.isNaN(def.getMin()) && updateValue < def.getMin()) {
+                    updateValue = Double.NaN;
+                }
+                if (!Double.isNaN(def.getMax()) && updateValue > def.getMax()) {
+                    updateValue = Double.NaN;
+                }
+            }
+        }
+        setLastValue(ds, newValue);
+        return updateValue;
+    }
+
+    private void accumulate(final int ds, final long oldTime, final long newTime, final double updateValue) {
+        if (Double.isNaN(updateValue)) {
+            setNanSeconds(ds, getNanSeconds(ds) + (newTime - oldTime));
+        } else {
+            setAccumValue(ds, getAccumValue(ds) + updateValue * (newTime - oldTime));
+        }
+    }
+
+    private double calculateTotal(final int ds, final long startTime, final long boundaryTime) {
+        final long nanSeconds = getNanSeconds(ds);
+        final long validSeconds = boundaryTime - startTime - nanSeconds;
+        if (nanSeconds <= m_def.getDataSources().get(ds).getHeartbeat() && validSeconds > 0) {
+            return getAccumValue(ds) / validSeconds;
+        }
+        return Double.NaN;
+    }
+
+    private void archive(final int arc, final int ds, final long lastUpdate, final double value, long numUpdates) {
+        final ArchiveDef archive = m_def.getArchives().get(arc);
+        final long step = m_def.getStep();
+        final long arcStep = step * archive.getSteps();
+        long updateTime = normalize(lastUpdate, step) + step;
+        // finish the current archive step
+        while (numUpdates > 0) {
+            accumulate(arc, ds, value);
+            numUpdates--;
+            if (updateTime % arcStep == 0) {
+                finalizeStep(arc, ds);
+                break;
+            } else {
+                updateTime += step;
+            }
+        }
+        // whole archive steps
+        final int bulkUpdateCount = (int) Math.min(numUpdates / archive.getSteps(), (long) archive.getRows());
+        for (int i = 0; i < bulkUpdateCount; i++) {
+            storeRow(arc, ds, value);
+        }
+        // the start of the next one
+        final long remainingUpdates = numUpdates % archive.getSteps();
+        for (long i = 0; i < remainingUpdates; i++) {
+            accumulate(arc, ds, value);
+        }
+    }
+
+    private void accumulate(final int arc, final int ds, final double value) {
+        if (Double.isNaN(value)) {
+            setArcNanSteps(arc, ds, getArcNanSteps(arc, ds) + 1);
+            return;
+        }
+        final double accumValue = getArcAccumValue(arc, ds);
+        final String cf = m_def.getArchives().get(arc).getConsolidationFunction();
+        if ("MIN".equals(cf)) {
+            setArcAccumValue(arc, ds, Double.isNaN(accumValue) ? value : Math.min(accumValue, value));
+        } else if ("MAX".equals(cf)) {
+            setArcAccumValue(arc, ds, Double.isNaN(accumValue) ? value : Math.max(accumValue, value));
+        } else if ("LAST".equals(cf)) {
+            setArcAccumValue(arc, ds, value);
+        } else {
+            setArcAccumValue(arc, ds, Double.isNaN(accumValue) ? value : accumValue + value);
+        }
+    }
+
+    private void finalizeStep(final int arc, final int ds) {
+        final ArchiveDef archive = m_def.getArchives().get(arc);
+        final long nanSteps = getArcNanSteps(arc, ds);
+        double accumValue = getArcAccumValue(arc, ds);
+        if (nanSteps <= archive.getXff() * archive.getSteps() && !Double.isNaN(accumValue)) {
+            if ("AVERAGE".equals(archive.getConsolidationFunction())) {
+                accumValue /= (archive.getSteps() - nanSteps);
+            }
+            storeRow(arc, ds, accumValue);
+        } else {
+            storeRow(arc, ds, Double.NaN);
+        }
+        setArcAccumValue(arc, ds, Double.NaN);
+        setArcNanSteps(arc, ds, 0);
+    }
+
+    private void storeRow(final int arc, final int ds, final double value) {
+        final int rows = m_def.getArchives().get(arc).getRows();
+        final int pointer = getPointer(arc, ds);
+        m_region.putDouble(robinOffset(arc, ds) + 24 + pointer * 8, value);
+        setPointer(arc, ds, (pointer + 1) % rows);
+    }
+
+    /**
+     * @param index the row, 0 being the oldest
+     */
+    double getRow(final int arc, final int ds, final int index) {
+        final int rows = m_def.getArchives().get(arc).getRows();
+        return m_region.getDouble(robinOffset(arc, ds) + 24 + ((getPointer(arc, ds) + index) % rows) * 8);
+    }
+
+    /**
+     * Replaces the rows of an archive, oldest first; used by the importer.
+     */
+    void setRows(final int arc, final int ds, final double[] values) {
+        setPointer(arc, ds, 0);
+        for (int row = 0; row < values.length; row++) {
+            m_region.putDouble(robinOffset(arc, ds) + 24 + row * 8, values[row]);
+        }
+    }
+
+    long getArchiveStep(final int arc) {
+        return m_def.getStep() * m_def.getArchives().get(arc).getSteps();
+    }
+
+    long getArchiveEndTime(final int arc) {
+        return normalize(getLastUpdate(), getArchiveStep(arc));
+    }
+
+    long getArchiveStartTime(final int arc) {
+        return getArchiveEndTime(arc) - (m_def.getArchives().get(arc).getRows() - 1) * getArchiveStep(arc);
+    }
+
+    /**
+     * Picks the archive JRobin would pick for a fetch request: the closest
+     * resolution among the archives covering the whole interval, otherwise
+     * the one covering most of it.
+     */
+    int findMatchingArchive(final String consolidationFunction, final long fetchStart, final long fetchEnd, final long resolution) {
+        int bestFullMatch = -1;
+        int bestPartialMatch = -1;
+        long bestStepDiff = 0;
+        long bestMatch = 0;
+        for (int arc = 0; arc < m_archiveOffsets.length; arc++) {
+            if (!m_def.getArchives().get(arc).getConsolidationFunction().equals(consolidationFunction)) {
+                continue;
+            }
+            final long arcStep = getArchiveStep(arc);
+            final long arcStart = getArchiveStartTime(arc) - arcStep;
+            final long arcEnd = getArchiveEndTime(arc);
+            if (arcEnd >= fetchEnd && arcStart <= fetchStart) {
+                final long stepDiff = Math.abs(arcStep - resolution);
+                if (bestFullMatch < 0 || stepDiff < bestStepDiff) {
+                    bestStepDiff = stepDiff;
+                    bestFullMatch = arc;
+                }
+            } else {
+                long match = fetchEnd - fetchStart;
+                if (arcStart > fetchStart) {
+                    match -= (arcStart - fetchStart);
+                }
+                if (arcEnd < fetchEnd) {
+                    match -= (fetchEnd - arcEnd);
+                }
+                if (bestPartialMatch < 0 || bestMatch < match) {
+                    bestPartialMatch = arc;
+                    bestMatch = match;
+                }
+            }
+        }
+        return bestFullMatch >= 0 ? bestFullMatch : bestPartialMatch;
+    }
+
+    /**
+     * Fetches consolidated values the way a JRobin <code>FetchRequest</code>
+     * does.
+     *
+     * @return the data, or null if there is no archive with the given
+     *         consolidation function
+     */
+    ColumnarFetchData fetch(final String consolidationFunction, final long start, final long end, final long resolution) {
+        if (start > end) {
+            throw new IllegalArgumentException("Invalid fetch interval: " + start + " > " + end);
+        }
+        final int arc = findMatchingArchive(consolidationFunction, start, end, resolution);
+        if (arc < 0) {
+            return null;
+        }
+        final long arcStep = getArchiveStep(arc);
+        final long fetchStart = normalize(start, arcStep);
+        long fetchEnd = normalize(end, arcStep);
+        if (fetchEnd < end) {
+            fetchEnd += arcStep;
+        }
+        final long startTime = getArchiveStartTime(arc);
+        final long endTime = getArchiveEndTime(arc);
+        final int dsCount = m_def.getDataSources().size();
+        final int ptsCount = (int) ((fetchEnd - fetchStart) / arcStep + 1);
+        final long[] timestamps = new long[ptsCount];
+        final double[][] values = new double[dsCount][ptsCount];
+        final long matchStartTime = Math.max(fetchStart, startTime);
+        final long matchEndTime = Math.min(fetchEnd, endTime);
+        for (int pt = 0; pt < ptsCount; pt++) {
+            final long time = fetchStart + pt * arcStep;
+            timestamps[pt] = time;
+            for (int ds = 0; ds < dsCount; ds++) {
+                if (time >= matchStartTime && time <= matchEndTime) {
+                    values[ds][pt] = getRow(arc, ds, (int) ((time - startTime) / arcStep));
+                } else {
+                    values[ds][pt] = Double.NaN;
+                }
+            }
+        }
+        return new ColumnarFetchData(m_def, arcStep, timestamps, values);
+    }
+
+    long getLastUpdate() {
+        return m_region.getLong(0);
+    }
+
+    void setLastUpdate(final long lastUpdate) {
+        m_region.putLong(0, lastUpdate);
+    }
+
+    double getLastValue(final int ds) {
+        return m_region.getDouble(8 + ds * 24);
+    }
+
+    void setLastValue(final int ds, final double value) {
+        m_region.putDouble(8 + ds * 24, value);
+    }
+
+    double getAccumValue(final int ds) {
+        return m_region.getDouble(16 + ds * 24);
+    }
+
+    void setAccumValue(final int ds, final double value) {
+        m_region.putDouble(16 + ds * 24, value);
+    }
+
+    long getNanSeconds(final int ds) {
+        return m_region.getLong(24 + ds * 24);
+    }
+
+    void setNanSeconds(final int ds, final long nanSeconds) {
+        m_region.putLong(24 + ds * 24, nanSeconds);
+    }
+
+    private int robinOffset(final int arc, final int ds) {
+        return m_archiveOffsets[arc] + ds * robinSize(m_def.getArchives().get(arc));
+    }
+
+    double getArcAccumValue(final int arc, final int ds) {
+        return m_region.getDouble(robinOffset(arc, ds));
+    }
+
+    void setArcAccumValue(final int arc, final int ds, final double value) {
+        m_region.putDouble(robinOffset(arc, ds), value);
+    }
+
+    long getArcNanSteps(final int arc, final int ds) {
+        return m_region.getLong(robinOffset(arc, ds) + 8);
+    }
+
+    void setArcNanSteps(final int arc, final int ds, final long nanSteps) {
+        m_region.putLong(robinOffset(arc, ds) + 8, nanSteps);
+    }
+
+    private int getPointer(final int arc, final int ds) {
+        return (int) m_region.getLong(robinOffset(arc, ds) + 16);
+    }
+
+    private void setPointer(final int arc, final int ds, final int pointer) {
+        m_region.putLong(robinOffset(arc, ds) + 16, pointer);
+    }
+}
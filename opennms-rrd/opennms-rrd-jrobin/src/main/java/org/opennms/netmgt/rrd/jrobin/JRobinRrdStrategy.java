@@ -602,7 +602,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
                 final String absolutePath = (File.separatorChar == '\\')? dsFile.getAbsolutePath().replace("\\", "\\\\") : dsFile.getAbsolutePath();
                 // LOG.debug("absolutePath = {}", absolutePath);
-                graphDef.datasource(ds[0], absolutePath, def[1], def[2]);
+                final Plottable plottable = getDefPlottable(absolutePath, def[1], def[2], start, end);
+                if (plottable == null) {
+                    graphDef.datasource(ds[0], absolutePath, def[1], def[2]);
+                } else {
+                    graphDef.datasource(ds[0], plottable);
+                }
 
                 List<String> defBits = new ArrayList<String>();
                 defBits.add(absolutePath);
@@ -1045,6 +1050,23 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     	}
     }
 
+    /**
+     * Gives subclasses storing data outside of JRobin files a chance to serve
+     * a DEF themselves.
+     *
+     * @param path the absolute path of the RRD file named in the DEF
+     * @param dsName the data source
+     * @param consolidationFunction the consolidation function
+     * @param start the start of the graph, in seconds
+     * @param end the end of the graph, in seconds
+     * @return a {@link Plottable} with the data, or null to have JRobin read
+     *         the file
+     * @throws org.jrobin.core.RrdException if the data cannot be read
+     */
+    protected Plottable getDefPlottable(final String path, final String dsName, final String consolidationFunction, final long start, final long end) throws RrdException {
+        return null;
+    }
+
     protected void addVdefDs(RrdGraphDef graphDef, String sourceName, String[] rhs, double start, double end, Map<String,List<String>> defs) throws RrdException {
         if (rhs.length == 2) {
             graphDef.datasource(sourceName, rhs[0], rhs[1]);
@@ -1056,7 +1078,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 final String dsName = entry.getKey();
                 final List<String> thisDef = entry.getValue();
                 if (thisDef.size() == 3) {
-                    dataProcessor.addDatasource(dsName, thisDef.get(0), thisDef.get(1), thisDef.get(2));
+                    final Plottable plottable = getDefPlottable(thisDef.get(0), thisDef.get(1), thisDef.get(2), (long)start, (long)end);
+                    if (plottable == null) {
+                        dataProcessor.addDatasource(dsName, thisDef.get(0), thisDef.get(1), thisDef.get(2));
+                    } else {
+                        dataProcessor.addDatasource(dsName, plottable);
+                    }
                 } else if (thisDef.size() == 1) {
                     dataProcessor.addDatasource(dsName, thisDef.get(0));
                 }
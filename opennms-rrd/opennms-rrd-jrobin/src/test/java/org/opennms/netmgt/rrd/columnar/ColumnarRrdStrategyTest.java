@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.columnar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.RrdGraphDetails;
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.ArchiveDef;
+import org.opennms.netmgt.rrd.columnar.ColumnarSeriesDef.DataSourceDef;
+import org.opennms.test.FileAnticipator;
+
+/**
+ * Feeds the same samples to JRobin files and columnar series and checks that
+ * both answer with the same data.
+ */
+public class ColumnarRrdStrategyTest {
+    private static final long STEP = 300;
+    private static final long START = 1000000000L - 1000000000L % STEP;
+
+    private FileAnticipator m_fileAnticipator;
+    private File m_directory;
+    private ColumnarRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        MockLogAppender.setupLogging(true, "INFO");
+        m_fileAnticipator = new FileAnticipator();
+        m_directory = m_fileAnticipator.tempDir("columnar");
+        m_strategy = createStrategy(64, 4 * 1024 * 1024);
+    }
+
+    private ColumnarRrdStrategy createStrategy(final int segments, final int logSize) throws Exception {
+        final ColumnarRrdStrategy strategy = new ColumnarRrdStrategy();
+        final Properties properties = new Properties();
+        properties.setProperty("org.jrobin.core.RrdBackendFactory", "FILE");
+        properties.setProperty(ColumnarRrdStrategy.DIRECTORY_PROPERTY, new File(m_directory, "store").getPath());
+        properties.setProperty(ColumnarRrdStrategy.SEGMENTS_PROPERTY, Integer.toString(segments));
+        properties.setProperty(ColumnarRrdStrategy.LOG_SIZE_PROPERTY, Integer.toString(logSize));
+        strategy.setConfigurationProperties(properties);
+        return strategy;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_strategy.close();
+        m_fileAnticipator.tearDown();
+    }
+
+    private static ColumnarSeriesDef createDef(final File file, final long start) {
+        return new ColumnarSeriesDef(file.getPath(), STEP, start,
+                                     Arrays.asList(new DataSourceDef("gauge", "GAUGE", 600, Double.NaN, 1000.0),
+                                                   new DataSourceDef("counter", "COUNTER", 600, 0.0, Double.NaN)),
+                                     Arrays.asList(ArchiveDef.parse("RRA:AVERAGE:0.5:1:50"),
+                                                   ArchiveDef.parse("RRA:AVERAGE:0.5:12:20"),
+                                                   ArchiveDef.parse("RRA:MIN:0.5:12:20"),
+                                                   ArchiveDef.parse("RRA:MAX:0.5:12:20"),
+                                                   ArchiveDef.parse("RRA:LAST:0.5:3:20")));
+    }
+
+    private static RrdDb createJrb(final File file, final ColumnarSeriesDef def) throws Exception {
+        final RrdDef rrdDef = new RrdDef(file.getPath());
+        rrdDef.setStartTime(def.getStartTime());
+        rrdDef.setStep(def.getStep());
+        for (final DataSourceDef ds : def.getDataSources()) {
+            rrdDef.addDatasource(ds.getName(), ds.getType(), ds.getHeartbeat(), ds.getMin(), ds.getMax());
+        }
+        for (final ArchiveDef archive : def.getArchives()) {
+            rrdDef.addArchive(archive.toString());
+        }
+        return new RrdDb(rrdDef);
+    }
+
+    /**
+     * Irregular samples with gaps longer than the heartbeat, unknown values,
+     * out of range gauges and counter wraps.
+     */
+    private static List<double[]> createSamples(final long start, final int count, final long seed) {
+        final Random random = new Random(seed);
+        final List<double[]> samples = new ArrayList<double[]>();
+        long time = start;
+        double counter = 4294967000.0;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(10) == 0 ? 700 + random.nextInt(900) : 1 + random.nextInt(2 * (int) STEP);
+            counter = (counter + random.nextInt(100000)) % 4294967296.0;
+            final double gauge = random.nextInt(20) == 0 ? Double.NaN : random.nextDouble() * 1100;
+            samples.add(new double[] { time, gauge, random.nextInt(30) == 0 ? Double.NaN : counter });
+        }
+        return samples;
+    }
+
+    private static void update(final RrdDb jrb, final double[] sample) throws Exception {
+        final Sample jrbSample = jrb.createSample((long) sample[0]);
+        jrbSample.setValues(new double[] { sample[1], sample[2] });
+        jrbSample.update();
+    }
+
+    private interface Fetcher {
+        ColumnarFetchData fetch(String consolidationFunction, long start, long end) throws Exception;
+    }
+
+    private static void assertSameData(final RrdDb jrb, final ColumnarGroup group, final String name, final long start, final long end) throws Exception {
+        assertSameData(jrb, new Fetcher() {
+            @Override
+            public ColumnarFetchData fetch(final String consolidationFunction, final long from, final long to) throws Exception {
+                return group.fetch(name, consolidationFunction, from, to, 1);
+            }
+        }, start, end);
+    }
+
+    private static void assertSameData(final RrdDb jrb, final Fetcher fetcher, final long start, final long end) throws Exception {
+        for (final String cf : new String[] { "AVERAGE", "MIN", "MAX", "LAST" }) {
+            for (long from = start; from < end; from += (end - start) / 7) {
+                final FetchData expected = jrb.createFetchRequest(cf, from, end).fetchData();
+                final ColumnarFetchData actual = fetcher.fetch(cf, from, end);
+                assertNotNull(actual);
+                assertTrue(Arrays.equals(expected.getTimestamps(), actual.getTimestamps()));
+                for (final String ds : new String[] { "gauge", "counter" }) {
+                    final double[] expectedValues = expected.getValues(ds);
+                    final double[] actualValues = actual.getValues(ds);
+                    for (int i = 0; i < expectedValues.length; i++) {
+                        assertEquals(cf + " " + ds + " at " + expected.getTimestamps()[i], expectedValues[i], actualValues[i], 0.0000001);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConsolidationMatchesJRobin() throws Exception {
+        final File file = new File(m_directory, "series.cts");
+        final ColumnarSeriesDef def = createDef(file, START);
+        def.store();
+        final RrdDb jrb = createJrb(new File(m_directory, "series.jrb"), def);
+
+        // a tiny log so that it is rolled up many times along the way
+        final File segment = new File(m_directory, "segment");
+        ColumnarGroup group = new ColumnarGroup(segment, 512);
+        group.create(def);
+        final List<double[]> samples = createSamples(START, 2000, 42);
+        for (int i = 0; i < samples.size(); i++) {
+            final double[] sample = samples.get(i);
+            update(jrb, sample);
+            group.update(def, (long) sample[0], new double[] { sample[1], sample[2] });
+            if (i == 1000) {
+                // leave samples in the log and pick them up again
+                group = new ColumnarGroup(segment, 512);
+            }
+        }
+        assertTrue(group.getRollUps() > 0);
+
+        final long end = (long) samples.get(samples.size() - 1)[0];
+        assertSameData(jrb, group, file.getAbsolutePath(), end - 20 * 12 * STEP, end);
+        jrb.close();
+        group.close();
+    }
+
+    @Test
+    public void testReadsDoNotRollUp() throws Exception {
+        final File file = new File(m_directory, "pending.cts");
+        final ColumnarSeriesDef def = createDef(file, START);
+        def.store();
+        final RrdDb jrb = createJrb(new File(m_directory, "pending.jrb"), def);
+
+        final File segment = new File(m_directory, "segment");
+        final ColumnarGroup group = new ColumnarGroup(segment, 1024 * 1024);
+        group.create(def);
+        final List<double[]> samples = createSamples(START, 500, 3);
+        for (final double[] sample : samples.subList(0, 250)) {
+            update(jrb, sample);
+            group.update(def, (long) sample[0], new double[] { sample[1], sample[2] });
+        }
+        group.rollUp();
+        // some samples in the region and the rest in the log
+        for (final double[] sample : samples.subList(250, samples.size())) {
+            update(jrb, sample);
+            group.update(def, (long) sample[0], new double[] { sample[1], sample[2] });
+        }
+
+        final long end = (long) samples.get(samples.size() - 1)[0];
+        assertSameData(jrb, group, file.getAbsolutePath(), end - 20 * 12 * STEP, end);
+        assertEquals(1, group.getRollUps());
+
+        group.close();
+        final ColumnarGroup reopened = new ColumnarGroup(segment, 1024 * 1024);
+        assertSameData(jrb, reopened, file.getAbsolutePath(), end - 20 * 12 * STEP, end);
+        jrb.close();
+        reopened.close();
+    }
+
+    @Test
+    public void testTornIndexEntry() throws Exception {
+        final File segment = new File(m_directory, "segment");
+        final ColumnarSeriesDef first = createDef(new File(m_directory, "first.cts"), START);
+        first.store();
+        ColumnarGroup group = new ColumnarGroup(segment, 4096);
+        group.create(first);
+        group.close();
+
+        // a crash in the middle of adding an entry
+        final DataOutputStream index = new DataOutputStream(new FileOutputStream(new File(segment, ColumnarGroup.INDEX_FILE_NAME), true));
+        index.writeUTF(new File(m_directory, "torn.cts").getAbsolutePath());
+        index.writeInt(0);
+        index.close();
+
+        final ColumnarSeriesDef second = createDef(new File(m_directory, "second.cts"), START);
+        second.store();
+        group = new ColumnarGroup(segment, 4096);
+        assertEquals(1, group.getSeriesCount());
+        group.create(second);
+        group.update(second, START + STEP, new double[] { 1.0, 1.0 });
+        group.close();
+
+        group = new ColumnarGroup(segment, 4096);
+        assertEquals(2, group.getSeriesCount());
+        assertTrue(group.contains(new File(m_directory, "first.cts").getAbsolutePath()));
+        assertTrue(group.contains(new File(m_directory, "second.cts").getAbsolutePath()));
+        group.update(second, START + 2 * STEP, new double[] { 2.0, 2.0 });
+        group.close();
+    }
+
+    @Test
+    public void testStrategy() throws Exception {
+        final long now = System.currentTimeMillis() / 1000;
+        final long last = now - now % STEP;
+        final String path = new File(m_directory, "strategy.cts").getPath();
+        createDef(new File(path), last - 10 * STEP).store();
+
+        final ColumnarSeriesDef def = m_strategy.openFile(path);
+        for (long time = last - 9 * STEP; time <= last; time += STEP) {
+            m_strategy.updateFile(def, "test", time + ":" + (time - last + 10 * STEP) / STEP + ":U");
+        }
+        m_strategy.closeFile(def);
+        m_strategy.close();
+
+        assertEquals(Double.valueOf(10.0), m_strategy.fetchLastValueInRange(path, "gauge", 1000 * (int) STEP, 3600 * 1000));
+        assertEquals(null, m_strategy.fetchLastValueInRange(path, "counter", 1000 * (int) STEP, 3600 * 1000));
+    }
+
+    @Test
+    public void testGraph() throws Exception {
+        final File file = new File(m_directory, "graph.cts");
+        final ColumnarSeriesDef def = createDef(file, START);
+        def.store();
+        final RrdDb jrb = createJrb(new File(m_directory, "graph.jrb"), def);
+        final List<double[]> samples = createSamples(START, 300, 7);
+        final ColumnarSeriesDef opened = m_strategy.openFile(file.getPath());
+        for (final double[] sample : samples) {
+            update(jrb, sample);
+            m_strategy.updateFile(opened, "test", (long) sample[0] + ":" + sample[1] + ":" + sample[2]);
+        }
+        jrb.close();
+
+        final long end = (long) samples.get(samples.size() - 1)[0];
+        final String command = "--start=" + (end - 40 * STEP) + " --end=" + end + " DEF:a=%s:gauge:AVERAGE VDEF:avg=a,AVERAGE VDEF:max=a,MAX VDEF:pct=a,95,PERCENT"
+                + " PRINT:avg:AVERAGE:%%le PRINT:max:AVERAGE:%%le PRINT:pct:AVERAGE:%%le";
+        final RrdGraphDetails expected = m_strategy.createGraphReturnDetails(String.format(command, "graph.jrb"), m_directory);
+        final RrdGraphDetails actual = m_strategy.createGraphReturnDetails(String.format(command, "graph.cts"), m_directory);
+        assertEquals(3, expected.getPrintLines().length);
+        assertEquals(Arrays.asList(expected.getPrintLines()), Arrays.asList(actual.getPrintLines()));
+    }
+
+    @Test
+    public void testImport() throws Exception {
+        final File jrbFile = new File(m_directory, "import.jrb");
+        final ColumnarSeriesDef def = createDef(new File(m_directory, "import.cts"), START);
+        final RrdDb jrb = createJrb(jrbFile, def);
+        final List<double[]> samples = createSamples(START, 1500, 1);
+        for (final double[] sample : samples.subList(0, 1000)) {
+            update(jrb, sample);
+        }
+        jrb.close();
+
+        assertEquals(1, new ColumnarImporter(m_strategy).importDirectory(m_directory));
+        assertEquals(0, new ColumnarImporter(m_strategy).importDirectory(m_directory));
+        m_strategy.close();
+
+        // both continue where the file left off
+        final RrdDb reopened = new RrdDb(jrbFile.getPath());
+        final File target = new File(m_directory, "import.cts");
+        final ColumnarSeriesDef imported = m_strategy.openFile(target.getPath());
+        for (final double[] sample : samples.subList(1000, samples.size())) {
+            update(reopened, sample);
+            m_strategy.updateFile(imported, "test", (long) sample[0] + ":" + sample[1] + ":" + sample[2]);
+        }
+        final long end = (long) samples.get(samples.size() - 1)[0];
+        assertSameData(reopened, new Fetcher() {
+            @Override
+            public ColumnarFetchData fetch(final String consolidationFunction, final long from, final long to) throws Exception {
+                return m_strategy.fetch(target, consolidationFunction, from, to, true);
+            }
+        }, end - 20 * 12 * STEP, end);
+        reopened.close();
+    }
+
+    @Test
+    public void testMoreDirectoriesThanSegments() throws Exception {
+        final long now = System.currentTimeMillis() / 1000;
+        final long last = now - now % STEP;
+        final int directories = 100;
+        m_strategy.close();
+        m_strategy = createStrategy(4, 4096);
+
+        final List<ColumnarSeriesDef> defs = new ArrayList<ColumnarSeriesDef>();
+        for (int i = 0; i < directories; i++) {
+            final File directory = new File(m_directory, "node" + i);
+            directory.mkdirs();
+            for (final String name : new String[] { "a.cts", "b.cts" }) {
+                final String path = new File(directory, name).getPath();
+                createDef(new File(path), last - 10 * STEP).store();
+                defs.add(m_strategy.openFile(path));
+            }
+        }
+        // collection cycles touch every directory in turn
+        for (long time = last - 9 * STEP; time <= last; time += STEP) {
+            for (int i = 0; i < defs.size(); i++) {
+                m_strategy.updateFile(defs.get(i), "test", time + ":" + (i + (time - last + 10 * STEP) / STEP) + ":U");
+            }
+        }
+        assertTrue(m_strategy.getStats().startsWith("open segments: 4,"));
+        assertEquals(5, new File(m_directory, "store").list().length);
+
+        // the segment count of the store wins over the configuration
+        m_strategy.close();
+        m_strategy = createStrategy(16, 4096);
+        for (int i = 0; i < defs.size(); i++) {
+            assertEquals(Double.valueOf(i + 10.0), m_strategy.fetchLastValueInRange(defs.get(i).getPath(), "gauge", 1000 * (int) STEP, 3600 * 1000));
+        }
+        assertEquals(5, new File(m_directory, "store").list().length);
+    }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-size, memory-mapped, append-only journal of encoded
+ * {@link PerformanceDataProtos.PerformanceDataReadings} batches that could not
+ * be sent.  Batches are read back in the order they were written; once every
+ * batch has been removed the journal rewinds to the start of the file.
+ * Because the read and write positions are kept in the file header, batches
+ * spilled before a restart are replayed once the peer is reachable again.
+ *
+ * <p>The journal never grows: {@link #append(int, byte[])} returns false once
+ * the file is full. It is not thread-safe and is only used by the
+ * {@link QueuingTcpRrdStrategy} consumer thread.</p>
+ */
+public class PerformanceDataJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(PerformanceDataJournal.class);
+
+    private static final int MAGIC = 0x50444a31; // "PDJ1"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File m_file;
+    private final RandomAccessFile m_raf;
+    private final MappedByteBuffer m_buffer;
+    private final int m_capacity;
+    private int m_readPosition;
+    private int m_writePosition;
+    private int m_readingCount;
+
+    /**
+     * Opens the journal, creating the file if it does not exist.  Batches
+     * left in an existing journal of the same size are kept.
+     *
+     * @param file the journal file
+     * @param size the size of the journal file in bytes
+     * @throws IOException if the file cannot be mapped
+     */
+    public PerformanceDataJournal(final File file, final int size) throws IOException {
+        if (size <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("journal size must be larger than " + (HEADER_SIZE + RECORD_HEADER_SIZE) + " bytes");
+        }
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+
+        m_file = file;
+        m_capacity = size;
+        final boolean existing = file.exists() && file.length() == size;
+        m_raf = new RandomAccessFile(file, "rw");
+        try {
+            m_raf.setLength(size);
+            m_buffer = m_raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (final IOException e) {
+            m_raf.close();
+            throw e;
+        }
+
+        if (existing && m_buffer.getInt(0) == MAGIC && recover()) {
+            LOG.info("Replaying {} spilled performance data readings from {}", m_readingCount, m_file);
+        } else {
+            m_buffer.putInt(0, MAGIC);
+            rewind();
+        }
+    }
+
+    private boolean recover() {
+        final int read = m_buffer.getInt(4);
+        final int write = m_buffer.getInt(8);
+        if (read < HEADER_SIZE || write < read || write > m_capacity) {
+            LOG.warn("Journal {} has an invalid header, discarding its contents", m_file);
+            return false;
+        }
+        m_readPosition = read;
+        m_writePosition = write;
+        m_readingCount = 0;
+        int pos = read;
+        while (pos < write) {
+            final int count = m_buffer.getInt(pos);
+            final int length = m_buffer.getInt(pos + 4);
+            if (count < 0 || length < 0 || pos + RECORD_HEADER_SIZE + length > write) {
+                LOG.warn("Journal {} is corrupt at offset {}, discarding its contents", m_file, pos);
+                return false;
+            }
+            m_readingCount += count;
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        return true;
+    }
+
+    private void rewind() {
+        m_readPosition = HEADER_SIZE;
+        m_writePosition = HEADER_SIZE;
+        m_readingCount = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        m_buffer.putInt(4, m_readPosition);
+        m_buffer.putInt(8, m_writePosition);
+    }
+
+    /**
+     * Appends an encoded batch.
+     *
+     * @param readingCount the number of readings in the batch
+     * @param data the encoded batch
+     * @return false if there is not enough room left in the journal
+     */
+    public boolean append(final int readingCount, final byte[] data) {
+        if (m_writePosition + RECORD_HEADER_SIZE + data.length > m_capacity) {
+            return false;
+        }
+        m_buffer.position(m_writePosition);
+        m_buffer.putInt(readingCount);
+        m_buffer.putInt(data.length);
+        m_buffer.put(data);
+        // only publish the record once it has been written completely
+        m_writePosition = m_buffer.position();
+        m_readingCount += readingCount;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * @return true if no batches are waiting in the journal
+     */
+    public boolean isEmpty() {
+        return m_readPosition == m_writePosition;
+    }
+
+    /**
+     * @return the number of readings in the oldest batch, or 0 if the journal is empty
+     */
+    public int peekReadingCount() {
+        return isEmpty() ? 0 : m_buffer.getInt(m_readPosition);
+    }
+
+    /**
+     * @return the oldest encoded batch, or null if the journal is empty
+     */
+    public byte[] peek() {
+        if (isEmpty()) {
+            return null;
+        }
+        final int length = m_buffer.getInt(m_readPosition + 4);
+        final byte[] data = new byte[length];
+        m_buffer.position(m_readPosition + RECORD_HEADER_SIZE);
+        m_buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Removes the oldest batch, typically after it has been sent.
+     */
+    public void remove() {
+        if (isEmpty()) {
+            return;
+        }
+        m_readingCount -= m_buffer.getInt(m_readPosition);
+        m_readPosition += RECORD_HEADER_SIZE + m_buffer.getInt(m_readPosition + 4);
+        if (m_readPosition == m_writePosition) {
+            rewind();
+        } else {
+            writeHeader();
+        }
+    }
+
+    /**
+     * @return the number of readings waiting in the journal
+     */
+    public int getReadingCount() {
+        return m_readingCount;
+    }
+
+    /**
+     * @return the number of bytes used by waiting batches
+     */
+    public int getUsedBytes() {
+        return m_writePosition - m_readPosition;
+    }
+
+    /**
+     * Flushes the mapped file to disk and closes it.
+     */
+    public void close() {
+        try {
+            m_buffer.force();
+        } finally {
+            try {
+                m_raf.close();
+            } catch (final IOException e) {
+                LOG.warn("Error closing performance data journal {}: {}", m_file, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PerformanceDataJournal[" + m_file + ", readings=" + m_readingCount + ", used=" + getUsedBytes() + "/" + (m_capacity - HEADER_SIZE) + "]";
+    }
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Sends encoded {@link PerformanceDataProtos.PerformanceDataReadings} batches
+ * to the remote receiver over a non-blocking {@link SocketChannel}.
+ *
+ * <p>With a persistent connection every batch is prefixed with its length as a
+ * varint (the <code>writeDelimitedTo()</code> framing) and the connection is
+ * kept open between batches.  Otherwise each batch is written on its own
+ * connection which is closed afterwards, the protocol that
+ * {@link RrdOutputSocket} has always used.</p>
+ *
+ * <p>After a failure no connection is attempted until a back-off delay has
+ * passed; the delay doubles with each failure up to a maximum and is reset by
+ * the next successful send.  Not thread-safe.</p>
+ */
+public class PerformanceDataSender {
+    private static final Logger LOG = LoggerFactory.getLogger(PerformanceDataSender.class);
+
+    private final String m_host;
+    private final int m_port;
+    private final boolean m_persistent;
+    private final long m_minReconnectDelay;
+    private final long m_maxReconnectDelay;
+    private final long m_timeout;
+
+    private SocketChannel m_channel;
+    private Selector m_selector;
+    private long m_reconnectDelay;
+    private long m_nextAttempt = 0;
+
+    /**
+     * <p>Constructor for PerformanceDataSender.</p>
+     *
+     * @param host the receiver's address
+     * @param port the receiver's port
+     * @param persistent keep the connection open and frame each batch
+     * @param minReconnectDelay the first back-off delay in milliseconds
+     * @param maxReconnectDelay the longest back-off delay in milliseconds
+     * @param timeout the connect and write timeout in milliseconds
+     */
+    public PerformanceDataSender(final String host, final int port, final boolean persistent, final long minReconnectDelay, final long maxReconnectDelay, final long timeout) {
+        m_host = host;
+        m_port = port;
+        m_persistent = persistent;
+        m_minReconnectDelay = Math.max(1, minReconnectDelay);
+        m_maxReconnectDelay = Math.max(m_minReconnectDelay, maxReconnectDelay);
+        m_reconnectDelay = m_minReconnectDelay;
+        m_timeout = timeout;
+    }
+
+    /**
+     * @return false while waiting for the back-off delay after a failure
+     */
+    public boolean isAvailable() {
+        return System.currentTimeMillis() >= m_nextAttempt;
+    }
+
+    /**
+     * Sends one encoded batch.
+     *
+     * @param data an encoded PerformanceDataReadings message
+     * @return true if the batch was written, false if the peer is unavailable
+     */
+    public boolean send(final byte[] data) {
+        if (!isAvailable()) {
+            return false;
+        }
+        try {
+            if (m_channel != null && peerClosed()) {
+                LOG.debug("Performance data receiver {}:{} closed the connection, reconnecting", m_host, m_port);
+                close();
+            }
+            if (m_channel == null) {
+                connect();
+            }
+            write(m_persistent ? frame(data) : ByteBuffer.wrap(data));
+            if (!m_persistent) {
+                close();
+            }
+            m_reconnectDelay = m_minReconnectDelay;
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Error sending performance data to {}:{}, retrying in {}ms: {}", m_host, m_port, m_reconnectDelay, e.getMessage());
+            close();
+            m_nextAttempt = System.currentTimeMillis() + m_reconnectDelay;
+            m_reconnectDelay = Math.min(m_reconnectDelay * 2, m_maxReconnectDelay);
+            return false;
+        }
+    }
+
+    /**
+     * The receiver never writes to us, so a readable channel means that it
+     * has closed its end; discard anything else that arrives.
+     */
+    private boolean peerClosed() throws IOException {
+        final ByteBuffer discard = ByteBuffer.allocate(256);
+        int count;
+        while ((count = m_channel.read(discard)) > 0) {
+            discard.clear();
+        }
+        return count < 0;
+    }
+
+    private static ByteBuffer frame(final byte[] data) throws IOException {
+        final byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(data.length) + data.length];
+        final CodedOutputStream out = CodedOutputStream.newInstance(frame);
+        out.writeRawVarint32(data.length);
+        out.writeRawBytes(data);
+        out.checkNoSpaceLeft();
+        return ByteBuffer.wrap(frame);
+    }
+
+    private void connect() throws IOException {
+        m_selector = Selector.open();
+        m_channel = SocketChannel.open();
+        m_channel.configureBlocking(false);
+        m_channel.socket().setTcpNoDelay(true);
+        if (!m_channel.connect(new InetSocketAddress(InetAddressUtils.addr(m_host), m_port))) {
+            final SelectionKey key = m_channel.register(m_selector, SelectionKey.OP_CONNECT);
+            if (m_selector.select(m_timeout) == 0) {
+                throw new IOException("timed out connecting after " + m_timeout + "ms");
+            }
+            m_selector.selectedKeys().clear();
+            m_channel.finishConnect();
+            key.interestOps(0);
+        }
+        LOG.debug("Connected to performance data receiver {}:{}", m_host, m_port);
+    }
+
+    private void write(final ByteBuffer buf) throws IOException {
+        final SelectionKey key = m_channel.keyFor(m_selector) == null ? m_channel.register(m_selector, 0) : m_channel.keyFor(m_selector);
+        while (buf.hasRemaining()) {
+            if (m_channel.write(buf) == 0) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                if (m_selector.select(m_timeout) == 0) {
+                    throw new IOException("timed out writing after " + m_timeout + "ms");
+                }
+                m_selector.selectedKeys().clear();
+                key.interestOps(0);
+            }
+        }
+    }
+
+    /**
+     * Closes the current connection, if any.
+     */
+    public void close() {
+        if (m_channel != null) {
+            try {
+                m_channel.close();
+            } catch (final IOException e) {
+                LOG.warn("IOException when closing TCP performance data socket: {}", e.getMessage());
+            }
+            m_channel = null;
+        }
+        if (m_selector != null) {
+            try {
+                m_selector.close();
+            } catch (final IOException e) {
+                LOG.debug("IOException when closing selector: {}", e.getMessage());
+            }
+            m_selector = null;
+        }
+    }
+}
@@ -39,6 +39,8 @@ import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +56,13 @@ import org.opennms.netmgt.rrd.tcp.TcpRrdStrategy.RrdDefinition;
  * The receiver of this strategy is not defined in any way. This is just a fire
  * and forget strategy. There is no way to read data back into opennms.
  * </p>
+ * <p>
+ * Readings are queued without blocking the caller and sent by a background
+ * thread in size- and time-bounded batches. While the receiver is unavailable
+ * the batches are spilled to an optional memory-mapped journal and resent
+ * once it comes back; when the queue or the journal is full, readings are
+ * dropped. See {@link TcpRrdStrategy} for the settings.
+ * </p>
  * 
  * @author ranger
  * @version $Id: $
@@ -61,9 +70,16 @@ import org.opennms.netmgt.rrd.tcp.TcpRrdStrategy.RrdDefinition;
 public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,String> {
     private static final Logger LOG = LoggerFactory.getLogger(QueuingTcpRrdStrategy.class);
 
-    private final BlockingQueue<PerformanceDataReading> m_queue = new LinkedBlockingQueue<PerformanceDataReading>(50000);
+    private final BlockingQueue<PerformanceDataReading> m_queue;
     private final TcpRrdStrategy m_delegate;
-    private int m_skippedReadings = 0;
+    private final ConsumerThread m_consumerThread;
+    private final AtomicInteger m_skippedReadings = new AtomicInteger();
+
+    private final AtomicLong m_queuedReadings = new AtomicLong();
+    private final AtomicLong m_sentReadings = new AtomicLong();
+    private final AtomicLong m_spilledReadings = new AtomicLong();
+    private final AtomicLong m_droppedReadings = new AtomicLong();
+    private final AtomicLong m_sentBatches = new AtomicLong();
 
     private static class PerformanceDataReading {
         private String m_filename;
@@ -85,35 +101,137 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
         }
     }
 
-    private static class ConsumerThread extends Thread {
+    /**
+     * Sends the queued readings in batches of up to batchSize readings, waiting
+     * at most batchDelay milliseconds for a batch to fill.  Batches that cannot
+     * be sent are spilled to the journal, if there is one, and resent, oldest
+     * first, before any new batch once the receiver is reachable again.
+     */
+    private class ConsumerThread extends Thread {
         private final BlockingQueue<PerformanceDataReading> m_myQueue;
         private final TcpRrdStrategy m_strategy;
+        private final PerformanceDataSender m_sender;
+        private final PerformanceDataJournal m_journal;
+
         public ConsumerThread(final TcpRrdStrategy strategy, final BlockingQueue<PerformanceDataReading> queue) {
             m_strategy = strategy;
             m_myQueue = queue;
-            this.setName(this.getClass().getSimpleName());
+            m_sender = new PerformanceDataSender(strategy.getHost(), strategy.getPort(), strategy.isPersistentConnection(), strategy.getReconnectDelay(), strategy.getMaxReconnectDelay(), strategy.getTimeout());
+            m_journal = openJournal(strategy);
+            this.setName(QueuingTcpRrdStrategy.class.getSimpleName() + "$" + this.getClass().getSimpleName());
         }
 
         @Override
         public void run() {
             try {
-                while (true) {
-                    Collection<PerformanceDataReading> sendMe = new ArrayList<PerformanceDataReading>();
-                    if (m_myQueue.drainTo(sendMe) > 0) {
-                        RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort());
-                        for (PerformanceDataReading reading : sendMe) {
-                            socket.addData(reading.getFilename(), reading.getOwner(), reading.getData());
-                        }
-                        socket.writeData();
-                    } else {
-                        Thread.sleep(1000);
+                final int batchSize = Math.max(1, m_strategy.getBatchSize());
+                final long batchDelay = Math.max(1, m_strategy.getBatchDelay());
+                while (!isInterrupted()) {
+                    final List<PerformanceDataReading> batch = nextBatch(batchSize, batchDelay);
+                    replayJournal();
+                    if (!batch.isEmpty()) {
+                        send(batch);
                     }
                 }
             } catch (InterruptedException e) {
                 LOG.warn("InterruptedException caught in QueuingTcpRrdStrategy$ConsumerThread, closing thread");
             } catch (Throwable e) {
                 LOG.error("Unexpected exception caught in QueuingTcpRrdStrategy$ConsumerThread, closing thread", e);
+            } finally {
+                m_sender.close();
+                if (m_journal != null) {
+                    m_journal.close();
+                }
+            }
+        }
+
+        private List<PerformanceDataReading> nextBatch(final int batchSize, final long batchDelay) throws InterruptedException {
+            final List<PerformanceDataReading> batch = new ArrayList<PerformanceDataReading>();
+            final PerformanceDataReading first = m_myQueue.poll(batchDelay, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return batch;
+            }
+            batch.add(first);
+            final long deadline = System.currentTimeMillis() + batchDelay;
+            while (batch.size() < batchSize) {
+                if (m_myQueue.drainTo(batch, batchSize - batch.size()) > 0) {
+                    continue;
+                }
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                final PerformanceDataReading next = m_myQueue.poll(remaining, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
             }
+            return batch;
+        }
+
+        private void send(final List<PerformanceDataReading> batch) {
+            final RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort());
+            for (PerformanceDataReading reading : batch) {
+                try {
+                    socket.addData(reading.getFilename(), reading.getOwner(), reading.getData());
+                } catch (RuntimeException e) {
+                    LOG.warn("Dropping unparseable performance data reading for {}: {}", reading.getFilename(), e.getMessage());
+                    m_droppedReadings.incrementAndGet();
+                }
+            }
+            final int count = socket.getMessageCount();
+            if (count == 0) {
+                return;
+            }
+            final byte[] data = socket.toByteArray();
+
+            // keep the order: never send a new batch while older ones are still spilled
+            if ((m_journal == null || m_journal.isEmpty()) && m_sender.send(data)) {
+                sent(count);
+            } else if (m_journal != null && m_journal.append(count, data)) {
+                m_spilledReadings.addAndGet(count);
+            } else {
+                LOG.warn("Dropping {} performance data readings, the receiver at {}:{} is unavailable{}", count, m_strategy.getHost(), m_strategy.getPort(), m_journal == null ? "" : " and the journal is full");
+                m_droppedReadings.addAndGet(count);
+            }
+        }
+
+        private void replayJournal() {
+            if (m_journal == null) {
+                return;
+            }
+            while (!m_journal.isEmpty() && m_sender.isAvailable()) {
+                final int count = m_journal.peekReadingCount();
+                if (!m_sender.send(m_journal.peek())) {
+                    return;
+                }
+                m_journal.remove();
+                sent(count);
+            }
+        }
+
+        private void sent(final int count) {
+            m_sentReadings.addAndGet(count);
+            m_sentBatches.incrementAndGet();
+        }
+
+        private int getJournalReadings() {
+            final PerformanceDataJournal journal = m_journal;
+            return journal == null ? 0 : journal.getReadingCount();
+        }
+    }
+
+    private static PerformanceDataJournal openJournal(final TcpRrdStrategy strategy) {
+        final String journalFile = strategy.getJournalFile();
+        if (journalFile == null || journalFile.trim().length() == 0) {
+            return null;
+        }
+        try {
+            return new PerformanceDataJournal(new File(journalFile.trim()), strategy.getJournalSize());
+        } catch (IOException e) {
+            LOG.error("Unable to open performance data journal {}, readings will be dropped while the receiver is unavailable", journalFile, e);
+            return null;
         }
     }
 
@@ -124,8 +242,48 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
      */
     public QueuingTcpRrdStrategy(TcpRrdStrategy delegate) {
         m_delegate = delegate;
-        ConsumerThread consumerThread = new ConsumerThread(delegate, m_queue);
-        consumerThread.start();
+        m_queue = new LinkedBlockingQueue<PerformanceDataReading>(Math.max(1, delegate.getQueueSize()));
+        m_consumerThread = new ConsumerThread(delegate, m_queue);
+        m_consumerThread.start();
+    }
+
+    /**
+     * Stops the consumer thread and closes the connection and the journal.
+     * Readings still in the in-memory queue are discarded.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    public void stop() throws InterruptedException {
+        m_consumerThread.interrupt();
+        m_consumerThread.join();
+    }
+
+    /**
+     * @return the number of readings accepted into the queue so far
+     */
+    public long getQueuedReadings() {
+        return m_queuedReadings.get();
+    }
+
+    /**
+     * @return the number of readings sent to the receiver so far
+     */
+    public long getSentReadings() {
+        return m_sentReadings.get();
+    }
+
+    /**
+     * @return the number of readings written to the journal so far
+     */
+    public long getSpilledReadings() {
+        return m_spilledReadings.get();
+    }
+
+    /**
+     * @return the number of readings dropped so far
+     */
+    public long getDroppedReadings() {
+        return m_droppedReadings.get();
     }
 
     /** {@inheritDoc} */
@@ -171,13 +329,16 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
     /** {@inheritDoc} */
     @Override
     public void updateFile(String fileName, String owner, String data) throws Exception {
-        if (m_queue.offer(new PerformanceDataReading(fileName, owner, data), 500, TimeUnit.MILLISECONDS)) {
-            if (m_skippedReadings > 0) {
-                LOG.warn("Skipped {} performance data message(s) because of queue overflow", m_skippedReadings);
-                m_skippedReadings = 0;
+        // never block the collector thread; the consumer thread is the one that waits on the network
+        if (m_queue.offer(new PerformanceDataReading(fileName, owner, data))) {
+            m_queuedReadings.incrementAndGet();
+            final int skipped = m_skippedReadings.getAndSet(0);
+            if (skipped > 0) {
+                LOG.warn("Skipped {} performance data message(s) because of queue overflow", skipped);
             }
         } else {
-            m_skippedReadings++;
+            m_skippedReadings.incrementAndGet();
+            m_droppedReadings.incrementAndGet();
         }
     }
 
@@ -259,7 +420,13 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
      */
     @Override
     public String getStats() {
-        return m_delegate.getStats();
+        return "QueuingTcpRrdStrategy: queued=" + getQueuedReadings()
+            + ", pending=" + m_queue.size()
+            + ", sent=" + getSentReadings()
+            + ", batches=" + m_sentBatches.get()
+            + ", spilled=" + getSpilledReadings()
+            + ", journaled=" + m_consumerThread.getJournalReadings()
+            + ", dropped=" + getDroppedReadings();
     }
 
     /** {@inheritDoc} */
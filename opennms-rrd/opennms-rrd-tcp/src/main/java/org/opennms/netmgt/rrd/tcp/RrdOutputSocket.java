@@ -86,6 +86,25 @@ public class RrdOutputSocket {
         m_messageCount++;
     }
 
+    /**
+     * Returns the number of readings added so far.
+     *
+     * @return a int.
+     */
+    public int getMessageCount() {
+        return m_messageCount;
+    }
+
+    /**
+     * Encodes the readings added so far as one PerformanceDataReadings
+     * message. Like {@link #writeData()}, this can only be called once.
+     *
+     * @return the encoded message
+     */
+    public byte[] toByteArray() {
+        return m_messages.build().toByteArray();
+    }
+
     /**
      * <p>writeData</p>
      */
@@ -132,6 +132,140 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
         this.m_port = port;
     }
 
+    /*
+     * The following settings are only used by QueuingTcpRrdStrategy, which
+     * reads them from this delegate when it is constructed.
+     */
+    private boolean m_persistentConnection = false;
+    private int m_queueSize = 50000;
+    private int m_batchSize = 1000;
+    private long m_batchDelay = 1000;
+    private long m_reconnectDelay = 1000;
+    private long m_maxReconnectDelay = 60000;
+    private long m_timeout = 5000;
+    private String m_journalFile = null;
+    private int m_journalSize = 64 * 1024 * 1024;
+
+    /**
+     * Keep one connection open and send length-delimited batches over it,
+     * instead of opening a connection for every batch. The receiver must
+     * read varint length-prefixed PerformanceDataReadings messages.
+     *
+     * @return a boolean.
+     */
+    public boolean isPersistentConnection() {
+        return m_persistentConnection;
+    }
+
+    public void setPersistentConnection(boolean persistentConnection) {
+        m_persistentConnection = persistentConnection;
+    }
+
+    /**
+     * The number of readings that can wait to be sent before new readings are dropped.
+     *
+     * @return a int.
+     */
+    public int getQueueSize() {
+        return m_queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    /**
+     * The largest number of readings sent in one batch.
+     *
+     * @return a int.
+     */
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    /**
+     * How long, in milliseconds, to wait for a batch to fill before sending it.
+     *
+     * @return a long.
+     */
+    public long getBatchDelay() {
+        return m_batchDelay;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    /**
+     * The delay, in milliseconds, before reconnecting after the first failure.
+     *
+     * @return a long.
+     */
+    public long getReconnectDelay() {
+        return m_reconnectDelay;
+    }
+
+    public void setReconnectDelay(long reconnectDelay) {
+        m_reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * The longest delay, in milliseconds, between reconnection attempts.
+     *
+     * @return a long.
+     */
+    public long getMaxReconnectDelay() {
+        return m_maxReconnectDelay;
+    }
+
+    public void setMaxReconnectDelay(long maxReconnectDelay) {
+        m_maxReconnectDelay = maxReconnectDelay;
+    }
+
+    /**
+     * The connect and write timeout in milliseconds.
+     *
+     * @return a long.
+     */
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        m_timeout = timeout;
+    }
+
+    /**
+     * The file that batches are spilled to while the receiver is
+     * unavailable. Blank disables the journal.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getJournalFile() {
+        return m_journalFile;
+    }
+
+    public void setJournalFile(String journalFile) {
+        m_journalFile = journalFile;
+    }
+
+    /**
+     * The size of the journal file in bytes.
+     *
+     * @return a int.
+     */
+    public int getJournalSize() {
+        return m_journalSize;
+    }
+
+    public void setJournalSize(int journalSize) {
+        m_journalSize = journalSize;
+    }
+
     /**
      * <p>getDefaultFileExtension</p>
      *
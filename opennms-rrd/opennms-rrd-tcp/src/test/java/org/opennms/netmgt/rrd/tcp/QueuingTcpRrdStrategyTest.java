@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+
+/**
+ * Tests the batching, spilling and replay of the {@link QueuingTcpRrdStrategy}.
+ */
+public class QueuingTcpRrdStrategyTest {
+    private File m_journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        m_journalFile = File.createTempFile("perfdata-", ".journal");
+        m_journalFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_journalFile.delete();
+    }
+
+    @Test
+    public void testJournalIsReplayedAfterReopening() throws Exception {
+        PerformanceDataJournal journal = new PerformanceDataJournal(m_journalFile, 4096);
+        assertTrue(journal.isEmpty());
+        assertTrue(journal.append(3, new byte[] { 1, 2, 3 }));
+        assertTrue(journal.append(2, new byte[] { 4, 5 }));
+        assertEquals(5, journal.getReadingCount());
+        journal.close();
+
+        journal = new PerformanceDataJournal(m_journalFile, 4096);
+        assertEquals(5, journal.getReadingCount());
+        assertEquals(3, journal.peekReadingCount());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, journal.peek());
+        journal.remove();
+        assertEquals(2, journal.peekReadingCount());
+        assertArrayEquals(new byte[] { 4, 5 }, journal.peek());
+        journal.remove();
+        assertTrue(journal.isEmpty());
+        assertEquals(0, journal.getUsedBytes());
+        journal.close();
+    }
+
+    @Test
+    public void testJournalRejectsBatchesWhenFull() throws Exception {
+        final PerformanceDataJournal journal = new PerformanceDataJournal(m_journalFile, 64);
+        assertTrue(journal.append(1, new byte[20]));
+        assertFalse(journal.append(1, new byte[40]));
+        assertEquals(1, journal.getReadingCount());
+        journal.close();
+    }
+
+    @Test(timeout=30000)
+    public void testSpillWhileUnavailableThenReplay() throws Exception {
+        // find a free port, then leave it closed so that the first batches are spilled
+        ServerSocket server = new ServerSocket(0);
+        final int port = server.getLocalPort();
+        server.close();
+
+        final TcpRrdStrategy delegate = new TcpRrdStrategy();
+        delegate.setHost("127.0.0.1");
+        delegate.setPort(port);
+        delegate.setPersistentConnection(true);
+        delegate.setBatchSize(5);
+        delegate.setBatchDelay(50);
+        delegate.setReconnectDelay(50);
+        delegate.setMaxReconnectDelay(100);
+        delegate.setJournalFile(m_journalFile.getAbsolutePath());
+        delegate.setJournalSize(1024 * 1024);
+
+        final QueuingTcpRrdStrategy strategy = new QueuingTcpRrdStrategy(delegate);
+        try {
+            for (int i = 0; i < 10; i++) {
+                strategy.updateFile("/tmp/foo/bar" + i + ".jrb", "test", "1234567890:" + i + ":U");
+            }
+            while (strategy.getSpilledReadings() < 10) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, strategy.getSentReadings());
+
+            server = new ServerSocket(port);
+            final Socket socket = server.accept();
+            final InputStream in = socket.getInputStream();
+            int received = 0;
+            while (received < 10) {
+                final PerformanceDataProtos.PerformanceDataReadings readings = PerformanceDataProtos.PerformanceDataReadings.parseDelimitedFrom(in);
+                for (PerformanceDataProtos.PerformanceDataReading reading : readings.getMessageList()) {
+                    // spilled batches are replayed in order
+                    assertEquals("/tmp/foo/bar" + received + ".jrb", reading.getPath());
+                    assertEquals(1234567890000L, reading.getTimestamp());
+                    assertEquals(received, reading.getValue(0), 0.0);
+                    received++;
+                }
+            }
+
+            strategy.updateFile("/tmp/foo/bar10.jrb", "test", "1234567890:10:U");
+            assertEquals("/tmp/foo/bar10.jrb", PerformanceDataProtos.PerformanceDataReadings.parseDelimitedFrom(in).getMessage(0).getPath());
+
+            while (strategy.getSentReadings() < 11) {
+                Thread.sleep(20);
+            }
+            assertEquals(11, strategy.getQueuedReadings());
+            assertEquals(0, strategy.getDroppedReadings());
+            socket.close();
+        } finally {
+            strategy.stop();
+            server.close();
+        }
+    }
+
+    @Test(timeout=30000)
+    public void testDropWithoutJournal() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final int port = server.getLocalPort();
+        server.close();
+
+        final TcpRrdStrategy delegate = new TcpRrdStrategy();
+        delegate.setHost("127.0.0.1");
+        delegate.setPort(port);
+        delegate.setBatchDelay(50);
+        final QueuingTcpRrdStrategy strategy = new QueuingTcpRrdStrategy(delegate);
+        try {
+            strategy.updateFile("/tmp/foo/bar.jrb", "test", "1234567890:1");
+            while (strategy.getDroppedReadings() < 1) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, strategy.getSpilledReadings());
+            assertTrue(strategy.getStats().contains("dropped=1"));
+        } finally {
+            strategy.stop();
+        }
+    }
+}
@@ -35,11 +35,19 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetAddress;
 import java.net.NoRouteToHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.opennms.core.utils.InetAddressComparator;
 import org.opennms.core.utils.InetAddressUtils;
@@ -106,6 +114,14 @@ public final class IfCollector implements Runnable {
 
     private final Set<InetAddress> m_previouslyProbed;
 
+    /**
+     * When set, the sub-targets found in the SNMP collection are probed
+     * concurrently on this executor instead of one after another.
+     */
+    private ExecutorService m_probeExecutor;
+
+    private final Map<InetAddress, Future<List<SupportedProtocol>>> m_pendingProbes = new LinkedHashMap<InetAddress, Future<List<SupportedProtocol>>>();
+
     /**
      * This class is used to encapsulate the supported protocol information
      * discovered for an interface. The is the combination of the protocol name
@@ -212,6 +228,79 @@ public final class IfCollector implements Runnable {
         }
     }
 
+    /**
+     * Probes a sub-target and records its supported protocols.  The probe
+     * runs on the probe executor if one was set, otherwise it runs inline.
+     * Concurrent probes fill their own list, which is only added to the
+     * sub-targets once the probe has completed.
+     */
+    private void probeSubTarget(final InetAddress subtarget) {
+        m_previouslyProbed.add(subtarget);
+
+        if (m_probeExecutor == null) {
+            m_subTargets.put(subtarget, probeSubTargetProtocols(subtarget));
+        } else {
+            m_pendingProbes.put(subtarget, m_probeExecutor.submit(new Callable<List<SupportedProtocol>>() {
+                @Override
+                public List<SupportedProtocol> call() {
+                    return probeSubTargetProtocols(subtarget);
+                }
+            }));
+        }
+    }
+
+    private List<SupportedProtocol> probeSubTargetProtocols(final InetAddress subtarget) {
+        final List<SupportedProtocol> probelist = new ArrayList<SupportedProtocol>();
+        LOG.debug("ifCollector.run: probing subtarget {}", str(subtarget));
+        probe(subtarget, probelist);
+        LOG.debug("ifCollector.run: adding subtarget {} # supported protocols: {}", str(subtarget), probelist.size());
+        return probelist;
+    }
+
+    /**
+     * Probes the sub-targets found in the SNMP collection and adds them to
+     * the additional targets.  If the probes are interrupted, those that
+     * have not completed are cancelled and left out.
+     */
+    void probeSubTargets(final Collection<InetAddress> subtargets) throws InterruptedException {
+        if (m_subTargets == null) {
+            m_subTargets = new TreeMap<InetAddress, List<SupportedProtocol>>(new InetAddressComparator());
+        }
+        try {
+            for (final InetAddress subtarget : subtargets) {
+                probeSubTarget(subtarget);
+            }
+            waitForSubTargetProbes();
+        } finally {
+            cancelSubTargetProbes();
+        }
+    }
+
+    private void waitForSubTargetProbes() throws InterruptedException {
+        for (final Iterator<Map.Entry<InetAddress, Future<List<SupportedProtocol>>>> it = m_pendingProbes.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<InetAddress, Future<List<SupportedProtocol>>> probe = it.next();
+            try {
+                m_subTargets.put(probe.getKey(), probe.getValue().get());
+            } catch (final ExecutionException e) {
+                LOG.warn("IfCollector: Caught an exception while probing subtarget {} of {}", str(probe.getKey()), str(m_target), e.getCause());
+                m_subTargets.put(probe.getKey(), new ArrayList<SupportedProtocol>());
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * Cancels the probes that have not completed.  Their sub-targets are
+     * left out of the results and may be probed again by a later collector.
+     */
+    private void cancelSubTargetProbes() {
+        for (final Map.Entry<InetAddress, Future<List<SupportedProtocol>>> probe : m_pendingProbes.entrySet()) {
+            probe.getValue().cancel(true);
+            m_previouslyProbed.remove(probe.getKey());
+        }
+        m_pendingProbes.clear();
+    }
+
     /**
      * Constructs a new collector instance. The collector's target is passed as
      * an argument to the constructor. Very little initialization is preformed
@@ -240,6 +329,14 @@ public final class IfCollector implements Runnable {
         m_previouslyProbed = previouslyProbed;
     }
 
+    /**
+     * Sets the executor used to probe the sub-targets found in the SNMP
+     * collection concurrently.
+     */
+    void setProbeExecutor(final ExecutorService probeExecutor) {
+        m_probeExecutor = probeExecutor;
+    }
+
     /**
      * Returns the target of this collection
      */
@@ -380,6 +477,7 @@ public final class IfCollector implements Runnable {
                 if (m_snmpCollector.hasIpAddrTable() && m_snmpCollector.hasIfTable()) {
                     m_subTargets = new TreeMap<InetAddress, List<SupportedProtocol>>(new InetAddressComparator());
                     m_nonIpInterfaces = new ArrayList<Integer>();
+                    final Set<InetAddress> subtargets = new LinkedHashSet<InetAddress>();
 
                     // Iterate over ifTable entries
                     //
@@ -410,7 +508,7 @@ public final class IfCollector implements Runnable {
                             // if the target failed to convert or if it
                             // is equal to the current target then skip it
                             //
-                            if (subtarget == null || subtarget.equals(m_target) || m_previouslyProbed.contains(subtarget))
+                            if (subtarget == null || subtarget.equals(m_target) || m_previouslyProbed.contains(subtarget) || subtargets.contains(subtarget))
                                 continue;
 
                             // now find the ifType
@@ -442,21 +540,16 @@ public final class IfCollector implements Runnable {
 
                             // ok it appears to be ok, so probe it!
                             //
-                            final List<SupportedProtocol> probelist = new ArrayList<SupportedProtocol>();
-                            LOG.debug("----------------------------------------------------------------------------------------");
-                            LOG.debug("ifCollector.run: probing subtarget {}", str(subtarget));
-                            probe(subtarget, probelist);
-                            m_previouslyProbed.add(subtarget);
-
-                            LOG.debug("ifCollector.run: adding subtarget {} # supported protocols: {}", str(subtarget), probelist.size());
-                            LOG.debug("----------------------------------------------------------------------------------------");
-                            m_subTargets.put(subtarget, probelist);
+                            subtargets.add(subtarget);
                         } // end while(more ip addresses)
                     } // end while(more interfaces)
+
+                    probeSubTargets(subtargets);
                 } // end if(ipAddrTable and ifTable entries collected)
 
                 else if (m_snmpCollector.hasIpAddrTable()) {
                     m_subTargets = new TreeMap<InetAddress, List<SupportedProtocol>>(new InetAddressComparator());
+                    final Set<InetAddress> subtargets = new LinkedHashSet<InetAddress>();
 
                     final List<InetAddress> ipAddrs = m_snmpCollector.getIpAddrTable().getIpAddresses();
                     // Iterate over this interface's IP address list
@@ -479,20 +572,17 @@ public final class IfCollector implements Runnable {
 
                         // ok it appears to be ok, so probe it!
                         //
-                        final List<SupportedProtocol> probelist = new ArrayList<SupportedProtocol>();
-                        LOG.debug("----------------------------------------------------------------------------------------");
-                        LOG.debug("ifCollector.run: probing subtarget {}", str(subtarget));
-                        probe(subtarget, probelist);
-                        m_previouslyProbed.add(subtarget);
-                        
-                        LOG.debug("ifCollector.run: adding subtarget {} # supported protocols: {}", str(subtarget), probelist.size());
-                        LOG.debug("----------------------------------------------------------------------------------------");
-                        m_subTargets.put(subtarget, probelist);
+                        subtargets.add(subtarget);
                     } // end while(more ip addresses)
+
+                    probeSubTargets(subtargets);
                 } // end if(ipAddrTable entries collected)
             } // end try()
             catch (final Throwable t) {
                 m_snmpCollector = null;
+                if (t instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
                 LOG.warn("IfCollector.run: Caught an exception when collecting SNMP information from target {}", str(m_target), t);
             }
 
@@ -37,16 +37,21 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.core.utils.DBUtils;
@@ -102,6 +107,24 @@ public final class RescanProcessor implements Runnable {
      */
     static final String SQL_DB_RETRIEVE_OTHER_NODES = "SELECT ipinterface.nodeid FROM ipinterface, node WHERE ipinterface.ismanaged != 'D' AND ipinterface.ipaddr = ? AND ipinterface.nodeid = node.nodeid AND node.foreignsource IS NULL AND ipinterface.nodeid !=? ";
 
+    /**
+     * SQL statement used to retrieve, in one pass, the other nodeIds that
+     * share any of a list of addresses with the updating node.  The list of
+     * address parameters is appended when the statement is built.
+     */
+    static final String SQL_DB_RETRIEVE_OTHER_NODES_BULK = "SELECT ipinterface.ipaddr, ipinterface.nodeid FROM ipinterface, node WHERE ipinterface.ismanaged != 'D' AND ipinterface.nodeid = node.nodeid AND node.foreignsource IS NULL AND ipinterface.nodeid != ? AND ipinterface.ipaddr IN ";
+
+    /**
+     * Maximum number of addresses bound to a single bulk lookup.
+     */
+    private static final int OTHER_NODES_BATCH_SIZE = 500;
+
+    /**
+     * Number of threads used to probe the additional addresses found in a
+     * node's SNMP collection.  With one they are probed one after another.
+     */
+    private static final int PROBE_THREADS = Integer.getInteger("org.opennms.capsd.rescan.probeThreads", 4);
+
     /**
      * SQL statements used to reparent an interface and its associated services
      * under a new parent nodeid
@@ -144,7 +167,13 @@ public final class RescanProcessor implements Runnable {
      * SQL statement used to update ipinterface.ismanaged
      * when rescan discovers new interface
      */
-    private static final String SQL_DB_UPDATE_ISMANAGED = "UPDATE ipinterface SET ismanaged=? WHERE nodeID=? AND ipaddr=? AND isManaged!='D'";
+    static final String SQL_DB_UPDATE_ISMANAGED = "UPDATE ipinterface SET ismanaged=? WHERE nodeID=? AND ipaddr=? AND isManaged!='D'";
+
+    /**
+     * SQL statement used to update the status of a service stored as not
+     * polled.
+     */
+    static final String SQL_DB_UPDATE_NOT_POLLED_SERVICE = "UPDATE ifservices SET status=? WHERE nodeID=? AND ipaddr=? AND serviceID=? AND status='N'";
 
     /**
      * Indicates if the rescan is in response to a forceRescan event.
@@ -178,6 +207,29 @@ public final class RescanProcessor implements Runnable {
 
     private int m_nodeId;
 
+    /**
+     * Other nodes sharing each address of this node, keyed by address.
+     * Loaded in bulk at the start of the database update instead of
+     * querying once (or twice) per interface.
+     */
+    private final Map<String, Set<Integer>> m_otherNodesByAddress = new HashMap<String, Set<Integer>>();
+
+    /**
+     * Service names keyed by service id, loaded once per forced rescan.
+     */
+    private Map<Integer, String> m_serviceNames;
+
+    /**
+     * Interfaces added as not polled by the rescan, keyed by address, with
+     * the ids of the services stored for them as not polled, keyed by name.
+     * The poller package filters run on their own database connection and
+     * cannot see these rows until the rescan commits, so their polling
+     * status is settled afterwards by {@link #updateNewInterfaces(Connection)}.
+     */
+    private final Map<InetAddress, Map<String, Integer>> m_newInterfaces = new LinkedHashMap<InetAddress, Map<String, Integer>>();
+
+    private ExecutorService m_probeExecutor;
+
     private static Set<Integer> s_queuedRescanTracker;
 
     /**
@@ -779,17 +831,8 @@ public final class RescanProcessor implements Runnable {
                 } else {
                     LOG.debug("updateInterface: Checking address from snmpc ipAddrTable {}", ifaddrString);
 
-                    final DBUtils d = new DBUtils(RescanProcessor.class);
                     try {
-                        final PreparedStatement stmt = dbc.prepareStatement(SQL_DB_RETRIEVE_OTHER_NODES);
-                        d.watch(stmt);
-                        stmt.setString(1, ifaddrString);
-                        stmt.setInt(2, node.getNodeId());
-
-                        final ResultSet rs = stmt.executeQuery();
-                        d.watch(rs);
-                        while (rs.next()) {
-                            final int existingNodeId = rs.getInt(1);
+                        for (final Integer existingNodeId : new ArrayList<Integer>(getOtherNodes(dbc, ifaddr, node.getNodeId()))) {
                             LOG.debug("updateInterface: ckecking for {} on existing nodeid {}", ifaddrString, existingNodeId);
 
                             final DbNodeEntry suspectNodeEntry = DbNodeEntry.get(dbc, existingNodeId);
@@ -837,6 +880,7 @@ public final class RescanProcessor implements Runnable {
 
                                 // delete duplicate node after reparenting.
                                 deleteDuplicateNode(dbc, suspectNodeEntry);
+                                forgetOtherNode(existingNodeId);
                                 createDuplicateNodeDeletedEvent(suspectNodeEntry);
                             }
                         }
@@ -845,8 +889,6 @@ public final class RescanProcessor implements Runnable {
                     catch (final SQLException e) {
                         LOG.error("SQLException while updating interface: {} on nodeid: {}", ifaddrString, node.getNodeId());
                         throw e;
-                    } finally {
-                        d.cleanUp();
                     }
                 }
             }
@@ -879,7 +921,7 @@ public final class RescanProcessor implements Runnable {
                 dbIpIfEntry.setIfIndex(ifIndex);
             }
 
-            if (isDuplicateInterface(dbc, ifaddr, node.getNodeId())) {
+            if (!getOtherNodes(dbc, ifaddr, node.getNodeId()).isEmpty()) {
                 m_eventList.add(createDuplicateIpAddressEvent(dbIpIfEntry));
             }
             newIpIfEntry = true;
@@ -948,8 +990,69 @@ public final class RescanProcessor implements Runnable {
     }
 
     /**
-     * This method verify if an ipaddress is existing in other node except in
-     * the updating node.
+     * Loads, in bulk, the other nodes which share any of the given addresses
+     * with the updating node.
+     * 
+     * @param dbc
+     *            Database Connection
+     * @param addresses
+     *            Addresses of the node being rescanned
+     * @param nodeId
+     *            Node Id of the node being rescanned
+     * 
+     */
+    void loadOtherNodes(final Connection dbc, final Collection<String> addresses, final int nodeId) throws SQLException {
+        m_otherNodesByAddress.clear();
+        final List<String> batch = new ArrayList<String>(OTHER_NODES_BATCH_SIZE);
+        for (final String address : addresses) {
+            m_otherNodesByAddress.put(address, new HashSet<Integer>());
+            batch.add(address);
+            if (batch.size() == OTHER_NODES_BATCH_SIZE) {
+                loadOtherNodes(dbc, batch, nodeId, m_otherNodesByAddress);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadOtherNodes(dbc, batch, nodeId, m_otherNodesByAddress);
+        }
+    }
+
+    private static void loadOtherNodes(final Connection dbc, final List<String> batch, final int nodeId, final Map<String, Set<Integer>> otherNodes) throws SQLException {
+        final StringBuilder sql = new StringBuilder(SQL_DB_RETRIEVE_OTHER_NODES_BULK).append('(');
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')');
+
+        final DBUtils d = new DBUtils(RescanProcessor.class);
+        try {
+            final PreparedStatement stmt = dbc.prepareStatement(sql.toString());
+            d.watch(stmt);
+            int ndx = 1;
+            stmt.setInt(ndx++, nodeId);
+            for (final String address : batch) {
+                stmt.setString(ndx++, address);
+            }
+
+            final ResultSet rs = stmt.executeQuery();
+            d.watch(rs);
+            while (rs.next()) {
+                final Set<Integer> nodes = otherNodes.get(rs.getString(1));
+                if (nodes != null) {
+                    nodes.add(rs.getInt(2));
+                }
+            }
+        } catch (final SQLException sqlE) {
+            LOG.error("loadOtherNodes: SQLException while looking up other nodes sharing addresses with nodeid: {}", nodeId);
+            throw sqlE;
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Returns the other nodes on which an ipaddress exists, except the
+     * updating node.  Addresses not loaded in bulk are looked up on demand.
      * 
      * @param dbc
      *            Database Connection
@@ -959,26 +1062,44 @@ public final class RescanProcessor implements Runnable {
      *            Node Id of the node being rescanned
      * 
      */
-    private static boolean isDuplicateInterface(final Connection dbc, final InetAddress ifaddr, final int nodeId) throws SQLException {
+    Set<Integer> getOtherNodes(final Connection dbc, final InetAddress ifaddr, final int nodeId) throws SQLException {
+        final String ifaddrString = str(ifaddr);
+        Set<Integer> nodes = m_otherNodesByAddress.get(ifaddrString);
+        if (nodes != null) {
+            return nodes;
+        }
+
+        nodes = new HashSet<Integer>();
         final DBUtils d = new DBUtils(RescanProcessor.class);
         try {
             final PreparedStatement stmt = dbc.prepareStatement(SQL_DB_RETRIEVE_OTHER_NODES);
             d.watch(stmt);
-            stmt.setString(1, str(ifaddr));
+            stmt.setString(1, ifaddrString);
             stmt.setInt(2, nodeId);
 
             final ResultSet rs = stmt.executeQuery();
             d.watch(rs);
             while (rs.next()) {
-                return true;
+                nodes.add(rs.getInt(1));
             }
         } catch (final SQLException sqlE) {
-            LOG.error("isDuplicateInterface: SQLException while updating interface: {} on nodeid: {}", str(ifaddr), nodeId);
+            LOG.error("getOtherNodes: SQLException while looking up interface: {} on nodeid: {}", ifaddrString, nodeId);
             throw sqlE;
         } finally {
             d.cleanUp();
         }
-        return false;
+        m_otherNodesByAddress.put(ifaddrString, nodes);
+        return nodes;
+    }
+
+    /**
+     * Drops a node that has been merged into the updating node from the
+     * other-node lookups.
+     */
+    void forgetOtherNode(final int nodeId) {
+        for (final Set<Integer> nodes : m_otherNodesByAddress.values()) {
+            nodes.remove(nodeId);
+        }
     }
 
     /**
@@ -1006,8 +1127,6 @@ public final class RescanProcessor implements Runnable {
      *             if there is a problem updating the ipinterface table.
      */
     private void updateInterfaceInfo(final Connection dbc, final Date now, final DbNodeEntry node, final DbIpInterfaceEntry dbIpIfEntry, final DbIpInterfaceEntry currIpIfEntry, final boolean isNewIpEntry, final boolean isReparented) throws SQLException {
-        final PollerConfig pollerCfgFactory = PollerConfigFactory.getInstance();
-
         final InetAddress ifaddr = dbIpIfEntry.getIfAddress();
 
         /*
@@ -1070,33 +1189,95 @@ public final class RescanProcessor implements Runnable {
             m_eventList.add(createIpHostNameChangedEvent(dbIpIfEntry, originalIpIfEntry));
         }
 
-        if (isNewIpEntry) {
+        if (isNewIpEntry && dbIpIfEntry.getManagedState() == DbIpInterfaceEntry.STATE_NOT_POLLED) {
             /*
              * If it's new, the packageIpListMap needs to be rebuilt,
-             * polling status rechecked, and ismanaged updated if necessary
+             * polling status rechecked, and ismanaged updated if necessary,
+             * once the rescan has committed the interface.
              */
-            final String ifaddrString = str(ifaddr);
-            LOG.debug("updateInterfaceInfo: rebuilding PackageIpListMap for new interface {}", ifaddrString);
-            PollerConfigFactory.getInstance().rebuildPackageIpListMap();
-            org.opennms.netmgt.config.poller.Package ipPkg = ifaddrString == null? null : pollerCfgFactory.getFirstPackageMatch(ifaddrString);
-            
-            final boolean ipToBePolled = (ipPkg != null);
-            LOG.debug("updateInterfaceInfo: interface {} to be polled: {}", ifaddrString, ipToBePolled);
-            if (ipToBePolled) {
-                final DBUtils d = new DBUtils(RescanProcessor.class);
-                try {
-                    final PreparedStatement stmt = dbc.prepareStatement(SQL_DB_UPDATE_ISMANAGED);
-                    d.watch(stmt);
-                    stmt.setString(1, new String(new char[] { DbIpInterfaceEntry.STATE_MANAGED }));
-                    stmt.setLong(2, dbIpIfEntry.getNodeId());
-                    stmt.setString(3, ifaddrString);
-                    stmt.executeUpdate();
-                    LOG.debug("updateInterfaceInfo: updated managed state for new interface {} on node {} to managed", ifaddrString, dbIpIfEntry.getNodeId());
-                } finally {
-                    d.cleanUp();
+            LOG.debug("updateInterfaceInfo: rechecking polling status of new interface {} after the rescan", str(ifaddr));
+            newInterfaceAdded(ifaddr);
+        }
+    }
+
+    /**
+     * Records an interface added as not polled by the rescan.
+     */
+    void newInterfaceAdded(final InetAddress ifaddr) {
+        m_newInterfaces.put(ifaddr, new LinkedHashMap<String, Integer>());
+    }
+
+    /**
+     * Records a service added as not polled to an interface added by the
+     * rescan.
+     */
+    void newServiceAdded(final InetAddress ifaddr, final String svcName, final int serviceId) {
+        final Map<String, Integer> services = m_newInterfaces.get(ifaddr);
+        if (services != null) {
+            services.put(svcName, serviceId);
+        }
+    }
+
+    /**
+     * Rechecks the polling status of the interfaces added by the rescan,
+     * marking those now matched by a poller package as managed and updating
+     * the status of their services.  Called once the rescan has committed,
+     * since the package filters cannot see the interfaces before.
+     * 
+     * @param dbc
+     *            Database Connection.
+     * 
+     * @throws SQLException
+     *             if there is a problem updating the interfaces or services.
+     */
+    void updateNewInterfaces(final Connection dbc) throws SQLException {
+        if (m_newInterfaces.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("updateNewInterfaces: rebuilding PackageIpListMap for {} new interfaces", m_newInterfaces.size());
+        final PollerConfig pollerCfgFactory = PollerConfigFactory.getInstance();
+        pollerCfgFactory.rebuildPackageIpListMap();
+
+        final DBUtils d = new DBUtils(RescanProcessor.class);
+        try {
+            for (final Map.Entry<InetAddress, Map<String, Integer>> entry : m_newInterfaces.entrySet()) {
+                final String ifaddrString = str(entry.getKey());
+                final org.opennms.netmgt.config.poller.Package ipPkg = ifaddrString == null? null : pollerCfgFactory.getFirstPackageMatch(ifaddrString);
+
+                final boolean ipToBePolled = (ipPkg != null);
+                LOG.debug("updateNewInterfaces: interface {} to be polled: {}", ifaddrString, ipToBePolled);
+                if (!ipToBePolled) {
+                    continue;
+                }
+
+                final PreparedStatement stmt = dbc.prepareStatement(SQL_DB_UPDATE_ISMANAGED);
+                d.watch(stmt);
+                stmt.setString(1, new String(new char[] { DbIpInterfaceEntry.STATE_MANAGED }));
+                stmt.setLong(2, getNodeId());
+                stmt.setString(3, ifaddrString);
+                stmt.executeUpdate();
+                LOG.debug("updateNewInterfaces: updated managed state for new interface {} on node {} to managed", ifaddrString, getNodeId());
+
+                for (final Map.Entry<String, Integer> service : entry.getValue().entrySet()) {
+                    final char status = getServiceStatus(ifaddrString, service.getKey(), ipPkg);
+                    if (status == DbIfServiceEntry.STATUS_NOT_POLLED) {
+                        continue;
+                    }
+                    final PreparedStatement svcStmt = dbc.prepareStatement(SQL_DB_UPDATE_NOT_POLLED_SERVICE);
+                    d.watch(svcStmt);
+                    svcStmt.setString(1, new String(new char[] { status }));
+                    svcStmt.setLong(2, getNodeId());
+                    svcStmt.setString(3, ifaddrString);
+                    svcStmt.setInt(4, service.getValue());
+                    svcStmt.executeUpdate();
+                    LOG.debug("updateNewInterfaces: updated status of service {} on new interface {} to {}", service.getKey(), ifaddrString, status);
                 }
             }
+        } finally {
+            d.cleanUp();
         }
+        m_newInterfaces.clear();
     }
 
     /**
@@ -1213,8 +1394,15 @@ public final class RescanProcessor implements Runnable {
 
         final InetAddress ifaddr = dbIpIfEntry.getIfAddress();
 
-        // Retrieve from the database the interface's service list
-        DbIfServiceEntry[] dbSupportedServices = dbIpIfEntry.getServices(dbc);
+        /*
+         * Retrieve from the database the interface's service list once and
+         * keep it current in memory as new services are added.
+         */
+        final List<DbIfServiceEntry> dbSupportedServices = new ArrayList<DbIfServiceEntry>(Arrays.asList(dbIpIfEntry.getServices(dbc)));
+        final Set<Integer> dbSupportedServiceIds = new HashSet<Integer>();
+        for (final DbIfServiceEntry dbSupportedService : dbSupportedServices) {
+            dbSupportedServiceIds.add(dbSupportedService.getServiceId());
+        }
 
         final int ifIndex = dbIpIfEntry.getIfIndex();
 
@@ -1231,8 +1419,9 @@ public final class RescanProcessor implements Runnable {
          *		
          * NOTE!!!!!: (reference internal bug# 201)
          * If the ip is 'managed', the service can still be 'not polled'
-         * based on the poller configuration - at this point the ip is already
-         * in the database, so package filter evaluation should go through OK
+         * based on the poller configuration - a new ip is not visible to the
+         * package filters until the rescan commits, so its services are
+         * rechecked by updateNewInterfaces
          */
         if (LOG.isDebugEnabled()) {
             LOG.debug("updateServiceInfo: Checking for new services on host {}", dbIpIfEntry.getHostname());
@@ -1247,15 +1436,7 @@ public final class RescanProcessor implements Runnable {
              * Only adding newly supported services so check against the service
              * list retrieved from the database
              */
-            boolean found = false;
-            for (int i = 0; i < dbSupportedServices.length && !found; i++) {
-                if (dbSupportedServices[i].getServiceId() == sid.intValue()) {
-                    found = true;
-                    break;
-                }
-            }
-
-            if (!found) {
+            if (!dbSupportedServiceIds.contains(sid.intValue())) {
                 final DbIfServiceEntry ifSvcEntry = DbIfServiceEntry.create(node.getNodeId(), ifaddr, sid.intValue());
 
                 // now fill in the entry
@@ -1264,15 +1445,7 @@ public final class RescanProcessor implements Runnable {
                     ifSvcEntry.setStatus(DbIfServiceEntry.STATUS_UNMANAGED);
                 } else {
                     ipPkg = ifaddrString == null? null : pollerCfgFactory.getFirstPackageMatch(ifaddrString);
-                    if (ipPkg == null) {
-                        ifSvcEntry.setStatus(DbIfServiceEntry.STATUS_NOT_POLLED);
-                    } else if (isServicePolledLocally(ifaddrString, p.getProtocolName(), ipPkg)) {
-                        ifSvcEntry.setStatus(DbIfServiceEntry.STATUS_ACTIVE);
-                    } else if (isServicePolled(ifaddrString, p.getProtocolName(), ipPkg)) {
-                        ifSvcEntry.setStatus(DbIpInterfaceEntry.STATE_REMOTE);
-                    } else {
-                        ifSvcEntry.setStatus(DbIfServiceEntry.STATUS_NOT_POLLED);
-                    }
+                    ifSvcEntry.setStatus(getServiceStatus(ifaddrString, p.getProtocolName(), ipPkg));
                 }
 
                 /*
@@ -1296,7 +1469,12 @@ public final class RescanProcessor implements Runnable {
                     ifSvcEntry.setIfIndex(ifIndex);
                 }
 
-                ifSvcEntry.store();
+                ifSvcEntry.store(dbc, true);
+                dbSupportedServices.add(ifSvcEntry);
+                if (isNewIpEntry && ifSvcEntry.getStatus() == DbIfServiceEntry.STATUS_NOT_POLLED) {
+                    newServiceAdded(ifaddr, p.getProtocolName(), sid.intValue());
+                }
+                dbSupportedServiceIds.add(sid.intValue());
 
                 LOG.debug("updateIfServices: update service: {} for interface:{} on node:{}", p.getProtocolName(), ifaddrString, node.getNodeId());
 
@@ -1312,12 +1490,22 @@ public final class RescanProcessor implements Runnable {
                     m_eventList.add(createInterfaceSupportsSNMPEvent(dbIpIfEntry));
                 }
             }
-            // Update the supported services list
-            dbSupportedServices = dbIpIfEntry.getServices(dbc);
         } // end while(more protocols)
 
         if (m_forceRescan) {
-            updateServicesOnForcedRescan(node, dbIpIfEntry, dbSupportedServices);
+            updateServicesOnForcedRescan(dbc, node, dbIpIfEntry, dbSupportedServices);
+        }
+    }
+
+    private static char getServiceStatus(final String ifAddr, final String svcName, final org.opennms.netmgt.config.poller.Package ipPkg) {
+        if (ipPkg == null) {
+            return DbIfServiceEntry.STATUS_NOT_POLLED;
+        } else if (isServicePolledLocally(ifAddr, svcName, ipPkg)) {
+            return DbIfServiceEntry.STATUS_ACTIVE;
+        } else if (isServicePolled(ifAddr, svcName, ipPkg)) {
+            return DbIpInterfaceEntry.STATE_REMOTE;
+        } else {
+            return DbIfServiceEntry.STATUS_NOT_POLLED;
         }
     }
 
@@ -1360,7 +1548,7 @@ public final class RescanProcessor implements Runnable {
      * @throws SQLException
      *             if there is a problem updating the snmpInterface table.
      */
-    private void updateServicesOnForcedRescan(final DbNodeEntry node, final DbIpInterfaceEntry dbIpIfEntry, final DbIfServiceEntry[] dbSupportedServices) throws SQLException {
+    private void updateServicesOnForcedRescan(final Connection dbc, final DbNodeEntry node, final DbIpInterfaceEntry dbIpIfEntry, final List<DbIfServiceEntry> dbSupportedServices) throws SQLException {
         /*
          * Now process previously existing protocols to update polling status.
          * Additional checks on forced rescan for existing services go here.
@@ -1380,34 +1568,13 @@ public final class RescanProcessor implements Runnable {
         LOG.debug("updateServicesOnForcedRescan: Checking status of existing services on host {}", ifaddr);
 
         // Get service names from database
-        final Map<Integer, String> serviceNames = new HashMap<Integer, String>();
-        final DBUtils d = new DBUtils(RescanProcessor.class);
-        try {
-            final Connection ctest = DataSourceFactory.getInstance().getConnection();
-            d.watch(ctest);
-            final PreparedStatement loadStmt = ctest.prepareStatement(SQL_RETRIEVE_SERVICE_IDS);
-            d.watch(loadStmt);
+        final Map<Integer, String> serviceNames = getServiceNames(dbc);
 
-            // go ahead and load the service table
-            final ResultSet rs = loadStmt.executeQuery();
-            d.watch(rs);
-            while (rs.next()) {
-                final Integer id = Integer.valueOf(rs.getInt(1));
-                final String name = rs.getString(2);
-                serviceNames.put(id, name);
-            }
-        } catch (final Throwable t) {
-            LOG.error("Error reading services table", t);
-        } finally {
-            d.cleanUp();
-        }
-
-        for (int i = 0; i < dbSupportedServices.length; i++) {
-            final Integer id = dbSupportedServices[i].getServiceId();
+        for (final DbIfServiceEntry ifSvcEntry : dbSupportedServices) {
+            final Integer id = ifSvcEntry.getServiceId();
             final String sn = (serviceNames.get(id)).toString();
 
-            final DbIfServiceEntry ifSvcEntry = DbIfServiceEntry.get(node.getNodeId(), ifaddr, dbSupportedServices[i].getServiceId());
-            LOG.debug("updateServicesOnForcedRescan: old status for nodeId {}, ifaddr {}, serviceId {} = {}", node.getNodeId(), ifaddr, dbSupportedServices[i].getServiceId(), ifSvcEntry.getStatus());
+            LOG.debug("updateServicesOnForcedRescan: old status for nodeId {}, ifaddr {}, serviceId {} = {}", node.getNodeId(), ifaddr, id, ifSvcEntry.getStatus());
 
             // now fill in the entry
 
@@ -1488,15 +1655,46 @@ public final class RescanProcessor implements Runnable {
             }
 
             if (svcChangeToActive) {
-                ifSvcEntry.store();
+                ifSvcEntry.store(dbc, true);
                 m_eventList.add(createResumePollingServiceEvent(node, dbIpIfEntry, sn));
             } else if (svcChangeToNotPolled || svcChangeToForced) {
-                ifSvcEntry.store();
+                ifSvcEntry.store(dbc, true);
                 m_eventList.add(createSuspendPollingServiceEvent(node, dbIpIfEntry, sn));
             }
         }
     }
 
+
+    /**
+     * Reads the service table once per rescan.
+     */
+    private Map<Integer, String> getServiceNames(final Connection dbc) {
+        if (m_serviceNames != null) {
+            return m_serviceNames;
+        }
+
+        final Map<Integer, String> serviceNames = new HashMap<Integer, String>();
+        final DBUtils d = new DBUtils(RescanProcessor.class);
+        try {
+            final PreparedStatement loadStmt = dbc.prepareStatement(SQL_RETRIEVE_SERVICE_IDS);
+            d.watch(loadStmt);
+
+            // go ahead and load the service table
+            final ResultSet rs = loadStmt.executeQuery();
+            d.watch(rs);
+            while (rs.next()) {
+                final Integer id = Integer.valueOf(rs.getInt(1));
+                final String name = rs.getString(2);
+                serviceNames.put(id, name);
+            }
+            m_serviceNames = serviceNames;
+        } catch (final SQLException e) {
+            LOG.error("Error reading services table", e);
+        } finally {
+            d.cleanUp();
+        }
+        return serviceNames;
+    }
     /**
      * This method is responsible for updating the snmpInterface table entry for
      * a specific interface.
@@ -2386,6 +2584,24 @@ public final class RescanProcessor implements Runnable {
             return;
         }
 
+        final PhaseTimings timings = new PhaseTimings();
+        if (PROBE_THREADS > 1) {
+            m_probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS, new LogPreservingThreadFactory("RescanProbe-" + getNodeId(), PROBE_THREADS, false));
+        }
+        try {
+            rescan(dbNodeEntry, dbInterfaces, timings);
+        } finally {
+            if (m_probeExecutor != null) {
+                m_probeExecutor.shutdownNow();
+                m_probeExecutor = null;
+            }
+        }
+
+        LOG.info("{}escan of node {} completed: {}", (m_forceRescan ? "Forced r" : "R"), getNodeId(), timings);
+    }
+
+    private void rescan(final DbNodeEntry dbNodeEntry, final DbIpInterfaceEntry[] dbInterfaces, final PhaseTimings timings) {
+
         // this indicates whether or not we found an iface the responds to snmp
         boolean doesSnmp = true;
 
@@ -2430,6 +2646,7 @@ public final class RescanProcessor implements Runnable {
                 LOG.debug("running collection for {}", ifaddrString);
 
                 final IfCollector collector = new IfCollector(m_pluginManager, ifaddr, true, probedAddrs);
+                collector.setProbeExecutor(m_probeExecutor);
                 collector.run();
 
                 final IfSnmpCollector snmpc = collector.getSnmpCollector();
@@ -2515,6 +2732,7 @@ public final class RescanProcessor implements Runnable {
             LOG.debug("SNMP collection for node: {} does not agree with database, but there is no conflict among the interfaces on this node which respond to SNMP. Proceeding...", getNodeId());
             m_eventList.add(createSnmpConflictsWithDbEvent(dbNodeEntry));
         }
+        timings.mark("collect");
 
         final DBUtils d = new DBUtils();
 
@@ -2532,32 +2750,73 @@ public final class RescanProcessor implements Runnable {
             LOG.debug("Waiting for capsd dbLock to process {}", getNodeId());
             synchronized (Capsd.getDbSyncLock()) {
                 LOG.debug("Got capsd dbLock. processing {}", getNodeId());
+                timings.mark("lockWait");
+
                 // Get database connection
                 final Connection dbc = DataSourceFactory.getInstance().getConnection();
                 d.watch(dbc);
 
                 /*
-                 * There is a slight possibility that the node being rescanned
-                 * has been deleted (due to reparenting) by another thread
-                 * between the time this rescan was started and the database
-                 * sync lock was grabbed. Verify that the current nodeid is
-                 * still valid (ie, not deleted) before continuing.
+                 * All of the rescan's changes are applied in one transaction
+                 * so that a failure part way through leaves the node as it
+                 * was rather than half updated.
                  */
-                if (!isNodeDeleted(dbc, getNodeId())) {
-                    // Update interface information
-                    final Date now = new Date();
-                    updateInterfaces(dbc, now, dbNodeEntry, collectorMap, doesSnmp);
-
-                    if (doesSnmp) {
-                        InetAddress oldPriIf = null;
-                        if (oldPrimarySnmpInterface != null) {
-                            oldPriIf = oldPrimarySnmpInterface.getIfAddress();
+                dbc.setAutoCommit(false);
+                boolean committed = false;
+                try {
+                    /*
+                     * There is a slight possibility that the node being rescanned
+                     * has been deleted (due to reparenting) by another thread
+                     * between the time this rescan was started and the database
+                     * sync lock was grabbed. Verify that the current nodeid is
+                     * still valid (ie, not deleted) before continuing.
+                     */
+                    if (!isNodeDeleted(dbc, getNodeId())) {
+                        // Load the database state shared by all of the node's interfaces
+                        loadOtherNodes(dbc, getCollectedAddresses(collectorMap), getNodeId());
+                        timings.mark("load");
+
+                        // Update interface information
+                        final Date now = new Date();
+                        updateInterfaces(dbc, now, dbNodeEntry, collectorMap, doesSnmp);
+                        timings.mark("interfaces");
+
+                        if (doesSnmp) {
+                            InetAddress oldPriIf = null;
+                            if (oldPrimarySnmpInterface != null) {
+                                oldPriIf = oldPrimarySnmpInterface.getIfAddress();
+                            }
+                            final InetAddress newSnmpPrimaryIf = updatePrimarySnmpInterface(dbc, dbNodeEntry, collectorMap, oldPriIf);
+                            updateNode(dbc, now, dbNodeEntry, newSnmpPrimaryIf, dbInterfaces, collectorMap);
+                            timings.mark("node");
                         }
-                        final InetAddress newSnmpPrimaryIf = updatePrimarySnmpInterface(dbc, dbNodeEntry, collectorMap, oldPriIf);
-                        updateNode(dbc, now, dbNodeEntry, newSnmpPrimaryIf, dbInterfaces, collectorMap);
+                        updateCompleted = true;
+                        m_eventList.add(createRescanCompletedEvent(dbNodeEntry));
+                    }
+                    dbc.commit();
+                    committed = true;
+                    timings.mark("commit");
+                } finally {
+                    if (!committed) {
+                        updateCompleted = false;
+                        dbc.rollback();
                     }
-                    updateCompleted = true;
-                    m_eventList.add(createRescanCompletedEvent(dbNodeEntry));
+                }
+
+                /*
+                 * The new interfaces are only visible to the poller package
+                 * filters now that they are committed.  Failing to update
+                 * them leaves them not polled until the next rescan.
+                 */
+                if (updateCompleted) {
+                    try {
+                        updateNewInterfaces(dbc);
+                        dbc.commit();
+                    } catch (final SQLException e) {
+                        LOG.warn("Unable to update the polling status of the new interfaces of node {}", getNodeId(), e);
+                        dbc.rollback();
+                    }
+                    timings.mark("newInterfaces");
                 }
             }
         } catch (final Throwable t) {
@@ -2583,8 +2842,50 @@ public final class RescanProcessor implements Runnable {
                 }
             }
         }
+        timings.mark("events");
+    }
 
-        LOG.debug("{}escan for node w/ nodeid {} completed.", (m_forceRescan ? "Forced r" : "R"), getNodeId());
+    /**
+     * Returns the addresses of every interface and sub-interface found by
+     * the collectors.
+     */
+    static Set<String> getCollectedAddresses(final Map<String, IfCollector> collectorMap) {
+        final Set<String> addresses = new HashSet<String>();
+        for (final IfCollector ifc : collectorMap.values()) {
+            final String target = str(ifc.getTarget());
+            if (target != null) {
+                addresses.add(target);
+            }
+            if (ifc.hasAdditionalTargets()) {
+                for (final InetAddress subTarget : ifc.getAdditionalTargets().keySet()) {
+                    final String subTargetString = str(subTarget);
+                    if (subTargetString != null) {
+                        addresses.add(subTargetString);
+                    }
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Records how long each phase of a rescan took, for logging.
+     */
+    private static final class PhaseTimings {
+        private final long m_start = System.currentTimeMillis();
+        private long m_last = m_start;
+        private final StringBuilder m_phases = new StringBuilder();
+
+        public void mark(final String phase) {
+            final long now = System.currentTimeMillis();
+            m_phases.append(phase).append('=').append(now - m_last).append("ms, ");
+            m_last = now;
+        }
+
+        @Override
+        public String toString() {
+            return m_phases.toString() + "total=" + (System.currentTimeMillis() - m_start) + "ms";
+        }
     }
 
     /**
@@ -2623,6 +2924,7 @@ public final class RescanProcessor implements Runnable {
 
         LOG.debug("running collection for DB primary SNMP interface {}", ifaddrString);
         final IfCollector collector = new IfCollector(m_pluginManager, ifaddr, true, probedAddrs);
+        collector.setProbeExecutor(m_probeExecutor);
         collector.run();
 
         final IfSnmpCollector snmpc = collector.getSnmpCollector();
@@ -48,7 +48,7 @@ public class AliasedAttribute extends SnmpAttribute {
 	 * @param attr a {@link org.opennms.netmgt.collectd.SnmpAttribute} object.
 	 */
 	public AliasedAttribute(CollectionResource resource, SnmpAttribute attr) {
-		super(resource, (SnmpAttributeType)attr.getAttributeType(), attr.getValue());
+		super(resource, attr);
 		m_attr = attr;
 	}
 
@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionException;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.model.events.EventProxy;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives SNMP collections without tying up a collectd thread per walk.
+ *
+ * <p>A small pool of driver threads admits queued requests, subject to a
+ * per-agent limit on concurrent walks and a global rate limit on walk
+ * starts, and starts the walk.  The walk then progresses entirely on the
+ * SNMP strategy's response threads through the
+ * {@link org.opennms.netmgt.snmp.CollectionTracker} callbacks.  Completed
+ * walks are handed to a persistence executor and from there to a
+ * thresholding executor, so that network I/O, disk writes and threshold
+ * evaluation for different services overlap.</p>
+ *
+ * <p>The engine is disabled unless
+ * <code>org.opennms.netmgt.collectd.async.enabled</code> is set.</p>
+ */
+public class AsyncSnmpCollectionEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSnmpCollectionEngine.class);
+
+    /**
+     * The stages run for a collection once its walk is done.  {@link #persist}
+     * runs on the persistence executor, {@link #threshold} and
+     * {@link #completed} on the thresholding executor.  If the walk fails
+     * only {@link #completed} is called.
+     */
+    public static interface Listener {
+        void persist(CollectionSet collectionSet);
+        void threshold(CollectionSet collectionSet);
+        void completed(CollectionSet collectionSet, CollectionException e);
+    }
+
+    private static AsyncSnmpCollectionEngine s_instance;
+
+    private final int m_maxInFlightPerAgent;
+    private final RateLimiter m_rateLimiter;
+    private final BlockingQueue<Request> m_ready = new LinkedBlockingQueue<Request>();
+    private final Map<String, AgentQueue> m_agents = new HashMap<String, AgentQueue>();
+    private final ExecutorService m_drivers;
+    private final ExecutorService m_persisters;
+    private final ExecutorService m_thresholders;
+    private volatile boolean m_running = true;
+
+    private final AtomicLong m_submitted = new AtomicLong();
+    private final AtomicLong m_started = new AtomicLong();
+    private final AtomicLong m_completed = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+    private final AtomicLong m_walkTime = new AtomicLong();
+
+    /**
+     * Returns the shared engine, or null if asynchronous collection is not
+     * enabled.
+     */
+    public static synchronized AsyncSnmpCollectionEngine getInstance() {
+        if (s_instance == null && Boolean.getBoolean("org.opennms.netmgt.collectd.async.enabled")) {
+            s_instance = new AsyncSnmpCollectionEngine(
+                                                       Integer.getInteger("org.opennms.netmgt.collectd.async.driverThreads", 2),
+                                                       Integer.getInteger("org.opennms.netmgt.collectd.async.maxInFlightPerAgent", 1),
+                                                       Integer.getInteger("org.opennms.netmgt.collectd.async.maxWalksPerSecond", 0),
+                                                       Integer.getInteger("org.opennms.netmgt.collectd.async.persistThreads", 4),
+                                                       Integer.getInteger("org.opennms.netmgt.collectd.async.thresholdThreads", 2)
+                    );
+        }
+        return s_instance;
+    }
+
+    /**
+     * Stops the shared engine, if one was started.
+     */
+    public static synchronized void shutdownInstance() {
+        if (s_instance != null) {
+            s_instance.shutdown();
+            s_instance = null;
+        }
+    }
+
+    /**
+     * <p>Constructor for AsyncSnmpCollectionEngine.</p>
+     *
+     * @param driverThreads the number of threads admitting and starting walks
+     * @param maxInFlightPerAgent the maximum number of concurrent walks against a single agent address
+     * @param maxWalksPerSecond the maximum number of walks started per second, or 0 for no limit
+     * @param persistThreads the number of threads persisting collection sets
+     * @param thresholdThreads the number of threads evaluating thresholds
+     */
+    public AsyncSnmpCollectionEngine(int driverThreads, int maxInFlightPerAgent, int maxWalksPerSecond, int persistThreads, int thresholdThreads) {
+        m_maxInFlightPerAgent = Math.max(1, maxInFlightPerAgent);
+        m_rateLimiter = new RateLimiter(maxWalksPerSecond);
+        m_drivers = Executors.newFixedThreadPool(driverThreads, new LogPreservingThreadFactory("CollectdAsyncDriver", driverThreads, false));
+        m_persisters = Executors.newFixedThreadPool(persistThreads, new LogPreservingThreadFactory("CollectdAsyncPersister", persistThreads, false));
+        m_thresholders = Executors.newFixedThreadPool(thresholdThreads, new LogPreservingThreadFactory("CollectdAsyncThresholder", thresholdThreads, false));
+        for (int i = 0; i < driverThreads; i++) {
+            m_drivers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drive();
+                }
+            });
+        }
+        LOG.info("Started asynchronous SNMP collection with {} driver threads, {} walks per agent, {} walks per second", driverThreads, m_maxInFlightPerAgent, maxWalksPerSecond <= 0 ? "unlimited" : maxWalksPerSecond);
+    }
+
+    /**
+     * Queues a collection.  The listener is always notified through
+     * {@link Listener#completed}, including when the collection could not be
+     * started.
+     *
+     * @param collector the collector the agent is configured for
+     * @param agent the agent to collect from
+     * @param eventProxy the proxy used for rescan events
+     * @param parameters the collector parameters
+     * @param listener the stages to run once the walk is done
+     */
+    public void submit(SnmpCollector collector, CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters, Listener listener) {
+        final Request request = new Request(collector, agent, eventProxy, parameters, listener);
+        m_submitted.incrementAndGet();
+        synchronized (m_agents) {
+            AgentQueue queue = m_agents.get(request.getKey());
+            if (queue == null) {
+                queue = new AgentQueue();
+                m_agents.put(request.getKey(), queue);
+            }
+            if (queue.inFlight < m_maxInFlightPerAgent) {
+                queue.inFlight++;
+                m_ready.add(request);
+            } else {
+                LOG.debug("submit: {} already has {} walks in flight, deferring collection", request.getKey(), queue.inFlight);
+                queue.pending.add(request);
+            }
+        }
+    }
+
+    private void drive() {
+        while (m_running) {
+            final Request request;
+            try {
+                request = m_ready.take();
+                m_rateLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Logging.withPrefix(Collectd.LOG4J_CATEGORY, new Runnable() {
+                @Override
+                public void run() {
+                    request.start();
+                }
+            });
+        }
+    }
+
+    /**
+     * Frees the agent slot used by a request, admitting the next deferred
+     * request for the same agent if there is one.
+     */
+    private void release(Request request) {
+        synchronized (m_agents) {
+            final AgentQueue queue = m_agents.get(request.getKey());
+            if (queue == null) {
+                return;
+            }
+            final Request next = queue.pending.poll();
+            if (next != null) {
+                m_ready.add(next);
+            } else if (--queue.inFlight == 0) {
+                m_agents.remove(request.getKey());
+            }
+        }
+    }
+
+    /**
+     * Stops admitting collections and waits briefly for queued stages to
+     * drain.
+     */
+    public void shutdown() {
+        m_running = false;
+        m_drivers.shutdownNow();
+        m_persisters.shutdown();
+        m_thresholders.shutdown();
+        try {
+            m_persisters.awaitTermination(30, TimeUnit.SECONDS);
+            m_thresholders.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Stopped asynchronous SNMP collection: {}", this);
+    }
+
+    public long getSubmittedCount() {
+        return m_submitted.get();
+    }
+
+    public long getStartedCount() {
+        return m_started.get();
+    }
+
+    public long getCompletedCount() {
+        return m_completed.get();
+    }
+
+    public long getFailedCount() {
+        return m_failed.get();
+    }
+
+    /**
+     * @return the number of admitted collections waiting for a driver thread
+     */
+    public int getReadyCount() {
+        return m_ready.size();
+    }
+
+    /**
+     * @return the number of walks started but not yet completed
+     */
+    public long getInFlightCount() {
+        return m_started.get() - m_completed.get() - m_failed.get();
+    }
+
+    /**
+     * @return the average wall clock time of a walk in milliseconds
+     */
+    public long getAverageWalkTime() {
+        final long count = m_completed.get() + m_failed.get();
+        return count == 0 ? 0 : m_walkTime.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncSnmpCollectionEngine[submitted=" + getSubmittedCount() + ", started=" + getStartedCount() + ", completed=" + getCompletedCount() + ", failed=" + getFailedCount() + ", averageWalkTime=" + getAverageWalkTime() + "ms]";
+    }
+
+    private static class AgentQueue {
+        int inFlight = 0;
+        final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+    }
+
+    private class Request implements SnmpWalker.Callback {
+        private final SnmpCollector m_collector;
+        private final CollectionAgent m_agent;
+        private final EventProxy m_eventProxy;
+        private final Map<String, Object> m_parameters;
+        private final Listener m_listener;
+        private SnmpCollectionSet m_collectionSet;
+        private long m_startTime;
+
+        public Request(SnmpCollector collector, CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters, Listener listener) {
+            m_collector = collector;
+            m_agent = agent;
+            m_eventProxy = eventProxy;
+            m_parameters = parameters;
+            m_listener = listener;
+        }
+
+        public String getKey() {
+            return m_agent.getHostAddress();
+        }
+
+        public void start() {
+            m_started.incrementAndGet();
+            m_startTime = System.currentTimeMillis();
+            try {
+                m_collectionSet = m_collector.createCollectionSet(m_agent, m_parameters);
+                m_collectionSet.startCollection(this);
+            } catch (Throwable t) {
+                release(this);
+                fail(new CollectionException("Unexpected error starting SNMP collection for: " + m_agent.getHostAddress(), t));
+            }
+        }
+
+        @Override
+        public void complete(final SnmpWalker walker) {
+            m_walkTime.addAndGet(System.currentTimeMillis() - m_startTime);
+            release(this);
+            execute(m_persisters, new Runnable() {
+                @Override
+                public void run() {
+                    persist(walker);
+                }
+            });
+        }
+
+        private void persist(SnmpWalker walker) {
+            try {
+                m_collectionSet.finishCollection(walker);
+                m_collector.checkForceRescan(m_collectionSet, m_eventProxy);
+            } catch (CollectionException e) {
+                fail(e);
+                return;
+            }
+            m_completed.incrementAndGet();
+            try {
+                m_listener.persist(m_collectionSet);
+            } catch (Throwable t) {
+                LOG.error("Unexpected error persisting data for {}", m_agent.getHostAddress(), t);
+            }
+            execute(m_thresholders, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m_listener.threshold(m_collectionSet);
+                    } catch (Throwable t) {
+                        LOG.error("Unexpected error evaluating thresholds for {}", m_agent.getHostAddress(), t);
+                    }
+                    m_listener.completed(m_collectionSet, null);
+                }
+            });
+        }
+
+        private void fail(CollectionException e) {
+            m_failed.incrementAndGet();
+            m_listener.completed(m_collectionSet, e);
+        }
+
+        private void execute(ExecutorService executor, final Runnable runnable) {
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    Logging.withPrefix(Collectd.LOG4J_CATEGORY, runnable);
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shutting down; finish the work here rather than drop it
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Spaces out permits evenly; a rate of zero or less never blocks.
+     */
+    static class RateLimiter {
+        private final long m_intervalNanos;
+        private long m_next = System.nanoTime();
+
+        public RateLimiter(int permitsPerSecond) {
+            m_intervalNanos = permitsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        }
+
+        public void acquire() throws InterruptedException {
+            if (m_intervalNanos == 0) {
+                return;
+            }
+            final long wait;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                final long slot = m_next - now > 0 ? m_next : now;
+                m_next = slot + m_intervalNanos;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
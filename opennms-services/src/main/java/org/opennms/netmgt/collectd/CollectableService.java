@@ -315,21 +315,15 @@ final class CollectableService implements ReadyRunnable {
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
+            if (m_spec.collectAsync(m_agent, new AsyncCollection())) {
+                // AsyncCollection updates the status and reschedules
+                return;
+            }
             try {
                 doCollection();
                 updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
             } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+                handleCollectionFailure(e);
             }
         }
         
@@ -337,6 +331,57 @@ final class CollectableService implements ReadyRunnable {
         m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
     }
 
+    private void handleCollectionFailure(Throwable e) {
+        if (e instanceof CollectionTimedOut) {
+            LOG.info(e.getMessage());
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionTimedOut)e);
+        } else if (e instanceof CollectionWarning) {
+            LOG.warn(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionWarning)e);
+        } else if (e instanceof CollectionException) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionException)e);
+        } else {
+            LOG.error(e.getMessage(), e);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Runs the persistence and thresholding steps of {@link #doCollection()}
+     * for a collection driven by the {@link AsyncSnmpCollectionEngine} and
+     * reschedules the service once it is done.
+     */
+    private class AsyncCollection implements AsyncSnmpCollectionEngine.Listener {
+        @Override
+        public void persist(CollectionSet result) {
+            CollectableService.this.persist(result);
+        }
+
+        @Override
+        public void threshold(CollectionSet result) {
+            CollectableService.this.threshold(result);
+        }
+
+        @Override
+        public void completed(CollectionSet result, CollectionException e) {
+            try {
+                if (e == null && result != null && result.getStatus() != ServiceCollector.COLLECTION_SUCCEEDED) {
+                    e = new CollectionFailed(result.getStatus());
+                }
+                if (e == null) {
+                    LOG.info("run: finished collection for {}/{}/{}", getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+                    updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
+                } else {
+                    LOG.warn("run: failed collection for {}/{}/{}", getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+                    handleCollectionFailure(e);
+                }
+            } finally {
+                m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
+            }
+        }
+    }
+
     private void updateStatus(int status, CollectionException e) {
         // Any change in status?
         if (status != m_status) {
@@ -384,27 +429,9 @@ final class CollectableService implements ReadyRunnable {
 		try {
 		    result = m_spec.collect(m_agent);
 		    if (result != null) {
-                        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        try {
-                            BasePersister persister = createPersister(m_params, m_repository);
-                            persister.setIgnorePersist(result.ignorePersist());
-                            result.visit(persister);
-                        } finally {
-                            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        }
-                        
-                        /*
-                         * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
-                         * The first person who actually needs to configure that sort of thing on the fly can code it up.
-                         */
-                        if (m_thresholdVisitor != null) {
-                            if (m_thresholdVisitor.isNodeInOutage()) {
-                                LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
-                            } else if (m_thresholdVisitor.hasThresholds()) {
-                                result.visit(m_thresholdVisitor);
-                            }
-                        }
-                       
+                        persist(result);
+                        threshold(result);
+
                         if (result.getStatus() != ServiceCollector.COLLECTION_SUCCEEDED) {
                             throw new CollectionFailed(result.getStatus());
                         }
@@ -419,6 +446,31 @@ final class CollectableService implements ReadyRunnable {
 		LOG.info("run: finished collection for {}/{}/{}", getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 	}
 
+    private void persist(CollectionSet result) {
+        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        try {
+            BasePersister persister = createPersister(m_params, m_repository);
+            persister.setIgnorePersist(result.ignorePersist());
+            result.visit(persister);
+        } finally {
+            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        }
+    }
+
+    /*
+     * Do the thresholding; this could be made more generic (listeners being passed the collectionset), but frankly, why bother?
+     * The first person who actually needs to configure that sort of thing on the fly can code it up.
+     */
+    private void threshold(CollectionSet result) {
+        if (m_thresholdVisitor != null) {
+            if (m_thresholdVisitor.isNodeInOutage()) {
+                LOG.info("run: the threshold processing will be skipped because the node {} is on a scheduled outage.", m_nodeId);
+            } else if (m_thresholdVisitor.hasThresholds()) {
+                result.visit(m_thresholdVisitor);
+            }
+        }
+    }
+
 	/**
      * Process any outstanding updates.
      * 
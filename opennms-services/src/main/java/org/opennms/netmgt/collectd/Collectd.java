@@ -337,6 +337,7 @@ public class Collectd extends AbstractServiceDaemon implements
     protected void onStop() {
         getScheduler().stop();
         deinstallMessageSelectors();
+        AsyncSnmpCollectionEngine.shutdownInstance();
 
         setScheduler(null);
     }
@@ -187,6 +187,18 @@ public interface CollectdInstrumentation {
      * @param e a {@link org.opennms.netmgt.collection.api.CollectionException} object.
      */
     void reportCollectionException(String packageName, int nodeid, String ipAddress, String svcName, CollectionException e);
+    /**
+     * <p>reportSnmpWalk</p>
+     *
+     * @param nodeId a int.
+     * @param ipAddress a {@link java.lang.String} object.
+     * @param roundTrips the number of requests the walk sent
+     * @param bytesSent the encoded size of the requests
+     * @param bytesReceived the encoded size of the responses
+     * @param maxVarsPerPdu the max-vars-per-pdu the walk ended with
+     * @param maxRepetitions the max-repetitions the walk used
+     */
+    void reportSnmpWalk(int nodeId, String ipAddress, long roundTrips, long bytesSent, long bytesReceived, int maxVarsPerPdu, int maxRepetitions);
     
 
 }
@@ -281,6 +281,46 @@ public class CollectionSpecification {
         }
     }
 
+    /**
+     * Hands the collection to the {@link AsyncSnmpCollectionEngine} if it is
+     * enabled and this is an SNMP collection.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @param listener the stages to run once the walk is done
+     * @return false if the collection must be run synchronously with {@link #collect(CollectionAgent)}
+     */
+    public boolean collectAsync(final CollectionAgent agent, final AsyncSnmpCollectionEngine.Listener listener) {
+        if (!(getCollector() instanceof SnmpCollector)) {
+            return false;
+        }
+        final AsyncSnmpCollectionEngine engine = AsyncSnmpCollectionEngine.getInstance();
+        if (engine == null) {
+            return false;
+        }
+        Collectd.instrumentation().beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        engine.submit((SnmpCollector)getCollector(), agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap(), new AsyncSnmpCollectionEngine.Listener() {
+            @Override
+            public void persist(CollectionSet collectionSet) {
+                listener.persist(collectionSet);
+            }
+
+            @Override
+            public void threshold(CollectionSet collectionSet) {
+                listener.threshold(collectionSet);
+            }
+
+            @Override
+            public void completed(CollectionSet collectionSet, CollectionException e) {
+                Collectd.instrumentation().endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+                if (e != null) {
+                    Collectd.instrumentation().reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, e);
+                }
+                listener.completed(collectionSet, e);
+            }
+        });
+        return true;
+    }
+
     /**
      * <p>scheduledOutage</p>
      *
@@ -211,4 +211,13 @@ public class DefaultCollectdInstrumentation implements CollectdInstrumentation {
         });
     }
 
+    @Override
+    public void reportSnmpWalk(final int nodeId, final String ipAddress, final long roundTrips, final long bytesSent, final long bytesReceived, final int maxVarsPerPdu, final int maxRepetitions) {
+        Logging.withPrefix("instrumentation", new Runnable() {
+            @Override public void run() {
+                LOG.debug("collector.snmpWalk: {}/{}: roundTrips={} bytesSent={} bytesReceived={} maxVarsPerPdu={} maxRepetitions={}", nodeId, ipAddress, roundTrips, bytesSent, bytesReceived, maxVarsPerPdu, maxRepetitions);
+            }
+        });
+    }
+
 }
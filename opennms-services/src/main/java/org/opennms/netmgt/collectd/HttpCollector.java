@@ -51,7 +51,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import javax.net.ssl.SSLContext;
 
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
@@ -69,11 +68,7 @@ import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
@@ -109,6 +104,7 @@ import org.opennms.netmgt.config.httpdatacollection.Parameter;
 import org.opennms.netmgt.config.httpdatacollection.Uri;
 import org.opennms.netmgt.model.events.EventProxy;
 import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.utils.HttpClientPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -271,35 +267,25 @@ public class HttpCollector implements ServiceCollector {
 
         DefaultHttpClient client = null;
         HttpUriRequest method = null;
+        HttpResponse response = null;
 
         try {
             HttpParams params = buildParams(collectionSet);
-            client = new DefaultHttpClient(params);
-            if ("https".equals(collectionSet.getUriDef().getUrl().getScheme())) {
-                final SchemeRegistry registry = client.getConnectionManager().getSchemeRegistry();
-                final Scheme https = registry.getScheme("https");
-
-                // Override the trust validation with a lenient implementation
-                final SSLSocketFactory factory = new SSLSocketFactory(SSLContext.getInstance(EmptyKeyRelaxedTrustSSLContext.ALGORITHM), SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-
-                final Scheme lenient = new Scheme(https.getName(), https.getDefaultPort(), factory);
-                // This will replace the existing "https" schema
-                registry.register(lenient);
-            }
 
             String key = ParameterName.RETRY.toString();
             if (collectionSet.getParameters().containsKey(ParameterName.RETRIES.toString())) {
                 key = ParameterName.RETRIES.toString();
             }
             Integer retryCount = ParameterMap.getKeyedInteger(collectionSet.getParameters(), key, DEFAULT_RETRY_COUNT);
-            client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retryCount, false));
+            // Connections are leased from the shared pool and kept alive between collections
+            client = HttpClientPool.getInstance().createHttpClient(params, retryCount, "https".equals(collectionSet.getUriDef().getUrl().getScheme()));
             method = buildHttpMethod(collectionSet);
             method.getParams().setParameter(CoreProtocolPNames.USER_AGENT, determineUserAgent(collectionSet, params));
 
             buildCredentials(collectionSet, client, method);
 
             LOG.info("doCollection: collecting for client: {} using method: {}", client, method);
-            HttpResponse response = client.execute(method);
+            response = client.execute(method);
             //Not really a persist as such; it just stores data in collectionSet for later retrieval
             persistResponse(collectionSet, collectionResource, client, response);
         } catch (URISyntaxException e) {
@@ -313,9 +299,7 @@ public class HttpCollector implements ServiceCollector {
         } catch (Throwable e) {
             throw new HttpCollectorException("Unexpected exception caught during HTTP collection", e);
         } finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
-            }
+            HttpClientPool.release(method, response);
         }
     }
 
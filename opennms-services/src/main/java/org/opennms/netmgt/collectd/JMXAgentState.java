@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.opennms.protocols.jmx.connectors.ConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the state the JMX collectors keep for an agent between collections:
+ * the connection to its MBean server, the result of the wildcard object name
+ * queries, and the connect and collect timings.
+ */
+public class JMXAgentState {
+    private static final Logger LOG = LoggerFactory.getLogger(JMXAgentState.class);
+
+    private final String m_name;
+
+    private ConnectionWrapper m_connection;
+    private long m_lastUsed;
+
+    private final Map<String, ObjectNameQuery> m_queries = new HashMap<String, ObjectNameQuery>();
+
+    private long m_connectCount;
+    private long m_collectCount;
+    private long m_lastConnectTime = -1;
+    private long m_lastCollectTime = -1;
+    private long m_totalConnectTime;
+    private long m_totalCollectTime;
+
+    private static class ObjectNameQuery {
+        private final Set<ObjectName> m_names;
+        private final long m_timestamp;
+
+        public ObjectNameQuery(final Set<ObjectName> names, final long timestamp) {
+            m_names = names;
+            m_timestamp = timestamp;
+        }
+    }
+
+    /**
+     * <p>Constructor for JMXAgentState.</p>
+     *
+     * @param name the name of the agent used when logging
+     */
+    public JMXAgentState(final String name) {
+        m_name = name;
+    }
+
+    /**
+     * Returns the cached connection if there is one and it is still alive.
+     * A connection that has not been used for longer than
+     * <code>checkInterval</code> milliseconds is checked with a cheap call to
+     * the MBean server first, and closed if the call fails.
+     *
+     * @param checkInterval the idle time after which the connection is checked
+     * @return the connection, or null if a new one must be opened
+     */
+    public synchronized ConnectionWrapper getConnection(final long checkInterval) {
+        if (m_connection == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - m_lastUsed > checkInterval) {
+            try {
+                m_connection.getMBeanServer().getMBeanCount();
+            } catch (final Exception e) {
+                LOG.debug("getConnection: cached connection to {} is no longer usable, reconnecting", m_name, e);
+                closeConnection();
+                return null;
+            }
+        }
+        m_lastUsed = System.currentTimeMillis();
+        return m_connection;
+    }
+
+    /**
+     * Caches a newly opened connection and records how long it took to open it.
+     *
+     * @param connection the connection
+     * @param connectTime the time spent connecting, in milliseconds
+     */
+    public synchronized void setConnection(final ConnectionWrapper connection, final long connectTime) {
+        closeConnection();
+        m_connection = connection;
+        m_lastUsed = System.currentTimeMillis();
+        m_connectCount++;
+        m_lastConnectTime = connectTime;
+        m_totalConnectTime += connectTime;
+    }
+
+    /**
+     * Closes the cached connection, if any.
+     */
+    public synchronized void closeConnection() {
+        if (m_connection != null) {
+            try {
+                m_connection.close();
+            } catch (final Throwable t) {
+                LOG.debug("closeConnection: failed to close the connection to {}", m_name, t);
+            }
+            m_connection = null;
+        }
+    }
+
+    /**
+     * Returns the object names matching a wildcard object name.  The result
+     * of the query is reused for <code>refreshInterval</code> milliseconds,
+     * so that each collection doesn't need a <code>queryNames</code> round
+     * trip; a refresh interval of 0 or less always queries the server.
+     *
+     * @param mbeanServer the MBean server to query
+     * @param objectName the wildcard object name
+     * @param refreshInterval how long the result of a query is reused
+     * @return the matching object names
+     * @throws IOException if the query fails
+     * @throws MalformedObjectNameException if the object name is not valid
+     */
+    public synchronized Set<ObjectName> getObjectNames(final MBeanServerConnection mbeanServer, final String objectName, final long refreshInterval) throws IOException, MalformedObjectNameException {
+        final long now = System.currentTimeMillis();
+        final ObjectNameQuery query = m_queries.get(objectName);
+        if (query != null && now - query.m_timestamp < refreshInterval) {
+            return query.m_names;
+        }
+        final Set<ObjectName> names = mbeanServer.queryNames(new ObjectName(objectName), null);
+        if (refreshInterval > 0) {
+            m_queries.put(objectName, new ObjectNameQuery(names, now));
+        }
+        return names;
+    }
+
+    /**
+     * Discards the cached result of a wildcard object name query, for example
+     * because one of the MBeans it returned has been unregistered.
+     *
+     * @param objectName the wildcard object name
+     */
+    public synchronized void forgetObjectNames(final String objectName) {
+        m_queries.remove(objectName);
+    }
+
+    /**
+     * Records how long a collection took.
+     *
+     * @param collectTime the time spent collecting, in milliseconds
+     */
+    public synchronized void collected(final long collectTime) {
+        m_collectCount++;
+        m_lastCollectTime = collectTime;
+        m_totalCollectTime += collectTime;
+    }
+
+    /**
+     * <p>getConnectCount</p>
+     *
+     * @return the number of connections opened to the agent
+     */
+    public synchronized long getConnectCount() {
+        return m_connectCount;
+    }
+
+    /**
+     * <p>getCollectCount</p>
+     *
+     * @return the number of collections from the agent
+     */
+    public synchronized long getCollectCount() {
+        return m_collectCount;
+    }
+
+    /**
+     * <p>getLastConnectTime</p>
+     *
+     * @return the time spent opening the last connection, in milliseconds, or -1
+     */
+    public synchronized long getLastConnectTime() {
+        return m_lastConnectTime;
+    }
+
+    /**
+     * <p>getLastCollectTime</p>
+     *
+     * @return the time spent in the last collection, in milliseconds, or -1
+     */
+    public synchronized long getLastCollectTime() {
+        return m_lastCollectTime;
+    }
+
+    /**
+     * <p>getAverageConnectTime</p>
+     *
+     * @return the average time spent opening a connection, in milliseconds, or -1
+     */
+    public synchronized long getAverageConnectTime() {
+        return m_connectCount == 0 ? -1 : m_totalConnectTime / m_connectCount;
+    }
+
+    /**
+     * <p>getAverageCollectTime</p>
+     *
+     * @return the average time spent in a collection, in milliseconds, or -1
+     */
+    public synchronized long getAverageCollectTime() {
+        return m_collectCount == 0 ? -1 : m_totalCollectTime / m_collectCount;
+    }
+
+    /**
+     * Closes the connection and forgets the cached queries.
+     */
+    public synchronized void close() {
+        closeConnection();
+        m_queries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return m_name + " [connects=" + m_connectCount + ", lastConnect=" + m_lastConnectTime + "ms, avgConnect=" + getAverageConnectTime()
+                + "ms, collects=" + m_collectCount + ", lastCollect=" + m_lastCollectTime + "ms, avgCollect=" + getAverageCollectTime() + "ms]";
+    }
+}
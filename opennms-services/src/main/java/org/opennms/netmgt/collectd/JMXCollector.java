@@ -40,12 +40,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServerConnection;
-import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 
@@ -155,6 +156,28 @@ public abstract class JMXCollector implements ServiceCollector {
      */
     private String serviceName = null;
 
+    /**
+     * Whether the connection to an agent is kept open between collections.
+     */
+    private final boolean m_cacheConnections = Boolean.valueOf(System.getProperty("org.opennms.netmgt.collectd.jmx.cacheConnections", "true"));
+
+    /**
+     * A cached connection idle for longer than this (in milliseconds) is
+     * checked before it is used.
+     */
+    private final long m_connectionCheckInterval = Long.getLong("org.opennms.netmgt.collectd.jmx.connectionCheckInterval", 60000L);
+
+    /**
+     * How long (in milliseconds) the result of a wildcard object name query
+     * is reused before the agent is queried again.
+     */
+    private final long m_objectNameRefreshInterval = Long.getLong("org.opennms.netmgt.collectd.jmx.objectNameRefreshInterval", 900000L);
+
+    /**
+     * The connections, cached queries and timings of each agent.
+     */
+    private final ConcurrentMap<CollectionAgent, JMXAgentState> m_agentStates = new ConcurrentHashMap<CollectionAgent, JMXAgentState>();
+
     /**
      * <p>
      * Returns the name of the service that the plug-in collects ("JMX").
@@ -230,7 +253,10 @@ public abstract class JMXCollector implements ServiceCollector {
      */
     @Override
     public void release() {
-        // Nothing to release...
+        for (final JMXAgentState agentState : m_agentStates.values()) {
+            agentState.close();
+        }
+        m_agentStates.clear();
     }
 
     /**
@@ -280,7 +306,11 @@ public abstract class JMXCollector implements ServiceCollector {
      */
     @Override
     public void release(CollectionAgent agent) {
-        // Nothing to release...
+        final JMXAgentState agentState = m_agentStates.remove(agent);
+        if (agentState != null) {
+            LOG.debug("release: {}", agentState);
+            agentState.close();
+        }
     }
 
     /**
@@ -292,6 +322,34 @@ public abstract class JMXCollector implements ServiceCollector {
      */
     public abstract ConnectionWrapper getMBeanServerConnection(Map<String, Object> map, InetAddress address);
 
+    private JMXAgentState getAgentState(final CollectionAgent agent) {
+        JMXAgentState agentState = m_agentStates.get(agent);
+        if (agentState == null) {
+            final JMXAgentState newState = new JMXAgentState(serviceName + "/" + InetAddressUtils.str(agent.getAddress()));
+            agentState = m_agentStates.putIfAbsent(agent, newState);
+            if (agentState == null) {
+                agentState = newState;
+            }
+        }
+        return agentState;
+    }
+
+    /**
+     * Returns the cached connection to the agent if it is still alive, or
+     * opens a new one.
+     */
+    private ConnectionWrapper getConnection(final JMXAgentState agentState, final Map<String, Object> map, final InetAddress address) {
+        ConnectionWrapper connection = agentState.getConnection(m_connectionCheckInterval);
+        if (connection == null) {
+            final long start = System.currentTimeMillis();
+            connection = getMBeanServerConnection(map, address);
+            if (connection != null) {
+                agentState.setConnection(connection, System.currentTimeMillis() - start);
+            }
+        }
+        return connection;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -315,21 +373,23 @@ public abstract class JMXCollector implements ServiceCollector {
         SingleResourceCollectionSet collectionSet = new SingleResourceCollectionSet(collectionResource, new Date());
         
         ConnectionWrapper connection = null;
+        final JMXAgentState agentState = getAgentState(agent);
+        final long start = System.currentTimeMillis();
 
         LOG.debug("collecting {} on node ID {}", InetAddressUtils.str(ipaddr), nodeInfo.getNodeId());
 
         try {
-            connection = getMBeanServerConnection(map, ipaddr);
+            connection = getConnection(agentState, map, ipaddr);
 
             if (connection == null) {
                 return collectionSet;
             }
 
-            MBeanServerConnection mbeanServer = connection.getMBeanServer();
-
             int retry = ParameterMap.getKeyedInteger(map, ParameterName.RETRY.toString(), 3);
             for (int attempts = 0; attempts <= retry; attempts++) {
                 try {
+                    MBeanServerConnection mbeanServer = connection.getMBeanServer();
+
                     /*
                      * Iterate over the mbeans, for each object name perform a
                      * getAttributes, the update the RRD.
@@ -366,55 +426,53 @@ public abstract class JMXCollector implements ServiceCollector {
                             LOG.debug("{} Collector - getAttributes: {}, # attributes: {}, # composite attribute members: {}", serviceName, objectName, attrNames.length, compAttribNames.size());
                             try {
                                 ObjectName oName = new ObjectName(objectName);
-                                if (mbeanServer.isRegistered(oName)) {
-                                    AttributeList attrList = mbeanServer.getAttributes(oName, attrNames);
-                                    Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
-                                    for(Object attribute : attrList) {
-                                        List<String> compositeMemberKeys = new ArrayList<String>();
-                                        Boolean isComposite = false;
-                                        Attribute attrib=(Attribute)attribute;
-                                        for (String compAttrName : compAttribNames ) {
-                                            String[] attribKeys = compAttrName.split("\\|", -1);
-                                            if (attrib.getName().equals(attribKeys[0])) {
-                                                compositeMemberKeys.add(attribKeys[1]);
-                                                isComposite = true;
-                                            }
+                                AttributeList attrList = mbeanServer.getAttributes(oName, attrNames);
+                                Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
+                                for(Object attribute : attrList) {
+                                    List<String> compositeMemberKeys = new ArrayList<String>();
+                                    Boolean isComposite = false;
+                                    Attribute attrib=(Attribute)attribute;
+                                    for (String compAttrName : compAttribNames ) {
+                                        String[] attribKeys = compAttrName.split("\\|", -1);
+                                        if (attrib.getName().equals(attribKeys[0])) {
+                                            compositeMemberKeys.add(attribKeys[1]);
+                                            isComposite = true;
                                         }
-                                        if (isComposite) {
-                                            try {
-                                                CompositeData cd = (CompositeData)attrib.getValue();
-                                                 for (String key : compositeMemberKeys) {
-                                                     /*
-                                                     value = cd.get(key);
-                                                     
-                                                     log.debug(" JMXCollector - got CompositeData: " + 
-                                                               objectName + "|" + attrib.getName() + "|" + key + " |-> " + cd.get(key).toString());
-                                                     */
-                                                     JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName() + "|" + key);
-                                                     JMXCollectionAttributeType attribType=new JMXCollectionAttributeType(ds, null, null, attribGroupType);
-                                                     collectionResource.setAttributeValue(attribType, cd.get(key).toString());
-                                                 }
-                                            } catch (final ClassCastException cce) {
-                                                LOG.debug("{} Collection - getAttributes (try CompositeData) - ERROR: Failed to cast attribute value to type CompositeData!", serviceName, cce);
-                                            }
-                                        }
-                                        else {
-                                            // this is a normal attribute, so fallback to default handler
-                                            JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName());
-                                            JMXCollectionAttributeType attribType=new JMXCollectionAttributeType(ds, null, null, attribGroupType);
-                                            collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
+                                    }
+                                    if (isComposite) {
+                                        try {
+                                            CompositeData cd = (CompositeData)attrib.getValue();
+                                             for (String key : compositeMemberKeys) {
+                                                 /*
+                                                 value = cd.get(key);
+                                                 
+                                                 log.debug(" JMXCollector - got CompositeData: " + 
+                                                           objectName + "|" + attrib.getName() + "|" + key + " |-> " + cd.get(key).toString());
+                                                 */
+                                                 JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName() + "|" + key);
+                                                 JMXCollectionAttributeType attribType=new JMXCollectionAttributeType(ds, null, null, attribGroupType);
+                                                 collectionResource.setAttributeValue(attribType, cd.get(key).toString());
+                                             }
+                                        } catch (final ClassCastException cce) {
+                                            LOG.debug("{} Collection - getAttributes (try CompositeData) - ERROR: Failed to cast attribute value to type CompositeData!", serviceName, cce);
                                         }
-                                    }  
-                                }
+                                    }
+                                    else {
+                                        // this is a normal attribute, so fallback to default handler
+                                        JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName());
+                                        JMXCollectionAttributeType attribType=new JMXCollectionAttributeType(ds, null, null, attribGroupType);
+                                        collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
+                                    }
+                                }  
                             } catch (final InstanceNotFoundException e) {
-                                LOG.error("Unable to retrieve attributes from {}", objectName, e);
+                                LOG.debug("{} Collector - getAttributes: {} is not registered", serviceName, objectName);
                             }
                         } else {
                             /*
                              * This section is for ObjectNames that use the
                              * '*' wildcard
                              */
-                            Set<ObjectName> mbeanSet = getObjectNames(mbeanServer, objectName);
+                            Set<ObjectName> mbeanSet = agentState.getObjectNames(mbeanServer, objectName, m_objectNameRefreshInterval);
                             for (Iterator<ObjectName> objectNameIter = mbeanSet.iterator(); objectNameIter.hasNext(); ) {
                                 ObjectName oName = objectNameIter.next();
                                 LOG.debug("{} Collector - getAttributesWC: {}, # attributes: {}, alias: {}", serviceName, oName, attrNames.length, beanInfo.getKeyAlias());
@@ -422,25 +480,23 @@ public abstract class JMXCollector implements ServiceCollector {
                                 try {
                                     if (excludeList == null) {
                                         // the exclude list doesn't apply
-                                        if (mbeanServer.isRegistered(oName)) {
-                                            AttributeList attrList = mbeanServer.getAttributes(oName,
-                                                                          attrNames);
-                                            Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
-
-                                            for(Object attribute : attrList) {
-                                                Attribute attrib=(Attribute)attribute;
-                                                JMXDataSource ds = dsMap.get(objectName + "|"
-                                                             + attrib.getName());
-                                                JMXCollectionAttributeType attribType=
-                                                    new JMXCollectionAttributeType(ds, 
-                                                                                   oName.getKeyProperty(beanInfo.getKeyField()),  
-                                                                                   beanInfo.getKeyAlias(), 
-                                                                                   attribGroupType);
-                                                
-                                                collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
-                                            }
-
+                                        AttributeList attrList = mbeanServer.getAttributes(oName,
+                                                                      attrNames);
+                                        Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
+
+                                        for(Object attribute : attrList) {
+                                            Attribute attrib=(Attribute)attribute;
+                                            JMXDataSource ds = dsMap.get(objectName + "|"
+                                                         + attrib.getName());
+                                            JMXCollectionAttributeType attribType=
+                                                new JMXCollectionAttributeType(ds, 
+                                                                               oName.getKeyProperty(beanInfo.getKeyField()),  
+                                                                               beanInfo.getKeyAlias(), 
+                                                                               attribGroupType);
+                                            
+                                            collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
                                         }
+
                                     } else {
                                         /*
                                          * filter out calls if the key field
@@ -459,25 +515,25 @@ public abstract class JMXCollector implements ServiceCollector {
                                             }
                                         }
                                         if (!found) {
-                                            if (mbeanServer.isRegistered(oName)) {
-                                                AttributeList attrList = mbeanServer.getAttributes(oName, attrNames);
-                                                Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
-
-                                                for(Object attribute : attrList) {
-                                                    Attribute attrib=(Attribute)attribute;
-                                                    JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName());
-                                                    JMXCollectionAttributeType attribType = new JMXCollectionAttributeType(ds, 
-                                                                                       oName.getKeyProperty(beanInfo.getKeyField()),  
-                                                                                       beanInfo.getKeyAlias(), 
-                                                                                       attribGroupType);
-                                                    
-                                                    collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
-                                                }
+                                            AttributeList attrList = mbeanServer.getAttributes(oName, attrNames);
+                                            Map<String, JMXDataSource> dsMap = nodeInfo.getDsMap();
+
+                                            for(Object attribute : attrList) {
+                                                Attribute attrib=(Attribute)attribute;
+                                                JMXDataSource ds = dsMap.get(objectName + "|" + attrib.getName());
+                                                JMXCollectionAttributeType attribType = new JMXCollectionAttributeType(ds, 
+                                                                                   oName.getKeyProperty(beanInfo.getKeyField()),  
+                                                                                   beanInfo.getKeyAlias(), 
+                                                                                   attribGroupType);
+                                                
+                                                collectionResource.setAttributeValue(attribType, attrib.getValue().toString());
                                             }
                                         }
                                     }
                                 } catch (final InstanceNotFoundException e) {
-                                    LOG.error("Error retrieving attributes for {}", oName, e);
+                                    // the MBean went away since the names were queried, so query them again next time
+                                    LOG.debug("{} Collector - getAttributesWC: {} is no longer registered", serviceName, oName);
+                                    agentState.forgetObjectNames(objectName);
                                 }
                             }
                         }
@@ -485,25 +541,31 @@ public abstract class JMXCollector implements ServiceCollector {
                     break;
                 } catch (final Exception e) {
                     LOG.debug("{} Collector.collect: IOException while collecting address: {}", serviceName, agent.getAddress(), e);
+                    if (e instanceof IOException && attempts < retry) {
+                        // the connection is broken, open a new one for the next attempt
+                        agentState.closeConnection();
+                        connection = getConnection(agentState, map, ipaddr);
+                        if (connection == null) {
+                            break;
+                        }
+                    }
                 }
             }
         } catch (final Exception e) {
             LOG.error("Error getting MBeanServer", e);
         } finally {
-            if (connection != null) {
-                connection.close();
+            if (!m_cacheConnections) {
+                agentState.closeConnection();
             }
+            final long collectTime = System.currentTimeMillis() - start;
+            agentState.collected(collectTime);
+            LOG.debug("collect: finished collecting {} in {}ms: {}", InetAddressUtils.str(ipaddr), collectTime, agentState);
         }
         
         collectionSet.setStatus(ServiceCollector.COLLECTION_SUCCEEDED);
         return collectionSet;
     }
 
-    private static Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String objectName) throws IOException,
-            MalformedObjectNameException {
-        return mbeanServer.queryNames(new ObjectName(objectName), null);
-    }
-
     /**
      * This method removes characters from an object name that are
      * potentially illegal in a file or directory name, returning a
@@ -47,6 +47,7 @@ public abstract class ResourceType {
     private SnmpCollectionAgent m_agent;
     private OnmsSnmpCollection m_snmpCollection;
     private Collection<SnmpAttributeType> m_attributeTypes;
+    private SnmpResultStore m_resultStore;
 
     /**
      * <p>Constructor for ResourceType.</p>
@@ -86,6 +87,19 @@ public abstract class ResourceType {
         return m_snmpCollection;
     }
 
+    /**
+     * Returns the store holding the values collected for the resources of
+     * this type.
+     *
+     * @return a {@link org.opennms.netmgt.collectd.SnmpResultStore} object.
+     */
+    public SnmpResultStore getResultStore() {
+        if (m_resultStore == null) {
+            m_resultStore = new SnmpResultStore();
+        }
+        return m_resultStore;
+    }
+
     /**
      * <p>getAttributeTypes</p>
      *
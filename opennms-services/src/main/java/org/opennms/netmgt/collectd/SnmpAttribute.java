@@ -49,6 +49,10 @@ public class SnmpAttribute extends AbstractCollectionAttribute {
 
     private SnmpValue m_val;
 
+    private final SnmpResultStore m_store;
+    private final int m_row;
+    private final int m_column;
+
     /**
      * <p>Constructor for SnmpAttribute.</p>
      *
@@ -59,6 +63,41 @@ public class SnmpAttribute extends AbstractCollectionAttribute {
     public SnmpAttribute(CollectionResource resource, SnmpAttributeType type, SnmpValue val) {
         super(type, resource);
         m_val = val;
+        m_store = null;
+        m_row = -1;
+        m_column = -1;
+    }
+
+    /**
+     * Creates a view over a value kept in a {@link SnmpResultStore}.
+     *
+     * @param resource the resource the value belongs to
+     * @param type the attribute type
+     * @param store the store
+     * @param row the row of the resource in the store
+     * @param column the column of the attribute type in the store
+     */
+    SnmpAttribute(CollectionResource resource, SnmpAttributeType type, SnmpResultStore store, int row, int column) {
+        super(type, resource);
+        m_val = null;
+        m_store = store;
+        m_row = row;
+        m_column = column;
+    }
+
+    /**
+     * Creates an attribute of another resource sharing the value of an
+     * existing attribute.
+     *
+     * @param resource the resource
+     * @param attr the attribute whose value is shared
+     */
+    protected SnmpAttribute(CollectionResource resource, SnmpAttribute attr) {
+        super(attr.getAttributeType(), resource);
+        m_val = attr.m_val;
+        m_store = attr.m_store;
+        m_row = attr.m_row;
+        m_column = attr.m_column;
     }
 
     /** {@inheritDoc} */
@@ -87,6 +126,9 @@ public class SnmpAttribute extends AbstractCollectionAttribute {
      * @return a {@link org.opennms.netmgt.snmp.SnmpValue} object.
      */
     public SnmpValue getValue() {
+        if (m_val == null && m_store != null) {
+            m_val = m_store.getValue(m_row, m_column);
+        }
         return m_val;
     }
 
@@ -113,6 +155,12 @@ public class SnmpAttribute extends AbstractCollectionAttribute {
         if (instance == null) {
             instance = type.getInstance();
         }
+        if (m_store != null) {
+            final String metricId = m_store.getMetricIdentifier(m_column, instance);
+            if (metricId != null) {
+                return metricId;
+            }
+        }
         return "SNMP_"+SnmpObjId.get(type.getSnmpObjId(), instance);
     }
     
@@ -123,7 +171,9 @@ public class SnmpAttribute extends AbstractCollectionAttribute {
      */
     @Override
     public String getNumericValue() {
-        if (getValue() == null) {
+        if (m_store != null) {
+            return m_store.getNumericValue(m_row, m_column, this);
+        } else if (getValue() == null) {
             LOG.debug("No data collected for attribute {}. Skipping", this);
             return null;
         } else if (getValue().isNumeric()) {
@@ -230,7 +230,9 @@ public abstract class SnmpAttributeType extends AbstractCollectionAttributeType
      * @param res a {@link org.opennms.netmgt.snmp.SnmpResult} object.
      */
     public void storeResult(SnmpCollectionSet collectionSet, SNMPCollectorEntry entry, SnmpResult res) {
-        LOG.debug("Setting attribute: {}.[{}] = '{}'", this, res.getInstance(), res.getValue());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Setting attribute: {}.[{}] = '{}'", this, res.getInstance(), res.getValue());
+        }
         SnmpCollectionResource resource = null;
         if(this.getAlias().equals("ifAlias")) {
             resource = m_resourceType.findAliasedResource(res.getInstance(), res.getValue().toString());
@@ -31,12 +31,9 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.opennms.core.utils.TimeKeeper;
 import org.opennms.netmgt.collection.api.AttributeGroup;
-import org.opennms.netmgt.collection.api.AttributeGroupType;
 import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSetVisitor;
@@ -59,7 +56,11 @@ public abstract class SnmpCollectionResource implements CollectionResource {
     
     private final ResourceType m_resourceType;
 
-    private final Map<AttributeGroupType, AttributeGroup> m_groups = new HashMap<AttributeGroupType, AttributeGroup>();
+    /**
+     * The row of this resource in the result store of its resource type, or
+     * -1 if no value has been stored for it.
+     */
+    private int m_resultRow = -1;
 
     /**
      * <p>Constructor for SnmpCollectionResource.</p>
@@ -132,23 +133,22 @@ public abstract class SnmpCollectionResource implements CollectionResource {
      * @param val a {@link org.opennms.netmgt.snmp.SnmpValue} object.
      */
     public void setAttributeValue(final SnmpAttributeType type, final SnmpValue val) {
-        SnmpAttribute attr = new SnmpAttribute(this, type, val);
-        addAttribute(attr);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Adding attribute {} = {} to group {} of {}", type, val, type.getGroupType(), this);
+        }
+        getResultStore().setValue(this, type, val);
     }
 
-    private void addAttribute(final SnmpAttribute attr) {
-        AttributeGroup group = getGroup(attr.getAttributeType().getGroupType());
-        LOG.debug("Adding attribute {}: {} to group {}", attr.getClass().getName(), attr, group);
-        group.addAttribute(attr);
+    private SnmpResultStore getResultStore() {
+        return m_resourceType.getResultStore();
     }
 
-    private AttributeGroup getGroup(final AttributeGroupType groupType) {
-        AttributeGroup group = m_groups.get(groupType);
-        if (group == null) {
-            group = new SnmpAttributeGroup(this, groupType);
-            m_groups.put(groupType, group);
-        }
-        return group;
+    int getResultRow() {
+        return m_resultRow;
+    }
+
+    void setResultRow(final int row) {
+        m_resultRow = row;
     }
 
     /** {@inheritDoc} */
@@ -169,7 +169,7 @@ public abstract class SnmpCollectionResource implements CollectionResource {
      * @return a {@link java.util.Collection} object.
      */
     protected Collection<AttributeGroup> getGroups() {
-        return m_groups.values();
+        return getResultStore().getGroups(this);
     }
 
     @Override
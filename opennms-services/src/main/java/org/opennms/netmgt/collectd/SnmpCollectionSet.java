@@ -378,20 +378,12 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         // XXX Should we have a call to hasDataToCollect here?
         try {
             // now collect the data
-            SnmpWalker walker = createWalker();
-            walker.start();
-
-            logStartedWalker();
+            SnmpWalker walker = startCollection(null);
 
             // wait for collection to finish
             walker.waitFor();
 
-            logFinishedWalker();
-
-            // Was the collection successful?
-            verifySuccessfulWalk(walker);
-
-            m_status = ServiceCollector.COLLECTION_SUCCEEDED;
+            finishCollection(walker);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new CollectionWarning("collect: Collection of node SNMP "
@@ -400,6 +392,32 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         }
     }
 
+    /**
+     * Starts the walk without waiting for it; the callback (if any) is
+     * notified once the walk is done and {@link #finishCollection(SnmpWalker)}
+     * must then be called with the returned walker.
+     */
+    SnmpWalker startCollection(SnmpWalker.Callback callback) {
+        SnmpWalker walker = createWalker();
+        walker.setCallback(callback);
+        walker.start();
+
+        logStartedWalker();
+        return walker;
+    }
+
+    void finishCollection(SnmpWalker walker) throws CollectionException {
+        logFinishedWalker();
+
+        final SnmpCollectionAgent agent = getCollectionAgent();
+        Collectd.instrumentation().reportSnmpWalk(agent.getNodeId(), agent.getHostAddress(), walker.getRoundTrips(), walker.getBytesSent(), walker.getBytesReceived(), walker.getMaxVarsPerPdu(), walker.getMaxRepetitions());
+
+        // Was the collection successful?
+        verifySuccessfulWalk(walker);
+
+        m_status = ServiceCollector.COLLECTION_SUCCEEDED;
+    }
+
     boolean checkDisableForceRescan(final String disabledString) {
         final Map<String, Object> parameters = m_snmpCollection.getServiceParameters().getParameters();
         final String src = ParameterMap.getKeyedString(parameters, "disableForceRescan", null);
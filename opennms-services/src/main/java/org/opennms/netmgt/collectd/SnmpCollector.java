@@ -304,39 +304,11 @@ public class SnmpCollector implements ServiceCollector {
     @Override
     public CollectionSet collect(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters) throws CollectionException {
         try {
-            // XXX: Experimental code that reuses the OnmsSnmpCollection
-            // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
-            // ServiceParameters params = snmpCollection.getServiceParameters();
-            
-            // XXX: This code would be commented out in light if the experimental code above was enabled
-            final ServiceParameters params = new ServiceParameters(parameters);
-            params.logIfAliasConfig();
-            OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params);
-
-            final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
-
-            SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
-            collectionSet.setCollectionTimestamp(new Date());
-            if (!collectionSet.hasDataToCollect()) {
-                logNoDataToCollect(agent);
-                // should we return here?
-            }
-            
+            SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
+
             collectionSet.collect();
 
-            /*
-             * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
-             * {@see http://issues.opennms.org/browse/NMS-1057}
-             */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
-                /*
-                 * TODO: the behavior of this object may have been re-factored away.
-                 * Verify that this is correct and remove this unused object if it
-                 * is no longer needed.  My gut thinks this should be investigated.
-                 */
-                forceRescanState.rescanIndicated();
-            }
+            checkForceRescan(collectionSet, eventProxy);
             return collectionSet;
         } catch (CollectionException e) {
             throw e;
@@ -345,6 +317,45 @@ public class SnmpCollector implements ServiceCollector {
         }
     }
 
+    /**
+     * Builds the collection set for an agent without walking it; used
+     * directly by the {@link AsyncSnmpCollectionEngine}.
+     */
+    SnmpCollectionSet createCollectionSet(CollectionAgent agent, Map<String, Object> parameters) {
+        // XXX: Experimental code that reuses the OnmsSnmpCollection
+        // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
+        // ServiceParameters params = snmpCollection.getServiceParameters();
+
+        // XXX: This code would be commented out in light if the experimental code above was enabled
+        final ServiceParameters params = new ServiceParameters(parameters);
+        params.logIfAliasConfig();
+        OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params);
+
+        SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+        collectionSet.setCollectionTimestamp(new Date());
+        if (!collectionSet.hasDataToCollect()) {
+            logNoDataToCollect(agent);
+            // should we return here?
+        }
+        return collectionSet;
+    }
+
+    void checkForceRescan(SnmpCollectionSet collectionSet, EventProxy eventProxy) {
+        /*
+         * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
+         * {@see http://issues.opennms.org/browse/NMS-1057}
+         */
+        if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
+                && collectionSet.rescanNeeded()) {
+            /*
+             * TODO: the behavior of this object may have been re-factored away.
+             * Verify that this is correct and remove this unused object if it
+             * is no longer needed.  My gut thinks this should be investigated.
+             */
+            new ForceRescanState(collectionSet.getCollectionAgent(), eventProxy).rescanIndicated();
+        }
+    }
+
     /*private void persistData(ServiceParameters params, SnmpCollectionSet collectionSet) {
         Collectd.instrumentation().beginPersistingServiceData(collectionSet.getCollectionAgent().getNodeId(), collectionSet.getCollectionAgent().getHostAddress(), serviceName());
         try {
@@ -0,0 +1,419 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.netmgt.collection.api.AttributeGroup;
+import org.opennms.netmgt.collection.api.AttributeGroupType;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Columnar storage for the values collected for the resources of one
+ * {@link ResourceType}.
+ * <p>
+ * Each resource is a row and each {@link SnmpAttributeType} a column.
+ * Integer, counter, gauge and timeticks values are kept in a
+ * <code>long[]</code> per column together with their SNMP type, so the
+ * {@link SnmpValue} returned by the walker can be discarded as soon as it has
+ * been stored. Other values (octet strings, IP addresses, ...) are kept as
+ * they are, and their numeric form is computed once into the
+ * <code>long[]</code> or <code>double[]</code> of the column.
+ * </p>
+ * <p>
+ * No attribute or group objects are kept between collection and persistence:
+ * {@link #getGroups(SnmpCollectionResource)} builds short-lived
+ * {@link SnmpAttribute} views over the columns each time a resource is
+ * visited, so persisters and thresholding see the same visitor API as
+ * before.
+ * </p>
+ * <p>
+ * Like the attribute groups it replaces, a store is filled by the single
+ * thread walking the agent and is not synchronized.
+ * </p>
+ */
+public class SnmpResultStore {
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpResultStore.class);
+
+    /** No value was collected. */
+    private static final byte EMPTY = 0;
+    /** An integral value, kept in the long column. */
+    private static final byte LONG = 1;
+    /** Another kind of value whose numeric form has not been computed yet. */
+    private static final byte VALUE = 2;
+    /** Another kind of value whose numeric form is in the long column. */
+    private static final byte VALUE_LONG = 3;
+    /** Another kind of value whose numeric form is in the double column. */
+    private static final byte VALUE_DOUBLE = 4;
+    /** Another kind of value that has no numeric form. */
+    private static final byte VALUE_NAN = 5;
+
+    private static final int INITIAL_ROWS = 16;
+
+    private static final BigInteger TWO_TO_THE_64 = BigInteger.ONE.shiftLeft(64);
+
+    /**
+     * The metric identifier prefixes ("SNMP_" and the object identifier) of
+     * the configured MIB objects, shared by all the collections.
+     */
+    private static final ConcurrentMap<String, String> s_metricPrefixes = new ConcurrentHashMap<String, String>();
+
+    private static final class Column {
+        private final SnmpAttributeType m_type;
+        private String m_metricPrefix;
+        private byte[] m_kinds = new byte[0];
+        private byte[] m_snmpTypes = new byte[0];
+        private long[] m_longs = new long[0];
+        private double[] m_doubles;
+        private SnmpValue[] m_values;
+
+        public Column(final SnmpAttributeType type) {
+            m_type = type;
+        }
+
+        private void ensureCapacity(final int rows) {
+            if (m_kinds.length < rows) {
+                m_kinds = Arrays.copyOf(m_kinds, rows);
+                m_snmpTypes = Arrays.copyOf(m_snmpTypes, rows);
+                m_longs = Arrays.copyOf(m_longs, rows);
+                if (m_doubles != null) {
+                    m_doubles = Arrays.copyOf(m_doubles, rows);
+                }
+                if (m_values != null) {
+                    m_values = Arrays.copyOf(m_values, rows);
+                }
+            }
+        }
+
+        private byte getKind(final int row) {
+            return row < m_kinds.length ? m_kinds[row] : EMPTY;
+        }
+
+        private void setValue(final int row, final SnmpValue value) {
+            if (m_values == null) {
+                m_values = new SnmpValue[m_kinds.length];
+            }
+            m_kinds[row] = VALUE;
+            m_values[row] = value;
+        }
+
+        private void setDouble(final int row, final double value) {
+            if (m_doubles == null) {
+                m_doubles = new double[m_kinds.length];
+            }
+            m_kinds[row] = VALUE_DOUBLE;
+            m_doubles[row] = value;
+        }
+    }
+
+    private final Map<SnmpAttributeType, Integer> m_columnIndexes = new HashMap<SnmpAttributeType, Integer>();
+    private Column[] m_columns = new Column[8];
+    private int m_columnCount = 0;
+    private SnmpCollectionResource[] m_rows = new SnmpCollectionResource[INITIAL_ROWS];
+    private int m_rowCount = 0;
+
+    /**
+     * <p>getRowCount</p>
+     *
+     * @return the number of resources that have values in this store
+     */
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    /**
+     * <p>getColumnCount</p>
+     *
+     * @return the number of attribute types that have values in this store
+     */
+    public int getColumnCount() {
+        return m_columnCount;
+    }
+
+    private int getRow(final SnmpCollectionResource resource) {
+        int row = resource.getResultRow();
+        if (row < 0) {
+            if (m_rowCount == m_rows.length) {
+                m_rows = Arrays.copyOf(m_rows, m_rows.length * 2);
+            }
+            row = m_rowCount++;
+            m_rows[row] = resource;
+            resource.setResultRow(row);
+        }
+        return row;
+    }
+
+    private int getColumn(final SnmpAttributeType type) {
+        final Integer index = m_columnIndexes.get(type);
+        if (index != null) {
+            return index.intValue();
+        }
+        if (m_columnCount == m_columns.length) {
+            m_columns = Arrays.copyOf(m_columns, m_columns.length * 2);
+        }
+        final int column = m_columnCount++;
+        m_columns[column] = new Column(type);
+        m_columnIndexes.put(type, Integer.valueOf(column));
+        return column;
+    }
+
+    /**
+     * Stores a value collected for a resource.  As with the attribute sets
+     * used before, the first value stored for an attribute of a resource is
+     * kept.
+     *
+     * @param resource the resource the value belongs to
+     * @param type the attribute type
+     * @param value the value, may be null
+     */
+    public void setValue(final SnmpCollectionResource resource, final SnmpAttributeType type, final SnmpValue value) {
+        final int row = getRow(resource);
+        final int index = getColumn(type);
+        final Column column = m_columns[index];
+        column.ensureCapacity(m_rows.length);
+
+        if (column.m_kinds[row] != EMPTY) {
+            return;
+        }
+        if (isIntegral(value)) {
+            column.m_kinds[row] = LONG;
+            column.m_snmpTypes[row] = (byte) value.getType();
+            column.m_longs[row] = value.toLong();
+        } else {
+            column.setValue(row, value);
+        }
+    }
+
+    private static boolean isIntegral(final SnmpValue value) {
+        if (value == null || !value.isNumeric()) {
+            return false;
+        }
+        switch (value.getType()) {
+        case SnmpValue.SNMP_INT32:
+        case SnmpValue.SNMP_COUNTER32:
+        case SnmpValue.SNMP_GAUGE32:
+        case SnmpValue.SNMP_TIMETICKS:
+        case SnmpValue.SNMP_COUNTER64:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Builds the attribute groups of a resource from the values stored for
+     * it.  The groups and attributes are views that are not kept by the
+     * store.
+     *
+     * @param resource the resource
+     * @return the groups that have at least one value
+     */
+    public Collection<AttributeGroup> getGroups(final SnmpCollectionResource resource) {
+        final int row = resource.getResultRow();
+        if (row < 0 || row >= m_rowCount || m_rows[row] != resource) {
+            return Collections.emptyList();
+        }
+        final Map<AttributeGroupType, AttributeGroup> groups = new LinkedHashMap<AttributeGroupType, AttributeGroup>();
+        for (int column = 0; column < m_columnCount; column++) {
+            final Column col = m_columns[column];
+            if (col.getKind(row) == EMPTY) {
+                continue;
+            }
+            final AttributeGroupType groupType = col.m_type.getGroupType();
+            AttributeGroup group = groups.get(groupType);
+            if (group == null) {
+                group = new SnmpAttributeGroup(resource, groupType);
+                groups.put(groupType, group);
+            }
+            group.addAttribute(new SnmpAttribute(resource, col.m_type, this, row, column));
+        }
+        return groups.values();
+    }
+
+    /**
+     * Returns the value of a cell as an {@link SnmpValue}.  Integral values
+     * are re-created from the long column.
+     */
+    SnmpValue getValue(final int row, final int column) {
+        final Column col = m_columns[column];
+        switch (col.getKind(row)) {
+        case EMPTY:
+            return null;
+        case LONG:
+            return createValue(col.m_snmpTypes[row] & 0xff, col.m_longs[row]);
+        default:
+            return col.m_values[row];
+        }
+    }
+
+    private static SnmpValue createValue(final int type, final long value) {
+        final SnmpValueFactory factory = SnmpUtils.getValueFactory();
+        switch (type) {
+        case SnmpValue.SNMP_INT32:
+            return factory.getInt32((int) value);
+        case SnmpValue.SNMP_COUNTER32:
+            return factory.getCounter32(value);
+        case SnmpValue.SNMP_GAUGE32:
+            return factory.getGauge32(value);
+        case SnmpValue.SNMP_TIMETICKS:
+            return factory.getTimeTicks(value);
+        case SnmpValue.SNMP_COUNTER64:
+            final BigInteger counter = BigInteger.valueOf(value);
+            return factory.getCounter64(value < 0 ? counter.add(TWO_TO_THE_64) : counter);
+        default:
+            throw new IllegalArgumentException("Unexpected integral SNMP type " + type);
+        }
+    }
+
+    /**
+     * Returns the numeric form of a cell, as the attribute would have
+     * computed it from its {@link SnmpValue}, or null if there is none.
+     */
+    String getNumericValue(final int row, final int column, final SnmpAttribute attribute) {
+        final Column col = m_columns[column];
+        byte kind = col.getKind(row);
+        if (kind == VALUE) {
+            kind = computeNumericValue(col, row, attribute);
+        }
+        switch (kind) {
+        case LONG:
+        case VALUE_LONG:
+            return Long.toString(col.m_longs[row]);
+        case VALUE_DOUBLE:
+            return Double.toString(col.m_doubles[row]);
+        default:
+            return null;
+        }
+    }
+
+    private static byte computeNumericValue(final Column col, final int row, final SnmpAttribute attribute) {
+        final SnmpValue value = col.m_values[row];
+        if (value == null) {
+            LOG.debug("No data collected for attribute {}. Skipping", attribute);
+            col.m_kinds[row] = VALUE_NAN;
+        } else if (value.isNumeric()) {
+            col.m_kinds[row] = VALUE_LONG;
+            col.m_longs[row] = value.toLong();
+        } else if (value.getBytes().length == 8) {
+            col.m_kinds[row] = VALUE_LONG;
+            col.m_longs[row] = SnmpUtils.getProtoCounter64Value(value);
+        } else {
+            try {
+                col.setDouble(row, Double.parseDouble(value.toString()));
+            } catch (final NumberFormatException e) {
+                LOG.trace("Unable to process data received for attribute {} maybe this is not a number? See bug 1473 for more information. Skipping.", attribute);
+                col.m_kinds[row] = VALUE_NAN;
+                if (value.getType() == SnmpValue.SNMP_OCTET_STRING) {
+                    try {
+                        col.m_longs[row] = Long.parseLong(value.toHexString(), 16);
+                        col.m_kinds[row] = VALUE_LONG;
+                    } catch (final NumberFormatException ex) {
+                        LOG.trace("Unable to process data received for attribute {} maybe this is not a number? See bug 1473 for more information. Skipping.", attribute);
+                    }
+                }
+            }
+        }
+        return col.m_kinds[row];
+    }
+
+    /**
+     * Returns the metric identifier of a cell, or null if the instance is
+     * not a plain numeric instance and the identifier must be built the
+     * usual way.
+     */
+    String getMetricIdentifier(final int column, final String instance) {
+        if (!isPlainInstance(instance)) {
+            return null;
+        }
+        final Column col = m_columns[column];
+        if (col.m_metricPrefix == null) {
+            col.m_metricPrefix = getMetricPrefix(col.m_type.getSnmpObjId());
+        }
+        return col.m_metricPrefix + '.' + instance;
+    }
+
+    private static String getMetricPrefix(final SnmpObjId objId) {
+        final String oid = objId.toString();
+        String prefix = s_metricPrefixes.get(oid);
+        if (prefix == null) {
+            prefix = "SNMP_" + oid;
+            final String existing = s_metricPrefixes.putIfAbsent(oid, prefix);
+            if (existing != null) {
+                prefix = existing;
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * Whether an instance is made of dot-separated decimal numbers written
+     * the way {@link SnmpObjId#toString()} writes them.
+     */
+    private static boolean isPlainInstance(final String instance) {
+        if (instance == null || instance.length() == 0) {
+            return false;
+        }
+        int digits = 0;
+        boolean leadingZero = false;
+        for (int i = 0; i < instance.length(); i++) {
+            final char c = instance.charAt(i);
+            if (c == '.') {
+                if (digits == 0) {
+                    return false;
+                }
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (leadingZero || digits == 9) {
+                    return false;
+                }
+                leadingZero = (digits == 0 && c == '0');
+                digits++;
+                continue;
+            } else {
+                return false;
+            }
+            leadingZero = false;
+        }
+        return digits > 0;
+    }
+}
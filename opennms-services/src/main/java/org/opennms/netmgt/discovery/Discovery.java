@@ -34,23 +34,24 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.ValidationException;
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.utils.DBUtils;
-import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.config.DiscoveryConfigFactory;
 import org.opennms.netmgt.daemon.AbstractServiceDaemon;
 import org.opennms.netmgt.eventd.EventIpcManagerFactory;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.model.discovery.IPPollAddress;
 import org.opennms.netmgt.model.events.EventBuilder;
@@ -88,6 +89,11 @@ public class Discovery extends AbstractServiceDaemon {
     private static final int PING_IDLE = 0;
     private static final int PING_RUNNING = 1;
     private static final int PING_FINISHING = 2;
+
+    /**
+     * The most pings a sweep may have waiting for a response at any time.
+     */
+    private static final int MAX_OUTSTANDING_PINGS = Integer.getInteger("org.opennms.netmgt.discovery.maxOutstandingPings", 1000);
     
     /**
      * The SQL query used to get the list of managed IP addresses from the database
@@ -97,13 +103,18 @@ public class Discovery extends AbstractServiceDaemon {
     /**
      * a set of devices to skip discovery on
      */
-    private Set<String> m_alreadyDiscovered = Collections.synchronizedSet(new HashSet<String>());
+    private volatile KnownAddressSet m_alreadyDiscovered = new KnownAddressSet();
+
+    /**
+     * the running sweep, or the last one to finish
+     */
+    private volatile DiscoverySweep m_sweep;
 
     private DiscoveryConfigFactory m_discoveryFactory;
 
     private Timer m_timer;
 
-    private int m_xstatus = PING_IDLE;
+    private volatile int m_xstatus = PING_IDLE;
     
     private volatile EventForwarder m_eventForwarder;
 
@@ -204,50 +215,142 @@ public class Discovery extends AbstractServiceDaemon {
 
         m_xstatus = PING_RUNNING;
 
+        // take a snapshot of the configuration so the lock isn't held for the whole sweep
+        final DiscoverySweep sweep;
+        final int packetsPerSecond;
         getDiscoveryFactory().getReadLock().lock();
         try {
-            for (IPPollAddress pollAddress : getDiscoveryFactory().getConfiguredAddresses()) {
+            sweep = DiscoverySweep.create(getDiscoveryFactory());
+            packetsPerSecond = Math.max(1, getDiscoveryFactory().getPacketsPerSecond());
+        } finally {
+            getDiscoveryFactory().getReadLock().unlock();
+        }
+        m_sweep = sweep;
+        LOG.info("sweeping {} addresses at {} packets per second", sweep.getAddressCount(), packetsPerSecond);
+
+        final TokenBucket pacer = new TokenBucket(packetsPerSecond, Math.max(1, packetsPerSecond / 10));
+        final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_PINGS);
+        try {
+            while (sweep.hasNext()) {
                 if (m_xstatus == PING_FINISHING || m_timer == null) {
+                    sweep.finish();
                     m_xstatus = PING_IDLE;
                     return;
                 }
-                LOG.debug("Pinging: {} of foreign source {}", pollAddress.getAddress().toString(), m_discoveryFactory.getForeignSource(pollAddress.getAddress()));
-                ping(pollAddress);
-                try {
-                    Thread.sleep(getDiscoveryFactory().getIntraPacketDelay());
-                } catch (InterruptedException e) {
-                    LOG.info("interrupting discovery sweep");
-                    break;
+                final IPPollAddress pollAddress = sweep.next();
+                final InetAddress address = pollAddress.getAddress();
+                if (address == null) {
+                    continue;
+                }
+                if (isAlreadyDiscovered(address)) {
+                    LOG.debug("{} already discovered.", address);
+                    sweep.skipped();
+                    continue;
                 }
+                pacer.acquire();
+                final long maxWait = pollAddress.getTimeout() * (pollAddress.getRetries() + 1) + 10000L;
+                final boolean acquired = outstanding.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+                if (!acquired) {
+                    // the ping goes out without a permit, so its callback must not release one
+                    LOG.warn("still waiting for responses to {} pings, continuing the sweep", sweep.getOutstandingCount());
+                }
+                LOG.debug("Pinging: {}", address);
+                ping(pollAddress, new SweepCallback(sweep, acquired ? outstanding : null));
             }
-        } finally {
-            getDiscoveryFactory().getReadLock().unlock();
+        } catch (InterruptedException e) {
+            LOG.info("interrupting discovery sweep");
         }
 
-        LOG.info("finished discovery sweep");
+        sweep.finish();
+        LOG.info("finished discovery sweep: {}", sweep);
         m_xstatus = PING_IDLE;
     }
 
-    private void ping(IPPollAddress pollAddress) {
+    private void ping(IPPollAddress pollAddress, SweepCallback callback) {
         InetAddress address = pollAddress.getAddress();
-        if (address != null) {
-            if (!isAlreadyDiscovered(address)) {
-                try {
-                    m_pinger.ping(address, pollAddress.getTimeout(), pollAddress.getRetries(), (short) 1, cb);
-                } catch (Throwable e) {
-                    LOG.debug("error pinging {}", address.getAddress(), e);
-                }
-            } else {
-            	LOG.debug("{} already discovered.", address.toString());
-            }
+        try {
+            callback.sent();
+            m_pinger.ping(address, pollAddress.getTimeout(), pollAddress.getRetries(), (short) 1, callback);
+        } catch (Throwable e) {
+            LOG.debug("error pinging {}", address.getAddress(), e);
+            callback.handleError(address, null, e);
         }
     }
 
     private boolean isAlreadyDiscovered(InetAddress address) {
-        if (m_alreadyDiscovered.contains(InetAddressUtils.str(address))) {
-            return true;
+        return m_alreadyDiscovered.contains(address);
+    }
+
+    /**
+     * Counts the responses for the sweep and frees a slot for the next ping
+     * before handing the response to the newSuspect callback.  A ping sent
+     * without a slot has no semaphore and frees nothing.
+     */
+    private static class SweepCallback implements PingResponseCallback {
+        private final DiscoverySweep m_sweep;
+        private final Semaphore m_outstanding;
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+
+        public SweepCallback(final DiscoverySweep sweep, final Semaphore outstanding) {
+            m_sweep = sweep;
+            m_outstanding = outstanding;
+        }
+
+        void sent() {
+            m_sweep.pinged();
+        }
+
+        private boolean done() {
+            if (m_done.compareAndSet(false, true)) {
+                if (m_outstanding != null) {
+                    m_outstanding.release();
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void handleResponse(final InetAddress address, final EchoPacket response) {
+            if (done()) {
+                m_sweep.responded();
+                cb.handleResponse(address, response);
+            }
+        }
+
+        @Override
+        public void handleTimeout(final InetAddress address, final EchoPacket request) {
+            if (done()) {
+                m_sweep.timedOut();
+                cb.handleTimeout(address, request);
+            }
+        }
+
+        @Override
+        public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+            if (done()) {
+                m_sweep.failed();
+                cb.handleError(address, request, t);
+            }
         }
-        return false;
+    }
+
+    /**
+     * <p>getCurrentSweep</p>
+     *
+     * @return the running sweep, or the last one to finish, or null before the first sweep
+     */
+    public DiscoverySweep getCurrentSweep() {
+        return m_sweep;
+    }
+
+    /**
+     * <p>getKnownAddressCount</p>
+     *
+     * @return the number of managed addresses that are not pinged
+     */
+    public long getKnownAddressCount() {
+        return m_alreadyDiscovered.size();
     }
 
     private void startTimer() {
@@ -330,7 +433,7 @@ public class Discovery extends AbstractServiceDaemon {
     	 * if something goes wrong with the DB we won't lose whatever was already
     	 * in there
     	 */
-    	Set<String> newAlreadyDiscovered = Collections.synchronizedSet(new HashSet<String>());
+    	final KnownAddressSet.Builder newAlreadyDiscovered = new KnownAddressSet.Builder();
     	Connection conn = null;
         final DBUtils d = new DBUtils(getClass());
 
@@ -348,7 +451,7 @@ public class Discovery extends AbstractServiceDaemon {
     		} else {
     			LOG.warn("Got null ResultSet from query for all IP addresses");
     		}
-    		m_alreadyDiscovered = newAlreadyDiscovered;
+    		m_alreadyDiscovered = newAlreadyDiscovered.build();
     	} catch (SQLException sqle) {
 		LOG.warn("Caught SQLException while trying to query for all IP addresses: {}", sqle.getMessage());
     	} finally {
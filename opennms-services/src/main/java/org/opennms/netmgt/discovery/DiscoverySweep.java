@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.config.DiscoveryConfigFactory;
+import org.opennms.netmgt.config.discovery.ExcludeRange;
+import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.opennms.netmgt.model.discovery.IPPollRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One pass over the configured discovery addresses.  The specifics are
+ * listed up front, but the ranges are walked lazily with a counter, and
+ * excluded blocks are skipped as a whole instead of checking each address
+ * against the configuration, so sweeping a /8 needs no more memory than
+ * sweeping a /24 and the configuration lock is only held while the sweep is
+ * created.
+ *
+ * <p>The sweep also counts its progress for the Discovery MBean.</p>
+ */
+public class DiscoverySweep implements Iterator<IPPollAddress> {
+    private static final Logger LOG = LoggerFactory.getLogger(DiscoverySweep.class);
+
+    private static final Comparator<BigInteger[]> BY_START = new Comparator<BigInteger[]>() {
+        @Override
+        public int compare(final BigInteger[] a, final BigInteger[] b) {
+            return a[0].compareTo(b[0]);
+        }
+    };
+
+    private static class Range {
+        private final BigInteger m_begin;
+        private final BigInteger m_end;
+        private final int m_length;
+        private final long m_timeout;
+        private final int m_retries;
+
+        Range(final IPPollRange range) {
+            final byte[] begin = range.getAddressRange().getBegin();
+            m_begin = new BigInteger(1, begin);
+            m_end = new BigInteger(1, range.getAddressRange().getEnd());
+            m_length = begin.length;
+            m_timeout = range.getTimeout();
+            m_retries = range.getRetries();
+        }
+    }
+
+    private final List<IPPollAddress> m_specifics;
+    private final List<Range> m_ranges = new ArrayList<Range>();
+    /** merged exclusions by address length, sorted by start */
+    private final Map<Integer, List<BigInteger[]>> m_excludes = new HashMap<Integer, List<BigInteger[]>>();
+    private final long m_addressCount;
+
+    private int m_specificIndex = 0;
+    private int m_rangeIndex = -1;
+    private BigInteger m_next;
+    private int m_excludeIndex;
+    private IPPollAddress m_peeked;
+
+    private final long m_startTime = System.currentTimeMillis();
+    private volatile long m_endTime = 0;
+    private final AtomicLong m_processed = new AtomicLong();
+    private final AtomicLong m_skipped = new AtomicLong();
+    private final AtomicLong m_pinged = new AtomicLong();
+    private final AtomicLong m_responses = new AtomicLong();
+    private final AtomicLong m_timeouts = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+
+    /**
+     * Creates a sweep of the current configuration; the caller should hold
+     * the read lock of the factory.
+     */
+    public static DiscoverySweep create(final DiscoveryConfigFactory factory) {
+        final List<IPPollAddress> specifics = factory.getSpecifics();
+        specifics.addAll(factory.getURLSpecifics());
+
+        final List<IPPollRange> excludes = new ArrayList<IPPollRange>();
+        for (final ExcludeRange range : factory.getConfiguration().getExcludeRangeCollection()) {
+            try {
+                excludes.add(new IPPollRange(range.getBegin(), range.getEnd(), 0, 0));
+            } catch (final Throwable e) {
+                LOG.warn("Ignoring invalid exclude range {} - {}", range.getBegin(), range.getEnd());
+            }
+        }
+        return new DiscoverySweep(specifics, factory.getRanges(), excludes);
+    }
+
+    public DiscoverySweep(final List<IPPollAddress> specifics, final List<IPPollRange> ranges, final List<IPPollRange> excludes) {
+        m_specifics = specifics;
+        for (final IPPollRange range : ranges) {
+            m_ranges.add(new Range(range));
+        }
+
+        // sort and merge the exclusions of each address family
+        final Map<Integer, List<BigInteger[]>> sorted = new HashMap<Integer, List<BigInteger[]>>();
+        for (final IPPollRange exclude : excludes) {
+            final Range range = new Range(exclude);
+            List<BigInteger[]> list = sorted.get(range.m_length);
+            if (list == null) {
+                list = new ArrayList<BigInteger[]>();
+                sorted.put(range.m_length, list);
+            }
+            list.add(new BigInteger[] { range.m_begin, range.m_end });
+        }
+        for (final Map.Entry<Integer, List<BigInteger[]>> entry : sorted.entrySet()) {
+            final List<BigInteger[]> list = entry.getValue();
+            Collections.sort(list, BY_START);
+            final List<BigInteger[]> merged = new ArrayList<BigInteger[]>();
+            for (final BigInteger[] exclude : list) {
+                final BigInteger[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && exclude[0].compareTo(last[1].add(BigInteger.ONE)) <= 0) {
+                    last[1] = last[1].max(exclude[1]);
+                } else {
+                    merged.add(new BigInteger[] { exclude[0], exclude[1] });
+                }
+            }
+            m_excludes.put(entry.getKey(), merged);
+        }
+
+        BigInteger count = BigInteger.valueOf(m_specifics.size());
+        for (final Range range : m_ranges) {
+            count = count.add(range.m_end.subtract(range.m_begin).add(BigInteger.ONE));
+            for (final BigInteger[] exclude : getExcludes(range.m_length)) {
+                final BigInteger start = exclude[0].max(range.m_begin);
+                final BigInteger end = exclude[1].min(range.m_end);
+                if (start.compareTo(end) <= 0) {
+                    count = count.subtract(end.subtract(start).add(BigInteger.ONE));
+                }
+            }
+        }
+        m_addressCount = count.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+    }
+
+    private List<BigInteger[]> getExcludes(final int length) {
+        final List<BigInteger[]> excludes = m_excludes.get(length);
+        return excludes == null ? Collections.<BigInteger[]>emptyList() : excludes;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (m_peeked == null) {
+            m_peeked = advance();
+        }
+        return m_peeked != null;
+    }
+
+    @Override
+    public IPPollAddress next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final IPPollAddress next = m_peeked;
+        m_peeked = null;
+        m_processed.incrementAndGet();
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove operation not supported");
+    }
+
+    private IPPollAddress advance() {
+        if (m_specificIndex < m_specifics.size()) {
+            return m_specifics.get(m_specificIndex++);
+        }
+        while (true) {
+            if (m_rangeIndex >= 0 && m_rangeIndex < m_ranges.size()) {
+                final Range range = m_ranges.get(m_rangeIndex);
+                final List<BigInteger[]> excludes = getExcludes(range.m_length);
+                // jump over any exclusions covering the cursor
+                while (m_excludeIndex < excludes.size() && m_next.compareTo(range.m_end) <= 0) {
+                    final BigInteger[] exclude = excludes.get(m_excludeIndex);
+                    if (exclude[1].compareTo(m_next) < 0) {
+                        m_excludeIndex++;
+                    } else if (exclude[0].compareTo(m_next) <= 0) {
+                        m_next = exclude[1].add(BigInteger.ONE);
+                        m_excludeIndex++;
+                    } else {
+                        break;
+                    }
+                }
+                if (m_next.compareTo(range.m_end) <= 0) {
+                    final InetAddress address = toInetAddress(m_next, range.m_length);
+                    m_next = m_next.add(BigInteger.ONE);
+                    return new IPPollAddress(address, range.m_timeout, range.m_retries);
+                }
+            }
+            if (++m_rangeIndex >= m_ranges.size()) {
+                return null;
+            }
+            m_next = m_ranges.get(m_rangeIndex).m_begin;
+            m_excludeIndex = 0;
+        }
+    }
+
+    private static InetAddress toInetAddress(final BigInteger value, final int length) {
+        final byte[] raw = value.toByteArray();
+        final byte[] bytes = new byte[length];
+        final int copy = Math.min(raw.length, length);
+        System.arraycopy(raw, raw.length - copy, bytes, length - copy, copy);
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (final UnknownHostException e) {
+            throw new IllegalStateException("Invalid address length " + length, e);
+        }
+    }
+
+    void skipped() {
+        m_skipped.incrementAndGet();
+    }
+
+    void pinged() {
+        m_pinged.incrementAndGet();
+    }
+
+    void responded() {
+        m_responses.incrementAndGet();
+    }
+
+    void timedOut() {
+        m_timeouts.incrementAndGet();
+    }
+
+    void failed() {
+        m_errors.incrementAndGet();
+    }
+
+    void finish() {
+        m_endTime = System.currentTimeMillis();
+    }
+
+    public boolean isRunning() {
+        return m_endTime == 0;
+    }
+
+    /**
+     * @return the number of addresses in the sweep
+     */
+    public long getAddressCount() {
+        return m_addressCount;
+    }
+
+    /**
+     * @return the number of addresses pinged or skipped so far
+     */
+    public long getProcessedCount() {
+        return m_processed.get();
+    }
+
+    /**
+     * @return the percentage of the addresses processed
+     */
+    public double getProgress() {
+        return m_addressCount == 0 ? 100.0 : 100.0 * getProcessedCount() / m_addressCount;
+    }
+
+    /**
+     * @return the average number of pings sent per second
+     */
+    public double getRate() {
+        final long elapsed = (m_endTime == 0 ? System.currentTimeMillis() : m_endTime) - m_startTime;
+        return elapsed <= 0 ? 0.0 : m_pinged.get() * 1000.0 / elapsed;
+    }
+
+    public long getSkippedCount() {
+        return m_skipped.get();
+    }
+
+    public long getPingedCount() {
+        return m_pinged.get();
+    }
+
+    public long getResponseCount() {
+        return m_responses.get();
+    }
+
+    public long getTimeoutCount() {
+        return m_timeouts.get();
+    }
+
+    public long getErrorCount() {
+        return m_errors.get();
+    }
+
+    /**
+     * @return the number of pings waiting for a response
+     */
+    public long getOutstandingCount() {
+        return m_pinged.get() - m_responses.get() - m_timeouts.get() - m_errors.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoverySweep[addresses=" + m_addressCount + ", processed=" + getProcessedCount() + ", skipped=" + getSkippedCount()
+            + ", pinged=" + getPingedCount() + ", responses=" + getResponseCount() + ", timeouts=" + getTimeoutCount()
+            + ", errors=" + getErrorCount() + ", rate=" + String.format("%.1f/s", getRate()) + "]";
+    }
+}
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.opennms.core.utils.InetAddressUtils;
+
+/**
+ * The set of addresses discovery skips because they are already managed.
+ * IPv4 addresses are kept as sorted, coalesced intervals of unsigned 32-bit
+ * values in two primitive arrays, so a fully managed /16 costs 16 bytes
+ * instead of 65536 strings; the rare IPv6 addresses are kept as strings.
+ */
+public class KnownAddressSet {
+    private long[] m_starts;
+    private long[] m_ends;
+    private int m_intervals;
+    private long m_v4Count;
+    private final Set<String> m_v6 = new HashSet<String>();
+
+    public KnownAddressSet() {
+        m_starts = new long[16];
+        m_ends = new long[16];
+    }
+
+    /**
+     * Builds a set from many addresses at once by sorting them, which is much
+     * cheaper than adding them one at a time.
+     */
+    public static KnownAddressSet build(final Iterable<String> addresses) {
+        final Builder builder = new Builder();
+        for (final String address : addresses) {
+            builder.add(address);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects addresses, for instance from the rows of a query, into an array
+     * of primitive values and builds the set from them in one go.
+     */
+    public static class Builder {
+        private final KnownAddressSet m_set = new KnownAddressSet();
+        private long[] m_values = new long[1024];
+        private int m_count = 0;
+
+        public Builder add(final String address) {
+            final InetAddress addr = parse(address);
+            if (addr == null) {
+                return this;
+            }
+            final byte[] bytes = addr.getAddress();
+            if (bytes.length != 4) {
+                m_set.m_v6.add(InetAddressUtils.str(addr));
+                return this;
+            }
+            if (m_count == m_values.length) {
+                m_values = Arrays.copyOf(m_values, m_count * 2);
+            }
+            m_values[m_count++] = toLong(bytes);
+            return this;
+        }
+
+        /**
+         * @return the set; the builder must not be used afterwards
+         */
+        public KnownAddressSet build() {
+            final KnownAddressSet set = m_set;
+            Arrays.sort(m_values, 0, m_count);
+            for (int i = 0; i < m_count; i++) {
+                final long value = m_values[i];
+                if (set.m_intervals > 0 && value <= set.m_ends[set.m_intervals - 1] + 1) {
+                    if (value > set.m_ends[set.m_intervals - 1]) {
+                        set.m_ends[set.m_intervals - 1] = value;
+                        set.m_v4Count++;
+                    }
+                } else {
+                    set.insertInterval(set.m_intervals, value, value);
+                    set.m_v4Count++;
+                }
+            }
+            m_values = null;
+            return set;
+        }
+    }
+
+    private static InetAddress parse(final String address) {
+        try {
+            return InetAddressUtils.addr(address);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static long toLong(final byte[] bytes) {
+        return ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xffL) << 16) | ((bytes[2] & 0xffL) << 8) | (bytes[3] & 0xffL);
+    }
+
+    /**
+     * @return the index of the interval containing the value, or
+     *         <code>-(insertion point) - 1</code>
+     */
+    private int find(final long value) {
+        int low = 0;
+        int high = m_intervals - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (m_ends[mid] < value) {
+                low = mid + 1;
+            } else if (m_starts[mid] > value) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertInterval(final int index, final long start, final long end) {
+        if (m_intervals == m_starts.length) {
+            m_starts = Arrays.copyOf(m_starts, m_intervals * 2);
+            m_ends = Arrays.copyOf(m_ends, m_intervals * 2);
+        }
+        System.arraycopy(m_starts, index, m_starts, index + 1, m_intervals - index);
+        System.arraycopy(m_ends, index, m_ends, index + 1, m_intervals - index);
+        m_starts[index] = start;
+        m_ends[index] = end;
+        m_intervals++;
+    }
+
+    private void removeInterval(final int index) {
+        System.arraycopy(m_starts, index + 1, m_starts, index, m_intervals - index - 1);
+        System.arraycopy(m_ends, index + 1, m_ends, index, m_intervals - index - 1);
+        m_intervals--;
+    }
+
+    public synchronized boolean contains(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            return m_v6.contains(InetAddressUtils.str(address));
+        }
+        return find(toLong(bytes)) >= 0;
+    }
+
+    public boolean contains(final String address) {
+        final InetAddress addr = parse(address);
+        return addr != null && contains(addr);
+    }
+
+    /**
+     * @return true if the address was not in the set
+     */
+    public synchronized boolean add(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            return m_v6.add(InetAddressUtils.str(address));
+        }
+        final long value = toLong(bytes);
+        int index = find(value);
+        if (index >= 0) {
+            return false;
+        }
+        index = -(index + 1);
+        final boolean joinsPrevious = index > 0 && m_ends[index - 1] == value - 1;
+        final boolean joinsNext = index < m_intervals && m_starts[index] == value + 1;
+        if (joinsPrevious && joinsNext) {
+            m_ends[index - 1] = m_ends[index];
+            removeInterval(index);
+        } else if (joinsPrevious) {
+            m_ends[index - 1] = value;
+        } else if (joinsNext) {
+            m_starts[index] = value;
+        } else {
+            insertInterval(index, value, value);
+        }
+        m_v4Count++;
+        return true;
+    }
+
+    public boolean add(final String address) {
+        final InetAddress addr = parse(address);
+        return addr != null && add(addr);
+    }
+
+    /**
+     * @return true if the address was in the set
+     */
+    public synchronized boolean remove(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            return m_v6.remove(InetAddressUtils.str(address));
+        }
+        final long value = toLong(bytes);
+        final int index = find(value);
+        if (index < 0) {
+            return false;
+        }
+        final long start = m_starts[index];
+        final long end = m_ends[index];
+        if (start == end) {
+            removeInterval(index);
+        } else if (value == start) {
+            m_starts[index] = value + 1;
+        } else if (value == end) {
+            m_ends[index] = value - 1;
+        } else {
+            m_ends[index] = value - 1;
+            insertInterval(index + 1, value + 1, end);
+        }
+        m_v4Count--;
+        return true;
+    }
+
+    public boolean remove(final String address) {
+        final InetAddress addr = parse(address);
+        return addr != null && remove(addr);
+    }
+
+    /**
+     * @return the number of addresses in the set
+     */
+    public synchronized long size() {
+        return m_v4Count + m_v6.size();
+    }
+
+    /**
+     * @return the number of IPv4 intervals the set is made of
+     */
+    public synchronized int getIntervalCount() {
+        return m_intervals;
+    }
+}
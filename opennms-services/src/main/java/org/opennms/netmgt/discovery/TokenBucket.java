@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the discovery pings.  Unlike sleeping a whole number of milliseconds
+ * between packets, the bucket keeps the configured rate on average even above
+ * 1000 packets per second, and lets a small burst through after the sweep had
+ * to wait on something else.
+ */
+class TokenBucket {
+    private final double m_permitsPerNano;
+    private final double m_capacity;
+    private double m_tokens = 1.0;
+    private long m_last = System.nanoTime();
+
+    TokenBucket(final double permitsPerSecond, final double burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        m_permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        m_capacity = Math.max(1.0, burst);
+    }
+
+    /**
+     * Blocks until a permit is available.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (true) {
+            final long now = System.nanoTime();
+            m_tokens = Math.min(m_capacity, m_tokens + (now - m_last) * m_permitsPerNano);
+            m_last = now;
+            if (m_tokens >= 1.0) {
+                m_tokens -= 1.0;
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep((long)Math.ceil((1.0 - m_tokens) / m_permitsPerNano));
+        }
+    }
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.discovery.jmx;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.discovery.DiscoverySweep;
 
 /**
  * <p>Discovery class.</p>
@@ -49,5 +50,70 @@ public class Discovery extends AbstractSpringContextJmxServiceDaemon<org.opennms
     protected String getSpringContext() {
         return "discoveryContext";
     }
-    
+
+    private DiscoverySweep getSweep() {
+        return getDaemon().getCurrentSweep();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isSweepRunning() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep != null && sweep.isRunning();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSweepAddressCount() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0 : sweep.getAddressCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSweepProcessedCount() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0 : sweep.getProcessedCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getSweepProgress() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0.0 : sweep.getProgress();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getSweepRate() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0.0 : sweep.getRate();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSweepResponseCount() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0 : sweep.getResponseCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSweepTimeoutCount() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0 : sweep.getTimeoutCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getOutstandingPings() {
+        final DiscoverySweep sweep = getSweep();
+        return sweep == null ? 0 : sweep.getOutstandingCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getKnownAddressCount() {
+        return getDaemon().getKnownAddressCount();
+    }
 }
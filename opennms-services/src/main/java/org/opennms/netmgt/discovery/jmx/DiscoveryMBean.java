@@ -38,4 +38,48 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  */
 public interface DiscoveryMBean extends BaseOnmsMBean {
 
+    /**
+     * @return Whether a ping sweep is running
+     */
+    public boolean isSweepRunning();
+
+    /**
+     * @return The number of addresses in the current (or last) sweep
+     */
+    public long getSweepAddressCount();
+
+    /**
+     * @return The number of addresses pinged or skipped in the current (or last) sweep
+     */
+    public long getSweepProcessedCount();
+
+    /**
+     * @return The percentage of the current (or last) sweep that is done
+     */
+    public double getSweepProgress();
+
+    /**
+     * @return The average number of pings per second in the current (or last) sweep
+     */
+    public double getSweepRate();
+
+    /**
+     * @return The number of responses received in the current (or last) sweep
+     */
+    public long getSweepResponseCount();
+
+    /**
+     * @return The number of pings that timed out in the current (or last) sweep
+     */
+    public long getSweepTimeoutCount();
+
+    /**
+     * @return The number of pings waiting for a response
+     */
+    public long getOutstandingPings();
+
+    /**
+     * @return The number of managed addresses that are skipped by the sweeps
+     */
+    public long getKnownAddressCount();
 }
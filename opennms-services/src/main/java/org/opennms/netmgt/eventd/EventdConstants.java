@@ -55,6 +55,12 @@ public final class EventdConstants {
     		"eventForward, eventMouseOverText, eventAckUser, eventAckTime, eventSource,ifIndex) " +
     		"values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
+    /**
+     * The SQL insertion string used by eventd when the events table is
+     * partitioned, with the name of the partition as its format argument.
+     */
+    public final static String SQL_DB_INS_EVENT_PARTITION = SQL_DB_INS_EVENT.replaceFirst("into events ", "into %s ");
+
     /**
      * The SQL statement necessary to convert the service name into a service id
      * using the distributed poller database.
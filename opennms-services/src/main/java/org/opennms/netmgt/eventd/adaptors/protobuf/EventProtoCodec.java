@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.adaptors.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.opennms.netmgt.EventConstants;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Logmsg;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Value;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Encodes and decodes the messages described in <code>EventProtos.proto</code>
+ * directly to and from {@link Event} objects.
+ *
+ * <p>The codec works on the protobuf wire format with {@link CodedInputStream}
+ * and {@link CodedOutputStream} rather than through generated message
+ * classes, so that a decoded event is built straight into the
+ * {@link Event} that the event handlers expect without an intermediate
+ * object per message.  Clients can use code generated from the
+ * <code>.proto</code> file in any language.</p>
+ */
+public abstract class EventProtoCodec {
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    /* Event fields */
+    private static final int EVENT_UEI = 1;
+    private static final int EVENT_SOURCE = 2;
+    private static final int EVENT_UUID = 3;
+    private static final int EVENT_TIME = 4;
+    private static final int EVENT_NODEID = 5;
+    private static final int EVENT_INTERFACE = 6;
+    private static final int EVENT_SERVICE = 7;
+    private static final int EVENT_HOST = 8;
+    private static final int EVENT_IFINDEX = 9;
+    private static final int EVENT_SEVERITY = 10;
+    private static final int EVENT_DESCR = 11;
+    private static final int EVENT_LOGMSG = 12;
+    private static final int EVENT_LOGMSG_DEST = 13;
+    private static final int EVENT_PARM = 14;
+    private static final int EVENT_DISTPOLLER = 15;
+    private static final int EVENT_SNMPHOST = 16;
+    private static final int EVENT_OPERINSTRUCT = 17;
+
+    /* Parm fields */
+    private static final int PARM_NAME = 1;
+    private static final int PARM_VALUE = 2;
+    private static final int PARM_TYPE = 3;
+    private static final int PARM_ENCODING = 4;
+
+    /* EventAck fields */
+    private static final int ACK_SEQUENCE = 1;
+    private static final int ACK_REJECTED = 2;
+
+    /** Returned by {@link #readFrameLength(ByteBuffer)} when the length prefix is not complete yet. */
+    public static final int INCOMPLETE = -1;
+
+    /**
+     * An acknowledgement sent by the receiver after each batch of events.
+     */
+    public static final class Ack {
+        private final long m_sequence;
+        private final List<Long> m_rejected;
+
+        public Ack(final long sequence, final List<Long> rejected) {
+            m_sequence = sequence;
+            m_rejected = rejected == null ? Collections.<Long>emptyList() : rejected;
+        }
+
+        public long getSequence() {
+            return m_sequence;
+        }
+
+        public List<Long> getRejected() {
+            return m_rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "Ack[sequence=" + m_sequence + ", rejected=" + m_rejected + "]";
+        }
+    }
+
+    /**
+     * Decode a single <code>Event</code> message.
+     *
+     * @param buf the buffer holding the message
+     * @param offset the offset of the first byte of the message
+     * @param length the length of the message, without its length prefix
+     * @return the decoded event
+     * @throws IOException if the message is malformed or has no UEI
+     */
+    public static Event decodeEvent(final byte[] buf, final int offset, final int length) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(buf, offset, length);
+        final Event event = new Event();
+        String logmsg = null;
+        String logmsgDest = null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag >>> 3) {
+            case EVENT_UEI: event.setUei(in.readString()); break;
+            case EVENT_SOURCE: event.setSource(in.readString()); break;
+            case EVENT_UUID: event.setUuid(in.readString()); break;
+            case EVENT_TIME: event.setTime(EventConstants.formatToString(new Date(in.readUInt64()))); break;
+            case EVENT_NODEID: event.setNodeid(in.readUInt64()); break;
+            case EVENT_INTERFACE: event.setInterface(in.readString()); break;
+            case EVENT_SERVICE: event.setService(in.readString()); break;
+            case EVENT_HOST: event.setHost(in.readString()); break;
+            case EVENT_IFINDEX: event.setIfIndex(in.readInt32()); break;
+            case EVENT_SEVERITY: event.setSeverity(in.readString()); break;
+            case EVENT_DESCR: event.setDescr(in.readString()); break;
+            case EVENT_LOGMSG: logmsg = in.readString(); break;
+            case EVENT_LOGMSG_DEST: logmsgDest = in.readString(); break;
+            case EVENT_PARM: event.addParm(decodeParm(in)); break;
+            case EVENT_DISTPOLLER: event.setDistPoller(in.readString()); break;
+            case EVENT_SNMPHOST: event.setSnmphost(in.readString()); break;
+            case EVENT_OPERINSTRUCT: event.setOperinstruct(in.readString()); break;
+            default:
+                if (!in.skipField(tag)) {
+                    return checkEvent(event, logmsg, logmsgDest);
+                }
+            }
+        }
+        return checkEvent(event, logmsg, logmsgDest);
+    }
+
+    private static Event checkEvent(final Event event, final String logmsg, final String logmsgDest) throws IOException {
+        if (event.getUei() == null) {
+            throw new InvalidProtocolBufferException("Event message is missing required field 'uei'");
+        }
+        if (logmsg != null || logmsgDest != null) {
+            final Logmsg msg = new Logmsg();
+            msg.setContent(logmsg);
+            msg.setDest(logmsgDest);
+            event.setLogmsg(msg);
+        }
+        return event;
+    }
+
+    private static Parm decodeParm(final CodedInputStream in) throws IOException {
+        final int length = in.readRawVarint32();
+        final int oldLimit = in.pushLimit(length);
+        final Parm parm = new Parm();
+        final Value value = new Value();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag >>> 3) {
+            case PARM_NAME: parm.setParmName(in.readString()); break;
+            case PARM_VALUE: value.setContent(in.readString()); break;
+            case PARM_TYPE: value.setType(in.readString()); break;
+            case PARM_ENCODING: value.setEncoding(in.readString()); break;
+            default: in.skipField(tag);
+            }
+        }
+        in.popLimit(oldLimit);
+        if (parm.getParmName() == null) {
+            throw new InvalidProtocolBufferException("Parm message is missing required field 'name'");
+        }
+        parm.setValue(value);
+        return parm;
+    }
+
+    /**
+     * Encode an event as an <code>Event</code> message, without a length prefix.
+     *
+     * @param event the event to encode
+     * @return the encoded message
+     * @throws IOException if the event has no UEI
+     */
+    public static byte[] encodeEvent(final Event event) throws IOException {
+        if (event.getUei() == null) {
+            throw new IllegalArgumentException("event must have a UEI");
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeString(EVENT_UEI, event.getUei());
+        writeString(out, EVENT_SOURCE, event.getSource());
+        writeString(out, EVENT_UUID, event.getUuid());
+        if (event.getTime() != null) {
+            try {
+                out.writeUInt64(EVENT_TIME, EventConstants.parseToDate(event.getTime()).getTime());
+            } catch (final ParseException e) {
+                throw new IllegalArgumentException("event has an unparseable time: " + event.getTime(), e);
+            }
+        }
+        if (event.hasNodeid()) {
+            out.writeUInt64(EVENT_NODEID, event.getNodeid());
+        }
+        writeString(out, EVENT_INTERFACE, event.getInterface());
+        writeString(out, EVENT_SERVICE, event.getService());
+        writeString(out, EVENT_HOST, event.getHost());
+        if (event.hasIfIndex()) {
+            out.writeInt32(EVENT_IFINDEX, event.getIfIndex());
+        }
+        writeString(out, EVENT_SEVERITY, event.getSeverity());
+        writeString(out, EVENT_DESCR, event.getDescr());
+        if (event.getLogmsg() != null) {
+            writeString(out, EVENT_LOGMSG, event.getLogmsg().getContent());
+            writeString(out, EVENT_LOGMSG_DEST, event.getLogmsg().getDest());
+        }
+        for (final Parm parm : event.getParmCollection()) {
+            out.writeBytes(EVENT_PARM, ByteString.copyFrom(encodeParm(parm)));
+        }
+        writeString(out, EVENT_DISTPOLLER, event.getDistPoller());
+        writeString(out, EVENT_SNMPHOST, event.getSnmphost());
+        writeString(out, EVENT_OPERINSTRUCT, event.getOperinstruct());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeParm(final Parm parm) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeString(PARM_NAME, parm.getParmName());
+        final Value value = parm.getValue();
+        if (value != null) {
+            writeString(out, PARM_VALUE, value.getContent());
+            writeString(out, PARM_TYPE, value.getType());
+            writeString(out, PARM_ENCODING, value.getEncoding());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(final CodedOutputStream out, final int field, final String value) throws IOException {
+        if (value != null) {
+            out.writeString(field, value);
+        }
+    }
+
+    /**
+     * Encode an <code>EventAck</code> message, without a length prefix.
+     *
+     * @param sequence the number of events processed on the connection so far
+     * @param rejected the sequence numbers of events that were not accepted
+     * @return the encoded message
+     * @throws IOException if any.
+     */
+    public static byte[] encodeAck(final long sequence, final List<Long> rejected) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 4 * rejected.size());
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeUInt64(ACK_SEQUENCE, sequence);
+        for (final Long seq : rejected) {
+            out.writeUInt64(ACK_REJECTED, seq);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode an <code>EventAck</code> message.
+     *
+     * @param buf the buffer holding the message
+     * @param offset the offset of the first byte of the message
+     * @param length the length of the message, without its length prefix
+     * @return the decoded acknowledgement
+     * @throws IOException if the message is malformed
+     */
+    public static Ack decodeAck(final byte[] buf, final int offset, final int length) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(buf, offset, length);
+        long sequence = -1;
+        final List<Long> rejected = new ArrayList<Long>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == (ACK_SEQUENCE << 3 | WIRETYPE_VARINT)) {
+                sequence = in.readUInt64();
+            } else if (tag == (ACK_REJECTED << 3 | WIRETYPE_VARINT)) {
+                rejected.add(in.readUInt64());
+            } else if (tag == (ACK_REJECTED << 3 | WIRETYPE_LENGTH_DELIMITED)) {
+                // packed encoding
+                final int limit = in.pushLimit(in.readRawVarint32());
+                while (in.getBytesUntilLimit() > 0) {
+                    rejected.add(in.readUInt64());
+                }
+                in.popLimit(limit);
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+        if (sequence < 0) {
+            throw new InvalidProtocolBufferException("EventAck message is missing required field 'sequence'");
+        }
+        return new Ack(sequence, rejected);
+    }
+
+    /**
+     * Prefix a message with its length as a varint.
+     *
+     * @param message an encoded message
+     * @return the length-prefixed frame
+     * @throws IOException if any.
+     */
+    public static byte[] frame(final byte[] message) throws IOException {
+        final byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(message.length) + message.length];
+        final CodedOutputStream out = CodedOutputStream.newInstance(frame);
+        out.writeRawVarint32(message.length);
+        out.writeRawBytes(message);
+        out.checkNoSpaceLeft();
+        return frame;
+    }
+
+    /**
+     * Read a varint length prefix from <code>buf</code>.  On success the
+     * buffer is positioned after the prefix; if the prefix is not complete
+     * yet the position is left unchanged and {@link #INCOMPLETE} is returned.
+     *
+     * @param buf a buffer in read mode
+     * @return the frame length or {@link #INCOMPLETE}
+     * @throws IOException if the prefix is longer than five bytes
+     */
+    public static int readFrameLength(final ByteBuffer buf) throws IOException {
+        final int start = buf.position();
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buf.hasRemaining()) {
+                buf.position(start);
+                return INCOMPLETE;
+            }
+            final byte b = buf.get();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (result < 0) {
+                    throw new InvalidProtocolBufferException("negative frame length");
+                }
+                return result;
+            }
+        }
+        throw new InvalidProtocolBufferException("malformed frame length");
+    }
+
+}
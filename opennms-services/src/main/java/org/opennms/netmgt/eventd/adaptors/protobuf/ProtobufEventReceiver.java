@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.adaptors.protobuf;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.eventd.adaptors.EventHandlerMBeanProxy;
+import org.opennms.netmgt.eventd.adaptors.EventReceiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Receives events encoded with the binary protocol described in
+ * <code>EventProtos.proto</code>. It is an alternative to the XML
+ * {@link org.opennms.netmgt.eventd.adaptors.tcp.TcpEventReceiver} for
+ * integrations that send large volumes of events: each event is sent as a
+ * length-prefixed protobuf message and acknowledgements are returned in
+ * batches, so no XML has to be parsed or generated.
+ *
+ * <p>The receiver is disabled unless a port greater than zero is set.</p>
+ */
+public final class ProtobufEventReceiver implements EventReceiver, ProtobufEventReceiverMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProtobufEventReceiver.class);
+
+    /**
+     * The server thread.
+     */
+    private Thread m_worker;
+
+    /**
+     * The NIO server
+     */
+    private volatile ProtobufEventServer m_server;
+
+    /**
+     * The registered list of event handlers. Each incoming event will be
+     * passed to all event handlers. The event handlers <em>MUST NOT</em>
+     * modify the passed event.
+     */
+    private List<EventHandler> m_eventHandlers;
+
+    /**
+     * The fiber's status.
+     */
+    private volatile int m_status;
+
+    /**
+     * The TCP port to listen on, or 0 if the receiver is disabled
+     */
+    private int m_port;
+
+    /**
+     * The IP address to listen on, "*" for all addresses.
+     */
+    private String m_ipAddress;
+
+    /**
+     * The largest encoded event accepted from a client.
+     */
+    private int m_maxFrameSize;
+
+    /**
+     * Constructs a disabled binary event receiver.
+     */
+    public ProtobufEventReceiver() {
+        this(0, "127.0.0.1");
+    }
+
+    /**
+     * Constructs a new binary event receiver on the passed port. The server
+     * socket allocation is delayed until the fiber is actually started.
+     *
+     * @param port
+     *            The binding port for the server socket, or 0 to disable
+     * @param ipAddress
+     *            The address to bind to, "*" for all addresses
+     */
+    public ProtobufEventReceiver(final int port, final String ipAddress) {
+        m_eventHandlers = new ArrayList<EventHandler>(3);
+        m_status = START_PENDING;
+        m_port = port;
+        m_ipAddress = ipAddress;
+        m_maxFrameSize = ProtobufEventServer.DEFAULT_MAX_FRAME_SIZE;
+    }
+
+    /**
+     * Allocates the server socket and starts up the server thread.
+     *
+     * @throws java.lang.reflect.UndeclaredThrowableException
+     *             Thrown if an error occurs allocating the server socket.
+     */
+    @Override
+    public synchronized void start() {
+        assertNotRunning();
+
+        if (m_port <= 0) {
+            LOG.debug("Binary event receiver is disabled.");
+            m_status = RUNNING;
+            return;
+        }
+
+        m_status = STARTING;
+        try {
+            final InetAddress address = "*".equals(m_ipAddress) ? null : InetAddressUtils.addr(m_ipAddress);
+            m_server = new ProtobufEventServer(this, m_eventHandlers, m_port, address, m_maxFrameSize);
+        } catch (final IOException e) {
+            m_status = STOPPED;
+            throw new UndeclaredThrowableException(e, "Error opening server socket: " + e);
+        }
+        m_worker = new Thread(m_server, "Event Binary Server[" + m_port + "]");
+
+        try {
+            m_worker.start();
+        } catch (final RuntimeException e) {
+            m_worker.interrupt();
+            m_status = STOPPED;
+            throw e;
+        }
+
+        m_status = RUNNING;
+    }
+
+    /**
+     * Stops the receiver and joins the server thread.
+     */
+    @Override
+    public synchronized void stop() {
+        if (m_status == STOPPED) {
+            return;
+        }
+        if (m_status == START_PENDING || m_server == null) {
+            m_status = STOPPED;
+            return;
+        }
+
+        m_status = STOP_PENDING;
+
+        try {
+            m_server.stop();
+        } catch (final InterruptedException e) {
+            LOG.warn("Thread Interrupted while attempting to join the binary event server thread", e);
+        }
+        m_server = null;
+        m_worker = null;
+
+        m_status = STOPPED;
+    }
+
+    /**
+     * Returns the name of this Fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return "Event Binary Receiver[" + m_port + "]";
+    }
+
+    /**
+     * Returns the status of this Fiber.
+     *
+     * @return a int.
+     */
+    @Override
+    public int getStatus() {
+        return m_status;
+    }
+
+    /**
+     * <p>getStatusText</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getStatusText() {
+        return STATUS_NAMES[getStatus()];
+    }
+
+    /**
+     * <p>status</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String status() {
+        return getStatusText();
+    }
+
+    /**
+     * Called when the fiber is initialized
+     */
+    @Override
+    public void init() {
+        // do nothing
+    }
+
+    /**
+     * Called when the fiber is destroyed
+     */
+    @Override
+    public void destroy() {
+        // do nothing
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addEventHandler(final EventHandler handler) {
+        synchronized (m_eventHandlers) {
+            if (!m_eventHandlers.contains(handler)) {
+                m_eventHandlers.add(handler);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeEventHandler(final EventHandler handler) {
+        synchronized (m_eventHandlers) {
+            m_eventHandlers.remove(handler);
+        }
+    }
+
+    /**
+     * <p>getEventHandlers</p>
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public List<EventHandler> getEventHandlers() {
+        return m_eventHandlers;
+    }
+
+    /**
+     * <p>setEventHandlers</p>
+     *
+     * @param eventHandlers a {@link java.util.List} object.
+     */
+    public void setEventHandlers(final List<EventHandler> eventHandlers) {
+        m_eventHandlers = eventHandlers;
+    }
+
+    /**
+     * <p>getIpAddress</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getIpAddress() {
+        return m_ipAddress;
+    }
+
+    /**
+     * <p>setIpAddress</p>
+     *
+     * @param ipAddress a {@link java.lang.String} object.
+     */
+    public void setIpAddress(final String ipAddress) {
+        assertNotRunning();
+
+        m_ipAddress = ipAddress;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Integer getPort() {
+        return m_port;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setPort(final Integer port) {
+        assertNotRunning();
+
+        m_port = port;
+    }
+
+    /**
+     * Returns the port the server socket is actually bound to, which differs
+     * from {@link #getPort()} only in tests that bind to an ephemeral port.
+     *
+     * @return the bound port, or -1 if the receiver is not listening
+     */
+    public synchronized int getLocalPort() {
+        return m_server == null ? -1 : m_server.getLocalPort();
+    }
+
+    /**
+     * <p>getMaxFrameSize</p>
+     *
+     * @return the largest encoded event, in bytes, accepted from a client
+     */
+    public int getMaxFrameSize() {
+        return m_maxFrameSize;
+    }
+
+    /**
+     * <p>setMaxFrameSize</p>
+     *
+     * @param maxFrameSize the largest encoded event, in bytes, accepted from a client
+     */
+    public void setMaxFrameSize(final int maxFrameSize) {
+        assertNotRunning();
+        Assert.isTrue(maxFrameSize > 0, "maxFrameSize must be positive");
+
+        m_maxFrameSize = maxFrameSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addEventHandler(final String name) throws MalformedObjectNameException, InstanceNotFoundException {
+        addEventHandler(new EventHandlerMBeanProxy(new ObjectName(name)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeEventHandler(final String name) throws MalformedObjectNameException, InstanceNotFoundException {
+        removeEventHandler(new EventHandlerMBeanProxy(new ObjectName(name)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getConnections() {
+        final ProtobufEventServer server = m_server;
+        return server == null ? 0 : server.getConnections();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventsReceived() {
+        final ProtobufEventServer server = m_server;
+        return server == null ? 0 : server.getEventsReceived();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventsRejected() {
+        final ProtobufEventServer server = m_server;
+        return server == null ? 0 : server.getEventsRejected();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAcksSent() {
+        final ProtobufEventServer server = m_server;
+        return server == null ? 0 : server.getAcksSent();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getBytesReceived() {
+        final ProtobufEventServer server = m_server;
+        return server == null ? 0 : server.getBytesReceived();
+    }
+
+    private void assertNotRunning() {
+        Assert.state(m_status == START_PENDING || m_status == STOPPED, "The fiber is already running and cannot be modified or started");
+    }
+}
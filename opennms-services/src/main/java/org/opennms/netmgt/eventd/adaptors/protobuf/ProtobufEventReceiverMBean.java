@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.adaptors.protobuf;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MalformedObjectNameException;
+
+import org.opennms.netmgt.daemon.BaseOnmsMBean;
+
+/**
+ * <p>ProtobufEventReceiverMBean interface.</p>
+ */
+public interface ProtobufEventReceiverMBean extends BaseOnmsMBean {
+    /**
+     * Invoked prior to garbage collection.
+     */
+    void destroy();
+
+    /**
+     * Sets the port where new connections will be accepted. This can only be
+     * done prior to starting the managed bean. A port of 0 or less disables
+     * the receiver.
+     *
+     * @param port
+     *            The port to listen on.
+     */
+    void setPort(Integer port);
+
+    /**
+     * Returns the port where the receiver accepts connections.
+     *
+     * @return The listening port.
+     */
+    Integer getPort();
+
+    /**
+     * Adds a new event handler by its managed name.
+     *
+     * @param name
+     *            The name of the handler to add.
+     * @throws javax.management.MalformedObjectNameException
+     *             Thrown if the passed name is not a valid ObjectName.
+     * @throws javax.management.InstanceNotFoundException
+     *             Thrown if no managed bean can be found that matches the name.
+     */
+    void addEventHandler(String name) throws MalformedObjectNameException, InstanceNotFoundException;
+
+    /**
+     * Removes an event handler. The passed name must be a valid JMX object
+     * name.
+     *
+     * @param name
+     *            The name of the handler to remove.
+     * @throws javax.management.MalformedObjectNameException
+     *             Thrown if the passed name is not a valid ObjectName.
+     * @throws javax.management.InstanceNotFoundException
+     *             Thrown if no managed bean can be found that matches the name.
+     */
+    void removeEventHandler(String name) throws MalformedObjectNameException, InstanceNotFoundException;
+
+    /**
+     * Returns the number of open client connections.
+     *
+     * @return the number of connections
+     */
+    int getConnections();
+
+    /**
+     * Returns the number of events read since the receiver was started (counter).
+     *
+     * @return the number of events received
+     */
+    long getEventsReceived();
+
+    /**
+     * Returns the number of events that could not be decoded or were not
+     * accepted by any handler (counter).
+     *
+     * @return the number of events rejected
+     */
+    long getEventsRejected();
+
+    /**
+     * Returns the number of acknowledgements sent to clients (counter).
+     *
+     * @return the number of acknowledgements sent
+     */
+    long getAcksSent();
+
+    /**
+     * Returns the number of bytes read from clients (counter).
+     *
+     * @return the number of bytes received
+     */
+    long getBytesReceived();
+}
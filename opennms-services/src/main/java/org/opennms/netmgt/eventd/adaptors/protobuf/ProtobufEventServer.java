@@ -0,0 +1,448 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.adaptors.protobuf;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.fiber.Fiber;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single-threaded, non-blocking server for the binary event protocol. All
+ * connections are serviced from one selector. Every read drains as many
+ * complete frames as the socket delivered, hands the decoded events to the
+ * event handlers, and answers with one <code>EventAck</code> for the whole
+ * batch, so clients can keep streaming events without waiting for each
+ * acknowledgement.
+ *
+ * <p>A client that stops reading its acknowledgements is not read from
+ * until the pending acknowledgements drain.</p>
+ */
+final class ProtobufEventServer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProtobufEventServer.class);
+
+    /**
+     * The default maximum size of a single encoded event.
+     */
+    static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_PENDING_WRITE_BYTES = 64 * 1024;
+
+    private final Fiber m_parent;
+
+    private final List<EventHandler> m_handlers;
+
+    private final int m_maxFrameSize;
+
+    private final Selector m_selector;
+
+    private final ServerSocketChannel m_serverChannel;
+
+    private volatile boolean m_stop = false;
+
+    private volatile Thread m_context;
+
+    private final AtomicInteger m_connections = new AtomicInteger();
+
+    private final AtomicLong m_eventsReceived = new AtomicLong();
+
+    private final AtomicLong m_eventsRejected = new AtomicLong();
+
+    private final AtomicLong m_acksSent = new AtomicLong();
+
+    private final AtomicLong m_bytesReceived = new AtomicLong();
+
+    /**
+     * Opens the server socket and binds it to the passed address and port.
+     *
+     * @param parent the receiver that owns this server
+     * @param handlers the event handlers, shared with the parent
+     * @param port the port to listen on
+     * @param address the address to bind to, or null for all addresses
+     * @param maxFrameSize the largest event frame accepted from a client
+     */
+    ProtobufEventServer(final Fiber parent, final List<EventHandler> handlers, final int port, final InetAddress address, final int maxFrameSize) throws IOException {
+        m_parent = parent;
+        m_handlers = handlers;
+        m_maxFrameSize = maxFrameSize;
+
+        m_selector = Selector.open();
+        m_serverChannel = ServerSocketChannel.open();
+        try {
+            m_serverChannel.configureBlocking(false);
+            m_serverChannel.socket().setReuseAddress(true);
+            m_serverChannel.socket().bind(new InetSocketAddress(address, port));
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException e) {
+            m_serverChannel.close();
+            m_selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the selector loop and joins the server thread.
+     */
+    void stop() throws InterruptedException {
+        m_stop = true;
+        m_selector.wakeup();
+        final Thread context = m_context;
+        if (context != null && context != Thread.currentThread()) {
+            context.join();
+        }
+    }
+
+    /**
+     * Returns the local port the server is bound to.
+     */
+    int getLocalPort() {
+        return m_serverChannel.socket().getLocalPort();
+    }
+
+    int getConnections() {
+        return m_connections.get();
+    }
+
+    long getEventsReceived() {
+        return m_eventsReceived.get();
+    }
+
+    long getEventsRejected() {
+        return m_eventsRejected.get();
+    }
+
+    long getAcksSent() {
+        return m_acksSent.get();
+    }
+
+    long getBytesReceived() {
+        return m_bytesReceived.get();
+    }
+
+    @Override
+    public void run() {
+        m_context = Thread.currentThread();
+        LOG.debug("Binary event server listening on port {}", getLocalPort());
+
+        try {
+            while (!m_stop && m_parent.getStatus() != Fiber.STOP_PENDING && m_parent.getStatus() != Fiber.STOPPED) {
+                m_selector.select(500);
+
+                final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    final Connection conn = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            conn.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.write();
+                        }
+                    } catch (final IOException e) {
+                        LOG.info("Closing binary event connection from {}: {}", conn, e.getMessage());
+                        LOG.debug("Connection error", e);
+                        conn.close();
+                    }
+                }
+            }
+        } catch (final ClosedSelectorException e) {
+            LOG.debug("Selector closed", e);
+        } catch (final IOException e) {
+            LOG.error("An I/O error occurred in the binary event server, shutting it down.", e);
+        } finally {
+            closeAll();
+            LOG.debug("Binary event server thread exiting");
+        }
+    }
+
+    private void accept() {
+        try {
+            final SocketChannel socket = m_serverChannel.accept();
+            if (socket == null) {
+                return;
+            }
+            socket.configureBlocking(false);
+            socket.socket().setTcpNoDelay(true);
+            final Connection conn = new Connection(socket);
+            conn.m_key = socket.register(m_selector, SelectionKey.OP_READ, conn);
+            m_connections.incrementAndGet();
+            LOG.debug("Accepted binary event connection from {}", conn);
+        } catch (final IOException e) {
+            LOG.warn("Failed to accept a binary event connection.", e);
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (final SelectionKey key : m_selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+        } catch (final ClosedSelectorException e) {
+            // already closed
+        }
+        try {
+            m_serverChannel.close();
+        } catch (final IOException e) {
+            LOG.warn("An I/O error occurred closing the binary event server socket.", e);
+        }
+        try {
+            m_selector.close();
+        } catch (final IOException e) {
+            LOG.warn("An I/O error occurred closing the binary event selector.", e);
+        }
+    }
+
+    /**
+     * Passes a batch of events to every handler and returns, for each event,
+     * whether at least one handler accepted it.
+     */
+    private boolean[] processEvents(final List<Event> events) {
+        final boolean[] accepted = new boolean[events.size()];
+
+        // see TcpStreamHandler: hold the handler lock for the whole batch
+        synchronized (m_handlers) {
+            for (final EventHandler hdl : m_handlers) {
+                for (int i = 0; i < accepted.length; i++) {
+                    try {
+                        if (hdl.processEvent(events.get(i))) {
+                            accepted[i] = true;
+                        }
+                    } catch (final Throwable t) {
+                        LOG.warn("An exception occured while processing an event.", t);
+                    }
+                }
+            }
+        }
+
+        final EventReceipt receipt = new EventReceipt();
+        boolean hasReceipt = false;
+        for (int i = 0; i < accepted.length; i++) {
+            final String uuid = events.get(i).getUuid();
+            if (accepted[i] && uuid != null) {
+                receipt.addUuid(uuid);
+                hasReceipt = true;
+            }
+        }
+        if (hasReceipt) {
+            synchronized (m_handlers) {
+                for (final EventHandler hdl : m_handlers) {
+                    try {
+                        hdl.receiptSent(receipt);
+                    } catch (final Throwable t) {
+                        LOG.warn("An exception occured while processing an event receipt.", t);
+                    }
+                }
+            }
+        }
+
+        return accepted;
+    }
+
+    /**
+     * The state of one client connection. Only touched by the selector thread.
+     */
+    private final class Connection {
+        private final SocketChannel m_socket;
+        private final String m_name;
+        private final LinkedList<ByteBuffer> m_pendingWrites = new LinkedList<ByteBuffer>();
+        private SelectionKey m_key;
+        private ByteBuffer m_readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private int m_pendingBytes = 0;
+        private long m_sequence = 0;
+        private boolean m_closed = false;
+
+        Connection(final SocketChannel socket) {
+            m_socket = socket;
+            m_name = String.valueOf(socket.socket().getRemoteSocketAddress());
+        }
+
+        void read() throws IOException {
+            final int count = m_socket.read(m_readBuffer);
+            if (count < 0) {
+                LOG.debug("Binary event connection from {} closed by the client", this);
+                close();
+                return;
+            }
+            m_bytesReceived.addAndGet(count);
+
+            final List<Event> events = new ArrayList<Event>();
+            final List<Long> sequences = new ArrayList<Long>();
+            final List<Long> rejected = new ArrayList<Long>();
+            final long lastAcked = m_sequence;
+
+            m_readBuffer.flip();
+            int needed = 0;
+            while (true) {
+                final int start = m_readBuffer.position();
+                final int length = EventProtoCodec.readFrameLength(m_readBuffer);
+                if (length == EventProtoCodec.INCOMPLETE) {
+                    break;
+                }
+                if (length > m_maxFrameSize) {
+                    throw new IOException("event frame of " + length + " bytes exceeds the maximum of " + m_maxFrameSize);
+                }
+                if (m_readBuffer.remaining() < length) {
+                    needed = m_readBuffer.position() - start + length;
+                    m_readBuffer.position(start);
+                    break;
+                }
+
+                final long sequence = ++m_sequence;
+                final int offset = m_readBuffer.arrayOffset() + m_readBuffer.position();
+                try {
+                    events.add(EventProtoCodec.decodeEvent(m_readBuffer.array(), offset, length));
+                    sequences.add(sequence);
+                } catch (final IOException e) {
+                    LOG.warn("Could not decode event {} from {}: {}", sequence, this, e.getMessage());
+                    rejected.add(sequence);
+                }
+                m_readBuffer.position(m_readBuffer.position() + length);
+            }
+            m_readBuffer.compact();
+
+            if (needed > m_readBuffer.capacity()) {
+                final ByteBuffer larger = ByteBuffer.allocate(needed);
+                m_readBuffer.flip();
+                larger.put(m_readBuffer);
+                m_readBuffer = larger;
+            }
+
+            if (m_sequence == lastAcked) {
+                return;
+            }
+
+            if (!events.isEmpty()) {
+                final boolean[] accepted = processEvents(events);
+                for (int i = 0; i < accepted.length; i++) {
+                    if (!accepted[i]) {
+                        rejected.add(sequences.get(i));
+                    }
+                }
+            }
+
+            m_eventsReceived.addAndGet(m_sequence - lastAcked);
+            m_eventsRejected.addAndGet(rejected.size());
+            LOG.debug("Processed events {} to {} from {}, {} rejected", lastAcked + 1, m_sequence, this, rejected.size());
+
+            sendAck(rejected);
+        }
+
+        private void sendAck(final List<Long> rejected) throws IOException {
+            final byte[] frame = EventProtoCodec.frame(EventProtoCodec.encodeAck(m_sequence, rejected));
+            m_pendingWrites.add(ByteBuffer.wrap(frame));
+            m_pendingBytes += frame.length;
+            m_acksSent.incrementAndGet();
+            write();
+        }
+
+        void write() throws IOException {
+            while (!m_pendingWrites.isEmpty()) {
+                final ByteBuffer buf = m_pendingWrites.getFirst();
+                final int written = m_socket.write(buf);
+                m_pendingBytes -= written;
+                if (buf.hasRemaining()) {
+                    break;
+                }
+                m_pendingWrites.removeFirst();
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (m_closed || !m_key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (m_pendingBytes < MAX_PENDING_WRITE_BYTES) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!m_pendingWrites.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            m_key.interestOps(ops);
+        }
+
+        void close() {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            m_connections.decrementAndGet();
+            if (m_key != null) {
+                m_key.cancel();
+            }
+            try {
+                m_socket.close();
+            } catch (final IOException e) {
+                LOG.warn("An I/O exception occured while closing the binary event connection from {}.", this, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.opennms.core.db.TimePartitioning;
 import org.opennms.core.utils.DBUtils;
 import org.opennms.netmgt.dao.util.AutoAction;
 import org.opennms.netmgt.dao.util.OperatorAction;
@@ -89,6 +90,10 @@ import org.springframework.jdbc.core.JdbcTemplate;
  */
 public final class JdbcEventWriter extends AbstractJdbcPersister implements EventProcessor, InitializingBean {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcEventWriter.class);
+
+    /** The partitioning of the events table, or null if it is not partitioned */
+    private final TimePartitioning m_partitioning = TimePartitioning.forEvents();
+
     /**
      * {@inheritDoc}
      *
@@ -172,7 +177,8 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
         final DBUtils d = new DBUtils(getClass());
 
         try {
-            final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+            final Timestamp eventTime = getEventTime(event);
+            final PreparedStatement insStmt = connection.prepareStatement(getInsertSql(eventTime));
             d.watch(insStmt);
 
             // eventID
@@ -186,7 +192,7 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
             set(insStmt, 3, event.hasNodeid() ? nodeid.intValue() : -1);
 
             // eventTime
-            insStmt.setTimestamp(4, getEventTime(event));
+            insStmt.setTimestamp(4, eventTime);
 
             // Resolve the event host to a hostname using the ipInterface table
             String hostname = getEventHost(event);
@@ -383,6 +389,19 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
         }
     }
 
+    /**
+     * Returns the insert statement for an event that happened at
+     * <code>eventTime</code>, writing straight into its partition when the
+     * events table is partitioned. An event time too far from now, like one
+     * from an agent with a bad clock, goes into the events table itself.
+     */
+    private String getInsertSql(final Timestamp eventTime) throws SQLException {
+        if (m_partitioning == null) {
+            return EventdConstants.SQL_DB_INS_EVENT;
+        }
+        return String.format(EventdConstants.SQL_DB_INS_EVENT_PARTITION, m_partitioning.ensurePartition(getDataSource(), eventTime));
+    }
+
     /**
      * @param event
      * @param log
@@ -47,6 +47,7 @@ import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
+import org.opennms.netmgt.utils.JdbcConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -140,11 +141,19 @@ public class JDBCMonitor extends AbstractServiceMonitor {
 	 *
 	 * <P>
 	 * This method is the called whenever an interface is being removed from the
-	 * scheduler. For now this method is just an 'adaptor', does nothing
+	 * scheduler. It gives up the service's share of its JDBC connection pools.
 	 */
         @Override
 	public void release(MonitoredService svc) {
 		LOG.debug("Shuting down plugin");
+		JdbcConnectionPool.releaseOwner(getPoolOwner(svc));
+	}
+
+	/**
+	 * The service, as the owner of the JDBC connection pools it uses.
+	 */
+	private String getPoolOwner(MonitoredService svc) {
+		return getClass().getSimpleName() + ':' + svc.getNodeId() + ':' + svc.getIpAddr() + ':' + svc.getSvcName();
 	}
 
 	/**
@@ -211,12 +220,14 @@ public class JDBCMonitor extends AbstractServiceMonitor {
 		Properties props = new Properties();
 		props.setProperty("user", db_user);
 		props.setProperty("password", db_pass);
-		props.setProperty("timeout", String.valueOf(tracker.getTimeoutInSeconds()));
 
+		// Connections to the same target are shared with the other JDBC monitors and the JDBC collector
+		JdbcConnectionPool pool = JdbcConnectionPool.getPool(getPoolOwner(svc), driver, url, props);
 
 		for (tracker.reset(); tracker.shouldRetry(); tracker.nextAttempt()) {
 			try {
-				con = driver.connect(url, props);
+				// The timeout bounds both the wait for a pooled connection and the login
+				con = pool.getConnection(tracker.getConnectionTimeout());
 
 				// We are connected, upgrade the status to unresponsive
 				status = PollStatus.unresponsive();
@@ -247,21 +258,14 @@ public class JDBCMonitor extends AbstractServiceMonitor {
 			} finally {
 				closeResultSet(resultset);
 				closeStmt(statement);
-				closeConnection(con);
+				// A connection that failed the check is not trusted for the next poll
+				pool.release(con, status.isAvailable());
+				con = null;
 			}
 		}
 		return status;
 	}
 
-	private void closeConnection(Connection con) {
-		if (con == null) return;
-		try {
-			con.close();
-		} catch (SQLException ignore) {
-		}	
-		
-	}
-
 	/**
 	 * <p>closeStmt</p>
 	 *
@@ -285,6 +289,17 @@ public class JDBCMonitor extends AbstractServiceMonitor {
 		}
 	}
 
+	/**
+	 * Gets the timeout for the statements of a poll, as the pooled connections don't carry it.
+	 *
+	 * @param parameters the service parameters
+	 * @return the timeout in seconds
+	 */
+	protected static int getQueryTimeout(final Map<String,Object> parameters) {
+		// 0 would disable the timeout
+		return (int)Math.max(1, new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT).getTimeoutInSeconds());
+	}
+
 	/**
 	 * <p>checkDatabaseStatus</p>
 	 *
@@ -114,6 +114,7 @@ public final class JDBCQueryMonitor extends JDBCMonitor {
         
         try {
             st = con.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            st.setQueryTimeout(getQueryTimeout(parameters));
             ResultSet rs = st.executeQuery(query);
             rs.first();
             switch(actionMap.get(action).intValue()) {
@@ -81,6 +81,7 @@ final public class JDBCStoredProcedureMonitor extends JDBCMonitor
 
          String procedureCall = "{ ? = call " + schemaName + "." + storedProcedure + "()}";
          cs = con.prepareCall( procedureCall );
+         cs.setQueryTimeout(getQueryTimeout(parameters));
          
          LOG.debug("Calling stored procedure: {}", procedureCall);
          
@@ -45,8 +45,6 @@ import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.net.ssl.SSLContext;
-
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
@@ -62,11 +60,7 @@ import org.apache.http.client.params.ClientPNames;
 import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
@@ -89,6 +83,7 @@ import org.opennms.netmgt.model.PollStatus;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.utils.DnsUtils;
+import org.opennms.netmgt.utils.HttpClientPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -97,6 +92,11 @@ import org.slf4j.LoggerFactory;
  * of the HTTP service on remote interfaces. The class implements the ServiceMonitor interface
  * that allows it to be used along with other plug-ins by the service poller framework.
  *
+ * <p>Every poll opens new connections, unless the <code>keep-alive</code> parameter is
+ * true: connections are then leased from the shared {@link HttpClientPool} and reused
+ * across polls, so a successful poll no longer proves that the server accepts new
+ * connections and the response times leave the TCP and TLS handshakes out.</p>
+ *
  * @author <a mailto:brozow@opennms.org>Mathew Brozowski</a>
  * @version $Id: $
  */
@@ -204,7 +204,7 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
 
             for (HttpPage page : getPages()) {
                 LOG.debug("Executing HttpPage: {}", page.toString());
-                page.execute(client, svc, m_sequenceProperties);
+                client = page.execute(client, svc, m_sequenceProperties);
                 if (page.getDsName() != null) {
                     LOG.debug("Recording response time {} for ds {}", page.getResponseTime(), page.getDsName());
                     responseTimes.put(page.getDsName(), page.getResponseTime());
@@ -311,10 +311,17 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
             return retval.toString();
         }
 
-        void execute(DefaultHttpClient client, MonitoredService svc, Properties sequenceProperties) {
+        /**
+         * Executes the page.
+         *
+         * @return the client to use for the next pages, which trusts any certificate once a page disabled SSL verification
+         */
+        DefaultHttpClient execute(DefaultHttpClient client, MonitoredService svc, Properties sequenceProperties) {
+            PageSequenceHttpUriRequest method = null;
+            HttpResponse response = null;
             try {
                 URI uri = getURI(svc);
-                PageSequenceHttpUriRequest method = getMethod(uri);
+                method = getMethod(uri);
 
                 if (getVirtualHost(svc) != null) {
                     // According to the standard, adding the default ports to the host header is optional, and this makes IIS 7.5 happy.
@@ -337,15 +344,8 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
 
                 if ("https".equals(uri.getScheme())) {
                     if (Boolean.parseBoolean(m_page.getDisableSslVerification())) {
-                        final SchemeRegistry registry = client.getConnectionManager().getSchemeRegistry();
-                        final Scheme https = registry.getScheme("https");
-
                         // Override the trust validation with a lenient implementation
-                        final SSLSocketFactory factory = new SSLSocketFactory(SSLContext.getInstance(EmptyKeyRelaxedTrustSSLContext.ALGORITHM), SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-
-                        final Scheme lenient = new Scheme(https.getName(), https.getDefaultPort(), factory);
-                        // This will replace the existing "https" schema
-                        registry.register(lenient);
+                        client = HttpClientPool.getInstance().trustAllCertificates(client);
                     }
                 }
 
@@ -364,7 +364,7 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
                 }
 
                 long startTime = System.nanoTime();
-                HttpResponse response = client.execute(method);
+                response = client.execute(method);
                 long endTime = System.nanoTime();
                 m_responseTime = (endTime - startTime)/1000000.0;
 
@@ -412,7 +412,10 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
             } catch (IOException e) {
                 LOG.debug("I/O Error", e);
                 throw new PageSequenceMonitorException("I/O Error", e);
+            } finally {
+                HttpClientPool.release(method, response);
             }
+            return client;
         }
 
         private List<NameValuePair> expandParms(MonitoredService svc) {
@@ -653,12 +656,16 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
             return m_clientParams;
         }
 
-        DefaultHttpClient createHttpClient() {
-            DefaultHttpClient client = new DefaultHttpClient(getClientParams());
-
-            client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(getRetries(), false));
+        public boolean isKeepAlive() {
+            return getKeyedBoolean(m_parameterMap, "keep-alive", false);
+        }
 
-            return client;
+        DefaultHttpClient createHttpClient() throws NoSuchAlgorithmException {
+            if (isKeepAlive()) {
+                // Connections are leased from the shared pool and kept alive between polls
+                return HttpClientPool.getInstance().createHttpClient(getClientParams(), getRetries(), false);
+            }
+            return HttpClientPool.getInstance().createPrivateHttpClient(getClientParams(), getRetries(), false);
         }
     }
 
@@ -689,14 +696,16 @@ public class PageSequenceMonitor extends AbstractServiceMonitor {
             } catch (PageSequenceMonitorException e) {
                 serviceStatus = PollStatus.unavailable(e.getMessage());
                 serviceStatus.setProperties(responseTimes);
+            } catch (NoSuchAlgorithmException e) {
+                // Should never happen
+                serviceStatus = PollStatus.unavailable("Could not find appropriate SSL context provider: " + e.getMessage());
+                serviceStatus.setProperties(responseTimes);
             } catch (IllegalArgumentException e) {
                 LOG.error("Invalid parameters to monitor", e);
                 serviceStatus = PollStatus.unavailable("Invalid parameter to monitor: " + e.getMessage() + ".  See log for details.");
                 serviceStatus.setProperties(responseTimes);
             } finally {
-                if (client != null) {
-                    client.getConnectionManager().shutdown();
-                }
+                HttpClientPool.close(client);
             }
         }
         
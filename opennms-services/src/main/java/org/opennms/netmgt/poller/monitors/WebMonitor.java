@@ -30,6 +30,7 @@ package org.opennms.netmgt.poller.monitors;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 
 import org.apache.http.HttpHost;
@@ -50,6 +51,8 @@ import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.SyncBasicHttpParams;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
@@ -58,6 +61,7 @@ import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.model.PollStatus;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.utils.HttpClientPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +69,11 @@ import org.slf4j.LoggerFactory;
 /**
  * <p>WebMonitor class.</p>
  *
+ * <p>Every poll opens a new connection, unless the <code>keep-alive</code> parameter
+ * is true: connections are then leased from the shared {@link HttpClientPool} and
+ * reused across polls, so a successful poll no longer proves that the server accepts
+ * new connections and the response time leaves the TCP and TLS handshakes out.</p>
+ *
  * @author <A HREF="mailto:ranger@opennms.org">Benjamin Reed</A>
  * @author <A HREF="mailto:cliles@capario.com">Chris Liles</A>
  * @author <A HREF="http://www.opennms.org/">OpenNMS</A>
@@ -80,12 +89,15 @@ public class WebMonitor extends AbstractServiceMonitor {
     static String DEFAULT_PASSWORD = "admin";
     static String DEFAULT_HTTP_STATUS_RANGE = "100-399";
     static String DEFAULT_SCHEME = "http";
+    static int DEFAULT_RETRY_COUNT = 3;
 
     /** {@inheritDoc} */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String,Object> map) {
         PollStatus pollStatus = PollStatus.unresponsive();
-        DefaultHttpClient httpClient = new DefaultHttpClient();
+        HttpGet getMethod = null;
+        HttpResponse response = null;
+        DefaultHttpClient httpClient = null;
 
         try {
             final String hostAddress = InetAddressUtils.str(svc.getAddress());
@@ -100,10 +112,12 @@ public class WebMonitor extends AbstractServiceMonitor {
             if (queryString != null)
                 ub.setQuery(queryString);
 
-            HttpGet getMethod = new HttpGet(ub.build());
-            httpClient.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, ParameterMap.getKeyedInteger(map, "timeout", DEFAULT_TIMEOUT));
-            httpClient.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, ParameterMap.getKeyedInteger(map, "timeout", DEFAULT_TIMEOUT));
-            httpClient.getParams().setParameter( CoreProtocolPNames.USER_AGENT, ParameterMap.getKeyedString(map,"user-agent",DEFAULT_USER_AGENT));
+            getMethod = new HttpGet(ub.build());
+            HttpParams params = new SyncBasicHttpParams();
+            DefaultHttpClient.setDefaultHttpParams(params);
+            params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, ParameterMap.getKeyedInteger(map, "timeout", DEFAULT_TIMEOUT));
+            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, ParameterMap.getKeyedInteger(map, "timeout", DEFAULT_TIMEOUT));
+            params.setParameter( CoreProtocolPNames.USER_AGENT, ParameterMap.getKeyedString(map,"user-agent",DEFAULT_USER_AGENT));
 
             // Set the virtual host to the 'virtual-host' parameter or the host address if 'virtual-host' is not present
             getMethod.getParams().setParameter(ClientPNames.VIRTUAL_HOST,
@@ -114,7 +128,13 @@ public class WebMonitor extends AbstractServiceMonitor {
             );
 
             if(ParameterMap.getKeyedBoolean(map, "http-1.0", false)) {
-                httpClient.getParams().setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_0);
+                params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_0);
+            }
+
+            if (ParameterMap.getKeyedBoolean(map, "keep-alive", false)) {
+                httpClient = HttpClientPool.getInstance().createHttpClient(params, DEFAULT_RETRY_COUNT, false);
+            } else {
+                httpClient = HttpClientPool.getInstance().createPrivateHttpClient(params, DEFAULT_RETRY_COUNT, false);
             }
 
             for(Object okey : map.keySet()) {
@@ -161,7 +181,7 @@ public class WebMonitor extends AbstractServiceMonitor {
 
             LOG.debug("httpClient request with the following parameters: {}", httpClient);
             LOG.debug("getMethod parameters: {}", getMethod);
-            HttpResponse response = httpClient.execute(getMethod);
+            response = httpClient.execute(getMethod);
             int statusCode = response.getStatusLine().getStatusCode();
             String statusText = response.getStatusLine().getReasonPhrase();
             String expectedText = ParameterMap.getKeyedString(map,"response-text",null);
@@ -196,10 +216,11 @@ public class WebMonitor extends AbstractServiceMonitor {
             LOG.info(e.getMessage());
         } catch (URISyntaxException e) {
             LOG.info(e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            LOG.info(e.getMessage());
         } finally {
-            if (httpClient != null) {
-                httpClient.getConnectionManager().shutdown();
-            }
+            HttpClientPool.release(getMethod, response);
+            HttpClientPool.close(httpClient);
         }
         return pollStatus;
     }
@@ -65,4 +65,9 @@ public interface PollConfig extends Timer {
      */
     public void refreshThresholds();
 
+    /**
+     * Releases what the monitor holds for the service, once it is no longer polled.
+     */
+    public void release();
+
 }
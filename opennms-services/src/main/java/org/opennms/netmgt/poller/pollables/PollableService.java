@@ -428,6 +428,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             public void run() {
                 PollableService.super.delete();
                 m_schedule.unschedule();
+                m_pollConfig.release();
             }
         };
         withTreeLock(r);
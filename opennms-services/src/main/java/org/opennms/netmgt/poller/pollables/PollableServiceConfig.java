@@ -155,6 +155,16 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
     }
 
 
+    /**
+     * Lets the monitor release what it holds for the service.
+     */
+    @Override
+    public synchronized void release() {
+        if (m_serviceMonitor != null) {
+            m_serviceMonitor.release(m_service);
+        }
+    }
+
     /**
      * @return
      */
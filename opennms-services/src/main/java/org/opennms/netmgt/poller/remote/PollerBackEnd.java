@@ -130,6 +130,15 @@ public interface PollerBackEnd {
      */
     void reportResult(int locationMonitorID, int serviceId, PollStatus status);
 
+    /**
+     * Report a batch of poll results from the client to the server.  The results
+     * are stored in a single transaction, in the order given.
+     *
+     * @param locationMonitorID the id of the location monitor that did the polls
+     * @param results the results of the polls
+     */
+    void reportResults(int locationMonitorID, Collection<ServicePollResult> results);
+
 
     /**
      * <p>configurationUpdated</p>
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.remote;
+
+import java.io.Serializable;
+
+import org.opennms.netmgt.model.PollStatus;
+
+/**
+ * <p>The result of polling one service, as reported in a batch to
+ * {@link PollerBackEnd#reportResults(int, java.util.Collection)}.</p>
+ */
+public class ServicePollResult implements Serializable {
+
+    /**
+     * DO NOT CHANGE!
+     * This class is serialized by remote poller communications.
+     */
+    private static final long serialVersionUID = 1L;
+
+    private final int m_serviceId;
+    private final PollStatus m_status;
+
+    /**
+     * <p>Constructor for ServicePollResult.</p>
+     *
+     * @param serviceId the id of the service that was polled
+     * @param status the result of the poll
+     */
+    public ServicePollResult(final int serviceId, final PollStatus status) {
+        m_serviceId = serviceId;
+        m_status = status;
+    }
+
+    public int getServiceId() {
+        return m_serviceId;
+    }
+
+    public PollStatus getStatus() {
+        return m_status;
+    }
+
+    @Override
+    public String toString() {
+        return "ServicePollResult[serviceId=" + m_serviceId + ", status=" + m_status + "]";
+    }
+}
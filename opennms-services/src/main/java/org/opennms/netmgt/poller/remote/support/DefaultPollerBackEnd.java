@@ -39,14 +39,19 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.opennms.core.criteria.Criteria;
 import org.opennms.core.criteria.Criteria.LockType;
 import org.opennms.core.criteria.restrictions.EqRestriction;
+import org.opennms.core.criteria.restrictions.InRestriction;
 import org.opennms.core.criteria.restrictions.LtRestriction;
 import org.opennms.core.criteria.restrictions.NotNullRestriction;
 import org.opennms.core.utils.InetAddressUtils;
@@ -75,6 +80,7 @@ import org.opennms.netmgt.poller.remote.PolledService;
 import org.opennms.netmgt.poller.remote.PollerBackEnd;
 import org.opennms.netmgt.poller.remote.PollerConfiguration;
 import org.opennms.netmgt.poller.remote.RemoteHostThreadLocal;
+import org.opennms.netmgt.poller.remote.ServicePollResult;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
@@ -82,6 +88,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.dao.PermissionDeniedDataAccessException;
 import org.springframework.orm.ObjectRetrievalFailureException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -145,6 +154,20 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
     
     AtomicReference<Date> m_configurationTimestamp = new AtomicReference<Date>();
     AtomicReference<ConcurrentHashMap<String, SimplePollerConfiguration>> m_configCache = new AtomicReference<ConcurrentHashMap<String,SimplePollerConfiguration>>();
+    AtomicReference<ConcurrentHashMap<Integer, Package>> m_packageCache = new AtomicReference<ConcurrentHashMap<Integer,Package>>();
+
+    /**
+     * Marks a monitor and service with no status change in the database.
+     */
+    private static final PollStatus NO_STATUS = PollStatus.unknown("No status change recorded");
+
+    /**
+     * The poll result of the most recent status change for each location
+     * monitor and service, keyed by {@link #statusKey(int, int)}.  Only this
+     * backend writes status changes, so once a pair is cached the database
+     * does not need to be asked again.
+     */
+    private final ConcurrentHashMap<Long, PollStatus> m_statusCache = new ConcurrentHashMap<Long, PollStatus>();
 
     /**
      * <p>afterPropertiesSet</p>
@@ -172,7 +195,83 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
      */
     @Override
     public void start() throws Exception {
-        // Nothing to do: job scheduling and RMI export is done externally
+        // job scheduling and RMI export is done externally
+        loadStatusCache();
+    }
+
+    private void loadStatusCache() {
+        try {
+            final long start = System.currentTimeMillis();
+            int count = 0;
+            for (final OnmsLocationSpecificStatus status : m_locMonDao.getAllMostRecentStatusChanges()) {
+                m_statusCache.putIfAbsent(statusKey(status.getLocationMonitor().getId(), status.getMonitoredService().getId()), status.getPollResult());
+                count++;
+            }
+            LOG.info("Loaded {} most recent status changes in {}ms", count, System.currentTimeMillis() - start);
+        } catch (final Throwable e) {
+            LOG.warn("Unable to load the most recent status changes; they will be read as results are reported.", e);
+        }
+    }
+
+    private static Long statusKey(final int locationMonitorId, final int serviceId) {
+        return Long.valueOf(((long)locationMonitorId << 32) | (serviceId & 0xffffffffL));
+    }
+
+    private PollStatus getMostRecentStatus(final OnmsLocationMonitor locationMonitor, final OnmsMonitoredService monSvc) {
+        final Long key = statusKey(locationMonitor.getId(), monSvc.getId());
+        final PollStatus cached = m_statusCache.get(key);
+        if (cached != null) {
+            return cached == NO_STATUS ? null : cached;
+        }
+
+        final OnmsLocationSpecificStatus status = m_locMonDao.getMostRecentStatusChange(locationMonitor, monSvc);
+        final PollStatus pollResult = status == null ? null : status.getPollResult();
+        m_statusCache.putIfAbsent(key, pollResult == null ? NO_STATUS : pollResult);
+        return pollResult;
+    }
+
+    /**
+     * Forgets the statuses of a location monitor that no longer exists.
+     */
+    private void evictMonitorStatuses(final int locationMonitorId) {
+        for (final Iterator<Long> it = m_statusCache.keySet().iterator(); it.hasNext(); ) {
+            if ((int)(it.next().longValue() >>> 32) == locationMonitorId) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets the statuses of a location monitor for services it no longer polls.
+     */
+    private void evictStaleStatuses(final int locationMonitorId, final PolledService[] polledServices) {
+        final Set<Integer> serviceIds = new HashSet<Integer>();
+        for (final PolledService polledService : polledServices) {
+            serviceIds.add(polledService.getServiceId());
+        }
+        for (final Iterator<Long> it = m_statusCache.keySet().iterator(); it.hasNext(); ) {
+            final long key = it.next().longValue();
+            if ((int)(key >>> 32) == locationMonitorId && !serviceIds.contains((int)key)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void cacheStatusChange(final OnmsLocationSpecificStatus newStatus) {
+        final Long key = statusKey(newStatus.getLocationMonitor().getId(), newStatus.getMonitoredService().getId());
+        m_statusCache.put(key, newStatus.getPollResult());
+
+        // forget the change again if it never makes it to the database
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                        m_statusCache.remove(key);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -245,6 +344,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
     public void configurationUpdated() {
         m_configurationTimestamp.set(m_timeKeeper.getCurrentDate());
         m_configCache.set(new ConcurrentHashMap<String, SimplePollerConfiguration>());
+        m_packageCache.set(new ConcurrentHashMap<Integer, Package>());
     }
 
     private static EventBuilder createEventBuilder(final OnmsLocationMonitor mon, final String uei) {
@@ -254,8 +354,8 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         return eventBuilder;
     }
 
-    private boolean databaseStatusChanged(final OnmsLocationSpecificStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
-        return currentStatus == null || !currentStatus.getPollResult().equals(newStatus.getPollResult());
+    private boolean databaseStatusChanged(final PollStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
+        return currentStatus == null || !currentStatus.equals(newStatus.getPollResult());
     }
 
     private Date getConfigurationTimestamp() {
@@ -302,6 +402,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
 			final OnmsLocationMonitor mon = m_locMonDao.get(locationMonitorId);
 			if (mon == null) {
 			    // the monitor has been deleted we'll pick this in up on the next config check
+			    evictMonitorStatuses(locationMonitorId);
 			    return new EmptyPollerConfiguration();
 			}
 			
@@ -317,6 +418,9 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
                     pollerConfiguration = configInCache;
                 }
             }
+
+            // services deleted or moved out of the package are no longer polled by this monitor
+            evictStaleStatuses(locationMonitorId, pollerConfiguration.getPolledServices());
             
             // construct a copy so the serverTime gets updated (and avoid threading issues)
             return new SimplePollerConfiguration(pollerConfiguration);
@@ -349,10 +453,16 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
     }
 
     private Package getPollingPackageForMonitor(final OnmsLocationMonitor mon) {
-        String pollingPackageName = getPackageName(mon);
+        final ConcurrentHashMap<Integer, Package> cache = m_packageCache.get();
+        Package pkg = cache.get(mon.getId());
+        if (pkg == null) {
+            String pollingPackageName = getPackageName(mon);
 
-        String definitionName = mon.getDefinitionName();
-        return getPollingPackage(pollingPackageName, definitionName);
+            String definitionName = mon.getDefinitionName();
+            pkg = getPollingPackage(pollingPackageName, definitionName);
+            cache.put(mon.getId(), pkg);
+        }
+        return pkg;
     }
 
     private Package getPollingPackage(String pollingPackageName,
@@ -395,7 +505,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         }
     }
 
-    private boolean logicalStatusChanged(final OnmsLocationSpecificStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
+    private boolean logicalStatusChanged(final PollStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
         return currentStatus != null || (!newStatus.getPollResult().isAvailable());
     }
 
@@ -407,6 +517,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
 			final OnmsLocationMonitor mon = m_locMonDao.get(locationMonitorId);
 			if (mon == null) {
 			    LOG.debug("Deleted monitor checked in with ID {}", locationMonitorId);
+			    evictMonitorStatuses(locationMonitorId);
 			    return MonitorStatus.DELETED;
 			}
 
@@ -500,9 +611,10 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         sendMonitorStoppedEvent(mon);
     }
 
-    private void processStatusChange(final OnmsLocationSpecificStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
+    private void processStatusChange(final PollStatus currentStatus, final OnmsLocationSpecificStatus newStatus) {
         if (databaseStatusChanged(currentStatus, newStatus)) {
             m_locMonDao.saveStatusChange(newStatus);
+            cacheStatusChange(newStatus);
 
             final PollStatus pollResult = newStatus.getPollResult();
 
@@ -542,6 +654,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         }
         if (locationMonitor == null) {
             LOG.info("Unable to report result for location monitor ID {}: Location monitor does not exist.", locationMonitorId);
+            evictMonitorStatuses(locationMonitorId);
             return;
         }
 
@@ -554,6 +667,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         }
         if (monSvc == null) {
 		LOG.warn("Unable to report result for location monitor ID {}, monitored service ID {}: Monitored service does not exist.", locationMonitorId, serviceId);
+            m_statusCache.remove(statusKey(locationMonitorId, serviceId));
             return;
         }
         if (pollResult == null) {
@@ -561,6 +675,66 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
         	return;
         }
 
+        processResult(locationMonitor, monSvc, pollResult);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reportResults(final int locationMonitorId, final Collection<ServicePollResult> results) {
+        if (results == null || results.isEmpty()) {
+            return;
+        }
+
+        final OnmsLocationMonitor locationMonitor;
+        try {
+            locationMonitor = m_locMonDao.get(locationMonitorId);
+        } catch (final Exception e) {
+            LOG.info("Unable to report {} results for location monitor ID {}: Location monitor does not exist.", results.size(), locationMonitorId, e);
+            return;
+        }
+        if (locationMonitor == null) {
+            LOG.info("Unable to report {} results for location monitor ID {}: Location monitor does not exist.", results.size(), locationMonitorId);
+            evictMonitorStatuses(locationMonitorId);
+            return;
+        }
+
+        // load all of the services in one query
+        final Set<Integer> serviceIds = new LinkedHashSet<Integer>();
+        for (final ServicePollResult result : results) {
+            serviceIds.add(result.getServiceId());
+        }
+        final Map<Integer, OnmsMonitoredService> services = new HashMap<Integer, OnmsMonitoredService>();
+        try {
+            final Criteria criteria = new Criteria(OnmsMonitoredService.class);
+            criteria.addRestriction(new InRestriction("id", serviceIds));
+            for (final OnmsMonitoredService monSvc : m_monSvcDao.findMatching(criteria)) {
+                services.put(monSvc.getId(), monSvc);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Unable to report {} results for location monitor ID {}: Monitored services could not be loaded.", results.size(), locationMonitorId, e);
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        for (final ServicePollResult result : results) {
+            final OnmsMonitoredService monSvc = services.get(result.getServiceId());
+            if (monSvc == null) {
+                LOG.warn("Unable to report result for location monitor ID {}, monitored service ID {}: Monitored service does not exist.", locationMonitorId, result.getServiceId());
+                m_statusCache.remove(statusKey(locationMonitorId, result.getServiceId()));
+                continue;
+            }
+            if (result.getStatus() == null) {
+                LOG.warn("Unable to report result for location monitor ID {}, monitored service ID {}: Poll result is null!", locationMonitorId, result.getServiceId());
+                continue;
+            }
+            processResult(locationMonitor, monSvc, result.getStatus());
+        }
+        LOG.debug("Processed {} results for location monitor ID {} in {}ms", results.size(), locationMonitorId, System.currentTimeMillis() - start);
+    }
+
+    private void processResult(final OnmsLocationMonitor locationMonitor, final OnmsMonitoredService monSvc, final PollStatus pollResult) {
+        final int locationMonitorId = locationMonitor.getId();
+        final int serviceId = monSvc.getId();
         final OnmsLocationSpecificStatus newStatus = new OnmsLocationSpecificStatus(locationMonitor, monSvc, pollResult);
 
         try {
@@ -573,7 +747,7 @@ public class DefaultPollerBackEnd implements PollerBackEnd, SpringServiceDaemon
 		}
 
 		try {
-	        final OnmsLocationSpecificStatus currentStatus = m_locMonDao.getMostRecentStatusChange(locationMonitor, monSvc);
+	        final PollStatus currentStatus = getMostRecentStatus(locationMonitor, monSvc);
 	        processStatusChange(currentStatus, newStatus);
 		} catch (final Exception e) {
 			LOG.error("Unable to save result for location monitor ID {}, monitored service ID {}.", locationMonitorId, serviceId, e);
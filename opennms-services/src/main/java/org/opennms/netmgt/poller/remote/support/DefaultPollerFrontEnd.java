@@ -32,6 +32,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -55,6 +56,7 @@ import org.opennms.netmgt.poller.remote.PollerBackEnd;
 import org.opennms.netmgt.poller.remote.PollerConfiguration;
 import org.opennms.netmgt.poller.remote.PollerFrontEnd;
 import org.opennms.netmgt.poller.remote.PollerSettings;
+import org.opennms.netmgt.poller.remote.ServicePollResult;
 import org.opennms.netmgt.poller.remote.ServicePollState;
 import org.opennms.netmgt.poller.remote.ServicePollStateChangedEvent;
 import org.opennms.netmgt.poller.remote.ServicePollStateChangedListener;
@@ -383,6 +385,11 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
     // current state of polled services
     private Map<Integer, ServicePollState> m_pollState = new LinkedHashMap<Integer, ServicePollState>();
 
+    // results waiting to be reported in one batch
+    private List<ServicePollResult> m_pendingResults = new ArrayList<ServicePollResult>();
+
+    private int m_resultBatchSize = Integer.getInteger("opennms.poller.resultBatchSize", 100);
+
     /** {@inheritDoc} */
     @Override
     public void addConfigurationChangedListener(ConfigurationChangedListener l) {
@@ -467,6 +474,9 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
      * <p>doDelete</p>
      */
     public void doDelete() {
+        synchronized (m_pendingResults) {
+            m_pendingResults.clear();
+        }
         setMonitorId(null);
     }
 
@@ -513,7 +523,36 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
 
         updateServicePollState(polledServiceId, result);
 
-        m_backEnd.reportResult(getMonitorId(), polledServiceId, result);
+        final boolean full;
+        synchronized (m_pendingResults) {
+            m_pendingResults.add(new ServicePollResult(polledServiceId, result));
+            full = m_pendingResults.size() >= m_resultBatchSize;
+        }
+        if (full) {
+            flushResults();
+        }
+    }
+
+    /**
+     * Reports the results of the polls since the last flush in one call to the
+     * back end.  Called when {@link #setResultBatchSize(int)} results are waiting,
+     * periodically so that results do not wait for long, and when stopping.
+     */
+    public void flushResults() {
+        final List<ServicePollResult> results;
+        synchronized (m_pendingResults) {
+            if (m_pendingResults.isEmpty()) {
+                return;
+            }
+            results = m_pendingResults;
+            m_pendingResults = new ArrayList<ServicePollResult>();
+        }
+        final Integer monitorId = getMonitorId();
+        if (monitorId == null) {
+            LOG.debug("Dropping {} poll results, the monitor is no longer registered", results.size());
+            return;
+        }
+        m_backEnd.reportResults(monitorId, results);
     }
 
     /**
@@ -534,6 +573,11 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
      * <p>doStop</p>
      */
     public void doStop() {
+        try {
+            flushResults();
+        } catch (final RuntimeException e) {
+            LOG.warn("Unable to report the last poll results while stopping.", e);
+        }
         m_backEnd.pollerStopping(getMonitorId());
     }
 
@@ -722,6 +766,14 @@ public class DefaultPollerFrontEnd implements PollerFrontEnd, InitializingBean,
         m_timeAdjustment = timeAdjustment;
     }
 
+    /**
+     * @param resultBatchSize the number of poll results reported together,
+     * 1 to report each result as soon as it is known
+     */
+    public void setResultBatchSize(final int resultBatchSize) {
+        m_resultBatchSize = resultBatchSize;
+    }
+
     /**
      * <p>setPollService</p>
      *
@@ -0,0 +1,480 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.opennms.core.utils.EmptyKeyRelaxedTrustProvider;
+import org.opennms.core.utils.EmptyKeyRelaxedTrustSSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared pool of keep-alive HTTP connections for the HTTP collector and monitors.
+ *
+ * <p>Clients are cheap {@link DefaultHttpClient} instances created per collection
+ * or poll, so cookies, credentials and retry handlers stay private to the caller,
+ * but they all lease their connections from one of two pooled connection managers:
+ * one verifying TLS certificates, and one trusting any certificate.  Connections
+ * (and TLS sessions) are therefore reused across samples instead of being set up
+ * and torn down every time.</p>
+ *
+ * <p>Callers must not shut the connection manager down; they release the
+ * connection by consuming the response, see {@link #release(HttpUriRequest, HttpResponse)}.
+ * Connections idle for longer than {@link #IDLE_TIMEOUT_PROPERTY} milliseconds are
+ * closed by a background thread.</p>
+ *
+ * <p>A reused connection proves nothing about the ability of the server to accept
+ * new TCP or TLS connections, and its response time leaves the handshake out.  Monitors
+ * therefore default to a private client, see {@link #createPrivateHttpClient(HttpParams, int, boolean)},
+ * and only lease from the pool when the service asks for it.</p>
+ */
+public class HttpClientPool implements HttpClientPoolMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpClientPool.class);
+
+    /** The maximum number of pooled connections, per connection manager. */
+    public static final String MAX_TOTAL_PROPERTY = "org.opennms.netmgt.http.pool.maxTotal";
+
+    /** The maximum number of pooled connections to the same host and port. */
+    public static final String MAX_PER_ROUTE_PROPERTY = "org.opennms.netmgt.http.pool.maxPerRoute";
+
+    /** Milliseconds after which an idle connection is closed. */
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.http.pool.idleTimeout";
+
+    /** Set to false to close every connection after use, as before pooling. */
+    public static final String KEEP_ALIVE_PROPERTY = "org.opennms.netmgt.http.pool.keepAlive";
+
+    private static HttpClientPool s_instance;
+
+    private final int m_maxTotal;
+    private final int m_maxPerRoute;
+    private final long m_idleTimeout;
+    private final boolean m_keepAlive;
+
+    private final AtomicLong m_leases = new AtomicLong();
+    private final AtomicLong m_leaseTimeouts = new AtomicLong();
+    private final AtomicLong m_leaseWaitNanos = new AtomicLong();
+    private final AtomicLong m_maxLeaseWaitNanos = new AtomicLong();
+    private final AtomicLong m_connectionsOpened = new AtomicLong();
+    private final AtomicLong m_idleEvictions = new AtomicLong();
+
+    private final PooledConnectionManager m_strictManager;
+    private PooledConnectionManager m_lenientManager;
+
+    private final ConnectionKeepAliveStrategy m_keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            // Never trust a connection longer than the idle timeout, whatever the server says
+            final long duration = super.getKeepAliveDuration(response, context);
+            return duration < 0 ? m_idleTimeout : Math.min(duration, m_idleTimeout);
+        }
+    };
+
+    /**
+     * Gets the shared pool, configured from system properties.
+     *
+     * @return the pool
+     */
+    public static synchronized HttpClientPool getInstance() {
+        if (s_instance == null) {
+            s_instance = new HttpClientPool(Integer.getInteger(MAX_TOTAL_PROPERTY, 200),
+                                            Integer.getInteger(MAX_PER_ROUTE_PROPERTY, 4),
+                                            Long.getLong(IDLE_TIMEOUT_PROPERTY, 30000L),
+                                            Boolean.parseBoolean(System.getProperty(KEEP_ALIVE_PROPERTY, "true")));
+            s_instance.startEvictor();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(s_instance, new ObjectName("OpenNMS:Name=HttpClientPool"));
+            } catch (final Exception e) {
+                LOG.debug("Unable to register the HTTP client pool MBean: {}", e.getMessage());
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Creates a pool; the idle connections are only evicted by {@link #closeIdleConnections()}.
+     *
+     * @param maxTotal the maximum number of pooled connections, per connection manager
+     * @param maxPerRoute the maximum number of pooled connections to the same host and port
+     * @param idleTimeout milliseconds after which an idle connection is closed
+     * @param keepAlive false to close every connection after use
+     */
+    public HttpClientPool(final int maxTotal, final int maxPerRoute, final long idleTimeout, final boolean keepAlive) {
+        m_maxTotal = maxTotal;
+        m_maxPerRoute = maxPerRoute;
+        m_idleTimeout = idleTimeout;
+        m_keepAlive = keepAlive;
+        m_strictManager = new PooledConnectionManager(SchemeRegistryFactory.createDefault());
+    }
+
+    /**
+     * Creates a client leasing its connections from this pool.
+     *
+     * @param params the client parameters, private to the new client
+     * @param retries the number of times a failed request is retried
+     * @param trustAllCertificates true to accept any certificate and host name over HTTPS
+     * @return the client; it must not be shut down
+     * @throws NoSuchAlgorithmException if the lenient SSL context is not available
+     */
+    public DefaultHttpClient createHttpClient(final HttpParams params, final int retries, final boolean trustAllCertificates) throws NoSuchAlgorithmException {
+        if (params.getParameter(ClientPNames.CONN_MANAGER_TIMEOUT) == null) {
+            // Don't wait for a pooled connection longer than for a new one
+            params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, params.getIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 0));
+        }
+        final DefaultHttpClient client = new DefaultHttpClient(getConnectionManager(trustAllCertificates), params);
+        client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retries, false));
+        if (m_keepAlive) {
+            client.setKeepAliveStrategy(m_keepAliveStrategy);
+        } else {
+            client.setReuseStrategy(new NoConnectionReuseStrategy());
+        }
+        return client;
+    }
+
+    /**
+     * Creates a client with its own connection manager, which opens a new connection
+     * for every request, as the monitors did before pooling.
+     *
+     * @param params the client parameters, private to the new client
+     * @param retries the number of times a failed request is retried
+     * @param trustAllCertificates true to accept any certificate and host name over HTTPS
+     * @return the client; it must be closed with {@link #close(DefaultHttpClient)}
+     * @throws NoSuchAlgorithmException if the lenient SSL context is not available
+     */
+    public DefaultHttpClient createPrivateHttpClient(final HttpParams params, final int retries, final boolean trustAllCertificates) throws NoSuchAlgorithmException {
+        final DefaultHttpClient client = new DefaultHttpClient(params);
+        client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(retries, false));
+        client.setReuseStrategy(new NoConnectionReuseStrategy());
+        return trustAllCertificates ? trustAllCertificates(client) : client;
+    }
+
+    /**
+     * Switches a client to the connection manager that trusts any certificate and host name.
+     *
+     * @param client a client created by this pool
+     * @return the same client if it already trusts any certificate or has a private connection
+     * manager, otherwise a new client sharing the parameters, cookies, credentials and retry
+     * handler of the given one
+     * @throws NoSuchAlgorithmException if the lenient SSL context is not available
+     */
+    public DefaultHttpClient trustAllCertificates(final DefaultHttpClient client) throws NoSuchAlgorithmException {
+        if (!(client.getConnectionManager() instanceof PooledConnectionManager)) {
+            registerLenientScheme(client.getConnectionManager().getSchemeRegistry());
+            return client;
+        }
+        final PooledConnectionManager lenientManager = getConnectionManager(true);
+        if (client.getConnectionManager() == lenientManager) {
+            return client;
+        }
+        final DefaultHttpClient lenient = new DefaultHttpClient(lenientManager, client.getParams());
+        lenient.setCookieStore(client.getCookieStore());
+        lenient.setCredentialsProvider(client.getCredentialsProvider());
+        lenient.setHttpRequestRetryHandler(client.getHttpRequestRetryHandler());
+        lenient.setKeepAliveStrategy(client.getConnectionKeepAliveStrategy());
+        lenient.setReuseStrategy(client.getConnectionReuseStrategy());
+        return lenient;
+    }
+
+    /**
+     * Releases the connection of a request back to the pool, by consuming what is
+     * left of the response, or by aborting the request if that fails.
+     *
+     * @param request the request, may be null
+     * @param response the response, may be null
+     */
+    public static void release(final HttpUriRequest request, final HttpResponse response) {
+        if (response == null) {
+            return;
+        }
+        try {
+            EntityUtils.consume(response.getEntity());
+        } catch (final IOException e) {
+            LOG.debug("Unable to consume the response, closing the connection: {}", e.getMessage());
+            if (request != null) {
+                request.abort();
+            }
+        }
+    }
+
+    /**
+     * Closes the connections of a client, unless they belong to the pool.
+     *
+     * @param client the client, may be null
+     */
+    public static void close(final DefaultHttpClient client) {
+        if (client != null && !(client.getConnectionManager() instanceof PooledConnectionManager)) {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private synchronized PooledConnectionManager getConnectionManager(final boolean trustAllCertificates) throws NoSuchAlgorithmException {
+        if (!trustAllCertificates) {
+            return m_strictManager;
+        }
+        if (m_lenientManager == null) {
+            // A single lenient factory is kept so that its SSL context can resume the TLS sessions
+            final SchemeRegistry registry = SchemeRegistryFactory.createDefault();
+            registerLenientScheme(registry);
+            m_lenientManager = new PooledConnectionManager(registry);
+        }
+        return m_lenientManager;
+    }
+
+    private static void registerLenientScheme(final SchemeRegistry registry) throws NoSuchAlgorithmException {
+        // Make sure that the EmptyKeyRelaxedTrustSSLContext algorithm is available
+        Security.addProvider(new EmptyKeyRelaxedTrustProvider());
+        final Scheme https = registry.getScheme("https");
+        // Override the trust validation with a lenient implementation
+        final SSLSocketFactory factory = new SSLSocketFactory(SSLContext.getInstance(EmptyKeyRelaxedTrustSSLContext.ALGORITHM), SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+        registry.register(new Scheme(https.getName(), https.getDefaultPort(), factory));
+    }
+
+    /**
+     * Closes expired connections, and connections idle for longer than the idle timeout.
+     */
+    public void closeIdleConnections() {
+        for (final PooledConnectionManager manager : getManagers()) {
+            final int before = manager.getTotalStats().getAvailable();
+            manager.closeExpiredConnections();
+            manager.closeIdleConnections(m_idleTimeout, TimeUnit.MILLISECONDS);
+            final int closed = before - manager.getTotalStats().getAvailable();
+            if (closed > 0) {
+                m_idleEvictions.addAndGet(closed);
+            }
+        }
+    }
+
+    /**
+     * Closes every pooled connection.
+     */
+    public void shutdown() {
+        for (final PooledConnectionManager manager : getManagers()) {
+            manager.shutdown();
+        }
+    }
+
+    private synchronized PooledConnectionManager[] getManagers() {
+        return m_lenientManager == null ? new PooledConnectionManager[] { m_strictManager } : new PooledConnectionManager[] { m_strictManager, m_lenientManager };
+    }
+
+    private void startEvictor() {
+        final Thread evictor = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "HttpClientPool-Evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        }.newThread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(Math.max(1000L, m_idleTimeout / 2));
+                        closeIdleConnections();
+                    } catch (final InterruptedException e) {
+                        return;
+                    } catch (final Throwable t) {
+                        LOG.warn("Unable to close idle HTTP connections", t);
+                    }
+                }
+            }
+        });
+        evictor.start();
+    }
+
+    private PoolStats getTotalStats() {
+        int leased = 0, pending = 0, available = 0;
+        for (final PooledConnectionManager manager : getManagers()) {
+            final PoolStats stats = manager.getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+        }
+        return new PoolStats(leased, pending, available, m_maxTotal);
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return m_maxTotal;
+    }
+
+    @Override
+    public int getMaxPerRoute() {
+        return m_maxPerRoute;
+    }
+
+    @Override
+    public long getIdleTimeout() {
+        return m_idleTimeout;
+    }
+
+    @Override
+    public boolean isKeepAlive() {
+        return m_keepAlive;
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return getTotalStats().getLeased();
+    }
+
+    @Override
+    public int getPendingLeases() {
+        return getTotalStats().getPending();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return getTotalStats().getAvailable();
+    }
+
+    @Override
+    public long getLeases() {
+        return m_leases.get();
+    }
+
+    @Override
+    public long getLeaseTimeouts() {
+        return m_leaseTimeouts.get();
+    }
+
+    @Override
+    public long getLeaseWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_leaseWaitNanos.get());
+    }
+
+    @Override
+    public long getMaxLeaseWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_maxLeaseWaitNanos.get());
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return m_connectionsOpened.get();
+    }
+
+    @Override
+    public long getIdleEvictions() {
+        return m_idleEvictions.get();
+    }
+
+    private void leased(final long waitNanos) {
+        m_leases.incrementAndGet();
+        m_leaseWaitNanos.addAndGet(waitNanos);
+        long max = m_maxLeaseWaitNanos.get();
+        while (waitNanos > max && !m_maxLeaseWaitNanos.compareAndSet(max, waitNanos)) {
+            max = m_maxLeaseWaitNanos.get();
+        }
+    }
+
+    /**
+     * Pooling connection manager that records lease waits and new connections.
+     */
+    private class PooledConnectionManager extends PoolingClientConnectionManager {
+
+        PooledConnectionManager(final SchemeRegistry registry) {
+            super(registry);
+            setMaxTotal(m_maxTotal);
+            setDefaultMaxPerRoute(m_maxPerRoute);
+        }
+
+        @Override
+        protected ClientConnectionOperator createConnectionOperator(final SchemeRegistry registry) {
+            return new DefaultClientConnectionOperator(registry) {
+                @Override
+                public void openConnection(final OperatedClientConnection conn, final HttpHost target, final InetAddress local, final HttpContext context, final HttpParams params) throws IOException {
+                    m_connectionsOpened.incrementAndGet();
+                    super.openConnection(conn, target, local, context, params);
+                }
+            };
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(final long timeout, final TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                    final long start = System.nanoTime();
+                    try {
+                        final ManagedClientConnection connection = request.getConnection(timeout, unit);
+                        leased(System.nanoTime() - start);
+                        return connection;
+                    } catch (final ConnectionPoolTimeoutException e) {
+                        m_leaseTimeouts.incrementAndGet();
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+/**
+ * Statistics of the {@link HttpClientPool}.
+ */
+public interface HttpClientPoolMBean {
+
+    /**
+     * @return the maximum number of pooled connections, per connection manager
+     */
+    int getMaxTotal();
+
+    /**
+     * @return the maximum number of pooled connections to the same host and port
+     */
+    int getMaxPerRoute();
+
+    /**
+     * @return the milliseconds after which an idle connection is closed
+     */
+    long getIdleTimeout();
+
+    /**
+     * @return false if every connection is closed after use
+     */
+    boolean isKeepAlive();
+
+    /**
+     * @return the number of connections currently in use
+     */
+    int getLeasedConnections();
+
+    /**
+     * @return the number of requests currently waiting for a connection
+     */
+    int getPendingLeases();
+
+    /**
+     * @return the number of idle connections kept open for reuse
+     */
+    int getAvailableConnections();
+
+    /**
+     * @return the number of connections handed out so far, new or reused
+     */
+    long getLeases();
+
+    /**
+     * @return the number of requests that gave up waiting for a connection
+     */
+    long getLeaseTimeouts();
+
+    /**
+     * @return the total milliseconds spent waiting for a connection
+     */
+    long getLeaseWaitTime();
+
+    /**
+     * @return the longest wait for a connection, in milliseconds
+     */
+    long getMaxLeaseWaitTime();
+
+    /**
+     * @return the number of connections opened so far (each one a TCP, and possibly TLS, handshake)
+     */
+    long getConnectionsOpened();
+
+    /**
+     * @return the number of idle connections closed by the pool
+     */
+    long getIdleEvictions();
+}
@@ -0,0 +1,623 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JDBC connections to one database target, shared by the JDBC
+ * collector and the JDBC monitors.
+ *
+ * <p>A pool exists for each driver, URL, user and password, so that pollers and
+ * collectors share it whatever else they put in the connection properties; the
+ * other properties are those given by the caller that created the pool.  Timeouts
+ * are not connection properties: the wait for a connection is given to
+ * {@link #getConnection(long)}, which also bounds the login when a new connection
+ * has to be opened, and callers set their own statement timeouts.  Services register
+ * as owners when they get a pool, and {@link #releaseOwner(String)} closes the pools
+ * that are left without owners, so unscheduling a service tears its pools down.  A pool
+ * that has not been used for {@link #IDLE_TIMEOUT_PROPERTY} is closed as well, whatever
+ * its owners, so that pools of services that went away without releasing them do not
+ * linger; the owners that are still there get a new pool the next time they ask.</p>
+ *
+ * <p>Connections are borrowed with {@link #getConnection(long)} and must be given
+ * back with {@link #release(Connection, boolean)} instead of being closed.  A
+ * connection that has been idle for longer than {@link #VALIDATION_INTERVAL_PROPERTY}
+ * is validated before being handed out, and connections are closed once idle for
+ * {@link #IDLE_TIMEOUT_PROPERTY} or older than {@link #MAX_LIFETIME_PROPERTY}.
+ * Setting {@link #MAX_SIZE_PROPERTY} to 0 opens a new connection every time, as
+ * before pooling.</p>
+ */
+public class JdbcConnectionPool implements JdbcConnectionPoolMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcConnectionPool.class);
+
+    /** The maximum number of connections to the same target, 0 to disable pooling. */
+    public static final String MAX_SIZE_PROPERTY = "org.opennms.netmgt.jdbc.pool.maxSize";
+
+    /** Milliseconds after which an idle connection is closed. */
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.jdbc.pool.idleTimeout";
+
+    /** Milliseconds after which a connection is closed once given back, however busy. */
+    public static final String MAX_LIFETIME_PROPERTY = "org.opennms.netmgt.jdbc.pool.maxLifetime";
+
+    /** Milliseconds of idleness after which a connection is validated before use. */
+    public static final String VALIDATION_INTERVAL_PROPERTY = "org.opennms.netmgt.jdbc.pool.validationInterval";
+
+    private static final ConcurrentMap<String, JdbcConnectionPool> s_pools = new ConcurrentHashMap<String, JdbcConnectionPool>();
+    private static final AtomicInteger s_ids = new AtomicInteger();
+    private static Thread s_evictor;
+
+    private static final ExecutorService s_connector = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger m_threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "JdbcConnectionPool-Connector-" + m_threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static class PooledConnection {
+        private final Connection m_connection;
+        private final long m_created = System.currentTimeMillis();
+        private long m_lastUsed = m_created;
+
+        PooledConnection(final Connection connection) {
+            m_connection = connection;
+        }
+    }
+
+    private final String m_key;
+    private final Driver m_driver;
+    private final String m_url;
+    private final Properties m_properties;
+    private final int m_maxSize;
+    private final long m_idleTimeout;
+    private final long m_maxLifetime;
+    private final long m_validationInterval;
+
+    private final Set<String> m_owners = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final LinkedBlockingDeque<PooledConnection> m_idle = new LinkedBlockingDeque<PooledConnection>();
+    private final Map<Connection, PooledConnection> m_leased = Collections.synchronizedMap(new IdentityHashMap<Connection, PooledConnection>());
+    private final Semaphore m_permits;
+    private ObjectName m_objectName;
+    private volatile boolean m_closed = false;
+    private volatile long m_lastUsed = System.currentTimeMillis();
+
+    private final AtomicLong m_borrows = new AtomicLong();
+    private final AtomicLong m_borrowTimeouts = new AtomicLong();
+    private final AtomicLong m_borrowWaitNanos = new AtomicLong();
+    private final AtomicLong m_connectionsOpened = new AtomicLong();
+    private final AtomicLong m_connectionsClosed = new AtomicLong();
+    private final AtomicLong m_validationFailures = new AtomicLong();
+
+    /**
+     * Gets the pool for a target, creating it if needed, and registers the owner.
+     *
+     * @param owner identifies the service using the pool, see {@link #releaseOwner(String)}
+     * @param driver the JDBC driver
+     * @param url the JDBC URL
+     * @param properties the connection properties, including the user and password; only
+     * the user and password tell pools apart
+     * @return the pool
+     */
+    public static JdbcConnectionPool getPool(final String owner, final Driver driver, final String url, final Properties properties) {
+        final String key = getKey(driver, url, properties);
+        while (true) {
+            JdbcConnectionPool pool = s_pools.get(key);
+            if (pool == null) {
+                final JdbcConnectionPool newPool = new JdbcConnectionPool(key, driver, url, properties,
+                                                                          Integer.getInteger(MAX_SIZE_PROPERTY, 2),
+                                                                          Long.getLong(IDLE_TIMEOUT_PROPERTY, 300000L),
+                                                                          Long.getLong(MAX_LIFETIME_PROPERTY, 1800000L),
+                                                                          Long.getLong(VALIDATION_INTERVAL_PROPERTY, 5000L));
+                pool = s_pools.putIfAbsent(key, newPool);
+                if (pool == null) {
+                    pool = newPool;
+                    pool.register();
+                    startEvictor();
+                }
+            }
+            pool.m_owners.add(owner);
+            if (!pool.m_closed) {
+                return pool;
+            }
+            // lost a race with releaseOwner(), try again with a new pool
+            s_pools.remove(key, pool);
+        }
+    }
+
+    /**
+     * Removes the owner from every pool, and closes the pools left without owners.
+     *
+     * @param owner the owner given to {@link #getPool(String, Driver, String, Properties)}
+     */
+    public static void releaseOwner(final String owner) {
+        for (final JdbcConnectionPool pool : s_pools.values()) {
+            if (pool.m_owners.remove(owner) && pool.m_owners.isEmpty()) {
+                LOG.debug("Closing the JDBC connection pool for {}, its last owner {} is gone", pool.m_url, owner);
+                s_pools.remove(pool.m_key, pool);
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the pools that have not lent a connection for longer than their idle
+     * timeout, whether or not they still have owners.
+     */
+    public static void closeIdlePools() {
+        final long now = System.currentTimeMillis();
+        for (final JdbcConnectionPool pool : s_pools.values()) {
+            if (pool.isIdle(now)) {
+                LOG.debug("Closing the JDBC connection pool for {}, unused for {}ms", pool.m_url, now - pool.m_lastUsed);
+                s_pools.remove(pool.m_key, pool);
+                pool.close();
+            }
+        }
+    }
+
+    private boolean isIdle(final long now) {
+        return now - m_lastUsed > m_idleTimeout && m_leased.isEmpty() && m_idle.isEmpty();
+    }
+
+    private static String getKey(final Driver driver, final String url, final Properties properties) {
+        return driver.getClass().getName() + '|' + url + '|' + properties.getProperty("user") + '|' + properties.getProperty("password");
+    }
+
+    /**
+     * Creates a pool; prefer {@link #getPool(String, Driver, String, Properties)} to share pools.
+     *
+     * @param key the key of the pool
+     * @param driver the JDBC driver
+     * @param url the JDBC URL
+     * @param properties the connection properties
+     * @param maxSize the maximum number of connections, 0 to open a new connection every time
+     * @param idleTimeout milliseconds after which an idle connection is closed
+     * @param maxLifetime milliseconds after which a connection is closed once given back
+     * @param validationInterval milliseconds of idleness after which a connection is validated before use
+     */
+    public JdbcConnectionPool(final String key, final Driver driver, final String url, final Properties properties, final int maxSize, final long idleTimeout, final long maxLifetime, final long validationInterval) {
+        m_key = key;
+        m_driver = driver;
+        m_url = url;
+        m_properties = properties;
+        m_maxSize = maxSize;
+        m_idleTimeout = idleTimeout;
+        m_maxLifetime = maxLifetime;
+        m_validationInterval = validationInterval;
+        m_permits = new Semaphore(Math.max(1, maxSize), true);
+    }
+
+    private boolean isPooled() {
+        return m_maxSize > 0;
+    }
+
+    /**
+     * Borrows a connection, reusing an idle one when possible.
+     *
+     * @param timeout milliseconds to wait for a connection when the pool is exhausted,
+     * and for the login when a new connection is opened
+     * @return the connection
+     * @throws SQLException if no connection could be opened
+     */
+    public Connection getConnection(final long timeout) throws SQLException {
+        m_lastUsed = System.currentTimeMillis();
+        if (!isPooled()) {
+            m_borrows.incrementAndGet();
+            return connect(timeout);
+        }
+        final long start = System.nanoTime();
+        try {
+            if (!m_permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                m_borrowTimeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + timeout + "ms waiting for one of the " + m_maxSize + " pooled connections to " + m_url);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection to " + m_url, e);
+        }
+        m_borrows.incrementAndGet();
+        m_borrowWaitNanos.addAndGet(System.nanoTime() - start);
+        try {
+            PooledConnection pooled;
+            while ((pooled = m_idle.pollFirst()) != null) {
+                if (isUsable(pooled, System.currentTimeMillis(), timeout)) {
+                    break;
+                }
+                destroy(pooled.m_connection);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(connect(timeout));
+            }
+            m_leased.put(pooled.m_connection, pooled);
+            return pooled.m_connection;
+        } catch (final SQLException e) {
+            m_permits.release();
+            throw e;
+        } catch (final RuntimeException e) {
+            m_permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back.
+     *
+     * @param connection the connection, may be null
+     * @param reusable false if the connection failed and must be closed
+     */
+    public void release(final Connection connection, final boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+        m_lastUsed = System.currentTimeMillis();
+        final PooledConnection pooled = m_leased.remove(connection);
+        if (pooled == null) {
+            // not pooled, or not leased from this pool
+            destroy(connection);
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            if (reusable && !m_closed && now - pooled.m_created < m_maxLifetime && !isClosed(connection)) {
+                pooled.m_lastUsed = now;
+                m_idle.offerFirst(pooled);
+            } else {
+                destroy(connection);
+            }
+        } finally {
+            m_permits.release();
+        }
+    }
+
+    private boolean isUsable(final PooledConnection pooled, final long now, final long timeout) {
+        if (now - pooled.m_lastUsed > m_idleTimeout || now - pooled.m_created > m_maxLifetime) {
+            return false;
+        }
+        if (now - pooled.m_lastUsed > m_validationInterval) {
+            if (!isValid(pooled.m_connection, timeout)) {
+                m_validationFailures.incrementAndGet();
+                LOG.debug("Discarding an invalid pooled connection to {}", m_url);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValid(final Connection connection, final long timeout) {
+        try {
+            return connection.isValid((int)Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout)));
+        } catch (final SQLException e) {
+            return false;
+        } catch (final AbstractMethodError e) {
+            // a pre-JDBC 4 driver
+            return isValidFallback(connection);
+        }
+    }
+
+    private static boolean isValidFallback(final Connection connection) {
+        try {
+            return !connection.isClosed();
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    private static boolean isClosed(final Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (final SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Logs in on a connector thread, so that a driver without a login timeout of its
+     * own cannot hold the caller for longer than the timeout.
+     */
+    private Connection connect(final long timeout) throws SQLException {
+        final Login login = new Login();
+        final Future<Connection> future = s_connector.submit(login);
+        final Connection connection;
+        try {
+            connection = future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            if (login.abandon()) {
+                throw new SQLException("Timed out after " + timeout + "ms logging in to " + m_url);
+            }
+            // the login completed just in time
+            return connect(future);
+        } catch (final InterruptedException e) {
+            if (login.abandon()) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while logging in to " + m_url, e);
+            }
+            try {
+                return connect(future);
+            } finally {
+                Thread.currentThread().interrupt();
+            }
+        } catch (final ExecutionException e) {
+            throw toSQLException(e);
+        }
+        return checkConnection(connection);
+    }
+
+    private Connection connect(final Future<Connection> future) throws SQLException {
+        try {
+            return checkConnection(future.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while logging in to " + m_url, e);
+        } catch (final ExecutionException e) {
+            throw toSQLException(e);
+        }
+    }
+
+    private SQLException toSQLException(final ExecutionException e) {
+        if (e.getCause() instanceof SQLException) {
+            return (SQLException)e.getCause();
+        }
+        return new SQLException("Unable to log in to " + m_url, e.getCause());
+    }
+
+    /**
+     * A login whose caller may give up waiting; the connection is then closed when
+     * the login completes.
+     */
+    private class Login implements Callable<Connection> {
+        private boolean m_abandoned = false;
+        private boolean m_delivered = false;
+
+        @Override
+        public Connection call() throws SQLException {
+            final Connection connection = m_driver.connect(m_url, m_properties);
+            synchronized (this) {
+                if (!m_abandoned) {
+                    m_delivered = true;
+                    return connection;
+                }
+            }
+            if (connection != null) {
+                LOG.debug("Closing a connection to {} whose login took too long", m_url);
+                try {
+                    connection.close();
+                } catch (final SQLException e) {
+                    LOG.debug("Unable to close a connection to {}: {}", m_url, e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return false if the connection has already been handed over
+         */
+        synchronized boolean abandon() {
+            if (m_delivered) {
+                return false;
+            }
+            m_abandoned = true;
+            return true;
+        }
+    }
+
+    private Connection checkConnection(final Connection connection) throws SQLException {
+        if (connection == null) {
+            throw new SQLException("The JDBC driver " + m_driver.getClass().getName() + " does not accept the URL " + m_url);
+        }
+        m_connectionsOpened.incrementAndGet();
+        return connection;
+    }
+
+    private void destroy(final Connection connection) {
+        m_connectionsClosed.incrementAndGet();
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            LOG.debug("Unable to close a connection to {}: {}", m_url, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout, or older than the max lifetime.
+     */
+    public void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        for (final PooledConnection pooled : m_idle) {
+            if ((now - pooled.m_lastUsed > m_idleTimeout || now - pooled.m_created > m_maxLifetime) && m_idle.remove(pooled)) {
+                destroy(pooled.m_connection);
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections; leased connections are closed when they are given back.
+     */
+    public void close() {
+        m_closed = true;
+        PooledConnection pooled;
+        while ((pooled = m_idle.pollFirst()) != null) {
+            destroy(pooled.m_connection);
+        }
+        if (m_objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_objectName);
+            } catch (final Exception e) {
+                LOG.debug("Unable to unregister the JDBC connection pool MBean {}: {}", m_objectName, e.getMessage());
+            }
+        }
+    }
+
+    private void register() {
+        try {
+            m_objectName = new ObjectName("OpenNMS:Name=JdbcConnectionPool,Id=" + s_ids.incrementAndGet() + ",Url=" + ObjectName.quote(m_url));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, m_objectName);
+        } catch (final Exception e) {
+            m_objectName = null;
+            LOG.debug("Unable to register the JDBC connection pool MBean for {}: {}", m_url, e.getMessage());
+        }
+    }
+
+    private static synchronized void startEvictor() {
+        if (s_evictor != null) {
+            return;
+        }
+        s_evictor = new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "JdbcConnectionPool-Evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        }.newThread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(30000);
+                        for (final JdbcConnectionPool pool : s_pools.values()) {
+                            pool.closeIdleConnections();
+                        }
+                        closeIdlePools();
+                    } catch (final InterruptedException e) {
+                        return;
+                    } catch (final Throwable t) {
+                        LOG.warn("Unable to close idle JDBC connections", t);
+                    }
+                }
+            }
+        });
+        s_evictor.start();
+    }
+
+    @Override
+    public String getUrl() {
+        return m_url;
+    }
+
+    @Override
+    public String getUser() {
+        return m_properties.getProperty("user");
+    }
+
+    @Override
+    public int getOwners() {
+        return m_owners.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    @Override
+    public long getIdleTimeout() {
+        return m_idleTimeout;
+    }
+
+    @Override
+    public long getMaxLifetime() {
+        return m_maxLifetime;
+    }
+
+    @Override
+    public long getValidationInterval() {
+        return m_validationInterval;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return m_leased.size();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return m_idle.size();
+    }
+
+    @Override
+    public long getBorrows() {
+        return m_borrows.get();
+    }
+
+    @Override
+    public long getBorrowTimeouts() {
+        return m_borrowTimeouts.get();
+    }
+
+    @Override
+    public long getBorrowWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_borrowWaitNanos.get());
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return m_connectionsOpened.get();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return m_connectionsClosed.get();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return m_validationFailures.get();
+    }
+}
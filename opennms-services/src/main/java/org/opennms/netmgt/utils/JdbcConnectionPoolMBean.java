@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+/**
+ * Statistics of a {@link JdbcConnectionPool}.
+ */
+public interface JdbcConnectionPoolMBean {
+
+    /**
+     * @return the JDBC URL of the target
+     */
+    String getUrl();
+
+    /**
+     * @return the database user
+     */
+    String getUser();
+
+    /**
+     * @return the number of services using the pool
+     */
+    int getOwners();
+
+    /**
+     * @return the maximum number of connections, 0 if a new connection is opened every time
+     */
+    int getMaxSize();
+
+    /**
+     * @return the milliseconds after which an idle connection is closed
+     */
+    long getIdleTimeout();
+
+    /**
+     * @return the milliseconds after which a connection is closed once given back
+     */
+    long getMaxLifetime();
+
+    /**
+     * @return the milliseconds of idleness after which a connection is validated before use
+     */
+    long getValidationInterval();
+
+    /**
+     * @return the number of connections currently in use
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the number of idle connections kept open for reuse
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the number of connections handed out so far, new or reused
+     */
+    long getBorrows();
+
+    /**
+     * @return the number of requests that gave up waiting for a connection
+     */
+    long getBorrowTimeouts();
+
+    /**
+     * @return the total milliseconds spent waiting for a connection
+     */
+    long getBorrowWaitTime();
+
+    /**
+     * @return the number of connections opened so far (each one an authentication)
+     */
+    long getConnectionsOpened();
+
+    /**
+     * @return the number of connections closed so far
+     */
+    long getConnectionsClosed();
+
+    /**
+     * @return the number of idle connections found invalid when validated
+     */
+    long getValidationFailures();
+}
@@ -31,6 +31,7 @@ package org.opennms.netmgt.vacuumd;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -83,6 +84,8 @@ public class AutomationProcessor implements ReadyRunnable {
     private final AutoEventProcessor m_autoEvent;
     private final ActionEventProcessor m_actionEvent;
     
+    private final AutomationStatistics m_statistics;
+    
     private volatile Schedule m_schedule;
     private volatile boolean m_ready = false;
 
@@ -207,6 +210,10 @@ public class AutomationProcessor implements ReadyRunnable {
 			return m_trigger.hasTrigger();
 		}
 
+		public TriggerProcessor getTrigger() {
+		    return m_trigger;
+		}
+
         public ResultSet getResultSet() {
             return m_resultSet;
         }
@@ -222,6 +229,9 @@ public class AutomationProcessor implements ReadyRunnable {
         
         private final String m_automationName;
         private final Action m_action;
+        private String m_setBasedSQL;
+        private boolean m_setBasedChecked = false;
+        private long m_rowsAffected = 0;
 
         public ActionProcessor(String automationName, Action action) {
             m_automationName = automationName;
@@ -322,28 +332,125 @@ public class AutomationProcessor implements ReadyRunnable {
             } else {
                 //Convert the sql to a PreparedStatement
                 PreparedStatement actionStatement = createPreparedStatement();
-                actionStatement.executeUpdate();
+                m_rowsAffected += actionStatement.executeUpdate();
                 return true;
             }
         }
 
         boolean processTriggerResults(TriggerResults triggerResults) throws SQLException {
+            String setBasedSQL = getSetBasedSQL(triggerResults);
+            if (setBasedSQL != null) {
+                return executeSetBased(setBasedSQL);
+            }
+
         	ResultSet triggerResultSet = triggerResults.getResultSet();
 
             triggerResultSet.beforeFirst();
             
             PreparedStatement actionStatement = createPreparedStatement();
+
+            int commitSize = m_action.getCommitSize();
+            if (commitSize > 0) {
+                return processTriggerResultsInBatches(triggerResultSet, actionStatement, commitSize);
+            }
         
             //Loop through the select results
             while (triggerResultSet.next()) {                        
                 //Convert the sql to a PreparedStatement
                 assignStatementParameters(actionStatement, triggerResultSet);
-                actionStatement.executeUpdate();
+                m_rowsAffected += actionStatement.executeUpdate();
+            }
+
+            return true;
+        }
+
+        /**
+         * Sends the action for every trigger row as JDBC batches of
+         * <code>commitSize</code> statements, committing after each full batch.
+         * The last partial batch is committed when the transaction ends.
+         */
+        private boolean processTriggerResultsInBatches(ResultSet triggerResultSet, PreparedStatement actionStatement, int commitSize) throws SQLException {
+            int pending = 0;
+            while (triggerResultSet.next()) {
+                assignStatementParameters(actionStatement, triggerResultSet);
+                actionStatement.addBatch();
+                if (++pending >= commitSize) {
+                    m_rowsAffected += sumUpdateCounts(actionStatement.executeBatch());
+                    Transaction.commit(m_action.getDataSource());
+                    LOG.debug("processTriggerResults: committed batch of {} rows for action {} in automation {}", pending, getName(), m_automationName);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                m_rowsAffected += sumUpdateCounts(actionStatement.executeBatch());
+            }
+            return true;
+        }
+
+        private static long sumUpdateCounts(int[] updateCounts) {
+            long total = 0;
+            for (int count : updateCounts) {
+                if (count > 0) {
+                    total += count;
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Returns the action rewritten to run once against the whole trigger
+         * query, or null if the action is not set-based or cannot be rewritten.
+         * The trigger is only joined when it shares the action's data source.
+         */
+        String getSetBasedSQL(TriggerResults triggerResults) throws SQLException {
+            if (!m_setBasedChecked) {
+                TriggerProcessor trigger = triggerResults.getTrigger();
+                m_setBasedChecked = true;
+                if (m_action.isSetBased() && trigger.hasTrigger()) {
+                    if (!m_action.getDataSource().equals(trigger.getTrigger().getDataSource())) {
+                        LOG.info("getSetBasedSQL: action {} in automation {} uses a different data-source than trigger {}; running it once per trigger row.", getName(), m_automationName, trigger.getName());
+                    } else {
+                        m_setBasedSQL = SetBasedStatement.rewrite(getActionSQL(), trigger.getTriggerSQL(), getColumnNames(triggerResults.getResultSet()));
+                        if (m_setBasedSQL == null) {
+                            LOG.info("getSetBasedSQL: action {} in automation {} cannot be rewritten as a set-based statement; running it once per trigger row.", getName(), m_automationName);
+                        } else {
+                            LOG.debug("getSetBasedSQL: action {} rewritten as: {}", getName(), m_setBasedSQL);
+                        }
+                    }
+                }
+            }
+            return m_setBasedSQL;
+        }
+
+        private static List<String> getColumnNames(ResultSet rs) throws SQLException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            List<String> columns = new ArrayList<String>(metaData.getColumnCount());
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnLabel(i));
             }
+            return columns;
+        }
 
+        private boolean executeSetBased(String setBasedSQL) throws SQLException {
+            Connection conn = Transaction.getConnection(m_action.getDataSource());
+            PreparedStatement stmt = conn.prepareStatement(setBasedSQL);
+            Transaction.register(stmt);
+            m_rowsAffected += stmt.executeUpdate();
             return true;
         }
 
+        /**
+         * Returns the number of rows changed by this action since the last
+         * call to {@link #resetRowsAffected()}.
+         */
+        public long getRowsAffected() {
+            return m_rowsAffected;
+        }
+
+        public void resetRowsAffected() {
+            m_rowsAffected = 0;
+        }
+
 		boolean processAction(TriggerResults triggerResults) throws SQLException {
 			if (triggerResults.hasTrigger()) {
 			    return processTriggerResults(triggerResults);
@@ -650,10 +757,22 @@ public class AutomationProcessor implements ReadyRunnable {
      *
      * @param automation a {@link org.opennms.netmgt.config.vacuumd.Automation} object.
      */
-    @SuppressWarnings("deprecation")
 	public AutomationProcessor(Automation automation) {
+        this(automation, new AutomationStatistics(automation.getName()));
+    }
+
+    /**
+     * Creates a processor that records its run times and row counts in
+     * <code>statistics</code>.
+     *
+     * @param automation a {@link org.opennms.netmgt.config.vacuumd.Automation} object.
+     * @param statistics a {@link org.opennms.netmgt.vacuumd.AutomationStatistics} object.
+     */
+    @SuppressWarnings("deprecation")
+    public AutomationProcessor(Automation automation, AutomationStatistics statistics) {
         m_ready = true;
         m_automation = automation;
+        m_statistics = statistics;
         m_trigger = new TriggerProcessor(m_automation.getName(), VacuumdConfigFactory.getInstance().getTrigger(m_automation.getTriggerName()));
         m_action = new ActionProcessor(m_automation.getName(), VacuumdConfigFactory.getInstance().getAction(m_automation.getActionName()));
         m_autoEvent = new AutoEventProcessor(m_automation.getName(), VacuumdConfigFactory.getInstance().getAutoEvent(m_automation.getAutoEventName()));
@@ -678,6 +797,15 @@ public class AutomationProcessor implements ReadyRunnable {
         return m_trigger;
     }
 
+    /**
+     * <p>getStatistics</p>
+     *
+     * @return a {@link org.opennms.netmgt.vacuumd.AutomationStatistics} object.
+     */
+    public AutomationStatistics getStatistics() {
+        return m_statistics;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Runnable#run()
      */
@@ -727,6 +855,9 @@ public class AutomationProcessor implements ReadyRunnable {
         LOG.debug("runAutomation: Executing trigger: {}", m_automation.getTriggerName());
         
         
+        long startTime = System.currentTimeMillis();
+        boolean failed = false;
+        m_action.resetRowsAffected();
         Transaction.begin();
         try {
             LOG.debug("runAutomation: Processing automation: {}", m_automation.getName());
@@ -741,6 +872,7 @@ public class AutomationProcessor implements ReadyRunnable {
 			return success;
 
         } catch (Throwable e) {
+            failed = true;
         	Transaction.rollbackOnly();
             LOG.warn("runAutomation: Could not execute automation: {}", m_automation.getName(), e);
             return false;
@@ -748,7 +880,16 @@ public class AutomationProcessor implements ReadyRunnable {
 
             LOG.debug("runAutomation: Ending processing of automation: {}", m_automation.getName());
             
-            Transaction.end();         
+            boolean committed = false;
+            try {
+                Transaction.end();
+                committed = !failed;
+            } finally {
+                long elapsed = System.currentTimeMillis() - startTime;
+                long rowsAffected = committed ? m_action.getRowsAffected() : 0;
+                m_statistics.record(rowsAffected, elapsed, committed);
+                LOG.debug("runAutomation: automation {} affected {} rows in {}ms", m_automation.getName(), rowsAffected, elapsed);
+            }
         }
 
     }
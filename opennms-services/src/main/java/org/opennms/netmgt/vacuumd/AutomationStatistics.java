@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.vacuumd;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for a single automation: how often it ran, how many rows
+ * its action touched, and how long it took.  Instances are shared between
+ * the {@link AutomationProcessor} and the Vacuumd MBean and survive
+ * configuration reloads.
+ */
+public class AutomationStatistics {
+
+    private final String m_automationName;
+    private final AtomicLong m_runs = new AtomicLong();
+    private final AtomicLong m_failures = new AtomicLong();
+    private final AtomicLong m_rowsAffected = new AtomicLong();
+    private final AtomicLong m_elapsedTime = new AtomicLong();
+    private volatile long m_lastRowsAffected = 0;
+    private volatile long m_lastElapsedTime = 0;
+
+    /**
+     * <p>Constructor for AutomationStatistics.</p>
+     *
+     * @param automationName a {@link java.lang.String} object.
+     */
+    public AutomationStatistics(final String automationName) {
+        m_automationName = automationName;
+    }
+
+    /**
+     * Record the outcome of one automation run.
+     *
+     * @param rowsAffected the number of rows changed by the action
+     * @param elapsedTime the time the run took in milliseconds
+     * @param successful whether the run completed without error
+     */
+    public void record(final long rowsAffected, final long elapsedTime, final boolean successful) {
+        m_runs.incrementAndGet();
+        if (!successful) {
+            m_failures.incrementAndGet();
+        }
+        m_rowsAffected.addAndGet(rowsAffected);
+        m_elapsedTime.addAndGet(elapsedTime);
+        m_lastRowsAffected = rowsAffected;
+        m_lastElapsedTime = elapsedTime;
+    }
+
+    public String getAutomationName() {
+        return m_automationName;
+    }
+
+    public long getRuns() {
+        return m_runs.get();
+    }
+
+    public long getFailures() {
+        return m_failures.get();
+    }
+
+    public long getRowsAffected() {
+        return m_rowsAffected.get();
+    }
+
+    public long getElapsedTime() {
+        return m_elapsedTime.get();
+    }
+
+    public long getLastRowsAffected() {
+        return m_lastRowsAffected;
+    }
+
+    public long getLastElapsedTime() {
+        return m_lastElapsedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "runs=" + getRuns()
+            + ", failures=" + getFailures()
+            + ", rowsAffected=" + getRowsAffected()
+            + ", lastRowsAffected=" + getLastRowsAffected()
+            + ", elapsedTime=" + getElapsedTime() + "ms"
+            + ", lastElapsedTime=" + getLastElapsedTime() + "ms";
+    }
+}
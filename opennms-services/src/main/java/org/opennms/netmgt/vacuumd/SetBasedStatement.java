@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.vacuumd;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a tokenized action statement into a single statement that joins
+ * against the trigger query, so that an automation can update every trigger
+ * row in one round trip instead of executing the action once per row.
+ *
+ * <p>Only simple statements are rewritten:</p>
+ * <ul>
+ * <li><code>UPDATE t SET ... WHERE ...${col}...</code> becomes
+ * <code>UPDATE t SET ... FROM (trigger) AS vacuumd_trigger WHERE ...vacuumd_trigger.col...</code></li>
+ * <li><code>DELETE FROM t WHERE ...${col}...</code> becomes
+ * <code>DELETE FROM t USING (trigger) AS vacuumd_trigger WHERE ...vacuumd_trigger.col...</code></li>
+ * <li><code>INSERT INTO t (...) VALUES (${col}, ...)</code> becomes
+ * <code>INSERT INTO t (...) SELECT vacuumd_trigger.col, ... FROM (trigger) AS vacuumd_trigger</code></li>
+ * </ul>
+ *
+ * <p>Anything else (sub-selects, existing FROM/USING clauses, RETURNING,
+ * multi-row VALUES, or UPDATE/DELETE statements whose WHERE clause does not
+ * reference a token) is left alone and
+ * {@link #rewrite(String, String, Collection)} returns <code>null</code>.
+ * Note that the UPDATE form touches each target row once even when the
+ * trigger returns it several times.</p>
+ *
+ * <p>Once the trigger is joined, an unqualified column in the action that
+ * the trigger also returns (for example <code>severity</code> when the
+ * trigger is <code>SELECT * FROM alarms</code>) would be ambiguous or bind
+ * to the trigger row instead of the target row.  Such actions are not
+ * rewritten either.</p>
+ */
+public abstract class SetBasedStatement {
+
+    /** The alias given to the trigger query in the rewritten statement. */
+    public static final String TRIGGER_ALIAS = "vacuumd_trigger";
+
+    private static final int FLAGS = Pattern.CASE_INSENSITIVE | Pattern.DOTALL;
+
+    private static final Pattern TOKEN = Pattern.compile("\\$\\{(\\w+)\\}");
+    private static final Pattern TRAILING_SEMICOLON = Pattern.compile(";\\s*$");
+    private static final Pattern UNSUPPORTED = Pattern.compile("\\b(SELECT|USING|RETURNING|WITH)\\b", FLAGS);
+    private static final Pattern FROM = Pattern.compile("\\bFROM\\b", FLAGS);
+
+    private static final Pattern UPDATE = Pattern.compile("^UPDATE\\s+(.+?)\\s+SET\\s+(.+?)\\s+WHERE\\s+(.+)$", FLAGS);
+    private static final Pattern DELETE = Pattern.compile("^DELETE\\s+FROM\\s+(.+?)\\s+WHERE\\s+(.+)$", FLAGS);
+    private static final Pattern INSERT = Pattern.compile("^INSERT\\s+INTO\\s+(.+?)\\s+VALUES\\s*\\((.+)\\)$", FLAGS);
+    private static final Pattern MULTI_ROW_VALUES = Pattern.compile("\\)\\s*,\\s*\\(");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern IDENTIFIER = Pattern.compile("(?<![.\\w])([A-Za-z_]\\w*)");
+
+    /**
+     * Rewrite <code>actionSQL</code> so that it runs once against the rows
+     * returned by <code>triggerSQL</code>.
+     *
+     * @param actionSQL the tokenized action statement
+     * @param triggerSQL the trigger query providing the token values
+     * @param triggerColumns the names of the columns returned by the trigger
+     * @return the set-based statement, or <code>null</code> if the action
+     *         cannot be safely rewritten
+     */
+    public static String rewrite(final String actionSQL, final String triggerSQL, final Collection<String> triggerColumns) {
+        if (actionSQL == null || triggerSQL == null || triggerColumns == null) {
+            return null;
+        }
+
+        final String action = clean(actionSQL);
+        final String trigger = clean(triggerSQL);
+
+        if (trigger.length() == 0 || !TOKEN.matcher(action).find() || UNSUPPORTED.matcher(action).find()) {
+            return null;
+        }
+
+        final Set<String> columns = new HashSet<String>();
+        for (final String column : triggerColumns) {
+            columns.add(column.toLowerCase(Locale.ENGLISH));
+        }
+
+        final String source = "(" + trigger + ") AS " + TRIGGER_ALIAS;
+
+        Matcher m = UPDATE.matcher(action);
+        if (m.matches()) {
+            if (FROM.matcher(action).find() || !TOKEN.matcher(m.group(3)).find() || referencesAny(m.group(2) + " " + m.group(3), columns)) {
+                return null;
+            }
+            return "UPDATE " + m.group(1) + " SET " + replaceTokens(m.group(2)) + " FROM " + source + " WHERE " + replaceTokens(m.group(3));
+        }
+
+        m = DELETE.matcher(action);
+        if (m.matches()) {
+            if (FROM.matcher(m.group(2)).find() || !TOKEN.matcher(m.group(2)).find() || referencesAny(m.group(2), columns)) {
+                return null;
+            }
+            return "DELETE FROM " + m.group(1) + " USING " + source + " WHERE " + replaceTokens(m.group(2));
+        }
+
+        m = INSERT.matcher(action);
+        if (m.matches()) {
+            if (FROM.matcher(action).find() || MULTI_ROW_VALUES.matcher(m.group(2)).find() || referencesAny(m.group(2), columns)) {
+                return null;
+            }
+            return "INSERT INTO " + m.group(1) + " SELECT " + replaceTokens(m.group(2)) + " FROM " + source;
+        }
+
+        return null;
+    }
+
+    private static String clean(final String sql) {
+        return TRAILING_SEMICOLON.matcher(sql.trim()).replaceFirst("").trim();
+    }
+
+    /**
+     * Returns true if the clause uses, outside of tokens and string literals,
+     * a name that is also a trigger column.  Keywords and function names are
+     * checked too, which at worst keeps an action running once per row.
+     */
+    private static boolean referencesAny(final String clause, final Set<String> columns) {
+        final String stripped = TOKEN.matcher(STRING_LITERAL.matcher(clause).replaceAll("''")).replaceAll("?");
+        final Matcher m = IDENTIFIER.matcher(stripped);
+        while (m.find()) {
+            if (columns.contains(m.group(1).toLowerCase(Locale.ENGLISH))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String replaceTokens(final String sql) {
+        return TOKEN.matcher(sql).replaceAll(TRIGGER_ALIAS + ".$1");
+    }
+
+}
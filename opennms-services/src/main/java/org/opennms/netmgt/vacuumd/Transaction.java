@@ -121,6 +121,19 @@ public class Transaction {
         getTX().doRollbackOnly();
     }
 
+    /**
+     * Commit the work done so far on the connection for the given data
+     * source without ending the transaction.  Does nothing if no
+     * connection has been opened for it or the transaction has been
+     * marked rollback only.
+     *
+     * @param dsName a {@link java.lang.String} object.
+     * @throws java.sql.SQLException if any.
+     */
+    public static void commit(String dsName) throws SQLException {
+        getTX().doCommit(dsName);
+    }
+
     /**
      * <p>end</p>
      *
@@ -171,6 +184,13 @@ public class Transaction {
         }
     }
 
+    private void doCommit(String dsName) throws SQLException {
+        Connection conn = m_connections.get(dsName);
+        if (conn != null && !m_rollbackOnly) {
+            conn.commit();
+        }
+    }
+
     private void doRollbackOnly() throws SQLException {
         m_rollbackOnly = true;
     }
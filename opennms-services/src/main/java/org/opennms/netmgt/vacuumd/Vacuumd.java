@@ -34,14 +34,20 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.ValidationException;
 import org.opennms.core.db.DataSourceFactory;
+import org.opennms.core.db.TimePartitioning;
 import org.opennms.netmgt.EventConstants;
 import org.opennms.netmgt.config.VacuumdConfigFactory;
 import org.opennms.netmgt.config.vacuumd.Action;
@@ -71,6 +77,19 @@ import org.slf4j.LoggerFactory;
 public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventListener {
     
     private static final Logger LOG = LoggerFactory.getLogger(Vacuumd.class);
+
+    /**
+     * Events still referenced by an outage or a notification are moved out
+     * of an expired partition instead of being dropped with it, matching the
+     * event purge in vacuumd-configuration.xml. Alarms whose last event is
+     * dropped are deleted with it, as the foreign key cascade used to do.
+     */
+    private static final String KEEP_REFERENCED_EVENTS =
+        "EXISTS (SELECT 1 FROM outages WHERE outages.svclosteventid = p.eventid) " +
+        "OR EXISTS (SELECT 1 FROM outages WHERE outages.svcregainedeventid = p.eventid) " +
+        "OR EXISTS (SELECT 1 FROM notifications WHERE notifications.eventid = p.eventid)";
+
+    private static final int DEFAULT_EVENT_RETENTION_DAYS = 42;
     
     private static volatile Vacuumd m_singleton;
 
@@ -84,6 +103,8 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
 
     private volatile EventIpcManager m_eventMgr;
 
+    private final ConcurrentMap<String, AutomationStatistics> m_statistics = new ConcurrentHashMap<String, AutomationStatistics>();
+
     /**
      * <p>getSingleton</p>
      *
@@ -211,6 +232,8 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
      */
     protected void executeStatements() {
         if (!m_stopped) {
+            // drop whole partitions first so the statements only see what is left
+            dropExpiredEventPartitions();
             List<Statement> statements = getVacuumdConfig().getStatements();
             for (Statement statement : statements) {
 				runUpdate(statement.getContent(), statement.getTransactional());
@@ -218,6 +241,39 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
         }
     }
 
+    /**
+     * Enforces the retention of a partitioned events table by dropping the
+     * partitions that only hold events older than
+     * <code>org.opennms.events.partitionRetentionDays</code>, and deleting
+     * the older events left in the events table itself.
+     */
+    private void dropExpiredEventPartitions() {
+        final TimePartitioning partitioning = TimePartitioning.forEvents();
+        if (partitioning == null) {
+            return;
+        }
+
+        final int retentionDays = Integer.getInteger("org.opennms.events.partitionRetentionDays", DEFAULT_EVENT_RETENTION_DAYS);
+        final Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+        Connection dbConn = null;
+        try {
+            dbConn = getDataSourceFactory().getConnection();
+            final int dropped = partitioning.dropPartitionsBefore(dbConn, cutoff, KEEP_REFERENCED_EVENTS);
+            LOG.info("Vacuumd: dropped {} event partitions older than {} days", dropped, retentionDays);
+            final int deleted = partitioning.deleteParentRowsBefore(dbConn, cutoff, KEEP_REFERENCED_EVENTS);
+            LOG.info("Vacuumd: deleted {} unpartitioned events older than {} days", deleted, retentionDays);
+        } catch (SQLException ex) {
+            LOG.error("Vacuumd: Database error dropping expired event partitions", ex);
+        } finally {
+            if (dbConn != null) {
+                try {
+                    dbConn.close();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+
     /**
      * @param now
      * @param period
@@ -311,7 +367,7 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
 
     private void scheduleAutomation(Automation auto) {
         if (auto.getActive()) {
-            AutomationProcessor ap = new AutomationProcessor(auto);
+            AutomationProcessor ap = new AutomationProcessor(auto, getAutomationStatistics(auto.getName()));
             Schedule s = new Schedule(ap, new AutomationInterval(auto.getInterval()), m_scheduler);
             ap.setSchedule(s);
             s.schedule();
@@ -426,6 +482,35 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
         }
     }
 
+    /**
+     * Returns the statistics for the named automation, creating them the
+     * first time the automation is scheduled.  The same instance is handed
+     * to the automation again after a configuration reload.
+     *
+     * @param automationName a {@link java.lang.String} object.
+     * @return a {@link org.opennms.netmgt.vacuumd.AutomationStatistics} object.
+     */
+    public AutomationStatistics getAutomationStatistics(String automationName) {
+        AutomationStatistics stats = m_statistics.get(automationName);
+        if (stats == null) {
+            AutomationStatistics newStats = new AutomationStatistics(automationName);
+            stats = m_statistics.putIfAbsent(automationName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of every automation that has been scheduled.
+     *
+     * @return a {@link java.util.Collection} object.
+     */
+    public Collection<AutomationStatistics> getAutomationStatistics() {
+        return m_statistics.values();
+    }
+
     private VacuumdConfigFactory getVacuumdConfig() {
         return VacuumdConfigFactory.getInstance();
     }
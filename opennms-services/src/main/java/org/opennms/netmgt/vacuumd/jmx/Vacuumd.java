@@ -28,8 +28,12 @@
 
 package org.opennms.netmgt.vacuumd.jmx;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 import org.opennms.netmgt.eventd.EventIpcManagerFactory;
 import org.opennms.netmgt.model.events.EventIpcManager;
+import org.opennms.netmgt.vacuumd.AutomationStatistics;
 
 /**
  * Implementws the VacuumdMBead interface and delegeates the mbean
@@ -135,6 +139,36 @@ public class Vacuumd implements VacuumdMBean {
         return getVacuumd().getNumAutomations();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long getNumRowsAffected() {
+        long total = 0;
+        for (AutomationStatistics stats : getVacuumd().getAutomationStatistics()) {
+            total += stats.getRowsAffected();
+        }
+        return total;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAutomationElapsedTime() {
+        long total = 0;
+        for (AutomationStatistics stats : getVacuumd().getAutomationStatistics()) {
+            total += stats.getElapsedTime();
+        }
+        return total;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, String> getAutomationStatistics() {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (AutomationStatistics stats : getVacuumd().getAutomationStatistics()) {
+            result.put(stats.getAutomationName(), stats.toString());
+        }
+        return result;
+    }
+
     private org.opennms.netmgt.vacuumd.Vacuumd getVacuumd() {
         return org.opennms.netmgt.vacuumd.Vacuumd.getSingleton();
     }
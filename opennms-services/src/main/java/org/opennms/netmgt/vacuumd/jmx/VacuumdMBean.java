@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.vacuumd.jmx;
 
+import java.util.Map;
+
 import org.opennms.netmgt.daemon.BaseOnmsMBean;
 
 /**
@@ -46,4 +48,26 @@ public interface VacuumdMBean extends BaseOnmsMBean {
      * @return the number of automations that have been executed
      */
     public long getNumAutomations();
+
+    /**
+     * Returns the number of rows changed by automation actions so far (counter).
+     *
+     * @return the number of rows changed by all automations
+     */
+    public long getNumRowsAffected();
+
+    /**
+     * Returns the time spent running automations so far, in milliseconds (counter).
+     *
+     * @return the total automation run time
+     */
+    public long getAutomationElapsedTime();
+
+    /**
+     * Returns the run count, rows affected and elapsed time of each
+     * automation, keyed by automation name.
+     *
+     * @return a summary of every automation's statistics
+     */
+    public Map<String, String> getAutomationStatistics();
 }
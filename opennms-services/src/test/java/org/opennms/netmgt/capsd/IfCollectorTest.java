@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.capsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.capsd.IfCollector.SupportedProtocol;
+
+/**
+ * Tests the concurrent probing of the sub-targets found by an
+ * {@link IfCollector}'s SNMP collection.
+ */
+public class IfCollectorTest {
+
+    /**
+     * Reports every address as supporting one protocol, after waiting for
+     * the latch, and records how many probes ran at once.
+     */
+    private static class LatchedPlugin extends AbstractPlugin {
+        private final CountDownLatch m_latch;
+        private final AtomicInteger m_running = new AtomicInteger();
+        private final AtomicInteger m_maxRunning = new AtomicInteger();
+
+        public LatchedPlugin(final CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return "TEST";
+        }
+
+        @Override
+        public boolean isProtocolSupported(final InetAddress address) {
+            final int running = m_running.incrementAndGet();
+            try {
+                synchronized (m_maxRunning) {
+                    m_maxRunning.set(Math.max(m_maxRunning.get(), running));
+                }
+                return m_latch.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                throw new UndeclaredInterruptedException(e);
+            } finally {
+                m_running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isProtocolSupported(final InetAddress address, final Map<String, Object> qualifiers) {
+            return isProtocolSupported(address);
+        }
+
+        public int getMaxRunning() {
+            return m_maxRunning.get();
+        }
+    }
+
+    private static class UndeclaredInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public UndeclaredInterruptedException(final InterruptedException e) {
+            super(e);
+        }
+    }
+
+    private static class SinglePluginManager extends PluginManager {
+        private final Plugin m_plugin;
+
+        public SinglePluginManager(final Plugin plugin) {
+            m_plugin = plugin;
+        }
+
+        @Override
+        public CapsdProtocolInfo[] getProtocolSpecification(final InetAddress address) {
+            return new CapsdProtocolInfo[] { new CapsdProtocolInfo(m_plugin.getProtocolName(), m_plugin, null, CapsdProtocolInfo.Action.SCAN) };
+        }
+    }
+
+    private ExecutorService m_executor;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging();
+        m_executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void testSubTargetsAreProbedConcurrently() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final LatchedPlugin plugin = new LatchedPlugin(latch);
+        final IfCollector collector = new IfCollector(new SinglePluginManager(plugin), InetAddressUtils.addr("10.0.0.1"), false);
+        collector.setProbeExecutor(m_executor);
+
+        final List<InetAddress> subtargets = getSubTargets(4);
+        final Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                // let all four probes start before any of them completes
+                final long end = System.currentTimeMillis() + 5000;
+                while (plugin.m_running.get() < 4 && System.currentTimeMillis() < end) {
+                    Thread.yield();
+                }
+                latch.countDown();
+            }
+        };
+        releaser.start();
+        collector.probeSubTargets(subtargets);
+        releaser.join();
+
+        assertEquals(4, plugin.getMaxRunning());
+        assertTrue(collector.hasAdditionalTargets());
+        final Map<InetAddress, List<SupportedProtocol>> targets = collector.getAdditionalTargets();
+        assertEquals(4, targets.size());
+        for (final InetAddress subtarget : subtargets) {
+            assertEquals(1, targets.get(subtarget).size());
+            assertEquals("TEST", targets.get(subtarget).get(0).getProtocolName());
+        }
+    }
+
+    @Test
+    public void testInterruptedProbesAreDiscarded() throws Exception {
+        final LatchedPlugin plugin = new LatchedPlugin(new CountDownLatch(1));
+        final Set<InetAddress> previouslyProbed = new HashSet<InetAddress>();
+        final IfCollector collector = new IfCollector(new SinglePluginManager(plugin), InetAddressUtils.addr("10.0.0.1"), false, previouslyProbed);
+        collector.setProbeExecutor(m_executor);
+
+        final List<InetAddress> subtargets = getSubTargets(3);
+        final Thread prober = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    collector.probeSubTargets(subtargets);
+                } catch (final InterruptedException e) {
+                    // expected
+                }
+            }
+        };
+        prober.start();
+        final long end = System.currentTimeMillis() + 5000;
+        while (plugin.m_running.get() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        prober.interrupt();
+        prober.join(5000);
+        assertFalse(prober.isAlive());
+
+        // none of the probes completed, so none of the sub-targets is reported
+        assertFalse(collector.hasAdditionalTargets());
+        for (final InetAddress subtarget : subtargets) {
+            assertFalse(previouslyProbed.contains(subtarget));
+        }
+
+        // the cancelled probes are interrupted rather than left running
+        final long stopped = System.currentTimeMillis() + 5000;
+        while (plugin.m_running.get() > 0 && System.currentTimeMillis() < stopped) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, plugin.m_running.get());
+    }
+
+    private static List<InetAddress> getSubTargets(final int count) {
+        final List<InetAddress> subtargets = new ArrayList<InetAddress>();
+        for (int i = 0; i < count; i++) {
+            subtargets.add(InetAddressUtils.addr("10.0.1." + (i + 1)));
+        }
+        return subtargets;
+    }
+}
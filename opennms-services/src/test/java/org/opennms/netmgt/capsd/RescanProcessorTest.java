@@ -28,15 +28,36 @@
 
 package org.opennms.netmgt.capsd;
 
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.same;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.startsWith;
+import static org.easymock.EasyMock.verify;
+
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
 import org.opennms.core.test.MockLogAppender;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.capsd.snmp.IfTableEntry;
+import org.opennms.netmgt.config.PollerConfig;
+import org.opennms.netmgt.config.PollerConfigFactory;
+import org.opennms.netmgt.config.poller.Package;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
@@ -83,4 +104,119 @@ public class RescanProcessorTest extends TestCase {
         assertFalse("Do not rescan 127.0.0.1 when there are multiple interfaces in the list.",RescanProcessor.scannableInterface(dbInterfaces, ifaddr1));
         assertTrue(RescanProcessor.scannableInterface(dbInterfaces, ifaddr2));
     }
+
+    /**
+     * The other nodes sharing the rescanned node's addresses are loaded with
+     * one query and answered from memory afterwards.
+     */
+    public void testOtherNodesAreLoadedInBulk() throws Exception {
+        RescanProcessor.setQueuedRescansTracker(new HashSet<Integer>());
+        RescanProcessor processor = new RescanProcessor(5, false, null, null);
+
+        ResultSet rs = createNiceMock(ResultSet.class);
+        expect(rs.next()).andReturn(true).andReturn(true).andReturn(false);
+        expect(rs.getString(1)).andReturn("10.0.0.1").andReturn("10.0.0.1");
+        expect(rs.getInt(2)).andReturn(7).andReturn(8);
+        PreparedStatement stmt = createNiceMock(PreparedStatement.class);
+        expect(stmt.executeQuery()).andReturn(rs);
+        Connection dbc = createMock(Connection.class);
+        expect(dbc.prepareStatement(startsWith(RescanProcessor.SQL_DB_RETRIEVE_OTHER_NODES_BULK + "(?,?)"))).andReturn(stmt);
+        replay(rs, stmt, dbc);
+
+        processor.loadOtherNodes(dbc, Arrays.asList("10.0.0.1", "10.0.0.2"), 5);
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(7, 8)), processor.getOtherNodes(dbc, InetAddressUtils.addr("10.0.0.1"), 5));
+        assertTrue(processor.getOtherNodes(dbc, InetAddressUtils.addr("10.0.0.2"), 5).isEmpty());
+
+        // a duplicate node merged into the rescanned node is forgotten
+        processor.forgetOtherNode(7);
+        assertEquals(Collections.singleton(8), processor.getOtherNodes(dbc, InetAddressUtils.addr("10.0.0.1"), 5));
+
+        verify(rs, stmt, dbc);
+    }
+
+    public void testOtherNodesAreLoadedInChunks() throws Exception {
+        RescanProcessor.setQueuedRescansTracker(new HashSet<Integer>());
+        RescanProcessor processor = new RescanProcessor(5, false, null, null);
+
+        Set<String> addresses = new HashSet<String>();
+        for (int i = 0; i < 501; i++) {
+            addresses.add("10.0." + (i / 256) + "." + (i % 256));
+        }
+
+        ResultSet rs = createNiceMock(ResultSet.class);
+        expect(rs.next()).andReturn(false).times(2);
+        PreparedStatement stmt = createNiceMock(PreparedStatement.class);
+        expect(stmt.executeQuery()).andReturn(rs).times(2);
+        Connection dbc = createMock(Connection.class);
+        expect(dbc.prepareStatement(startsWith(RescanProcessor.SQL_DB_RETRIEVE_OTHER_NODES_BULK))).andReturn(stmt).times(2);
+        replay(rs, stmt, dbc);
+
+        processor.loadOtherNodes(dbc, addresses, 5);
+        for (String address : addresses) {
+            assertTrue(processor.getOtherNodes(dbc, InetAddressUtils.addr(address), 5).isEmpty());
+        }
+
+        verify(rs, stmt, dbc);
+    }
+
+    public void testCollectedAddressesIncludeSubTargets() throws Exception {
+        IfCollector collector = new IfCollector(null, InetAddressUtils.addr("10.0.0.1"), false);
+        collector.probeSubTargets(Collections.<InetAddress>emptyList());
+        collector.getAdditionalTargets().put(InetAddressUtils.addr("10.0.0.2"), Collections.<IfCollector.SupportedProtocol>emptyList());
+
+        Map<String, IfCollector> collectorMap = new HashMap<String, IfCollector>();
+        collectorMap.put("10.0.0.1", collector);
+
+        assertEquals(new HashSet<String>(Arrays.asList("10.0.0.1", "10.0.0.2")), RescanProcessor.getCollectedAddresses(collectorMap));
+    }
+
+    /**
+     * A new interface is not visible to the poller package filters until the
+     * rescan commits, so it is marked managed and its services polled after.
+     */
+    public void testNewInterfacesArePolledAfterCommit() throws Exception {
+        RescanProcessor.setQueuedRescansTracker(new HashSet<Integer>());
+        RescanProcessor processor = new RescanProcessor(5, false, null, null);
+        processor.newInterfaceAdded(InetAddressUtils.addr("10.0.0.2"));
+        processor.newServiceAdded(InetAddressUtils.addr("10.0.0.2"), "ICMP", 1);
+        processor.newServiceAdded(InetAddressUtils.addr("10.0.0.2"), "HTTP", 2);
+        processor.newInterfaceAdded(InetAddressUtils.addr("10.0.0.3"));
+        processor.newServiceAdded(InetAddressUtils.addr("10.0.0.3"), "ICMP", 1);
+
+        Package pkg = new Package("example1");
+        pkg.setRemote(false);
+        PollerConfig pollerConfig = createNiceMock(PollerConfig.class);
+        pollerConfig.rebuildPackageIpListMap();
+        expectLastCall();
+        expect(pollerConfig.getFirstPackageMatch("10.0.0.2")).andReturn(pkg);
+        expect(pollerConfig.getFirstPackageMatch("10.0.0.3")).andReturn(null);
+        expect(pollerConfig.isPolled(eq("ICMP"), same(pkg))).andReturn(true).anyTimes();
+
+        PreparedStatement ifStmt = createNiceMock(PreparedStatement.class);
+        ifStmt.setString(1, "M");
+        ifStmt.setLong(2, 5);
+        ifStmt.setString(3, "10.0.0.2");
+        expect(ifStmt.executeUpdate()).andReturn(1);
+        PreparedStatement svcStmt = createNiceMock(PreparedStatement.class);
+        svcStmt.setString(1, "A");
+        svcStmt.setLong(2, 5);
+        svcStmt.setString(3, "10.0.0.2");
+        svcStmt.setInt(4, 1);
+        expect(svcStmt.executeUpdate()).andReturn(1);
+
+        // nothing for the unpolled service or the interface outside every package
+        Connection dbc = createMock(Connection.class);
+        expect(dbc.prepareStatement(RescanProcessor.SQL_DB_UPDATE_ISMANAGED)).andReturn(ifStmt);
+        expect(dbc.prepareStatement(RescanProcessor.SQL_DB_UPDATE_NOT_POLLED_SERVICE)).andReturn(svcStmt);
+        replay(pollerConfig, ifStmt, svcStmt, dbc);
+
+        PollerConfigFactory.setInstance(pollerConfig);
+        processor.updateNewInterfaces(dbc);
+
+        verify(pollerConfig, ifStmt, svcStmt, dbc);
+
+        // settled once
+        processor.updateNewInterfaces(dbc);
+    }
 }
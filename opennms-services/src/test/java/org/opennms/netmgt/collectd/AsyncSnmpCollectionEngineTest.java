@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionException;
+import org.opennms.netmgt.collection.api.CollectionSet;
+
+public class AsyncSnmpCollectionEngineTest {
+
+    private AsyncSnmpCollectionEngine m_engine;
+
+    @After
+    public void tearDown() {
+        if (m_engine != null) {
+            m_engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testPerAgentLimit() throws Exception {
+        m_engine = new AsyncSnmpCollectionEngine(4, 1, 0, 1, 1);
+        final ConcurrencyCountingCollector collector = new ConcurrencyCountingCollector();
+        final int count = 10;
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            m_engine.submit(collector, createAgent(i % 2 == 0 ? "192.168.1.1" : "192.168.1.2"), null, Collections.<String,Object>emptyMap(), new AsyncSnmpCollectionEngine.Listener() {
+                @Override
+                public void persist(CollectionSet collectionSet) {
+                    throw new AssertionError("a failed collection should not be persisted");
+                }
+
+                @Override
+                public void threshold(CollectionSet collectionSet) {
+                    throw new AssertionError("a failed collection should not be thresholded");
+                }
+
+                @Override
+                public void completed(CollectionSet collectionSet, CollectionException e) {
+                    assertNull(collectionSet);
+                    assertNotNull(e);
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(count, failures.get());
+        assertEquals(count, m_engine.getFailedCount());
+        assertEquals(0, m_engine.getInFlightCount());
+        assertEquals(1, collector.getMaxConcurrency("192.168.1.1"));
+        assertEquals(1, collector.getMaxConcurrency("192.168.1.2"));
+    }
+
+    @Test
+    public void testRateLimiter() throws Exception {
+        final AsyncSnmpCollectionEngine.RateLimiter limiter = new AsyncSnmpCollectionEngine.RateLimiter(100);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+
+        final AsyncSnmpCollectionEngine.RateLimiter unlimited = new AsyncSnmpCollectionEngine.RateLimiter(0);
+        final long unlimitedStart = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            unlimited.acquire();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - unlimitedStart) < 90);
+    }
+
+    private static CollectionAgent createAgent(String address) {
+        final CollectionAgent agent = EasyMock.createNiceMock(CollectionAgent.class);
+        EasyMock.expect(agent.getHostAddress()).andReturn(address).anyTimes();
+        EasyMock.replay(agent);
+        return agent;
+    }
+
+    /**
+     * Tracks how many collection sets are being created at once per agent
+     * and then fails the collection.
+     */
+    private static class ConcurrencyCountingCollector extends SnmpCollector {
+        private final ConcurrentMap<String, AtomicInteger> m_active = new ConcurrentHashMap<String, AtomicInteger>();
+        private final ConcurrentMap<String, AtomicInteger> m_max = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        SnmpCollectionSet createCollectionSet(CollectionAgent agent, Map<String, Object> parameters) {
+            final String address = agent.getHostAddress();
+            m_active.putIfAbsent(address, new AtomicInteger());
+            m_max.putIfAbsent(address, new AtomicInteger());
+            final int active = m_active.get(address).incrementAndGet();
+            synchronized (m_max) {
+                if (active > m_max.get(address).get()) {
+                    m_max.get(address).set(active);
+                }
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            m_active.get(address).decrementAndGet();
+            throw new IllegalStateException("no agent at " + address);
+        }
+
+        public int getMaxConcurrency(String address) {
+            return m_max.get(address).get();
+        }
+    }
+}
@@ -33,6 +33,10 @@ import static org.junit.Assert.assertEquals;
 import java.io.File;
 import java.io.FileInputStream;
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -278,6 +282,45 @@ public class JMXCollectorTest {
         assertEquals("Collection of one Jvm default value run successfully", 1, collectionSet.getStatus());
     }
 
+    /**
+     * The connection is kept between collections and closed when the agent
+     * is released, and wildcard object names are not queried every time.
+     */
+    @Test
+    public void collectReusesConnectionAndObjectNames() {
+        String mBeansObjectName = "org.opennms.netmgt.collectd.jmxhelper:type=*";
+        Map<String, BeanInfo> mBeans = new HashMap<String, BeanInfo>();
+        BeanInfo beanInfo = new BeanInfo();
+        beanInfo.setObjectName(mBeansObjectName);
+        beanInfo.setKeyField("type");
+        List<String> attributes = new ArrayList<String>();
+        attributes.add("X");
+        beanInfo.setAttributes(attributes);
+        mBeans.put("first", beanInfo);
+        jmxNodeInfo.setMBeans(mBeans);
+        Map<String, JMXDataSource> dataSourceMap = new HashMap<String, JMXDataSource>();
+        dataSourceMap.put(mBeansObjectName + "|X", new JMXDataSource());
+        jmxNodeInfo.setDsMap(dataSourceMap);
+
+        CountingJMXCollector collector = new CountingJMXCollector();
+        for (int i = 0; i < 3; i++) {
+            CollectionSet collectionSet = collector.collect(collectionAgent, null, null);
+            assertEquals(1, collectionSet.getStatus());
+        }
+        assertEquals(1, collector.connects);
+        assertEquals(0, collector.closes);
+        assertEquals(1, collector.queries);
+
+        collector.release(collectionAgent);
+        assertEquals(1, collector.closes);
+
+        collector.collect(collectionAgent, null, null);
+        assertEquals(2, collector.connects);
+        assertEquals(2, collector.queries);
+        collector.release();
+        assertEquals(2, collector.closes);
+    }
+
     private Map<String, JMXDataSource> generateDataSourceMap(Map<String, List<Attrib>> attributeMap) {
         return JMXCollector.buildDataSourceList("foo", attributeMap);
     }
@@ -291,6 +334,42 @@ public class JMXCollectorTest {
         }
     }
     
+    public class CountingJMXCollector extends JMXCollector {
+        int connects = 0;
+        int closes = 0;
+        int queries = 0;
+
+        @Override
+        public ConnectionWrapper getMBeanServerConnection(Map<String, Object> map, InetAddress address) {
+            connects++;
+            final MBeanServerConnection server = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("queryNames".equals(method.getName())) {
+                        queries++;
+                    }
+                    try {
+                        return method.invoke(platformMBeanServer, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+            return new ConnectionWrapper() {
+
+                @Override
+                public MBeanServerConnection getMBeanServer() {
+                    return server;
+                }
+
+                @Override
+                public void close() {
+                    closes++;
+                }
+            };
+        }
+    }
+
     public class JMXCollectorImpl extends JMXCollector {
 
         @Override
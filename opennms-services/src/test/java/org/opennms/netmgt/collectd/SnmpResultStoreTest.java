@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.netmgt.collection.api.AttributeGroup;
+import org.opennms.netmgt.collection.api.AttributeGroupType;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.netmgt.config.MibObject;
+import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+
+public class SnmpResultStoreTest {
+
+    private static final SnmpValueFactory FACTORY = SnmpUtils.getValueFactory();
+
+    private static class TestResourceType extends ResourceType {
+        public TestResourceType() {
+            super(null, null);
+        }
+
+        @Override
+        protected Collection<SnmpAttributeType> loadAttributeTypes() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public SnmpCollectionResource findResource(SnmpInstId inst) {
+            return null;
+        }
+
+        @Override
+        public SnmpCollectionResource findAliasedResource(SnmpInstId inst, String ifAlias) {
+            return null;
+        }
+
+        @Override
+        public Collection<? extends SnmpCollectionResource> getResources() {
+            return Collections.emptyList();
+        }
+    }
+
+    private static class TestResource extends SnmpCollectionResource {
+        private final String m_instance;
+
+        public TestResource(ResourceType resourceType, String instance) {
+            super(resourceType);
+            m_instance = instance;
+        }
+
+        @Override
+        public boolean shouldPersist(ServiceParameters params) {
+            return true;
+        }
+
+        @Override
+        public File getResourceDir(RrdRepository repository) {
+            return new File(m_instance);
+        }
+
+        @Override
+        public int getSnmpIfType() {
+            return 6;
+        }
+
+        @Override
+        public String getResourceTypeName() {
+            return CollectionResource.RESOURCE_TYPE_IF;
+        }
+
+        @Override
+        public String getParent() {
+            return null;
+        }
+
+        @Override
+        public String getInstance() {
+            return m_instance;
+        }
+
+        @Override
+        public String getLabel() {
+            return m_instance;
+        }
+
+        @Override
+        public String getOwnerName() {
+            return "127.0.0.1";
+        }
+    }
+
+    private final ResourceType m_resourceType = new TestResourceType();
+
+    private SnmpAttributeType createAttributeType(String alias, String type, String group) {
+        MibObject mibObject = new MibObject();
+        mibObject.setOid(".1.3.6.1.2.1.2.2.1." + Math.abs(alias.hashCode() % 100));
+        mibObject.setInstance(MibObject.INSTANCE_IFINDEX);
+        mibObject.setAlias(alias);
+        mibObject.setType(type);
+        return SnmpAttributeType.create(m_resourceType, "default", mibObject, new AttributeGroupType(group, AttributeGroupType.IF_TYPE_ALL));
+    }
+
+    private static List<CollectionAttribute> getAttributes(SnmpCollectionResource resource) {
+        final List<CollectionAttribute> attributes = new ArrayList<CollectionAttribute>();
+        resource.visit(new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                attributes.add(attribute);
+            }
+        });
+        return attributes;
+    }
+
+    /**
+     * The values read back from the store must be the ones an attribute
+     * holding the original {@link SnmpValue} returns.
+     */
+    @Test
+    public void testValuesMatchSnmpAttribute() {
+        SnmpValue[] values = new SnmpValue[] {
+            FACTORY.getCounter32(4294967295L),
+            FACTORY.getGauge32(100),
+            FACTORY.getInt32(-5),
+            FACTORY.getTimeTicks(123456),
+            FACTORY.getCounter64(new BigInteger("12345678901234")),
+            FACTORY.getCounter64(new BigInteger("9223372036854775807")),
+            FACTORY.getOctetString("7.69".getBytes()),
+            FACTORY.getOctetString("769".getBytes()),
+            FACTORY.getOctetString("not a number".getBytes()),
+            FACTORY.getOctetString(new byte[] { 0x00, 0x00, 0x00, 0x01, 0x2a, 0x05, (byte)0xf2, 0x00 }),
+            FACTORY.getOctetString(new byte[] { 0x03, 0x01 }),
+            null
+        };
+
+        for (int i = 0; i < values.length; i++) {
+            SnmpCollectionResource resource = new TestResource(m_resourceType, Integer.toString(i + 1));
+            SnmpAttributeType type = createAttributeType("attr" + i, values[i] != null && values[i].getType() == SnmpValue.SNMP_OCTET_STRING ? "octetstring" : "counter", "group");
+            resource.setAttributeValue(type, values[i]);
+
+            List<CollectionAttribute> attributes = getAttributes(resource);
+            assertEquals(1, attributes.size());
+            SnmpAttribute stored = (SnmpAttribute) attributes.get(0);
+            SnmpAttribute expected = new SnmpAttribute(resource, type, values[i]);
+
+            assertEquals("numeric value of " + values[i], expected.getNumericValue(), stored.getNumericValue());
+            // computed once, must still be the same
+            assertEquals("numeric value of " + values[i], expected.getNumericValue(), stored.getNumericValue());
+            assertEquals("string value of " + values[i], expected.getStringValue(), stored.getStringValue());
+            assertEquals("metric identifier of " + values[i], expected.getMetricIdentifier(), stored.getMetricIdentifier());
+            if (values[i] == null) {
+                assertNull(stored.getValue());
+            } else {
+                assertEquals(values[i].getType(), stored.getValue().getType());
+            }
+        }
+    }
+
+    @Test
+    public void testFirstValueIsKept() {
+        SnmpCollectionResource resource = new TestResource(m_resourceType, "1");
+        resource.setAttributeValue(createAttributeType("ifInOctets", "counter", "mib2-interfaces"), FACTORY.getCounter32(1));
+        resource.setAttributeValue(createAttributeType("ifInOctets", "counter", "mib2-interfaces"), FACTORY.getCounter32(2));
+
+        List<CollectionAttribute> attributes = getAttributes(resource);
+        assertEquals(1, attributes.size());
+        assertEquals("1", attributes.get(0).getNumericValue());
+    }
+
+    @Test
+    public void testGroupsPerResource() {
+        SnmpAttributeType inOctets = createAttributeType("ifInOctets", "counter", "mib2-interfaces");
+        SnmpAttributeType outOctets = createAttributeType("ifOutOctets", "counter", "mib2-interfaces");
+        SnmpAttributeType descr = createAttributeType("ifDescr", "string", "mib2-interfaces-strings");
+
+        SnmpCollectionResource first = new TestResource(m_resourceType, "1");
+        SnmpCollectionResource second = new TestResource(m_resourceType, "2");
+        SnmpCollectionResource empty = new TestResource(m_resourceType, "3");
+
+        first.setAttributeValue(inOctets, FACTORY.getCounter32(10));
+        second.setAttributeValue(outOctets, FACTORY.getCounter32(20));
+        first.setAttributeValue(outOctets, FACTORY.getCounter32(11));
+        first.setAttributeValue(descr, FACTORY.getOctetString("eth0".getBytes()));
+
+        Map<String, String> values = new HashMap<String, String>();
+        Set<String> groups = new HashSet<String>();
+        for (AttributeGroup group : first.getGroups()) {
+            groups.add(group.getName());
+            for (CollectionAttribute attribute : group.getAttributes()) {
+                assertTrue(attribute.getResource() == first);
+                values.put(attribute.getName(), "string".equals(attribute.getType()) ? attribute.getStringValue() : attribute.getNumericValue());
+            }
+        }
+        assertEquals(2, groups.size());
+        assertEquals("10", values.get("ifInOctets"));
+        assertEquals("11", values.get("ifOutOctets"));
+        assertEquals("eth0", values.get("ifDescr"));
+
+        List<CollectionAttribute> secondAttributes = getAttributes(second);
+        assertEquals(1, secondAttributes.size());
+        assertEquals("20", secondAttributes.get(0).getNumericValue());
+
+        assertEquals(0, empty.getGroups().size());
+        assertEquals(2, m_resourceType.getResultStore().getRowCount());
+        assertEquals(3, m_resourceType.getResultStore().getColumnCount());
+    }
+
+    /**
+     * Measures the memory allocated and retained per collected interface.
+     * Run with -Dorg.opennms.netmgt.collectd.benchmarkInterfaces=1000000
+     */
+    @Test
+    public void testAllocationBenchmark() {
+        final int interfaces = Integer.getInteger("org.opennms.netmgt.collectd.benchmarkInterfaces", 0);
+        Assume.assumeTrue(interfaces > 0);
+        final int attributes = 20;
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final SnmpAttributeType[] types = new SnmpAttributeType[attributes];
+        for (int i = 0; i < attributes; i++) {
+            types[i] = createAttributeType("ifCounter" + i, "counter", "mib2-interfaces");
+        }
+        final SnmpCollectionResource[] resources = new SnmpCollectionResource[interfaces];
+        for (int i = 0; i < interfaces; i++) {
+            resources[i] = new TestResource(m_resourceType, Integer.toString(i + 1));
+        }
+
+        System.gc();
+        final long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (int i = 0; i < interfaces; i++) {
+            for (int j = 0; j < attributes; j++) {
+                // the walker allocates the value, it is not counted against the store
+                resources[i].setAttributeValue(types[j], FACTORY.getCounter32(i + j));
+            }
+        }
+        final long stored = System.nanoTime();
+        final long allocatedStored = threads.getThreadAllocatedBytes(threadId);
+        System.gc();
+        final long retained = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - heapBefore;
+
+        final long[] count = new long[1];
+        final AbstractCollectionSetVisitor visitor = new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                if (attribute.getNumericValue() != null) {
+                    count[0]++;
+                }
+            }
+        };
+        final long allocatedBeforeVisit = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < interfaces; i++) {
+            resources[i].visit(visitor);
+        }
+        final long visited = System.nanoTime();
+        final long allocatedVisited = threads.getThreadAllocatedBytes(threadId);
+        assertEquals((long) interfaces * attributes, count[0]);
+
+        // the same values held the way the resources held them before the store: an attribute per value in a group per resource
+        final List<Map<AttributeGroupType, AttributeGroup>> legacy = new ArrayList<Map<AttributeGroupType, AttributeGroup>>(interfaces);
+        System.gc();
+        final long legacyHeapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final long legacyAllocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < interfaces; i++) {
+            final Map<AttributeGroupType, AttributeGroup> groups = new HashMap<AttributeGroupType, AttributeGroup>();
+            for (int j = 0; j < attributes; j++) {
+                AttributeGroup group = groups.get(types[j].getGroupType());
+                if (group == null) {
+                    group = new SnmpAttributeGroup(resources[i], types[j].getGroupType());
+                    groups.put(types[j].getGroupType(), group);
+                }
+                group.addAttribute(new SnmpAttribute(resources[i], types[j], FACTORY.getCounter32(i + j)));
+            }
+            legacy.add(groups);
+        }
+        final long legacyAllocated = threads.getThreadAllocatedBytes(threadId) - legacyAllocatedBefore;
+        System.gc();
+        final long legacyRetained = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - legacyHeapBefore;
+        assertEquals(interfaces, legacy.size());
+
+        System.err.printf("%d interfaces x %d attributes: store %dms (%d bytes allocated/interface including the values), retained %d bytes/interface; visit %dms (%d bytes allocated/interface)%n",
+                          interfaces, attributes,
+                          (stored - start) / 1000000, (allocatedStored - allocatedBefore) / interfaces, retained / interfaces,
+                          (visited - stored) / 1000000, (allocatedVisited - allocatedBeforeVisit) / interfaces);
+        System.err.printf("%d interfaces x %d attributes as attribute objects: %d bytes allocated/interface, retained %d bytes/interface%n",
+                          interfaces, attributes, legacyAllocated / interfaces, legacyRetained / interfaces);
+    }
+}
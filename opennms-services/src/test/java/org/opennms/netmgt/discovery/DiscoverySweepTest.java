@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.opennms.netmgt.model.discovery.IPPollRange;
+
+public class DiscoverySweepTest {
+
+    private static List<String> sweep(final DiscoverySweep sweep) {
+        final List<String> addresses = new ArrayList<String>();
+        while (sweep.hasNext()) {
+            addresses.add(InetAddressUtils.str(sweep.next().getAddress()));
+        }
+        return addresses;
+    }
+
+    @Test
+    public void testRangesSkipExclusions() throws Exception {
+        final List<IPPollAddress> specifics = new ArrayList<IPPollAddress>();
+        specifics.add(new IPPollAddress(InetAddressUtils.addr("10.0.1.1"), 800, 3));
+        final List<IPPollRange> ranges = Arrays.asList(new IPPollRange("192.168.0.250", "192.168.1.5", 800, 3));
+        final List<IPPollRange> excludes = Arrays.asList(
+            new IPPollRange("192.168.0.252", "192.168.0.253", 0, 0),
+            new IPPollRange("192.168.0.253", "192.168.1.0", 0, 0),
+            new IPPollRange("192.168.1.4", "192.168.1.4", 0, 0),
+            new IPPollRange("::1", "::2", 0, 0)
+        );
+
+        final DiscoverySweep sweep = new DiscoverySweep(specifics, ranges, excludes);
+        assertEquals(7, sweep.getAddressCount());
+        assertEquals(Arrays.asList("10.0.1.1", "192.168.0.250", "192.168.0.251", "192.168.1.1", "192.168.1.2", "192.168.1.3", "192.168.1.5"), sweep(sweep));
+        assertEquals(7, sweep.getProcessedCount());
+        assertEquals(100.0, sweep.getProgress(), 0.001);
+    }
+
+    @Test
+    public void testFullyExcludedRange() throws Exception {
+        final List<IPPollRange> ranges = Arrays.asList(new IPPollRange("10.1.0.0", "10.1.0.255", 800, 3), new IPPollRange("10.2.0.1", "10.2.0.2", 800, 3));
+        final List<IPPollRange> excludes = Arrays.asList(new IPPollRange("10.0.0.0", "10.1.255.255", 0, 0));
+
+        final DiscoverySweep sweep = new DiscoverySweep(new ArrayList<IPPollAddress>(), ranges, excludes);
+        assertEquals(2, sweep.getAddressCount());
+        assertEquals(Arrays.asList("10.2.0.1", "10.2.0.2"), sweep(sweep));
+    }
+
+    @Test
+    public void testKnownAddresses() throws Exception {
+        final KnownAddressSet known = KnownAddressSet.build(Arrays.asList("10.0.0.3", "10.0.0.1", "10.0.0.2", "10.0.0.5", "fe80::1"));
+        assertEquals(5, known.size());
+        assertEquals(2, known.getIntervalCount());
+        assertTrue(known.contains("10.0.0.2"));
+        assertFalse(known.contains("10.0.0.4"));
+        assertTrue(known.contains(InetAddress.getByName("fe80::1")));
+
+        assertTrue(known.add("10.0.0.4"));
+        assertFalse(known.add("10.0.0.4"));
+        assertEquals(1, known.getIntervalCount());
+
+        assertTrue(known.remove("10.0.0.3"));
+        assertFalse(known.contains("10.0.0.3"));
+        assertTrue(known.contains("10.0.0.4"));
+        assertEquals(2, known.getIntervalCount());
+        assertEquals(5, known.size());
+
+        assertFalse(KnownAddressSet.build(Collections.<String>emptyList()).contains("10.0.0.1"));
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KnownAddressSetTest {
+
+    @Test
+    public void testBuildCoalescesAddresses() {
+        final List<String> addresses = new ArrayList<String>();
+        for (int i = 0; i < 256; i++) {
+            addresses.add("10.0.1." + i);
+        }
+        addresses.add("10.0.2.0");
+        addresses.add("10.0.1.7");
+        addresses.add("192.168.0.1");
+        addresses.add("::1");
+        addresses.add("not an address");
+
+        final KnownAddressSet set = KnownAddressSet.build(addresses);
+        assertEquals(259, set.size());
+        assertEquals(2, set.getIntervalCount());
+        assertTrue(set.contains("10.0.1.0"));
+        assertTrue(set.contains("10.0.2.0"));
+        assertTrue(set.contains("192.168.0.1"));
+        assertTrue(set.contains("::1"));
+        assertFalse(set.contains("10.0.0.255"));
+        assertFalse(set.contains("10.0.2.1"));
+        assertFalse(set.contains("::2"));
+    }
+
+    @Test
+    public void testBuilder() {
+        final KnownAddressSet.Builder builder = new KnownAddressSet.Builder();
+        for (int i = 2000; i > 0; i--) {
+            builder.add("172.16." + (i / 256) + "." + (i % 256));
+        }
+        final KnownAddressSet set = builder.build();
+        assertEquals(2000, set.size());
+        assertEquals(1, set.getIntervalCount());
+        assertTrue(set.contains("172.16.0.1"));
+        assertTrue(set.contains("172.16.7.208"));
+        assertFalse(set.contains("172.16.7.209"));
+    }
+
+    @Test
+    public void testAddJoinsIntervals() {
+        final KnownAddressSet set = new KnownAddressSet();
+        assertTrue(set.add("10.0.0.1"));
+        assertTrue(set.add("10.0.0.3"));
+        assertEquals(2, set.getIntervalCount());
+        assertTrue(set.add("10.0.0.2"));
+        assertEquals(1, set.getIntervalCount());
+        assertFalse(set.add("10.0.0.2"));
+        assertTrue(set.add("10.0.0.0"));
+        assertTrue(set.add("10.0.0.4"));
+        assertEquals(1, set.getIntervalCount());
+        assertEquals(5, set.size());
+        assertTrue(set.add("fe80::1"));
+        assertFalse(set.add("fe80:0:0:0:0:0:0:1"));
+        assertEquals(6, set.size());
+    }
+
+    @Test
+    public void testRemoveSplitsIntervals() {
+        final KnownAddressSet set = KnownAddressSet.build(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5"));
+        assertTrue(set.remove("10.0.0.3"));
+        assertEquals(2, set.getIntervalCount());
+        assertFalse(set.remove("10.0.0.3"));
+        assertTrue(set.remove("10.0.0.1"));
+        assertTrue(set.remove("10.0.0.5"));
+        assertEquals(2, set.getIntervalCount());
+        assertTrue(set.remove("10.0.0.2"));
+        assertEquals(1, set.getIntervalCount());
+        assertEquals(1, set.size());
+        assertTrue(set.contains("10.0.0.4"));
+        assertFalse(set.contains("10.0.0.2"));
+    }
+
+    @Test
+    public void testUnsignedOrder() {
+        final KnownAddressSet set = KnownAddressSet.build(Arrays.asList("255.255.255.255", "0.0.0.0", "127.255.255.255", "128.0.0.0"));
+        assertEquals(3, set.getIntervalCount());
+        assertTrue(set.contains("128.0.0.0"));
+        assertTrue(set.contains("255.255.255.255"));
+        assertFalse(set.contains("128.0.0.1"));
+    }
+}
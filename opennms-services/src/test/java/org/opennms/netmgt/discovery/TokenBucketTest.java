@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static long time(final TokenBucket bucket, final int permits) throws InterruptedException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < permits; i++) {
+            bucket.acquire();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testRateAboveOnePerMillisecond() throws Exception {
+        // 5000 per second, which whole millisecond sleeps cannot express; the
+        // burst absorbs the oversleeping, as with the burst Discovery uses
+        final long elapsed = time(new TokenBucket(5000, 500), 1000);
+        assertTrue("took " + elapsed + "ms", elapsed >= 180);
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void testBurstAfterIdle() throws Exception {
+        final TokenBucket bucket = new TokenBucket(10, 5);
+        Thread.sleep(600);
+        // the idle time filled the bucket up to its capacity, and no further
+        assertTrue(time(bucket, 5) < 50);
+        final long elapsed = time(bucket, 2);
+        assertTrue("took " + elapsed + "ms", elapsed >= 150);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRateMustBePositive() {
+        new TokenBucket(0, 1);
+    }
+}
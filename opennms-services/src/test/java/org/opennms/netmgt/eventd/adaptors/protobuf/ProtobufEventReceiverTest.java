@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.eventd.adaptors.protobuf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.EventConstants;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+
+public class ProtobufEventReceiverTest {
+
+    private static final String REJECTED_UEI = "uei.opennms.org/test/rejected";
+
+    private ProtobufEventReceiver m_receiver;
+    private final List<Event> m_events = Collections.synchronizedList(new ArrayList<Event>());
+    private final List<String> m_receipts = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        final ServerSocket probe = new ServerSocket(0);
+        final int port = probe.getLocalPort();
+        probe.close();
+
+        m_receiver = new ProtobufEventReceiver(port, "127.0.0.1");
+        m_receiver.addEventHandler(new EventHandler() {
+            @Override
+            public boolean processEvent(final Event event) {
+                if (REJECTED_UEI.equals(event.getUei())) {
+                    return false;
+                }
+                m_events.add(event);
+                return true;
+            }
+
+            @Override
+            public void receiptSent(final EventReceipt receipt) {
+                for (final String uuid : receipt.getUuid()) {
+                    m_receipts.add(uuid);
+                }
+            }
+        });
+        m_receiver.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_receiver.stop();
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        final Date now = new Date((System.currentTimeMillis() / 1000) * 1000);
+        final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/roundTrip", "test", now);
+        bldr.setNodeid(42);
+        bldr.setInterface(org.opennms.core.utils.InetAddressUtils.addr("192.168.1.1"));
+        bldr.setService("ICMP");
+        bldr.setIfIndex(7);
+        bldr.setSeverity("Major");
+        bldr.setLogMessage("a log message");
+        bldr.setDescription("a description");
+        bldr.addParam("foo", "bar");
+        bldr.addParam("count", 17);
+        final Event event = bldr.getEvent();
+        event.setUuid("uuid-1");
+
+        final byte[] bytes = EventProtoCodec.encodeEvent(event);
+        final Event decoded = EventProtoCodec.decodeEvent(bytes, 0, bytes.length);
+
+        assertEquals(event.getUei(), decoded.getUei());
+        assertEquals(event.getSource(), decoded.getSource());
+        assertEquals(event.getUuid(), decoded.getUuid());
+        assertEquals(now, EventConstants.parseToDate(decoded.getTime()));
+        assertEquals(Long.valueOf(42), decoded.getNodeid());
+        assertEquals("192.168.1.1", decoded.getInterface());
+        assertEquals("ICMP", decoded.getService());
+        assertEquals(Integer.valueOf(7), decoded.getIfIndex());
+        assertEquals("Major", decoded.getSeverity());
+        assertEquals("a log message", decoded.getLogmsg().getContent());
+        assertEquals("a description", decoded.getDescr());
+        assertEquals(2, decoded.getParmCollection().size());
+        assertEquals("foo", decoded.getParmCollection().get(0).getParmName());
+        assertEquals("bar", decoded.getParmCollection().get(0).getValue().getContent());
+        assertEquals("17", decoded.getParmCollection().get(1).getValue().getContent());
+        assertEquals(event.getParmCollection().get(1).getValue().getType(), decoded.getParmCollection().get(1).getValue().getType());
+    }
+
+    @Test
+    public void testPipelinedEvents() throws Exception {
+        final int count = 1000;
+
+        // write every event before reading any acknowledgement
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 1; i <= count; i++) {
+            final String uei = (i == 500) ? REJECTED_UEI : "uei.opennms.org/test/pipelined";
+            final Event event = new EventBuilder(uei, "test").getEvent();
+            event.setUuid("uuid-" + i);
+            stream.write(EventProtoCodec.frame(EventProtoCodec.encodeEvent(event)));
+        }
+        // a frame that is not a valid Event message
+        stream.write(EventProtoCodec.frame(new byte[] { (byte)0xff, (byte)0xff }));
+
+        final Socket socket = new Socket("127.0.0.1", m_receiver.getLocalPort());
+        try {
+            socket.setSoTimeout(10000);
+            final OutputStream out = socket.getOutputStream();
+            out.write(stream.toByteArray());
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final List<Long> rejected = new ArrayList<Long>();
+            long sequence = 0;
+            int acks = 0;
+            while (sequence < count + 1) {
+                final EventProtoCodec.Ack ack = readAck(in);
+                assertTrue("sequence must increase", ack.getSequence() > sequence);
+                sequence = ack.getSequence();
+                rejected.addAll(ack.getRejected());
+                acks++;
+            }
+
+            assertEquals(count + 1, sequence);
+            assertEquals(2, rejected.size());
+            assertTrue(rejected.contains(500L));
+            assertTrue(rejected.contains(1001L));
+            assertTrue("acknowledgements should be batched", acks <= count);
+        } finally {
+            socket.close();
+        }
+
+        assertEquals(count - 1, m_events.size());
+        assertEquals(count - 1, m_receipts.size());
+        assertEquals(count + 1, m_receiver.getEventsReceived());
+        assertEquals(2, m_receiver.getEventsRejected());
+    }
+
+    private static EventProtoCodec.Ack readAck(final DataInputStream in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = readByte(in);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        final byte[] buf = new byte[length];
+        in.readFully(buf);
+        return EventProtoCodec.decodeAck(buf, 0, length);
+    }
+
+    private static int readByte(final InputStream in) throws IOException {
+        final int b = in.read();
+        if (b < 0) {
+            throw new IOException("connection closed");
+        }
+        return b;
+    }
+}
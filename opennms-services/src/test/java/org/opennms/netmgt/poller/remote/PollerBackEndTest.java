@@ -754,6 +754,88 @@ public class PollerBackEndTest extends TestCase {
         m_backEnd.reportResult(1, 1, newStatus);
     }
 
+    public void testReportResults() {
+        expect(m_locMonDao.get(1)).andReturn(m_locationMonitor);
+        expect(m_monSvcDao.findMatching(isA(Criteria.class))).andReturn(Collections.singletonList(m_dnsService));
+
+        // only read once, the later results use the cached status
+        expect(m_locMonDao.getMostRecentStatusChange(m_locationMonitor, m_dnsService)).andReturn(m_dnsCurrentStatus);
+
+        final PollStatus newStatus = PollStatus.up();
+
+        OnmsLocationSpecificStatus expectedStatus = new OnmsLocationSpecificStatus(m_locationMonitor, m_dnsService, newStatus);
+
+        m_locMonDao.saveStatusChange(isA(OnmsLocationSpecificStatus.class));
+        expectLastCall().andAnswer(new StatusChecker(expectedStatus));
+
+        EventBuilder eventBuilder = new EventBuilder(EventConstants.REMOTE_NODE_REGAINED_SERVICE_UEI, "PollerBackEnd")
+        .setMonitoredService(m_dnsService)
+        .addParam(EventConstants.PARM_LOCATION_MONITOR_ID, "1");
+
+        m_eventIpcManager.sendNow(eq(eventBuilder.getEvent()));
+
+        m_mocks.replayAll();
+
+        m_backEnd.reportResults(1, Arrays.asList(
+            new ServicePollResult(2, PollStatus.unavailable("Still Down")),
+            new ServicePollResult(2, newStatus),
+            new ServicePollResult(2, PollStatus.up()),
+            new ServicePollResult(3, PollStatus.up())
+        ));
+    }
+
+    public void testStatusCacheLoadedAtStart() throws Exception {
+        expect(m_locMonDao.getAllMostRecentStatusChanges()).andReturn(Collections.singletonList(m_dnsCurrentStatus));
+
+        expect(m_locMonDao.get(1)).andReturn(m_locationMonitor);
+        expect(m_monSvcDao.get(2)).andReturn(m_dnsService);
+
+        // expect no status lookups and no status changes
+
+        m_mocks.replayAll();
+
+        m_backEnd.start();
+        m_backEnd.reportResult(1, 2, PollStatus.unavailable("Still Down"));
+    }
+
+    public void testStatusCacheEvictedForServicesNoLongerPolled() throws Exception {
+        expect(m_locMonDao.getAllMostRecentStatusChanges()).andReturn(Collections.singletonList(m_dnsCurrentStatus));
+
+        // the DNS service was deleted
+        expect(m_locMonDao.get(m_locationMonitor.getId())).andReturn(m_locationMonitor);
+        expect(m_locMonDao.findMonitoringLocationDefinition(m_locationDefinition.getName())).andReturn(m_locationDefinition);
+        expect(m_pollerConfig.getPackage(m_locationDefinition.getPollingPackageName())).andReturn(m_package);
+        expect(m_pollerConfig.getServiceSelectorForPackage(m_package)).andReturn(m_serviceSelector);
+        expect(m_pollerConfig.getServiceInPackage("HTTP", m_package)).andReturn(m_httpSvcConfig);
+        expect(m_monSvcDao.findMatchingServices(m_serviceSelector)).andReturn(Collections.singletonList(m_httpService));
+
+        // so its status is read again if it comes back
+        expect(m_locMonDao.get(1)).andReturn(m_locationMonitor);
+        expect(m_monSvcDao.get(2)).andReturn(m_dnsService);
+        expect(m_locMonDao.getMostRecentStatusChange(m_locationMonitor, m_dnsService)).andReturn(m_dnsCurrentStatus);
+
+        m_mocks.replayAll();
+
+        m_backEnd.start();
+        assertEquals(1, m_backEnd.getPollerConfiguration(m_locationMonitor.getId()).getPolledServices().length);
+        m_backEnd.reportResult(1, 2, PollStatus.unavailable("Still Down"));
+    }
+
+    public void testStatusCacheEvictedForDeletedMonitor() throws Exception {
+        expect(m_locMonDao.getAllMostRecentStatusChanges()).andReturn(Collections.singletonList(m_dnsCurrentStatus));
+        expect(m_locMonDao.get(1)).andReturn(null);
+
+        expect(m_locMonDao.get(1)).andReturn(m_locationMonitor);
+        expect(m_monSvcDao.get(2)).andReturn(m_dnsService);
+        expect(m_locMonDao.getMostRecentStatusChange(m_locationMonitor, m_dnsService)).andReturn(m_dnsCurrentStatus);
+
+        m_mocks.replayAll();
+
+        m_backEnd.start();
+        assertEquals(MonitorStatus.DELETED, m_backEnd.pollerCheckingIn(1, m_startTime));
+        m_backEnd.reportResult(1, 2, PollStatus.unavailable("Still Down"));
+    }
+
     public void testTimeOutOnCheckin() {
         final Date now = new Date();
 
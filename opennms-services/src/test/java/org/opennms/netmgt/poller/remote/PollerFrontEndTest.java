@@ -35,6 +35,7 @@ import static org.springframework.util.ObjectUtils.nullSafeEquals;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
@@ -81,6 +82,42 @@ public class PollerFrontEndTest extends TestCase {
 
     }
 
+    public static class ServicePollResultsEquals implements IArgumentMatcher {
+
+        private final int m_serviceId;
+
+        private final PollStatus m_status;
+
+        private final int m_count;
+
+        ServicePollResultsEquals(int serviceId, PollStatus status, int count) {
+            m_serviceId = serviceId;
+            m_status = status;
+            m_count = count;
+        }
+
+        @Override
+        public void appendTo(StringBuffer buffer) {
+            buffer.append(m_count).append(" results of service ").append(m_serviceId).append(": ").append(m_status);
+        }
+
+        @Override
+        public boolean matches(Object argument) {
+            Collection<?> actual = (Collection<?>) argument;
+            if (actual.size() != m_count) {
+                return false;
+            }
+            for (Object o : actual) {
+                ServicePollResult result = (ServicePollResult) o;
+                if (result.getServiceId() != m_serviceId || result.getStatus() != m_status) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
     public static class PropertyChangeEventEquals implements IArgumentMatcher {
 
         private PropertyChangeEvent m_expected;
@@ -248,6 +285,65 @@ public class PollerFrontEndTest extends TestCase {
 
     }
 
+    public void testPollResultsAreBatched() throws Exception {
+
+        setRegistered();
+
+        anticipateAfterPropertiesSet();
+
+        anticipatePollService();
+
+        anticipatePollService();
+
+        anticipateReportResults(2);
+
+        anticipatePollService();
+
+        anticipateReportResults(1);
+
+        m_mock.replayAll();
+
+        m_frontEnd.afterPropertiesSet();
+
+        m_frontEnd.setResultBatchSize(2);
+
+        m_frontEnd.pollService(pollConfig().getFirstId());
+
+        m_frontEnd.pollService(pollConfig().getFirstId());
+
+        m_frontEnd.pollService(pollConfig().getFirstId());
+
+        // the periodic flush reports the rest
+        m_frontEnd.flushResults();
+
+        m_frontEnd.flushResults();
+
+        m_mock.verifyAll();
+    }
+
+    public void testStopReportsPendingResults() throws Exception {
+
+        setRegistered();
+
+        anticipateAfterPropertiesSet();
+
+        anticipatePollService();
+
+        anticipateReportResults(1);
+
+        anticipateStop();
+
+        m_mock.replayAll();
+
+        m_frontEnd.afterPropertiesSet();
+
+        m_frontEnd.pollService(pollConfig().getFirstId());
+
+        m_frontEnd.stop();
+
+        m_mock.verifyAll();
+    }
+
     public void testRegisterNewMonitor() throws Exception {
 
         anticipateAfterPropertiesSet();
@@ -569,10 +665,6 @@ public class PollerFrontEndTest extends TestCase {
         anticipateDoPoll();
 
         anticipateUpdateServicePollState();
-
-        anticipateGetMonitorId();
-
-        anticipateReportResult();
     }
 
     private void anticipatePollServiceSetMonitorLocators() {
@@ -592,8 +684,9 @@ public class PollerFrontEndTest extends TestCase {
         m_settings.setMonitorId(getRegisteredId());
     }
 
-    private void anticipateReportResult() {
-        m_backEnd.reportResult(getRegisteredId(), pollConfig().getFirstId(), m_serviceStatus);
+    private void anticipateReportResults(int count) {
+        anticipateGetMonitorId();
+        m_backEnd.reportResults(EasyMock.eq(getRegisteredId().intValue()), results(pollConfig().getFirstId(), count));
     }
 
 
@@ -626,6 +719,11 @@ public class PollerFrontEndTest extends TestCase {
         return null;
     }
     
+    private Collection<ServicePollResult> results(int serviceId, int count) {
+        EasyMock.reportMatcher(new ServicePollResultsEquals(serviceId, m_serviceStatus, count));
+        return null;
+    }
+
     private ServicePollStateChangedEvent eq(ServicePollStateChangedEvent e) {
         EasyMock.reportMatcher(new PolledServiceChangeEventEquals(e));
         return null;
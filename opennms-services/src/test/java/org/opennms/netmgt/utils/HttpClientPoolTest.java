@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientPoolTest {
+
+    private ServerSocket m_serverSocket;
+    private final AtomicInteger m_accepted = new AtomicInteger();
+    private String m_url;
+
+    /**
+     * A minimal HTTP/1.1 server answering every request on a connection with the same small page.
+     */
+    @Before
+    public void setUp() throws Exception {
+        m_serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        m_url = "http://127.0.0.1:" + m_serverSocket.getLocalPort() + "/";
+        final Thread acceptor = new Thread("HttpClientPoolTest-Server") {
+            @Override
+            public void run() {
+                while (!m_serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = m_serverSocket.accept();
+                        m_accepted.incrementAndGet();
+                        new Thread("HttpClientPoolTest-Connection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (final IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_serverSocket.close();
+    }
+
+    private static void serve(final Socket socket) {
+        try {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            final OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0) {
+                    out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nOK".getBytes("US-ASCII"));
+                    out.flush();
+                }
+            }
+        } catch (final IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static HttpParams getParams() {
+        final HttpParams params = new BasicHttpParams();
+        params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 3000);
+        params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, 3000);
+        return params;
+    }
+
+    private String get(final DefaultHttpClient client) throws Exception {
+        final HttpGet method = new HttpGet(m_url);
+        HttpResponse response = null;
+        try {
+            response = client.execute(method);
+            return EntityUtils.toString(response.getEntity());
+        } finally {
+            HttpClientPool.release(method, response);
+        }
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(10, 2, 30000, true);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("OK", get(pool.createHttpClient(getParams(), 0, false)));
+            }
+            assertEquals(1, m_accepted.get());
+            assertEquals(1, pool.getConnectionsOpened());
+            assertEquals(20, pool.getLeases());
+            assertEquals(0, pool.getLeasedConnections());
+            assertEquals(1, pool.getAvailableConnections());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnconsumedResponseIsReleased() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(10, 1, 30000, true);
+        try {
+            for (int i = 0; i < 5; i++) {
+                final HttpGet method = new HttpGet(m_url);
+                final HttpResponse response = pool.createHttpClient(getParams(), 0, false).execute(method);
+                // a caller that only looks at the status code must not keep the only connection of the route
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                HttpClientPool.release(method, response);
+            }
+            assertEquals(0, pool.getLeasedConnections());
+            assertEquals(0, pool.getLeaseTimeouts());
+            assertEquals(1, m_accepted.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWithoutKeepAlive() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(10, 2, 30000, false);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("OK", get(pool.createHttpClient(getParams(), 0, false)));
+            }
+            assertEquals(5, pool.getConnectionsOpened());
+            assertEquals(0, pool.getAvailableConnections());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsAreClosed() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(10, 2, 100, true);
+        try {
+            assertEquals("OK", get(pool.createHttpClient(getParams(), 0, false)));
+            assertEquals(1, pool.getAvailableConnections());
+            Thread.sleep(300);
+            pool.closeIdleConnections();
+            assertEquals(0, pool.getAvailableConnections());
+            assertEquals(1, pool.getIdleEvictions());
+            assertEquals("OK", get(pool.createHttpClient(getParams(), 0, false)));
+            assertEquals(2, pool.getConnectionsOpened());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrustAllCertificatesKeepsCookies() throws Exception {
+        final HttpClientPool pool = new HttpClientPool(10, 2, 30000, true);
+        try {
+            final DefaultHttpClient client = pool.createHttpClient(getParams(), 0, false);
+            final DefaultHttpClient lenient = pool.trustAllCertificates(client);
+            assertEquals(client.getCookieStore(), lenient.getCookieStore());
+            assertEquals(lenient, pool.trustAllCertificates(lenient));
+            assertEquals("OK", get(lenient));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares a new client per request, as the collector and monitors used to do, with pooled
+     * clients.  Runs only when <code>org.opennms.netmgt.http.benchmarkRequests</code> is set.
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        final int requests = Integer.getInteger("org.opennms.netmgt.http.benchmarkRequests", 0);
+        Assume.assumeTrue(requests > 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            final DefaultHttpClient client = new DefaultHttpClient(getParams());
+            try {
+                get(client);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+        System.err.printf("new client per request: %d requests, %d connections in %d ms%n", requests, m_accepted.get(), (System.nanoTime() - start) / 1000000);
+
+        m_accepted.set(0);
+        final HttpClientPool pool = new HttpClientPool(10, 2, 30000, true);
+        try {
+            start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                get(pool.createHttpClient(getParams(), 0, false));
+            }
+            System.err.printf("pooled clients: %d requests, %d connections in %d ms, %d ms waiting for leases%n", requests, m_accepted.get(), (System.nanoTime() - start) / 1000000, pool.getLeaseWaitTime());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class JdbcConnectionPoolTest {
+
+    /**
+     * A driver handing out fake connections, which become invalid once {@link #m_valid} is false.
+     */
+    public static class MockDriver implements Driver {
+        private final AtomicInteger m_connects = new AtomicInteger();
+        private volatile boolean m_valid = true;
+        private volatile long m_loginTime = 0;
+
+        @Override
+        public Connection connect(final String url, final Properties info) throws SQLException {
+            m_connects.incrementAndGet();
+            if (m_loginTime > 0) {
+                try {
+                    Thread.sleep(m_loginTime);
+                } catch (final InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            }
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+                private boolean m_closed = false;
+
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    if ("close".equals(method.getName())) {
+                        m_closed = true;
+                        return null;
+                    } else if ("isClosed".equals(method.getName())) {
+                        return m_closed;
+                    } else if ("isValid".equals(method.getName())) {
+                        return !m_closed && m_valid;
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public boolean acceptsURL(final String url) {
+            return true;
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private static Properties getProperties() {
+        final Properties props = new Properties();
+        props.setProperty("user", "opennms");
+        props.setProperty("password", "opennms");
+        return props;
+    }
+
+    private static JdbcConnectionPool createPool(final MockDriver driver, final int maxSize, final long idleTimeout, final long validationInterval) {
+        return new JdbcConnectionPool("test", driver, "jdbc:mock://127.0.0.1/test", getProperties(), maxSize, idleTimeout, 1800000, validationInterval);
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final JdbcConnectionPool pool = createPool(driver, 2, 300000, 5000);
+        for (int i = 0; i < 10; i++) {
+            final Connection con = pool.getConnection(1000);
+            assertEquals(1, pool.getActiveConnections());
+            pool.release(con, true);
+        }
+        assertEquals(1, driver.m_connects.get());
+        assertEquals(10, pool.getBorrows());
+        assertEquals(0, pool.getActiveConnections());
+        assertEquals(1, pool.getIdleConnections());
+        pool.close();
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(1, pool.getConnectionsClosed());
+    }
+
+    @Test
+    public void testFailedConnectionIsClosed() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final JdbcConnectionPool pool = createPool(driver, 2, 300000, 5000);
+        final Connection con = pool.getConnection(1000);
+        pool.release(con, false);
+        assertTrue(con.isClosed());
+        assertEquals(0, pool.getIdleConnections());
+        pool.release(pool.getConnection(1000), true);
+        assertEquals(2, driver.m_connects.get());
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        final JdbcConnectionPool pool = createPool(new MockDriver(), 2, 300000, 5000);
+        final Connection con1 = pool.getConnection(1000);
+        final Connection con2 = pool.getConnection(1000);
+        try {
+            pool.getConnection(50);
+            fail("the third connection should have timed out");
+        } catch (final SQLException e) {
+            // expected
+        }
+        assertEquals(1, pool.getBorrowTimeouts());
+        pool.release(con1, true);
+        assertSame(con1, pool.getConnection(50));
+        pool.release(con2, true);
+    }
+
+    @Test
+    public void testInvalidConnectionIsReplaced() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final JdbcConnectionPool pool = createPool(driver, 2, 300000, 0);
+        final Connection con = pool.getConnection(1000);
+        pool.release(con, true);
+        Thread.sleep(5);
+        driver.m_valid = false;
+        final Connection con2 = pool.getConnection(1000);
+        assertNotSame(con, con2);
+        assertTrue(con.isClosed());
+        assertEquals(1, pool.getValidationFailures());
+        assertEquals(2, driver.m_connects.get());
+    }
+
+    @Test
+    public void testIdleConnectionsAreClosed() throws Exception {
+        final JdbcConnectionPool pool = createPool(new MockDriver(), 2, 50, 5000);
+        final Connection con = pool.getConnection(1000);
+        pool.release(con, true);
+        Thread.sleep(100);
+        pool.closeIdleConnections();
+        assertEquals(0, pool.getIdleConnections());
+        assertTrue(con.isClosed());
+    }
+
+    @Test
+    public void testWithoutPooling() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final JdbcConnectionPool pool = createPool(driver, 0, 300000, 5000);
+        for (int i = 0; i < 3; i++) {
+            final Connection con = pool.getConnection(1000);
+            pool.release(con, true);
+            assertTrue(con.isClosed());
+        }
+        assertEquals(3, driver.m_connects.get());
+    }
+
+    @Test
+    public void testPoolsAreSharedUntilTheLastOwnerIsGone() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final JdbcConnectionPool pool = JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/shared", getProperties());
+        assertSame(pool, JdbcConnectionPool.getPool("JdbcCollector:1", driver, "jdbc:mock://127.0.0.1/shared", getProperties()));
+        assertEquals(2, pool.getOwners());
+
+        final Connection con = pool.getConnection(1000);
+        pool.release(con, true);
+
+        JdbcConnectionPool.releaseOwner("JDBCMonitor:1");
+        assertFalse(con.isClosed());
+        JdbcConnectionPool.releaseOwner("JdbcCollector:1");
+        assertTrue(con.isClosed());
+
+        assertNotSame(pool, JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/shared", getProperties()));
+        JdbcConnectionPool.releaseOwner("JDBCMonitor:1");
+    }
+
+    @Test
+    public void testPoolsAreKeyedByCredentialsOnly() throws Exception {
+        final MockDriver driver = new MockDriver();
+        final Properties monitorProps = getProperties();
+        monitorProps.setProperty("timeout", "3");
+        final JdbcConnectionPool pool = JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/keyed", monitorProps);
+        assertSame(pool, JdbcConnectionPool.getPool("JdbcCollector:1", driver, "jdbc:mock://127.0.0.1/keyed", getProperties()));
+
+        final Properties otherUser = getProperties();
+        otherUser.setProperty("user", "admin");
+        final JdbcConnectionPool other = JdbcConnectionPool.getPool("JdbcCollector:2", driver, "jdbc:mock://127.0.0.1/keyed", otherUser);
+        assertNotSame(pool, other);
+
+        JdbcConnectionPool.releaseOwner("JDBCMonitor:1");
+        JdbcConnectionPool.releaseOwner("JdbcCollector:1");
+        JdbcConnectionPool.releaseOwner("JdbcCollector:2");
+    }
+
+    @Test
+    public void testLoginIsBoundedByTheTimeout() throws Exception {
+        final MockDriver driver = new MockDriver();
+        driver.m_loginTime = 500;
+        final JdbcConnectionPool pool = createPool(driver, 2, 300000, 5000);
+        final long start = System.currentTimeMillis();
+        try {
+            pool.getConnection(50);
+            fail("the login should have timed out");
+        } catch (final SQLException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertEquals(0, pool.getActiveConnections());
+
+        // the permit was given back
+        driver.m_loginTime = 0;
+        pool.release(pool.getConnection(50), true);
+        pool.release(pool.getConnection(50), true);
+        pool.close();
+    }
+
+    @Test
+    public void testUnusedPoolsAreClosedWhateverTheirOwners() throws Exception {
+        System.setProperty(JdbcConnectionPool.IDLE_TIMEOUT_PROPERTY, "50");
+        try {
+            final MockDriver driver = new MockDriver();
+            final JdbcConnectionPool pool = JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/unused", getProperties());
+            final Connection con = pool.getConnection(1000);
+            JdbcConnectionPool.closeIdlePools();
+            assertSame(pool, JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/unused", getProperties()));
+
+            pool.release(con, true);
+            Thread.sleep(100);
+            pool.closeIdleConnections();
+            JdbcConnectionPool.closeIdlePools();
+            assertTrue(con.isClosed());
+            assertNotSame(pool, JdbcConnectionPool.getPool("JDBCMonitor:1", driver, "jdbc:mock://127.0.0.1/unused", getProperties()));
+            JdbcConnectionPool.releaseOwner("JDBCMonitor:1");
+        } finally {
+            System.clearProperty(JdbcConnectionPool.IDLE_TIMEOUT_PROPERTY);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.vacuumd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SetBasedStatementTest {
+
+    private static final String TRIGGER = "SELECT alarmid AS _alarmid, now() AS _ts FROM alarms WHERE severity = 2;";
+    private static final List<String> TRIGGER_COLUMNS = Arrays.asList("_alarmid", "_ts");
+
+    @Test
+    public void testUpdate() {
+        assertEquals("UPDATE alarms SET lastautomationtime = vacuumd_trigger._ts FROM (SELECT alarmid AS _alarmid, now() AS _ts FROM alarms WHERE severity = 2) AS vacuumd_trigger WHERE alarmid = vacuumd_trigger._alarmid",
+                     SetBasedStatement.rewrite("UPDATE alarms SET lastautomationtime = ${_ts} WHERE alarmid = ${_alarmid}", TRIGGER, TRIGGER_COLUMNS));
+    }
+
+    @Test
+    public void testMultiLineUpdate() {
+        final String action = "\n        UPDATE alarms\n           SET severity = ${_sev}\n         WHERE alarmid = ${_id}\n      ";
+        assertEquals("UPDATE alarms SET severity = vacuumd_trigger._sev FROM (SELECT a.alarmid AS _id, 5 AS _sev FROM alarms a) AS vacuumd_trigger WHERE alarmid = vacuumd_trigger._id",
+                     SetBasedStatement.rewrite(action, "SELECT a.alarmid AS _id, 5 AS _sev FROM alarms a", Arrays.asList("_id", "_sev")));
+    }
+
+    @Test
+    public void testDelete() {
+        assertEquals("DELETE FROM alarms USING (SELECT alarmid AS _alarmid, now() AS _ts FROM alarms WHERE severity = 2) AS vacuumd_trigger WHERE alarmid = vacuumd_trigger._alarmid",
+                     SetBasedStatement.rewrite("delete from alarms where alarmid = ${_alarmid};", TRIGGER, TRIGGER_COLUMNS));
+    }
+
+    @Test
+    public void testInsert() {
+        assertEquals("INSERT INTO accesspoints (physaddr, nodeid) SELECT vacuumd_trigger._serial, vacuumd_trigger._nodeid FROM (SELECT 'x' AS _serial, 1 AS _nodeid) AS vacuumd_trigger",
+                     SetBasedStatement.rewrite("INSERT INTO accesspoints (physaddr, nodeid) VALUES (${_serial}, ${_nodeid})", "SELECT 'x' AS _serial, 1 AS _nodeid", Arrays.asList("_serial", "_nodeid")));
+    }
+
+    /**
+     * The default clearProblems action joined against the selectResolvers
+     * trigger: the trigger returns every alarms column, so the action's
+     * unqualified columns would be ambiguous once the trigger is joined.
+     */
+    @Test
+    public void testDefaultClearProblemsIsNotRewritten() {
+        final String trigger = "SELECT *, now() AS _ts FROM alarms WHERE alarmType=2";
+        final List<String> columns = new ArrayList<String>(Arrays.asList("alarmId", "eventUei", "reductionKey", "alarmType", "clearKey", "lastEventTime",
+                "severity", "firstAutomationTime", "lastAutomationTime"));
+        columns.add("_ts");
+        final String action = "UPDATE alarms SET severity=2, firstautomationtime = COALESCE(firstautomationtime, ${_ts}), lastautomationtime = ${_ts} "
+                + "WHERE alarmType=1 AND severity > 2 AND lastEventTime <  ${lastEventTime} AND reductionKey = ${clearKey}";
+        assertNull(SetBasedStatement.rewrite(action, trigger, columns));
+
+        // the same action is rewritten once the trigger only returns aliased columns
+        assertEquals("UPDATE alarms SET severity=2, firstautomationtime = COALESCE(firstautomationtime, vacuumd_trigger._ts), lastautomationtime = vacuumd_trigger._ts "
+                + "FROM (SELECT lastEventTime AS _lastEventTime, clearKey AS _clearKey, now() AS _ts FROM alarms WHERE alarmType=2) AS vacuumd_trigger "
+                + "WHERE alarmType=1 AND severity > 2 AND lastEventTime <  vacuumd_trigger._lastEventTime AND reductionKey = vacuumd_trigger._clearKey",
+                SetBasedStatement.rewrite(action.replace("${lastEventTime}", "${_lastEventTime}").replace("${clearKey}", "${_clearKey}"),
+                        "SELECT lastEventTime AS _lastEventTime, clearKey AS _clearKey, now() AS _ts FROM alarms WHERE alarmType=2",
+                        Arrays.asList("_lastEventTime", "_clearKey", "_ts")));
+    }
+
+    @Test
+    public void testColumnInStringLiteralIsIgnored() {
+        assertEquals("DELETE FROM alarms USING (SELECT alarmid AS _alarmid, now() AS _ts FROM alarms WHERE severity = 2) AS vacuumd_trigger WHERE alarmid = vacuumd_trigger._alarmid AND description <> '_ts'",
+                     SetBasedStatement.rewrite("DELETE FROM alarms WHERE alarmid = ${_alarmid} AND description <> '_ts'", TRIGGER, TRIGGER_COLUMNS));
+    }
+
+    @Test
+    public void testNotRewritten() {
+        // no tokens
+        assertNull(SetBasedStatement.rewrite("UPDATE alarms SET severity = 2", TRIGGER, TRIGGER_COLUMNS));
+        // tokens only in the SET clause
+        assertNull(SetBasedStatement.rewrite("UPDATE alarms SET lastautomationtime = ${_ts} WHERE severity = 2", TRIGGER, TRIGGER_COLUMNS));
+        // sub-select
+        assertNull(SetBasedStatement.rewrite("UPDATE alarms SET severity = 2 WHERE alarmid IN (SELECT alarmid FROM events WHERE eventid = ${_id})", TRIGGER, TRIGGER_COLUMNS));
+        // existing FROM clause
+        assertNull(SetBasedStatement.rewrite("UPDATE alarms SET severity = e.eventseverity FROM events e WHERE e.eventid = ${_id}", TRIGGER, TRIGGER_COLUMNS));
+        // multi-row VALUES
+        assertNull(SetBasedStatement.rewrite("INSERT INTO foo (a) VALUES (${_a}), (${_b})", TRIGGER, TRIGGER_COLUMNS));
+        // not DML
+        assertNull(SetBasedStatement.rewrite("SELECT ${_a}", TRIGGER, TRIGGER_COLUMNS));
+        assertNull(SetBasedStatement.rewrite("UPDATE alarms SET severity = 2 WHERE alarmid = ${_alarmid}", null, TRIGGER_COLUMNS));
+    }
+}
@@ -29,6 +29,8 @@
 package org.opennms.core.utils;
 
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,35 +38,106 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.TreeMap;
-import java.util.concurrent.locks.Lock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.ObjectName;
+
 /**
  * Caches properties files in order to improve performance.
  *
+ * <p>The cache is split into {@value #STRIPES} independently locked stripes,
+ * each holding at most its share of {@link #MAX_CACHED_FILES_STRING} files;
+ * the least recently used clean file is dropped when a stripe is full.</p>
+ *
+ * <p>When {@link #FLUSH_INTERVAL_STRING} is greater than zero, changes are
+ * written behind: a changed file is only marked dirty, and a background thread
+ * writes every dirty file once per flush interval, so any number of changes to
+ * the same file within the interval cost a single write.  Once
+ * {@link #MAX_DIRTY_FILES_STRING} files are dirty, further changes are written
+ * by the calling thread.  Files are always written to a temporary file that is
+ * then renamed over the original, so readers never see a partial file.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
-public class PropertiesCache {
+public class PropertiesCache implements PropertiesCacheMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(PropertiesCache.class);
 
     public static final String CHECK_LAST_MODIFY_STRING = "org.opennms.utils.propertiesCache.enableCheckFileModified";
 
-    private static class PropertiesHolder {
+    /** Milliseconds between write-behind flushes, 0 to write every change immediately. */
+    public static final String FLUSH_INTERVAL_STRING = "org.opennms.utils.propertiesCache.flushInterval";
+
+    /** The number of dirty files after which changes are written by the caller. */
+    public static final String MAX_DIRTY_FILES_STRING = "org.opennms.utils.propertiesCache.maxDirtyFiles";
+
+    /** The number of files kept in memory, 0 for no limit. */
+    public static final String MAX_CACHED_FILES_STRING = "org.opennms.utils.propertiesCache.maxCachedFiles";
+
+    private static final int STRIPES = 16;
+
+    private class PropertiesHolder {
         private Properties m_properties;
         private final File m_file;
-        private final Lock lock = new ReentrantLock();
+        private final ReentrantLock lock = new ReentrantLock();
         private long m_lastModify = 0;
         private boolean m_checkLastModify = Boolean.getBoolean(CHECK_LAST_MODIFY_STRING);
+        private boolean m_dirty = false;
+        private boolean m_evicted = false;
 
         PropertiesHolder(File file) {
             m_file = file;
             m_properties = null;
         }
-        
+
+        /**
+         * Locks this holder, returning false if it was dropped from the cache
+         * in the meantime and a fresh holder must be used instead.
+         */
+        boolean lock() {
+            lock.lock();
+            if (m_evicted) {
+                lock.unlock();
+                return false;
+            }
+            return true;
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+
+        /**
+         * Called with the stripe locked; only clean, idle holders are dropped.
+         */
+        boolean evict() {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                if (m_dirty) {
+                    return false;
+                }
+                m_evicted = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
         private Properties read() throws IOException {
             if (!m_file.canRead()) {
                 return null;
@@ -83,32 +156,75 @@ public class PropertiesCache {
                 IOUtils.closeQuietly(in);
             }
         }
-        
+
         private void write() throws IOException {
-            m_file.getParentFile().mkdirs();
+            if (m_flushInterval <= 0) {
+                writeFile();
+                return;
+            }
+            if (m_dirty) {
+                m_coalescedUpdates.incrementAndGet();
+                return;
+            }
+            if (m_dirtyFiles.get() >= m_maxDirtyFiles) {
+                // too much is pending already, so don't hold on to this one too
+                writeFile();
+                return;
+            }
+            m_dirty = true;
+            m_dirtyFiles.incrementAndGet();
+            m_dirtyQueue.add(this);
+        }
+
+        /**
+         * Writes the file if it is dirty.  Called by the flush thread.
+         */
+        void flush() throws IOException {
+            if (!m_dirty) {
+                return;
+            }
+            writeFile();
+            m_dirty = false;
+            m_dirtyFiles.decrementAndGet();
+        }
+
+        private void writeFile() throws IOException {
+            final File dir = m_file.getParentFile();
+            dir.mkdirs();
+            final File tmp = new File(dir, "." + m_file.getName() + ".tmp");
             OutputStream out = null;
             try {
-                out = new FileOutputStream(m_file);
+                out = new FileOutputStream(tmp);
                 m_properties.store(out, null);
             } finally {
                 IOUtils.closeQuietly(out);
             }
+            final long length = tmp.length();
+            if (!tmp.renameTo(m_file)) {
+                // renaming over an existing file fails on some platforms
+                m_file.delete();
+                if (!tmp.renameTo(m_file)) {
+                    tmp.delete();
+                    throw new IOException("Unable to rename " + tmp + " to " + m_file);
+                }
+            }
+            if (m_checkLastModify) {
+                m_lastModify = m_file.lastModified();
+            }
+            m_writtenFiles.incrementAndGet();
+            m_writtenBytes.addAndGet(length);
         }
 
         public Properties get() throws IOException {
-            lock.lock();
-            try {
-                if (m_properties == null) {
-                    readWithDefault(new Properties());
-                } else {
-                    if (m_checkLastModify && m_file.canRead() && m_lastModify != m_file.lastModified()) {
-                        m_properties = read();
-                    }
+            if (m_properties == null) {
+                readWithDefault(new Properties());
+            } else {
+                // pending changes win over changes made by someone else in the meantime
+                if (m_checkLastModify && !m_dirty && m_file.canRead() && m_lastModify != m_file.lastModified()) {
+                    m_properties = read();
                 }
-                return m_properties;
-            } finally {
-                lock.unlock();
             }
+            return m_properties;
         }
 
         private void readWithDefault(Properties deflt) throws IOException {
@@ -128,93 +244,227 @@ public class PropertiesCache {
         }
         
         public void put(Properties properties) throws IOException {
-            lock.lock();
-            try {
-                m_properties = properties;
-                write();
-            } finally {
-                lock.unlock();
-            }
+            m_properties = properties;
+            write();
         }
 
         public void update(Map<String, String> props) throws IOException {
             if (props == null) return;
-            lock.lock();
-            try {
-                boolean save = false;
-                for(Entry<String, String> e : props.entrySet()) {
-                    if (!e.getValue().equals(get().get(e.getKey()))) {
-                        get().put(e.getKey(), e.getValue());
-                        save = true;
-                    }
+            boolean save = false;
+            for(Entry<String, String> e : props.entrySet()) {
+                if (!e.getValue().equals(get().get(e.getKey()))) {
+                    get().put(e.getKey(), e.getValue());
+                    save = true;
                 }
-                if (save) {
-                    write();
-                }
-            } finally {
-                lock.unlock();
+            }
+            if (save) {
+                write();
             }
         }
         
         public void setProperty(String key, String value) throws IOException {
-            lock.lock();
-            try {
-                // first we do get to make sure the properties are loaded
-                get();
-                if (!value.equals(get().get(key))) {
-                    get().put(key, value);
-                    write();
-                }
-            } finally {
-                lock.unlock();
+            // first we do get to make sure the properties are loaded
+            get();
+            if (!value.equals(get().get(key))) {
+                get().put(key, value);
+                write();
             }
         }
 
         public Properties find() throws IOException {
-            lock.lock();
-            try {
-                if (m_properties == null) {
-                    readWithDefault(null);
-                }
-                return m_properties;
-            } finally {
-                lock.unlock();
+            if (m_properties == null) {
+                readWithDefault(null);
             }
+            return m_properties;
         }
 
         public String getProperty(String key) throws IOException {
-            lock.lock();
-            try {
-                return get().getProperty(key);
-            } finally {
-                lock.unlock();
+            return get().getProperty(key);
+        }
+
+    }
+
+    /**
+     * An access-ordered map that drops its least recently used clean holder
+     * once it grows past its share of the maximum number of cached files.
+     */
+    private class Stripe extends LinkedHashMap<String, PropertiesHolder> {
+        private static final long serialVersionUID = 1L;
+
+        Stripe() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PropertiesHolder> eldest) {
+            if (m_maxFilesPerStripe > 0 && size() > m_maxFilesPerStripe && eldest.getValue().evict()) {
+                m_evictedFiles.incrementAndGet();
+                return true;
             }
-            
+            return false;
         }
+    }
+
+    private final Stripe[] m_stripes = new Stripe[STRIPES];
+    private final long m_flushInterval;
+    private final int m_maxDirtyFiles;
+    private final int m_maxCachedFiles;
+    private final int m_maxFilesPerStripe;
+    private final Queue<PropertiesHolder> m_dirtyQueue = new ConcurrentLinkedQueue<PropertiesHolder>();
+    private final ReentrantLock m_flushLock = new ReentrantLock();
 
+    private final AtomicInteger m_dirtyFiles = new AtomicInteger();
+    private final AtomicLong m_coalescedUpdates = new AtomicLong();
+    private final AtomicLong m_writtenFiles = new AtomicLong();
+    private final AtomicLong m_writtenBytes = new AtomicLong();
+    private final AtomicLong m_flushes = new AtomicLong();
+    private final AtomicLong m_flushErrors = new AtomicLong();
+    private final AtomicLong m_evictedFiles = new AtomicLong();
+
+    /**
+     * Creates a cache configured from the {@link #FLUSH_INTERVAL_STRING},
+     * {@link #MAX_DIRTY_FILES_STRING} and {@link #MAX_CACHED_FILES_STRING}
+     * system properties.
+     */
+    public PropertiesCache() {
+        this(Long.getLong(FLUSH_INTERVAL_STRING, 0), Integer.getInteger(MAX_DIRTY_FILES_STRING, 10000), Integer.getInteger(MAX_CACHED_FILES_STRING, 100000));
     }
-    
-    
-    private Map<String, PropertiesHolder> m_cache = new TreeMap<String, PropertiesHolder>();
-    
+
+    /**
+     * Creates a cache configured from system properties and registers it as
+     * the MBean <code>OpenNMS:Name=PropertiesCache,Cache=<i>name</i></code>.
+     *
+     * @param name a {@link java.lang.String} object.
+     */
+    public PropertiesCache(final String name) {
+        this();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("OpenNMS:Name=PropertiesCache,Cache=" + name));
+        } catch (final Exception e) {
+            LOG.debug("Unable to register the {} properties cache MBean: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * <p>Constructor for PropertiesCache.</p>
+     *
+     * @param flushInterval milliseconds between write-behind flushes, 0 to write changes immediately
+     * @param maxDirtyFiles the number of dirty files after which changes are written immediately
+     * @param maxCachedFiles the number of files kept in memory, 0 for no limit
+     */
+    public PropertiesCache(final long flushInterval, final int maxDirtyFiles, final int maxCachedFiles) {
+        m_flushInterval = flushInterval;
+        m_maxDirtyFiles = Math.max(1, maxDirtyFiles);
+        m_maxCachedFiles = Math.max(0, maxCachedFiles);
+        m_maxFilesPerStripe = (m_maxCachedFiles + STRIPES - 1) / STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            m_stripes[i] = new Stripe();
+        }
+        if (m_flushInterval > 0) {
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "PropertiesCache-Flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread("PropertiesCache-Shutdown") {
+                @Override
+                public void run() {
+                    executor.shutdown();
+                    flush();
+                }
+            });
+        }
+    }
+
+    private Stripe getStripe(final String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return m_stripes[(h & 0x7fffffff) % STRIPES];
+    }
+
     private PropertiesHolder getHolder(File propFile) throws IOException {
         String key = propFile.getCanonicalPath();
-        synchronized (m_cache) {
-            PropertiesHolder holder = m_cache.get(key);
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            PropertiesHolder holder = stripe.get(key);
             if (holder == null) {
                 holder = new PropertiesHolder(propFile);
-                m_cache.put(key, holder);
+                stripe.put(key, holder);
             }
             return holder;
         }
     }
+
+    /**
+     * Returns the holder for the file, locked by the current thread.
+     */
+    private PropertiesHolder lockHolder(File propFile) throws IOException {
+        while (true) {
+            final PropertiesHolder holder = getHolder(propFile);
+            if (holder.lock()) {
+                return holder;
+            }
+        }
+    }
     
     /**
      * <p>clear</p>
      */
     public void clear() {
-        synchronized (m_cache) {
-            m_cache.clear();
+        for (final Stripe stripe : m_stripes) {
+            synchronized (stripe) {
+                for (final PropertiesHolder holder : stripe.values()) {
+                    holder.lock.lock();
+                    try {
+                        holder.flush();
+                    } catch (final IOException e) {
+                        m_flushErrors.incrementAndGet();
+                        LOG.warn("Unable to write properties file {}: {}", holder.m_file, e.getMessage());
+                    } finally {
+                        holder.m_evicted = true;
+                        holder.lock.unlock();
+                    }
+                }
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes every dirty file now.  Files that cannot be written stay dirty
+     * and are retried on the next flush.
+     */
+    public void flush() {
+        m_flushLock.lock();
+        try {
+            m_flushes.incrementAndGet();
+            for (int i = m_dirtyQueue.size(); i > 0; i--) {
+                final PropertiesHolder holder = m_dirtyQueue.poll();
+                if (holder == null) {
+                    break;
+                }
+                holder.lock.lock();
+                try {
+                    holder.flush();
+                } catch (final IOException e) {
+                    m_flushErrors.incrementAndGet();
+                    LOG.warn("Unable to write properties file {}, will retry: {}", holder.m_file, e.getMessage());
+                    m_dirtyQueue.add(holder);
+                } finally {
+                    holder.lock.unlock();
+                }
+            }
+        } finally {
+            m_flushLock.unlock();
         }
     }
 
@@ -226,7 +476,12 @@ public class PropertiesCache {
      * @return a {@link java.util.Properties} object.
      */
     public Properties getProperties(File propFile) throws IOException {
-        return getHolder(propFile).get();
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            return holder.get();
+        } finally {
+            holder.unlock();
+        }
     }
     
     /**
@@ -237,7 +492,12 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public Properties findProperties(File propFile) throws IOException {
-        return getHolder(propFile).find();
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            return holder.find();
+        } finally {
+            holder.unlock();
+        }
     }
     /**
      * <p>saveProperties</p>
@@ -247,7 +507,12 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void saveProperties(final File propFile, final Properties properties) throws IOException {
-        getHolder(propFile).put(properties);
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            holder.put(properties);
+        } finally {
+            holder.unlock();
+        }
     }
 
     public void saveProperties(final File propFile, final Map<String, String> attributeMappings) throws IOException {
@@ -265,7 +530,12 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void updateProperties(File propFile, Map<String, String> props) throws IOException {
-        getHolder(propFile).update(props);
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            holder.update(props);
+        } finally {
+            holder.unlock();
+        }
     }
     
     /**
@@ -277,7 +547,12 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void setProperty(File propFile, String key, String value) throws IOException {
-        getHolder(propFile).setProperty(key, value);
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            holder.setProperty(key, value);
+        } finally {
+            holder.unlock();
+        }
     }
     
     /**
@@ -289,7 +564,84 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public String getProperty(File propFile, String key) throws IOException {
-        return getHolder(propFile).getProperty(key);
+        final PropertiesHolder holder = lockHolder(propFile);
+        try {
+            return holder.getProperty(key);
+        } finally {
+            holder.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getCachedFiles() {
+        int size = 0;
+        for (final Stripe stripe : m_stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getMaxCachedFiles() {
+        return m_maxCachedFiles;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEvictedFiles() {
+        return m_evictedFiles.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getDirtyFiles() {
+        return m_dirtyFiles.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getMaxDirtyFiles() {
+        return m_maxDirtyFiles;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFlushes() {
+        return m_flushes.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFlushErrors() {
+        return m_flushErrors.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCoalescedUpdates() {
+        return m_coalescedUpdates.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getWrittenFiles() {
+        return m_writtenFiles.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getWrittenBytes() {
+        return m_writtenBytes.get();
     }
 
 }
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.utils;
+
+/**
+ * Statistics of a {@link PropertiesCache}.
+ */
+public interface PropertiesCacheMBean {
+
+    /**
+     * @return the number of properties files held in memory
+     */
+    int getCachedFiles();
+
+    /**
+     * @return the maximum number of properties files held in memory, 0 for no limit
+     */
+    int getMaxCachedFiles();
+
+    /**
+     * @return the number of clean files dropped from memory to make room
+     */
+    long getEvictedFiles();
+
+    /**
+     * @return the number of files with changes that have not been written yet
+     */
+    int getDirtyFiles();
+
+    /**
+     * @return the number of dirty files after which changes are written immediately
+     */
+    int getMaxDirtyFiles();
+
+    /**
+     * @return the milliseconds between write-behind flushes, 0 if changes are written immediately
+     */
+    long getFlushInterval();
+
+    /**
+     * @return the number of write-behind flushes so far
+     */
+    long getFlushes();
+
+    /**
+     * @return the number of files that could not be written by a flush
+     */
+    long getFlushErrors();
+
+    /**
+     * @return the number of changes that were merged into an already pending write
+     */
+    long getCoalescedUpdates();
+
+    /**
+     * @return the number of properties files written
+     */
+    long getWrittenFiles();
+
+    /**
+     * @return the number of bytes written to properties files
+     */
+    long getWrittenBytes();
+}
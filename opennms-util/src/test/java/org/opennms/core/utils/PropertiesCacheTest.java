@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropertiesCacheTest {
+    private File m_dir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("propertiescache-", "");
+        m_dir.delete();
+        m_dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(m_dir);
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(0, 10, 0);
+        final File file = new File(m_dir, "node/strings.properties");
+        cache.setProperty(file, "sysName", "foo");
+        cache.setProperty(file, "sysName", "foo");
+
+        assertEquals("foo", load(file).getProperty("sysName"));
+        assertEquals(1, cache.getWrittenFiles());
+        assertEquals(0, cache.getDirtyFiles());
+        assertFalse("the temporary file should have been renamed", new File(file.getParentFile(), ".strings.properties.tmp").exists());
+    }
+
+    @Test
+    public void testWriteBehindCoalescesChanges() throws Exception {
+        // a long interval, so that only the explicit flush writes
+        final PropertiesCache cache = new PropertiesCache(3600000, 10, 0);
+        final File file = new File(m_dir, "strings.properties");
+        for (int i = 0; i < 10; i++) {
+            cache.setProperty(file, "counter", Integer.toString(i));
+        }
+
+        assertFalse(file.exists());
+        assertEquals("9", cache.getProperty(file, "counter"));
+        assertEquals(1, cache.getDirtyFiles());
+        assertEquals(9, cache.getCoalescedUpdates());
+
+        cache.flush();
+        assertEquals("9", load(file).getProperty("counter"));
+        assertEquals(1, cache.getWrittenFiles());
+        assertEquals(file.length(), cache.getWrittenBytes());
+        assertEquals(0, cache.getDirtyFiles());
+    }
+
+    @Test
+    public void testDirtyFilesAreCapped() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(3600000, 2, 0);
+        for (int i = 0; i < 5; i++) {
+            cache.setProperty(new File(m_dir, i + ".properties"), "key", "value");
+        }
+
+        assertEquals(2, cache.getDirtyFiles());
+        assertEquals(3, cache.getWrittenFiles());
+        assertFalse(new File(m_dir, "0.properties").exists());
+        assertTrue(new File(m_dir, "4.properties").exists());
+    }
+
+    @Test
+    public void testCachedFilesAreBounded() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(0, 10, 16);
+        for (int i = 0; i < 200; i++) {
+            cache.setProperty(new File(m_dir, i + ".properties"), "key", Integer.toString(i));
+        }
+
+        assertTrue("expected at most 16 cached files but there were " + cache.getCachedFiles(), cache.getCachedFiles() <= 16);
+        assertEquals(200 - cache.getCachedFiles(), cache.getEvictedFiles());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Integer.toString(i), cache.getProperty(new File(m_dir, i + ".properties"), "key"));
+        }
+    }
+
+    @Test
+    public void testClearWritesDirtyFiles() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(3600000, 10, 0);
+        final File file = new File(m_dir, "ds.properties");
+        cache.setProperty(file, "ifInOctets", "ifInOctets");
+        cache.clear();
+
+        assertEquals("ifInOctets", load(file).getProperty("ifInOctets"));
+        assertEquals(0, cache.getCachedFiles());
+    }
+
+    private static Properties load(final File file) throws Exception {
+        final Properties properties = new Properties();
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+}
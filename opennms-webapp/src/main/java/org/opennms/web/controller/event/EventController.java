@@ -36,6 +36,7 @@ import org.opennms.web.event.*;
 import org.opennms.web.event.filter.EventCriteria;
 import org.opennms.web.event.filter.EventIdFilter;
 import org.opennms.web.event.filter.EventIdListFilter;
+import org.opennms.web.event.filter.EventQueryPlanner;
 import org.opennms.web.filter.Filter;
 import org.opennms.web.filter.FilterUtil;
 import org.opennms.web.filter.NormalizedQueryParameters;
@@ -86,6 +87,10 @@ public class EventController extends MultiActionController implements Initializi
 
     private static final SortStyle DEFAULT_SORT_STYLE = SortStyle.ID;
 
+    private static final int DEFAULT_COUNT_LIMIT = 10000;
+
+    private static final int DEFAULT_UNINDEXED_SEARCH_DAYS = 7;
+
     private FilterCallback m_callback;
 
 	@Autowired
@@ -96,9 +101,18 @@ public class EventController extends MultiActionController implements Initializi
 
     private boolean m_showEventCount = false;
 
+    private int m_countLimit = DEFAULT_COUNT_LIMIT;
+
+    private EventQueryPlanner m_queryPlanner;
+
     public EventController() {
         super();
         m_showEventCount = Boolean.getBoolean("opennms.eventlist.showCount");
+        m_countLimit = Integer.getInteger("opennms.eventlist.countLimit", DEFAULT_COUNT_LIMIT);
+        m_queryPlanner = new EventQueryPlanner(
+            EventQueryPlanner.Policy.getPolicy(System.getProperty("opennms.eventlist.unindexedSearch"), EventQueryPlanner.Policy.ALLOW),
+            Integer.getInteger("opennms.eventlist.unindexedSearchDays", DEFAULT_UNINDEXED_SEARCH_DAYS)
+        );
     }
 
     @Override
@@ -254,10 +268,17 @@ public class EventController extends MultiActionController implements Initializi
             }
         }
 
-        Filter[] filters = filterArray.toArray(new Filter[filterArray.size()]);
+        // act on the events the list showed, so apply the same plan to the filters
+        final EventQueryPlanner.Plan plan = m_queryPlanner.plan(filterArray);
+        if (plan.isDeclined()) {
+            LOG.debug("not acknowledging events matching {}: the search was declined", filterArray);
+            return getRedirectView(request);
+        }
+        Filter[] filters = plan.getFilters().toArray(new Filter[0]);
 
         EventCriteria criteria = new EventCriteria(filters);
 
+        LOG.debug("criteria = {}, action = {}", criteria, action);
         if (action.equals(AcknowledgeType.ACKNOWLEDGED.getShortName())) {
             m_webEventRepository.acknowledgeMatchingEvents(request.getRemoteUser(), new Date(), criteria);
         } else if (action.equals(AcknowledgeType.UNACKNOWLEDGED.getShortName())) {
@@ -313,6 +334,17 @@ public class EventController extends MultiActionController implements Initializi
         }
         return multiple;
     }
+
+    private int getSeekId(HttpServletRequest request, String name) {
+        final String idString = request.getParameter(name);
+        if (idString != null) {
+            try {
+                return WebSecurityUtils.safeParseInt(idString);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return -1;
+    }
     
     private SortStyle getSortStyle(HttpServletRequest request) {
     	final String sortStyleString = request.getParameter("sortby");
@@ -346,6 +378,8 @@ public class EventController extends MultiActionController implements Initializi
         parms.filters = filterList;
         parms.limit = getLimit(request);
         parms.multiple =  getMultiple(request);
+        parms.afterId = getSeekId(request, "after");
+        parms.beforeId = getSeekId(request, "before");
         parms.sortStyle = getSortStyle(request);	
         return parms;
     }
@@ -358,21 +392,44 @@ public class EventController extends MultiActionController implements Initializi
 
     private ModelAndView createListModelAndView(HttpServletRequest request, List<Filter> filterList, AcknowledgeType ackType) {
     	final EventQueryParms parms = createEventQueryParms(request, filterList, ackType);
-        final EventCriteria queryCriteria = new EventCriteria(parms);
-        final Event[] events = m_webEventRepository.getMatchingEvents(queryCriteria);
+        final EventQueryPlanner.Plan plan = m_queryPlanner.plan(filterList);
+        LOG.debug("query plan for {}: declined = {}, filters = {}", filterList, plan.isDeclined(), plan.getFilters());
+
+        final Event[] events;
+        if (plan.isDeclined()) {
+            events = new Event[0];
+        } else {
+            final EventCriteria queryCriteria = new EventCriteria(plan.getFilters(), parms.sortStyle, parms.ackType, parms.limit, parms.limit * parms.multiple);
+            queryCriteria.setSeekAnchor(parms.afterId, parms.beforeId);
+            events = m_webEventRepository.getMatchingEvents(queryCriteria);
+        }
         
         final ModelAndView modelAndView = new ModelAndView();
         modelAndView.addObject("events", events);
         modelAndView.addObject("parms", new NormalizedQueryParameters(parms));
         modelAndView.addObject("callback", getFilterCallback());
         modelAndView.addObject("favorites", favoriteService.getFavorites(request.getRemoteUser(), OnmsFilterFavorite.Page.EVENT).toArray());
-
-        if (m_showEventCount) {
-            EventCriteria countCriteria = new EventCriteria(filterList, ackType);
-            modelAndView.addObject("eventCount", m_webEventRepository.countMatchingEvents(countCriteria));
+        modelAndView.addObject("eventQueryNote", plan.getNote());
+
+        boolean estimated = false;
+        if (m_showEventCount && !plan.isDeclined()) {
+            EventCriteria countCriteria = new EventCriteria(plan.getFilters(), ackType);
+            int eventCount;
+            if (m_countLimit > 0) {
+                // an exact count of a large result set scans every matching row
+                eventCount = m_webEventRepository.countMatchingEvents(countCriteria, m_countLimit);
+                if (eventCount > m_countLimit) {
+                    eventCount = m_countLimit;
+                    estimated = true;
+                }
+            } else {
+                eventCount = m_webEventRepository.countMatchingEvents(countCriteria);
+            }
+            modelAndView.addObject("eventCount", eventCount);
         } else {
             modelAndView.addObject("eventCount", Integer.valueOf(-1));
         }
+        modelAndView.addObject("eventCountEstimated", Boolean.valueOf(estimated));
         return modelAndView;
 	}
 
@@ -29,11 +29,13 @@
 package org.opennms.web.event;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.core.utils.InetAddressUtils;
@@ -75,6 +77,15 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
     }
 
     private OnmsCriteria getOnmsCriteria(final EventCriteria eventCriteria){
+        return getOnmsCriteria(eventCriteria, null);
+    }
+
+    /**
+     * Builds the criteria for a query. If <code>anchor</code> is set the page
+     * is read by seeking past the anchor on the sort key instead of skipping
+     * <code>offset</code> rows, which keeps deep pages as cheap as the first.
+     */
+    private OnmsCriteria getOnmsCriteria(final EventCriteria eventCriteria, final OnmsEvent anchor){
         final OnmsCriteria criteria = new OnmsCriteria(OnmsEvent.class);
         criteria.createAlias("alarm", "alarm", OnmsCriteria.LEFT_JOIN);
         criteria.createAlias("node", "node", OnmsCriteria.LEFT_JOIN);
@@ -101,12 +112,17 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
             @Override
             public void visitLimit(int limit, int offset) throws RuntimeException {
                 criteria.setMaxResults(limit);
-                criteria.setFirstResult(offset);
-                
+                if (anchor == null) {
+                    criteria.setFirstResult(offset);
+                }
             }
 
             @Override
             public void visitSortStyle(SortStyle sortStyle) throws RuntimeException {
+                if (anchor != null) {
+                    addSeek(criteria, sortStyle, anchor, eventCriteria.getSeekBeforeId() > 0);
+                    return;
+                }
                 switch(sortStyle){
                 case ID:
                     criteria.addOrder(Order.desc("id"));
@@ -128,6 +144,7 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
                     break;
                 case TIME:
                     criteria.addOrder(Order.desc("eventTime"));
+                    criteria.addOrder(Order.desc("id"));
                     break;
                 case REVERSE_ID:
                     criteria.addOrder(Order.asc("id"));
@@ -149,6 +166,7 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
                     break;
                 case REVERSE_TIME:
                     criteria.addOrder(Order.asc("eventTime"));
+                    criteria.addOrder(Order.asc("id"));
                     break;
                 
                 }
@@ -158,6 +176,54 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
         
         return criteria;
     }
+
+    private static boolean isSeekable(final SortStyle sortStyle) {
+        return sortStyle == SortStyle.ID || sortStyle == SortStyle.REVERSE_ID
+            || sortStyle == SortStyle.TIME || sortStyle == SortStyle.REVERSE_TIME;
+    }
+
+    /**
+     * Restricts the query to the rows after the anchor in sort order (or just
+     * before it, read in the opposite order, when paging backwards). Time
+     * sorts are tie-broken on the id so that the seek key is unique.
+     */
+    private static void addSeek(final OnmsCriteria criteria, final SortStyle sortStyle, final OnmsEvent anchor, final boolean backward) {
+        final boolean descending = sortStyle == SortStyle.ID || sortStyle == SortStyle.TIME;
+        final boolean ascending = descending == backward;
+        final Integer id = anchor.getId();
+
+        if (sortStyle == SortStyle.TIME || sortStyle == SortStyle.REVERSE_TIME) {
+            final Date time = anchor.getEventTime();
+            // the plain range on eventTime is what lets the time index bound the scan
+            if (ascending) {
+                criteria.add(Restrictions.ge("eventTime", time));
+                criteria.add(Restrictions.or(Restrictions.gt("eventTime", time), Restrictions.gt("id", id)));
+            } else {
+                criteria.add(Restrictions.le("eventTime", time));
+                criteria.add(Restrictions.or(Restrictions.lt("eventTime", time), Restrictions.lt("id", id)));
+            }
+            criteria.addOrder(ascending ? Order.asc("eventTime") : Order.desc("eventTime"));
+        } else {
+            criteria.add(ascending ? Restrictions.gt("id", id) : Restrictions.lt("id", id));
+        }
+        criteria.addOrder(ascending ? Order.asc("id") : Order.desc("id"));
+    }
+
+    /**
+     * Returns the event to seek from, or null if the page has to be read
+     * with an offset.
+     */
+    private OnmsEvent getSeekAnchor(final EventCriteria criteria) {
+        final int anchorId = criteria.getSeekAfterId() > 0 ? criteria.getSeekAfterId() : criteria.getSeekBeforeId();
+        if (anchorId <= 0 || criteria.getLimit() <= 0 || !isSeekable(criteria.getSortStyle())) {
+            return null;
+        }
+        final OnmsEvent anchor = m_eventDao.get(anchorId);
+        if (anchor == null) {
+            LOG.debug("Seek anchor event {} no longer exists, falling back to the offset", anchorId);
+        }
+        return anchor;
+    }
     
     private Event mapOnmsEventToEvent(OnmsEvent onmsEvent){
         LOG.debug("Mapping OnmsEvent to WebEvent for event with database id {}", onmsEvent.getId());
@@ -249,6 +315,18 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
     public int countMatchingEvents(EventCriteria criteria) {
         return m_eventDao.countMatching(getOnmsCriteria(criteria));
     }
+
+    /** {@inheritDoc} */
+    @Transactional
+    @Override
+    public int countMatchingEvents(EventCriteria criteria, int max) {
+        // fetch at most max + 1 ids instead of counting every matching row
+        final OnmsCriteria onmsCriteria = getOnmsCriteria(criteria);
+        onmsCriteria.setProjection(Projections.id());
+        onmsCriteria.setFirstResult(0);
+        onmsCriteria.setMaxResults(max + 1);
+        return m_eventDao.findMatching(onmsCriteria).size();
+    }
     
     /** {@inheritDoc} */
     @Transactional
@@ -280,7 +358,12 @@ public class DaoWebEventRepository implements WebEventRepository, InitializingBe
     public Event[] getMatchingEvents(EventCriteria criteria) {
         List<Event> events = new ArrayList<Event>();
         LOG.debug("getMatchingEvents: try to get events for Criteria: {}", criteria.toString());
-        List<OnmsEvent> onmsEvents = m_eventDao.findMatching(getOnmsCriteria(criteria));
+        final OnmsEvent anchor = getSeekAnchor(criteria);
+        List<OnmsEvent> onmsEvents = m_eventDao.findMatching(getOnmsCriteria(criteria, anchor));
+        if (anchor != null && criteria.getSeekBeforeId() > 0) {
+            // paging backwards reads the page in reverse
+            Collections.reverse(onmsEvents);
+        }
 
         LOG.debug("getMatchingEvents: found {} events", onmsEvents.size());
 
@@ -57,6 +57,12 @@ public class EventQueryParms extends Object implements QueryParameters {
 
     public int multiple;
 
+    /** The id of the last event on the previous page, or -1 */
+    public int afterId = -1;
+
+    /** The id of the first event on the next page, or -1 */
+    public int beforeId = -1;
+
     public String display;
 
     @Override
@@ -202,6 +202,13 @@ public class JdbcWebEventRepository implements WebEventRepository, InitializingB
         return queryForInt(sql, paramSetter(criteria));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public int countMatchingEvents(EventCriteria criteria, int max) {
+        String sql = getSql("SELECT EVENTID FROM EVENTS LEFT OUTER JOIN NODE USING (NODEID) LEFT OUTER JOIN SERVICE USING (SERVICEID) ", criteria);
+        return queryForInt("SELECT COUNT(*) FROM (" + sql + " LIMIT " + (max + 1) + ") AS CAPPED", paramSetter(criteria));
+    }
+
     /** {@inheritDoc} */
     @Override
     public int[] countMatchingEventsBySeverity(EventCriteria criteria) {
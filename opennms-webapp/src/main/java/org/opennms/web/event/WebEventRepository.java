@@ -49,6 +49,16 @@ public interface WebEventRepository {
      */
     public abstract int countMatchingEvents(EventCriteria criteria);
     
+    /**
+     * Counts the matching events, but stops counting after <code>max</code>.
+     *
+     * @param criteria a {@link org.opennms.web.event.filter.EventCriteria} object.
+     * @param max the largest count the caller is interested in
+     * @return the number of matching events, or <code>max + 1</code> if
+     * there are more than <code>max</code>
+     */
+    public abstract int countMatchingEvents(EventCriteria criteria, int max);
+    
     /**
      * <p>countMatchingEventsBySeverity</p>
      *
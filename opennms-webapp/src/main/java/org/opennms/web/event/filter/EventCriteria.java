@@ -70,6 +70,8 @@ public class EventCriteria {
     AcknowledgeType m_ackType = AcknowledgeType.UNACKNOWLEDGED;
     int m_offset = -1;
     int m_limit = -1;
+    int m_afterId = -1;
+    int m_beforeId = -1;
     
     /**
      * <p>Constructor for EventCriteria.</p>
@@ -106,6 +108,7 @@ public class EventCriteria {
     
     public EventCriteria(EventQueryParms parms) {
     	this(parms.filters, parms.sortStyle, parms.ackType, parms.limit, parms.limit * parms.multiple);
+    	setSeekAnchor(parms.afterId, parms.beforeId);
     }
 
     /**
@@ -124,8 +127,37 @@ public class EventCriteria {
         m_limit = limit;
         m_offset = offset;
     }
-    
-    
+
+    /**
+     * Anchors the page on an event that was shown on the neighbouring page
+     * so that repositories which can seek on the sort key do not have to
+     * skip <code>offset</code> rows. The offset is kept as a fallback for
+     * sort styles that cannot seek or an anchor that no longer exists.
+     *
+     * @param afterId the id of the last event of the previous page, or -1
+     * @param beforeId the id of the first event of the next page, or -1
+     */
+    public void setSeekAnchor(int afterId, int beforeId) {
+        m_afterId = afterId > 0 ? afterId : -1;
+        m_beforeId = m_afterId < 0 && beforeId > 0 ? beforeId : -1;
+    }
+
+    public int getSeekAfterId() {
+        return m_afterId;
+    }
+
+    public int getSeekBeforeId() {
+        return m_beforeId;
+    }
+
+    public SortStyle getSortStyle() {
+        return m_sortStyle;
+    }
+
+    public int getLimit() {
+        return m_limit;
+    }
+
     /**
      * <p>visit</p>
      *
@@ -157,6 +189,8 @@ public class EventCriteria {
             .append("ackType", m_ackType)
             .append("limit", m_limit)
             .append("offset", m_offset)
+            .append("afterId", m_afterId)
+            .append("beforeId", m_beforeId)
             .toString();
     }
 }
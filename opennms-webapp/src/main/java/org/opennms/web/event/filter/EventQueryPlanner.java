@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.event.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.web.filter.BaseFilter;
+import org.opennms.web.filter.BetweenFilter;
+import org.opennms.web.filter.EqualsFilter;
+import org.opennms.web.filter.Filter;
+import org.opennms.web.filter.GreaterThanFilter;
+import org.opennms.web.filter.InFilter;
+import org.opennms.web.filter.LessThanFilter;
+
+/**
+ * Decides whether an event list query can be answered from the indexes on
+ * the events table before it is sent to the database.
+ *
+ * <p>Equality, IN and range filters on an indexed column let the database
+ * find matching rows directly. Substring, negative and IPLIKE filters can
+ * only be evaluated row by row, so a query that has nothing but those (or
+ * nothing selective besides them, like a severity) ends up scanning the
+ * whole table. Depending on the configured {@link Policy} such a query is
+ * either run as is, limited to a recent time window, or declined.</p>
+ */
+public class EventQueryPlanner {
+
+    /**
+     * What to do with a query that no index can narrow down.
+     */
+    public static enum Policy {
+        /** Run the query unchanged. */
+        ALLOW,
+        /** Only search events newer than the configured window. */
+        WINDOW,
+        /** Return no results and tell the user to narrow the search. */
+        DECLINE;
+
+        public static Policy getPolicy(final String name, final Policy defaultPolicy) {
+            if (name != null) {
+                for (final Policy policy : values()) {
+                    if (policy.name().equalsIgnoreCase(name.trim())) {
+                        return policy;
+                    }
+                }
+            }
+            return defaultPolicy;
+        }
+    }
+
+    /**
+     * The outcome of planning a query.
+     */
+    public static class Plan {
+        private final List<Filter> m_filters;
+        private final boolean m_declined;
+        private final String m_note;
+
+        Plan(final List<Filter> filters, final boolean declined, final String note) {
+            m_filters = filters;
+            m_declined = declined;
+            m_note = note;
+        }
+
+        /**
+         * @return the filters to send to the database; may contain filters
+         * the user did not ask for
+         */
+        public List<Filter> getFilters() {
+            return m_filters;
+        }
+
+        /**
+         * @return true if the query should not be run at all
+         */
+        public boolean isDeclined() {
+            return m_declined;
+        }
+
+        /**
+         * @return a message for the user if the query was changed or
+         * declined, otherwise null
+         */
+        public String getNote() {
+            return m_note;
+        }
+    }
+
+    /** Properties of {@link org.opennms.netmgt.model.OnmsEvent} that have an index on the events table */
+    private static final Set<String> INDEXED_PROPERTIES = new HashSet<String>(Arrays.asList(
+        "id", "eventUei", "node.id", "ipAddr", "serviceType.id", "eventTime",
+        "eventSeverity", "eventAckUser", "eventAckTime", "alarm.id"
+    ));
+
+    /** Indexed properties with so few distinct values that the index hardly narrows the scan */
+    private static final Set<String> UNSELECTIVE_PROPERTIES = Collections.singleton("eventSeverity");
+
+    private final Policy m_policy;
+    private final int m_windowDays;
+
+    /**
+     * <p>Constructor for EventQueryPlanner.</p>
+     *
+     * @param policy what to do with queries that no index can narrow down
+     * @param windowDays the number of days searched when the policy is {@link Policy#WINDOW}
+     */
+    public EventQueryPlanner(final Policy policy, final int windowDays) {
+        m_policy = policy;
+        m_windowDays = Math.max(1, windowDays);
+    }
+
+    public Policy getPolicy() {
+        return m_policy;
+    }
+
+    public int getWindowDays() {
+        return m_windowDays;
+    }
+
+    public Plan plan(final List<Filter> filters) {
+        return plan(filters, new Date());
+    }
+
+    public Plan plan(final List<Filter> filters, final Date now) {
+        final List<Filter> planned = filters == null ? new ArrayList<Filter>() : new ArrayList<Filter>(filters);
+        if (m_policy == Policy.ALLOW || !needsScan(planned)) {
+            return new Plan(planned, false, null);
+        }
+
+        if (m_policy == Policy.DECLINE) {
+            return new Plan(planned, true, "This search cannot use an index on the events table and was not run. Add a node, interface, service, UEI or date filter to narrow it down.");
+        }
+
+        planned.add(new AfterDateFilter(new Date(now.getTime() - TimeUnit.DAYS.toMillis(m_windowDays))));
+        return new Plan(planned, false, "This search cannot use an index on the events table, so only events from the last " + m_windowDays + " day" + (m_windowDays == 1 ? "" : "s") + " were searched. Add a date filter to search further back.");
+    }
+
+    /**
+     * A query scans the table when it has at least one filter that must be
+     * checked row by row and nothing selective to bound the rows checked.
+     * An unfiltered query is served by the index on the sort column.
+     */
+    static boolean needsScan(final List<Filter> filters) {
+        boolean unindexed = false;
+        for (final Filter filter : filters) {
+            if (isSelective(filter)) {
+                return false;
+            }
+            if (!isIndexed(filter)) {
+                unindexed = true;
+            }
+        }
+        return unindexed;
+    }
+
+    static boolean isIndexed(final Filter filter) {
+        if (!(filter instanceof BaseFilter<?>)) {
+            return false;
+        }
+        final boolean indexable = filter instanceof EqualsFilter<?>
+            || filter instanceof InFilter<?>
+            || filter instanceof GreaterThanFilter<?>
+            || filter instanceof LessThanFilter<?>
+            || filter instanceof BetweenFilter<?>;
+        return indexable && INDEXED_PROPERTIES.contains(((BaseFilter<?>)filter).getPropertyName());
+    }
+
+    static boolean isSelective(final Filter filter) {
+        if (!isIndexed(filter) || UNSELECTIVE_PROPERTIES.contains(((BaseFilter<?>)filter).getPropertyName())) {
+            return false;
+        }
+        // a "before" bound still leaves the whole history behind it
+        return !(filter instanceof LessThanFilter<?>);
+    }
+}
@@ -35,7 +35,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -58,11 +62,13 @@ import org.opennms.netmgt.model.OnmsLocationAvailDefinition;
 import org.opennms.netmgt.model.OnmsLocationAvailDefinitionList;
 import org.opennms.netmgt.model.OnmsLocationMonitor;
 import org.opennms.netmgt.model.OnmsLocationSpecificStatus;
+import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsMonitoringLocationDefinition;
 import org.opennms.netmgt.model.OnmsMonitoringLocationDefinitionList;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.web.rest.support.TimeChunker;
 import org.opennms.web.rest.support.TimeChunker.TimeChunk;
+import org.opennms.web.svclayer.support.DistributedStatusMatrix;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.TransactionStatus;
@@ -94,6 +100,9 @@ public class RemotePollerAvailabilityService extends OnmsRestService {
     @Autowired
     TransactionTemplate m_transactionTemplate;
     
+    @Autowired(required = false)
+    DistributedStatusMatrix m_statusMatrix;
+    
     @Context
     UriInfo m_uriInfo;
     
@@ -230,11 +239,22 @@ public class RemotePollerAvailabilityService extends OnmsRestService {
         OnmsLocationAvailDefinitionList availList = new OnmsLocationAvailDefinitionList();
         
         List<String> names = new ArrayList<String>(sortedApplications.size());
+        Map<OnmsApplication, Collection<OnmsMonitoredService>> applicationServices = new HashMap<OnmsApplication, Collection<OnmsMonitoredService>>();
+        Set<OnmsMonitoredService> allServices = new LinkedHashSet<OnmsMonitoredService>();
         for(OnmsApplication app : sortedApplications) {
             names.add(app.getName());
+            Collection<OnmsMonitoredService> services = m_monitoredServiceDao.findByApplication(app);
+            applicationServices.put(app, services);
+            allServices.addAll(services);
         }
         
-        Collection<OnmsLocationSpecificStatus> statusesPeriod = m_locationMonitorDao.getStatusChangesBetweenForApplications(timeChunker.getStartDate(), timeChunker.getEndDate(), names);
+        // the status matrix answers from memory when it holds enough history, the end date is inclusive here
+        Collection<OnmsLocationSpecificStatus> statusesPeriod;
+        if (m_statusMatrix != null && m_statusMatrix.covers(timeChunker.getStartDate())) {
+            statusesPeriod = m_statusMatrix.getStatusChanges(m_locationMonitorDao.findAll(), allServices, timeChunker.getStartDate(), new Date(timeChunker.getEndDate().getTime() + 1));
+        } else {
+            statusesPeriod = m_locationMonitorDao.getStatusChangesBetweenForApplications(timeChunker.getStartDate(), timeChunker.getEndDate(), names);
+        }
         
         AvailCalculator availCalc = new AvailCalculator(timeChunker);
 
@@ -256,7 +276,7 @@ public class RemotePollerAvailabilityService extends OnmsRestService {
             
             for(OnmsApplication application : sortedApplications) {
                 
-                double percentage = availCalc.getAvailabilityFor(m_monitoredServiceDao.findByApplication(application), i);
+                double percentage = availCalc.getAvailabilityFor(applicationServices.get(application), i);
                 String strPercent = new DecimalFormat("0.0").format(percentage * 100);
                 point.addAvailDefinition(new OnmsLocationAvailDefinition(application.getName(), strPercent));
                 
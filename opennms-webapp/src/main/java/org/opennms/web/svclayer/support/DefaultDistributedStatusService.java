@@ -92,6 +92,7 @@ public class DefaultDistributedStatusService implements DistributedStatusService
     private ApplicationDao m_applicationDao;
     private ResourceDao m_resourceDao;
     private GraphDao m_graphDao;
+    private DistributedStatusMatrix m_statusMatrix;
     private boolean m_layoutApplicationsVertically = false;
     
     private static final MonitoredServiceComparator MONITORED_SERVICE_COMPARATOR = new MonitoredServiceComparator();
@@ -344,10 +345,13 @@ public class DefaultDistributedStatusService implements DistributedStatusService
         List<OnmsMonitoredService> sortedServices = new ArrayList<OnmsMonitoredService>(services);
         Collections.sort(sortedServices);
                                                                      
+        boolean useMatrix = m_statusMatrix != null && m_statusMatrix.isLoaded();
         List<OnmsLocationSpecificStatus> status = new LinkedList<OnmsLocationSpecificStatus>();
         for (OnmsMonitoredService service : sortedServices) {
             for (OnmsLocationMonitor locationMonitor : sortedLocationMonitors) {
-                OnmsLocationSpecificStatus currentStatus = m_locationMonitorDao.getMostRecentStatusChange(locationMonitor, service);
+                OnmsLocationSpecificStatus currentStatus = useMatrix
+                    ? m_statusMatrix.getMostRecentStatus(locationMonitor, service)
+                    : m_locationMonitorDao.getMostRecentStatusChange(locationMonitor, service);
                 if (currentStatus == null) {
                     status.add(new OnmsLocationSpecificStatus(locationMonitor, service, NO_RECORDED_STATUS));
                 } else {
@@ -380,11 +384,24 @@ public class DefaultDistributedStatusService implements DistributedStatusService
         List<OnmsApplication> sortedApplications = new ArrayList<OnmsApplication>(applications);
         Collections.sort(sortedApplications);
         
-        Collection<OnmsLocationSpecificStatus> mostRecentStatuses = m_locationMonitorDao.getAllMostRecentStatusChanges();
+        /*
+         * When the status matrix is loaded, current statuses always come
+         * from it, and so does the period history when the matrix retains
+         * enough of it; anything else is read from the database.
+         */
+        boolean useMatrix = m_statusMatrix != null && m_statusMatrix.isLoaded();
+        boolean useMatrixHistory = useMatrix && m_statusMatrix.covers(start);
+
+        Collection<OnmsLocationSpecificStatus> mostRecentStatuses = null;
+        if (!useMatrix) {
+            mostRecentStatuses = m_locationMonitorDao.getAllMostRecentStatusChanges();
+        }
 
         Collection<OnmsLocationSpecificStatus> statusesPeriod = new HashSet<OnmsLocationSpecificStatus>();
-        statusesPeriod.addAll(m_locationMonitorDao.getAllStatusChangesAt(start));
-        statusesPeriod.addAll(m_locationMonitorDao.getStatusChangesBetween(start, end));
+        if (!useMatrixHistory) {
+            statusesPeriod.addAll(m_locationMonitorDao.getAllStatusChangesAt(start));
+            statusesPeriod.addAll(m_locationMonitorDao.getStatusChangesBetween(start, end));
+        }
 
         table.setTitle("Distributed Status Summary");
         
@@ -403,9 +420,11 @@ public class DefaultDistributedStatusService implements DistributedStatusService
             
             for (OnmsApplication application : sortedApplications) {
                 Collection<OnmsMonitoredService> memberServices = m_monitoredServiceDao.findByApplication(application);
-                Severity status = calculateCurrentStatus(monitors, memberServices, mostRecentStatuses);
+                Severity status = calculateCurrentStatus(monitors, memberServices, useMatrix ? m_statusMatrix.getMostRecentStatuses(monitors, memberServices) : mostRecentStatuses);
             
-                Set<OnmsLocationSpecificStatus> selectedStatuses = filterStatus(statusesPeriod, monitors, memberServices);
+                Set<OnmsLocationSpecificStatus> selectedStatuses = useMatrixHistory
+                    ? new HashSet<OnmsLocationSpecificStatus>(m_statusMatrix.getStatusChanges(monitors, memberServices, start, end))
+                    : filterStatus(statusesPeriod, monitors, memberServices);
                 
                 if (selectedStatuses.size() > 0) {
                     String percentage = calculatePercentageUptime(memberServices, selectedStatuses, start, end);
@@ -937,6 +956,24 @@ public class DefaultDistributedStatusService implements DistributedStatusService
         m_graphDao = graphDao;
     }
     
+    /**
+     * <p>getStatusMatrix</p>
+     *
+     * @return a {@link org.opennms.web.svclayer.support.DistributedStatusMatrix} object.
+     */
+    public DistributedStatusMatrix getStatusMatrix() {
+        return m_statusMatrix;
+    }
+
+    /**
+     * <p>setStatusMatrix</p>
+     *
+     * @param statusMatrix a {@link org.opennms.web.svclayer.support.DistributedStatusMatrix} object.
+     */
+    public void setStatusMatrix(DistributedStatusMatrix statusMatrix) {
+        m_statusMatrix = statusMatrix;
+    }
+
     /**
      * <p>setLayoutApplicationsVertically</p>
      *
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.svclayer.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opennms.netmgt.dao.api.LocationMonitorDao;
+import org.opennms.netmgt.model.OnmsLocationMonitor;
+import org.opennms.netmgt.model.OnmsLocationSpecificStatus;
+import org.opennms.netmgt.model.OnmsMonitoredService;
+import org.opennms.netmgt.model.PollStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory matrix of the most recent status of every (location monitor,
+ * monitored service) pair, together with a compact history of the status
+ * changes of each pair.
+ *
+ * <p>The matrix is bootstrapped from the status changes in effect at the
+ * start of the retained history plus every change since, and is then kept
+ * current by following the status change table by id on a background
+ * timer, so that the distributed status pages and the remote poller
+ * availability REST service can be answered without querying the status
+ * change table per request.</p>
+ *
+ * <p>Ids are handed out before the status changes commit, so a change can
+ * become visible after one with a higher id has been read.  Each refresh
+ * therefore reads again the last <code>idOverlap</code> ids, and skips the
+ * changes it has already applied.</p>
+ *
+ * <p>Only ids are kept for the monitors and services; callers pass in the
+ * entities they already loaded and receive
+ * {@link OnmsLocationSpecificStatus} objects built around them.</p>
+ */
+public class DistributedStatusMatrix implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedStatusMatrix.class);
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private static final Comparator<OnmsLocationSpecificStatus> TIMESTAMP_ORDER = new Comparator<OnmsLocationSpecificStatus>() {
+        @Override
+        public int compare(final OnmsLocationSpecificStatus o1, final OnmsLocationSpecificStatus o2) {
+            return o1.getPollResult().getTimestamp().compareTo(o2.getPollResult().getTimestamp());
+        }
+    };
+
+    private LocationMonitorDao m_locationMonitorDao;
+    private TransactionTemplate m_transactionTemplate;
+    private long m_refreshInterval = Long.getLong("org.opennms.web.distributedStatus.refreshInterval", 10000L);
+    private long m_historyPeriod = Long.getLong("org.opennms.web.distributedStatus.historyPeriod", 31L * DAY);
+    private int m_idOverlap = Integer.getInteger("org.opennms.web.distributedStatus.idOverlap", 1000);
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+    private final Map<Long, StatusCell> m_cells = new HashMap<Long, StatusCell>();
+    private int m_lastStatusId = 0;
+    /** the ids of the applied changes within the overlap, read again by each refresh */
+    private final NavigableSet<Integer> m_recentIds = new TreeSet<Integer>();
+    private long m_horizon = Long.MAX_VALUE;
+    private volatile boolean m_loaded = false;
+
+    private Timer m_timer;
+
+    /**
+     * Current status and status change history of one (monitor, service)
+     * pair.  The history is kept as parallel arrays of timestamps and status
+     * codes ordered by timestamp.
+     */
+    private static final class StatusCell {
+        private PollStatus m_current;
+        private long[] m_times = new long[4];
+        private byte[] m_codes = new byte[4];
+        private int m_size = 0;
+
+        public void add(final PollStatus status) {
+            final long time = status.getTimestamp().getTime();
+            if (m_current == null || !status.getTimestamp().before(m_current.getTimestamp())) {
+                m_current = status;
+            }
+
+            if (m_size == m_times.length) {
+                m_times = Arrays.copyOf(m_times, m_size * 2);
+                m_codes = Arrays.copyOf(m_codes, m_size * 2);
+            }
+
+            // status changes nearly always arrive in order, so this is an append
+            int index = m_size;
+            while (index > 0 && m_times[index - 1] > time) {
+                index--;
+            }
+            System.arraycopy(m_times, index, m_times, index + 1, m_size - index);
+            System.arraycopy(m_codes, index, m_codes, index + 1, m_size - index);
+            m_times[index] = time;
+            m_codes[index] = (byte) status.getStatusCode();
+            m_size++;
+        }
+
+        public PollStatus getCurrent() {
+            return m_current;
+        }
+
+        /**
+         * @return the index of the first change at or after the given time
+         */
+        private int indexOf(final long time) {
+            int low = 0;
+            int high = m_size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (m_times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Add the change in effect at <code>start</code> and every change in
+         * [start, end) to <code>statuses</code>.
+         */
+        public void collect(final OnmsLocationMonitor monitor, final OnmsMonitoredService service, final long start, final long end, final Collection<OnmsLocationSpecificStatus> statuses) {
+            for (int i = Math.max(0, indexOf(start) - 1); i < m_size && m_times[i] < end; i++) {
+                final PollStatus status = PollStatus.get(m_codes[i], null, null);
+                status.setTimestamp(new Date(m_times[i]));
+                statuses.add(new OnmsLocationSpecificStatus(monitor, service, status));
+            }
+        }
+
+        /**
+         * Drop the changes before <code>horizon</code>, keeping the one that
+         * is still in effect at the horizon.
+         */
+        public void prune(final long horizon) {
+            final int first = indexOf(horizon) - 1;
+            if (first > 0) {
+                System.arraycopy(m_times, first, m_times, 0, m_size - first);
+                System.arraycopy(m_codes, first, m_codes, 0, m_size - first);
+                m_size -= first;
+            }
+        }
+    }
+
+    private static long key(final Integer monitorId, final Integer serviceId) {
+        return ((long) monitorId.intValue() << 32) | (serviceId.intValue() & 0xffffffffL);
+    }
+
+    /**
+     * <p>afterPropertiesSet</p>
+     *
+     * @throws java.lang.Exception if any.
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.state(m_locationMonitorDao != null, "property locationMonitorDao cannot be null");
+        Assert.state(m_refreshInterval > 0, "property refreshInterval must be greater than zero");
+
+        m_timer = new Timer("DistributedStatusMatrix-Timer", true);
+        m_timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    if (m_transactionTemplate == null) {
+                        refresh();
+                    } else {
+                        m_transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                            @Override
+                            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                                refresh();
+                            }
+                        });
+                    }
+                } catch (final Throwable t) {
+                    LOG.warn("Unable to refresh the distributed status matrix", t);
+                }
+            }
+        }, 0, m_refreshInterval);
+    }
+
+    /**
+     * <p>destroy</p>
+     */
+    @Override
+    public void destroy() {
+        if (m_timer != null) {
+            m_timer.cancel();
+            m_timer = null;
+        }
+    }
+
+    /**
+     * Load the matrix if it has not been loaded yet, otherwise apply the
+     * status changes recorded since the last refresh.
+     */
+    public void refresh() {
+        if (!m_loaded) {
+            load();
+            return;
+        }
+
+        final Collection<OnmsLocationSpecificStatus> changes = m_locationMonitorDao.getStatusChangesAfter(Math.max(0, m_lastStatusId - m_idOverlap));
+        final long horizon = System.currentTimeMillis() - m_historyPeriod;
+
+        int applied = 0;
+        m_lock.writeLock().lock();
+        try {
+            for (final OnmsLocationSpecificStatus change : changes) {
+                if (change.getId() != null && !m_recentIds.add(change.getId())) {
+                    // already applied by an earlier refresh
+                    continue;
+                }
+                apply(change);
+                applied++;
+            }
+            pruneRecentIds();
+            if (horizon > m_horizon) {
+                for (final StatusCell cell : m_cells.values()) {
+                    cell.prune(horizon);
+                }
+                m_horizon = horizon;
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+
+        LOG.debug("Applied {} status changes to the distributed status matrix", applied);
+    }
+
+    private void load() {
+        final long start = System.currentTimeMillis();
+        final Date horizon = new Date(start - m_historyPeriod);
+
+        final List<OnmsLocationSpecificStatus> changes = new ArrayList<OnmsLocationSpecificStatus>();
+        changes.addAll(m_locationMonitorDao.getAllStatusChangesAt(horizon));
+        changes.addAll(m_locationMonitorDao.getStatusChangesBetween(horizon, new Date(start)));
+        Collections.sort(changes, TIMESTAMP_ORDER);
+
+        m_lock.writeLock().lock();
+        try {
+            m_cells.clear();
+            m_recentIds.clear();
+            m_lastStatusId = 0;
+            for (final OnmsLocationSpecificStatus change : changes) {
+                apply(change);
+            }
+            for (final OnmsLocationSpecificStatus change : changes) {
+                if (change.getId() != null && change.getId() > m_lastStatusId - m_idOverlap) {
+                    m_recentIds.add(change.getId());
+                }
+            }
+            m_horizon = horizon.getTime();
+            m_loaded = true;
+            LOG.info("Loaded {} status changes for {} monitor/service pairs into the distributed status matrix in {}ms", changes.size(), m_cells.size(), System.currentTimeMillis() - start);
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(final OnmsLocationSpecificStatus change) {
+        final PollStatus result = change.getPollResult();
+        if (result == null || result.getTimestamp() == null) {
+            return;
+        }
+
+        final long key = key(change.getLocationMonitor().getId(), change.getMonitoredService().getId());
+        StatusCell cell = m_cells.get(key);
+        if (cell == null) {
+            cell = new StatusCell();
+            m_cells.put(key, cell);
+        }
+        cell.add(result);
+
+        if (change.getId() != null && change.getId() > m_lastStatusId) {
+            m_lastStatusId = change.getId();
+        }
+    }
+
+    private void pruneRecentIds() {
+        m_recentIds.headSet(m_lastStatusId - m_idOverlap, true).clear();
+    }
+
+    /**
+     * <p>isLoaded</p>
+     *
+     * @return true once the matrix has been bootstrapped
+     */
+    public boolean isLoaded() {
+        return m_loaded;
+    }
+
+    /**
+     * Whether the retained history reaches back far enough to answer
+     * {@link #getStatusChanges(Collection, Collection, Date, Date)} for a
+     * period starting at <code>start</code>.
+     *
+     * @param start the start of the period
+     * @return a boolean.
+     */
+    public boolean covers(final Date start) {
+        m_lock.readLock().lock();
+        try {
+            return m_loaded && start.getTime() >= m_horizon;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most recent status of a service as seen from a location
+     * monitor.
+     *
+     * @param monitor a {@link org.opennms.netmgt.model.OnmsLocationMonitor} object.
+     * @param service a {@link org.opennms.netmgt.model.OnmsMonitoredService} object.
+     * @return the status, or null if none has been recorded
+     */
+    public OnmsLocationSpecificStatus getMostRecentStatus(final OnmsLocationMonitor monitor, final OnmsMonitoredService service) {
+        m_lock.readLock().lock();
+        try {
+            final StatusCell cell = m_cells.get(key(monitor.getId(), service.getId()));
+            return cell == null ? null : new OnmsLocationSpecificStatus(monitor, service, cell.getCurrent());
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most recent status of every pair of the given monitors and
+     * services that has a recorded status.
+     *
+     * @param monitors a {@link java.util.Collection} object.
+     * @param services a {@link java.util.Collection} object.
+     * @return a {@link java.util.Collection} object.
+     */
+    public Collection<OnmsLocationSpecificStatus> getMostRecentStatuses(final Collection<OnmsLocationMonitor> monitors, final Collection<OnmsMonitoredService> services) {
+        final List<OnmsLocationSpecificStatus> statuses = new ArrayList<OnmsLocationSpecificStatus>();
+        m_lock.readLock().lock();
+        try {
+            for (final OnmsLocationMonitor monitor : monitors) {
+                for (final OnmsMonitoredService service : services) {
+                    final StatusCell cell = m_cells.get(key(monitor.getId(), service.getId()));
+                    if (cell != null) {
+                        statuses.add(new OnmsLocationSpecificStatus(monitor, service, cell.getCurrent()));
+                    }
+                }
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        return statuses;
+    }
+
+    /**
+     * Returns, for every pair of the given monitors and services, the status
+     * change in effect at <code>start</code> and every status change in
+     * [start, end).  This is the same set as
+     * {@link LocationMonitorDao#getAllStatusChangesAt(Date)} plus
+     * {@link LocationMonitorDao#getStatusChangesBetween(Date, Date)}
+     * restricted to the given monitors and services, except that the
+     * returned statuses carry only the status code and timestamp.
+     *
+     * @param monitors a {@link java.util.Collection} object.
+     * @param services a {@link java.util.Collection} object.
+     * @param start a {@link java.util.Date} object.
+     * @param end a {@link java.util.Date} object.
+     * @return a {@link java.util.Collection} object.
+     */
+    public Collection<OnmsLocationSpecificStatus> getStatusChanges(final Collection<OnmsLocationMonitor> monitors, final Collection<OnmsMonitoredService> services, final Date start, final Date end) {
+        final List<OnmsLocationSpecificStatus> statuses = new ArrayList<OnmsLocationSpecificStatus>();
+        m_lock.readLock().lock();
+        try {
+            for (final OnmsLocationMonitor monitor : monitors) {
+                for (final OnmsMonitoredService service : services) {
+                    final StatusCell cell = m_cells.get(key(monitor.getId(), service.getId()));
+                    if (cell != null) {
+                        cell.collect(monitor, service, start.getTime(), end.getTime(), statuses);
+                    }
+                }
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        return statuses;
+    }
+
+    /**
+     * <p>setLocationMonitorDao</p>
+     *
+     * @param locationMonitorDao a {@link org.opennms.netmgt.dao.api.LocationMonitorDao} object.
+     */
+    public void setLocationMonitorDao(final LocationMonitorDao locationMonitorDao) {
+        m_locationMonitorDao = locationMonitorDao;
+    }
+
+    /**
+     * <p>setTransactionTemplate</p>
+     *
+     * @param transactionTemplate a {@link org.springframework.transaction.support.TransactionTemplate} object.
+     */
+    public void setTransactionTemplate(final TransactionTemplate transactionTemplate) {
+        m_transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * <p>setRefreshInterval</p>
+     *
+     * @param refreshInterval milliseconds between refreshes
+     */
+    public void setRefreshInterval(final long refreshInterval) {
+        m_refreshInterval = refreshInterval;
+    }
+
+    /**
+     * <p>setHistoryPeriod</p>
+     *
+     * @param historyPeriod milliseconds of status change history to retain
+     */
+    public void setHistoryPeriod(final long historyPeriod) {
+        m_historyPeriod = historyPeriod;
+    }
+
+    /**
+     * <p>setIdOverlap</p>
+     *
+     * @param idOverlap how many of the most recent status change ids each refresh reads again
+     */
+    public void setIdOverlap(final int idOverlap) {
+        m_idOverlap = idOverlap;
+    }
+}
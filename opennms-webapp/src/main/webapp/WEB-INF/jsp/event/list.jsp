@@ -69,6 +69,9 @@
     //required attributes
     Event[] events = (Event[])req.getAttribute( "events" );
     int eventCount = req.getAttribute( "eventCount" ) == null ? -1 : (Integer)req.getAttribute( "eventCount" );
+    boolean eventCountEstimated = Boolean.TRUE.equals(req.getAttribute( "eventCountEstimated" ));
+    String eventCountText = eventCountEstimated ? "more than " + eventCount : String.valueOf(eventCount);
+    String eventQueryNote = (String)req.getAttribute( "eventQueryNote" );
     NormalizedQueryParameters parms = (NormalizedQueryParameters)req.getAttribute( "parms" );
     FilterCallback callback = (EventFilterCallback) req.getAttribute("callback");
 
@@ -204,9 +207,9 @@
               </form>
 
               <% if( AcknowledgeType.UNACKNOWLEDGED.toNormalizedAcknowledgeType().equals(parms.getAckType()) ) { %>
-                <a href="javascript:void()" onclick="if (confirm('Are you sure you want to acknowledge all events in the current search including those not shown on your screen?  (<%=eventCount%> total events)')) {  document.acknowledge_by_filter_form.submit(); }" title="Acknowledge all events that match the current search constraints, even those not shown on the screen">Acknowledge entire search</a>
+                <a href="javascript:void()" onclick="if (confirm('Are you sure you want to acknowledge all events in the current search including those not shown on your screen?  (<%=eventCountText%> total events)')) {  document.acknowledge_by_filter_form.submit(); }" title="Acknowledge all events that match the current search constraints, even those not shown on the screen">Acknowledge entire search</a>
               <% } else { %>
-                <a href="javascript:void()" onclick="if (confirm('Are you sure you want to unacknowledge all events in the current search including those not shown on your screen)?  (<%=eventCount%> total events)')) { document.acknowledge_by_filter_form.submit(); }" title="Unacknowledge all events that match the current search constraints, even those not shown on the screen">Unacknowledge entire search</a>
+                <a href="javascript:void()" onclick="if (confirm('Are you sure you want to unacknowledge all events in the current search including those not shown on your screen)?  (<%=eventCountText%> total events)')) { document.acknowledge_by_filter_form.submit(); }" title="Unacknowledge all events that match the current search constraints, even those not shown on the screen">Unacknowledge entire search</a>
               <% } %>
             </li>
           <% } %>
@@ -264,14 +267,20 @@
             <% } %>
             <onms:alert/>
 
+            <% if( eventQueryNote != null ) { %>
+              <p class="alert alert-info"><c:out value="<%=eventQueryNote%>"/></p>
+            <% } %>
+
             <% if( events.length > 0 ) { %>
               <% String baseUrl = this.makeLink(callback, parms, favorite); %>
-              <% if ( eventCount == -1 ) { %>
+              <% if ( eventCount == -1 || eventCountEstimated ) { %>
                 <jsp:include page="/includes/resultsIndexNoCount.jsp" flush="false" >
                   <jsp:param name="itemCount"    value="<%=events.length%>" />
                   <jsp:param name="baseurl"  value="<%=baseUrl%>"    />
                   <jsp:param name="limit"    value="<%=parms.getLimit()%>"      />
                   <jsp:param name="multiple" value="<%=parms.getMultiple()%>"   />
+                  <jsp:param name="firstId"  value="<%=events[0].getId()%>"   />
+                  <jsp:param name="lastId"   value="<%=events[events.length - 1].getId()%>"   />
                 </jsp:include>
               <% } else { %>
                 <jsp:include page="/includes/resultsIndex.jsp" flush="false" >
@@ -459,12 +468,14 @@
 
             <% if( events.length > 0 ) { %>
               <% String baseUrl = this.makeLink(callback, parms, favorite); %>
-              <% if ( eventCount == -1 ) { %>
+              <% if ( eventCount == -1 || eventCountEstimated ) { %>
                 <jsp:include page="/includes/resultsIndexNoCount.jsp" flush="false" >
                   <jsp:param name="itemCount"    value="<%=events.length%>" />
                   <jsp:param name="baseurl"  value="<%=baseUrl%>"    />
                   <jsp:param name="limit"    value="<%=parms.getLimit()%>"      />
                   <jsp:param name="multiple" value="<%=parms.getMultiple()%>"   />
+                  <jsp:param name="firstId"  value="<%=events[0].getId()%>"   />
+                  <jsp:param name="lastId"   value="<%=events[events.length - 1].getId()%>"   />
                 </jsp:include>
               <% } else { %>
                 <jsp:include page="/includes/resultsIndex.jsp" flush="false" >
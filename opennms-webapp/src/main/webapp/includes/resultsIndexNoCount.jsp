@@ -61,6 +61,13 @@
     //optional parameter multiple    
     String multipleString = request.getParameter("multiple");
 
+    //optional parameters firstId and lastId, the ids of the first and last
+    //items shown, let the next and previous pages seek instead of skipping
+    String firstIdString = request.getParameter("firstId");
+    String lastIdString = request.getParameter("lastId");
+    String previousSeek = (firstIdString != null) ? "&amp;before=" + WebSecurityUtils.safeParseInt(firstIdString) : "";
+    String nextSeek = (lastIdString != null) ? "&amp;after=" + WebSecurityUtils.safeParseInt(lastIdString) : "";
+
     //optional parameter, limitname
     String limitName = request.getParameter("limitname");
     if(limitName == null) {
@@ -112,11 +119,11 @@
     <span>
 <% if( multiple > 0 ) { %>
       <a href="<%=baseUrl%>&amp;<%=multipleName%>=0">First</a>&nbsp;  
-      <a href="<%=baseUrl%>&amp;<%=multipleName%>=<%=multiple-1%>">Previous</a>&nbsp;  
+      <a href="<%=baseUrl%>&amp;<%=multipleName%>=<%=multiple-1%><%=previousSeek%>">Previous</a>&nbsp;  
     <% } %>
     
     <% if( itemCount >= limit  ) { %>
-      <a href="<%=baseUrl%>&amp;<%=multipleName%>=<%=multiple+1%>">Next</a>&nbsp;
+      <a href="<%=baseUrl%>&amp;<%=multipleName%>=<%=multiple+1%><%=nextSeek%>">Next</a>&nbsp;
     <% } %>
 		</span>
    <% } %>      
@@ -28,12 +28,16 @@
 
 package org.opennms.web.event;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 
+import javax.sql.DataSource;
+
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -51,8 +55,11 @@ import org.opennms.web.event.filter.EventIdFilter;
 import org.opennms.web.event.filter.NegativeSeverityFilter;
 import org.opennms.web.event.filter.SeverityFilter;
 import org.opennms.web.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -68,10 +75,14 @@ import org.springframework.transaction.annotation.Transactional;
 @JUnitConfigurationEnvironment
 @JUnitTemporaryDatabase
 public class DaoWebEventRepositoryTest implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(DaoWebEventRepositoryTest.class);
     
     @Autowired
     DatabasePopulator m_dbPopulator;
     
+    @Autowired
+    DataSource m_dataSource;
+    
     @Autowired
     WebEventRepository m_daoEventRepo;
     
@@ -209,5 +220,102 @@ public class DaoWebEventRepositoryTest implements InitializingBean {
         assertTrue(sortedEvents.length > 0);        
         
     }
-    
+
+    @Test
+    @Transactional
+    public void testCountMatchingEventsUpTo() {
+        assertEquals(2, m_daoEventRepo.countMatchingEvents(new EventCriteria(), 10));
+        // one more than the limit means "more than the limit"
+        assertEquals(2, m_daoEventRepo.countMatchingEvents(new EventCriteria(), 1));
+    }
+
+    @Test
+    @Transactional
+    public void testSeekPaging() {
+        final Date now = new Date();
+        for (int i = 0; i < 6; i++) {
+            OnmsEvent event = new OnmsEvent();
+            event.setDistPoller(getDistPoller("localhost", "127.0.0.1"));
+            event.setEventUei("uei.opennms.org/seek");
+            // pairs of events share a time so the id has to break the tie
+            event.setEventTime(new Date(now.getTime() - (i / 2) * 1000));
+            event.setEventSource("test");
+            event.setEventCreateTime(now);
+            event.setEventSeverity(OnmsSeverity.NORMAL.getId());
+            event.setEventLog("Y");
+            event.setEventDisplay("Y");
+            m_dbPopulator.getEventDao().save(event);
+        }
+        m_dbPopulator.getEventDao().flush();
+
+        for (SortStyle sortStyle : new SortStyle[] { SortStyle.ID, SortStyle.REVERSE_ID, SortStyle.TIME, SortStyle.REVERSE_TIME }) {
+            final Event[] first = m_daoEventRepo.getMatchingEvents(new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, 3, 0));
+            final Event[] second = m_daoEventRepo.getMatchingEvents(new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, 3, 3));
+            assertEquals(3, first.length);
+            assertEquals(3, second.length);
+
+            // the offset is ignored once an anchor is given
+            final EventCriteria next = new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, 3, 0);
+            next.setSeekAnchor(first[2].getId(), -1);
+            assertArrayEquals(sortStyle.toString(), ids(second), ids(m_daoEventRepo.getMatchingEvents(next)));
+
+            final EventCriteria previous = new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, 3, 0);
+            previous.setSeekAnchor(-1, second[0].getId());
+            assertArrayEquals(sortStyle.toString(), ids(first), ids(m_daoEventRepo.getMatchingEvents(previous)));
+        }
+    }
+
+    /**
+     * Measures how long it takes to read event list pages deep into a large
+     * events table with an offset and with a seek anchor. Generating the
+     * table takes a while, so this only runs when the
+     * <code>org.opennms.web.event.benchmarkEvents</code> system property is
+     * set to the number of events to generate (10000000 for a realistic
+     * table).
+     */
+    @Test
+    public void testPagingBenchmark() {
+        final int eventCount = Integer.getInteger("org.opennms.web.event.benchmarkEvents", 0);
+        Assume.assumeTrue(eventCount > 0);
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(m_dataSource);
+        jdbcTemplate.update("INSERT INTO events (eventID, eventUei, eventTime, eventSource, eventDpName, eventCreateTime, eventSeverity, eventLog, eventDisplay, eventLogMsg) "
+            + "SELECT nextval('eventsNxtId'), 'uei.opennms.org/benchmark/' || (g % 50), now() - (g || ' seconds')::interval, 'benchmark', 'localhost', now(), 1 + g % 7, 'Y', 'Y', 'benchmark event ' || g "
+            + "FROM generate_series(1, ?) AS g", eventCount);
+        jdbcTemplate.execute("ANALYZE events");
+
+        final int limit = 25;
+        for (SortStyle sortStyle : new SortStyle[] { SortStyle.ID, SortStyle.TIME }) {
+            for (int page = 1; page * limit < eventCount; page *= 10) {
+                // the anchor is the last event of the page before the one being read
+                final EventCriteria anchorCriteria = new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, 1, page * limit - 1);
+                final int anchorId = m_daoEventRepo.getMatchingEvents(anchorCriteria)[0].getId();
+
+                long start = System.nanoTime();
+                final Event[] byOffset = m_daoEventRepo.getMatchingEvents(new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, limit, page * limit));
+                final long offsetMillis = (System.nanoTime() - start) / 1000000;
+
+                final EventCriteria seekCriteria = new EventCriteria(new Filter[0], sortStyle, AcknowledgeType.UNACKNOWLEDGED, limit, page * limit);
+                seekCriteria.setSeekAnchor(anchorId, -1);
+                start = System.nanoTime();
+                final Event[] bySeek = m_daoEventRepo.getMatchingEvents(seekCriteria);
+                final long seekMillis = (System.nanoTime() - start) / 1000000;
+
+                assertArrayEquals(ids(byOffset), ids(bySeek));
+                LOG.info("{} events, sort {}, page {}: offset {}ms, seek {}ms", eventCount, sortStyle, page, offsetMillis, seekMillis);
+            }
+        }
+
+        long start = System.nanoTime();
+        final int capped = m_daoEventRepo.countMatchingEvents(new EventCriteria(), 10000);
+        LOG.info("{} events: capped count {} in {}ms", eventCount, capped, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static int[] ids(final Event[] events) {
+        final int[] ids = new int[events.length];
+        for (int i = 0; i < events.length; i++) {
+            ids[i] = events[i].getId();
+        }
+        return ids;
+    }
 }
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.event.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.junit.Test;
+import org.opennms.web.event.filter.EventQueryPlanner.Plan;
+import org.opennms.web.event.filter.EventQueryPlanner.Policy;
+import org.opennms.web.filter.Filter;
+
+public class EventQueryPlannerTest {
+
+    @Test
+    public void testClassifyFilters() {
+        assertTrue(EventQueryPlanner.isSelective(new NodeFilter(1, (ServletContext)null)));
+        assertTrue(EventQueryPlanner.isSelective(new ExactUEIFilter("uei.opennms.org/test")));
+        assertTrue(EventQueryPlanner.isSelective(new EventIdListFilter(new int[] { 1, 2 })));
+        assertTrue(EventQueryPlanner.isSelective(new AfterDateFilter(new Date())));
+
+        // indexed, but they leave most of the table to scan
+        assertTrue(EventQueryPlanner.isIndexed(new SeverityFilter(3)));
+        assertFalse(EventQueryPlanner.isSelective(new SeverityFilter(3)));
+        assertTrue(EventQueryPlanner.isIndexed(new BeforeDateFilter(new Date())));
+        assertFalse(EventQueryPlanner.isSelective(new BeforeDateFilter(new Date())));
+
+        assertFalse(EventQueryPlanner.isIndexed(new LogMessageSubstringFilter("down")));
+        assertFalse(EventQueryPlanner.isIndexed(new PartialUEIFilter("nodeDown")));
+        assertFalse(EventQueryPlanner.isIndexed(new NegativeNodeFilter(1, (ServletContext)null)));
+        assertFalse(EventQueryPlanner.isIndexed(new IPAddrLikeFilter("10.*.*.*")));
+        assertFalse(EventQueryPlanner.isIndexed(new IfIndexFilter(2)));
+    }
+
+    @Test
+    public void testIndexedQueriesAreUnchanged() {
+        final EventQueryPlanner planner = new EventQueryPlanner(Policy.DECLINE, 7);
+
+        assertUnchanged(planner, Collections.<Filter>emptyList());
+        assertUnchanged(planner, Arrays.<Filter>asList(new SeverityFilter(3)));
+        assertUnchanged(planner, Arrays.<Filter>asList(new LogMessageSubstringFilter("down"), new NodeFilter(1, (ServletContext)null)));
+        assertUnchanged(planner, Arrays.<Filter>asList(new PartialUEIFilter("nodeDown"), new AfterDateFilter(new Date())));
+    }
+
+    @Test
+    public void testWindow() {
+        final Date now = new Date();
+        final List<Filter> filters = Arrays.<Filter>asList(new LogMessageSubstringFilter("down"), new SeverityFilter(3));
+        final Plan plan = new EventQueryPlanner(Policy.WINDOW, 2).plan(filters, now);
+
+        assertFalse(plan.isDeclined());
+        assertNotNull(plan.getNote());
+        assertEquals(3, plan.getFilters().size());
+        assertEquals(2, filters.size());
+
+        final AfterDateFilter window = (AfterDateFilter)plan.getFilters().get(2);
+        assertEquals(now.getTime() - 2 * 24 * 60 * 60 * 1000L, window.getValue().getTime());
+    }
+
+    @Test
+    public void testDecline() {
+        final Plan plan = new EventQueryPlanner(Policy.DECLINE, 7).plan(new ArrayList<Filter>(Arrays.<Filter>asList(new NodeNameLikeFilter("router"))));
+
+        assertTrue(plan.isDeclined());
+        assertNotNull(plan.getNote());
+    }
+
+    @Test
+    public void testAllow() {
+        final List<Filter> filters = Arrays.<Filter>asList(new DescriptionSubstringFilter("down"));
+        final Plan plan = new EventQueryPlanner(Policy.ALLOW, 7).plan(filters);
+
+        assertFalse(plan.isDeclined());
+        assertNull(plan.getNote());
+        assertEquals(filters, plan.getFilters());
+    }
+
+    @Test
+    public void testPolicyNames() {
+        assertSame(Policy.DECLINE, Policy.getPolicy(" Decline ", Policy.WINDOW));
+        assertSame(Policy.WINDOW, Policy.getPolicy("bogus", Policy.WINDOW));
+        assertSame(Policy.ALLOW, Policy.getPolicy(null, Policy.ALLOW));
+    }
+
+    private static void assertUnchanged(final EventQueryPlanner planner, final List<Filter> filters) {
+        final Plan plan = planner.plan(filters);
+        assertFalse(filters.toString(), plan.isDeclined());
+        assertNull(plan.getNote());
+        assertEquals(filters, plan.getFilters());
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.svclayer.support;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.opennms.netmgt.dao.api.LocationMonitorDao;
+import org.opennms.netmgt.model.OnmsIpInterface;
+import org.opennms.netmgt.model.OnmsLocationMonitor;
+import org.opennms.netmgt.model.OnmsLocationSpecificStatus;
+import org.opennms.netmgt.model.OnmsMonitoredService;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.model.PollStatus;
+import org.opennms.test.mock.EasyMockUtils;
+
+public class DistributedStatusMatrixTest extends TestCase {
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long DAY = 24L * HOUR;
+
+    private EasyMockUtils m_easyMockUtils = new EasyMockUtils();
+    private LocationMonitorDao m_locationMonitorDao = m_easyMockUtils.createMock(LocationMonitorDao.class);
+
+    private DistributedStatusMatrix m_matrix = new DistributedStatusMatrix();
+
+    private OnmsLocationMonitor m_monitor;
+    private OnmsMonitoredService m_httpService;
+    private OnmsMonitoredService m_httpsService;
+    private Set<OnmsMonitoredService> m_services;
+
+    private long m_dayStart;
+    private int m_nextId = 1;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_matrix.setLocationMonitorDao(m_locationMonitorDao);
+        m_matrix.setHistoryPeriod(7 * DAY);
+
+        m_monitor = new OnmsLocationMonitor();
+        m_monitor.setId(1);
+        m_monitor.setDefinitionName("Raleigh");
+
+        OnmsNode node = new OnmsNode();
+        node.setLabel("Node 1");
+        node.setId(1);
+
+        m_httpService = new OnmsMonitoredService(new OnmsIpInterface("1.1.1.1", node), new OnmsServiceType("HTTP"));
+        m_httpService.setId(10);
+        m_httpsService = new OnmsMonitoredService(new OnmsIpInterface("1.1.1.1", node), new OnmsServiceType("HTTPS"));
+        m_httpsService.setId(11);
+
+        m_services = new TreeSet<OnmsMonitoredService>();
+        m_services.add(m_httpService);
+        m_services.add(m_httpsService);
+
+        m_dayStart = ((System.currentTimeMillis() - 2 * DAY) / DAY) * DAY;
+    }
+
+    public void testLoadAndRefresh() {
+        List<OnmsLocationSpecificStatus> initial = new ArrayList<OnmsLocationSpecificStatus>();
+        initial.add(createStatus(m_httpService, PollStatus.available(), m_dayStart - 10 * DAY));
+
+        List<OnmsLocationSpecificStatus> recent = new ArrayList<OnmsLocationSpecificStatus>();
+        recent.add(createStatus(m_httpsService, PollStatus.unavailable("connection refused"), m_dayStart));
+
+        expect(m_locationMonitorDao.getAllStatusChangesAt(isA(Date.class))).andReturn(initial);
+        expect(m_locationMonitorDao.getStatusChangesBetween(isA(Date.class), isA(Date.class))).andReturn(recent);
+
+        List<OnmsLocationSpecificStatus> changes = new ArrayList<OnmsLocationSpecificStatus>();
+        changes.add(createStatus(m_httpsService, PollStatus.available(), m_dayStart + HOUR));
+        expect(m_locationMonitorDao.getStatusChangesAfter(eq(0))).andReturn(changes);
+
+        m_easyMockUtils.replayAll();
+
+        assertFalse("matrix should not be loaded yet", m_matrix.isLoaded());
+        m_matrix.refresh();
+        assertTrue("matrix should be loaded", m_matrix.isLoaded());
+
+        assertTrue("HTTP should be available", m_matrix.getMostRecentStatus(m_monitor, m_httpService).getPollResult().isAvailable());
+        PollStatus https = m_matrix.getMostRecentStatus(m_monitor, m_httpsService).getPollResult();
+        assertTrue("HTTPS should be unavailable", https.isUnavailable());
+        assertEquals("HTTPS reason", "connection refused", https.getReason());
+
+        m_matrix.refresh();
+
+        m_easyMockUtils.verifyAll();
+
+        assertTrue("HTTPS should be available after refresh", m_matrix.getMostRecentStatus(m_monitor, m_httpsService).getPollResult().isAvailable());
+        assertEquals("most recent statuses", 2, m_matrix.getMostRecentStatuses(Collections.singleton(m_monitor), m_services).size());
+        assertTrue("history should cover the last day", m_matrix.covers(new Date(m_dayStart)));
+        assertFalse("history should not cover a month ago", m_matrix.covers(new Date(m_dayStart - 30 * DAY)));
+    }
+
+    public void testLateStatusChangesAreApplied() {
+        m_matrix.setIdOverlap(10);
+
+        List<OnmsLocationSpecificStatus> initial = new ArrayList<OnmsLocationSpecificStatus>();
+        initial.add(createStatus(m_httpService, PollStatus.available(), m_dayStart));
+
+        expect(m_locationMonitorDao.getAllStatusChangesAt(isA(Date.class))).andReturn(initial);
+        expect(m_locationMonitorDao.getStatusChangesBetween(isA(Date.class), isA(Date.class))).andReturn(new ArrayList<OnmsLocationSpecificStatus>());
+
+        // id 2 has been handed out, but commits after id 3
+        OnmsLocationSpecificStatus late = createStatus(m_httpService, PollStatus.unavailable("timeout"), m_dayStart + 2 * HOUR);
+        OnmsLocationSpecificStatus early = createStatus(m_httpsService, PollStatus.available(), m_dayStart + HOUR);
+        expect(m_locationMonitorDao.getStatusChangesAfter(eq(0))).andReturn(initial);
+        expect(m_locationMonitorDao.getStatusChangesAfter(eq(0))).andReturn(Arrays.asList(initial.get(0), early));
+        expect(m_locationMonitorDao.getStatusChangesAfter(eq(0))).andReturn(Arrays.asList(initial.get(0), late, early));
+
+        m_easyMockUtils.replayAll();
+        m_matrix.refresh();
+        m_matrix.refresh();
+        m_matrix.refresh();
+        assertTrue("HTTPS should be available", m_matrix.getMostRecentStatus(m_monitor, m_httpsService).getPollResult().isAvailable());
+        m_matrix.refresh();
+        m_easyMockUtils.verifyAll();
+
+        assertTrue("HTTP should be unavailable after the late change", m_matrix.getMostRecentStatus(m_monitor, m_httpService).getPollResult().isUnavailable());
+
+        // every change is in the history once
+        Collection<OnmsLocationSpecificStatus> statuses = m_matrix.getStatusChanges(Collections.singleton(m_monitor), m_services, new Date(m_dayStart), new Date(m_dayStart + DAY));
+        assertEquals("status changes", 3, statuses.size());
+    }
+
+    public void testStatusChangesMatchDatabasePercentage() {
+        List<OnmsLocationSpecificStatus> initial = new ArrayList<OnmsLocationSpecificStatus>();
+        initial.add(createStatus(m_httpService, PollStatus.available(), m_dayStart - DAY));
+
+        List<OnmsLocationSpecificStatus> recent = new ArrayList<OnmsLocationSpecificStatus>();
+        recent.add(createStatus(m_httpService, PollStatus.available(), m_dayStart));
+        recent.add(createStatus(m_httpsService, PollStatus.unavailable(), m_dayStart));
+        recent.add(createStatus(m_httpsService, PollStatus.available(), m_dayStart + 6 * HOUR));
+        recent.add(createStatus(m_httpService, PollStatus.available(), m_dayStart + DAY));
+
+        expect(m_locationMonitorDao.getAllStatusChangesAt(isA(Date.class))).andReturn(initial);
+        expect(m_locationMonitorDao.getStatusChangesBetween(isA(Date.class), isA(Date.class))).andReturn(recent);
+
+        m_easyMockUtils.replayAll();
+        m_matrix.refresh();
+        m_easyMockUtils.verifyAll();
+
+        Date start = new Date(m_dayStart);
+        Date end = new Date(m_dayStart + DAY);
+        Collection<OnmsLocationSpecificStatus> statuses = m_matrix.getStatusChanges(Collections.singleton(m_monitor), m_services, start, end);
+
+        // HTTP before and at the start, HTTPS down at the start and back up, but not the change at the end
+        assertEquals("status changes", 4, statuses.size());
+        assertEquals("percentage", "75.000%", new DefaultDistributedStatusService().calculatePercentageUptime(m_services, statuses, start, end));
+    }
+
+    private OnmsLocationSpecificStatus createStatus(OnmsMonitoredService service, PollStatus status, long timestamp) {
+        status.setTimestamp(new Date(timestamp));
+        OnmsLocationSpecificStatus locationStatus = new OnmsLocationSpecificStatus(m_monitor, service, status);
+        locationStatus.setId(m_nextId++);
+        return locationStatus;
+    }
+}
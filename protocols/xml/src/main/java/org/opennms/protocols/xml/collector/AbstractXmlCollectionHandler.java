@@ -42,8 +42,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -52,7 +50,6 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -177,44 +174,102 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
      * @throws ParseException the parse exception
      */
     protected void fillCollectionSet(CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source, Document doc) throws XPathExpressionException, ParseException {
-        XPath xpath = XPathFactory.newInstance().newXPath();
+        XPath xpath = XmlParsers.get().getXPath();
         for (XmlGroup group : source.getXmlGroups()) {
             LOG.debug("fillCollectionSet: getting resources for XML group {} using XPATH {}", group.getName(), group.getResourceXpath());
             Date timestamp = getTimeStamp(doc, xpath, group);
-            NodeList resourceList = (NodeList) xpath.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
-            for (int j = 0; j < resourceList.getLength(); j++) {
-                Node resource = resourceList.item(j);
-                String resourceName = getResourceName(xpath, group, resource);
-                LOG.debug("fillCollectionSet: processing XML resource {}", resourceName);
-                XmlCollectionResource collectionResource = getCollectionResource(agent, resourceName, group.getResourceType(), timestamp);
-                AttributeGroupType attribGroupType = new AttributeGroupType(group.getName(), group.getIfType());
-                for (XmlObject object : group.getXmlObjects()) {
-                    String value = (String) xpath.evaluate(object.getXpath(), resource, XPathConstants.STRING);
-                    XmlCollectionAttributeType attribType = new XmlCollectionAttributeType(object, attribGroupType);
-                    collectionResource.setAttributeValue(attribType, value);
+            collectionSet.getCollectionResources().addAll(getCollectionResources(agent, group, doc, timestamp));
+        }
+    }
+
+    /**
+     * Fill collection set from a stream.
+     * <p>The document is read one fragment element at a time (see {@link XmlStreamSplitter}), so the
+     * resource XPaths of the groups must match within a single fragment. The timestamps are evaluated
+     * once the whole document has been read, against everything outside of the fragments.</p>
+     * <p>The resources are added in the same order as {@link #fillCollectionSet(CollectionAgent, XmlCollectionSet, XmlSource, Document)}
+     * would add them.</p>
+     *
+     * @param agent the agent
+     * @param collectionSet the collection set
+     * @param source the source
+     * @param is the input stream
+     * @param fragmentElement the local name of the fragment element
+     * @throws Exception the exception
+     */
+    protected void fillCollectionSet(final CollectionAgent agent, final XmlCollectionSet collectionSet, final XmlSource source, final InputStream is, final String fragmentElement) throws Exception {
+        final List<XmlGroup> groups = source.getXmlGroups();
+        final List<List<XmlCollectionResource>> resources = new ArrayList<List<XmlCollectionResource>>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            resources.add(new ArrayList<XmlCollectionResource>());
+        }
+        Document skeleton = new XmlStreamSplitter(fragmentElement).split(is, new XmlStreamSplitter.FragmentHandler() {
+            @Override
+            public void handleFragment(Document doc) throws Exception {
+                for (int i = 0; i < groups.size(); i++) {
+                    resources.get(i).addAll(getCollectionResources(agent, groups.get(i), doc, null));
+                }
+            }
+        });
+        XPath xpath = XmlParsers.get().getXPath();
+        for (int i = 0; i < groups.size(); i++) {
+            Date timestamp = getTimeStamp(skeleton, xpath, groups.get(i));
+            for (XmlCollectionResource collectionResource : resources.get(i)) {
+                if (timestamp != null) {
+                    collectionResource.setTimeKeeper(new ConstantTimeKeeper(timestamp));
                 }
-                processXmlResource(collectionResource, attribGroupType);
                 collectionSet.getCollectionResources().add(collectionResource);
             }
         }
     }
 
+    /**
+     * Gets the collection resources of a group.
+     *
+     * @param agent the agent
+     * @param group the group
+     * @param doc the doc
+     * @param timestamp the timestamp
+     * @return the collection resources
+     * @throws XPathExpressionException the x path expression exception
+     */
+    private List<XmlCollectionResource> getCollectionResources(CollectionAgent agent, XmlGroup group, Document doc, Date timestamp) throws XPathExpressionException {
+        XmlParsers parsers = XmlParsers.get();
+        List<XmlCollectionResource> collectionResources = new ArrayList<XmlCollectionResource>();
+        NodeList resourceList = (NodeList) parsers.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
+        for (int j = 0; j < resourceList.getLength(); j++) {
+            Node resource = resourceList.item(j);
+            String resourceName = getResourceName(parsers, group, resource);
+            LOG.debug("fillCollectionSet: processing XML resource {}", resourceName);
+            XmlCollectionResource collectionResource = getCollectionResource(agent, resourceName, group.getResourceType(), timestamp);
+            AttributeGroupType attribGroupType = new AttributeGroupType(group.getName(), group.getIfType());
+            for (XmlObject object : group.getXmlObjects()) {
+                String value = (String) parsers.evaluate(object.getXpath(), resource, XPathConstants.STRING);
+                XmlCollectionAttributeType attribType = new XmlCollectionAttributeType(object, attribGroupType);
+                collectionResource.setAttributeValue(attribType, value);
+            }
+            processXmlResource(collectionResource, attribGroupType);
+            collectionResources.add(collectionResource);
+        }
+        return collectionResources;
+    }
+
     /**
      * Gets the resource name.
      *
-     * @param xpath the Xpath
+     * @param parsers the XML parsers
      * @param group the group
      * @param resource the resource
      * @return the resource name
      * @throws XPathExpressionException the x path expression exception
      */
-    private String getResourceName(XPath xpath, XmlGroup group, Node resource) throws XPathExpressionException {
+    private String getResourceName(XmlParsers parsers, XmlGroup group, Node resource) throws XPathExpressionException {
         // Processing multiple-key resource name.
         if (group.hasMultipleResourceKey()) {
             List<String> keys = new ArrayList<String>();
             for (String key : group.getXmlResourceKey().getKeyXpathList()) {
                 LOG.debug("getResourceName: getting key for resource's name using {}", key);
-                Node keyNode = (Node) xpath.evaluate(key, resource, XPathConstants.NODE);
+                Node keyNode = (Node) parsers.evaluate(key, resource, XPathConstants.NODE);
                 keys.add(keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue());
             }
             return StringUtils.join(keys, "_");
@@ -225,7 +280,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
         // Processing single-key resource name.
         LOG.debug("getResourceName: getting key for resource's name using {}", group.getKeyXpath());
-        Node keyNode = (Node) xpath.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
+        Node keyNode = (Node) parsers.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
         return keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue();
     }
 
@@ -265,7 +320,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
      * Gets the time stamp.
      * 
      * @param doc the doc
-     * @param xpath the xpath
+     * @param xpath the xpath (the expression itself is compiled once per thread, see {@link XmlParsers})
      * @param group the group
      * @return the time stamp
      * @throws XPathExpressionException the x path expression exception
@@ -276,7 +331,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
         String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
         LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
-        Node tsNode = (Node) xpath.evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
+        Node tsNode = (Node) XmlParsers.get().evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
         if (tsNode == null) {
             LOG.warn("getTimeStamp: can't find the custom timestamp using XPATH {}",  group.getTimestampXpath());
             return null;
@@ -399,10 +454,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
             is = c.getInputStream();
             is = preProcessHtml(request, is);
             is = applyXsltTransformation(request, is);
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setIgnoringComments(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(is);
+            Document doc = XmlParsers.get().getDocumentBuilder().parse(is);
             UrlFactory.disconnect(c);
             return doc;
         } catch (Exception e) {
@@ -412,6 +464,34 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
     }
 
+    /**
+     * Fill collection set by streaming the XML document.
+     *
+     * @param agent the agent
+     * @param collectionSet the collection set
+     * @param source the source
+     * @param urlString the URL string
+     * @param request the request
+     * @param fragmentElement the local name of the fragment element
+     * @see #fillCollectionSet(CollectionAgent, XmlCollectionSet, XmlSource, InputStream, String)
+     */
+    protected void streamXmlDocument(CollectionAgent agent, XmlCollectionSet collectionSet, XmlSource source, String urlString, Request request, String fragmentElement) {
+        InputStream is = null;
+        try {
+            URL url = UrlFactory.getUrl(urlString, request);
+            URLConnection c = url.openConnection();
+            is = c.getInputStream();
+            is = preProcessHtml(request, is);
+            is = applyXsltTransformation(request, is);
+            fillCollectionSet(agent, collectionSet, source, is, fragmentElement);
+            UrlFactory.disconnect(c);
+        } catch (Exception e) {
+            throw new XmlCollectorException(e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
     /**
      * Apply XSLT transformation.
      *
@@ -41,9 +41,6 @@ import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.commons.io.IOUtils;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.netmgt.collection.api.AttributeGroupType;
@@ -81,6 +78,9 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
     /** The Constant XML_LAST_FILENAME. */
     public static final String XML_LAST_FILENAME = "_xmlCollectorLastFilename";
 
+    /** The element holding each 3GPP measurement group, used as the fragment when streaming. */
+    public static final String MEAS_INFO_ELEMENT = "measInfo";
+
     /** The 3GPP Performance Metric Instance Formats. */
     private Properties m_pmGroups;
 
@@ -109,25 +109,33 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
                 if (lastFile == null) {
                     lastFile = connection.get3gppFileName();
                     LOG.debug("collect(single): retrieving file from {}{}{} from {}", url.getPath(), File.separatorChar, lastFile, agent.getHostAddress());
-                    Document doc = getXmlDocument(urlStr, source.getRequest());
-                    fillCollectionSet(agent, collectionSet, source, doc);
+                    if (isStreaming()) {
+                        streamXmlDocument(agent, collectionSet, source, urlStr, source.getRequest(), MEAS_INFO_ELEMENT);
+                    } else {
+                        Document doc = getXmlDocument(urlStr, source.getRequest());
+                        fillCollectionSet(agent, collectionSet, source, doc);
+                    }
                     setLastFilename(resourceDir, url.getPath(), lastFile);
                     deleteFile(connection, lastFile);
                 } else {
                     connection.connect();
                     List<String> files = connection.getFileList();
                     long lastTs = connection.getTimeStampFromFile(lastFile);
-                    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder builder = factory.newDocumentBuilder();
-                    factory.setIgnoringComments(true);
                     boolean collected = false;
                     for (String fileName : files) {
                         if (connection.getTimeStampFromFile(fileName) > lastTs) {
                             LOG.debug("collect(multiple): retrieving file {} from {}", fileName, agent.getHostAddress());
                             InputStream is = connection.getFile(fileName);
-                            Document doc = builder.parse(is);
-                            IOUtils.closeQuietly(is);
-                            fillCollectionSet(agent, collectionSet, source, doc);
+                            try {
+                                if (isStreaming()) {
+                                    fillCollectionSet(agent, collectionSet, source, is, MEAS_INFO_ELEMENT);
+                                } else {
+                                    Document doc = XmlParsers.get().getDocumentBuilder().parse(is);
+                                    fillCollectionSet(agent, collectionSet, source, doc);
+                                }
+                            } finally {
+                                IOUtils.closeQuietly(is);
+                            }
                             setLastFilename(resourceDir, url.getPath(), fileName);
                             deleteFile(connection, fileName);
                             collected = true;
@@ -147,6 +155,17 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
         }
     }
 
+    /**
+     * Checks if the 3GPP files should be streamed one measInfo at a time, instead of being loaded as a whole.
+     * <p>Streaming keeps memory bounded for large files, but the resource XPaths can only refer to a single
+     * measInfo element and its ancestors (the file header and footer are always available).</p>
+     *
+     * @return true, if streaming is enabled
+     */
+    protected boolean isStreaming() {
+        return Boolean.getBoolean("org.opennms.collectd.xml.3gpp.streaming");
+    }
+
     /**
      * Gets the last filename.
      *
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.protocols.xml.collector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * The per-thread XML parsers of the XML collector.
+ * <p>Neither DocumentBuilder nor XPath objects are thread-safe, but both are
+ * expensive to create, so each collector thread keeps its own DocumentBuilder
+ * and XPath, along with the XPath expressions it has already compiled.</p>
+ */
+public class XmlParsers {
+
+    /** The maximum number of compiled expressions kept per thread. */
+    private static final int MAX_EXPRESSIONS = 1000;
+
+    /** The parsers of each thread. */
+    private static final ThreadLocal<XmlParsers> s_parsers = new ThreadLocal<XmlParsers>() {
+        @Override
+        protected XmlParsers initialValue() {
+            return new XmlParsers();
+        }
+    };
+
+    /** The document builder. */
+    private DocumentBuilder m_documentBuilder;
+
+    /** The XPath. */
+    private final XPath m_xpath = XPathFactory.newInstance().newXPath();
+
+    /** The compiled expressions, least recently used first. */
+    private final Map<String, XPathExpression> m_expressions = new LinkedHashMap<String, XPathExpression>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+            return size() > MAX_EXPRESSIONS;
+        }
+    };
+
+    /**
+     * Instantiates new XML parsers.
+     */
+    private XmlParsers() {}
+
+    /**
+     * Gets the parsers of the current thread.
+     *
+     * @return the XML parsers
+     */
+    public static XmlParsers get() {
+        return s_parsers.get();
+    }
+
+    /**
+     * Gets the document builder, reset to its initial state.
+     *
+     * @return the document builder
+     * @throws ParserConfigurationException the parser configuration exception
+     */
+    public DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        if (m_documentBuilder == null) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setIgnoringComments(true);
+            m_documentBuilder = factory.newDocumentBuilder();
+        } else {
+            m_documentBuilder.reset();
+        }
+        return m_documentBuilder;
+    }
+
+    /**
+     * Gets the XPath.
+     *
+     * @return the XPath
+     */
+    public XPath getXPath() {
+        return m_xpath;
+    }
+
+    /**
+     * Compiles the expression, or returns it from the cache.
+     *
+     * @param expression the XPath expression
+     * @return the compiled expression
+     * @throws XPathExpressionException the XPath expression exception
+     */
+    public XPathExpression compile(String expression) throws XPathExpressionException {
+        XPathExpression compiled = m_expressions.get(expression);
+        if (compiled == null) {
+            compiled = m_xpath.compile(expression);
+            m_expressions.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Evaluates the compiled expression.
+     *
+     * @param expression the XPath expression
+     * @param item the context item
+     * @param returnType the return type
+     * @return the result
+     * @throws XPathExpressionException the XPath expression exception
+     */
+    public Object evaluate(String expression, Object item, QName returnType) throws XPathExpressionException {
+        return compile(expression).evaluate(item, returnType);
+    }
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2013 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2013 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Reads an XML document with StAX, one fragment at a time.
+ * <p>Every element named like the fragment element is built as a DOM subtree and
+ * passed to the handler inside a document that also holds everything read so far
+ * outside of the fragments (like file headers), and the ancestors of the fragment.
+ * The fragment is removed once handled, so memory is bounded by the largest fragment
+ * rather than by the document.</p>
+ * <p>As with the non namespace-aware DOM parser used by the collector, elements and
+ * attributes keep their qualified names, so the same XPath expressions apply. Expressions
+ * that relate two different fragments (like positional predicates on the fragment element)
+ * can't match, because only one fragment is present at a time.</p>
+ */
+public class XmlStreamSplitter {
+
+    /**
+     * The Fragment Handler.
+     */
+    public interface FragmentHandler {
+
+        /**
+         * Handles a fragment.
+         *
+         * @param document the document holding the current fragment
+         * @throws Exception the exception
+         */
+        void handleFragment(Document document) throws Exception;
+    }
+
+    /** The StAX input factory (thread-safe once configured). */
+    private static final XMLInputFactory s_inputFactory = XMLInputFactory.newInstance();
+
+    static {
+        s_inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        s_inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /** The local name of the fragment element. */
+    private final String m_fragmentElement;
+
+    /**
+     * Instantiates a new XML stream splitter.
+     *
+     * @param fragmentElement the local name of the fragment element
+     */
+    public XmlStreamSplitter(String fragmentElement) {
+        m_fragmentElement = fragmentElement;
+    }
+
+    /**
+     * Reads the document.
+     *
+     * @param is the input stream
+     * @param handler the fragment handler
+     * @return the document without the fragments
+     * @throws Exception the exception
+     */
+    public Document split(InputStream is, FragmentHandler handler) throws Exception {
+        final Document doc = XmlParsers.get().getDocumentBuilder().newDocument();
+        final XMLStreamReader reader = s_inputFactory.createXMLStreamReader(is);
+        try {
+            Node current = doc;
+            Element fragment = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element element = doc.createElement(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        element.setAttribute(getQualifiedName("xmlns", reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        element.setAttribute(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+                    }
+                    current.appendChild(element);
+                    current = element;
+                    if (fragment == null && m_fragmentElement.equals(reader.getLocalName())) {
+                        fragment = element;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    final Node parent = current.getParentNode();
+                    if (current == fragment) {
+                        handler.handleFragment(doc);
+                        parent.removeChild(fragment);
+                        fragment = null;
+                    }
+                    current = parent;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    // whitespace between fragments would pile up in the skeleton
+                    if (current != doc && (fragment != null || !reader.isWhiteSpace())) {
+                        current.appendChild(doc.createTextNode(reader.getText()));
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return doc;
+    }
+
+    /**
+     * Gets the qualified name.
+     *
+     * @param prefix the prefix
+     * @param localName the local name
+     * @return the qualified name
+     */
+    private static String getQualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        if (localName == null || localName.length() == 0) {
+            // the default namespace declaration
+            return prefix;
+        }
+        return prefix + ':' + localName;
+    }
+
+}
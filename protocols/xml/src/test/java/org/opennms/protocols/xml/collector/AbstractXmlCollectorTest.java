@@ -113,6 +113,15 @@ public abstract class AbstractXmlCollectorTest {
         return m_xmlCollectionDao;
     }
 
+    /**
+     * Gets the collection agent.
+     *
+     * @return the collection agent
+     */
+    public CollectionAgent getCollectionAgent() {
+        return m_collectionAgent;
+    }
+
     /**
      * Gets the test XML sample file name.
      *
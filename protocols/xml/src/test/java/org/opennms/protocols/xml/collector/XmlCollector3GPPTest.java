@@ -29,18 +29,32 @@
 package org.opennms.protocols.xml.collector;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathFactory;
 
+import org.apache.commons.io.IOUtils;
+
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.support.AbstractCollectionSetVisitor;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.w3c.dom.Document;
 
 /**
  * The Test class for XML Collector for 3GPP Statistics
@@ -104,4 +118,114 @@ public class XmlCollector3GPPTest extends AbstractXmlCollectorTest {
         validateJrb(file, dsnames, dsvalues);
     }
 
+    /**
+     * Test that streaming the 3GPP file produces the same collection set as parsing it as a whole.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testStreamingFillCollectionSet() throws Exception {
+        XmlSource source = getConfigDao().getDataCollectionByName("3GPP").getXmlSources().get(0);
+        MockDefaultXmlCollectionHandler handler = new MockDefaultXmlCollectionHandler();
+
+        XmlCollectionSet domSet = new XmlCollectionSet();
+        handler.fillCollectionSet(getCollectionAgent(), domSet, source, MockDocumentBuilder.getXmlDocument());
+
+        XmlCollectionSet streamSet = new XmlCollectionSet();
+        InputStream is = new FileInputStream(getXmlSampleFileName());
+        try {
+            handler.fillCollectionSet(getCollectionAgent(), streamSet, source, is, Sftp3gppXmlCollectionHandler.MEAS_INFO_ELEMENT);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        Assert.assertFalse(domSet.getCollectionResources().isEmpty());
+        Assert.assertEquals(dump(domSet), dump(streamSet));
+    }
+
+    /**
+     * Benchmark DOM parsing with a new and with a cached document builder, and streaming.
+     * <p>Runs only when <code>org.opennms.collectd.xml.benchmarkIterations</code> is set.</p>
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testParsingBenchmark() throws Exception {
+        int iterations = Integer.getInteger("org.opennms.collectd.xml.benchmarkIterations", 0);
+        Assume.assumeTrue(iterations > 0);
+        final XmlSource source = getConfigDao().getDataCollectionByName("3GPP").getXmlSources().get(0);
+        final MockDefaultXmlCollectionHandler handler = new MockDefaultXmlCollectionHandler();
+
+        for (String mode : new String[] { "dom-new-builder", "dom-cached-builder", "streaming" }) {
+            System.gc();
+            resetPeakUsage();
+            long start = System.nanoTime();
+            int resources = 0;
+            for (int i = 0; i < iterations; i++) {
+                XmlCollectionSet collectionSet = new XmlCollectionSet();
+                InputStream is = new FileInputStream(getXmlSampleFileName());
+                try {
+                    if ("streaming".equals(mode)) {
+                        handler.fillCollectionSet(getCollectionAgent(), collectionSet, source, is, Sftp3gppXmlCollectionHandler.MEAS_INFO_ELEMENT);
+                    } else if ("dom-cached-builder".equals(mode)) {
+                        handler.fillCollectionSet(getCollectionAgent(), collectionSet, source, XmlParsers.get().getDocumentBuilder().parse(is));
+                    } else {
+                        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                        factory.setIgnoringComments(true);
+                        Document doc = factory.newDocumentBuilder().parse(is);
+                        handler.fillCollectionSet(getCollectionAgent(), collectionSet, source, doc);
+                    }
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+                resources += collectionSet.getCollectionResources().size();
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            System.err.printf("%s: %d iterations, %d resources in %d ms, peak heap %d KB%n", mode, iterations, resources, elapsed, getPeakUsage() / 1024);
+        }
+    }
+
+    /**
+     * Dumps the resources and attributes of a collection set.
+     *
+     * @param collectionSet the collection set
+     * @return the dump
+     */
+    private static String dump(XmlCollectionSet collectionSet) {
+        final StringBuilder sb = new StringBuilder();
+        collectionSet.visit(new AbstractCollectionSetVisitor() {
+            @Override
+            public void visitResource(CollectionResource resource) {
+                sb.append(resource.getResourceTypeName()).append('/').append(resource.getInstance());
+                if (resource.getTimeKeeper() instanceof ConstantTimeKeeper) {
+                    sb.append('@').append(resource.getTimeKeeper().getCurrentTime());
+                }
+                sb.append('\n');
+            }
+            @Override
+            public void visitAttribute(CollectionAttribute attribute) {
+                sb.append("  ").append(attribute.getName()).append('=').append(attribute.getStringValue()).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
 }